@@ -273,8 +273,7 @@ final public class Authenticate implements I_RunlevelListener
                returnQos.getSessionQos().setSessionName(info.getSessionName());
                returnQos.setReconnected(true);
                returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_RCVTIMESTAMPSTR, IsoDateParser.getCurrentUTCTimestampNanos());
-               if (info.getSessionQueue() != null)
-                  returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, info.getSessionQueue().getNumOfEntries());
+               returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, info.getCbQueueNumMsgs());
                log.info("Reconnected with given secretSessionId.");
                return returnQos;
             }
@@ -332,8 +331,7 @@ final public class Authenticate implements I_RunlevelListener
                returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_RCVTIMESTAMPSTR, IsoDateParser.getCurrentUTCTimestampNanos());
                info.getDispatchStatistic().incrNumConnect(1);
                info.getDispatchStatistic().touchLastLoginMillis();
-               if (info.getSessionQueue() != null)
-                  returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, info.getSessionQueue().getNumOfEntries());
+               returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, info.getCbQueueNumMsgs());
                log.info("Reconnected with given publicSessionId to '" + info.getSessionName() + "'.");
                return returnQos;
             }
@@ -511,8 +509,7 @@ final public class Authenticate implements I_RunlevelListener
          returnQos.getSessionQos().setSecretSessionId(secretSessionId); // securityInfo is not coded yet !
          returnQos.getSessionQos().setSessionName(sessionInfo.getSessionName());
          returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_RCVTIMESTAMPSTR, IsoDateParser.getCurrentUTCTimestampNanos());
-         if (sessionInfo.getSessionQueue() != null)
-            returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, sessionInfo.getSessionQueue().getNumOfEntries());
+         returnQos.getData().addClientProperty(Constants.CLIENTPROPERTY_CALLBACK_QUEUE_NUM_OF_ENTRIES, sessionInfo.getCbQueueNumMsgs());
 
 
          // Now some nice logging ...
@@ -880,7 +877,7 @@ final public class Authenticate implements I_RunlevelListener
       //}
 
       // with positive sessionId avoid to clear session queue: Such a DisconnectQos flag is currently not existing
-      if (isDisconnecting) sessionInfo.getSessionQueue().clear();
+      if (isDisconnecting) sessionInfo.clearCallbackQueue();
       sessionInfo.shutdown();
 
       sessionInfo = null;
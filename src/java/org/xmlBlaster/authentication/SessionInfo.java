@@ -17,6 +17,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,7 +47,7 @@ import org.xmlBlaster.util.Global;
 import org.xmlBlaster.util.I_Timeout;
 import org.xmlBlaster.util.MsgUnit;
 import org.xmlBlaster.util.SessionName;
-import org.xmlBlaster.util.Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
 import org.xmlBlaster.util.Timestamp;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.admin.extern.JmxMBeanHandle;
@@ -64,6 +65,7 @@ import org.xmlBlaster.util.qos.address.AddressBase;
 import org.xmlBlaster.util.qos.address.CallbackAddress;
 import org.xmlBlaster.util.qos.storage.CbQueueProperty;
 import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
 import org.xmlBlaster.util.queue.I_Storage;
 import org.xmlBlaster.util.queue.I_StorageSizeListener;
 import org.xmlBlaster.util.queue.StorageId;
@@ -100,7 +102,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
    private long instanceId = 0L;
    /** The current connection address from the protocol plugin */
    private ConnectQosServer connectQos;
-   private Timeout expiryTimer;
+   private I_TimeoutManager expiryTimer;
    private Timestamp timerKey;
    private ServerScope glob;
    private static Logger log = Logger.getLogger(SessionInfo.class.getName());
@@ -135,9 +137,22 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
     * <p />
     * Node objects = MsgQueueEntry
     */
-   private I_Queue sessionQueue;
+   private volatile I_Queue sessionQueue;
    private long lastNumEntries = -1L;
 
+   /** true: the callback queue and dispatch manager are created with the first message, see session/lazyCallbackQueue */
+   private boolean lazyCallbackQueue;
+   /** Millis after which an idle, empty callback queue of a lazy session is released again, 0 never */
+   private long callbackQueueIdleRelease;
+   private volatile long lastQueueActivity;
+   private Timestamp idleTimerKey;
+   /** Guards the creation and release of the lazy callback queue */
+   private final Object QUEUE_MONITOR = new Object();
+   /** A put holds the read lock so that the queue is not released under its feet */
+   private final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock();
+   private long numQueueMaterialized;
+   private long numQueueReleased;
+
    // Enforced by I_AdminSubject
    /** Incarnation time of this object instance in millis */
    private long startupTime;
@@ -199,39 +214,24 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       this.connectQos = connectQos;
 
       this.msgErrorHandler = new MsgErrorHandler(glob, this);
-      String type = connectQos.getSessionCbQueueProperty().getType();
-      String version = connectQos.getSessionCbQueueProperty().getVersion();
-      StorageId storageId = new StorageId(glob, this.glob.getDatabaseNodeStr(), Constants.RELATING_CALLBACK,
-            this.sessionName);
-      // old xb_entries
-      // StorageId storageId = new StorageId(glob, Constants.RELATING_CALLBACK,
-      // this.sessionName.getAbsoluteName());
-      if (log.isLoggable(Level.FINE)) log.fine(ME+": Creating callback queue type=" + type + " version=" + version);
-      this.sessionQueue = glob.getQueuePluginManager().getPlugin(type, version, storageId,
-            connectQos.getSessionCbQueueProperty());
-      this.sessionQueue.setNotifiedAboutAddOrRemove(true); // Entries are notified to support reference counting
-      this.sessionQueue.addStorageSizeListener(this);
 
-      // boolean hasCallbackAddress =
-      // this.connectQos.getSessionCbQueueProperty().hasCallbackAddress();
       CallbackAddress[] cba = this.connectQos.getSessionCbQueueProperty().getCallbackAddresses();
-      if (/* hasCallbackAddress && */cba.length > 0) {
-         if (log.isLoggable(Level.FINE)) log.fine(ME+": Creating dispatch manager as ConnectQos contains callback addresses");
-         for (int i=0; i<cba.length; i++) {
-            CallbackAddress cb = cba[i];
-            cb.setSessionName(this.sessionName);
-            cb.addClientProperty(new ClientProperty("__ContextNode", "String", null, this.contextNode.getAbsoluteName()));
-            cb.setFromPersistenceRecovery(connectQos.isFromPersistenceRecovery());
-         }
-         this.dispatchManager = new ServerDispatchManager(this, glob, this.msgErrorHandler,
-                                this.securityCtx, this.sessionQueue, (I_ConnectionStatusListener)null,
-                                cba, this.sessionName);
+      for (int i=0; i<cba.length; i++) {
+         CallbackAddress cb = cba[i];
+         cb.setSessionName(this.sessionName);
+         cb.addClientProperty(new ClientProperty("__ContextNode", "String", null, this.contextNode.getAbsoluteName()));
+         cb.setFromPersistenceRecovery(connectQos.isFromPersistenceRecovery());
       }
- else {
-         // No callback configured (for SOCKET and LOCAL bad as server is
-               // not pinging client to protect leaks)
-         if (log.isLoggable(Level.FINE)) log.fine(ME+": Don't create dispatch manager as ConnectQos contains no callback addresses");
-         this.dispatchManager = null;
+
+      // A recovered session may have entries in its persistent callback queue, they need to be delivered
+      this.lazyCallbackQueue = glob.getProperty().get("session/lazyCallbackQueue", false) && !connectQos.isFromPersistenceRecovery();
+      this.callbackQueueIdleRelease = (this.lazyCallbackQueue) ? glob.getProperty().get("session/callbackQueueIdleRelease", 0L) : 0L;
+      if (this.lazyCallbackQueue) {
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Callback queue is created with the first message");
+         this.statistic = new DispatchStatistic(); // survives the released dispatch managers
+      }
+      else {
+         createCallbackQueue();
       }
       this.expiryTimer = glob.getSessionTimer();
       if (connectQos.getSessionTimeout() > 0L) {
@@ -261,6 +261,202 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       return this.initialized;
    }
 
+   /**
+    * Creates the callback queue and, if callback addresses are configured, the dispatch manager.
+    * @return The new callback queue
+    */
+   private I_Queue createCallbackQueue() throws XmlBlasterException {
+      CbQueueProperty cbQueueProperty = this.connectQos.getSessionCbQueueProperty();
+      String type = cbQueueProperty.getType();
+      String version = cbQueueProperty.getVersion();
+      StorageId storageId = new StorageId(glob, this.glob.getDatabaseNodeStr(), Constants.RELATING_CALLBACK,
+            this.sessionName);
+      // old xb_entries
+      // StorageId storageId = new StorageId(glob, Constants.RELATING_CALLBACK,
+      // this.sessionName.getAbsoluteName());
+      if (log.isLoggable(Level.FINE)) log.fine(ME+": Creating callback queue type=" + type + " version=" + version);
+      I_Queue sessionQueue = glob.getQueuePluginManager().getPlugin(type, version, storageId, cbQueueProperty);
+      sessionQueue.setNotifiedAboutAddOrRemove(true); // Entries are notified to support reference counting
+      sessionQueue.addStorageSizeListener(this);
+      if (!this.lazyCallbackQueue)
+         this.sessionQueue = sessionQueue; // a lazy queue is visible to other threads when its dispatch manager exists
+
+      CallbackAddress[] cba = cbQueueProperty.getCallbackAddresses();
+      if (cba.length > 0) {
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Creating dispatch manager as ConnectQos contains callback addresses");
+         this.dispatchManager = new ServerDispatchManager(this, glob, this.msgErrorHandler,
+                                this.securityCtx, sessionQueue, (I_ConnectionStatusListener)null,
+                                cba, this.sessionName);
+      }
+      else {
+         // No callback configured (for SOCKET and LOCAL bad as server is
+               // not pinging client to protect leaks)
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Don't create dispatch manager as ConnectQos contains no callback addresses");
+         this.dispatchManager = null;
+      }
+      this.sessionQueue = sessionQueue;
+      return sessionQueue;
+   }
+
+   /**
+    * Creates the callback queue of a lazy session if it does not exist yet.
+    * @return The callback queue, never null
+    */
+   private I_Queue materializeCallbackQueue() throws XmlBlasterException {
+      synchronized (this.QUEUE_MONITOR) {
+         I_Queue sessionQueue = this.sessionQueue;
+         if (sessionQueue != null)
+            return sessionQueue;
+         if (isShutdown())
+            throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALSTATE, ME, "The session is shutdown, no callback queue is created");
+         sessionQueue = createCallbackQueue();
+         this.numQueueMaterialized++;
+         this.lastQueueActivity = System.currentTimeMillis();
+         if (this.callbackQueueIdleRelease > 0L && this.idleTimerKey == null)
+            this.idleTimerKey = glob.getSessionTimer().addTimeoutListener(new I_Timeout() {
+                  public void timeout(Object userData) {
+                     idleTimeout();
+                  }
+               }, this.callbackQueueIdleRelease, null);
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Created the lazy callback queue");
+         return sessionQueue;
+      }
+   }
+
+   /**
+    * The idle timer of a lazy session fired: release the queue or check again later.
+    */
+   private void idleTimeout() {
+      long idle = System.currentTimeMillis() - this.lastQueueActivity;
+      long next = this.callbackQueueIdleRelease - idle;
+      if (next <= 0L) {
+         if (releaseCallbackQueue())
+            return;
+         next = this.callbackQueueIdleRelease; // still busy
+      }
+      synchronized (this.QUEUE_MONITOR) {
+         this.idleTimerKey = null;
+         if (!isShutdown() && this.sessionQueue != null)
+            this.idleTimerKey = glob.getSessionTimer().addTimeoutListener(new I_Timeout() {
+                  public void timeout(Object userData) {
+                     idleTimeout();
+                  }
+               }, next, null);
+      }
+   }
+
+   /**
+    * Releases the callback queue and the dispatch manager of a lazy session,
+    * the session falls back to its lightweight state until the next message arrives.
+    * <p>
+    * Only an empty queue is released and only if the client is not connected over the callback,
+    * as shutting down the dispatch manager would close the callback connection.
+    * </p>
+    * @return false if the queue is still in use
+    */
+   boolean releaseCallbackQueue() {
+      if (!this.queueLock.writeLock().tryLock())
+         return false; // a put is running
+      try {
+         I_Queue sessionQueue;
+         ServerDispatchManager dispatchManager;
+         synchronized (this.QUEUE_MONITOR) {
+            sessionQueue = this.sessionQueue;
+            if (sessionQueue == null || isShutdown()) {
+               this.idleTimerKey = null;
+               return true;
+            }
+            if (sessionQueue.getNumOfEntries() > 0)
+               return false;
+            dispatchManager = this.dispatchManager;
+            if (dispatchManager != null && (dispatchManager.getDispatchConnectionsHandler().isAlive()
+                                            || !dispatchManager.isDispatcherActive()
+                                            || dispatchManager.getConnectionStatusListeners().length > 0))
+               return false;
+            this.sessionQueue = null;
+            this.dispatchManager = null;
+            this.idleTimerKey = null;
+            this.lastNumEntries = -1L;
+            this.numQueueReleased++;
+         }
+         if (dispatchManager != null)
+            dispatchManager.shutdown();
+         sessionQueue.removeStorageSizeListener(this);
+         sessionQueue.shutdown();
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Released the idle callback queue");
+         return true;
+      }
+      finally {
+         this.queueLock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Put the entry into the callback queue, a lazy session creates its queue now.
+    */
+   public final void putIntoSessionQueue(I_QueueEntry entry) throws XmlBlasterException {
+      putIntoSessionQueue(entry, null);
+   }
+
+   /**
+    * Put the entries into the callback queue, a lazy session creates its queue now.
+    */
+   public final void putIntoSessionQueue(I_QueueEntry[] entries) throws XmlBlasterException {
+      putIntoSessionQueue(null, entries);
+   }
+
+   private void putIntoSessionQueue(I_QueueEntry entry, I_QueueEntry[] entries) throws XmlBlasterException {
+      boolean locked = this.callbackQueueIdleRelease > 0L;
+      if (locked)
+         this.queueLock.readLock().lock();
+      try {
+         I_Queue sessionQueue = this.sessionQueue;
+         if (sessionQueue == null && this.lazyCallbackQueue)
+            sessionQueue = materializeCallbackQueue();
+         if (sessionQueue == null)
+            throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALSTATE, ME, "No callback queue available");
+         if (locked)
+            this.lastQueueActivity = System.currentTimeMillis();
+         if (entries != null)
+            sessionQueue.put(entries, I_Queue.USE_PUT_INTERCEPTOR);
+         else
+            sessionQueue.put(entry, I_Queue.USE_PUT_INTERCEPTOR);
+      }
+      finally {
+         if (locked)
+            this.queueLock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return true if the callback queue and dispatch manager exist,
+    * false for a lazy session which has not received a message yet or has released its idle queue
+    */
+   public final boolean isCallbackQueueMaterialized() {
+      return this.sessionQueue != null;
+   }
+
+   /**
+    * @return true if the callback queue is created with the first message
+    */
+   public final boolean isLazyCallbackQueue() {
+      return this.lazyCallbackQueue;
+   }
+
+   /**
+    * @return How often the lazy callback queue was created
+    */
+   public final long getNumCallbackQueueMaterialized() {
+      return this.numQueueMaterialized;
+   }
+
+   /**
+    * @return How often the idle lazy callback queue was released
+    */
+   public final long getNumCallbackQueueReleased() {
+      return this.numQueueReleased;
+   }
+
    public final boolean isAlive() {
       return !isShutdown();
    }
@@ -366,6 +562,8 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
     * Check if a callback was configured (if client has passed a callback address on connect).
     */
    public final boolean hasCallback() {
+      if (this.lazyCallbackQueue && this.sessionQueue == null) // created with the first message
+         return this.connectQos.getSessionCbQueueProperty().getCallbackAddresses().length > 0 && isShutdown() == false;
       return this.dispatchManager != null && isShutdown() == false;
    }
 
@@ -444,6 +642,12 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       }
       this.glob.unregisterMBean(this.mbeanHandle);
       removeExpiryTimer();
+      synchronized (this.QUEUE_MONITOR) {
+         if (this.idleTimerKey != null) {
+            this.glob.getSessionTimer().removeTimeoutListener(this.idleTimerKey);
+            this.idleTimerKey = null;
+         }
+      }
 
       I_Queue sessionQueue = this.sessionQueue;
       if (sessionQueue != null) {
@@ -471,6 +675,16 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       return this.dispatchManager;
    }
 
+   /**
+    * @param create true: a lazy session creates its callback queue and dispatch manager now
+    * @return null if no callback is configured
+    */
+   public final ServerDispatchManager getDispatchManager(boolean create) {
+      if (create)
+         getSessionQueue(true);
+      return this.dispatchManager;
+   }
+
    /**
     * @return never null but empty if no callback is configured
     */
@@ -495,7 +709,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
    public final void refreshSession() throws XmlBlasterException {
       if (connectQos.getSessionTimeout() > 0L) {
          synchronized (this.EXPIRY_TIMER_MONITOR) {
-            Timeout expiryTimer = this.expiryTimer;
+            I_TimeoutManager expiryTimer = this.expiryTimer;
             if (expiryTimer != null) {
                this.timerKey = expiryTimer.addOrRefreshTimeoutListener(this, connectQos.getSessionTimeout(), null, this.timerKey);
             }
@@ -540,9 +754,14 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
     */
    public final boolean hasAddress(AddressBase addr) {
       if (addr == null) return false;
-      I_Queue sessionQueue = getSessionQueue();
-      if (sessionQueue == null) return false;
-      CallbackAddress[] arr = ((CbQueueProperty)sessionQueue.getProperties()).getCallbackAddresses();
+      I_Queue sessionQueue = getSessionQueue(false);
+      CallbackAddress[] arr;
+      if (sessionQueue != null)
+         arr = ((CbQueueProperty)sessionQueue.getProperties()).getCallbackAddresses();
+      else if (this.lazyCallbackQueue)
+         arr = this.connectQos.getSessionCbQueueProperty().getCallbackAddresses();
+      else
+         return false;
       for (int ii=0; arr!=null && ii<arr.length; ii++) {
          // if (arr[ii].isSameAddress(addr))
          if (arr[ii].equals(addr))
@@ -570,8 +789,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
     * Put the given message entry into the queue
     */
    public final void queueMessage(MsgQueueEntry entry) throws XmlBlasterException {
-      I_Queue sessionQueue = this.sessionQueue;
-      if (!hasCallback() || sessionQueue == null) {
+      if (!hasCallback()) {
          if (log.isLoggable(Level.FINE)) log.fine(ME+": Queing PtP message without having configured a callback to the client, the client needs to reconnect with a valid callback address later");
          //if (!connectQos.getSessionName().isPubSessionIdUser()) { // client has specified its own publicSessionId (> 0)
          //   throw new XmlBlasterException(glob, ErrorCode.USER_CONFIGURATION, ME, "No callback server is configured, can't callback client to send message " + entry.getKeyOid());
@@ -584,7 +802,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
             this.transientWarn = true;
          }
       }
-      sessionQueue.put(entry, I_Queue.USE_PUT_INTERCEPTOR);
+      putIntoSessionQueue(entry);
 
       I_Checkpoint cp = glob.getCheckpointPlugin();
       if (cp != null) {
@@ -613,8 +831,15 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       }
 
       CbQueueProperty cbQueueProperty = newConnectQos.getSessionCbQueueProperty();
-      I_Queue sessionQueue = this.sessionQueue;
-      if (sessionQueue != null) sessionQueue.setProperties(cbQueueProperty);
+      synchronized (this.QUEUE_MONITOR) {
+         I_Queue sessionQueue = this.sessionQueue;
+         if (sessionQueue == null && this.lazyCallbackQueue) {
+            // The queue is created with the new settings when the next message arrives
+            if (log.isLoggable(Level.FINE)) log.fine(ME+": Reconfigured the lazy session, callback queue does not exist yet");
+            return;
+         }
+         if (sessionQueue != null) sessionQueue.setProperties(cbQueueProperty);
+      }
       if (wantsCallbacks && hasCallback()) {
          ServerDispatchManager dispatchManager = this.dispatchManager;
          if (dispatchManager != null) {
@@ -624,14 +849,18 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
          }
       }
       else if (wantsCallbacks && !hasCallback()) {
-         log.info(ME+": Successfully reconfigured and created dispatch manager with given callback address");
-         ServerDispatchManager tmpDispatchManager = new ServerDispatchManager(this, glob, this.msgErrorHandler,
-                              this.securityCtx, this.sessionQueue, (I_ConnectionStatusListener)null,
-                              newConnectQos.getSessionCbQueueProperty().getCallbackAddresses(), this.sessionName);
-         ServerDispatchManager dispatchManager = this.dispatchManager;
-         if (dispatchManager != null)
-            tmpDispatchManager.setDispatcherActive(dispatchManager.isDispatcherActive());
-         this.dispatchManager = tmpDispatchManager;
+         synchronized (this.QUEUE_MONITOR) {
+            if (this.sessionQueue == null) // the lazy queue was released meanwhile
+               return;
+            log.info(ME+": Successfully reconfigured and created dispatch manager with given callback address");
+            ServerDispatchManager tmpDispatchManager = new ServerDispatchManager(this, glob, this.msgErrorHandler,
+                                 this.securityCtx, this.sessionQueue, (I_ConnectionStatusListener)null,
+                                 newConnectQos.getSessionCbQueueProperty().getCallbackAddresses(), this.sessionName);
+            ServerDispatchManager dispatchManager = this.dispatchManager;
+            if (dispatchManager != null)
+               tmpDispatchManager.setDispatcherActive(dispatchManager.isDispatcherActive());
+            this.dispatchManager = tmpDispatchManager;
+         }
       }
       else if (!wantsCallbacks && hasCallback()) {
          ServerDispatchManager dispatchManager = this.dispatchManager;
@@ -686,7 +915,25 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
     * @return null if no callback was configured
     */
    public I_Queue getSessionQueue() {
-      return this.sessionQueue;
+      return getSessionQueue(true);
+   }
+
+   /**
+    * @param create true: a lazy session creates its callback queue now,
+    * false: returns null if it has none (for example for administrative read access)
+    * @return null if no callback was configured
+    */
+   public I_Queue getSessionQueue(boolean create) {
+      I_Queue sessionQueue = this.sessionQueue;
+      if (sessionQueue != null || !create || !this.lazyCallbackQueue)
+         return sessionQueue;
+      try {
+         return materializeCallbackQueue();
+      }
+      catch (XmlBlasterException e) {
+         log.warning(ME+": Creating the callback queue failed: " + e.getMessage());
+         return null;
+      }
    }
 
    /**
@@ -760,7 +1007,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
 
       sb.append(offset).append("<SessionInfo id='").append(getId());
 
-      Timeout expiryTimer = this.expiryTimer;
+      I_TimeoutManager expiryTimer = this.expiryTimer;
       long timeToLife = (expiryTimer != null) ? expiryTimer.spanToTimeout(timerKey) : 0;
       sb.append("' timeout='").append(timeToLife).append("'>");
 
@@ -802,8 +1049,9 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
    }
 
    public final String getConnectionState() {
-      if (this.dispatchManager != null) {
-         return this.dispatchManager.getDispatchConnectionsHandler().getState().toString();
+      ServerDispatchManager dispatchManager = this.dispatchManager;
+      if (dispatchManager != null) {
+         return dispatchManager.getDispatchConnectionsHandler().getState().toString();
       }
       else {
          return "UNDEF";
@@ -829,8 +1077,9 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
 
    // JMX
    public final String getAliveSinceDate() {
-      if (this.dispatchManager == null) return "";
-      long ll = this.dispatchManager.getAliveSinceTime();
+      ServerDispatchManager dispatchManager = this.dispatchManager;
+      if (dispatchManager == null) return "";
+      long ll = dispatchManager.getAliveSinceTime();
       if (ll == 0) return "";
       java.sql.Timestamp tt = new java.sql.Timestamp(ll);
       return tt.toString();
@@ -838,8 +1087,9 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
 
    // JMX
    public final String getPollingSinceDate() {
-      if (this.dispatchManager == null) return "";
-      long ll = this.dispatchManager.getPollingSinceTime();
+      ServerDispatchManager dispatchManager = this.dispatchManager;
+      if (dispatchManager == null) return "";
+      long ll = dispatchManager.getPollingSinceTime();
       if (ll == 0) return "";
       java.sql.Timestamp tt = new java.sql.Timestamp(ll);
       return tt.toString();
@@ -886,13 +1136,15 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
    }
 
    public final long getCbQueueNumMsgs() {
-      if (this.sessionQueue == null) return 0L;
-      return this.sessionQueue.getNumOfEntries();
+      I_Queue sessionQueue = this.sessionQueue;
+      if (sessionQueue == null) return 0L;
+      return sessionQueue.getNumOfEntries();
    }
 
    public final long getCbQueueBytes() {
-      if (this.sessionQueue == null) return 0L;
-      return this.sessionQueue.getNumOfBytes();
+      I_Queue sessionQueue = this.sessionQueue;
+      if (sessionQueue == null) return 0L;
+      return sessionQueue.getNumOfBytes();
    }
 
    public final long getCbQueueBytesCache() {
@@ -920,8 +1172,9 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
    }
 
    public final long getCbQueueMaxMsgs() {
-      if (this.sessionQueue == null) return 0L;
-      return this.sessionQueue.getMaxNumOfEntries();
+      I_Queue sessionQueue = this.sessionQueue;
+      if (sessionQueue == null) return 0L;
+      return sessionQueue.getMaxNumOfEntries();
    }
 
    public final long getCbQueueMaxMsgsCache() {
@@ -957,6 +1210,22 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
       return getDispatchStatistic().getRoundTripDelay();
    }
 
+   public int getBurstModeMaxEntries() {
+      return getDispatchStatistic().getBurstModeMaxEntries();
+   }
+
+   public long getBurstModeCollectTime() {
+      return getDispatchStatistic().getBurstModeCollectTime();
+   }
+
+   public long getAvgSendLatency() {
+      return getDispatchStatistic().getAvgSendLatency();
+   }
+
+   public long getAckRate() {
+      return getDispatchStatistic().getAckRate();
+   }
+
    public final String[] getSubscribedTopics() {
       SubscriptionInfo[] subs = glob.getRequestBroker().getClientSubscriptions().getSubscriptions(this);
       String[] arr = new String[subs.length];
@@ -1205,7 +1474,7 @@ public final class SessionInfo implements I_Timeout, I_StorageSizeListener
             }
          }
       }
-      return this.queueQueryPlugin.query(this.sessionQueue, query);
+      return this.queueQueryPlugin.query(getSessionQueue(), query); // may wait for new entries
    }
 
    /** JMX Enforced by ConnectQosDataMBean interface. */
@@ -153,6 +153,22 @@ public class SessionInfoProtector implements SessionInfoProtectorMBean /*I_Admin
       return this.sessionInfo.getRoundTripDelay();
    }
 
+   public int getBurstModeMaxEntries() {
+      return this.sessionInfo.getBurstModeMaxEntries();
+   }
+
+   public long getBurstModeCollectTime() {
+      return this.sessionInfo.getBurstModeCollectTime();
+   }
+
+   public long getAvgSendLatency() {
+      return this.sessionInfo.getAvgSendLatency();
+   }
+
+   public long getAckRate() {
+      return this.sessionInfo.getAckRate();
+   }
+
    public final String[] getSubscribedTopics() {
       return this.sessionInfo.getSubscribedTopics();
    }
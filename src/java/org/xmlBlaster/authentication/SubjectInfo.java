@@ -708,8 +708,10 @@ public final class SubjectInfo extends NotificationBroadcasterSupport /* impleme
       SessionInfo[] sessions = getSessions();
       for (int i=0; i<sessions.length; i++) {
          SessionInfo sessionInfo = sessions[i];
+         if (!sessionInfo.getConnectQos().isPtpAllowed() || !sessionInfo.hasCallback())
+            continue;
          I_Queue sessionQueue = sessionInfo.getSessionQueue();
-         if (sessionInfo.getConnectQos().isPtpAllowed() && sessionInfo.hasCallback() && sessionQueue != null) {
+         if (sessionQueue != null) {
             if (log.isLoggable(Level.FINE)) log.fine(ME+": Forwarding msg " + entry.getLogId() + " from " +
                           this.subjectQueue.getStorageId() + " size=" + this.subjectQueue.getNumOfEntries() +
                           " to session queue " + sessionQueue.getStorageId() +
@@ -841,7 +843,7 @@ public final class SubjectInfo extends NotificationBroadcasterSupport /* impleme
          for (int i=0; i<sessions.length; i++) {
             SessionInfo ses = sessions[i];
             if (ses.hasCallback()) {
-               CallbackAddress[] arr = ((CbQueueProperty)ses.getSessionQueue().getProperties()).getCallbackAddresses();
+               CallbackAddress[] arr = ses.getConnectQos().getSessionCbQueueProperty().getCallbackAddresses();
                for (int ii=0; arr!=null && ii<arr.length; ii++) {
                   if (arr[ii].useForSubjectQueue() == true)
                      set.add(arr[ii]);
@@ -24,6 +24,7 @@ import org.xmlBlaster.util.dispatch.ConnectionStateEnum;
 import org.xmlBlaster.util.dispatch.DispatchConnection;
 import org.xmlBlaster.util.dispatch.DispatchConnectionsHandler;
 import org.xmlBlaster.util.dispatch.DispatchStatistic;
+import org.xmlBlaster.util.dispatch.DispatchWindow;
 import org.xmlBlaster.util.dispatch.DispatchWorker;
 import org.xmlBlaster.util.dispatch.I_ConnectionStatusListener;
 import org.xmlBlaster.util.dispatch.I_DispatchManager;
@@ -1074,6 +1075,14 @@ public final class ClientDispatchManager implements I_DispatchManager
       return this.msgInterceptor;
    }
 
+   /**
+    * The client side sends one bulk at a time.
+    * @return null
+    */
+   public DispatchWindow getDispatchWindow() {
+      return null;
+   }
+
    /**
     * Set new callback addresses, typically after a session login/logout
     */
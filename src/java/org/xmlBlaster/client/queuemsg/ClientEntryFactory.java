@@ -6,11 +6,8 @@ Comment:   Implementation for the I_EntryFactory
 ------------------------------------------------------------------------------*/
 package org.xmlBlaster.client.queuemsg;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +28,7 @@ import org.xmlBlaster.util.def.PriorityEnum;
 import org.xmlBlaster.util.key.MsgKeyData;
 import org.xmlBlaster.util.qos.ConnectQosData;
 import org.xmlBlaster.util.qos.MsgQosData;
+import org.xmlBlaster.util.queue.EntryCodec;
 import org.xmlBlaster.util.queue.I_Entry;
 import org.xmlBlaster.util.queue.I_EntryFactory;
 import org.xmlBlaster.util.queue.StorageId;
@@ -54,17 +52,15 @@ public class ClientEntryFactory implements I_EntryFactory
    private final static String ME = "ClientEntryFactory";
    private Global glob = null;
    private static Logger log = Logger.getLogger(ClientEntryFactory.class.getName());
+   /** true: toBlob() uses EntryCodec binary format, false: java.io.Serializable */
+   private boolean binaryCodec = false;
 
    /**
     * Parses the specified entry to a byte array (serializing).
     */
    public byte[] toBlob(I_Entry entry) throws XmlBlasterException {
       try {
-         Object obj = entry.getEmbeddedObject();
-         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-         ObjectOutputStream objStream = new ObjectOutputStream(baos);
-         objStream.writeObject(obj);
-         return baos.toByteArray();
+         return EntryCodec.encode(entry.getEmbeddedObject(), this.binaryCodec);
       }
       catch (IOException ex) {
          log.severe("toBlob: " + ex.getMessage());
@@ -83,8 +79,7 @@ public class ClientEntryFactory implements I_EntryFactory
       MethodName methodName = MethodName.toMethodName(type);
 
       try {
-         ObjectInputStream objStream = new ObjectInputStream(is);
-         Object[] obj = (Object[])objStream.readObject();
+         Object[] obj = (Object[])EntryCodec.decode(is);
 
          if (methodName == MethodName.PUBLISH_ONEWAY || methodName == MethodName.PUBLISH) {
             if (obj.length != 3) {
@@ -193,7 +188,8 @@ public class ClientEntryFactory implements I_EntryFactory
     */
    public void initialize(Global glob) {
       this.glob = glob;
-      if (log.isLoggable(Level.FINE)) log.fine("successfully initialized");
+      this.binaryCodec = EntryCodec.isBinary(glob.getProperty().get(EntryCodec.CODEC_PROPERTY, EntryCodec.CODEC_SERIAL));
+      if (log.isLoggable(Level.FINE)) log.fine("successfully initialized, binaryCodec=" + this.binaryCodec);
    }
 
    /**
@@ -132,6 +132,13 @@ public class DbWaitingPool implements I_DbPool {
       }
    }
    
+   /**
+    * @return The wrapped pool or null if not initialized
+    */
+   public JdbcConnectionPool getConnectionPool() {
+      return this.connectionPool;
+   }
+
    public String getUser() {
       return this.dbUser;
    }
@@ -6,6 +6,7 @@ Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
 package org.xmlBlaster.engine;
 
 import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.xml2java.XPathSubscriptionIndex;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -66,6 +67,12 @@ public class ClientSubscriptions implements I_ClientListener, I_SubscriptionList
     */
    final private Set querySubscribeRequestsSet = Collections.synchronizedSet(new HashSet());
 
+   /**
+    * Same content as querySubscribeRequestsSet, but indexed by the XPath query
+    * to quickly find the subscriptions matching a new topic.
+    */
+   final private XPathSubscriptionIndex xpathSubscriptionIndex = new XPathSubscriptionIndex();
+
 
    /**
     * Exactly one instance for each xmlBlaster server.
@@ -90,6 +97,15 @@ public class ClientSubscriptions implements I_ClientListener, I_SubscriptionList
       return querySubscribeRequestsSet;
    }
 
+   /**
+    * All known XPath subscriptions indexed by their query,
+    * used to check if a new topic matches existing subscriptions.
+    */
+   public XPathSubscriptionIndex getXPathSubscriptionIndex()
+   {
+      return xpathSubscriptionIndex;
+   }
+
    /**
     * If you have the unique id of a subscription, you may access the
     * SubscriptionInfo object here.
@@ -484,6 +500,7 @@ public class ClientSubscriptions implements I_ClientListener, I_SubscriptionList
          obj=null;
          synchronized(querySubscribeRequestsSet) {
             querySubscribeRequestsSet.add(subscriptionInfo);
+            xpathSubscriptionIndex.add(keyData.isXPath() ? keyData.getQueryString() : null, subscriptionInfo);
          }
       }
    }
@@ -609,6 +626,7 @@ public class ClientSubscriptions implements I_ClientListener, I_SubscriptionList
          for (int ii=0; ii<vec.size(); ii++) {
         	SubscriptionInfo si = vec.get(ii);
             boolean found = querySubscribeRequestsSet.remove(si);
+            xpathSubscriptionIndex.remove(si);
             if (log.isLoggable(Level.FINE)) log.fine("Removed " + found + " subscription " + ((SubscriptionInfo)vec.get(ii)).getSubscriptionId() + " from querySubscribeRequestsSet");
          }
       }
@@ -881,7 +881,7 @@ public class EventPlugin extends NotificationBroadcasterSupport implements
             ClientProperty[] props = sessionInfo.getRemotePropertyArr();
             for (int p=0; p<props.length; p++)
                buf.append(props[p].toXml("   ", "remoteProperty", true));
-            I_Queue sessionQueue = sessionInfo.getSessionQueue();
+            I_Queue sessionQueue = sessionInfo.getSessionQueue(false);
             if (sessionQueue != null) {
                buf.append("\n    <queue relating='callback'");
                buf.append(" numOfEntries='").append(sessionQueue.getNumOfEntries()).append("'");
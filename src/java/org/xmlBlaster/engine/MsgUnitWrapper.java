@@ -16,7 +16,7 @@ import org.xmlBlaster.engine.queuemsg.ServerEntryFactory;
 import org.xmlBlaster.util.Global;
 import org.xmlBlaster.util.I_Timeout;
 import org.xmlBlaster.util.MsgUnit;
-import org.xmlBlaster.util.Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
 import org.xmlBlaster.util.Timestamp;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.def.Constants;
@@ -69,7 +69,7 @@ public final class MsgUnitWrapper implements I_MapEntry, I_Timeout, I_ChangeCall
     * The timer is activated on state change to UNREFERENCED
     * and removed on change to ALIVE
     */
-   private transient Timeout destroyTimer;
+   private transient I_TimeoutManager destroyTimer;
    private transient Timestamp timerKey = null;
 
    private final static int ALIVE = 0;
@@ -198,7 +198,7 @@ public final class MsgUnitWrapper implements I_MapEntry, I_Timeout, I_ChangeCall
     */
    public void finalize() {
       try {
-         Timeout dt = this.destroyTimer;
+         I_TimeoutManager dt = this.destroyTimer;
          Timestamp tk = this.timerKey;
          this.destroyTimer = null;
          this.timerKey = null;
@@ -276,7 +276,7 @@ public final class MsgUnitWrapper implements I_MapEntry, I_Timeout, I_ChangeCall
 
       if (this.referenceCounter > 0L) {
          if (ReferenceEntry.STRICT_REFERENCE_COUNTING) {
-            if (count != 0) this.glob.getTopicAccessor().changeDirtyRead(this);
+            if (count != 0) this.glob.getTopicAccessor().changeDirtyRead(this, count < 0);
          }
       }
       else {
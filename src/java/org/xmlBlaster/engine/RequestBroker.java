@@ -17,6 +17,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -375,6 +376,11 @@ public final class RequestBroker extends NotificationBroadcasterSupport
       }
 
       if (to < from) { // shutdown
+         if (to == RunlevelManager.RUNLEVEL_CLEANUP_PRE) {
+            TopicAccessor topicAccessor = this.glob.getTopicAccessor();
+            if (topicAccessor != null)
+               topicAccessor.flushReferenceCounters(); // the delayed reference counter writes of the message stores
+         }
          if (to == RunlevelManager.RUNLEVEL_HALTED) {
             XbNotifyHandler.instance().unregister(Level.WARNING.intValue(), this);
             XbNotifyHandler.instance().unregister(Level.SEVERE.intValue(), this);
@@ -450,16 +456,15 @@ public final class RequestBroker extends NotificationBroadcasterSupport
             //this.topicStore = new org.xmlBlaster.engine.msgstore.ram.MapPlugin();
             log.info("Activated storage '" + this.topicStore.getStorageId() + "' for persistent topics, found " + this.topicStore.getNumOfEntries() + " topics to recover.");
 
-            MsgUnitStoreProperty limitM = new MsgUnitStoreProperty(glob, null); // The current limit from xmlBlaster.properties
-            HistoryQueueProperty limitH = new HistoryQueueProperty(glob, null); // The current limit
+            final MsgUnitStoreProperty limitM = new MsgUnitStoreProperty(glob, null); // The current limit from xmlBlaster.properties
+            final HistoryQueueProperty limitH = new HistoryQueueProperty(glob, null); // The current limit
             I_MapEntry[] mapEntryArr = this.topicStore.getAll(null);
-            boolean fromPersistenceStore = true;
+            // The duplicates are removed first, the others are recovered in parallel
+            ArrayList toRecover = new ArrayList(mapEntryArr.length);
+            HashSet oids = new HashSet(mapEntryArr.length);
             for(int i=0; i<mapEntryArr.length; i++) {
                TopicEntry topicEntry = (TopicEntry)mapEntryArr[i];
-               PublishQosServer publishQosServer = new PublishQosServer(glob,
-                       (MsgQosData)topicEntry.getMsgUnit().getQosData(), fromPersistenceStore);
-               publishQosServer.setTopicEntry(topicEntry); // Misuse PublishQosServer to transport the topicEntry
-               boolean existsAlready = (glob.getTopicAccessor().accessDirtyRead(topicEntry.getKeyOid()) != null);
+               boolean existsAlready = !oids.add(topicEntry.getKeyOid()) || (glob.getTopicAccessor().accessDirtyRead(topicEntry.getKeyOid()) != null);
                if (existsAlready) {
                   log.warning("Removing duplicate of topic '" + topicEntry.getLogId() + "' from persistence store");
                   try {
@@ -470,50 +475,60 @@ public final class RequestBroker extends NotificationBroadcasterSupport
                   }
                   continue;
                }
-               try {
-                  // Check limits
-                  TopicProperty topicProps = ((MsgQosData)topicEntry.getMsgUnit().getQosData()).getTopicProperty();
-                  if (topicProps != null && topicProps.getMsgUnitStoreProperty() != null) {
-                     MsgUnitStoreProperty p = topicProps.getMsgUnitStoreProperty();
-                     if (p.getMaxBytes() < limitM.getMaxBytes()) { // How to prevent a smaller limit than actual bytes on HD?
-                        p.setMaxBytes(limitM.getMaxBytes());
-                     }
-                     if (p.getMaxBytesCache() < limitM.getMaxBytesCache()) {
-                        p.setMaxBytesCache(limitM.getMaxBytesCache());
-                     }
-                     if (p.getMaxEntries() < limitM.getMaxEntries()) { // How to prevent a smaller limit than actual entries on HD?
-                        p.setMaxEntries(limitM.getMaxEntries());
-                     }
-                     if (p.getMaxEntriesCache() < limitM.getMaxEntriesCache()) {
-                        p.setMaxEntriesCache(limitM.getMaxEntriesCache());
-                     }
-                  }
+               toRecover.add(topicEntry);
+            }
 
-                  if (topicProps != null && topicProps.getHistoryQueueProperty() != null) {
-                     HistoryQueueProperty h = topicProps.getHistoryQueueProperty();
-                     if (h.getMaxBytes() < limitH.getMaxBytes()) {
-                        h.setMaxBytes(limitH.getMaxBytes());
-                     }
-                     if (h.getMaxBytesCache() < limitH.getMaxBytesCache()) {
-                        h.setMaxBytesCache(limitH.getMaxBytesCache());
-                     }
-                     if (h.getMaxEntries() < limitH.getMaxEntries()) {
-                        h.setMaxEntries(limitH.getMaxEntries());
-                     }
-                     if (h.getMaxEntriesCache() < limitH.getMaxEntriesCache()) {
-                        h.setMaxEntriesCache(limitH.getMaxEntriesCache());
+            new StartupRecovery(glob).recover("topics", toRecover.toArray(), new StartupRecovery.I_RecoveryTask() {
+               public void recover(Object entry) throws XmlBlasterException {
+                  TopicEntry topicEntry = (TopicEntry)entry;
+                  boolean fromPersistenceStore = true;
+                  PublishQosServer publishQosServer = new PublishQosServer(glob,
+                          (MsgQosData)topicEntry.getMsgUnit().getQosData(), fromPersistenceStore);
+                  publishQosServer.setTopicEntry(topicEntry); // Misuse PublishQosServer to transport the topicEntry
+                  try {
+                     // Check limits
+                     TopicProperty topicProps = ((MsgQosData)topicEntry.getMsgUnit().getQosData()).getTopicProperty();
+                     if (topicProps != null && topicProps.getMsgUnitStoreProperty() != null) {
+                        MsgUnitStoreProperty p = topicProps.getMsgUnitStoreProperty();
+                        if (p.getMaxBytes() < limitM.getMaxBytes()) { // How to prevent a smaller limit than actual bytes on HD?
+                           p.setMaxBytes(limitM.getMaxBytes());
+                        }
+                        if (p.getMaxBytesCache() < limitM.getMaxBytesCache()) {
+                           p.setMaxBytesCache(limitM.getMaxBytesCache());
+                        }
+                        if (p.getMaxEntries() < limitM.getMaxEntries()) { // How to prevent a smaller limit than actual entries on HD?
+                           p.setMaxEntries(limitM.getMaxEntries());
+                        }
+                        if (p.getMaxEntriesCache() < limitM.getMaxEntriesCache()) {
+                           p.setMaxEntriesCache(limitM.getMaxEntriesCache());
+                        }
                      }
-                  }
 
+                     if (topicProps != null && topicProps.getHistoryQueueProperty() != null) {
+                        HistoryQueueProperty h = topicProps.getHistoryQueueProperty();
+                        if (h.getMaxBytes() < limitH.getMaxBytes()) {
+                           h.setMaxBytes(limitH.getMaxBytes());
+                        }
+                        if (h.getMaxBytesCache() < limitH.getMaxBytesCache()) {
+                           h.setMaxBytesCache(limitH.getMaxBytesCache());
+                        }
+                        if (h.getMaxEntries() < limitH.getMaxEntries()) {
+                           h.setMaxEntries(limitH.getMaxEntries());
+                        }
+                        if (h.getMaxEntriesCache() < limitH.getMaxEntriesCache()) {
+                           h.setMaxEntriesCache(limitH.getMaxEntriesCache());
+                        }
+                     }
 
-                  publish(unsecureSessionInfo, topicEntry.getMsgUnit(), publishQosServer);
-                  // Called after sessions/subscriptions are recovered from SessionPersistencePlugin:
-                  //   glob.getTopicAccessor().spanTopicDestroyTimeout();
-               }
-               catch (XmlBlasterException e) {
-                  log.severe("Restoring topic '" + topicEntry.getMsgUnit().getKeyOid() + "' from persistency failed: " + e.getMessage());
+                     publish(unsecureSessionInfo, topicEntry.getMsgUnit(), publishQosServer);
+                     // Called after sessions/subscriptions are recovered from SessionPersistencePlugin:
+                     //   glob.getTopicAccessor().spanTopicDestroyTimeout();
+                  }
+                  catch (XmlBlasterException e) {
+                     log.severe("Restoring topic '" + topicEntry.getMsgUnit().getKeyOid() + "' from persistency failed: " + e.getMessage());
+                  }
                }
-            }
+            });
          }
          else {
             log.info("Reconfiguring topics store.");
@@ -1610,29 +1625,7 @@ public final class RequestBroker extends NotificationBroadcasterSupport
          PublishReturnQos publishReturnQos = null;
 
          if (! publishQos.isFromPersistenceStore()) {
-
-            if (publishQos.getSender() == null) // In cluster routing don't overwrite the original sender
-               publishQos.setSender(sessionInfo.getSessionName());
-
-            if (!myselfLoginName.getLoginName().equals(sessionInfo.getSessionName().getLoginName())) {
-               // TODO: allow for cluster internal messages?
-               // TODO: what about different sessions of myselfLoginName?
-               int hopCount = publishQos.count(glob.getNodeId());
-               if (hopCount > 0) {
-                  String text = "Warning, message oid='" + msgKeyData.getOid()
-                     + "' passed my node id='" + glob.getId() + "' " + hopCount + " times before, we have a circular routing problem " +
-                     " mySelf=" + myselfLoginName.getAbsoluteName() + " sessionName=" +
-                     sessionInfo.getSessionName().getAbsoluteName();
-                  if (publishQos.isPtp() && publishQos.getDestinationArr().length > 0) {
-                     text += ", does the destination cluster node '" + publishQos.getDestinationArr()[0].getDestination() + "' exist?";
-                  }
-                  log.warning(text);
-                  throw new XmlBlasterException(glob, ErrorCode.RESOURCE_CLUSTER_CIRCULARLOOP, ME, text + " Your QoS:" + publishQos.toXml(""));
-               }
-               int stratum = -1; // not known yet, addRouteInfo() sets my stratum to one closer to the master,
-                                 // this needs to be checked here as soon as we know which stratum we are!!
-               publishQos.addRouteInfo(new RouteInfo(glob.getNodeId(), stratum, publishQos.getRcvTimestamp()));
-            }
+            addRouteInfo(sessionInfo, msgKeyData, publishQos);
          }
 
          this.dispatchStatistic.incrNumPublish(1);
@@ -1926,6 +1919,137 @@ public final class RequestBroker extends NotificationBroadcasterSupport
       }
    }
 
+   /**
+    * Sets the sender and checks and adds the cluster route information of a new message.
+    */
+   private void addRouteInfo(SessionInfo sessionInfo, MsgKeyData msgKeyData, PublishQosServer publishQos) throws XmlBlasterException {
+      if (publishQos.getSender() == null) // In cluster routing don't overwrite the original sender
+         publishQos.setSender(sessionInfo.getSessionName());
+
+      if (!myselfLoginName.getLoginName().equals(sessionInfo.getSessionName().getLoginName())) {
+         // TODO: allow for cluster internal messages?
+         // TODO: what about different sessions of myselfLoginName?
+         int hopCount = publishQos.count(glob.getNodeId());
+         if (hopCount > 0) {
+            String text = "Warning, message oid='" + msgKeyData.getOid()
+               + "' passed my node id='" + glob.getId() + "' " + hopCount + " times before, we have a circular routing problem " +
+               " mySelf=" + myselfLoginName.getAbsoluteName() + " sessionName=" +
+               sessionInfo.getSessionName().getAbsoluteName();
+            if (publishQos.isPtp() && publishQos.getDestinationArr().length > 0) {
+               text += ", does the destination cluster node '" + publishQos.getDestinationArr()[0].getDestination() + "' exist?";
+            }
+            log.warning(text);
+            throw new XmlBlasterException(glob, ErrorCode.RESOURCE_CLUSTER_CIRCULARLOOP, ME, text + " Your QoS:" + publishQos.toXml(""));
+         }
+         int stratum = -1; // not known yet, addRouteInfo() sets my stratum to one closer to the master,
+                           // this needs to be checked here as soon as we know which stratum we are!!
+         publishQos.addRouteInfo(new RouteInfo(glob.getNodeId(), stratum, publishQos.getRcvTimestamp()));
+      }
+   }
+
+   /**
+    * Publishes the messages of one client invocation (publishArr() or several messages in one XBF message).
+    * <p />
+    * Consecutive Pub/Sub messages of the same topic are passed to TopicHandler.publishArr() together:
+    * The topic is looked up and locked once and the history queue and every callback
+    * queue get the messages with one put() (persistent entries are written in one JDBC batch).
+    * All other messages (PtP, administrative, cluster forwarding, publish plugins, ...) are
+    * published one by one as before, the order of the messages is kept.
+    * <p />
+    * The processing stops at the first failing message and its exception is thrown.
+    * @param offset The index of the first message to publish
+    * @param retArr Is filled with the return QoS of the published messages,
+    *        the first index which stays null is the failing message
+    * @see <a href="http://www.xmlBlaster.org/xmlBlaster/doc/requirements/interface.publish.html">The interface.publish requirement</a>
+    */
+   public final void publishArr(SessionInfo sessionInfo, MsgUnit[] msgUnitArr, int offset, String[] retArr) throws XmlBlasterException {
+      int ii = offset;
+      while (ii < msgUnitArr.length) {
+         int end = ii + 1;
+         if (isBatchPublishable(msgUnitArr[ii])) {
+            String oid = msgUnitArr[ii].getKeyOid();
+            while (end < msgUnitArr.length && oid.equals(msgUnitArr[end].getKeyOid()) && isBatchPublishable(msgUnitArr[end]))
+               end++;
+         }
+         if (end - ii == 1)
+            retArr[ii] = publish(sessionInfo, msgUnitArr[ii]);
+         else
+            publishBatch(sessionInfo, msgUnitArr, ii, end, retArr);
+         ii = end;
+      }
+   }
+
+   /**
+    * @return true if the message needs nothing else than the local TopicHandler
+    */
+   private boolean isBatchPublishable(MsgUnit msgUnit) {
+      if (!msgUnit.getGlobal().isServerSide())
+         return false;
+      if (!(msgUnit.getKeyData() instanceof MsgKeyData) || !(msgUnit.getQosData() instanceof MsgQosData))
+         return false;
+      if (this.glob.useCluster() || getPublishPluginManager().hasPlugins())
+         return false;
+      MsgKeyData msgKeyData = (MsgKeyData)msgUnit.getKeyData();
+      if (msgKeyData.isAdministrative() || msgKeyData.isRemoteProperties() || msgKeyData.isRunlevelManager())
+         return false;
+      MsgQosData msgQosData = (MsgQosData)msgUnit.getQosData();
+      return !msgQosData.isPtp() && !msgQosData.isAdministrative() && msgQosData.isForceUpdate() &&
+             !msgQosData.isFromPersistenceStore();
+   }
+
+   /**
+    * Publishes the messages from start to end (exclusive) which are all for the same topic.
+    */
+   private void publishBatch(SessionInfo sessionInfo, MsgUnit[] msgUnitArr, int start, int end, String[] retArr) throws XmlBlasterException {
+      int num = end - start;
+      MsgUnit[] batch = new MsgUnit[num];
+      PublishQosServer[] publishQosArr = new PublishQosServer[num];
+      XmlBlasterException ex = null;
+      for (int i=0; i<num; i++) {
+         try {
+            batch[i] = msgUnitArr[start+i];
+            publishQosArr[i] = new PublishQosServer(glob, batch[i].getQosData());
+            addRouteInfo(sessionInfo, (MsgKeyData)batch[i].getKeyData(), publishQosArr[i]);
+         }
+         catch (XmlBlasterException e) {
+            ex = e; // publish the messages before the failing one
+            num = i;
+            break;
+         }
+      }
+
+      if (num > 0) {
+         if (log.isLoggable(Level.FINER)) log.finer("Entering publishBatch(oid='" + batch[0].getKeyOid() + "', " + num + " messages from client '" + sessionInfo.getId() + "' ...");
+         this.dispatchStatistic.incrNumPublish(num);
+         PublishReturnQos[] publishReturnQosArr = new PublishReturnQos[num];
+         TopicHandler topicHandler = null;
+         try {
+            topicHandler = this.glob.getTopicAccessor().findOrCreate(sessionInfo, batch[0].getKeyOid());
+            topicHandler.publishArr(sessionInfo, batch, publishQosArr, num, publishReturnQosArr);
+         }
+         catch (XmlBlasterException e) {
+            throw e;
+         }
+         catch (Throwable e) {
+            e.printStackTrace();
+            throw XmlBlasterException.convert(glob, ME, ErrorCode.INTERNAL_PUBLISH.toString()+" "+sessionInfo.getId(), e);
+         }
+         finally {
+            this.glob.getTopicAccessor().release(topicHandler);
+            // On failure the messages published before the failing one keep their return value
+            I_Checkpoint cp = glob.getCheckpointPlugin();
+            for (int i=0; i<num && publishReturnQosArr[i] != null; i++) {
+               if (cp != null)
+                  cp.passingBy(I_Checkpoint.CP_PUBLISH_ACK, batch[i], null, null);
+               retArr[start+i] = publishReturnQosArr[i].toXml();
+            }
+         }
+      }
+
+      if (ex != null)
+         throw ex;
+   }
+
    /**
     * Rorward a message to another cluster node.
     * TODO: How to return multiple retVal from multiple destinations? !!!
@@ -1962,28 +2086,17 @@ public final class RequestBroker extends NotificationBroadcasterSupport
 
          if (log.isLoggable(Level.FINE)) log.fine("Checking existing query subscriptions if they match with this new one");
 
+         // The index precompiles the common XPath shapes, only the others are evaluated on the DOM
          Set set = clientSubscriptions.getQuerySubscribeRequestsSet();
          Vector matchingSubsVec = new Vector();
          synchronized (set) {
-            Iterator iterator = set.iterator();
-            // for every XPath subscription ...
-            while (iterator.hasNext()) {
-
-               SubscriptionInfo existingQuerySubscription = (SubscriptionInfo)iterator.next();
-               KeyData queryXmlKey = existingQuerySubscription.getKeyData();
-               if (!queryXmlKey.isXPath()) { // query: subscription without a given oid
-                  log.warning("Only XPath queries are supported, ignoring subscription.");
-                  continue;
-               }
-               String xpath = ((QueryKeyData)queryXmlKey).getQueryString();
-
-               // ... check if the new message matches ...
-               if (keyDom.match(xpath) == true) {
-                  SubscriptionInfo subs = new SubscriptionInfo(glob, existingQuerySubscription.getSessionInfo(),
-                                                existingQuerySubscription, keyDom.getKeyData());
-                  existingQuerySubscription.addSubscription(subs);
-                  matchingSubsVec.addElement(subs);
-               }
+            List matchingList = clientSubscriptions.getXPathSubscriptionIndex().getMatching(keyDom);
+            for (int i=0; i<matchingList.size(); i++) {
+               SubscriptionInfo existingQuerySubscription = (SubscriptionInfo)matchingList.get(i);
+               SubscriptionInfo subs = new SubscriptionInfo(glob, existingQuerySubscription.getSessionInfo(),
+                                             existingQuerySubscription, keyDom.getKeyData());
+               existingQuerySubscription.addSubscription(subs);
+               matchingSubsVec.addElement(subs);
             }
          }
 
@@ -3165,7 +3278,7 @@ public final class RequestBroker extends NotificationBroadcasterSupport
                         SessionInfo[] arr = authenticate.getSessionInfoArr();
                         for (int i=0; i<arr.length; i++) {
                            SessionInfo sessionInfo = arr[i];
-                           I_Queue callbackQueue = sessionInfo.getSessionQueue();
+                           I_Queue callbackQueue = sessionInfo.getSessionQueue(false);
                            if (callbackQueue != null) {
                               callbackQueue.getEntries(new I_EntryFilter() {
                                  public I_Entry intercept(I_Entry ent, I_Storage storage) {
@@ -35,13 +35,14 @@ import org.xmlBlaster.protocol.CbProtocolManager;
 import org.xmlBlaster.protocol.I_Authenticate;
 import org.xmlBlaster.util.IsoDateParser;
 import org.xmlBlaster.util.ThreadLister;
-import org.xmlBlaster.util.Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.cluster.NodeId;
 import org.xmlBlaster.util.context.ContextNode;
 import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.ErrorCode;
 import org.xmlBlaster.util.dispatch.DispatchConnectionsHandler;
+import org.xmlBlaster.util.dispatch.DispatchStatistic;
 import org.xmlBlaster.util.property.Property;
 import org.xmlBlaster.util.queue.I_Entry;
 import org.xmlBlaster.util.queue.I_EntryFactory;
@@ -69,9 +70,9 @@ public final class ServerScope extends org.xmlBlaster.util.Global implements I_R
    /** Unique id, even for each restart of a node */
    private volatile String instanceId;
    private volatile ClusterManager clusterManager;
-   private volatile Timeout sessionTimer;
-   private volatile Timeout topicTimer;
-   private volatile Timeout telnetSessionTimer;
+   private volatile I_TimeoutManager sessionTimer;
+   private volatile I_TimeoutManager topicTimer;
+   private volatile I_TimeoutManager telnetSessionTimer;
 
    private boolean useCluster;
    private boolean firstUseCluster = true; // to allow caching
@@ -504,11 +505,11 @@ public final class ServerScope extends org.xmlBlaster.util.Global implements I_R
     * Access the handle of the user session timer thread.
     * @return The Timeout instance
     */
-   public final Timeout getSessionTimer() {
+   public final I_TimeoutManager getSessionTimer() {
       if (this.sessionTimer == null) {
          synchronized(this) {
             if (this.sessionTimer == null)
-               this.sessionTimer = new Timeout("XmlBlaster.SessionTimer");
+               this.sessionTimer = createTimeoutManager("XmlBlaster.SessionTimer", false);
          }
       }
       return this.sessionTimer;
@@ -518,11 +519,11 @@ public final class ServerScope extends org.xmlBlaster.util.Global implements I_R
     * Access the handle of the TopicHandler timer thread.
     * @return The Timeout instance
     */
-   public final Timeout getTopicTimer() {
+   public final I_TimeoutManager getTopicTimer() {
       if (this.topicTimer == null) {
          synchronized(this) {
             if (this.topicTimer == null)
-               this.topicTimer = new Timeout("XmlBlaster.TopicTimer");
+               this.topicTimer = createTimeoutManager("XmlBlaster.TopicTimer", false);
          }
       }
       return this.topicTimer;
@@ -532,11 +533,11 @@ public final class ServerScope extends org.xmlBlaster.util.Global implements I_R
     * Access the handle of the TopicHandler timer thread.
     * @return The Timeout instance
     */
-   public final Timeout getTelnetSessionTimer() {
+   public final I_TimeoutManager getTelnetSessionTimer() {
       if (this.telnetSessionTimer == null) {
          synchronized(this) {
             if (this.telnetSessionTimer == null)
-               this.telnetSessionTimer = new Timeout("XmlBlaster.TelnetSessionTimer");
+               this.telnetSessionTimer = createTimeoutManager("XmlBlaster.TelnetSessionTimer", false);
          }
       }
       return this.telnetSessionTimer;
@@ -656,6 +657,14 @@ public final class ServerScope extends org.xmlBlaster.util.Global implements I_R
       return new CbDispatchConnectionsHandler(this, dispatchManager);
    }
 
+   /**
+    * @param statistic The statistic to continue (a lazy session recreates its dispatch manager), null creates a new one
+    * @return A new instance of CbDispatchConnectionsHandler
+    */
+   public DispatchConnectionsHandler createServerDispatchConnectionsHandler(ServerDispatchManager dispatchManager, DispatchStatistic statistic) throws XmlBlasterException {
+      return new CbDispatchConnectionsHandler(this, dispatchManager, statistic);
+   }
+
    /**
     * Sets the authentication in the engine.Global scope.
     * <p>
@@ -6,7 +6,9 @@ Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
 
 package org.xmlBlaster.engine;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -78,53 +80,66 @@ public class SessionPersistencePlugin implements I_SessionPersistencePlugin {
     */
    private HashMap recoverSessions() throws XmlBlasterException {
       I_MapEntry[] entries = this.sessionStore.getAll(null);
-      HashMap sessionIds = new HashMap();
-      for (int i=0; i < entries.length; i++) {
-         String absoluteName = null;
-    	 try {
-	         if (entries[i] instanceof SessionEntry) {
-	            // do connect
-	            SessionEntry entry = (SessionEntry)entries[i];
-	            ConnectQosData data = this.global.getConnectQosFactory().readObject(entry.getQos());
-	            
-	            //String absolute = data.getSessionName().getAbsoluteName();
-	            if (data.getSessionName().isPubSessionIdInternal()) {
-	               // if pubSessionId < 0
-	               boolean removed = removeSession(entry.getUniqueId(), data);
-	               log.warning("Removed persistent session " + data.getSessionName().getAbsoluteName() + " because of negative pubSessionId, removed=" + removed);
-	               continue;
-	            }
-
-	            this.addressServer = new AddressServer(this.global, "NATIVE", this.global.getId(), (java.util.Properties)null);
-
-	            ConnectQosServer qos = new ConnectQosServer(this.global, data);
-	            qos.isFromPersistenceRecovery(true);
-	            qos.setPersistenceUniqueId(entry.getUniqueId());
-	            qos.setAddressServer(this.addressServer);
-	            //qos.bypassCredentialCheck(true); // The security plugin may decide itself with connectQosServer.isFromPersistenceRecovery() check
-
-	            SessionName sessionName = data.getSessionName();
-	            absoluteName = sessionName.getAbsoluteName();
-	            String sessionId = data.getSessionQos().getSecretSessionId();
-	            sessionIds.put(sessionName.getAbsoluteName(), sessionId);
-	            if (log.isLoggable(Level.FINE))
-	               log.fine("recoverSessions: store in map session='" + sessionName.getAbsoluteName() + "' has secret sessionId='" + sessionId + "' and persistenceUniqueId=" + entry.getUniqueId());
-	            // if (log.isLoggable(Level.FINE)) log.trace(ME, "recoverSessions: session: '" + data.getSessionName() + "' secretSessionId='" + qos.getSessionQos().getSecretSessionId() + "' qos='" + qos.toXml() + "'");
-	            ConnectReturnQosServer ret = this.global.getAuthenticate().connect(qos, sessionId);
-	            if (log.isLoggable(Level.FINEST))
-	               log.finest("recoverSessions: return of connect: returnConnectQos='" + ret.toXml() + "'");
-	         }
-	         else {
-	            throw new XmlBlasterException(this.global, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME + ".recoverSessions: the entry in the storage should be of type 'SessionEntry' but is of type'" + entries[i].getClass().getName() + "'");
-	         }
-    	  }
-	      catch (XmlBlasterException e) { // authenticate password changed? TODO
-	    	  log.warning("Loading session '" + absoluteName + "' from persistency failed: " + e.toString());
-	      }
-      }
+      final HashMap sessionIds = new HashMap();
+      this.addressServer = new AddressServer(this.global, "NATIVE", this.global.getId(), (java.util.Properties)null);
+      new StartupRecovery(this.global).recover("sessions", entries, new StartupRecovery.I_RecoveryTask() {
+         public void recover(Object obj) throws XmlBlasterException {
+            recoverSession(obj, sessionIds);
+         }
+      });
       return sessionIds;
    }
 
+   /**
+    * Connects one persistent session, called in parallel by the StartupRecovery threads.
+    * @param sessionIds Is filled with the absolute name and the secret sessionId
+    */
+   private void recoverSession(Object obj, HashMap sessionIds) {
+      String absoluteName = null;
+      try {
+         if (obj instanceof SessionEntry) {
+            // do connect
+            SessionEntry entry = (SessionEntry)obj;
+            ConnectQosData data = this.global.getConnectQosFactory().readObject(entry.getQos());
+
+            //String absolute = data.getSessionName().getAbsoluteName();
+            if (data.getSessionName().isPubSessionIdInternal()) {
+               // if pubSessionId < 0
+               boolean removed = removeSession(entry.getUniqueId(), data);
+               log.warning("Removed persistent session " + data.getSessionName().getAbsoluteName() + " because of negative pubSessionId, removed=" + removed);
+               return;
+            }
+
+            AddressServer addressServer = new AddressServer(this.global, "NATIVE", this.global.getId(), (java.util.Properties)null);
+
+            ConnectQosServer qos = new ConnectQosServer(this.global, data);
+            qos.isFromPersistenceRecovery(true);
+            qos.setPersistenceUniqueId(entry.getUniqueId());
+            qos.setAddressServer(addressServer);
+            //qos.bypassCredentialCheck(true); // The security plugin may decide itself with connectQosServer.isFromPersistenceRecovery() check
+
+            SessionName sessionName = data.getSessionName();
+            absoluteName = sessionName.getAbsoluteName();
+            String sessionId = data.getSessionQos().getSecretSessionId();
+            synchronized (sessionIds) {
+               sessionIds.put(sessionName.getAbsoluteName(), sessionId);
+            }
+            if (log.isLoggable(Level.FINE))
+               log.fine("recoverSessions: store in map session='" + sessionName.getAbsoluteName() + "' has secret sessionId='" + sessionId + "' and persistenceUniqueId=" + entry.getUniqueId());
+            // if (log.isLoggable(Level.FINE)) log.trace(ME, "recoverSessions: session: '" + data.getSessionName() + "' secretSessionId='" + qos.getSessionQos().getSecretSessionId() + "' qos='" + qos.toXml() + "'");
+            ConnectReturnQosServer ret = this.global.getAuthenticate().connect(qos, sessionId);
+            if (log.isLoggable(Level.FINEST))
+               log.finest("recoverSessions: return of connect: returnConnectQos='" + ret.toXml() + "'");
+         }
+         else {
+            throw new XmlBlasterException(this.global, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME + ".recoverSessions: the entry in the storage should be of type 'SessionEntry' but is of type'" + obj.getClass().getName() + "'");
+         }
+      }
+      catch (XmlBlasterException e) { // authenticate password changed? TODO
+         log.warning("Loading session '" + absoluteName + "' from persistency failed: " + e.toString());
+      }
+   }
+
 
    /**
     * When recovering due to a run level change (without shutting down the
@@ -193,48 +208,68 @@ public class SessionPersistencePlugin implements I_SessionPersistencePlugin {
 
       I_MapEntry[] entries = this.subscribeStore.getAll(null);
 
+      // The subscriptions of a session are recovered in their order by one thread, the sessions in parallel
+      LinkedHashMap perSession = new LinkedHashMap();
       for (int i=0; i < entries.length; i++) {
-         if (entries[i] instanceof SubscribeEntry) {
-            // do connect
-            SubscribeEntry entry = (SubscribeEntry)entries[i];
-            String qos = entry.getQos();
-            QueryQosData qosData = global.getQueryQosFactory().readObject(qos);
-
-            ClientProperty clientProperty = qosData.getClientProperty(Constants.PERSISTENCE_ID);
-            if (clientProperty == null) {
-               log.severe("SubscribeQos with missing " + Constants.PERSISTENCE_ID + ": " + qosData.toXml());
-               long uniqueId = new Timestamp().getTimestamp();
-               qosData.getClientProperties().put(Constants.PERSISTENCE_ID, new ClientProperty(Constants.PERSISTENCE_ID, "long", null, "" + uniqueId));
-            }
-
-            boolean initialUpdates = qosData.getInitialUpdateProp().getValue();
-            if (initialUpdates) {
-               qosData.getClientProperties().put(ORIGINAL_INITIAL_UPDATES, new ClientProperty(ORIGINAL_INITIAL_UPDATES, "boolean", null, "true"));
-            }
-            SessionName sessionName = new SessionName(this.global, entry.getSessionName());
-            String sessionId = (String)sessionIds.get(sessionName.getAbsoluteName());
-            if (sessionId == null) {
-               if (sessionName.isPubSessionIdInternal()) // pubSessionId < 0
-                  log.warning("The persistent session '" + sessionName.getAbsoluteName() + "' is not found, removing persistent subscription " + entry.getUniqueId() + " on topic=" + entry.getKey());
-               else
-                   log.severe("The persistent session '" + sessionName.getAbsoluteName() + "' is not found, removing persistent subscription " + entry.getLogId());
-               this.subscribeStore.remove(entry);
-               continue;
-               //throw new XmlBlasterException(this.global, ErrorCode.INTERNAL_NULLPOINTER, ME + ".recoverSubscriptions", "The secret sessionId was not found for session='" + sessionName.getAbsoluteName() + "'");
-            }
-            try {
-	            // TODO remove the setting of client properties and invoke directly requestBroker.subscribe with subscribeQosServer.inhibitInitialUpdates(true);
-	            // also get the sessionInfo object from authenticate => eliminate sessionIds
-	            this.global.getAuthenticate().getXmlBlaster().subscribe(this.addressServer, sessionId, entry.getKey(), qosData.toXml());
-            }
-            catch (XmlBlasterException e) {
-            	//e.printStackTrace();
-            	log.severe("Recover subscription " + entry.getKey() + " of " + sessionName.getAbsoluteName() + " failed: " + e.toString());
-            }
-         }
-         else {
+         if (!(entries[i] instanceof SubscribeEntry))
             throw new XmlBlasterException(this.global, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME + ".recoverSubscriptions: the entry in the storage should be of type 'SubscribeEntry'but is of type'" + entries[i].getClass().getName() + "'");
+         String name = ((SubscribeEntry)entries[i]).getSessionName();
+         ArrayList list = (ArrayList)perSession.get(name);
+         if (list == null) {
+            list = new ArrayList();
+            perSession.put(name, list);
+         }
+         list.add(entries[i]);
+      }
+      new StartupRecovery(this.global).recover("subscribedSessions", perSession.values().toArray(), new StartupRecovery.I_RecoveryTask() {
+         public void recover(Object obj) throws XmlBlasterException {
+            ArrayList list = (ArrayList)obj;
+            for (int i=0; i < list.size(); i++)
+               recoverSubscription((SubscribeEntry)list.get(i), sessionIds);
          }
+      });
+   }
+
+   /**
+    * Subscribes one persistent subscription again, called in parallel by the StartupRecovery threads.
+    */
+   private void recoverSubscription(SubscribeEntry entry, HashMap sessionIds) throws XmlBlasterException {
+      String qos = entry.getQos();
+      QueryQosData qosData = global.getQueryQosFactory().readObject(qos);
+
+      ClientProperty clientProperty = qosData.getClientProperty(Constants.PERSISTENCE_ID);
+      if (clientProperty == null) {
+         log.severe("SubscribeQos with missing " + Constants.PERSISTENCE_ID + ": " + qosData.toXml());
+         long uniqueId = new Timestamp().getTimestamp();
+         qosData.getClientProperties().put(Constants.PERSISTENCE_ID, new ClientProperty(Constants.PERSISTENCE_ID, "long", null, "" + uniqueId));
+      }
+
+      boolean initialUpdates = qosData.getInitialUpdateProp().getValue();
+      if (initialUpdates) {
+         qosData.getClientProperties().put(ORIGINAL_INITIAL_UPDATES, new ClientProperty(ORIGINAL_INITIAL_UPDATES, "boolean", null, "true"));
+      }
+      SessionName sessionName = new SessionName(this.global, entry.getSessionName());
+      String sessionId;
+      synchronized (sessionIds) {
+         sessionId = (String)sessionIds.get(sessionName.getAbsoluteName());
+      }
+      if (sessionId == null) {
+         if (sessionName.isPubSessionIdInternal()) // pubSessionId < 0
+            log.warning("The persistent session '" + sessionName.getAbsoluteName() + "' is not found, removing persistent subscription " + entry.getUniqueId() + " on topic=" + entry.getKey());
+         else
+             log.severe("The persistent session '" + sessionName.getAbsoluteName() + "' is not found, removing persistent subscription " + entry.getLogId());
+         this.subscribeStore.remove(entry);
+         return;
+         //throw new XmlBlasterException(this.global, ErrorCode.INTERNAL_NULLPOINTER, ME + ".recoverSubscriptions", "The secret sessionId was not found for session='" + sessionName.getAbsoluteName() + "'");
+      }
+      try {
+         // TODO remove the setting of client properties and invoke directly requestBroker.subscribe with subscribeQosServer.inhibitInitialUpdates(true);
+         // also get the sessionInfo object from authenticate => eliminate sessionIds
+         this.global.getAuthenticate().getXmlBlaster().subscribe(this.addressServer, sessionId, entry.getKey(), qosData.toXml());
+      }
+      catch (XmlBlasterException e) {
+         //e.printStackTrace();
+         log.severe("Recover subscription " + entry.getKey() + " of " + sessionName.getAbsoluteName() + " failed: " + e.toString());
       }
    }
 
@@ -0,0 +1,121 @@
+/*------------------------------------------------------------------------------
+Name:      StartupRecovery.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Recovers the persistent entries on startup with a few threads
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.engine;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.runlevel.RunlevelManager;
+import org.xmlBlaster.util.XmlBlasterException;
+
+/**
+ * Recovers the persistent topics, sessions and subscriptions on startup in parallel.
+ * <p>
+ * Each stage (for example all sessions) is read from its store with one bulk read,
+ * the entries are then restored by <code>recovery/threads</code> threads
+ * (defaults to the number of processors, 1 recovers in the calling thread).
+ * The call returns when the stage is done, so the stages keep their order:
+ * topics before sessions before subscriptions.
+ * The progress is reported to the RunlevelManager.
+ * </p>
+ */
+public final class StartupRecovery
+{
+   private static Logger log = Logger.getLogger(StartupRecovery.class.getName());
+   private final ServerScope glob;
+   private final int numThreads;
+
+   /**
+    * Restores one persistent entry.
+    */
+   public interface I_RecoveryTask {
+      /**
+       * Is called by different threads at the same time for different entries.
+       * @param entry One of the entries passed to recover()
+       */
+      void recover(Object entry) throws XmlBlasterException;
+   }
+
+   public StartupRecovery(ServerScope glob) {
+      this.glob = glob;
+      this.numThreads = glob.getProperty().get("recovery/threads", Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * @return The number of threads used to recover a stage
+    */
+   public int getNumThreads() {
+      return this.numThreads;
+   }
+
+   /**
+    * Recovers all entries, blocks until all are done.
+    * A failing entry is logged and the others are recovered nevertheless.
+    * @param stage The name for logging, like "sessions"
+    * @param entries The entries read from the store
+    * @param task Restores one entry
+    * @return The number of entries which failed
+    */
+   public int recover(final String stage, final Object[] entries, final I_RecoveryTask task) {
+      final RunlevelManager runlevelManager = this.glob.getRunlevelManager();
+      final int[] counters = new int[3]; // next, done, failed
+      runlevelManager.setRecoveryProgress(stage, 0, entries.length);
+      Runnable worker = new Runnable() {
+         public void run() {
+            while (true) {
+               int index;
+               synchronized (counters) {
+                  if (counters[0] >= entries.length)
+                     return;
+                  index = counters[0]++;
+               }
+               boolean ok = false;
+               try {
+                  task.recover(entries[index]);
+                  ok = true;
+               }
+               catch (Throwable e) {
+                  log.severe("Recovering " + stage + " entry " + entries[index] + " failed: " + e.toString());
+               }
+               int done;
+               synchronized (counters) {
+                  done = ++counters[1];
+                  if (!ok) counters[2]++;
+               }
+               runlevelManager.setRecoveryProgress(stage, done, entries.length);
+            }
+         }
+      };
+
+      int num = Math.min(this.numThreads, entries.length);
+      if (num <= 1) {
+         worker.run();
+      }
+      else {
+         if (log.isLoggable(Level.FINE)) log.fine("Recovering " + entries.length + " " + stage + " with " + num + " threads");
+         Thread[] threads = new Thread[num];
+         for (int i=0; i<num; i++) {
+            threads[i] = new Thread(worker, "XmlBlaster.Recovery." + stage + "-thread#" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+         }
+         for (int i=0; i<num; i++) {
+            while (threads[i].isAlive()) {
+               try {
+                  threads[i].join();
+               }
+               catch (InterruptedException e) {
+                  log.warning("Ignoring interrupt while recovering " + stage);
+               }
+            }
+         }
+      }
+      synchronized (counters) {
+         return counters[2];
+      }
+   }
+}
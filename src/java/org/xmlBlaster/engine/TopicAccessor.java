@@ -5,12 +5,12 @@
  ------------------------------------------------------------------------------*/
 package org.xmlBlaster.engine;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -42,8 +42,19 @@ public final class TopicAccessor {
     * <p>
     * key = oid value from <key oid="..."> (== topicHandler.getUniqueKey())
     * value = TopicContainer instance
+    * <p>
+    * Lookups are lock free, publishes to different oids never contend on a common monitor.
+    */
+   private final ConcurrentHashMap topicHandlerMap;
+
+   /**
+    * Lock stripes to serialize the creation of a TopicHandler for the same oid.
+    * <p>
+    * A TopicHandler registers itself in JMX on construction, so we may not create
+    * one speculatively and throw it away again, a plain putIfAbsent() is not enough.
+    * Configure with <code>-topicAccessor/lockStripes 64</code>
     */
-   private final Map topicHandlerMap = new HashMap();
+   private final Object[] createLocks;
 
    /**
     * For listeners who want to be informed about topic creation / deletion
@@ -60,6 +71,13 @@ public final class TopicAccessor {
    public TopicAccessor(ServerScope serverScope) {
       this.serverScope = serverScope;
 
+      int stripes = this.serverScope.getProperty().get("topicAccessor/lockStripes", 64);
+      if (stripes < 1) stripes = 1;
+      this.createLocks = new Object[stripes];
+      for (int i=0; i<stripes; i++)
+         this.createLocks[i] = new Object();
+      this.topicHandlerMap = new ConcurrentHashMap(1024, 0.75f, stripes);
+
       // Support async execution of tasks
       // this.blockingQueue = new SynchronousQueue(); // has no capacity but
       // blocks until other thread takes it out
@@ -104,10 +122,7 @@ public final class TopicAccessor {
 
    // Is NOT locked!
    private TopicContainer accessTopicContainer(String oid) {
-      Object obj;
-      synchronized (this.topicHandlerMap) {
-         obj = this.topicHandlerMap.get(oid);
-      }
+      Object obj = this.topicHandlerMap.get(oid);
       if (obj == null) { // Normal case if topic is new created (by subscribe)
          if (log.isLoggable(Level.FINE))
             log.fine("key oid " + oid + " is unknown, topicHandler == null");
@@ -130,10 +145,7 @@ public final class TopicAccessor {
          Thread.dumpStack();
          return;
       }
-      Object obj;
-      synchronized (this.topicHandlerMap) {
-         obj = this.topicHandlerMap.get(topicHandler.getUniqueKey());
-      }
+      Object obj = this.topicHandlerMap.get(topicHandler.getUniqueKey());
       if (obj == null) { // Happens for example in RequestBroler.erase() which
          // triggers a toDead() which cleans up the
          // TopicContainer already
@@ -162,17 +174,22 @@ public final class TopicAccessor {
    public TopicHandler findOrCreate(SessionInfo sessionInfo, String oid)
          throws XmlBlasterException {
       TopicContainer tc = null;
-      Object oldOne;
-      synchronized (this.topicHandlerMap) {
-         oldOne = this.topicHandlerMap.get(oid);
-         if (oldOne == null) {
-            TopicHandler topicHandler = new TopicHandler(this.serverScope, sessionInfo, oid);
-            tc = new TopicContainer(topicHandler);
-            this.topicHandlerMap.put(topicHandler.getUniqueKey(), tc);
-         } else {
-            tc = (TopicContainer) oldOne;
+      Object oldOne = this.topicHandlerMap.get(oid); // lock free fast path for existing topics
+      if (oldOne == null) {
+         synchronized (getCreateLock(oid)) {
+            oldOne = this.topicHandlerMap.get(oid);
+            if (oldOne == null) {
+               TopicHandler topicHandler = new TopicHandler(this.serverScope, sessionInfo, oid);
+               tc = new TopicContainer(topicHandler);
+               this.topicHandlerMap.put(topicHandler.getUniqueKey(), tc);
+            } else {
+               tc = (TopicContainer) oldOne;
+            }
          }
       }
+      else {
+         tc = (TopicContainer) oldOne;
+      }
       TopicHandler topicHandler = tc.lock();
       
       if (topicHandler == null) { // try again recursive
@@ -202,7 +219,7 @@ public final class TopicAccessor {
       TopicHandler topicHandler = tc.lock();
       try {
          fireTopicEvent(topicHandler); // is locked!
-         synchronized (this.topicHandlerMap) {
+         synchronized (getCreateLock(oid)) {
             obj = this.topicHandlerMap.remove(oid);
          }
          if (obj == null) {
@@ -214,23 +231,33 @@ public final class TopicAccessor {
       }
    }
 
+   /**
+    * @param oid The topic oid
+    * @return The lock stripe responsible to create/remove the given topic
+    */
+   private Object getCreateLock(String oid) {
+      int h = oid.hashCode();
+      h ^= (h >>> 16);
+      return this.createLocks[(h & 0x7fffffff) % this.createLocks.length];
+   }
+
    /**
     * Treat as read only! For class internal use only.
+    * <p>
+    * The snapshot is weakly consistent, topics created or erased
+    * during the iteration may or may not be contained.
     * 
     * @return A current snapshot of all topics (never null)
     */
    private TopicHandler[] getTopicHandlerArr() {
-      synchronized (this.topicHandlerMap) {
-         int len = this.topicHandlerMap.size();
-         TopicHandler[] handlers = new TopicHandler[len];
-         Iterator it = this.topicHandlerMap.values().iterator();
-         int i = 0;
-         while (it.hasNext()) {
-            handlers[i] = ((TopicContainer) it.next()).getTopicHandler();
-            i++;
-         }
-         return handlers;
+      ArrayList list = new ArrayList(this.topicHandlerMap.size());
+      Iterator it = this.topicHandlerMap.values().iterator();
+      while (it.hasNext()) {
+         TopicHandler topicHandler = ((TopicContainer) it.next()).getTopicHandler();
+         if (topicHandler != null) // erased in the meantime
+            list.add(topicHandler);
       }
+      return (TopicHandler[]) list.toArray(new TopicHandler[list.size()]);
    }
 
    /**
@@ -239,18 +266,12 @@ public final class TopicAccessor {
     * @return A string array of all topicHandler.getUniqueKey()
     */
    public String[] getTopics() {
-      synchronized (this.topicHandlerMap) {
-         int len = this.topicHandlerMap.size();
-         String[] handlers = new String[len];
-         Iterator it = this.topicHandlerMap.values().iterator();
-         int i = 0;
-         while (it.hasNext()) {
-            handlers[i] = ((TopicContainer) it.next()).getTopicHandler()
-                  .getUniqueKey();
-            i++;
-         }
-         return handlers;
+      ArrayList list = new ArrayList(this.topicHandlerMap.size());
+      Iterator it = this.topicHandlerMap.keySet().iterator();
+      while (it.hasNext()) {
+         list.add(it.next());
       }
+      return (String[]) list.toArray(new String[list.size()]);
    }
 
    /**
@@ -259,9 +280,7 @@ public final class TopicAccessor {
     * @return Number of registered topics
     */
    public int getNumTopics() {
-      synchronized (this.topicHandlerMap) {
-         return this.topicHandlerMap.size();
-      }
+      return this.topicHandlerMap.size();
    }
    
    /**
@@ -323,11 +342,29 @@ public final class TopicAccessor {
 
    public void changeDirtyRead(MsgUnitWrapper msgUnitWrapper)
          throws XmlBlasterException {
+      changeDirtyRead(msgUnitWrapper, false);
+   }
+
+   /**
+    * Writes the changed reference counter of the message to the message store.
+    * @param decremented true if a reference was removed, the write may be delayed
+    */
+   public void changeDirtyRead(MsgUnitWrapper msgUnitWrapper, boolean decremented)
+         throws XmlBlasterException {
       TopicHandler topicHandler = getTopicHandlerDirtyRead(msgUnitWrapper
             .getKeyOid());
       if (topicHandler == null)
          return;
-      topicHandler.change(msgUnitWrapper);
+      topicHandler.change(msgUnitWrapper, decremented);
+   }
+
+   /**
+    * Writes the delayed reference counter changes of all topics, called on shutdown.
+    */
+   public void flushReferenceCounters() {
+      TopicHandler[] handlers = getTopicHandlerArr();
+      for (int i = 0; i < handlers.length; i++)
+         handlers[i].flushReferenceCounters();
    }
 
    private TopicHandler getTopicHandlerDirtyRead(String topicId) {
@@ -385,7 +422,8 @@ public final class TopicAccessor {
     * @author marcel
     */
    private final class TopicContainer {
-      private TopicHandler topicHandler;
+      /** Is set to null on erase, volatile as it is read without holding the lock */
+      private volatile TopicHandler topicHandler;
 
       private final boolean fairness = false;
 
@@ -402,12 +440,11 @@ public final class TopicAccessor {
       public void erase() {
          if (this.topicHandler == null)
             return;
-         synchronized (this.lock) {
-            this.topicHandler = null;
-            int c = this.lock.getHoldCount();
-            for (int i = 0; i < c; i++)
-               this.lock.unlock();
-         }
+         // Only called by the lock holder, so no other thread can interfere here
+         this.topicHandler = null;
+         int c = this.lock.getHoldCount();
+         for (int i = 0; i < c; i++)
+            this.lock.unlock();
       }
 
       public TopicHandler lock() {
@@ -423,13 +460,11 @@ public final class TopicAccessor {
       }
 
       public void unlock() {
-         synchronized (this.lock) {
-            if (this.lock.getHoldCount() > 0) // returns 0 if we are not the
-               // holder
-               this.lock.unlock(); // IllegalMonitorStateException if our
+         // No extra monitor needed: the hold count is only changed by the owning thread
+         if (this.lock.isHeldByCurrentThread()) // false if we are not the holder
+            this.lock.unlock(); // IllegalMonitorStateException if our
             // thread is not the holder of the lock,
             // never happens because of above if()
-         }
       }
    } // class TopicContainer
 
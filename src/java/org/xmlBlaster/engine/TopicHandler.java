@@ -29,6 +29,7 @@ import org.xmlBlaster.client.qos.UnSubscribeReturnQos;
 import org.xmlBlaster.engine.distributor.I_MsgDistributor;
 import org.xmlBlaster.engine.mime.I_AccessFilter;
 import org.xmlBlaster.engine.msgstore.I_Map;
+import org.xmlBlaster.engine.msgstore.ReferenceCounterWriter;
 import org.xmlBlaster.engine.qos.ConnectQosServer;
 import org.xmlBlaster.engine.qos.EraseQosServer;
 import org.xmlBlaster.engine.qos.PublishQosServer;
@@ -42,7 +43,7 @@ import org.xmlBlaster.engine.xml2java.XmlKey;
 import org.xmlBlaster.util.I_Timeout;
 import org.xmlBlaster.util.MsgUnit;
 import org.xmlBlaster.util.SessionName;
-import org.xmlBlaster.util.Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
 import org.xmlBlaster.util.Timestamp;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.XmlBuffer;
@@ -66,6 +67,7 @@ import org.xmlBlaster.util.qos.storage.MsgUnitStoreProperty;
 import org.xmlBlaster.util.qos.storage.QueuePropertyBase;
 import org.xmlBlaster.util.queue.I_Entry;
 import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
 import org.xmlBlaster.util.queue.StorageId;
 import org.xmlBlaster.util.queuemsg.MsgQueueEntry;
 
@@ -132,6 +134,8 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
    private TopicProperty topicProperty;
 
    private I_Map msgUnitCache;
+   /** Writes the reference counters of msgUnitCache, collects the decrements if topic/referenceCounterWriteDelay > 0 */
+   private ReferenceCounterWriter counterWriter;
 
    /** The xmlKey with parsed DOM tree, is null in state=UNCONFIGURED */
    private XmlKey xmlKey;
@@ -151,7 +155,7 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
     * The timer is activated on state change to UNREFERENCED
     * and removed on change to ALIVE
     */
-   private Timeout destroyTimer;
+   private I_TimeoutManager destroyTimer;
    private Timestamp timerKey = null;
 
    public final static int UNDEF = -1;
@@ -166,6 +170,8 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
 
    private Object msgUnitWrapperUnderConstructionMutex = new Object();
    private MsgUnitWrapper msgUnitWrapperUnderConstruction;
+   /** The messages of a publishArr() batch under construction */
+   private MsgUnitWrapper[] msgUnitWrappersUnderConstruction;
 
    /** this is used for administrative gets (queries on callback queue) */
    private QueueQueryPlugin queueQueryPlugin;
@@ -304,6 +310,9 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
          if (this.msgUnitCache == null) {
             throw new XmlBlasterException(serverScope, ErrorCode.INTERNAL_UNKNOWN, ME, "Can't load msgUnitStore persistence plugin [" + type + "][" + version + "]");
          }
+         long writeDelay = serverScope.getProperty().get("topic/referenceCounterWriteDelay", 0L);
+         int maxPending = serverScope.getProperty().get("topic/referenceCounterWriteMaxPending", 1000);
+         this.counterWriter = new ReferenceCounterWriter(this.msgUnitCache, serverScope.getTopicTimer(), writeDelay, maxPending);
       }
       else {
          log.info(ME+": Reconfiguring message store.");
@@ -810,12 +819,157 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
       return publishReturnQos;
    }
 
+   /**
+    * Publishes several Pub/Sub messages of this topic in one step, see RequestBroker.publishArr().
+    * <p />
+    * Does the same as calling publish() for each message but the history queue and each
+    * callback queue get all entries with one put() (a persistent queue stores them with
+    * one JDBC batch). Messages which would be removed from the history queue again in the
+    * same call because of its maxEntries are not put into it.
+    * <p />
+    * The caller assures that the messages are no PtP, administrative or forceUpdate=false messages.
+    * <p />
+    * On an exception retArr contains the return QoS of the messages which are published,
+    * the first null entry is the failing message. The messages which are put together
+    * fail together, the exception belongs to the first of them.
+    * @param num The number of messages to process from the beginning of the arrays
+    * @param retArr Is filled with the return QoS of every published message
+    */
+   public void publishArr(SessionInfo publisherSessionInfo, MsgUnit[] msgUnitArr,
+                          PublishQosServer[] publishQosArr, int num, PublishReturnQos[] retArr) throws XmlBlasterException
+   {
+      if (log.isLoggable(Level.FINE)) log.fine(ME+": publishArr() publisherSessionInfo '" + publisherSessionInfo.getId() + "', " + num + " messages ...");
+
+      int start = 0;
+      // The topic configuration, state changes and the rare cases are handled by publish()
+      while (start < num && (start == 0 || this.topicProperty.isReadonly() || this.distributor != null ||
+             !this.administrativeInitialize || this.handlerIsNewCreated || !isAlive())) {
+         retArr[start] = publish(publisherSessionInfo, msgUnitArr[start], publishQosArr[start]);
+         start++;
+      }
+      if (start == num)
+         return;
+
+      int initialCounter = 1; // Force referenceCount until update queues are filled (volatile messages)
+      MsgUnitWrapper[] wrappers = new MsgUnitWrapper[num-start];
+      PublishReturnQos[] bulkRetArr = new PublishReturnQos[num-start];
+
+      try { // finally
+         for (int i=start; i<num; i++) {
+            StatusQosData qos = new StatusQosData(serverScope, MethodName.PUBLISH);
+            qos.setKeyOid(this.uniqueKey);
+            qos.setState(Constants.STATE_OK);
+            qos.setRcvTimestamp(publishQosArr[i].getRcvTimestamp());
+            bulkRetArr[i-start] = new PublishReturnQos(serverScope, qos);
+            wrappers[i-start] = new MsgUnitWrapper(serverScope, msgUnitArr[i], this.msgUnitCache, initialCounter, 0, -1);
+         }
+
+         synchronized(this.msgUnitWrapperUnderConstructionMutex) {
+            this.msgUnitWrappersUnderConstruction = wrappers;
+         }
+
+         try {
+            this.isHistoryHandling = true;
+            if (this.historyQueue != null)
+               putToHistoryQueue(wrappers);
+         }
+         finally {
+            this.isHistoryHandling = false;
+         }
+
+         invokeCallbackAndHandleFailure(publisherSessionInfo, wrappers);
+
+         for (int i=0; i<wrappers.length; i++)
+            wrappers[i].startExpiryTimer();
+         System.arraycopy(bulkRetArr, 0, retArr, start, bulkRetArr.length);
+      }
+      catch (XmlBlasterException e) {
+         log.severe(ME+": "+e.getMessage() + " publisher=" + publisherSessionInfo.getSessionName().getAbsoluteName());
+         e.printStackTrace();
+         throw e;
+      }
+      catch (Throwable e) {
+         log.severe(ME+": "+e.toString());
+         e.printStackTrace();
+         throw new XmlBlasterException(serverScope, ErrorCode.INTERNAL_UNKNOWN, "TopicHandler", "", e);
+      }
+      finally {
+         Throwable ex = null;
+         for (int i=0; i<wrappers.length; i++) {
+            if (wrappers[i] == null)
+               continue;
+            try {
+               if (initialCounter != 0) {
+                  wrappers[i].setReferenceCounter((-1) * initialCounter);
+               }
+               synchronized (this.msgUnitWrapperUnderConstructionMutex) {
+                  if (!wrappers[i].isDestroyed()) {
+                     this.msgUnitCache.put(wrappers[i]);
+                  }
+               }
+            }
+            catch (Throwable e) {
+               if (ex == null) ex = e;
+            }
+         }
+         synchronized (this.msgUnitWrapperUnderConstructionMutex) {
+            this.msgUnitWrappersUnderConstruction = null;
+         }
+         if (ex != null)
+            throw new XmlBlasterException(serverScope, ErrorCode.INTERNAL_UNKNOWN, "TopicHandler", "", ex);
+      }
+   }
+
+   /**
+    * Puts the messages of a batch with one put() into the history queue, see publish() for the single message.
+    */
+   private void putToHistoryQueue(MsgUnitWrapper[] wrappers) throws XmlBlasterException {
+      long maxEntries = this.historyQueue.getMaxNumOfEntries();
+      int first = wrappers.length;
+      int num = 0;
+      for (; first>0 && num<maxEntries; first--) {
+         if (wrappers[first-1].hasRemainingLife()) // no sense to remember
+            num++;
+      }
+      if (num == 0)
+         return;
+      // The entries are sorted by their creation timestamp, they are created in publish order
+      ArrayList list = new ArrayList(num);
+      for (int i=first; i<wrappers.length; i++) {
+         if (wrappers[i].hasRemainingLife())
+            list.add(new MsgQueueHistoryEntry(serverScope, wrappers[i], this.historyQueue.getStorageId()));
+      }
+
+      try { // increments reference counter += 1
+         this.historyQueue.put((I_QueueEntry[])list.toArray(new I_QueueEntry[list.size()]), I_Queue.USE_PUT_INTERCEPTOR);
+      }
+      catch (XmlBlasterException e) {
+         log.severe(ME+": History queue put() problem: " + e.getMessage());
+      }
+
+      try {
+         long numHist = getNumOfHistoryEntries();
+         if (numHist > 1L && numHist > maxEntries) {
+            long count = numHist-maxEntries;
+            List<I_Entry> entryList = this.historyQueue.takeLowest((int)count, -1L, null, false);
+            if (entryList.size() != count) {
+               log.severe(ME+": Can't remove expected entry, entryList.size()=" + entryList.size() + ": " + this.historyQueue.toXml(""));
+            }
+         }
+      }
+      catch (XmlBlasterException e) {
+         log.severe(ME+": History queue take() problem: " + e.getMessage());
+      }
+   }
+
    /**
     * Check if the MsgUnitWrapper is owned by the TopicHandler (during construction).
     * NOTE: You need to synchronize this call over msgUnitCache
     */
    boolean isInMsgStore(MsgUnitWrapper msgUnitWrapper) {
       synchronized(this.msgUnitWrapperUnderConstructionMutex) {
+         if (getMsgUnitWrapperUnderConstruction(msgUnitWrapper.getUniqueId()) != null)
+            return false;
          return this.msgUnitWrapperUnderConstruction == null || this.msgUnitWrapperUnderConstruction.getUniqueId() != msgUnitWrapper.getUniqueId();
          //return !this.msgUnitWrapperUnderConstruction.containsKey(new Long(msgUnitWrapper.getUniqueId()));
       }
@@ -985,21 +1139,41 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
    //   return this.msgUnitCache.change(entry, callback);
    //}
    void change(MsgUnitWrapper msgUnitWrapper) throws XmlBlasterException {
+      change(msgUnitWrapper, false);
+   }
+
+   /**
+    * The reference counter of the message has changed, it is written to the message store.
+    * @param decremented true if a reference was removed, the write is delayed with topic/referenceCounterWriteDelay > 0
+    */
+   void change(MsgUnitWrapper msgUnitWrapper, boolean decremented) throws XmlBlasterException {
       if (isInMsgStore(msgUnitWrapper)) {
-         I_Map msgUnitCache = this.msgUnitCache;
-         if (msgUnitCache == null) { // on startup
+         ReferenceCounterWriter counterWriter = this.counterWriter;
+         if (counterWriter == null) { // on startup
             return;
          }
          // msgUnitCache.change(msgUnitWrapper, null);
-         msgUnitCache.updateCounters(msgUnitWrapper);
+         counterWriter.counterChanged(msgUnitWrapper, decremented);
       }
    }
 
+   /**
+    * Writes the delayed reference counter changes of all messages of this topic.
+    */
+   public void flushReferenceCounters() {
+      ReferenceCounterWriter counterWriter = this.counterWriter;
+      if (counterWriter != null)
+         counterWriter.flush();
+   }
+
    public MsgUnitWrapper getMsgUnitWrapper(long uniqueId) throws XmlBlasterException {
 
       synchronized(this.msgUnitWrapperUnderConstructionMutex) {
          if (this.msgUnitWrapperUnderConstruction != null && this.msgUnitWrapperUnderConstruction.getUniqueId() == uniqueId)
             return this.msgUnitWrapperUnderConstruction;
+         MsgUnitWrapper msgUnitWrapper = getMsgUnitWrapperUnderConstruction(uniqueId);
+         if (msgUnitWrapper != null)
+            return msgUnitWrapper;
       }
 
       I_Map msgUnitCache = this.msgUnitCache;
@@ -1007,7 +1181,13 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
          return null;
       }
 
-      return (MsgUnitWrapper)msgUnitCache.get(uniqueId);
+      ReferenceCounterWriter counterWriter = this.counterWriter;
+      if (counterWriter == null)
+         return (MsgUnitWrapper)msgUnitCache.get(uniqueId);
+      synchronized (msgUnitCache) { // the cache can't swap the entry between the flush and the reload
+         counterWriter.flushIfSwapped(uniqueId); // else a swapped message would be reloaded with a stale counter
+         return (MsgUnitWrapper)msgUnitCache.get(uniqueId);
+      }
    }
 
    /**
@@ -1039,6 +1219,8 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
                log.severe(ME+": MsgUnitCache is unexpected null, topic: " + toXml() + "\n msgUnitWrapper is: " + msgUnitWrapper.toXml());
             }
             else {
+               if (this.counterWriter != null)
+                  this.counterWriter.remove(msgUnitWrapper.getUniqueId());
                getMsgUnitCache().remove(msgUnitWrapper);
             }
          }
@@ -1300,6 +1482,119 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
    }
 
 
+   /**
+    * Send the updates of a publishArr() batch to all subscribed clients,
+    * each callback queue gets its entries with one put().
+    */
+   private final void invokeCallbackAndHandleFailure(SessionInfo publisherSessionInfo, MsgUnitWrapper[] wrappers) throws XmlBlasterException {
+      if (log.isLoggable(Level.FINE)) log.fine(ME+": Going to update dependent clients for " + wrappers.length + " messages, subscriberMap.size() = " + getNumSubscribers());
+
+      SubscriptionInfo[] subInfoArr = getSubscriptionInfoArr();
+      Set removeSet = null;
+      for (int ii=0; ii<subInfoArr.length; ii++) {
+         SubscriptionInfo sub = subInfoArr[ii];
+         if (invokeCallback(publisherSessionInfo, sub, wrappers) < 1) {
+            if (removeSet == null) removeSet = new HashSet();
+            removeSet.add(sub);
+         }
+      }
+      if (removeSet != null) handleCallbackFailed(removeSet);
+   }
+
+   /**
+    * Puts the messages of a batch into the callback queue of the subscribed client with one put(),
+    * if the queue has not enough space left the messages are put one by one to have the
+    * usual overflow handling.
+    * @return see invokeCallback(SessionInfo, SubscriptionInfo, MsgUnitWrapper, boolean)
+    */
+   private final int invokeCallback(SessionInfo publisherSessionInfo, SubscriptionInfo sub, MsgUnitWrapper[] wrappers) {
+      if (!checkIfAllowedToSend(publisherSessionInfo, sub)) return -1;
+
+      ArrayList list = new ArrayList(wrappers.length);
+      ArrayList selected = new ArrayList(wrappers.length);
+      int ret = 1;
+      try {
+         for (int i=0; i<wrappers.length; i++) {
+            if (!subscriberMayReceiveIt(sub, wrappers[i])) continue;
+            if (isDirtyRead(sub, wrappers[i])) continue;
+            try {
+               if (!checkFilter(publisherSessionInfo, sub, wrappers[i], true)) continue;
+            }
+            catch (XmlBlasterException ex) {
+               if (log.isLoggable(Level.FINEST)) log.finest(ex.getMessage());
+               ret = 0;
+               continue;
+            }
+            list.add(createEntryFromWrapper(wrappers[i], sub));
+            selected.add(wrappers[i]);
+         }
+      }
+      catch (Throwable e) {
+         log.warning(ME+": Batch update of " + wrappers.length + " messages to " + sub.getSessionInfo().getId() + " failed, trying one by one: " + e.toString());
+         for (int i=0; i<wrappers.length; i++) {
+            if (subscriberMayReceiveIt(sub, wrappers[i]) && invokeCallback(publisherSessionInfo, sub, wrappers[i], true) < 1)
+               ret = 0;
+         }
+         return ret;
+      }
+      if (list.size() == 0)
+         return ret;
+
+      I_Queue queue = sub.getMsgQueue();
+      if (queue == null || queue.getNumOfEntries() + list.size() > queue.getMaxNumOfEntries()) {
+         for (int i=0; i<selected.size(); i++) {
+            if (invokeCallback(publisherSessionInfo, sub, (MsgUnitWrapper)selected.get(i), true) < 1)
+               ret = 0;
+         }
+         return ret;
+      }
+
+      if (log.isLoggable(Level.FINER)) log.finer(ME+": pushing " + list.size() + " update() messages '" + sub.getKeyData().getOid() +
+                    "' into '" + sub.getSessionInfo().getId() + "' callback queue");
+      MsgQueueEntry[] entries = (MsgQueueEntry[])list.toArray(new MsgQueueEntry[list.size()]);
+      try {
+         sub.getSessionInfo().putIntoSessionQueue(entries);
+      }
+      catch (Throwable e) {
+         String reason = e.toString();
+         if (e instanceof XmlBlasterException)
+            reason = ((XmlBlasterException)e).getMessage();
+         if (log.isLoggable(Level.FINE)) log.fine(ME+": Sending of " + entries.length + " messages to " +
+                            sub.getSessionInfo().getId() + " failed: " + reason);
+         try {
+            requestBroker.deadMessage(entries, null, reason);
+         }
+         catch (Throwable e2) {
+            log.severe(ME+": PANIC: Sending of " + entries.length + " messages to " +
+                            sub.getSessionInfo().getId() + " failed, messages are lost: " + e2.toString() + " original exception is: " + reason);
+         }
+         return ret; // Don't remove subscriber for queue overflow exception
+      }
+
+      I_Checkpoint cp = serverScope.getCheckpointPlugin();
+      if (cp != null) {
+         for (int i=0; i<entries.length; i++)
+            cp.passingBy(I_Checkpoint.CP_UPDATE_QUEUE_ADD, ((MsgUnitWrapper)selected.get(i)).getMsgUnit(),
+                  sub.getSessionInfo().getSessionName(), null);
+      }
+      return ret;
+   }
+
+   /**
+    * @return The batch message with the given uniqueId or null, needs to be called inside
+    *         synchronized(msgUnitWrapperUnderConstructionMutex)
+    */
+   private MsgUnitWrapper getMsgUnitWrapperUnderConstruction(long uniqueId) {
+      MsgUnitWrapper[] wrappers = this.msgUnitWrappersUnderConstruction;
+      if (wrappers != null) {
+         for (int i=0; i<wrappers.length; i++) {
+            if (wrappers[i] != null && wrappers[i].getUniqueId() == uniqueId)
+               return wrappers[i];
+         }
+      }
+      return null;
+   }
+
    /**
     * Checks if it is allowed to send the entry to the callback queue.
     * @param publisherSessionInfo
@@ -1459,7 +1754,7 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
 
          MsgQueueUpdateEntry entry = createEntryFromWrapper(msgUnitWrapper, sub);
 
-         sub.getMsgQueue().put(entry, I_Queue.USE_PUT_INTERCEPTOR);
+         sub.getSessionInfo().putIntoSessionQueue(entry);
 
          I_Checkpoint cp = serverScope.getCheckpointPlugin();
          if (cp != null) {
@@ -1851,6 +2146,8 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
       }
       if (hasCacheEntries()) {
          if (log.isLoggable(Level.FINE)) log.fine(ME+": "+getStateStr() + "->" + "UNREFERENCED: Clearing " + this.msgUnitCache.getNumOfEntries() + " msgUnitStore cache entries");
+         if (this.counterWriter != null)
+            this.counterWriter.clear();
          this.msgUnitCache.clear();  // Who removes the MsgUnitWrapper entries from their Timer?!!!! TODO
       }
 
@@ -1997,6 +2294,8 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
 
          if (hasCacheEntries()) {
             try {
+               if (this.counterWriter != null)
+                  this.counterWriter.clear();
                long num = this.msgUnitCache.clear();
                if (log.isLoggable(Level.FINE)) log.fine(ME+": "+getStateStr() + "->" + "DEAD: Cleared " + num + " message storage entries");
             }
@@ -2004,6 +2303,9 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
                log.severe(ME+": "+getStateStr() + "->" + "DEAD: Ignoring problems during clearing the message store: " + e.getMessage());
             }
          }
+         if (this.counterWriter != null) {
+            this.counterWriter.clear();
+         }
          if (this.msgUnitCache != null) {
             this.msgUnitCache.shutdown();
          }
@@ -2418,6 +2720,14 @@ public final class TopicHandler implements I_Timeout, TopicHandlerMBean //, I_Ch
          sb.append(msgUnitCache.toXml(extraOffset+Constants.INDENT));
       }
 
+      ReferenceCounterWriter counterWriter = this.counterWriter;
+      if (counterWriter != null && counterWriter.getDelay() > 0L) {
+         sb.append(offset).append(" <referenceCounterWrites delay='").append(counterWriter.getDelay());
+         sb.append("' numWrites='").append(counterWriter.getNumWrites());
+         sb.append("' numCoalesced='").append(counterWriter.getNumCoalesced());
+         sb.append("' numPending='").append(counterWriter.getNumPending()).append("'/>");
+      }
+
       I_Queue historyQueue = this.historyQueue;
       if (historyQueue != null) {
          sb.append(historyQueue.toXml(extraOffset+Constants.INDENT));
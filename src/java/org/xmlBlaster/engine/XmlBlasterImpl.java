@@ -6,6 +6,7 @@ Comment:   Native Interface to xmlBlaster
 ------------------------------------------------------------------------------*/
 package org.xmlBlaster.engine;
 
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +32,7 @@ import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.ErrorCode;
 import org.xmlBlaster.util.def.MethodName;
 import org.xmlBlaster.util.error.MsgErrorInfo;
+import org.xmlBlaster.util.key.MsgKeyData;
 import org.xmlBlaster.util.key.QueryKeyData;
 import org.xmlBlaster.util.qos.MsgQosData;
 import org.xmlBlaster.util.qos.QosData;
@@ -208,19 +210,29 @@ public class XmlBlasterImpl implements org.xmlBlaster.protocol.I_XmlBlaster
          return sessionInfo.getSecuritySession().exportMessage(dataHolder).getQos();
       }
       catch (Throwable e) {
-    	  if (!(e instanceof XmlBlasterException)) {
-    	     e.printStackTrace();
-    	  }
-          String xml = interceptExeptionByAuthorizer(e, sessionInfo, addressServer, msgUnit, methodName);
-          if (xml != null)
-         	 return xml;
-         if (sessionInfo != null && !sessionInfo.getConnectQos().allowExceptionsThrownToClient()) {
-             if (msgUnit == null)
-                msgUnit = new MsgUnit(glob, msgUnitRaw, methodName);
-             return sessionInfo.getMsgErrorHandler().handleErrorSync(new MsgErrorInfo(glob, sessionInfo.getSessionName(), msgUnit, e));
-         }
-         throw this.availabilityChecker.checkException(methodName, e);
+         return handlePublishException(e, addressServer, sessionInfo, msgUnit, msgUnitRaw, methodName);
+      }
+   }
+
+   /**
+    * The error handling of a failed publish.
+    * @return The return QoS for the publisher if the exception is not thrown
+    */
+   private final String handlePublishException(Throwable e, AddressServer addressServer, SessionInfo sessionInfo,
+                        MsgUnit msgUnit, MsgUnitRaw msgUnitRaw, MethodName methodName) throws XmlBlasterException
+   {
+      if (!(e instanceof XmlBlasterException)) {
+         e.printStackTrace();
+      }
+      String xml = interceptExeptionByAuthorizer(e, sessionInfo, addressServer, msgUnit, methodName);
+      if (xml != null)
+         return xml;
+      if (sessionInfo != null && !sessionInfo.getConnectQos().allowExceptionsThrownToClient()) {
+         if (msgUnit == null)
+            msgUnit = new MsgUnit(glob, msgUnitRaw, methodName);
+         return sessionInfo.getMsgErrorHandler().handleErrorSync(new MsgErrorInfo(glob, sessionInfo.getSessionName(), msgUnit, e));
       }
+      throw this.availabilityChecker.checkException(methodName, e);
    }
 
    /**
@@ -243,11 +255,70 @@ public class XmlBlasterImpl implements org.xmlBlaster.protocol.I_XmlBlaster
       
       // How to guarantee complete transaction? TODO: Implement native PUBLISH_ARR
       String[] returnArr = new String[msgUnitArr.length];
-      for (int ii=0; ii<msgUnitArr.length; ii++) {
-         returnArr[ii] = publish(addressServer, sessionInfo, msgUnitArr[ii], MethodName.PUBLISH_ARR);
+      int ii = 0;
+      while (ii < msgUnitArr.length) {
+         // Import all messages up to a failing one, they are published together
+         ArrayList list = new ArrayList(msgUnitArr.length-ii);
+         I_Checkpoint cp = glob.getCheckpointPlugin();
+         int end = ii;
+         for (; end<msgUnitArr.length; end++) {
+            try {
+               MsgUnit msgUnit = importAndAuthorize(sessionInfo, addressServer, msgUnitArr[end], MethodName.PUBLISH);
+               if (cp != null) {
+                  cp.passingBy(I_Checkpoint.CP_PUBLISH_ENTER, msgUnit, null, null);
+               }
+               list.add(msgUnit);
+            }
+            catch (Throwable e) {
+               break;
+            }
+         }
+         publishArr(addressServer, sessionInfo, (MsgUnit[])list.toArray(new MsgUnit[list.size()]), msgUnitArr, ii, returnArr);
+
+         if (end < msgUnitArr.length) { // the failing message does its error handling
+            returnArr[end] = publish(addressServer, sessionInfo, msgUnitArr[end], MethodName.PUBLISH_ARR);
+            end++;
+         }
+         ii = end;
       }
       return returnArr;
    }
+
+   /**
+    * Publishes the imported messages with RequestBroker.publishArr(), a failing message
+    * gets the same error handling as in publish() and the following messages are published
+    * if the exception is not thrown to the client.
+    * @param msgUnitRawArr The raw messages, msgUnitArr[i] is imported from msgUnitRawArr[offset+i]
+    */
+   private final void publishArr(AddressServer addressServer, SessionInfo sessionInfo, MsgUnit[] msgUnitArr,
+                                 MsgUnitRaw[] msgUnitRawArr, int offset, String[] returnArr) throws XmlBlasterException
+   {
+      String[] retArr = new String[msgUnitArr.length];
+      int ii = 0;
+      while (ii < msgUnitArr.length) {
+         Throwable ex = null;
+         try {
+            requestBroker.publishArr(sessionInfo, msgUnitArr, ii, retArr);
+         }
+         catch (Throwable e) {
+            ex = e;
+         }
+         int count = 0;
+         for (; ii<msgUnitArr.length && retArr[ii] != null; ii++) {
+            CryptDataHolder dataHolder = new CryptDataHolder(MethodName.PUBLISH_ARR, new MsgUnitRaw(null, (byte[])null, retArr[ii]));
+            dataHolder.setReturnValue(true);
+            returnArr[offset+ii] = sessionInfo.getSecuritySession().exportMessage(dataHolder).getQos();
+            count++;
+         }
+         sessionInfo.getDispatchStatistic().incrNumPublish(count);
+         if (ii < msgUnitArr.length) {
+            if (ex == null) // assert only
+               ex = new XmlBlasterException(glob, ErrorCode.INTERNAL_PUBLISH, ME, "Missing publish return value of message #" + ii);
+            returnArr[offset+ii] = handlePublishException(ex, addressServer, sessionInfo, msgUnitArr[ii], msgUnitRawArr[offset+ii], MethodName.PUBLISH_ARR);
+            ii++;
+         }
+      }
+   }
    
 
    /**
@@ -446,22 +517,28 @@ public class XmlBlasterImpl implements org.xmlBlaster.protocol.I_XmlBlaster
       CryptDataHolder ctyptDataHolder = new CryptDataHolder(action, msgUnitRaw, null);
       msgUnitRaw = sessionSecCtx.importMessage(ctyptDataHolder);
 
-      MsgUnit msgUnit = null;
-      try {
-    	  // Parse XML key and XML QoS
-    	  msgUnit = new MsgUnit(glob, msgUnitRaw.getKey(), msgUnitRaw.getContent(), msgUnitRaw.getQos(), action);
-      }
-      catch (XmlBlasterException e) {
-    	  // to log SaxParseException, all other exceptions are logged by AvailabilityChecker
-    	  if (!e.isInternal()) log.warning(e.getMessage() + ":\n" + msgUnitRaw.getKey() + "\n" + msgUnitRaw.getQos());
-    	  if (sessionInfo.getConnectQos().allowExceptionsThrownToClient()) {
-             throw e; // normal use case
-    	  }
-    	  else {
-             // e.g. if a dumb device (phone) can't cope with exception, handle it server side
-             MsgErrorInfo msgErrorInfo = new MsgErrorInfo(glob, sessionInfo.getSessionName(), msgUnitRaw, e);
-             sessionInfo.getMsgErrorHandler().handleError(msgErrorInfo);
-    	  }
+      MsgUnit msgUnit = msgUnitRaw.getDecodedMsgUnit(); // Received in binary form (XBF), no need to parse
+      if (msgUnit != null && isDecodable(msgUnit, action)) {
+         msgUnit.getQosData().setMethod(action);
+      }
+      else {
+         msgUnit = null;
+         try {
+            // Parse XML key and XML QoS
+            msgUnit = new MsgUnit(glob, msgUnitRaw.getKey(), msgUnitRaw.getContent(), msgUnitRaw.getQos(), action);
+         }
+         catch (XmlBlasterException e) {
+            // to log SaxParseException, all other exceptions are logged by AvailabilityChecker
+            if (!e.isInternal()) log.warning(e.getMessage() + ":\n" + msgUnitRaw.getKey() + "\n" + msgUnitRaw.getQos());
+            if (sessionInfo.getConnectQos().allowExceptionsThrownToClient()) {
+               throw e; // normal use case
+            }
+            else {
+               // e.g. if a dumb device (phone) can't cope with exception, handle it server side
+               MsgErrorInfo msgErrorInfo = new MsgErrorInfo(glob, sessionInfo.getSessionName(), msgUnitRaw, e);
+               sessionInfo.getMsgErrorHandler().handleError(msgErrorInfo);
+            }
+         }
       }
       QosData qosData = msgUnit.getQosData();
 
@@ -520,6 +597,15 @@ public class XmlBlasterImpl implements org.xmlBlaster.protocol.I_XmlBlaster
       return msgUnit;
    }
 
+   /**
+    * @return true if the already decoded message has the key and QoS types the parser would create for action
+    */
+   private static boolean isDecodable(MsgUnit msgUnit, MethodName action) {
+      if (action != MethodName.PUBLISH && action != MethodName.PUBLISH_ARR && action != MethodName.PUBLISH_ONEWAY)
+         return false;
+      return msgUnit.getQosData() instanceof MsgQosData && msgUnit.getKeyData() instanceof MsgKeyData;
+   }
+
    /**
     * ping xmlBlaster if everything is OK and if xmlBlaster is willing to accept requests.
     * @return "<qos><state id='OK'/></qos>" if we are ready, otherwise the current run level string
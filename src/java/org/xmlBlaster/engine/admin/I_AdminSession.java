@@ -160,6 +160,30 @@ public interface I_AdminSession extends ConnectQosDataMBean, I_AdminUsage {
     * @return Returns the roundTripDelay.
     */
    public long getRoundTripDelay();
+
+   /**
+    * The callback bulk size currently chosen by the adaptive burst mode.
+    * @return -1 if <code>burstMode/adaptive</code> is not configured
+    */
+   public int getBurstModeMaxEntries();
+
+   /**
+    * The milliseconds the adaptive burst mode currently collects callback messages.
+    * @return -1 if <code>burstMode/adaptive</code> is not configured
+    */
+   public long getBurstModeCollectTime();
+
+   /**
+    * The moving average of the callback send latency in milli seconds.
+    * @return -1 if <code>burstMode/adaptive</code> is not configured
+    */
+   public long getAvgSendLatency();
+
+   /**
+    * The moving average of acknowledged callback messages per second.
+    * @return -1 if <code>burstMode/adaptive</code> is not configured
+    */
+   public long getAckRate();
    /** Comma separated list of all subscribed topic oids of this login session */
    public String[] getSubscribedTopics();
    /**
@@ -6,13 +6,17 @@ Comment:   Main manager class for clustering
 ------------------------------------------------------------------------------*/
 package org.xmlBlaster.engine.cluster;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +35,7 @@ import org.xmlBlaster.client.qos.SubscribeReturnQos;
 import org.xmlBlaster.client.qos.UnSubscribeQos;
 import org.xmlBlaster.client.qos.UnSubscribeReturnQos;
 import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.cluster.simpledomain.DomainToMaster;
 import org.xmlBlaster.engine.qos.EraseQosServer;
 import org.xmlBlaster.engine.qos.GetQosServer;
 import org.xmlBlaster.engine.qos.SubscribeQosServer;
@@ -48,7 +53,9 @@ import org.xmlBlaster.util.def.ErrorCode;
 import org.xmlBlaster.util.key.QueryKeyData;
 import org.xmlBlaster.util.plugin.I_Plugin;
 import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.AccessFilterQos;
 import org.xmlBlaster.util.qos.ClientProperty;
+import org.xmlBlaster.util.qos.MsgQosData;
 import org.xmlBlaster.util.qos.QosData;
 import org.xmlBlaster.util.qos.QueryQosData;
 import org.xmlBlaster.util.qos.address.Address;
@@ -117,6 +124,18 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
     */
    private boolean allowDirectLoopback = false;
 
+   /**
+    * The master mapping decisions of published messages, the key is built by getRoutingCacheKey(),
+    * the value is a RoutingDecision. Outdated by routingChanged().
+    */
+   private final Map routingCache = new ConcurrentHashMap();
+   /** Incremented on every change of the cluster nodes or their master rules */
+   private volatile long routingVersion;
+   /** Configured with <code>cluster/routingCache/maxEntries</code>, 0 switches the cache off */
+   private int routingCacheMaxEntries = 10000;
+   private volatile long numRoutingCacheHits;
+   private volatile long numRoutingCacheMisses;
+
    /**
     * If loaded by RunlevelManager. 
     */
@@ -208,6 +227,7 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
     */
    public void postInit() throws XmlBlasterException {
       this.allowDirectLoopback = this.glob.getProperty().get("cluster/allowDirectLoopback", false);
+      this.routingCacheMaxEntries = this.glob.getProperty().get("cluster/routingCache/maxEntries", this.routingCacheMaxEntries);
       this.pluginLoadBalancerType = this.glob.getProperty().get("cluster.loadBalancer.type", "RoundRobin");
       this.pluginLoadBalancerVersion = this.glob.getProperty().get("cluster.loadBalancer.version", "1.0");
       this.loadBalancerPluginManager = new LoadBalancerPluginManager(this.glob, this);
@@ -662,6 +682,7 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
          this.clusterNodesCache = null; // reset cache
          this.clusterNodeMap.put(clusterNode.getId(), clusterNode);
       }
+      routingChanged();
    }
 
    public final void removeClusterNode(ClusterNode clusterNode) {
@@ -674,6 +695,7 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
          this.clusterNodesCache = null; // reset cache
          this.clusterNodeMap.remove(clusterNode.getId());
       }
+      routingChanged();
    }
 
    /**
@@ -855,14 +877,6 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
          return null;
       }
 
-      // Search all other cluster nodes to find the masters of this message ...
-      // NOTE: If no filters are used, the masterSet=f(msgUnit) could be cached for performance gain
-      //       Cache implementation is currently missing
-
-      Set masterSet = new TreeSet(); // Contains the NodeMasterInfo objects which match this message
-                                     // Sorted by stratum (0 is the first entry) -> see NodeMasterInfo.compareTo
-      int numRulesFound = 0;                             // For nicer logging of warnings
-
       QosData publishQos = msgUnit.getQosData();
       if (publishQos.count(glob.getNodeId()) > 1) { // Checked in RequestBroker as well with warning
          log.warning("Warning, message '" + msgUnit.getLogId() +
@@ -870,47 +884,37 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
          return null;
       }
 
-      ClusterNode[] clusterNodes = getClusterNodes();
-      for (int ic=0; ic<clusterNodes.length; ic++) {
-         ClusterNode clusterNode = clusterNodes[ic];
-         NodeMasterInfo[] nodeMasterInfos = clusterNode.getNodeMasterInfos();
-
-         if (nodeMasterInfos.length < 1)
-            continue;
-         if (clusterNode.isAllowed() == false) {
-            if (log.isLoggable(Level.FINE)) log.fine("Ignoring master node id='" + clusterNode.getId() + "' because it is not available");
-            continue;
-         }
-         if (!clusterNode.isLocalNode() && publishQos.count(clusterNode.getNodeId()) > 0) {
-            if (log.isLoggable(Level.FINE)) log.fine("Ignoring node id='" + clusterNode.getId() + "' for routing, message '" +
-                            msgUnit.getLogId() + "' has been there already");
-            continue;
-         }
-         if (log.isLoggable(Level.FINE)) log.fine("Testing " + nodeMasterInfos.length + " domains rules of node " +
-                                  clusterNode.getId() + " for " + msgUnit.getLogId());
-         numRulesFound += clusterNode.getNodeMasterInfos().length;
-         // for each domain mapping rule ...
-         for (int i=0; i<nodeMasterInfos.length; i++) {
-            NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)nodeMasterInfos[i];
-            I_MapMsgToMasterId domainMapper = this.mapMsgToMasterPluginManager.getMapMsgToMasterId(
-                                 nodeMasterInfo.getType(), nodeMasterInfo.getVersion(), // "DomainToMaster", "1.0"
-                                 msgUnit.getContentMime(), msgUnit.getContentMimeExtended());
-            if (domainMapper == null) {
-               log.warning("No domain mapping plugin type='" + nodeMasterInfo.getType() + "' version='" + nodeMasterInfo.getVersion() +
-                              "' found for message mime='" + msgUnit.getContentMime() + "' and '" + msgUnit.getContentMimeExtended() +
-                              "' ignoring rules " + nodeMasterInfo.toXml());
-               continue;
-            }
-
-            // Now invoke the plugin to find out who is the master ...
-            nodeMasterInfo = domainMapper.getMasterId(nodeMasterInfo, msgUnit);
-            if (nodeMasterInfo != null) {
-               masterSet.add(nodeMasterInfo);
-               break; // found one
+      // Search all other cluster nodes to find the masters of this message ...
+      RoutingDecision decision = null;
+      String cacheKey = getRoutingCacheKey(msgUnit);
+      if (cacheKey != null) {
+         decision = (RoutingDecision)this.routingCache.get(cacheKey);
+         if (decision != null && decision.version != this.routingVersion)
+            decision = null;
+         if (decision == null) {
+            this.numRoutingCacheMisses++;
+            decision = new RoutingDecision(this.routingVersion);
+            findMasters(msgUnit, null, decision);
+            if (decision.cacheable) {
+               if (this.routingCache.size() >= this.routingCacheMaxEntries)
+                  this.routingCache.clear();
+               this.routingCache.put(cacheKey, decision);
             }
          }
+         else {
+            this.numRoutingCacheHits++;
+         }
+      }
+      else {
+         decision = new RoutingDecision(this.routingVersion);
+         findMasters(msgUnit, publishQos, decision);
       }
 
+      // Contains the NodeMasterInfo objects which match this message
+      // Sorted by stratum (0 is the first entry) -> see NodeMasterInfo.compareTo
+      Set masterSet = decision.getMasterSet(publishQos);
+      int numRulesFound = decision.numRules;  // For nicer logging of warnings
+
       if (masterSet.size() < 1) {
          if (numRulesFound == 0) {
             if (log.isLoggable(Level.FINE)) log.fine("Using local node for message, no master mapping rules are known.");
@@ -956,6 +960,177 @@ public final class ClusterManager implements I_RunlevelListener, I_Plugin, Clust
       return nodeMasterInfo;
    }
 
+   /**
+    * Asks the master mapping rules of all cluster nodes which nodes are master of the message.
+    * @param publishQos If not null the nodes which are not allowed or which the message has passed
+    *        already are skipped, if null all nodes are checked (for the routing cache)
+    * @param decision Collects the matching NodeMasterInfo of each node and the number of rules
+    */
+   private void findMasters(MsgUnit msgUnit, QosData publishQos, RoutingDecision decision) throws XmlBlasterException {
+      ClusterNode[] clusterNodes = getClusterNodes();
+      for (int ic=0; ic<clusterNodes.length; ic++) {
+         ClusterNode clusterNode = clusterNodes[ic];
+         NodeMasterInfo[] nodeMasterInfos = clusterNode.getNodeMasterInfos();
+
+         if (nodeMasterInfos.length < 1)
+            continue;
+         if (publishQos != null && !decision.isRoutable(clusterNode, publishQos)) {
+            if (log.isLoggable(Level.FINE)) log.fine("Ignoring node id='" + clusterNode.getId() + "' for routing of message '" +
+                            msgUnit.getLogId() + "', it is not available or the message has been there already");
+            continue;
+         }
+         if (log.isLoggable(Level.FINE)) log.fine("Testing " + nodeMasterInfos.length + " domains rules of node " +
+                                  clusterNode.getId() + " for " + msgUnit.getLogId());
+         decision.numRules += nodeMasterInfos.length;
+         // for each domain mapping rule ...
+         for (int i=0; i<nodeMasterInfos.length; i++) {
+            NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)nodeMasterInfos[i];
+            I_MapMsgToMasterId domainMapper = this.mapMsgToMasterPluginManager.getMapMsgToMasterId(
+                                 nodeMasterInfo.getType(), nodeMasterInfo.getVersion(), // "DomainToMaster", "1.0"
+                                 msgUnit.getContentMime(), msgUnit.getContentMimeExtended());
+            if (domainMapper == null) {
+               log.warning("No domain mapping plugin type='" + nodeMasterInfo.getType() + "' version='" + nodeMasterInfo.getVersion() +
+                              "' found for message mime='" + msgUnit.getContentMime() + "' and '" + msgUnit.getContentMimeExtended() +
+                              "' ignoring rules " + nodeMasterInfo.toXml());
+               continue;
+            }
+            if (!isCacheable(domainMapper, nodeMasterInfo))
+               decision.cacheable = false;
+
+            // Now invoke the plugin to find out who is the master ...
+            nodeMasterInfo = domainMapper.getMasterId(nodeMasterInfo, msgUnit);
+            if (nodeMasterInfo != null) {
+               decision.masters.add(nodeMasterInfo);
+               break; // found one
+            }
+         }
+      }
+   }
+
+   /**
+    * The decision of DomainToMaster depends only on the key, domain and mime of the topic
+    * as long as no content filters are configured, the decision of other plugins is unknown.
+    */
+   private boolean isCacheable(I_MapMsgToMasterId domainMapper, NodeMasterInfo nodeMasterInfo) {
+      if (!(domainMapper instanceof DomainToMaster))
+         return false;
+      if (nodeMasterInfo.getAccessFilterArr().length > 0)
+         return false;
+      QueryKeyData[] keyMappings = nodeMasterInfo.getKeyMappings();
+      for (int i=0; i<keyMappings.length; i++) {
+         AccessFilterQos[] filters = keyMappings[i].getAccessFilterArr();
+         if (filters != null && filters.length > 0)
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Only published topics with an oid are cached, the decision depends on the key (which
+    * is immutable for a topic, so XPath rules see the same key for all messages of a topic),
+    * the domain, the mime types and the PtP flag.
+    * @return null if the message is not cacheable or the cache is switched off
+    */
+   private String getRoutingCacheKey(MsgUnit msgUnit) {
+      if (this.routingCacheMaxEntries <= 0 || !msgUnit.getQosData().isPublish())
+         return null;
+      String oid = msgUnit.getKeyOid();
+      if (oid == null || oid.length() < 1)
+         return null;
+      boolean ptp = (msgUnit.getQosData() instanceof MsgQosData) && ((MsgQosData)msgUnit.getQosData()).isPtp();
+      StringBuffer sb = new StringBuffer(oid.length() + 64);
+      sb.append(oid).append('\u0000').append(msgUnit.getDomain()).append('\u0000').append(msgUnit.getContentMime());
+      sb.append('\u0000').append(msgUnit.getContentMimeExtended()).append('\u0000').append(ptp);
+      return sb.toString();
+   }
+
+   /**
+    * Outdates all cached routing decisions, called when a cluster node or a master rule changes.
+    */
+   public void routingChanged() {
+      this.routingVersion++;
+      this.routingCache.clear();
+      if (log.isLoggable(Level.FINE)) log.fine("Cluster topology or master rules changed, routing cache is cleared");
+   }
+
+   /**
+    * @return The maximum number of cached routing decisions, 0 if the cache is switched off
+    */
+   public int getRoutingCacheMaxEntries() {
+      return this.routingCacheMaxEntries;
+   }
+
+   /**
+    * @param maxEntries The maximum number of cached routing decisions, 0 switches the cache off
+    */
+   public void setRoutingCacheMaxEntries(int maxEntries) {
+      this.routingCacheMaxEntries = maxEntries;
+      this.routingCache.clear();
+   }
+
+   /**
+    * @return The number of cached routing decisions
+    */
+   public int getRoutingCacheSize() {
+      return this.routingCache.size();
+   }
+
+   /**
+    * @return The number of forwarded messages which found their masters in the routing cache
+    */
+   public long getRoutingCacheHits() {
+      return this.numRoutingCacheHits;
+   }
+
+   /**
+    * @return The number of messages for which the master mapping rules were evaluated
+    */
+   public long getRoutingCacheMisses() {
+      return this.numRoutingCacheMisses;
+   }
+
+   /**
+    * The matching master rule of each cluster node for a message.
+    * The connection state of the nodes is checked on each use.
+    */
+   private static final class RoutingDecision
+   {
+      final long version;
+      final List masters = new ArrayList();
+      int numRules;
+      boolean cacheable = true;
+
+      RoutingDecision(long version) {
+         this.version = version;
+      }
+
+      boolean isRoutable(ClusterNode clusterNode, QosData publishQos) {
+         if (!clusterNode.isAllowed())
+            return false;
+         return clusterNode.isLocalNode() || publishQos.count(clusterNode.getNodeId()) == 0;
+      }
+
+      /**
+       * @return The masters which are available and not yet passed by the message,
+       *         a new set as NodeMasterInfo sorts by the current connection state
+       */
+      Set getMasterSet(QosData publishQos) {
+         if (this.masters.size() == 1) {
+            NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)this.masters.get(0);
+            if (isRoutable(nodeMasterInfo.getClusterNode(), publishQos))
+               return Collections.singleton(nodeMasterInfo);
+            return Collections.EMPTY_SET;
+         }
+         Set masterSet = new TreeSet();
+         for (int i=0; i<this.masters.size(); i++) {
+            NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)this.masters.get(i);
+            if (isRoutable(nodeMasterInfo.getClusterNode(), publishQos))
+               masterSet.add(nodeMasterInfo);
+         }
+         return masterSet;
+      }
+   }
+
    public final I_XmlBlasterAccess getConnection(NodeId nodeId) {
       log.severe("getConnection() is not implemented");
       return null;
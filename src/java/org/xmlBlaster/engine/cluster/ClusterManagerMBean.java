@@ -27,6 +27,28 @@ public interface ClusterManagerMBean extends I_AdminPlugin {
    String[] getNodes();
    
    String addClusterNode(String xml);
+
+   /**
+    * The maximum number of cached master decisions, 0 switches the routing cache off
+    */
+   int getRoutingCacheMaxEntries();
+
+   void setRoutingCacheMaxEntries(int maxEntries);
+
+   /**
+    * The number of topics with a cached master decision, see <code>cluster/routingCache/maxEntries</code>
+    */
+   int getRoutingCacheSize();
+
+   /**
+    * How often the cached master decision of a topic was used
+    */
+   long getRoutingCacheHits();
+
+   /**
+    * How often the master mapping rules were evaluated for a cacheable message
+    */
+   long getRoutingCacheMisses();
    
    String toXml();
 }
@@ -540,12 +540,23 @@ public final class ClusterNode implements java.lang.Comparable, I_Callback, I_Co
       synchronized (this.masterInfoMap) {
          this.masterInfoMap.put(""+domainInfo.getCount(), domainInfo);
       }
+      routingChanged();
    }
 
    public void removeNodeMasterInfo(NodeMasterInfo domainInfo) {
       synchronized (this.masterInfoMap) {
          this.masterInfoMap.remove(""+domainInfo.getCount());
       }
+      routingChanged();
+   }
+
+   /**
+    * Invalidates the cached routing decisions of the ClusterManager after a rule change.
+    */
+   void routingChanged() {
+      ClusterManager clusterManager = this.fatherGlob.getClusterManagerNoEx();
+      if (clusterManager != null)
+         clusterManager.routingChanged();
    }
    
    public I_Queue getConnectionQueue() {
@@ -234,6 +234,7 @@ public final class NodeMasterInfo implements Comparable, NodeMasterInfoMBean
     */
    public void setAcceptDefault(boolean acceptDefault) {
       this.acceptDefault = acceptDefault;
+      this.clusterNode.routingChanged();
    }
 
    /**
@@ -248,6 +249,7 @@ public final class NodeMasterInfo implements Comparable, NodeMasterInfoMBean
     */
    public void setAcceptOtherDefault(boolean acceptOtherDefault) {
       this.acceptOtherDefault = acceptOtherDefault;
+      this.clusterNode.routingChanged();
    }
 
    /**
@@ -352,6 +354,7 @@ public final class NodeMasterInfo implements Comparable, NodeMasterInfoMBean
          inMaster--;
          if (inMaster > 0) return; // ignore nested master tags
          character.setLength(0);
+         this.clusterNode.routingChanged(); // the rule is complete now
       }
 
       if (inKey)
@@ -0,0 +1,197 @@
+/*------------------------------------------------------------------------------
+Name:      ConsistentHash.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Load balancer sharding the topics over the master nodes
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.engine.cluster.simpledomain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.cluster.ClusterManager;
+import org.xmlBlaster.engine.cluster.ClusterNode;
+import org.xmlBlaster.engine.cluster.I_LoadBalancer;
+import org.xmlBlaster.engine.cluster.NodeMasterInfo;
+import org.xmlBlaster.engine.cluster.NodeStateInfo;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.plugin.I_Plugin;
+import org.xmlBlaster.util.plugin.PluginInfo;
+
+/**
+ * Shards the topics over the possible master nodes with weighted rendezvous hashing.
+ * <p>
+ * Every node gets a score for the key oid of the message, <code>-weight/ln(hash(oid, nodeId))</code>
+ * with the hash mapped to (0,1), the node with the highest score is the master of the topic.
+ * All nodes of one domain rule share the topics without a rule per node, and as the score of a
+ * node does not depend on the other nodes only the topics of a leaving node move (to the
+ * remaining nodes) and a joining node takes over only the topics it wins.
+ * </p>
+ * <p>
+ * The weight is taken from the CPU idle reported in the state of a node (see NodeStateInfo),
+ * rounded to steps of 10% to avoid moving topics on small load changes, a node reporting no
+ * state has the weight 1.0. Only the rules with the lowest stratum are considered.
+ * </p>
+ * Register it in xmlBlaster.properties and switch it on with <code>-cluster.loadBalancer.type ConsistentHash</code>:
+ * <pre>
+ * LoadBalancerPlugin[ConsistentHash][1.0]=org.xmlBlaster.engine.cluster.simpledomain.ConsistentHash,weightByLoad=true
+ * </pre>
+ * @see <a href="http://www.xmlblaster.org/xmlBlaster/doc/requirements/cluster.html">cluster requirement</a>
+ */
+final public class ConsistentHash implements I_LoadBalancer, I_Plugin {
+
+   private String ME = "ConsistentHash";
+   private static Logger log = Logger.getLogger(ConsistentHash.class.getName());
+   /** The weight of a node without any idle CPU */
+   public static final double MIN_WEIGHT = 0.05;
+   private boolean weightByLoad = true;
+
+   /**
+    * This is called after instantiation of the plugin
+    * @param glob The Global handle of this xmlBlaster server instance.
+    */
+   public void initialize(ServerScope glob, ClusterManager clusterManager) {
+      this.ME = this.ME + "-" + glob.getId();
+      log.info("Consistent hash load balancer is initialized, weightByLoad=" + this.weightByLoad);
+   }
+
+   /**
+    * This method is called by the PluginManager (enforced by I_Plugin).
+    * @see org.xmlBlaster.util.plugin.I_Plugin#init(org.xmlBlaster.util.Global,org.xmlBlaster.util.plugin.PluginInfo)
+    */
+   public void init(org.xmlBlaster.util.Global glob, PluginInfo pluginInfo) {
+      if (pluginInfo == null)
+         return;
+      String tmp = (String)pluginInfo.getParameters().get("weightByLoad");
+      if (tmp != null)
+         this.weightByLoad = Boolean.valueOf(tmp.trim()).booleanValue();
+   }
+
+   /**
+    * Return plugin type for Plugin loader
+    * @return "ConsistentHash"
+    */
+   public String getType() {
+      return "ConsistentHash";
+   }
+
+   /**
+    * Return plugin version for Plugin loader
+    * @return "1.0"
+    */
+   public String getVersion() {
+      return "1.0";
+   }
+
+   /**
+    * Get a human readable name of this implementation
+    * @return "ConsistentHash"
+    */
+   public String getName() {
+      return "ConsistentHash";
+   }
+
+   /**
+    * Chooses the node with the highest score for the key oid.
+    * @param nodeMasterInfoSet A set containing NodeMasterInfo objects, the possible xmlBlaster nodes.
+    * @param keyOid The oid of the message, the topics are sharded by it
+    * @return The chosen nodeMasterInfo to handle the message or null to handle it locally
+    * @see org.xmlBlaster.engine.cluster.I_LoadBalancer#getClusterNode(java.util.Set, String)
+    */
+   public NodeMasterInfo getClusterNode(Set nodeMasterInfoSet, String keyOid) throws XmlBlasterException {
+      if (nodeMasterInfoSet.size() == 0) {
+         log.warning("Empty nodeMasterInfoSet, using local node");
+         return null;
+      }
+      if (nodeMasterInfoSet.size() == 1)
+         return (NodeMasterInfo)nodeMasterInfoSet.iterator().next();
+
+      int minStratum = Integer.MAX_VALUE;
+      Iterator it = nodeMasterInfoSet.iterator();
+      while (it.hasNext()) {
+         NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)it.next();
+         if (nodeMasterInfo.getStratum() < minStratum)
+            minStratum = nodeMasterInfo.getStratum();
+      }
+
+      // The set is sorted after available:stratum:nodeId, the first rule of a node is its best one
+      ArrayList candidates = new ArrayList(nodeMasterInfoSet.size());
+      HashSet nodeIds = new HashSet();
+      it = nodeMasterInfoSet.iterator();
+      while (it.hasNext()) {
+         NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)it.next();
+         if (nodeMasterInfo.getStratum() == minStratum && nodeIds.add(nodeMasterInfo.getClusterNode().getId()))
+            candidates.add(nodeMasterInfo);
+      }
+
+      NodeMasterInfo best = null;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i=0; i<candidates.size(); i++) {
+         NodeMasterInfo nodeMasterInfo = (NodeMasterInfo)candidates.get(i);
+         ClusterNode clusterNode = nodeMasterInfo.getClusterNode();
+         double score = getScore(keyOid, clusterNode.getId(), getWeight(clusterNode));
+         if (score > bestScore) {
+            bestScore = score;
+            best = nodeMasterInfo;
+         }
+      }
+      if (log.isLoggable(Level.FINE)) log.fine(ME + ": Selected master node id='" + best.getClusterNode().getId() +
+                   "' for topic '" + keyOid + "' from a choice of " + candidates.size() + " nodes");
+      return best;
+   }
+
+   /**
+    * @return The weight of the node, 1.0 if it reports no load or weightByLoad=false
+    */
+   public double getWeight(ClusterNode clusterNode) {
+      if (!this.weightByLoad)
+         return 1.0;
+      NodeStateInfo state = clusterNode.getNodeStateInfo();
+      if (state == null || state.getAvgCpuIdle() < 0)
+         return 1.0;
+      double weight = Math.round(Math.min(100, state.getAvgCpuIdle()) / 10.) / 10.;
+      return Math.max(MIN_WEIGHT, weight);
+   }
+
+   /**
+    * The rendezvous score of a node for a topic.
+    */
+   private static double getScore(String keyOid, String nodeId, double weight) {
+      long hash = hash(keyOid, nodeId);
+      double uniform = ((hash >>> 11) + 0.5) / (double)(1L << 53); // (0,1)
+      return -weight / Math.log(uniform);
+   }
+
+   /**
+    * FNV-1a of both strings with the MurmurHash3 finalizer.
+    */
+   private static long hash(String keyOid, String nodeId) {
+      long h = 0xcbf29ce484222325L;
+      if (keyOid != null) {
+         for (int i=0; i<keyOid.length(); i++) {
+            h ^= keyOid.charAt(i);
+            h *= 0x100000001b3L;
+         }
+      }
+      h ^= 0xffff; // separator
+      h *= 0x100000001b3L;
+      for (int i=0; i<nodeId.length(); i++) {
+         h ^= nodeId.charAt(i);
+         h *= 0x100000001b3L;
+      }
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   public void shutdown() throws XmlBlasterException {
+   }
+}
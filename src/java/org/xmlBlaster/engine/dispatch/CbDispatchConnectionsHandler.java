@@ -18,6 +18,7 @@ import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.def.MethodName;
 import org.xmlBlaster.util.dispatch.DispatchConnection;
 import org.xmlBlaster.util.dispatch.DispatchConnectionsHandler;
+import org.xmlBlaster.util.dispatch.DispatchStatistic;
 import org.xmlBlaster.util.qos.StatusQosData;
 import org.xmlBlaster.util.qos.address.AddressBase;
 import org.xmlBlaster.util.queue.I_QueueEntry;
@@ -40,7 +41,15 @@ public final class CbDispatchConnectionsHandler extends DispatchConnectionsHandl
     * @param cbAddr The addresses i shall connect to
     */
    public CbDispatchConnectionsHandler(Global glob, ServerDispatchManager dispatchManager) throws XmlBlasterException {
-      super(glob, dispatchManager);
+      this(glob, dispatchManager, null);
+   }
+
+   /**
+    * @param dispatchManager The message queue witch i belong to
+    * @param statistic The statistic to continue, null creates a new one
+    */
+   public CbDispatchConnectionsHandler(Global glob, ServerDispatchManager dispatchManager, DispatchStatistic statistic) throws XmlBlasterException {
+      super(glob, dispatchManager, statistic);
       this.ME = "CbDispatchConnectionsHandler-" + dispatchManager.getQueue().getStorageId();
    }
    
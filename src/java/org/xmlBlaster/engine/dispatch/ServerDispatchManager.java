@@ -25,10 +25,12 @@ import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.XmlBuffer;
 import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.ErrorCode;
+import org.xmlBlaster.util.dispatch.AdaptiveBurstMode;
 import org.xmlBlaster.util.dispatch.ConnectionStateEnum;
 import org.xmlBlaster.util.dispatch.DispatchConnection;
 import org.xmlBlaster.util.dispatch.DispatchConnectionsHandler;
 import org.xmlBlaster.util.dispatch.DispatchStatistic;
+import org.xmlBlaster.util.dispatch.DispatchWindow;
 import org.xmlBlaster.util.dispatch.DispatchWorker;
 import org.xmlBlaster.util.dispatch.I_ConnectionStatusListener;
 import org.xmlBlaster.util.dispatch.I_DispatchManager;
@@ -88,6 +90,10 @@ public final class ServerDispatchManager implements I_DispatchManager
 
    private int burstModeMaxEntries = -1;
    private long burstModeMaxBytes = -1L;
+   /** Not null if burstMode/windowSize > 1 was configured: several DispatchWorker send in parallel */
+   private volatile DispatchWindow dispatchWindow;
+   /** Not null if burstMode/adaptive=true: chooses the bulk size and collect time */
+   private volatile AdaptiveBurstMode adaptiveBurstMode;
 
    /** async delivery is activated only when this flag is 'true'. Used to temporarly inhibit dispatch of messages */
    private boolean dispatcherActive = true;
@@ -125,7 +131,10 @@ public final class ServerDispatchManager implements I_DispatchManager
       this.msgQueue = msgQueue;
       this.failureListener = failureListener;
       this.securityInterceptor = securityInterceptor;
-      this.dispatchConnectionsHandler = this.glob.createServerDispatchConnectionsHandler(this);
+      if (sessionInfo != null && sessionInfo.isLazyCallbackQueue())
+         this.dispatchConnectionsHandler = this.glob.createServerDispatchConnectionsHandler(this, sessionInfo.getDispatchStatistic());
+      else
+         this.dispatchConnectionsHandler = this.glob.createServerDispatchConnectionsHandler(this);
       this.connectionStatusListeners = new HashSet<I_ConnectionStatusListener>();
       if (connectionStatusListener != null) this.connectionStatusListeners.add(connectionStatusListener);
 
@@ -302,9 +311,29 @@ public final class ServerDispatchManager implements I_DispatchManager
     * callback queue and deliver in one bulk.
     */
    public final int getBurstModeMaxEntries() {
+      AdaptiveBurstMode adaptive = this.adaptiveBurstMode;
+      if (adaptive != null)
+         return adaptive.getMaxEntries();
       return this.burstModeMaxEntries;
    }
 
+   /**
+    * @return The milliseconds to collect messages before sending, 0 or -1 sends immediately
+    */
+   private long getCollectTime() {
+      AdaptiveBurstMode adaptive = this.adaptiveBurstMode;
+      if (adaptive != null)
+         return adaptive.getCollectTime();
+      return this.collectTime;
+   }
+
+   /**
+    * @return The adaptive burst mode or null if burstMode/adaptive is not configured
+    */
+   public AdaptiveBurstMode getAdaptiveBurstMode() {
+      return this.adaptiveBurstMode;
+   }
+
    /**
     * How many bytes maximum shall the callback thread take in one bulk out of the
     * callback queue and deliver in one bulk.
@@ -354,6 +383,16 @@ public final class ServerDispatchManager implements I_DispatchManager
 
          this.burstModeMaxEntries = addr.getBurstModeMaxEntries();
          this.burstModeMaxBytes = addr.getBurstModeMaxBytes();
+         if (this.dispatchWindow != null)
+            this.dispatchWindow.setWindowSize(addr.getBurstModeWindowSize());
+         else if (addr.getBurstModeWindowSize() > 1 && this.msgInterceptor == null)
+            this.dispatchWindow = new DispatchWindow(addr.getBurstModeWindowSize());
+         if (!addr.isBurstModeAdaptive())
+            this.adaptiveBurstMode = null;
+         else if (this.adaptiveBurstMode != null)
+            this.adaptiveBurstMode.setBounds(addr.getBurstModeMaxEntries(), addr.getBurstModeMaxCollectTime());
+         else
+            this.adaptiveBurstMode = new AdaptiveBurstMode(getDispatchStatistic(), addr.getBurstModeMaxEntries(), addr.getBurstModeMaxCollectTime());
 
          synchronized (this.ALIVE_TRANSITION_MONITOR) {
             // 1. We allow a client to intercept and for example destroy all entries in the queue
@@ -582,6 +621,9 @@ public final class ServerDispatchManager implements I_DispatchManager
          }
       }
       this.msgQueue.removeRandom(entries);
+      AdaptiveBurstMode adaptive = this.adaptiveBurstMode;
+      if (adaptive != null && postSendNotify) // the DispatchConnection has measured the send latency
+         adaptive.sent(entries.length, getDispatchStatistic().getRoundTripDelay(), this.msgQueue.getNumOfEntries());
       /*(currently only done in sync invocation)
       ArrayList defaultEntries = sendAsyncResponseEvent(entryList);
       if (defaultEntries.size() > 0) {
@@ -908,6 +950,7 @@ public final class ServerDispatchManager implements I_DispatchManager
     * @return true if a burst mode timer was activated
     */
    private boolean useBurstModeTimer() {
+      long collectTime = getCollectTime();
       if (collectTime <= 0L) return false;
 
       // Messages are sent delayed on timeout (burst mode)
@@ -940,6 +983,11 @@ public final class ServerDispatchManager implements I_DispatchManager
     * @param intensiveLogging set to true for debugging purposes
     */
    private void startWorkerThread(boolean fromTimeout, final boolean intensiveLogging) {
+      DispatchWindow window = this.dispatchWindow;
+      if (window != null) {
+         startWindowedWorkerThreads(window);
+         return;
+      }
       if (intensiveLogging) {
          log.info(ME+": startWorkerThread(" + fromTimeout + "," + intensiveLogging + ") this.dispatchWorkerIsActive=" + this.dispatchWorkerIsActive);
       }
@@ -984,6 +1032,41 @@ public final class ServerDispatchManager implements I_DispatchManager
       }
    }
 
+   /**
+    * Starts a DispatchWorker for each free credit of the window as long as
+    * the queue has entries which are not on the wire already.
+    */
+   private void startWindowedWorkerThreads(DispatchWindow window) {
+      synchronized (this) {
+         if (this.isShutdown) {
+            if (log.isLoggable(Level.FINE)) log.fine(ME+": startWorkerThread() failed, we are shutdown: " + toXml(""));
+            return;
+         }
+         try {
+            while (window.hasUnclaimed(this.msgQueue) && window.acquire()) {
+               this.dispatchWorkerIsActive = true;
+               this.notifyCounter = 0;
+               try {
+                  if (!this.glob.getDispatchWorkerPool().execute(new DispatchWorker(glob, this))) {
+                     window.release(null);
+                     break;
+                  }
+               }
+               catch (Throwable e) {
+                  window.release(null);
+                  log.severe(ME+": Unexpected error occurred: " + e.toString());
+                  e.printStackTrace();
+                  break;
+               }
+            }
+         }
+         catch (XmlBlasterException e) {
+            log.warning(ME+": Can't peek the queue to start a dispatch worker: " + e.getMessage());
+         }
+         this.dispatchWorkerIsActive = window.getNumInFlight() > 0;
+      }
+   }
+
    public boolean isDead() {
       return this.dispatchConnectionsHandler.isDead();
    }
@@ -1104,6 +1187,13 @@ public final class ServerDispatchManager implements I_DispatchManager
       return this.msgInterceptor;
    }
 
+   /**
+    * @return The window if burstMode/windowSize > 1 is configured, otherwise null
+    */
+   public DispatchWindow getDispatchWindow() {
+      return this.dispatchWindow;
+   }
+
    /**
     * Set new callback addresses, typically after a session login/logout
     */
@@ -1133,7 +1223,8 @@ public final class ServerDispatchManager implements I_DispatchManager
     * it is triggered again.
     */
    public void setDispatchWorkerIsActive(boolean val) {
-      this.dispatchWorkerIsActive = val;
+      DispatchWindow window = this.dispatchWindow;
+      this.dispatchWorkerIsActive = (window != null && val == false) ? window.getNumInFlight() > 0 : val; // other workers may still send
       if (val == false) {
          if (this.isShutdown) {
             if (log.isLoggable(Level.FINE)) log.fine(ME+": setDispatchWorkerIsActive(" + val + ") failed, we are shutdown: " + toXml(""));
@@ -1283,6 +1374,12 @@ public final class ServerDispatchManager implements I_DispatchManager
       sb.append("' isShutdown='").append(this.isShutdown).append("'>");
       sb.append(this.dispatchConnectionsHandler.toXml(extraOffset+Constants.INDENT));
       sb.append(offset).append(" <dispatchWorkerIsActive>").append(dispatchWorkerIsActive).append("</dispatchWorkerIsActive>");
+      DispatchWindow window = this.dispatchWindow;
+      if (window != null)
+         sb.append(offset).append(" <dispatchWindow>").append(window.toString()).append("</dispatchWindow>");
+      AdaptiveBurstMode adaptive = this.adaptiveBurstMode;
+      if (adaptive != null)
+         sb.append(offset).append(" <adaptiveBurstMode>").append(adaptive.toString()).append("</adaptiveBurstMode>");
       sb.append(offset).append("</DispatchManager>");
 
       return sb.toString();
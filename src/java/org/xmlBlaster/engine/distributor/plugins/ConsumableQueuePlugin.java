@@ -137,7 +137,7 @@ public class ConsumableQueuePlugin implements I_MsgDistributor, I_ConnectionStat
          Thread.dumpStack();
          return null;
       }
-      I_DispatchManager dispatchManager = sessionInfo.getDispatchManager();
+      I_DispatchManager dispatchManager = sessionInfo.getDispatchManager(true); // a lazy session needs it for the status events
       if (dispatchManager == null) {
          log.severe("getDispatchManager the dispatcherManager object is null");
          Thread.dumpStack();
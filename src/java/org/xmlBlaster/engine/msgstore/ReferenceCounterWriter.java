@@ -0,0 +1,189 @@
+/*------------------------------------------------------------------------------
+Name:      ReferenceCounterWriter.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Coalesces the reference counter writes of the message store
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.engine.msgstore;
+
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.I_Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
+import org.xmlBlaster.util.Timestamp;
+import org.xmlBlaster.util.XmlBlasterException;
+
+/**
+ * Writes the reference counters of the message store entries (the XBMEAT row) of one topic.
+ * <p>
+ * A message published to N subscribers is stored once, its N callback queue entries only
+ * reference it. Every delivery decrements the reference counter and each change is written
+ * with <code>I_Map.updateCounters()</code>, that is one database update per subscriber and message.
+ * </p>
+ * <p>
+ * With a delay &gt; 0 the decrements of a persistent entry are collected and written once
+ * after the delay, the N updates of a fan-out become one. Increments are written immediately.
+ * So the persistent counter is never lower than the real number of references:
+ * after a crash a message may be kept too long but never lost.
+ * A pending entry must be flushed before it is loaded again from the store (after swapping)
+ * and removed when the entry is destroyed, see flushIfSwapped(long) and remove(long).
+ * </p>
+ */
+public final class ReferenceCounterWriter implements I_Timeout
+{
+   private static Logger log = Logger.getLogger(ReferenceCounterWriter.class.getName());
+   private final I_Map map;
+   private final I_TimeoutManager timer;
+   private final long delay;
+   private final int maxPending;
+   /** The entries with unwritten decrements, key is the uniqueId */
+   private final LinkedHashMap pending = new LinkedHashMap();
+   private Timestamp timerKey;
+   private long numWrites;
+   private long numCoalesced;
+
+   /**
+    * @param map The message store
+    * @param timer The timer to trigger the delayed writes
+    * @param delay The milliseconds to collect decrements, 0 writes every change immediately
+    * @param maxPending If more entries are pending they are written at once
+    */
+   public ReferenceCounterWriter(I_Map map, I_TimeoutManager timer, long delay, int maxPending) {
+      this.map = map;
+      this.timer = timer;
+      this.delay = delay;
+      this.maxPending = maxPending;
+   }
+
+   /**
+    * The reference counter of the entry has changed.
+    * @param decremented true if a reference was removed, such a change may be written delayed
+    */
+   public void counterChanged(I_MapEntry entry, boolean decremented) throws XmlBlasterException {
+      if (!decremented || this.delay <= 0L || !entry.isPersistent()) {
+         synchronized (this) {
+            this.pending.remove(new Long(entry.getUniqueId())); // written now with the current values
+            this.numWrites++;
+         }
+         this.map.updateCounters(entry);
+         return;
+      }
+      boolean full;
+      synchronized (this) {
+         if (this.pending.put(new Long(entry.getUniqueId()), entry) != null)
+            this.numCoalesced++;
+         if (this.timerKey == null)
+            this.timerKey = this.timer.addTimeoutListener(this, this.delay, null);
+         full = this.pending.size() >= this.maxPending;
+      }
+      if (full)
+         flush();
+   }
+
+   /**
+    * Writes the counters of the given entry if they are pending and the entry is swapped,
+    * call it before the entry is loaded from the store.
+    * A not swapped entry is returned by the cache as is, its write stays delayed.
+    */
+   public void flushIfSwapped(long uniqueId) throws XmlBlasterException {
+      I_MapEntry entry;
+      synchronized (this) {
+         if (this.pending.size() == 0)
+            return;
+         Long key = new Long(uniqueId);
+         entry = (I_MapEntry)this.pending.get(key);
+         if (entry == null || !entry.isSwapped())
+            return;
+         this.pending.remove(key);
+         this.numWrites++;
+      }
+      this.map.updateCounters(entry);
+   }
+
+   /**
+    * Writes all pending counters.
+    * A failing write is logged only, the persistent counter is then too high which is safe.
+    */
+   public void flush() {
+      I_MapEntry[] entries;
+      synchronized (this) {
+         if (this.timerKey != null) {
+            this.timer.removeTimeoutListener(this.timerKey);
+            this.timerKey = null;
+         }
+         if (this.pending.size() == 0)
+            return;
+         entries = (I_MapEntry[])this.pending.values().toArray(new I_MapEntry[this.pending.size()]);
+         this.pending.clear();
+         this.numWrites += entries.length;
+      }
+      if (log.isLoggable(Level.FINE)) log.fine("Writing the reference counters of " + entries.length + " entries");
+      for (int i=0; i<entries.length; i++) {
+         try {
+            this.map.updateCounters(entries[i]);
+         }
+         catch (Throwable e) {
+            log.warning("Writing the reference counter of '" + entries[i].getLogId() + "' failed, it is kept too high in the store: " + e.toString());
+         }
+      }
+   }
+
+   /**
+    * The entry is removed from the store, its counters are not written anymore.
+    */
+   public synchronized void remove(long uniqueId) {
+      if (this.pending.size() > 0)
+         this.pending.remove(new Long(uniqueId));
+   }
+
+   /**
+    * Forgets all pending counters, for example if the store is cleared.
+    */
+   public synchronized void clear() {
+      if (this.timerKey != null) {
+         this.timer.removeTimeoutListener(this.timerKey);
+         this.timerKey = null;
+      }
+      this.pending.clear();
+   }
+
+   /**
+    * The delay is over.
+    * Enforced by I_Timeout
+    */
+   public void timeout(Object userData) {
+      synchronized (this) {
+         this.timerKey = null;
+      }
+      flush();
+   }
+
+   /** @return The milliseconds decrements are collected, 0 if switched off */
+   public long getDelay() {
+      return this.delay;
+   }
+
+   /** @return The number of entries with unwritten counters */
+   public synchronized int getNumPending() {
+      return this.pending.size();
+   }
+
+   /** @return The number of counter writes done */
+   public synchronized long getNumWrites() {
+      return this.numWrites;
+   }
+
+   /** @return The number of counter writes saved by collecting decrements */
+   public synchronized long getNumCoalesced() {
+      return this.numCoalesced;
+   }
+
+   /**
+    * @return A short summary like "writes=3 coalesced=4997 pending=0"
+    */
+   public synchronized String toString() {
+      return "writes=" + this.numWrites + " coalesced=" + this.numCoalesced + " pending=" + this.pending.size();
+   }
+}
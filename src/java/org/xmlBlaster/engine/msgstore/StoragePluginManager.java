@@ -56,7 +56,8 @@ public class StoragePluginManager extends PluginManagerBase {
    private final String pluginEnvClass = "persistence"; // Used for env lookup like "persistence/topicStore/StoragePlugin[JDBC][1.0]=..."
    private static final String[][] defaultPluginNames = { {"RAM", "org.xmlBlaster.engine.msgstore.ram.MapPlugin"},
                                                           {"JDBC", "org.xmlBlaster.util.queue.jdbc.JdbcQueuePlugin"},
-                                                          {"CACHE", "org.xmlBlaster.engine.msgstore.cache.PersistenceCachePlugin"} };
+                                                          {"CACHE", "org.xmlBlaster.engine.msgstore.cache.PersistenceCachePlugin"},
+                                                          {"FILE", "org.xmlBlaster.util.queue.file.FileQueuePlugin"} };
    public static final String pluginPropertyName = "StoragePlugin";
 
    private Map/*<String(storageId), I_Map>*/ storagesMap = new HashMap();
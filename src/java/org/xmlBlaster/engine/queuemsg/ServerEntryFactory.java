@@ -7,11 +7,8 @@ Comment:   Implementation for the I_EntryFactory
 package org.xmlBlaster.engine.queuemsg;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -29,6 +26,7 @@ import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.def.ErrorCode;
 import org.xmlBlaster.util.def.PriorityEnum;
 import org.xmlBlaster.util.key.MsgKeyData;
+import org.xmlBlaster.util.queue.EntryCodec;
 import org.xmlBlaster.util.queue.I_Entry;
 import org.xmlBlaster.util.queue.I_EntryFactory;
 import org.xmlBlaster.util.queue.StorageId;
@@ -52,6 +50,8 @@ public class ServerEntryFactory implements I_EntryFactory
    private final static String ME = "ServerEntryFactory";
    private ServerScope glob = null;
    private static Logger log = Logger.getLogger(ServerEntryFactory.class.getName());
+   /** true: toBlob() uses EntryCodec binary format, false: java.io.Serializable */
+   private boolean binaryCodec = false;
 
    public static final String ENTRY_TYPE_MSG_SERIAL = "MSG_SER"; // msgUnit was serialized with java.io.Serializable
    public static final String ENTRY_TYPE_MSG_XML = "MSG_XML"; // msgUnit is dumped as XML ASCII string
@@ -73,11 +73,7 @@ public class ServerEntryFactory implements I_EntryFactory
       // it wants to store in the db
 //      return entry.getEmbeddedObject();
       try {
-         Object obj = entry.getEmbeddedObject();
-         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-         ObjectOutputStream objStream = new ObjectOutputStream(baos);
-         objStream.writeObject(obj);
-         return baos.toByteArray();
+         return EntryCodec.encode(entry.getEmbeddedObject(), this.binaryCodec);
       }
       catch (IOException ex) {
          log.severe("toBlob: " + ex.getMessage());
@@ -100,8 +96,7 @@ public class ServerEntryFactory implements I_EntryFactory
 
       if (ENTRY_TYPE_UPDATE_REF.equalsIgnoreCase(type)) { // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 6) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                   "Expected 6 entries in serialized object '" + type + "' but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp + ". Could be a version incompatibility.");
@@ -146,8 +141,7 @@ public class ServerEntryFactory implements I_EntryFactory
       }
       else if (ENTRY_TYPE_HISTORY_REF.equalsIgnoreCase(type)) { // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 2) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                   "Expected 2 entries in serialized object '" + type + "' but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp + ". Could be a version incompatibility.");
@@ -165,8 +159,7 @@ public class ServerEntryFactory implements I_EntryFactory
       }
       else if (ENTRY_TYPE_MSG_XML.equalsIgnoreCase(type)) { // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 5) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 5 entries in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -190,8 +183,7 @@ public class ServerEntryFactory implements I_EntryFactory
       }
       else if (ENTRY_TYPE_MSG_SERIAL.equalsIgnoreCase(type)) {  // probably unused (not found in my tests)
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 3) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 3 entries in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -212,8 +204,7 @@ public class ServerEntryFactory implements I_EntryFactory
 
       else if (ENTRY_TYPE_TOPIC_XML.equalsIgnoreCase(type)) { // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 2) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 2 entries in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -233,8 +224,7 @@ public class ServerEntryFactory implements I_EntryFactory
       }
       else if (ENTRY_TYPE_TOPIC_SERIAL.equalsIgnoreCase(type)) { // probably unused (not found in my tests)
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 1) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 1 entry in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -251,8 +241,7 @@ public class ServerEntryFactory implements I_EntryFactory
 
       else if (ENTRY_TYPE_SESSION.equalsIgnoreCase(type)) {  // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 1) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 1 entry in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -267,8 +256,7 @@ public class ServerEntryFactory implements I_EntryFactory
       }
       else if (ENTRY_TYPE_SUBSCRIBE.equalsIgnoreCase(type)) {  // still used
          try {
-            ObjectInputStream objStream = new ObjectInputStream(is);
-            Object[] obj = (Object[])objStream.readObject();
+            Object[] obj = (Object[])EntryCodec.decode(is);
             if (obj.length < 3) {
                throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME,
                          "Expected 3 entries in serialized object stream but got " + obj.length + " for priority=" + priority + " timestamp=" + timestamp);
@@ -299,8 +287,9 @@ public class ServerEntryFactory implements I_EntryFactory
     */
    public void initialize(org.xmlBlaster.util.Global glob) {
       this.glob = (org.xmlBlaster.engine.ServerScope)glob;
+      this.binaryCodec = EntryCodec.isBinary(glob.getProperty().get(EntryCodec.CODEC_PROPERTY, EntryCodec.CODEC_SERIAL));
 
-      if (log.isLoggable(Level.FINE)) log.fine("Successfully initialized");
+      if (log.isLoggable(Level.FINE)) log.fine("Successfully initialized, binaryCodec=" + this.binaryCodec);
    }
 
    /**
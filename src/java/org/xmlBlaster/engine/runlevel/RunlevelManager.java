@@ -71,6 +71,15 @@ public final class RunlevelManager implements RunlevelManagerMBean
    
    private boolean allowDynamicPlugins;
 
+   /** The startup recovery stage running, like "topics", null if none */
+   private String recoveryStage;
+   private int recoveryDone;
+   private int recoveryTotal;
+   private long recoveryStart;
+   private long recoveryLastLog;
+   /** The finished stages like "topics=1000 in 2300 ms" */
+   private final StringBuffer recoveryFinished = new StringBuffer();
+
    /**
     * For listeners who want to be informed about runlevel changes. 
     */
@@ -532,6 +541,57 @@ public final class RunlevelManager implements RunlevelManagerMBean
       return numErrors;
    }
 
+   /**
+    * Called while persistent topics, sessions and subscriptions are recovered on startup.
+    * Logs the progress every 5 seconds and when a stage is done.
+    * @param stage For example "sessions"
+    * @param done The number of entries recovered so far
+    * @param total The number of entries to recover in this stage
+    */
+   public void setRecoveryProgress(String stage, int done, int total) {
+      long now = System.currentTimeMillis();
+      String text = null;
+      synchronized (this.recoveryFinished) {
+         if (!stage.equals(this.recoveryStage)) {
+            this.recoveryStage = stage;
+            this.recoveryStart = now;
+            this.recoveryLastLog = now;
+         }
+         this.recoveryDone = done;
+         this.recoveryTotal = total;
+         if (done >= total) {
+            String result = stage + "=" + total + " in " + (now - this.recoveryStart) + " ms";
+            if (this.recoveryFinished.length() > 0)
+               this.recoveryFinished.append(", ");
+            this.recoveryFinished.append(result);
+            this.recoveryStage = null;
+            if (total > 0)
+               text = "Recovered " + result;
+         }
+         else if (now - this.recoveryLastLog >= 5000L) {
+            this.recoveryLastLog = now;
+            text = "Recovering " + stage + ": " + done + " of " + total + " done (" + (done*100L/total) + "%)";
+         }
+      }
+      if (text != null)
+         log.info(ME + ": " + text);
+   }
+
+   /**
+    * @return For example "topics=1000 in 230 ms, sessions: 20000 of 50000 done (40%)"
+    */
+   public String getRecoveryProgress() { // JMX
+      synchronized (this.recoveryFinished) {
+         String running = null;
+         if (this.recoveryStage != null)
+            running = this.recoveryStage + ": " + this.recoveryDone + " of " + this.recoveryTotal + " done ("
+                      + (this.recoveryDone*100L/Math.max(this.recoveryTotal, 1)) + "%)";
+         if (this.recoveryFinished.length() == 0)
+            return (running == null) ? "" : running;
+         return (running == null) ? this.recoveryFinished.toString() : this.recoveryFinished + ", " + running;
+      }
+   }
+
    /**
     * See java for runlevels
     */
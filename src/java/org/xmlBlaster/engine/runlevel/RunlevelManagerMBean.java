@@ -23,5 +23,11 @@ public interface RunlevelManagerMBean extends I_AdminUsage {
     */
    public String setRunlevel(String level) throws Exception;
 
+   /**
+    * The recovery of the persistent topics, sessions and subscriptions on startup.
+    * @return For example "topics=1000 in 230 ms, sessions: 20000 of 50000 done (40%)"
+    */
+   public String getRecoveryProgress();
+
 }
 
@@ -0,0 +1,504 @@
+/*------------------------------------------------------------------------------
+Name:      XPathSubscriptionIndex.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Dispatch table to check XPath subscriptions against new topics
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.engine.xml2java;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.XmlNotPortable;
+import org.xmlBlaster.util.key.KeyData;
+import org.xmlBlaster.util.key.MsgKeyData;
+
+/**
+ * Index of all XPath subscriptions to quickly find those matching a new topic.
+ * <p>
+ * When a new topic is created all existing XPath subscriptions need to be checked
+ * against its key. Instead of building a tiny DOM and running every XPath we
+ * precompile the most common query shapes into hash dispatch tables:
+ * <pre>
+ *  //key[@oid='Hello']                       -> hash lookup on the oid
+ *  //key[starts-with(@oid,'radar.')]         -> hash lookup for each registered prefix length
+ *  //key[@domain='RUGBY']                    -> hash lookup on domain, contentMime or contentMimeExtended
+ *  //key/AGENT                               -> hash lookup on the direct child tags of the key
+ *  //key                                     -> matches every key
+ * </pre>
+ * The same shapes are supported with a leading <code>/xmlBlaster/key</code>.
+ * All other queries are compiled once and evaluated with full XPath on the DOM
+ * of the key as before, subscriptions with the same query string share one evaluation.
+ * <p>
+ * Keys which can't be judged safely without DOM (e.g. a nested &lt;key> tag in the
+ * client tags or whitespace control characters in attributes) are checked
+ * with full XPath for all subscriptions.
+ * <p>
+ * The registered values are opaque for the index (usually SubscriptionInfo instances).
+ * The class is thread safe, the compiled XPath expressions are only used
+ * while holding the monitor of this instance.
+ * @see org.xmlBlaster.engine.ClientSubscriptions
+ */
+public final class XPathSubscriptionIndex
+{
+   private static Logger log = Logger.getLogger(XPathSubscriptionIndex.class.getName());
+
+   private static final String KEY = "\\s*(?://|/xmlBlaster/)key\\s*";
+   private static final String LITERAL = "\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*";
+   private static final Pattern ATTR_EQUALS = Pattern.compile("^" + KEY + "\\[\\s*@(oid|domain|contentMime|contentMimeExtended)\\s*=" + LITERAL + "\\]\\s*$");
+   private static final Pattern OID_STARTS_WITH = Pattern.compile("^" + KEY + "\\[\\s*starts-with\\(\\s*@oid\\s*," + LITERAL + "\\)\\s*\\]\\s*$");
+   private static final Pattern CHILD = Pattern.compile("^" + KEY + "/\\s*([A-Za-z_][A-Za-z0-9_.\\-]*)\\s*$");
+   private static final Pattern ALL = Pattern.compile("^" + KEY + "$");
+
+   private static final int TYPE_ALL = 0;
+   private static final int TYPE_ATTR = 1;
+   private static final int TYPE_PREFIX = 2;
+   private static final int TYPE_CHILD = 3;
+   private static final int TYPE_FALLBACK = 4;
+
+   /** key = "oid", "domain", ..., value = Map(attributeValue, Entry) */
+   private final Map<String, Map<String, Entry>> attrMap = new HashMap<String, Map<String, Entry>>();
+   /** key = oid prefix, value = Entry */
+   private final Map<String, Entry> prefixMap = new HashMap<String, Entry>();
+   /** All registered prefix lengths, sorted */
+   private final TreeSet<Integer> prefixLengths = new TreeSet<Integer>();
+   /** key = child tag name, value = Entry */
+   private final Map<String, Entry> childMap = new HashMap<String, Entry>();
+   /** Matching all keys */
+   private final Entry allEntry = new Entry(TYPE_ALL, "//key", null);
+   /** key = xpath string, value = Entry with compiled expression */
+   private final Map<String, Entry> fallbackMap = new HashMap<String, Entry>();
+   /** Registered values which are no XPath, they are reported and ignored */
+   private final Set<Object> unsupportedSet = new HashSet<Object>();
+   /** key = registered value, value = Entry to find it again on remove */
+   private final Map<Object, Entry> valueMap = new HashMap<Object, Entry>();
+
+   /**
+    * All values registered with the same (normalized) query.
+    */
+   private static final class Entry {
+      final int type;
+      final String xpath;
+      final String param;
+      XPathExpression compiled;
+      final List<Object> values = new ArrayList<Object>();
+      /** The original query of each value, "//key..." and "/xmlBlaster/key..." differ for nested keys */
+      final List<String> xpaths = new ArrayList<String>();
+      Entry(int type, String xpath, String param) {
+         this.type = type;
+         this.xpath = xpath;
+         this.param = param;
+      }
+   }
+
+   public XPathSubscriptionIndex() {
+   }
+
+   /**
+    * Register a subscription.
+    * @param xpath The XPath query string, null for queries of other type (they are logged and ignored on match)
+    * @param value The object to return on match, e.g. the SubscriptionInfo
+    */
+   public synchronized void add(String xpath, Object value) {
+      if (value == null) throw new IllegalArgumentException("XPathSubscriptionIndex.add() value is null");
+      if (this.valueMap.containsKey(value) || this.unsupportedSet.contains(value))
+         return;
+      if (xpath == null) {
+         this.unsupportedSet.add(value);
+         return;
+      }
+      Entry entry = lookupOrCreateEntry(xpath);
+      entry.values.add(value);
+      entry.xpaths.add(xpath);
+      this.valueMap.put(value, entry);
+      if (log.isLoggable(Level.FINE)) log.fine("Indexed XPath '" + xpath + "' as type " + entry.type);
+   }
+
+   /**
+    * Remove a registered subscription.
+    * @param value The registered value
+    * @return true if it was found
+    */
+   public synchronized boolean remove(Object value) {
+      if (value == null) return false;
+      if (this.unsupportedSet.remove(value))
+         return true;
+      Entry entry = this.valueMap.remove(value);
+      if (entry == null)
+         return false;
+      int pos = entry.values.indexOf(value);
+      entry.values.remove(pos);
+      entry.xpaths.remove(pos);
+      if (entry.values.size() == 0)
+         removeEntry(entry);
+      return true;
+   }
+
+   /**
+    * @return The number of registered values
+    */
+   public synchronized int size() {
+      return this.valueMap.size() + this.unsupportedSet.size();
+   }
+
+   /**
+    * @return The number of different queries which need a full XPath evaluation
+    */
+   public synchronized int getNumFallbackQueries() {
+      return this.fallbackMap.size();
+   }
+
+   /**
+    * Find all registered values whose XPath matches the given key.
+    * <p>
+    * The DOM of the xmlKey is only created if a fallback query needs it,
+    * call xmlKey.cleanupMatch() after usage.
+    * @param xmlKey The key of the new topic
+    * @return The matching values, never null
+    */
+   public synchronized List<Object> getMatching(XmlKey xmlKey) throws XmlBlasterException {
+      ArrayList<Object> result = new ArrayList<Object>();
+
+      Iterator<Object> it = this.unsupportedSet.iterator();
+      while (it.hasNext()) {
+         log.warning("Only XPath queries are supported, ignoring subscription " + it.next());
+      }
+
+      KeyData keyData = xmlKey.getKeyData();
+      boolean safe = isIndexable(keyData);
+
+      if (!safe) {
+         if (log.isLoggable(Level.FINE)) log.fine("Key '" + xmlKey.getKeyOid() + "' is not indexable, checking all XPath subscriptions on its DOM");
+         Map<String, Boolean> evaluated = new HashMap<String, Boolean>();
+         addEach(result, this.allEntry, xmlKey, evaluated);
+         Iterator<Map<String, Entry>> attrs = this.attrMap.values().iterator();
+         while (attrs.hasNext()) {
+            Iterator<Entry> entries = attrs.next().values().iterator();
+            while (entries.hasNext())
+               addEach(result, entries.next(), xmlKey, evaluated);
+         }
+         Iterator<Entry> entries = this.prefixMap.values().iterator();
+         while (entries.hasNext())
+            addEach(result, entries.next(), xmlKey, evaluated);
+         entries = this.childMap.values().iterator();
+         while (entries.hasNext())
+            addEach(result, entries.next(), xmlKey, evaluated);
+      }
+      else {
+         MsgKeyData msgKeyData = (MsgKeyData)keyData;
+         result.addAll(this.allEntry.values);
+
+         if (this.attrMap.size() > 0) {
+            addAttr(result, "oid", msgKeyData.getOid());
+            addAttr(result, "domain", getDomainAttr(msgKeyData));
+            addAttr(result, "contentMime", getContentMimeAttr(msgKeyData));
+            addAttr(result, "contentMimeExtended", msgKeyData.getContentMimeExtended());
+         }
+
+         if (this.prefixMap.size() > 0) {
+            String oid = msgKeyData.getOid();
+            Iterator<Integer> lengths = this.prefixLengths.iterator();
+            while (lengths.hasNext()) {
+               int len = lengths.next().intValue();
+               if (len > oid.length())
+                  break;
+               Entry entry = this.prefixMap.get(oid.substring(0, len));
+               if (entry != null)
+                  result.addAll(entry.values);
+            }
+         }
+
+         if (this.childMap.size() > 0) {
+            Set<String> childNames = getChildNames(msgKeyData.getClientTags());
+            if (childNames == null) { // could not scan, use DOM
+               Map<String, Boolean> evaluated = new HashMap<String, Boolean>();
+               Iterator<Entry> entries = this.childMap.values().iterator();
+               while (entries.hasNext())
+                  addEach(result, entries.next(), xmlKey, evaluated);
+            }
+            else {
+               Iterator<String> names = childNames.iterator();
+               while (names.hasNext()) {
+                  Entry entry = this.childMap.get(names.next());
+                  if (entry != null)
+                     result.addAll(entry.values);
+               }
+            }
+         }
+      }
+
+      Iterator<Entry> entries = this.fallbackMap.values().iterator();
+      while (entries.hasNext())
+         addAll(result, entries.next(), xmlKey);
+
+      if (log.isLoggable(Level.FINE)) log.fine("Key '" + xmlKey.getKeyOid() + "' matches " + result.size() + " of " + size() + " XPath subscriptions");
+      return result;
+   }
+
+   private void addAttr(List<Object> result, String attrName, String attrValue) {
+      if (attrValue == null)
+         return;
+      Map<String, Entry> map = this.attrMap.get(attrName);
+      if (map == null)
+         return;
+      Entry entry = map.get(attrValue);
+      if (entry != null)
+         result.addAll(entry.values);
+   }
+
+   /**
+    * Evaluate each original query of the entry with full XPath on the DOM of the key.
+    * @param evaluated Cache to evaluate each query string only once
+    */
+   private void addEach(List<Object> result, Entry entry, XmlKey xmlKey, Map<String, Boolean> evaluated) throws XmlBlasterException {
+      for (int i=0; i<entry.values.size(); i++) {
+         String xpath = entry.xpaths.get(i);
+         Boolean matches = evaluated.get(xpath);
+         if (matches == null) {
+            matches = Boolean.valueOf(xmlKey.match(xpath));
+            evaluated.put(xpath, matches);
+         }
+         if (matches.booleanValue())
+            result.add(entry.values.get(i));
+      }
+   }
+
+   /**
+    * Evaluate the entry with full XPath on the DOM of the key.
+    */
+   private void addAll(List<Object> result, Entry entry, XmlKey xmlKey) throws XmlBlasterException {
+      if (entry.values.size() == 0)
+         return;
+      if (entry.compiled == null)
+         entry.compiled = XmlNotPortable.compileXPath(entry.xpath);
+      if (xmlKey.match(entry.xpath, entry.compiled))
+         result.addAll(entry.values);
+   }
+
+   private Entry lookupOrCreateEntry(String xpath) {
+      Matcher m = ATTR_EQUALS.matcher(xpath);
+      if (m.matches()) {
+         String attrName = m.group(1);
+         String attrValue = (m.group(2) != null) ? m.group(2) : m.group(3);
+         Map<String, Entry> map = this.attrMap.get(attrName);
+         if (map == null) {
+            map = new HashMap<String, Entry>();
+            this.attrMap.put(attrName, map);
+         }
+         Entry entry = map.get(attrValue);
+         if (entry == null) {
+            entry = new Entry(TYPE_ATTR, xpath, attrName);
+            map.put(attrValue, entry);
+         }
+         return entry;
+      }
+
+      m = OID_STARTS_WITH.matcher(xpath);
+      if (m.matches()) {
+         String prefix = (m.group(1) != null) ? m.group(1) : m.group(2);
+         Entry entry = this.prefixMap.get(prefix);
+         if (entry == null) {
+            entry = new Entry(TYPE_PREFIX, xpath, prefix);
+            this.prefixMap.put(prefix, entry);
+            this.prefixLengths.add(new Integer(prefix.length()));
+         }
+         return entry;
+      }
+
+      m = CHILD.matcher(xpath);
+      if (m.matches()) {
+         String child = m.group(1);
+         Entry entry = this.childMap.get(child);
+         if (entry == null) {
+            entry = new Entry(TYPE_CHILD, xpath, child);
+            this.childMap.put(child, entry);
+         }
+         return entry;
+      }
+
+      if (ALL.matcher(xpath).matches())
+         return this.allEntry;
+
+      Entry entry = this.fallbackMap.get(xpath);
+      if (entry == null) {
+         entry = new Entry(TYPE_FALLBACK, xpath, null);
+         try {
+            entry.compiled = XmlNotPortable.compileXPath(xpath);
+         }
+         catch (XmlBlasterException e) {
+            // Is reported again on evaluation, as before
+            if (log.isLoggable(Level.FINE)) log.fine("Can't compile '" + xpath + "': " + e.getMessage());
+         }
+         this.fallbackMap.put(xpath, entry);
+      }
+      return entry;
+   }
+
+   private void removeEntry(Entry entry) {
+      switch (entry.type) {
+         case TYPE_ATTR: {
+            Map<String, Entry> map = this.attrMap.get(entry.param);
+            if (map != null) {
+               map.values().remove(entry);
+               if (map.size() == 0)
+                  this.attrMap.remove(entry.param);
+            }
+            break;
+         }
+         case TYPE_PREFIX:
+            this.prefixMap.remove(entry.param);
+            this.prefixLengths.clear();
+            Iterator<String> it = this.prefixMap.keySet().iterator();
+            while (it.hasNext())
+               this.prefixLengths.add(new Integer(it.next().length()));
+            break;
+         case TYPE_CHILD:
+            this.childMap.remove(entry.param);
+            break;
+         case TYPE_FALLBACK:
+            this.fallbackMap.remove(entry.xpath);
+            break;
+         default: // TYPE_ALL is never removed
+            break;
+      }
+   }
+
+   /**
+    * The DOM contains the attribute only if it differs from the default, see MsgKeySaxFactory.writeObject()
+    */
+   private static String getContentMimeAttr(KeyData keyData) {
+      String mime = keyData.getContentMime();
+      if (mime == null || mime.equals(KeyData.CONTENTMIME_DEFAULT))
+         return null;
+      return mime;
+   }
+
+   private static String getDomainAttr(KeyData keyData) {
+      String domain = keyData.getDomain();
+      if (domain == null || domain.length() == 0)
+         return null;
+      return domain;
+   }
+
+   /**
+    * Checks if we can judge the key without a DOM tree.
+    */
+   private static boolean isIndexable(KeyData keyData) {
+      if (!(keyData instanceof MsgKeyData))
+         return false;
+      MsgKeyData msgKeyData = (MsgKeyData)keyData;
+      String tags = msgKeyData.getClientTags();
+      if (tags != null && tags.indexOf("<key") != -1) // a nested key would match '//key' as well
+         return false;
+      return isPlain(msgKeyData.getOid()) && isPlain(msgKeyData.getDomain()) &&
+             isPlain(msgKeyData.getContentMime()) && isPlain(msgKeyData.getContentMimeExtended());
+   }
+
+   /**
+    * The XML parser normalizes whitespace control characters in attribute values.
+    */
+   private static boolean isPlain(String attr) {
+      if (attr == null) return true;
+      for (int i=0; i<attr.length(); i++) {
+         char c = attr.charAt(i);
+         if (c == '\n' || c == '\r' || c == '\t')
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Scan the direct child tag names of the client tags, for example
+    * "&lt;AGENT id='192.168.124.10'>&lt;DRIVER/>&lt;/AGENT>&lt;SIZE/>" returns [AGENT, SIZE].
+    * @param tags The client tags of the key, can be null
+    * @return null if the markup is not understood
+    */
+   static Set<String> getChildNames(String tags) {
+      Set<String> names = new HashSet<String>();
+      if (tags == null)
+         return names;
+      int depth = 0;
+      int len = tags.length();
+      int i = 0;
+      while (i < len) {
+         int start = tags.indexOf('<', i);
+         if (start == -1)
+            break;
+         if (tags.startsWith("<!--", start)) {
+            int end = tags.indexOf("-->", start + 4);
+            if (end == -1) return null;
+            i = end + 3;
+            continue;
+         }
+         if (tags.startsWith("<![CDATA[", start)) {
+            int end = tags.indexOf("]]>", start + 9);
+            if (end == -1) return null;
+            i = end + 3;
+            continue;
+         }
+         if (tags.startsWith("<?", start)) {
+            int end = tags.indexOf("?>", start + 2);
+            if (end == -1) return null;
+            i = end + 2;
+            continue;
+         }
+         if (tags.startsWith("<!", start)) {
+            return null; // DOCTYPE, entities: we give up
+         }
+         boolean closing = tags.startsWith("</", start);
+         int nameStart = start + (closing ? 2 : 1);
+         int pos = nameStart;
+         while (pos < len) {
+            char c = tags.charAt(pos);
+            if (c == '>' || c == '/' || Character.isWhitespace(c))
+               break;
+            pos++;
+         }
+         if (pos == nameStart) return null;
+         String name = tags.substring(nameStart, pos);
+         // Find the end of the tag, respecting quoted attribute values
+         char quote = 0;
+         while (pos < len) {
+            char c = tags.charAt(pos);
+            if (quote != 0) {
+               if (c == quote) quote = 0;
+            }
+            else if (c == '\'' || c == '"') {
+               quote = c;
+            }
+            else if (c == '>') {
+               break;
+            }
+            pos++;
+         }
+         if (pos >= len) return null;
+         boolean empty = tags.charAt(pos - 1) == '/';
+         if (closing) {
+            depth--;
+            if (depth < 0) return null;
+         }
+         else {
+            if (depth == 0)
+               names.add(name);
+            if (!empty)
+               depth++;
+         }
+         i = pos + 1;
+      }
+      if (depth != 0) return null;
+      return names;
+   }
+}
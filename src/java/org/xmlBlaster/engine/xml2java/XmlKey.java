@@ -24,6 +24,7 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Attr;
 
 import java.util.Enumeration;
+import javax.xml.xpath.XPathExpression;
 
 
 /**
@@ -379,6 +380,17 @@ public final class XmlKey
     * @return true if this message meta data matches the XPath query
     */
    public final boolean match(String xpath) throws XmlBlasterException {
+      return match(xpath, null);
+   }
+
+   /**
+    * Same as match(String) but reuses a precompiled XPath expression.
+    * @param xpath The XPath query, check if it matches to this xmlKey
+    * @param compiled The precompiled xpath (see XmlNotPortable.compileXPath()) or null
+    * @return true if this message meta data matches the XPath query
+    * @see org.xmlBlaster.engine.xml2java.XPathSubscriptionIndex
+    */
+   public final boolean match(String xpath, XPathExpression compiled) throws XmlBlasterException {
       String xmlKey_literal = this.keyData.toXml();
       if (this.xmlKeyDoc == null) {
          try {
@@ -393,7 +405,9 @@ public final class XmlKey
          }
       }
       try {
-         Enumeration nodeIter = XmlNotPortable.getNodeSetFromXPath(xpath, this.xmlKeyDoc);
+         Enumeration nodeIter = (compiled == null) ?
+               XmlNotPortable.getNodeSetFromXPath(xpath, this.xmlKeyDoc) :
+               XmlNotPortable.getNodeSetFromXPath(compiled, this.xmlKeyDoc);
          if (nodeIter != null && nodeIter.hasMoreElements()) {
             log.info("XPath subscription '" + xpath + "' matches message '" + getKeyOid() + "'");
             return true;
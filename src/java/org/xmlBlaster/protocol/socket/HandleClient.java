@@ -6,6 +6,8 @@ Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
 package org.xmlBlaster.protocol.socket;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.Socket;
@@ -21,6 +23,7 @@ import org.xmlBlaster.engine.qos.ConnectQosServer;
 import org.xmlBlaster.engine.qos.ConnectReturnQosServer;
 import org.xmlBlaster.protocol.I_Authenticate;
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.VirtualThreads;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.ErrorCode;
@@ -63,7 +66,7 @@ public class HandleClient extends SocketExecutor implements Runnable
    /** The unique client sessionId */
    private String secretSessionId = null;
 
-   private boolean callCoreInSeparateThread=true;
+   protected boolean callCoreInSeparateThread=true;
    protected volatile static ExecutorService executorService;
 
    protected boolean disconnectIsCalled = false;
@@ -76,6 +79,17 @@ public class HandleClient extends SocketExecutor implements Runnable
     * Creates an instance which serves exactly one client.
     */
    public HandleClient(Global glob, SocketDriver driver, Socket sock, DatagramSocket sockUDP) throws IOException {
+      this(glob, driver, sock, sockUDP, sock.getInputStream(), sock.getOutputStream());
+   }
+
+   /**
+    * Creates an instance which serves exactly one client over the given streams.
+    * <p />
+    * Used by the NIO mode where the socket is non-blocking and
+    * its streams may not be used directly, see HandleClientNio.
+    */
+   protected HandleClient(Global glob, SocketDriver driver, Socket sock, DatagramSocket sockUDP,
+                          InputStream in, OutputStream out) throws IOException {
 
       this.driver = driver;
       this.sock = sock;
@@ -86,13 +100,16 @@ public class HandleClient extends SocketExecutor implements Runnable
       if (executorService == null) {
          synchronized (HandleClient.class) {
             if (executorService == null) {
-               executorService = Executors.newCachedThreadPool();
+               if (VirtualThreads.isVirtual(glob))
+                  executorService = VirtualThreads.newVirtualThreadPerTaskExecutor("XmlBlaster.HandleClient-virtual#");
+               if (executorService == null)
+                  executorService = Executors.newCachedThreadPool();
             }
          }
       }
 
       // Fills a clone to this.addressServer
-      super.initialize(glob, driver.getAddressServer(), this.sock.getInputStream(), this.sock.getOutputStream());
+      super.initialize(glob, driver.getAddressServer(), in, out);
       super.setXmlBlasterCore(driver.getXmlBlaster());
 
       this.remoteSocketStr = this.sock.getInetAddress().toString() + ":" + this.sock.getPort();
@@ -114,8 +131,20 @@ public class HandleClient extends SocketExecutor implements Runnable
          this.sock.setSoLinger(false, 0); // false: default handling, kernel tries to send queued data after close() (the 0 is ignored)
 
       this.callCoreInSeparateThread = getAddressServer().getEnv("callCoreInSeparateThread", callCoreInSeparateThread).getValue();
-
-      this.socketHandlerThread = new Thread(this, "XmlBlaster."+this.driver.getType() + (this.driver.isSSL()?".SSL":""));
+   }
+   
+   /**
+    * Starts the thread blocking on the socket input stream, see run().
+    */
+   public void startThread() {
+      String threadName = "XmlBlaster."+this.driver.getType() + (this.driver.isSSL()?".SSL":"");
+      if (VirtualThreads.isVirtual(glob)) {
+         // The reader blocks nearly all the time on the socket, a virtual thread is much cheaper
+         this.socketHandlerThread = VirtualThreads.newThread(this, threadName);
+         this.socketHandlerThread.start();
+         return;
+      }
+      this.socketHandlerThread = new Thread(this, threadName);
       int threadPrio = getAddressServer().getEnv("threadPrio", Thread.NORM_PRIORITY).getValue();
       try {
          this.socketHandlerThread.setPriority(threadPrio);
@@ -124,11 +153,12 @@ public class HandleClient extends SocketExecutor implements Runnable
       catch (IllegalArgumentException e) {
          log.warning("Your -plugin/socket/threadPrio " + threadPrio + " is out of range, we continue with default setting " + Thread.NORM_PRIORITY);
       }
-   }
-   
-   public void startThread() {
       this.socketHandlerThread.start();
    }
+
+   protected SocketDriver getDriver() {
+      return this.driver;
+   }
    
    public boolean useUdpForOneway() {
       return (this.driver != null) ? this.driver.useUdpForOneway() : false;
@@ -361,7 +391,8 @@ public class HandleClient extends SocketExecutor implements Runnable
          else {
             int bytesLeft = msg.length;
             int bytesRead = 0;
-            synchronized (oStream) {
+            this.writeLock.lock();
+            try {
                while (bytesLeft > 0) {
                   int toRead = bytesLeft > this.maxChunkSize ? this.maxChunkSize : bytesLeft;
                   oStream.write(msg, bytesRead, toRead);
@@ -372,6 +403,9 @@ public class HandleClient extends SocketExecutor implements Runnable
                      listener.progressWrite("", bytesRead, msg.length);
                }
             }
+            finally {
+               this.writeLock.unlock();
+            }
          }
          if (listener != null) {
             listener.progressWrite("", msg.length, msg.length);
@@ -0,0 +1,312 @@
+/*------------------------------------------------------------------------------
+Name:      HandleClientNio.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Serves one client connection without a dedicated thread
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.protocol.socket;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.protocol.ZBlockDecoder;
+import org.xmlBlaster.util.protocol.ZFlushDecoder;
+import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfFrame;
+import org.xmlBlaster.util.xbformat.XbfFrameDecoder;
+import org.xmlBlaster.util.xbformat.XbfParser;
+
+/**
+ * Holds one non-blocking socket connection to a client, used in the NIO mode of the SocketDriver.
+ * <p />
+ * There is no thread blocking on the input stream as in HandleClient.run(),
+ * a selector thread of NioSocketServer calls onReadable() when bytes arrived.
+ * The bytes are decompressed (if configured) and cut into xbf messages,
+ * parsing and processing is done in the thread pool of HandleClient.
+ * <p />
+ * Sending is unchanged: the messages are written to the socket
+ * in the calling thread, if the socket buffer is full the caller waits
+ * until the selector thread reports the socket as writable again.
+ * <p />
+ * With <code>-plugin/socket/callCoreInSeparateThread false</code> the
+ * invocations of one client are processed one after the other (as the classic
+ * reader thread does), but never in the selector thread.
+ *
+ * @see NioSocketServer
+ */
+public class HandleClientNio extends HandleClient
+{
+   private static Logger log = Logger.getLogger(HandleClientNio.class.getName());
+   /** Max reads of one client on one selector wakeup, to be fair to the others */
+   private static final int MAX_READS_PER_SELECT = 16;
+   private final SocketChannel channel;
+   private final ChannelOutputStream channelOut;
+   private final NioSocketServer.SelectorThread selectorThread;
+   private volatile SelectionKey selectionKey;
+   private final XbfFrameDecoder frameDecoder;
+   /** Receives the raw bytes, decompresses them if configured and passes them to frameDecoder */
+   private final OutputStream decoder;
+   /** Invocations waiting for processing if callCoreInSeparateThread=false */
+   private ConcurrentLinkedQueue serialQueue;
+   private final AtomicBoolean serialScheduled = new AtomicBoolean();
+   private final AtomicBoolean shutdownScheduled = new AtomicBoolean();
+
+   /**
+    * Creates an instance which serves exactly one client,
+    * call startThread() to register the connection with its selector thread.
+    */
+   public HandleClientNio(Global glob, SocketDriver driver, SocketChannel channel, DatagramSocket sockUDP,
+                          NioSocketServer.SelectorThread selectorThread) throws IOException {
+      this(glob, driver, channel, sockUDP, selectorThread, new ChannelOutputStream(channel));
+   }
+
+   private HandleClientNio(Global glob, SocketDriver driver, SocketChannel channel, DatagramSocket sockUDP,
+                           NioSocketServer.SelectorThread selectorThread, ChannelOutputStream channelOut) throws IOException {
+      // The input stream is never read, the bytes are pushed by the selector thread
+      super(glob, driver, channel.socket(), sockUDP, new ByteArrayInputStream(new byte[0]), channelOut);
+      this.channel = channel;
+      this.channelOut = channelOut;
+      this.selectorThread = selectorThread;
+      this.frameDecoder = new XbfFrameDecoder();
+      if (isCompressZlibStream())
+         this.decoder = new ZFlushDecoder(this.frameDecoder);
+      else if (isCompressZlib())
+         this.decoder = new ZBlockDecoder(this.frameDecoder);
+      else
+         this.decoder = this.frameDecoder;
+      if (!this.callCoreInSeparateThread)
+         this.serialQueue = new ConcurrentLinkedQueue();
+   }
+
+   /**
+    * Registers the connection with its selector thread, no thread is started.
+    */
+   public void startThread() {
+      this.selectorThread.register(this);
+   }
+
+   SocketChannel getChannel() {
+      return this.channel;
+   }
+
+   void setSelectionKey(SelectionKey key) {
+      this.selectionKey = key;
+      this.channelOut.setSelectionKey(key);
+   }
+
+   /**
+    * Called by the selector thread if the socket is writable again.
+    */
+   void onWritable() {
+      this.channelOut.signalWritable();
+   }
+
+   /**
+    * Called by the selector thread, reads all available bytes and dispatches
+    * the complete messages. Never blocks.
+    * @param readBuffer The buffer of the selector thread, shared by all its clients
+    */
+   void onReadable(ByteBuffer readBuffer) {
+      try {
+         for (int i=0; i<MAX_READS_PER_SELECT; i++) {
+            readBuffer.clear();
+            int num = this.channel.read(readBuffer);
+            if (num < 0)
+               throw new EOFException("Got EOF, lost socket connection");
+            if (num == 0)
+               break;
+            this.decoder.write(readBuffer.array(), 0, num);
+            if (readBuffer.hasRemaining())
+               break; // socket is drained
+         }
+         while (true) {
+            XbfFrame frame = this.frameDecoder.nextFrame();
+            if (frame == null)
+               break;
+            dispatch(frame);
+         }
+      }
+      catch (Throwable e) {
+         SelectionKey key = this.selectionKey;
+         if (key != null) key.cancel();
+         if (!running)
+            return;
+         if (e instanceof EOFException || e.toString().indexOf("closed") != -1 || e.toString().indexOf("Connection reset") != -1) {
+            if (this.disconnectIsCalled || !(e instanceof EOFException)) {
+               if (log.isLoggable(Level.FINE)) log.fine(toString() + ": TCP socket is shutdown: " + e.toString());
+            }
+            else
+               log.warning(toString() + ": Lost TCP connection: " + e.toString());
+         }
+         else {
+            log.warning(toString() + ": Error parsing TCP data from '" + remoteSocketStr + "', check if client and server have identical compression settings: " + e.toString());
+            if (e instanceof OutOfMemoryError || e instanceof IllegalArgumentException)
+               e.printStackTrace();
+         }
+         shutdownAsync();
+      }
+   }
+
+   /**
+    * Processes a message in the thread pool, responses are never queued
+    * behind an invocation as the invocation may wait for them.
+    */
+   private void dispatch(final XbfFrame frame) {
+      byte[] head = frame.getSegment(0);
+      boolean isInvoke = head.length <= XbfParser.NUM_FIELD_LEN+2 || head[XbfParser.NUM_FIELD_LEN+2] == MsgInfo.INVOKE_BYTE;
+      if (this.serialQueue == null || !isInvoke) {
+         executorService.execute(new Runnable() {
+            public void run() {
+               process(frame);
+            }
+         });
+         return;
+      }
+      this.serialQueue.add(frame);
+      if (this.serialScheduled.compareAndSet(false, true)) {
+         executorService.execute(new Runnable() {
+            public void run() {
+               while (true) {
+                  XbfFrame next;
+                  while ((next = (XbfFrame)serialQueue.poll()) != null)
+                     process(next);
+                  serialScheduled.set(false);
+                  if (serialQueue.isEmpty() || !serialScheduled.compareAndSet(false, true))
+                     break;
+               }
+            }
+         });
+      }
+   }
+
+   private void process(XbfFrame frame) {
+      MsgInfo msgInfo;
+      try {
+         MsgInfo[] msgInfoArr = MsgInfo.parse(glob, progressListener, frame, getMsgInfoParserClassName(), getDriver().getPluginConfig());
+         if (msgInfoArr.length < 1) {
+            log.warning(toString() + ": Got unexpected empty data from SOCKET, closing connection now");
+            shutdown();
+            return;
+         }
+         msgInfo = msgInfoArr[0];
+      }
+      catch (Throwable e) {
+         log.warning(toString() + ": Error parsing TCP data from '" + remoteSocketStr + "': " + e.toString());
+         shutdown();
+         return;
+      }
+      handleMessage(msgInfo, false);
+   }
+
+   /**
+    * Shutdown in the thread pool, the selector thread may not block.
+    */
+   void shutdownAsync() {
+      if (!this.shutdownScheduled.compareAndSet(false, true))
+         return;
+      executorService.execute(new Runnable() {
+         public void run() {
+            shutdown();
+         }
+      });
+   }
+
+   public void shutdown() {
+      SelectionKey key = this.selectionKey;
+      if (key != null) key.cancel();
+      super.shutdown();
+      try {
+         this.decoder.close();
+      }
+      catch (IOException e) {
+         if (log.isLoggable(Level.FINE)) log.fine(e.toString());
+      }
+   }
+
+   /**
+    * Writes to the non-blocking channel, waits for the selector thread
+    * if the socket send buffer is full.
+    */
+   static class ChannelOutputStream extends OutputStream {
+      private final SocketChannel channel;
+      private volatile SelectionKey key;
+      private final Object writableMonitor = new Object();
+      private boolean writable;
+
+      ChannelOutputStream(SocketChannel channel) {
+         this.channel = channel;
+      }
+
+      void setSelectionKey(SelectionKey key) {
+         this.key = key;
+      }
+
+      public void write(int b) throws IOException {
+         write(new byte[] { (byte)b }, 0, 1);
+      }
+
+      public synchronized void write(byte[] b, int off, int len) throws IOException {
+         ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+         while (buf.hasRemaining()) {
+            if (this.channel.write(buf) == 0)
+               awaitWritable();
+         }
+      }
+
+      private void awaitWritable() throws IOException {
+         SelectionKey k = this.key;
+         synchronized (this.writableMonitor) {
+            this.writable = false;
+            try {
+               if (k != null) {
+                  k.interestOps(k.interestOps() | SelectionKey.OP_WRITE);
+                  k.selector().wakeup();
+               }
+               while (!this.writable) {
+                  if (!this.channel.isOpen() || (k != null && !k.isValid()))
+                     throw new IOException("Socket is closed");
+                  this.writableMonitor.wait((k == null) ? 10L : 1000L);
+                  if (k == null)
+                     break; // not yet registered, try again
+               }
+            }
+            catch (CancelledKeyException e) {
+               throw new IOException("Socket is closed");
+            }
+            catch (InterruptedException e) {
+               throw new InterruptedIOException(e.toString());
+            }
+         }
+      }
+
+      /** Called by the selector thread */
+      void signalWritable() {
+         SelectionKey k = this.key;
+         if (k != null && k.isValid())
+            k.interestOps(k.interestOps() & ~SelectionKey.OP_WRITE);
+         synchronized (this.writableMonitor) {
+            this.writable = true;
+            this.writableMonitor.notifyAll();
+         }
+      }
+
+      public void close() throws IOException {
+         synchronized (this.writableMonitor) {
+            this.writableMonitor.notifyAll();
+         }
+      }
+   }
+}
@@ -0,0 +1,199 @@
+/*------------------------------------------------------------------------------
+Name:      NioSocketServer.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Non blocking server socket with a few selector threads
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.protocol.socket;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The NIO mode of the SOCKET driver, switched on with <code>-plugin/socket/nio true</code>.
+ * <p />
+ * Instead of one blocking reader thread for each client connection
+ * a small number of selector threads serves all connections.
+ * The selector threads only read the available bytes and cut them into
+ * messages (see HandleClientNio), the messages are processed by the
+ * thread pool of HandleClient. The wire format is unchanged, so existing
+ * clients connect as before.
+ * <p />
+ * The accept() is done by the thread of the SocketDriver,
+ * the new connections are distributed round robin to the selector threads.
+ *
+ * @see HandleClientNio
+ * @see SocketDriver#run()
+ */
+public class NioSocketServer
+{
+   private static Logger log = Logger.getLogger(NioSocketServer.class.getName());
+   private final String type;
+   private ServerSocketChannel serverChannel;
+   private final SelectorThread[] selectorThreads;
+   private int nextSelector;
+   private volatile boolean running = true;
+
+   /**
+    * @param type The driver type, used for the thread names, e.g. "SOCKET"
+    * @param numSelectorThreads Number of threads polling the client connections
+    * @param readBufferSize Size of the read buffer of each selector thread
+    */
+   public NioSocketServer(String type, int numSelectorThreads, int readBufferSize) throws IOException {
+      this.type = type;
+      if (numSelectorThreads < 1) numSelectorThreads = 1;
+      this.selectorThreads = new SelectorThread[numSelectorThreads];
+      for (int i=0; i<this.selectorThreads.length; i++) {
+         this.selectorThreads[i] = new SelectorThread(readBufferSize);
+         this.selectorThreads[i].setName("XmlBlaster." + type + ".selector-" + i);
+         this.selectorThreads[i].setDaemon(true);
+      }
+   }
+
+   /**
+    * Open the server socket and start the selector threads.
+    */
+   public synchronized void bind(InetAddress inetAddress, int port, int backlog) throws IOException {
+      this.serverChannel = ServerSocketChannel.open();
+      this.serverChannel.socket().setReuseAddress(true);
+      this.serverChannel.socket().bind(new InetSocketAddress(inetAddress, port), backlog);
+      for (int i=0; i<this.selectorThreads.length; i++)
+         this.selectorThreads[i].start();
+   }
+
+   /**
+    * Blocks until a new client connects.
+    * @return The new connection, already switched to non-blocking mode
+    */
+   public SocketChannel accept() throws IOException {
+      ServerSocketChannel server = this.serverChannel;
+      if (server == null)
+         throw new ClosedChannelException();
+      SocketChannel channel = server.accept();
+      channel.configureBlocking(false);
+      return channel;
+   }
+
+   /**
+    * @return The selector thread for the next new connection
+    */
+   synchronized SelectorThread nextSelectorThread() {
+      SelectorThread selectorThread = this.selectorThreads[this.nextSelector];
+      this.nextSelector = (this.nextSelector + 1) % this.selectorThreads.length;
+      return selectorThread;
+   }
+
+   public int getNumSelectorThreads() {
+      return this.selectorThreads.length;
+   }
+
+   public boolean isRunning() {
+      return this.running;
+   }
+
+   /**
+    * Close the server socket and stop the selector threads.
+    * The client connections are closed by the SocketDriver.
+    */
+   public synchronized void close() {
+      this.running = false;
+      if (this.serverChannel != null) {
+         try {
+            this.serverChannel.close();
+         }
+         catch (IOException e) {
+            log.warning("TCP socket shutdown problem: " + e.toString());
+         }
+         this.serverChannel = null;
+      }
+      for (int i=0; i<this.selectorThreads.length; i++)
+         this.selectorThreads[i].selector.wakeup();
+   }
+
+   /**
+    * Polls its share of the client connections.
+    */
+   class SelectorThread extends Thread {
+      final Selector selector;
+      private final ByteBuffer readBuffer;
+      private final ConcurrentLinkedQueue pending = new ConcurrentLinkedQueue();
+
+      SelectorThread(int readBufferSize) throws IOException {
+         this.selector = Selector.open();
+         this.readBuffer = ByteBuffer.allocate(readBufferSize);
+      }
+
+      /**
+       * Thread safe, the registration is done by the selector thread itself.
+       */
+      void register(HandleClientNio client) {
+         this.pending.add(client);
+         this.selector.wakeup();
+      }
+
+      private void registerPending() {
+         while (true) {
+            HandleClientNio client = (HandleClientNio)this.pending.poll();
+            if (client == null)
+               return;
+            try {
+               SelectionKey key = client.getChannel().register(this.selector, SelectionKey.OP_READ, client);
+               client.setSelectionKey(key);
+            }
+            catch (ClosedChannelException e) {
+               if (log.isLoggable(Level.FINE)) log.fine(client.toString() + ": Connection closed before registration");
+               client.shutdownAsync();
+            }
+         }
+      }
+
+      public void run() {
+         try {
+            while (running) {
+               this.selector.select();
+               registerPending();
+               Iterator it = this.selector.selectedKeys().iterator();
+               while (it.hasNext()) {
+                  SelectionKey key = (SelectionKey)it.next();
+                  it.remove();
+                  HandleClientNio client = (HandleClientNio)key.attachment();
+                  try {
+                     if (key.isValid() && key.isWritable())
+                        client.onWritable();
+                     if (key.isValid() && key.isReadable())
+                        client.onReadable(this.readBuffer);
+                  }
+                  catch (CancelledKeyException e) {
+                     if (log.isLoggable(Level.FINE)) log.fine(client.toString() + ": " + e.toString());
+                  }
+               }
+            }
+         }
+         catch (Throwable e) {
+            log.severe(type + " selector thread " + getName() + " stopped: " + e.toString());
+            e.printStackTrace();
+         }
+         finally {
+            try {
+               this.selector.close();
+            }
+            catch (IOException e) {
+               log.warning(e.toString());
+            }
+            if (log.isLoggable(Level.FINE)) log.fine("Selector thread " + getName() + " stopped");
+         }
+      }
+   }
+}
@@ -21,6 +21,7 @@ import org.xmlBlaster.util.plugin.I_PluginConfig;
 import org.xmlBlaster.util.plugin.PluginInfo;
 import org.xmlBlaster.util.protocol.socket.SocketUrl;
 import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfParser;
 
 import java.net.DatagramSocket;
 import java.net.DatagramPacket;
@@ -28,6 +29,7 @@ import java.io.IOException;
 
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 import java.util.Set;
 import java.util.HashSet;
@@ -56,6 +58,9 @@ import java.io.InputStream;
  * java -jar lib/xmlBlaster.jar  -plugin/socket/port 9090
  * </pre>
  *
+ * With <code>-plugin/socket/nio true</code> the clients are served by a few selector
+ * threads instead of one thread per client connection, see {@link NioSocketServer}.
+ * <p />
  * The interface I_Driver is needed by xmlBlaster to instantiate and shutdown
  * this driver implementation.
  * <p />
@@ -80,6 +85,8 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
    private SocketUrl socketUrl;
    /** The socket server */
    private ServerSocket listen = null;
+   /** The non blocking server socket if -plugin/socket/nio=true, else null */
+   private NioSocketServer nioServer = null;
    /** The URL which clients need to use to access this server, e.g. "server.mars.univers:6701" */
    private DatagramSocket socketUDP = null;
    /** State of server */
@@ -448,6 +455,9 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
          listen = null;
          //log.info(ME, "TCP socket driver stopped, all resources released.");
       }
+      if (nioServer != null) {
+         nioServer.close();
+      }
       if (socketUDP != null) {
          socketUDP.close();
          socketUDP = null;
@@ -511,11 +521,38 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
       return ssl;
    }
 
+   /**
+    * Is the NIO mode switched on (a few selector threads instead of one thread per client)?
+    * <p />
+    * Not available with SSL or a parserClass other than XbfParser,
+    * in these cases the classic blocking mode is used.
+    */
+   public final boolean isNio()
+   {
+      boolean nio = this.addressServer.getEnv("nio", false).getValue();
+      if (!nio)
+         return false;
+      if (isSSL()) {
+         log.warning(addressServer.getEnvLookupKey("nio") + "=true is not supported with SSL, using one thread per client connection");
+         return false;
+      }
+      String parserClass = this.addressServer.getEnv("parserClass", XbfParser.class.getName()).getValue();
+      if (!XbfParser.class.getName().equals(parserClass)) {
+         log.warning(addressServer.getEnvLookupKey("nio") + "=true is only supported with the default " + XbfParser.class.getName() + ", using one thread per client connection for " + parserClass);
+         return false;
+      }
+      return true;
+   }
+
    /**
     * Starts the server socket and waits for clients to connect.
     */
    public void run()
    {
+      if (isNio()) {
+         runNio();
+         return;
+      }
       try {
          int backlog = this.addressServer.getEnv("backlog", 50).getValue(); // queue for max 50 incoming connection request
          if (log.isLoggable(Level.FINE)) log.fine(addressServer.getEnvLookupKey("backlog") + "=" + backlog);
@@ -582,6 +619,65 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
    }
 
 
+   /**
+    * Starts the non blocking server socket and waits for clients to connect.
+    * The client connections are served by the selector threads of NioSocketServer.
+    */
+   private void runNio()
+   {
+      try {
+         int backlog = this.addressServer.getEnv("backlog", 50).getValue(); // queue for max 50 incoming connection request
+         int selectorThreads = this.addressServer.getEnv("nio/selectorThreads", Runtime.getRuntime().availableProcessors()).getValue();
+         int readBufferSize = this.addressServer.getEnv("nio/readBufferSize", 64*1024).getValue();
+         if (log.isLoggable(Level.FINE)) log.fine(addressServer.getEnvLookupKey("backlog") + "=" + backlog + " " +
+                   addressServer.getEnvLookupKey("nio/selectorThreads") + "=" + selectorThreads + " " +
+                   addressServer.getEnvLookupKey("nio/readBufferSize") + "=" + readBufferSize);
+
+         nioServer = new NioSocketServer(getType(), selectorThreads, readBufferSize);
+         nioServer.bind(this.socketUrl.getInetAddress(), this.socketUrl.getPort(), backlog);
+
+         log.info("Started successfully " + getType() + " driver in NIO mode with " + nioServer.getNumSelectorThreads() + " selector threads on '" + this.socketUrl.getUrl() + "'");
+         listenerReady = true;
+         while (running) {
+            SocketChannel accept = nioServer.accept();
+            if (log.isLoggable(Level.INFO))
+               log.info(ME + ": New incoming request on " + this.socketUrl.getUrl() + " from " + accept.socket().getInetAddress() + ":" + accept.socket().getPort());
+            if (!running) {
+               log.info("Closing server '" + this.socketUrl.getUrl() + "'");
+               try { accept.close(); } catch (IOException e) { log.warning(e.toString()); }
+               break;
+            }
+            HandleClient hh = new HandleClientNio(glob, this, accept, socketUDP, nioServer.nextSelectorThread());
+            synchronized (handleClientSet) {
+               handleClientSet.add(hh);
+            }
+            hh.startThread();
+         }
+      }
+      catch (java.net.UnknownHostException e) {
+         log.severe("Socket server problem, IP address '" + this.socketUrl.getHostname() + "' is invalid: " + e.toString());
+      }
+      catch (java.net.BindException e) {
+         log.severe("Socket server problem '" + this.socketUrl.getUrl() + "', the port " + this.socketUrl.getPort() + " is not available: " + e.toString());
+      }
+      catch (java.nio.channels.ClosedChannelException e) {
+         log.info("Socket '" + this.socketUrl.getUrl() + "' closed successfully: " + e.toString());
+      }
+      catch (IOException e) {
+         log.severe("Socket server problem on '" + this.socketUrl.getUrl() + "': " + e.toString());
+      }
+      catch (Throwable e) {
+         log.severe("Socket server problem on '" + this.socketUrl.getUrl() + "': " + e.toString());
+         e.printStackTrace();
+      }
+      finally {
+         listenerReady = false;
+         if (nioServer != null) {
+            nioServer.close();
+         }
+      }
+   }
+
    /**
     * Close the listener port, the driver shuts down.
     */
@@ -624,6 +720,7 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
     *  <li><i>-plugin/socket/hostname</i>    Specify a hostname where the SOCKET web server runs
     *                                          Default is the localhost.</li>
     *  <li><i>-plugin/socket/backlog</i>     Queue size for incoming connection request [50]</li>
+    *  <li><i>-plugin/socket/nio</i>         true: Serve all clients with a few selector threads [false]</li>
     *  <li><i>-dump[socket]</i>       true switches on detailed SOCKET debugging [false]</li>
     * </ul>
     * <p />
@@ -650,6 +747,13 @@ public class SocketDriver extends Thread implements I_Driver /* which extends I_
       text += "                       Defaults to 'forever', the value to pass is milli seconds.\n";
       text += "   -"+getEnvPrefix()+"backlog\n";
       text += "                       Queue size for incoming connection request [50].\n";
+      text += "   -"+getEnvPrefix()+"nio\n";
+      text += "                       True serves all clients with a few selector threads instead\n";
+      text += "                       of one thread per client connection (not with SSL) [false].\n";
+      text += "   -"+getEnvPrefix()+"nio/selectorThreads\n";
+      text += "                       Number of selector threads in NIO mode [number of cores].\n";
+      text += "   -"+getEnvPrefix()+"nio/readBufferSize\n";
+      text += "                       Read buffer size in bytes of each selector thread [65536].\n";
       text += "   -"+getEnvPrefix()+"threadPrio\n";
       text += "                       The priority 1=min - 10=max of the listener thread [5].\n";
       text += "   -"+getEnvPrefix()+"SSL\n";
@@ -201,9 +201,9 @@ public class Global implements Cloneable
    protected volatile I_StatusQosFactory statusQosFactory;
 
    protected volatile I_TimeoutManager pingTimer;
-   protected volatile Timeout burstModeTimer;
-   protected volatile Timeout messageTimer;
-   protected volatile Timeout jdbcConnectionPoolTimer;
+   protected volatile I_TimeoutManager burstModeTimer;
+   protected volatile I_TimeoutManager messageTimer;
+   protected volatile I_TimeoutManager jdbcConnectionPoolTimer;
    protected volatile DispatchWorkerPool dispatchWorkerPool;
 
    protected static int counter = 0;
@@ -1736,15 +1736,38 @@ public class Global implements Cloneable
       return this.cbServerPluginManager;
    }
 
+   /**
+    * Creates a timer thread, the implementation is chosen with
+    * <code>-timeout/type</code>:
+    * <ul>
+    *  <li>TreeMap: The classic org.xmlBlaster.util.Timeout (default)</li>
+    *  <li>HashedWheel: org.xmlBlaster.util.TimeoutWheel, O(1) add/refresh/remove without locking,
+    *      the precision is configured with <code>-timeout/tickMillis</code> (default 10)</li>
+    * </ul>
+    * @param name The thread name
+    * @param useWeakReference If true the I_Timeout callbacks are only weak referenced
+    * @return A new started timer
+    */
+   public I_TimeoutManager createTimeoutManager(String name, boolean useWeakReference) {
+      String type = getProperty().get("timeout/type", "TreeMap");
+      if ("HashedWheel".equalsIgnoreCase(type)) {
+         long tickMillis = getProperty().get("timeout/tickMillis", TimeoutWheel.DEFAULT_TICK_MILLIS);
+         return new TimeoutWheel(name, useWeakReference, tickMillis);
+      }
+      if (!"TreeMap".equalsIgnoreCase(type))
+         log.warning("Unknown -timeout/type '" + type + "', using TreeMap for timer '" + name + "'");
+      return new Timeout(name, useWeakReference);
+   }
+
    /**
     * Access the handle of the burst mode timer thread.
     * @return The Timeout instance
     */
-   public final Timeout getBurstModeTimer() {
+   public final I_TimeoutManager getBurstModeTimer() {
       if (this.burstModeTimer == null) {
          synchronized(this) {
             if (this.burstModeTimer == null)
-               this.burstModeTimer = new Timeout("XmlBlaster.BurstmodeTimer");
+               this.burstModeTimer = createTimeoutManager("XmlBlaster.BurstmodeTimer", false);
          }
       }
       return this.burstModeTimer;
@@ -1770,12 +1793,12 @@ public class Global implements Cloneable
     * So there is no need to clear the timer registration
     * @return The Timeout instance
     */
-   public final Timeout getMessageTimer() {
+   public final I_TimeoutManager getMessageTimer() {
       if (this.messageTimer == null) {
          synchronized(this) {
             if (this.messageTimer == null) {
                boolean useWeakReferences = true;
-               this.messageTimer = new Timeout("XmlBlaster.MessageTimer", useWeakReferences);
+               this.messageTimer = createTimeoutManager("XmlBlaster.MessageTimer", useWeakReferences);
             }
          }
       }
@@ -1788,11 +1811,11 @@ public class Global implements Cloneable
     * polling when the connection has been lost).
     * @return The Timeout instance
     */
-   public final Timeout getJdbcConnectionPoolTimer() {
+   public final I_TimeoutManager getJdbcConnectionPoolTimer() {
       if (this.jdbcConnectionPoolTimer == null) {
          synchronized(this) {
             if (this.jdbcConnectionPoolTimer == null)
-               this.jdbcConnectionPoolTimer = new Timeout("XmlBlaster.JdbcConnectionPoolTimer");
+               this.jdbcConnectionPoolTimer = createTimeoutManager("XmlBlaster.JdbcConnectionPoolTimer", false);
          }
       }
       return this.jdbcConnectionPoolTimer;
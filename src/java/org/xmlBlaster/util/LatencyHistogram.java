@@ -0,0 +1,93 @@
+/*------------------------------------------------------------------------------
+Name:      LatencyHistogram.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Lock free histogram of durations
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed buckets, can be used by many threads without locking.
+ * <p>
+ * The buckets are <code>&lt;1ms &lt;2ms &lt;5ms &lt;10ms &lt;20ms &lt;50ms &lt;100ms &lt;200ms &lt;500ms &lt;1s &lt;5s &gt;=5s</code>,
+ * toString() is used to export them as a JMX attribute.
+ * </p>
+ */
+public final class LatencyHistogram
+{
+   /** The upper bound of each bucket in milliseconds, the last bucket counts the rest */
+   private static final long[] BOUNDS = { 1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 5000L };
+   private static final long NANOS_PER_MILLI = 1000000L;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+   private final AtomicLong num = new AtomicLong();
+   private final AtomicLong sumNanos = new AtomicLong();
+   private final AtomicLong maxNanos = new AtomicLong();
+
+   /**
+    * @param nanos The duration, as measured with System.nanoTime()
+    */
+   public void add(long nanos) {
+      if (nanos < 0L)
+         nanos = 0L;
+      long millis = nanos / NANOS_PER_MILLI;
+      int i = 0;
+      while (i < BOUNDS.length && millis >= BOUNDS[i])
+         i++;
+      this.counts.incrementAndGet(i);
+      this.num.incrementAndGet();
+      this.sumNanos.addAndGet(nanos);
+      long max = this.maxNanos.get();
+      while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+         max = this.maxNanos.get();
+   }
+
+   /** @return The number of durations added */
+   public long getCount() {
+      return this.num.get();
+   }
+
+   public double getAverageMillis() {
+      long n = this.num.get();
+      return (n == 0L) ? 0.0 : (double)this.sumNanos.get() / n / NANOS_PER_MILLI;
+   }
+
+   public double getMaxMillis() {
+      return (double)this.maxNanos.get() / NANOS_PER_MILLI;
+   }
+
+   /** @return A snapshot of the bucket counts, see getBounds() */
+   public long[] getCounts() {
+      long[] ret = new long[this.counts.length()];
+      for (int i=0; i<ret.length; i++)
+         ret[i] = this.counts.get(i);
+      return ret;
+   }
+
+   /** @return The upper bounds of the buckets in milliseconds, there is one more bucket than bounds */
+   public static long[] getBounds() {
+      return (long[])BOUNDS.clone();
+   }
+
+   public void reset() {
+      for (int i=0; i<this.counts.length(); i++)
+         this.counts.set(i, 0L);
+      this.num.set(0L);
+      this.sumNanos.set(0L);
+      this.maxNanos.set(0L);
+   }
+
+   /**
+    * @return For example "<1ms=120 <2ms=3 <5ms=0 ... >=5000ms=0"
+    */
+   public String toString() {
+      StringBuffer sb = new StringBuffer(160);
+      for (int i=0; i<BOUNDS.length; i++)
+         sb.append("<").append(BOUNDS[i]).append("ms=").append(this.counts.get(i)).append(" ");
+      sb.append(">=").append(BOUNDS[BOUNDS.length-1]).append("ms=").append(this.counts.get(BOUNDS.length));
+      return sb.toString();
+   }
+}
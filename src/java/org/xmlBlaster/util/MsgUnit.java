@@ -341,7 +341,8 @@ public final class MsgUnit implements java.io.Serializable
       return new MsgUnitRaw(this,
                             (this.keyData == null) ? null : Constants.toUtf8Bytes(this.keyData.toXml()),
                             this.content,
-                            (this.qosData == null) ? null : Constants.toUtf8Bytes(this.qosData.toXml()));
+                            (this.qosData == null) ? null : Constants.toUtf8Bytes(this.qosData.toXml()),
+                            true);
    }
 
    /**
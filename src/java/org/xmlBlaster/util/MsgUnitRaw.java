@@ -7,10 +7,13 @@ package org.xmlBlaster.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.Properties;
 
 import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.key.KeyData;
+import org.xmlBlaster.util.qos.QosData;
 
 /**
  * Encapsulates the xmlKey, content and qos.
@@ -25,8 +28,12 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
    private transient static final byte[] EMPTY_BYTEARR = new byte[0];
    //private transient static final String EMPTY_STRING = "";
    private transient final Object msgUnit; // transport temporary the parsed instance MsgUnit as well
-   private final byte[] qos;
-   private final byte[] key;
+   /** 0: msgUnit is not evaluated, MARKUP_OF: qos and key are the markup of msgUnit, DECODED: msgUnit is decoded from the wire and owned by us */
+   private transient final int msgUnitUsage;
+   private transient static final int MARKUP_OF = 1;
+   private transient static final int DECODED = 2;
+   private byte[] qos; // null: created on demand from the DECODED msgUnit
+   private byte[] key;
    private final byte[] content; // One of 'this.content' or 'this.encodedContent' is allways null
    private final EncodableData encodedContent;
    public static final String KEY_TAG = "key";
@@ -66,6 +73,21 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
     */
    public MsgUnitRaw(Object msgUnit, byte[] key, byte[] content, byte[] qos) {
       this.msgUnit = msgUnit;
+      this.msgUnitUsage = 0;
+      this.qos = (qos == null) ? EMPTY_BYTEARR : qos;
+      this.key = (key == null) ? EMPTY_BYTEARR : key;
+      this.encodedContent = null;
+      this.content = (content == null) ? EMPTY_BYTEARR : content;
+   }
+
+   /**
+    * @param msgUnit Temporary object with parsed information
+    * @param isMarkupOfMsgUnit true if key and qos are the unchanged markup of msgUnit,
+    *        the XBF protocol may then send msgUnit in binary form, see {@link #getMarkupSource()}
+    */
+   public MsgUnitRaw(MsgUnit msgUnit, byte[] key, byte[] content, byte[] qos, boolean isMarkupOfMsgUnit) {
+      this.msgUnit = msgUnit;
+      this.msgUnitUsage = (isMarkupOfMsgUnit && msgUnit != null) ? MARKUP_OF : 0;
       this.qos = (qos == null) ? EMPTY_BYTEARR : qos;
       this.key = (key == null) ? EMPTY_BYTEARR : key;
       this.encodedContent = null;
@@ -78,8 +100,24 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
       this(null, Constants.toUtf8Bytes(key), content, Constants.toUtf8Bytes(qos));
    }
 
+   /**
+    * A message which was received already parsed (for example with the binary XBF encoding).
+    * The key and QoS markup is created on demand.
+    * @param msgUnit The new created message which the receiver may use instead of parsing the markup again,
+    *        see {@link #getDecodedMsgUnit()}
+    */
+   public MsgUnitRaw(MsgUnit msgUnit) {
+      this.msgUnit = msgUnit;
+      this.msgUnitUsage = DECODED;
+      this.qos = null;
+      this.key = null;
+      this.encodedContent = null;
+      this.content = (msgUnit.getContent() == null) ? EMPTY_BYTEARR : msgUnit.getContent();
+   }
+
    public MsgUnitRaw(byte[] key, EncodableData encodedContent, byte[] qos) {
       this.msgUnit = null;
+      this.msgUnitUsage = 0;
       this.qos = (qos == null) ? EMPTY_BYTEARR : qos;
       this.key = (key == null) ? EMPTY_BYTEARR : key;
       this.encodedContent = encodedContent;
@@ -93,11 +131,17 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
     * The raw XML string, never null
     */
    public String getKey() {
-      return Constants.toUtf8String(this.key);
+      return Constants.toUtf8String(getKeyBytes());
    }
 
    public byte[] getKeyBytes() {
-      return this.key;
+      byte[] tmp = this.key;
+      if (tmp == null) {
+         KeyData keyData = ((MsgUnit)this.msgUnit).getKeyData();
+         tmp = (keyData == null) ? EMPTY_BYTEARR : Constants.toUtf8Bytes(keyData.toXml());
+         this.key = tmp;
+      }
+      return tmp;
    }
 
    /**
@@ -120,14 +164,20 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
     * The raw QoS XML string, never null
     */
    public String getQos() {
-      return Constants.toUtf8String(this.qos);
+      return Constants.toUtf8String(getQosBytes());
    }
 
    /**
     * The raw QoS XML string, never null
     */
    public byte[] getQosBytes() {
-      return this.qos;
+      byte[] tmp = this.qos;
+      if (tmp == null) {
+         QosData qosData = ((MsgUnit)this.msgUnit).getQosData();
+         tmp = (qosData == null) ? EMPTY_BYTEARR : Constants.toUtf8Bytes(qosData.toXml());
+         this.qos = tmp;
+      }
+      return tmp;
    }
 
    /**
@@ -135,9 +185,9 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
     */
    public long size() {
       if (this.encodedContent != null)
-         return this.qos.length + this.key.length + this.encodedContent.getSize();
+         return getQosBytes().length + getKeyBytes().length + this.encodedContent.getSize();
       else
-         return this.qos.length + this.key.length + this.content.length;
+         return getQosBytes().length + getKeyBytes().length + this.content.length;
    }
 
    /**
@@ -147,7 +197,32 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
    public Object getMsgUnit() {
       return this.msgUnit;
    }
+
+   /**
+    * @return The message of which qos and key are the unchanged markup
+    *         or null if not known (for example if the markup is encrypted)
+    */
+   public MsgUnit getMarkupSource() {
+      return (this.msgUnitUsage != 0) ? (MsgUnit)this.msgUnit : null;
+   }
+
+   /**
+    * @return The parsed message if it was received in binary form, it is not shared
+    *         with others and can be used instead of parsing qos and key, or null
+    */
+   public MsgUnit getDecodedMsgUnit() {
+      return (this.msgUnitUsage == DECODED) ? (MsgUnit)this.msgUnit : null;
+   }
    
+   /**
+    * The markup of a decoded message is created before serialization
+    */
+   private void writeObject(ObjectOutputStream out) throws IOException {
+      getQosBytes();
+      getKeyBytes();
+      out.defaultWriteObject();
+   }
+
    public String toString() {
 	   return toXml("");
    }
@@ -215,11 +290,13 @@ public final class MsgUnitRaw implements java.io.Serializable // Is serializable
       if (extraOffset == null) extraOffset = "";
       offsetStr += extraOffset;
       byte[] offset = Constants.toUtf8Bytes(offsetStr);
-      if (this.qos.length > 0) {
+      byte[] qos = getQosBytes();
+      if (qos.length > 0) {
          out.write(offset);
          out.write(qos);
       }
-      if (this.key.length > 0) {
+      byte[] key = getKeyBytes();
+      if (key.length > 0) {
          out.write(offset);
          out.write(key);
       }
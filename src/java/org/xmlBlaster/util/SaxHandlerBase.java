@@ -157,9 +157,11 @@ public class SaxHandlerBase implements ContentHandler, ErrorHandler, LexicalHand
     	 if (saxParser == null) {
         	 SAXParserFactory spf = glob.getSAXParserFactory();
              boolean validate = glob.getProperty().get("javax.xml.parsers.validation", false);
-             spf.setValidating(validate);
-             //if (log.isLoggable(Level.FINE)) log.trace(ME, "XML-Validation 'javax.xml.parsers.validation' set to " + validate);
-             saxParser = spf.newSAXParser();
+             synchronized (spf) { // the factory is shared by the pooled parsers of all threads
+                spf.setValidating(validate);
+                //if (log.isLoggable(Level.FINE)) log.trace(ME, "XML-Validation 'javax.xml.parsers.validation' set to " + validate);
+                saxParser = spf.newSAXParser();
+             }
     	 }
     	 
          XMLReader parser = saxParser.getXMLReader();
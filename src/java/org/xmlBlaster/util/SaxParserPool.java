@@ -0,0 +1,60 @@
+/*------------------------------------------------------------------------------
+Name:      SaxParserPool.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Lock free pool of SAX handler instances
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free pool of idle SAX parser/handler instances.
+ * <p />
+ * The SAX factories like MsgQosSaxFactory hold the parsing state in member variables,
+ * the shared factory instance of Global takes an idle instance from this pool for each
+ * parse so that the protocol threads can parse in parallel.
+ * If the pool is empty the caller creates a new instance, on release
+ * at most <code>-xmlParser/poolSize</code> instances are kept (defaults to twice the number of cores).
+ * <p />
+ * A pool is used instead of a ThreadLocal as the virtual threads
+ * (<code>-dispatch/executor virtual</code>) would create a parser for each thread.
+ */
+public final class SaxParserPool<T>
+{
+   private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+   private final AtomicInteger idleCount = new AtomicInteger();
+   private final int maxIdle;
+
+   public SaxParserPool(Global glob) {
+      this.maxIdle = glob.getProperty().get("xmlParser/poolSize", 2 * Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * @return An idle instance or null if you need to create one
+    */
+   public T get() {
+      T parser = this.idle.poll();
+      if (parser != null)
+         this.idleCount.decrementAndGet();
+      return parser;
+   }
+
+   /**
+    * Return the instance after parsing.
+    */
+   public void release(T parser) {
+      if (this.idleCount.incrementAndGet() <= this.maxIdle)
+         this.idle.offer(parser);
+      else
+         this.idleCount.decrementAndGet();
+   }
+
+   /**
+    * @return The number of idle instances
+    */
+   public int getNumIdle() {
+      return this.idleCount.get();
+   }
+}
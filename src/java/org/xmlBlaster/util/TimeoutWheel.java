@@ -0,0 +1,437 @@
+/*------------------------------------------------------------------------------
+ Name:      TimeoutWheel.java
+ Project:   xmlBlaster.org
+ Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+ Comment:   Allows you be called back after a given delay, hashed timing wheel
+ ------------------------------------------------------------------------------*/
+package org.xmlBlaster.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.def.ErrorCode;
+
+/**
+ * Allows you be called back after a given delay, same contract as Timeout
+ * but implemented as a hierarchical hashed timing wheel (Varghese and Lauck).
+ * <p />
+ * Adding, removing and refreshing a timer is O(1) and takes no lock:
+ * new timers and cancellations are passed to the wheel thread over
+ * lock free queues, only the wheel thread touches the buckets.
+ * This suits timers which are refreshed on every client request,
+ * like the session timeout of many thousand sessions.
+ * <p />
+ * The wheel has 4 levels of 256 buckets, a bucket of level 0 covers one tick
+ * (default 10 millis). Timers in higher levels are cascaded down when the
+ * lower level wraps around. The precision is one tick, a timer never fires
+ * before its time.
+ * <p />
+ * As in Timeout the I_Timeout.timeout() callbacks are executed by the single
+ * wheel thread and should complete quickly.
+ * <p />
+ * Switch all xmlBlaster timers to this implementation with
+ * <pre>
+ * -timeout/type HashedWheel
+ * -timeout/tickMillis 10
+ * </pre>
+ * @see Timeout
+ * @see Global#createTimeoutManager(String, boolean)
+ * @see org.xmlBlaster.test.classtest.TimeoutWheelTest
+ */
+public class TimeoutWheel implements I_TimeoutManager, Runnable {
+   private static Logger log = Logger.getLogger(TimeoutWheel.class.getName());
+   private static String ME = "TimeoutWheel";
+   public static final long DEFAULT_TICK_MILLIS = 10L;
+   private static final int LEVELS = 4;
+   private static final int BITS = 8;
+   private static final int BUCKETS = 1 << BITS;
+   private static final int MASK = BUCKETS - 1;
+   /** Timers further away are parked in the last bucket of the top level and placed again on cascade */
+   private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+   private static final int ACTIVE = 0;
+   private static final int EXPIRED = 1;
+   private static final int CANCELLED = 2;
+
+   private final String name;
+   private final boolean useWeakReference;
+   private final long tickNanos;
+   private final long tickMillis;
+   private final long startNanos;
+   private final Bucket[][] wheel;
+   private final Thread thread;
+   private final ConcurrentLinkedQueue<Node> pendingAdds = new ConcurrentLinkedQueue<Node>();
+   private final ConcurrentLinkedQueue<Node> pendingCancels = new ConcurrentLinkedQueue<Node>();
+   private final AtomicInteger size = new AtomicInteger();
+   /** Incremented by removeAll(), older timers are invalid */
+   private volatile int generation;
+   private volatile boolean running = true;
+   /** The next tick to process, only accessed by the wheel thread */
+   private long currentTick;
+
+   /**
+    * Create a daemon timer thread with a strong reference on the callback objects
+    * and a tick of 10 milliseconds.
+    */
+   public TimeoutWheel(String name) {
+      this(name, false, DEFAULT_TICK_MILLIS);
+   }
+
+   /**
+    * Create a daemon timer thread
+    * @param name
+    *           The name of the thread
+    * @param useWeakReference
+    *           If true the reference on your I_Timeout implementation is only
+    *           weak referenced and may be garbage collected
+    * @param tickMillis
+    *           The precision of the timer
+    */
+   public TimeoutWheel(String name, boolean useWeakReference, long tickMillis) {
+      this.name = name;
+      this.useWeakReference = useWeakReference;
+      this.tickMillis = (tickMillis < 1L) ? 1L : tickMillis;
+      this.tickNanos = this.tickMillis * Timestamp.MILLION;
+      this.wheel = new Bucket[LEVELS][BUCKETS];
+      for (int level=0; level<LEVELS; level++)
+         for (int i=0; i<BUCKETS; i++)
+            this.wheel[level][i] = new Bucket();
+      this.startNanos = System.nanoTime();
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }
+
+   /**
+    * Get number of current used timers.
+    * @return The number of active timers
+    */
+   public int getSize() {
+      return Math.max(0, this.size.get());
+   }
+
+   public String toString() {
+      return ME + " '" + this.name + "' currently registered and pending timers=" + getSize() +
+             " tickMillis=" + this.tickMillis + " useWeakReference=" + this.useWeakReference;
+   }
+
+   public String dumpStatus() {
+      return toString();
+   }
+
+   public final Timestamp addTimeoutListener(I_Timeout listener, long delay, Object userData) {
+      if (listener == null) {
+         throw new IllegalArgumentException(ME + ": addTimeoutListener() with listener=null");
+      }
+      if (delay < 0L) delay = 0L;
+      long now = System.currentTimeMillis();
+      // Round up, a timer may never fire too early
+      long deadlineTick = (System.nanoTime() - this.startNanos + delay * Timestamp.MILLION + this.tickNanos - 1) / this.tickNanos;
+      Node node = new Node((now + delay) * Timestamp.MILLION, deadlineTick, this.generation,
+                           new Container(this.useWeakReference, listener, userData));
+      this.size.incrementAndGet();
+      this.pendingAdds.add(node);
+      if (delay < this.tickMillis)
+         LockSupport.unpark(this.thread);
+      return node;
+   }
+
+   public final Timestamp refreshTimeoutListener(Timestamp key, long delay) throws XmlBlasterException {
+      if (key == null) {
+         throw new XmlBlasterException(Global.instance(),
+               ErrorCode.INTERNAL_NULLPOINTER, ME + "addTimeoutListener",
+               "The timeout handle is null, no timeout refresh done");
+      }
+      Node node = toNode(key);
+      if (node == null || !cancel(node)) {
+         throw new XmlBlasterException(Global.instance(),
+               ErrorCode.RESOURCE_UNAVAILABLE, ME, "The timeout handle '" + key
+                     + "' is unknown, no timeout refresh done");
+      }
+      Container container = node.container;
+      I_Timeout callback = container.getCallback();
+      Object userData = container.getUserData();
+      container.reset();
+      if (callback == null) {
+         if (this.useWeakReference)
+            throw new XmlBlasterException(Global.instance(),
+                  ErrorCode.INTERNAL_UNKNOWN, ME,
+                  "The weak callback reference for timeout handle '" + key
+                        + "' is garbage collected, no timeout refresh done");
+         else
+            throw new XmlBlasterException(Global.instance(),
+                  ErrorCode.INTERNAL_UNKNOWN, ME,
+                  "Internal error for timeout handle '" + key
+                        + "', no timeout refresh done");
+      }
+      return addTimeoutListener(callback, delay, userData);
+   }
+
+   public final Timestamp addOrRefreshTimeoutListener(I_Timeout listener,
+         long delay, Object userData, Timestamp key) throws XmlBlasterException {
+      if (key == null) {
+         return addTimeoutListener(listener, delay, userData);
+      }
+      try {
+         return refreshTimeoutListener(key, delay);
+      } catch (XmlBlasterException e) {
+         if (ErrorCode.RESOURCE_UNAVAILABLE == e.getErrorCode()) {
+            return addTimeoutListener(listener, delay, userData);
+         }
+         throw e;
+      }
+   }
+
+   public final void removeTimeoutListener(Timestamp key) {
+      Node node = toNode(key);
+      if (node != null && cancel(node))
+         node.container.reset();
+   }
+
+   public final boolean isExpired(Timestamp key) {
+      Node node = toNode(key);
+      return node == null || !isActive(node);
+   }
+
+   public final long spanToTimeout(Timestamp key) {
+      if (isExpired(key))
+         return -1;
+      return getTimeout(key) - System.currentTimeMillis();
+   }
+
+   public final long elapsed(Timestamp key) {
+      if (isExpired(key))
+         return -1;
+      return System.currentTimeMillis() - ((Node)key).container.creation;
+   }
+
+   public final long getTimeout(Timestamp key) {
+      if (key == null)
+         return -1;
+      return key.getMillis();
+   }
+
+   /**
+    * Reset all pending timeouts, the buckets are cleaned up by the wheel thread.
+    */
+   public final void removeAll() {
+      synchronized (this) {
+         this.generation++;
+      }
+      this.size.set(0);
+      LockSupport.unpark(this.thread);
+   }
+
+   /**
+    * Reset and stop the wheel thread.
+    */
+   public void shutdown() {
+      removeAll();
+      this.running = false;
+      LockSupport.unpark(this.thread);
+   }
+
+   private Node toNode(Timestamp key) {
+      return (key instanceof Node) ? (Node)key : null;
+   }
+
+   private boolean isActive(Node node) {
+      return node.state == ACTIVE && node.generation == this.generation;
+   }
+
+   /**
+    * @return true if we switched the timer from active to cancelled
+    */
+   private boolean cancel(Node node) {
+      if (node.generation != this.generation)
+         return false;
+      if (!Node.STATE.compareAndSet(node, ACTIVE, CANCELLED))
+         return false;
+      this.size.decrementAndGet();
+      this.pendingCancels.add(node);
+      return true;
+   }
+
+   /**
+    * The wheel thread.
+    */
+   public void run() {
+      int knownGeneration = this.generation;
+      while (this.running) {
+         try {
+            if (knownGeneration != this.generation) {
+               knownGeneration = this.generation;
+               clearBuckets();
+            }
+            Node node;
+            while ((node = this.pendingCancels.poll()) != null) {
+               if (node.bucket != null)
+                  node.bucket.remove(node);
+            }
+            while ((node = this.pendingAdds.poll()) != null) {
+               if (node.state == ACTIVE && node.generation == knownGeneration)
+                  place(node);
+            }
+            long nowTick = (System.nanoTime() - this.startNanos) / this.tickNanos;
+            while (this.currentTick <= nowTick && this.running) {
+               if ((this.currentTick & MASK) == 0 && this.currentTick != 0)
+                  cascade(1);
+               expire(this.wheel[0][(int)(this.currentTick & MASK)]);
+               this.currentTick++;
+            }
+            if (this.pendingAdds.isEmpty() && this.pendingCancels.isEmpty()) {
+               long sleepNanos = this.currentTick * this.tickNanos - (System.nanoTime() - this.startNanos);
+               if (sleepNanos > 0L)
+                  LockSupport.parkNanos(this, sleepNanos);
+            }
+         }
+         catch (Throwable e) {
+            log.severe(this.name + ": Unexpected problem in timer thread: " + e.toString());
+            e.printStackTrace();
+         }
+      }
+      clearBuckets();
+      this.pendingAdds.clear();
+      this.pendingCancels.clear();
+   }
+
+   /**
+    * Move the timers of the current bucket of the given level one level down,
+    * cascades recursively if this level wraps around as well.
+    */
+   private void cascade(int level) {
+      if (level >= LEVELS)
+         return;
+      int index = (int)((this.currentTick >>> (BITS * level)) & MASK);
+      if (index == 0)
+         cascade(level + 1);
+      Bucket bucket = this.wheel[level][index];
+      Node node = bucket.head;
+      bucket.head = bucket.tail = null;
+      while (node != null) {
+         Node next = node.next;
+         node.prev = node.next = null;
+         node.bucket = null;
+         if (node.state == ACTIVE)
+            place(node);
+         node = next;
+      }
+   }
+
+   private void place(Node node) {
+      long deadline = node.deadlineTick;
+      if (deadline < this.currentTick)
+         deadline = this.currentTick; // late: fire with the next tick
+      long delta = deadline - this.currentTick;
+      if (delta > MAX_DELTA) {
+         delta = MAX_DELTA;
+         deadline = this.currentTick + delta;
+      }
+      int level = 0;
+      while (level < LEVELS-1 && delta >= (1L << (BITS * (level+1))))
+         level++;
+      this.wheel[level][(int)((deadline >>> (BITS * level)) & MASK)].add(node);
+   }
+
+   private void expire(Bucket bucket) {
+      Node node = bucket.head;
+      bucket.head = bucket.tail = null;
+      while (node != null) {
+         Node next = node.next;
+         node.prev = node.next = null;
+         node.bucket = null;
+         if (node.deadlineTick > this.currentTick) {
+            place(node); // was parked beyond the wheel range
+         }
+         else if (node.generation == this.generation && Node.STATE.compareAndSet(node, ACTIVE, EXPIRED)) {
+            this.size.decrementAndGet();
+            I_Timeout callback = node.container.getCallback();
+            if (callback != null) {
+               try {
+                  callback.timeout(node.container.getUserData());
+               }
+               catch (Throwable e) {
+                  log.warning(this.name + ": Timeout callback " + callback.toString() + " threw: " + e.toString());
+               }
+            }
+            else if (log.isLoggable(Level.FINE)) log.fine(this.name + ": Callback of timer is garbage collected");
+         }
+         node = next;
+      }
+   }
+
+   private void clearBuckets() {
+      for (int level=0; level<LEVELS; level++) {
+         for (int i=0; i<BUCKETS; i++) {
+            Bucket bucket = this.wheel[level][i];
+            Node node = bucket.head;
+            bucket.head = bucket.tail = null;
+            while (node != null) {
+               Node next = node.next;
+               node.prev = node.next = null;
+               node.bucket = null;
+               node = next;
+            }
+         }
+      }
+   }
+
+   /**
+    * The timeout handle returned to the caller, the Timestamp contains the
+    * absolute timeout in nanos as in Timeout.
+    */
+   private static final class Node extends Timestamp {
+      private static final long serialVersionUID = 1L;
+      static final AtomicIntegerFieldUpdater<Node> STATE = AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+      final transient long deadlineTick;
+      final transient int generation;
+      final transient Container container;
+      transient volatile int state;
+      transient Node prev;
+      transient Node next;
+      transient Bucket bucket;
+
+      Node(long nanos, long deadlineTick, int generation, Container container) {
+         super(nanos);
+         this.deadlineTick = deadlineTick;
+         this.generation = generation;
+         this.container = container;
+      }
+   }
+
+   /**
+    * Doubly linked list of timers, only accessed by the wheel thread.
+    */
+   private static final class Bucket {
+      Node head;
+      Node tail;
+
+      void add(Node node) {
+         node.bucket = this;
+         node.prev = this.tail;
+         node.next = null;
+         if (this.tail == null)
+            this.head = node;
+         else
+            this.tail.next = node;
+         this.tail = node;
+      }
+
+      void remove(Node node) {
+         if (node.prev == null)
+            this.head = node.next;
+         else
+            node.prev.next = node.next;
+         if (node.next == null)
+            this.tail = node.prev;
+         else
+            node.next.prev = node.prev;
+         node.prev = node.next = null;
+         node.bucket = null;
+      }
+   }
+}
@@ -0,0 +1,144 @@
+/*------------------------------------------------------------------------------
+Name:      VirtualThreads.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Access to virtual threads of JDK 21 and newer
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Creates virtual threads if the JVM supports them (JDK 21 or newer).
+ * <p />
+ * The virtual thread mode is switched on with
+ * <pre>
+ * -dispatch/executor virtual
+ * </pre>
+ * and is used for the callback dispatch (DispatchWorkerPool), the SOCKET
+ * client handling (HandleClient) and as such for the threads waiting on
+ * responses in RequestReplyExecutor. The default is <code>platform</code>.
+ * <p />
+ * xmlBlaster is compiled for JDK 1.8, so the API is accessed by reflection.
+ * On older JVMs a warning is logged once and the platform threads are used.
+ */
+public final class VirtualThreads
+{
+   private static Logger log = Logger.getLogger(VirtualThreads.class.getName());
+   public static final String EXECUTOR_PROPERTY = "dispatch/executor";
+   public static final String EXECUTOR_VIRTUAL = "virtual";
+   public static final String EXECUTOR_PLATFORM = "platform";
+
+   private static Method ofVirtual;          // Thread.ofVirtual()
+   private static Method builderName;        // Thread.Builder.name(String, long)
+   private static Method builderNameSimple;  // Thread.Builder.name(String)
+   private static Method builderFactory;     // Thread.Builder.factory()
+   private static Method builderUnstarted;   // Thread.Builder.unstarted(Runnable)
+   private static Method newThreadPerTaskExecutor; // Executors.newThreadPerTaskExecutor(ThreadFactory)
+   private static boolean available;
+   private static boolean warned;
+
+   static {
+      try {
+         ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+         Class builderClass = Class.forName("java.lang.Thread$Builder");
+         builderName = builderClass.getMethod("name", new Class[] { String.class, long.class });
+         builderNameSimple = builderClass.getMethod("name", new Class[] { String.class });
+         builderFactory = builderClass.getMethod("factory", new Class[0]);
+         builderUnstarted = builderClass.getMethod("unstarted", new Class[] { Runnable.class });
+         newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", new Class[] { ThreadFactory.class });
+         available = true;
+      }
+      catch (Throwable e) {
+         available = false;
+      }
+   }
+
+   private VirtualThreads() {
+   }
+
+   /**
+    * @return true if the JVM supports virtual threads
+    */
+   public static boolean isAvailable() {
+      return available;
+   }
+
+   /**
+    * @return true if <code>-dispatch/executor virtual</code> is configured and supported by the JVM
+    */
+   public static boolean isVirtual(Global glob) {
+      String mode = glob.getProperty().get(EXECUTOR_PROPERTY, EXECUTOR_PLATFORM);
+      if (!EXECUTOR_VIRTUAL.equalsIgnoreCase(mode))
+         return false;
+      if (!available) {
+         synchronized (VirtualThreads.class) {
+            if (!warned) {
+               warned = true;
+               log.warning("-" + EXECUTOR_PROPERTY + " " + mode + " needs JDK 21 or newer, running java " +
+                           System.getProperty("java.version") + ", we continue with platform threads");
+            }
+         }
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * An executor starting a new virtual thread for each task.
+    * @param namePrefix The thread names are namePrefix + counter
+    * @return null if virtual threads are not supported
+    */
+   public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+      ThreadFactory factory = newVirtualThreadFactory(namePrefix);
+      if (factory == null)
+         return null;
+      try {
+         return (ExecutorService)newThreadPerTaskExecutor.invoke(null, new Object[] { factory });
+      }
+      catch (Exception e) {
+         log.warning("Creating virtual thread executor failed: " + e.toString());
+         return null;
+      }
+   }
+
+   /**
+    * @param namePrefix The thread names are namePrefix + counter
+    * @return null if virtual threads are not supported
+    */
+   public static ThreadFactory newVirtualThreadFactory(String namePrefix) {
+      if (!available)
+         return null;
+      try {
+         Object builder = ofVirtual.invoke(null, new Object[0]);
+         builder = builderName.invoke(builder, new Object[] { namePrefix, new Long(0L) });
+         return (ThreadFactory)builderFactory.invoke(builder, new Object[0]);
+      }
+      catch (Exception e) {
+         log.warning("Creating virtual thread factory failed: " + e.toString());
+         return null;
+      }
+   }
+
+   /**
+    * Creates a not started virtual thread, falls back to a daemon platform thread.
+    */
+   public static Thread newThread(Runnable runnable, String name) {
+      if (available) {
+         try {
+            Object builder = ofVirtual.invoke(null, new Object[0]);
+            builder = builderNameSimple.invoke(builder, new Object[] { name });
+            return (Thread)builderUnstarted.invoke(builder, new Object[] { runnable });
+         }
+         catch (Exception e) {
+            log.warning("Creating virtual thread failed, using platform thread: " + e.toString());
+         }
+      }
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+   }
+}
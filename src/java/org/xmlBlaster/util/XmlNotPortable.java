@@ -18,6 +18,7 @@ import java.util.logging.Logger;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFunction;
 import javax.xml.xpath.XPathFunctionException;
 import javax.xml.xpath.XPathFunctionResolver;
@@ -105,6 +106,96 @@ public class XmlNotPortable
       return version;
    }
 
+   /**
+    * Some XPath 1.4 functions to make our life easier, currently "matches(text, regex)".
+    * @param expression Only used for logging
+    */
+   private static XPathFunctionResolver createFunctionResolver(final String expression) {
+      return new XPathFunctionResolver() {
+         @Override
+         public XPathFunction resolveFunction(QName functionName, int arity) {
+            if (arity == 2 && functionName.getLocalPart().equals("matches")) {
+               return new XPathFunction() {
+                  @Override
+                  public Object evaluate(List args) throws XPathFunctionException {
+                     try {
+                        Object a0 = args.get(0);
+                        Object a1 = args.get(1);
+                        if (a0 instanceof String && a1 instanceof String)
+                           return ((String) a0).matches((String) a1);
+                        else if (a0 instanceof NodeList && a1 instanceof String) {
+                           NodeList in = (NodeList) a0;
+                           String text = in.item(0).getTextContent();
+                           return text.matches((String) a1);
+                        }
+                     } catch (Throwable e) {
+                        log.warning("Invalid call to matches in XPath expression " + expression + ": " + e.getMessage());
+                     }
+                     return null;
+                  }
+               };
+            }
+            return null;
+         }
+      };
+   }
+
+   /**
+    * Compile the given XPath expression once to reuse it for many DOM trees.
+    * <p>
+    * Note: The returned XPathExpression is not thread-safe and not reentrant,
+    * the caller is responsible to use it from one thread at a time only.
+    * @param expression The XPath query, e.g. "//key[@domain='RUGBY']"
+    * @return The compiled expression or null if the JVM does not support javax.xml.xpath
+    * @throws XmlBlasterException if the expression is invalid
+    */
+   public static XPathExpression compileXPath(final String expression) throws XmlBlasterException {
+      if (getJvmXmlVersionToUse() < 15)
+         return null;
+      try {
+         javax.xml.xpath.XPath xpath = null;
+         synchronized (javax.xml.xpath.XPathFactory.class) {
+            javax.xml.xpath.XPathFactory xpathFactory = javax.xml.xpath.XPathFactory.newInstance();
+            xpathFactory.setXPathFunctionResolver(createFunctionResolver(expression));
+            xpath = xpathFactory.newXPath();
+         }
+         return xpath.compile(expression);
+      }
+      catch (Exception e) {
+         log.warning("Can't compile XPath expression '" + expression + "': " + e.toString());
+         throw new XmlBlasterException(Global.instance(), ErrorCode.USER_QUERY_INVALID, ME, "Can't compile XPath expression '" + expression + "'", e);
+      }
+   }
+
+   /**
+    * Do XPath query on DOM with a precompiled expression.
+    * @param compiled See compileXPath()
+    * @param document The DOM tree
+    * @return The matching nodes
+    */
+   public static Enumeration getNodeSetFromXPath(XPathExpression compiled, org.w3c.dom.Document document) throws XmlBlasterException {
+      try {
+         final org.w3c.dom.NodeList nodes = (org.w3c.dom.NodeList) compiled.evaluate(document, javax.xml.xpath.XPathConstants.NODESET);
+         final int length = nodes.getLength();
+         return new java.util.Enumeration<Object>() {
+            int i = 0;
+
+            public boolean hasMoreElements() {
+               return i < length;
+            }
+
+            public Object nextElement() {
+               i++;
+               return nodes.item(i - 1);
+            }
+         };
+      }
+      catch (Exception e) {
+         log.warning("Can't process compiled XPath expression: " + e.toString());
+         throw new XmlBlasterException(Global.instance(), ErrorCode.RESOURCE_CONFIGURATION, ME, "Can't process compiled XPath expression", e);
+      }
+   }
+
    /**
     * Do XPath query on DOM
     */
@@ -121,34 +212,7 @@ public class XmlNotPortable
 
                
                // Some XPath 1.4 functions to make our life easier
-               xpathFactory.setXPathFunctionResolver(new XPathFunctionResolver() {
-                  @Override
-                  public XPathFunction resolveFunction(QName functionName, int arity) {
-                     if (arity == 2 && functionName.getLocalPart().equals("matches")) {
-                        return new XPathFunction() {
-                           @Override
-                           public Object evaluate(List args) throws XPathFunctionException {
-                              try {
-                                 Object a0 = args.get(0);
-                                 Object a1 = args.get(1);
-                                 if (a0 instanceof String && a1 instanceof String)
-                                    return ((String) a0).matches((String) a1);
-                                 else if (a0 instanceof NodeList && a1 instanceof String) {
-                                    NodeList in = (NodeList) a0;
-                                    String text = in.item(0).getTextContent();
-                                    return text.matches((String) a1);
-                                 }
-                              } catch (Throwable e) {
-                                 log.warning("Invalid call to matches in XPath expression " + expression + ": " + e.getMessage());
-                              }
-                              return null;
-                           }
-                        };
-                     }
-                     // TODO Auto-generated method stub
-                     return null;
-                  }
-               });
+               xpathFactory.setXPathFunctionResolver(createFunctionResolver(expression));
                // The XPathFactory class is not thread-safe. In other words, it
                // is the application's responsibility to ensure
                // that at most one thread is using a XPathFactory object at any
@@ -0,0 +1,166 @@
+/*------------------------------------------------------------------------------
+Name:      AdaptiveBurstMode.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Adjusts the callback bulk size and collect time to the client
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.dispatch;
+
+/**
+ * Sizes the callback bulks and the burst mode collect time from the observed
+ * send latency, queue depth and acknowledge rate (<code>burstMode/adaptive=true</code>).
+ * <p>
+ * After each acknowledged bulk {@link #sent(int, long, long)} is called:
+ * </p>
+ * <ul>
+ *   <li>If the queue still holds at least a full bulk the client is the bottleneck,
+ *       the bulk size is doubled up to maxEntries and no collect time is used
+ *       as the bulks fill anyway. If the first full bulk after a doubling doesn't raise
+ *       the acknowledge rate by {@link #MIN_GAIN} the client can't take more, the bulk size
+ *       stays until the queue is drained.</li>
+ *   <li>If the queue is drained and the bulk was less than half full the bulk size is
+ *       halved down to minEntries. A fast client (average latency below {@link #FAST_LATENCY}) gets
+ *       no collect time to keep the latency low, for a slow client messages are collected
+ *       for half of its average latency, at most maxCollectTime.</li>
+ * </ul>
+ * The current values are reported to the {@link DispatchStatistic} for JMX.
+ */
+public final class AdaptiveBurstMode
+{
+   /** The upper bound of the bulk size if burstMode/maxEntries is unlimited or the default 1 */
+   public static final int DEFAULT_MAX_ENTRIES = 1000;
+   /** Clients answering faster (average millis) don't get a collect time */
+   public static final long FAST_LATENCY = 10L;
+   /** A doubled bulk must raise the acknowledge rate by this factor to double again */
+   public static final double MIN_GAIN = 1.1;
+   /** Weight of the newest measurement in the moving averages */
+   private static final double WEIGHT = 0.2;
+
+   private final DispatchStatistic statistic;
+   private int minEntries = 1;
+   private int maxEntries;
+   private long maxCollectTime;
+
+   private int currEntries;
+   private long currCollectTime;
+   private double avgLatency = -1.;
+   private double ackRate = 0.;
+   /** The acknowledge rate of the last bulk before the bulk size was doubled, -1 if unknown */
+   private double rateBeforeGrow = -1.;
+   /** The bulk size reached when doubling didn't raise the acknowledge rate */
+   private int growLimit = Integer.MAX_VALUE;
+   private long lastSentTime;
+   private long numAdjustments;
+
+   /**
+    * @param maxEntries The configured burstMode/maxEntries, -1 or 1 for {@link #DEFAULT_MAX_ENTRIES}
+    * @param maxCollectTime The configured burstMode/maxCollectTime
+    */
+   public AdaptiveBurstMode(DispatchStatistic statistic, int maxEntries, long maxCollectTime) {
+      this.statistic = statistic;
+      setBounds(maxEntries, maxCollectTime);
+      this.currEntries = this.minEntries;
+      report();
+   }
+
+   public synchronized void setBounds(int maxEntries, long maxCollectTime) {
+      this.maxEntries = (maxEntries <= 1) ? DEFAULT_MAX_ENTRIES : maxEntries;
+      this.maxCollectTime = Math.max(0L, maxCollectTime);
+      if (this.currEntries > this.maxEntries)
+         this.currEntries = this.maxEntries;
+      if (this.currCollectTime > this.maxCollectTime)
+         this.currCollectTime = this.maxCollectTime;
+   }
+
+   /**
+    * Feed back of an acknowledged bulk.
+    * @param numEntries The number of entries sent
+    * @param latency The millis the remote invocation took
+    * @param queueDepth The number of entries remaining in the queue
+    */
+   public void sent(int numEntries, long latency, long queueDepth) {
+      sent(numEntries, latency, queueDepth, System.currentTimeMillis());
+   }
+
+   /**
+    * Feed back of an acknowledged bulk.
+    * @param now The millis when the bulk was acknowledged
+    */
+   public synchronized void sent(int numEntries, long latency, long queueDepth, long now) {
+      this.avgLatency = (this.avgLatency < 0.) ? latency : WEIGHT*latency + (1.-WEIGHT)*this.avgLatency;
+      double rate = -1.;
+      if (this.lastSentTime > 0L) {
+         rate = numEntries * 1000. / Math.max(1L, now - this.lastSentTime);
+         this.ackRate = WEIGHT*rate + (1.-WEIGHT)*this.ackRate;
+      }
+      this.lastSentTime = now;
+
+      int entries = this.currEntries;
+      long collectTime;
+      if (queueDepth >= this.currEntries) {
+         boolean full = numEntries >= this.currEntries;
+         if (full && this.rateBeforeGrow >= 0.) { // the first full bulk after doubling
+            if (rate < this.rateBeforeGrow * MIN_GAIN)
+               this.growLimit = this.currEntries;
+            this.rateBeforeGrow = -1.;
+         }
+         entries = Math.min(Math.min(this.maxEntries, this.growLimit), this.currEntries * 2);
+         if (full && entries > this.currEntries)
+            this.rateBeforeGrow = rate;
+         collectTime = 0L;
+      }
+      else {
+         if (queueDepth == 0L) {
+            this.growLimit = Integer.MAX_VALUE;
+            this.rateBeforeGrow = -1.;
+         }
+         if (queueDepth == 0L && numEntries * 2 < this.currEntries)
+            entries = Math.max(this.minEntries, this.currEntries / 2);
+         collectTime = (this.avgLatency < FAST_LATENCY) ? 0L : Math.min(this.maxCollectTime, (long)(this.avgLatency / 2.));
+      }
+      if (entries != this.currEntries || collectTime != this.currCollectTime)
+         this.numAdjustments++;
+      this.currEntries = entries;
+      this.currCollectTime = collectTime;
+      report();
+   }
+
+   private void report() {
+      if (this.statistic != null)
+         this.statistic.setAdaptiveBurstMode(this.currEntries, this.currCollectTime, (long)Math.max(0., this.avgLatency), (long)this.ackRate);
+   }
+
+   /**
+    * @return The current bulk size
+    */
+   public synchronized int getMaxEntries() {
+      return this.currEntries;
+   }
+
+   /**
+    * @return The current collect time in millis, 0 sends immediately
+    */
+   public synchronized long getCollectTime() {
+      return this.currCollectTime;
+   }
+
+   /**
+    * @return The average send latency in millis, -1 if nothing is sent yet
+    */
+   public synchronized long getAvgLatency() {
+      return (long)this.avgLatency;
+   }
+
+   /**
+    * @return The number of changes of bulk size or collect time
+    */
+   public synchronized long getNumAdjustments() {
+      return this.numAdjustments;
+   }
+
+   public synchronized String toString() {
+      return "maxEntries=" + this.currEntries + "[" + this.minEntries + "-" + this.maxEntries + "] collectTime=" + this.currCollectTime
+           + "[0-" + this.maxCollectTime + "] avgLatency=" + (long)this.avgLatency + " ackRate=" + (long)this.ackRate
+           + " numAdjustments=" + this.numAdjustments;
+   }
+}
@@ -81,11 +81,20 @@ abstract public class DispatchConnectionsHandler
     * @param cbAddr The addresses i shall connect to
     */
    public DispatchConnectionsHandler(Global glob, I_DispatchManager dispatchManager) throws XmlBlasterException {
+      this(glob, dispatchManager, null);
+   }
+
+   /**
+    * You need to call initialize() after construction. 
+    * @param dispatchManager The message queue witch i belong to
+    * @param statistic The statistic to continue, null creates a new one
+    */
+   public DispatchConnectionsHandler(Global glob, I_DispatchManager dispatchManager, DispatchStatistic statistic) throws XmlBlasterException {
       this.ME = dispatchManager.getQueue().getStorageId().toString();
       this.glob = glob;
 
       this.dispatchManager = dispatchManager;
-      this.statistic = new DispatchStatistic();
+      this.statistic = (statistic == null) ? new DispatchStatistic() : statistic;
    }
 
    public final I_DispatchManager getDispatchManager() {
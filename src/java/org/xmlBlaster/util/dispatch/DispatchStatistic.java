@@ -28,6 +28,12 @@ public class DispatchStatistic implements I_ProgressListener
    private String lastDeliveryException = "";
    /** Count the exceptions occurred since startup. */
    private int numDeliveryExceptions = 0;
+
+   /** The current values of the adaptive burst mode, -1 if not adaptive */
+   private int burstModeMaxEntries = -1;
+   private long burstModeCollectTime = -1L;
+   private long avgSendLatency = -1L;
+   private long ackRate = -1L;
    
    /** The number of bytes read from the currently incoming message */
    private long currBytesRead;
@@ -274,6 +280,49 @@ public class DispatchStatistic implements I_ProgressListener
       return this.numDeliveryExceptions;
    }
 
+   /**
+    * Called by the adaptive burst mode on each adjustment. 
+    * @see AdaptiveBurstMode
+    */
+   public final void setAdaptiveBurstMode(int maxEntries, long collectTime, long avgSendLatency, long ackRate) {
+      this.burstModeMaxEntries = maxEntries;
+      this.burstModeCollectTime = collectTime;
+      this.avgSendLatency = avgSendLatency;
+      this.ackRate = ackRate;
+   }
+
+   /**
+    * The bulk size chosen by the adaptive burst mode. 
+    * @return -1 if burst mode is not adaptive
+    */
+   public final int getBurstModeMaxEntries() {
+      return this.burstModeMaxEntries;
+   }
+
+   /**
+    * The collect time in millis chosen by the adaptive burst mode. 
+    * @return -1 if burst mode is not adaptive
+    */
+   public final long getBurstModeCollectTime() {
+      return this.burstModeCollectTime;
+   }
+
+   /**
+    * The moving average of the send latency in millis measured by the adaptive burst mode. 
+    * @return -1 if burst mode is not adaptive
+    */
+   public final long getAvgSendLatency() {
+      return this.avgSendLatency;
+   }
+
+   /**
+    * The moving average of acknowledged messages per second measured by the adaptive burst mode. 
+    * @return -1 if burst mode is not adaptive
+    */
+   public final long getAckRate() {
+      return this.ackRate;
+   }
+
    /**
     * Dump state of this object into a XML ASCII string.
     * <br>
@@ -333,6 +382,12 @@ public class DispatchStatistic implements I_ProgressListener
       if (getNumBytesToRead() > 0) {
          sb.append(" numBytesToRead='").append(getNumBytesToRead()).append("'");
       }
+      if (getBurstModeMaxEntries() >= 0) {
+         sb.append(" burstModeMaxEntries='").append(getBurstModeMaxEntries()).append("'");
+         sb.append(" burstModeCollectTime='").append(getBurstModeCollectTime()).append("'");
+         sb.append(" avgSendLatency='").append(getAvgSendLatency()).append("'");
+         sb.append(" ackRate='").append(getAckRate()).append("'");
+      }
       
       sb.append("/>");
       return sb.toString();
@@ -0,0 +1,166 @@
+/*------------------------------------------------------------------------------
+Name:      DispatchWindow.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Credit based sliding window for pipelined callback delivery
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.dispatch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_Queue;
+
+/**
+ * Allows up to <i>windowSize</i> bulks of a queue to be on the wire at the same time.
+ * <p>
+ * Every DispatchWorker needs a credit (see {@link #acquire()}) and claims its bulk with
+ * {@link #claim(I_Queue, int, long)}, entries claimed by another worker are skipped.
+ * The entries stay in the queue until their bulk is acknowledged, the acknowledges
+ * may arrive in any order. After the worker has removed the entries from the queue
+ * (or left them there on failure for redelivery after reconnect)
+ * it calls {@link #release(List)}.
+ * </p>
+ * <p>
+ * The order of the messages is only guaranteed inside one bulk.
+ * The bulks are claimed from the highest priority in the queue only, entries of a
+ * lower priority wait until all bulks of the higher priority are released,
+ * the release of the last one starts the next workers.
+ * </p>
+ * @see <a href="http://www.xmlblaster.org/xmlBlaster/doc/requirements/client.configuration.html">client.configuration requirement</a>
+ */
+public final class DispatchWindow
+{
+   private int windowSize;
+   /** Number of workers holding a credit */
+   private int numInFlight;
+   /** The uniqueIds of the entries currently sent */
+   private final Set<Long> inFlight = new HashSet<Long>();
+   private long numAcquired;
+   private int maxInFlight;
+
+   public DispatchWindow(int windowSize) {
+      setWindowSize(windowSize);
+   }
+
+   public synchronized void setWindowSize(int windowSize) {
+      this.windowSize = (windowSize < 1) ? 1 : windowSize;
+   }
+
+   public synchronized int getWindowSize() {
+      return this.windowSize;
+   }
+
+   /**
+    * Takes a credit if the window is not full.
+    * @return false if windowSize bulks are on the wire already
+    */
+   public synchronized boolean acquire() {
+      if (this.numInFlight >= this.windowSize)
+         return false;
+      this.numInFlight++;
+      this.numAcquired++;
+      if (this.numInFlight > this.maxInFlight)
+         this.maxInFlight = this.numInFlight;
+      return true;
+   }
+
+   /**
+    * Does the highest priority of the queue contain entries which are not on the wire already?
+    * <p>
+    * Only the entries {@link #claim(I_Queue, int, long)} would return are checked,
+    * lower priorities are not claimable as long as a higher priority is on the wire.
+    * </p>
+    */
+   public synchronized boolean hasUnclaimed(I_Queue queue) throws XmlBlasterException {
+      if (queue.getNumOfEntries() <= this.inFlight.size())
+         return false;
+      List<I_Entry> list = queue.peekSamePriority(this.inFlight.size() + 1, -1L);
+      if (list == null)
+         return false;
+      for (int i=0; i<list.size(); i++) {
+         if (!this.inFlight.contains(new Long(list.get(i).getUniqueId())))
+            return true;
+      }
+      return false;
+   }
+
+   /**
+    * Takes the next bulk of highest priority out of the queue which is not sent by another worker.
+    * @param maxEntries -1 for all entries of the same priority
+    * @param maxBytes -1L for unlimited
+    * @return The claimed entries (still in the queue), never null
+    */
+   public synchronized List<I_Entry> claim(I_Queue queue, int maxEntries, long maxBytes) throws XmlBlasterException {
+      int numPeek = (maxEntries < 0) ? -1 : maxEntries + this.inFlight.size();
+      List<I_Entry> list = queue.peekSamePriority(numPeek, -1L);
+      List<I_Entry> ret = new ArrayList<I_Entry>();
+      if (list == null)
+         return ret;
+      long bytes = 0L;
+      for (int i=0; i<list.size(); i++) {
+         I_Entry entry = list.get(i);
+         if (this.inFlight.contains(new Long(entry.getUniqueId())))
+            continue;
+         if (maxEntries >= 0 && ret.size() >= maxEntries)
+            break;
+         if (maxBytes >= 0L && ret.size() > 0 && bytes + entry.getSizeInBytes() > maxBytes)
+            break;
+         bytes += entry.getSizeInBytes();
+         ret.add(entry);
+      }
+      for (int i=0; i<ret.size(); i++)
+         this.inFlight.add(new Long(ret.get(i).getUniqueId()));
+      return ret;
+   }
+
+   /**
+    * Returns the credit of a worker and releases its claimed entries.
+    * @param entries The claimed entries or null
+    */
+   public synchronized void release(List<I_Entry> entries) {
+      if (entries != null) {
+         for (int i=0; i<entries.size(); i++)
+            this.inFlight.remove(new Long(entries.get(i).getUniqueId()));
+      }
+      if (this.numInFlight > 0)
+         this.numInFlight--;
+   }
+
+   /**
+    * @return The number of bulks currently on the wire
+    */
+   public synchronized int getNumInFlight() {
+      return this.numInFlight;
+   }
+
+   /**
+    * @return The number of entries currently on the wire
+    */
+   public synchronized int getNumEntriesInFlight() {
+      return this.inFlight.size();
+   }
+
+   /**
+    * @return The maximum number of bulks which were on the wire at the same time
+    */
+   public synchronized int getMaxInFlight() {
+      return this.maxInFlight;
+   }
+
+   /**
+    * @return The number of bulks sent since creation
+    */
+   public synchronized long getNumAcquired() {
+      return this.numAcquired;
+   }
+
+   public synchronized String toString() {
+      return "windowSize=" + this.windowSize + " numInFlight=" + this.numInFlight
+           + " numEntriesInFlight=" + this.inFlight.size() + " maxInFlight=" + this.maxInFlight;
+   }
+}
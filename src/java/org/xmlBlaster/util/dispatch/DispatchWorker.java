@@ -29,10 +29,13 @@ public final class DispatchWorker implements Runnable
 
    private I_DispatchManager dispatchManager;
    private I_Queue msgQueue;
+   /** Not null if several workers send bulks of the same queue in parallel */
+   private final DispatchWindow dispatchWindow;
 
    public DispatchWorker(Global glob, I_DispatchManager mgr) {
       this.dispatchManager = mgr;
       this.msgQueue = mgr.getQueue();
+      this.dispatchWindow = mgr.getDispatchWindow();
       ME = "DispatchWorker-" + this.msgQueue.getStorageId(); 
    }
 
@@ -94,6 +97,11 @@ public final class DispatchWorker implements Runnable
                entryListChecked = msgInterceptor.handleNextMessages(dispatchManager, null); // should call prepareMsgsFromQueue() immediately
                entryList = entryListChecked;
          }
+         else if (this.dispatchWindow != null) {
+            // skips the entries which other workers are sending
+            entryList = this.dispatchWindow.claim(this.msgQueue, dispatchManager.getBurstModeMaxEntries(), dispatchManager.getBurstModeMaxBytes());
+            entryListChecked = dispatchManager.prepareMsgsFromQueue(entryList);
+         }
          else {
             //synchronized (this.msgQueue) {
                //entryList = (MsgQueueEntry[])this.msgQueue.take(-1); --> get()
@@ -144,6 +152,10 @@ public final class DispatchWorker implements Runnable
          // if (entriesWithNoDistributor.size() > 0) dispatchManager.handleWorkerException(entriesWithNoDistributor, throwable);
       }
       finally {
+         if (this.dispatchWindow != null) {
+            // after removeFromQueue() to not send the entries twice, on failure they remain in the queue for redelivery
+            this.dispatchWindow.release(entryList);
+         }
          try {
             this.dispatchManager.setDispatchWorkerIsActive(false);
          }
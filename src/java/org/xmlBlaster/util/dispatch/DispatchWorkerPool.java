@@ -8,6 +8,7 @@ Author:    xmlBlaster@marcelruff.info
 package org.xmlBlaster.util.dispatch;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
@@ -15,10 +16,12 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.VirtualThreads;
 import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.property.PropInt;
 import org.xmlBlaster.util.property.PropLong;
@@ -41,7 +44,11 @@ import org.xmlBlaster.util.property.PropLong;
  *    If none gets available a RejectedExecutionException is thrown
  *
  * 4b In case all maximumPoolSize threads are in use and "maxWaitTime"=0 milli seconds the executes blocks forever until a Thread is available
+ * 
+ * 5. With "-dispatch/executor virtual" (JDK 21 or newer) each task runs in its own virtual thread,
+ *    "maximumPoolSize", "createThreads", "threadLifetime" and "maxWaitTime" are not used then.
  * <pre>
+ * @see org.xmlBlaster.util.VirtualThreads
  */
 public class DispatchWorkerPool //implements I_RunlevelListener
 {
@@ -50,6 +57,9 @@ public class DispatchWorkerPool //implements I_RunlevelListener
    private static Logger log = Logger.getLogger(DispatchWorkerPool.class.getName());
    // ExecutorService
    private ThreadPoolExecutor pool;
+   /** Not null in virtual thread mode, pool is null then */
+   private ExecutorService virtualPool;
+   private final AtomicInteger virtualActiveCount = new AtomicInteger();
    //private PooledExecutor pool;
    private PropInt threadPrio = new PropInt(Thread.NORM_PRIORITY);
    /**
@@ -158,6 +168,15 @@ public class DispatchWorkerPool //implements I_RunlevelListener
       if (log.isLoggable(Level.FINE)) log.fine("maximumPoolSize=" + this.maximumPoolSize.getValue()/* + " minimumPoolSize=" +
                     this.minimumPoolSize.getValue()*/ + " createThreads=" + this.createThreads.getValue() + " threadLifetime=" + this.threadIdleLifetime + "' ms");
 
+      if (VirtualThreads.isVirtual(this.glob)) {
+         String scope = glob.isServerSide() ? "ServerScope" : "ClientGlobal";
+         this.virtualPool = VirtualThreads.newVirtualThreadPerTaskExecutor("XmlBlaster." + scope + ".DispatchWorkerPool." + glob.getId() + "-pool#" + counterPool + "-virtual#");
+         if (this.virtualPool != null) {
+            log.info("Creating " + (glob.isServerSide() ? "server side" : "client side") + " pool#" + counterPool + " with virtual threads");
+            return;
+         }
+      }
+
       //if (this.minimumPoolSize.getValue() < 3)
       //   log.warning("The minimumPoolSize of '" + this.minimumPoolSize.getValue() + "' is less than 2: if one single callback blocks it could block all other callbacks");
       ThreadFactory threadFactory = new DeamonThreadFactory(this.glob, glob.getId(), this.threadPrio.getValue());
@@ -231,6 +250,17 @@ public class DispatchWorkerPool //implements I_RunlevelListener
          return false;
       }
       
+      if (this.virtualPool != null) {
+         try {
+            this.virtualPool.execute(new CountingRunnable(command));
+         }
+         catch (RejectedExecutionException e) {
+            log.severe("Can't start virtual thread " + getStatistic() + ": " + e.toString());
+            return false;
+         }
+         return true;
+      }
+
       // Caution: This code is not reliable thread save as getActiveCount() may change until pool.execute() is called!
       if (maxWaitTime.getValue() > 0L) {
     	  final long waitMillis = maxWaitTime.getValue();
@@ -267,9 +297,33 @@ public class DispatchWorkerPool //implements I_RunlevelListener
       return true;
    }
 
+   /**
+    * Counts the running tasks in virtual thread mode
+    */
+   private class CountingRunnable implements Runnable {
+      private final Runnable command;
+      CountingRunnable(Runnable command) {
+         this.command = command;
+      }
+      public void run() {
+         virtualActiveCount.incrementAndGet();
+         try {
+            this.command.run();
+         }
+         finally {
+            virtualActiveCount.decrementAndGet();
+         }
+      }
+      public String toString() {
+         return this.command.toString();
+      }
+   }
+
    public String getStatistic() {
 	  //return "None statistic";
 	  String prefix = this.glob.isServerSide() ? this.glob.getLogPrefix() : "ClientGlobal";
+      if (this.virtualPool != null)
+         return prefix + " Virtual threads activeCount=" + this.virtualActiveCount.get();
       return prefix + " Threads activeCount=" + this.pool.getActiveCount() + " poolSize=" + this.pool.getPoolSize() +
     		  " maximumPoolSize=" + this.maximumPoolSize.getValue() +
     		  " queuedTasks=" + this.pool.getQueue().size() +
@@ -277,6 +331,8 @@ public class DispatchWorkerPool //implements I_RunlevelListener
    }
 
    public int getActiveCount() {
+      if (this.virtualPool != null)
+         return this.virtualActiveCount.get();
 	  return this.pool.getActiveCount();
    }
 
@@ -289,14 +345,20 @@ public class DispatchWorkerPool //implements I_RunlevelListener
     */
    public void shutdownAfterProcessingCurrentlyQueuedTasks() {
       //this.pool.shutdownAfterProcessingCurrentlyQueuedTasks();
-      this.pool.shutdown();
+      if (this.virtualPool != null)
+         this.virtualPool.shutdown();
+      else
+         this.pool.shutdown();
    }
 
    public synchronized void shutdown() {
       if (log.isLoggable(Level.FINER)) log.finer("shutdown()");
       if (!this.isShutdown) {
          this.isShutdown = true;
-         this.pool.shutdownNow();
+         if (this.virtualPool != null)
+            this.virtualPool.shutdownNow();
+         else
+            this.pool.shutdownNow();
       }
       //this.pool = null;
       //this.glob = null;
@@ -263,6 +263,12 @@ public interface I_DispatchManager extends I_Timeout, I_QueuePutListener {
     */
     I_MsgDispatchInterceptor getMsgDispatchInterceptor();
 
+   /**
+    * @return The window if several bulks may be sent at the same time, otherwise null
+    *         (one DispatchWorker at a time)
+    */
+    DispatchWindow getDispatchWindow();
+
    /**
     * Set new callback addresses, typically after a session login/logout
     */
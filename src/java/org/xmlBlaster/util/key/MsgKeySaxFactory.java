@@ -6,6 +6,7 @@ Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
 package org.xmlBlaster.util.key;
 
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.SaxParserPool;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.SaxHandlerBase;
 import org.xmlBlaster.util.XmlBuffer;
@@ -58,6 +59,11 @@ public final class MsgKeySaxFactory extends SaxHandlerBase implements I_MsgKeyFa
 
    private  MsgKeyData msgKeyData;
 
+   /** The shared instance which is handed to the parsed data, is this for the shared instance */
+   private final MsgKeySaxFactory owner;
+   /** Idle parsers, only set for the shared instance */
+   private final SaxParserPool<MsgKeySaxFactory> pool;
+
    /** helper flag for SAX parsing: parsing inside <state> ? */
    private int inKey = 0;
 
@@ -67,6 +73,18 @@ public final class MsgKeySaxFactory extends SaxHandlerBase implements I_MsgKeyFa
    public MsgKeySaxFactory(Global glob) {
       super(glob);
       this.glob = glob;
+      this.owner = this;
+      this.pool = new SaxParserPool<MsgKeySaxFactory>(glob);
+   }
+
+   /**
+    * A pooled parser of the given shared instance.
+    */
+   private MsgKeySaxFactory(MsgKeySaxFactory owner) {
+      super(owner.glob);
+      this.glob = owner.glob;
+      this.owner = owner;
+      this.pool = null;
    }
 
    /**
@@ -74,24 +92,39 @@ public final class MsgKeySaxFactory extends SaxHandlerBase implements I_MsgKeyFa
     * Parsing of update() and publish() key is supported here.
     * @param the XML based ASCII string
     */
-   public synchronized MsgKeyData readObject(String xmlKey) throws XmlBlasterException {
+   public MsgKeyData readObject(String xmlKey) throws XmlBlasterException {
+      if (this.pool == null)
+         return parse(xmlKey);
+      MsgKeySaxFactory parser = this.pool.get();
+      if (parser == null)
+         parser = new MsgKeySaxFactory(this);
+      try {
+         return parser.parse(xmlKey);
+      }
+      finally {
+         this.pool.release(parser);
+      }
+   }
+
+   private MsgKeyData parse(String xmlKey) throws XmlBlasterException {
       if (xmlKey == null) {
          xmlKey = "<key/>";
       }
       
       this.inKey = 0; // Reset in case last parse had an exception
 
-      this.msgKeyData = new MsgKeyData(glob, this, xmlKey);
-
-      init(xmlKey);  // use SAX parser to parse it (is slow)
+      this.msgKeyData = new MsgKeyData(glob, this.owner, xmlKey);
+      try {
+         init(xmlKey);  // use SAX parser to parse it (is slow)
 
-      if (this.msgKeyData.getOid() == null || this.msgKeyData.getOid().length() < 1) {
-         this.msgKeyData.setOid(this.msgKeyData.generateOid(glob.getStrippedId()));
+         if (this.msgKeyData.getOid() == null || this.msgKeyData.getOid().length() < 1) {
+            this.msgKeyData.setOid(this.msgKeyData.generateOid(glob.getStrippedId()));
+         }
+         return this.msgKeyData;
+      }
+      finally {
+         this.msgKeyData = null; // Don't hold it in the pool
       }
-
-      MsgKeyData tmp = this.msgKeyData;
-      this.msgKeyData = null; // Don't need it anymore
-      return tmp;
    }
 
    /**
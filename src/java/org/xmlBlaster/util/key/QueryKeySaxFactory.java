@@ -8,6 +8,7 @@ package org.xmlBlaster.util.key;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.SaxParserPool;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.SaxHandlerBase;
 import org.xmlBlaster.util.XmlBuffer;
@@ -55,6 +56,11 @@ public final class QueryKeySaxFactory extends SaxHandlerBase implements I_QueryK
 
    private QueryKeyData queryKeyData;
 
+   /** The shared instance which is handed to the parsed data, is this for the shared instance */
+   private final QueryKeySaxFactory owner;
+   /** Idle parsers, only set for the shared instance */
+   private final SaxParserPool<QueryKeySaxFactory> pool;
+
    /** helper flag for SAX parsing: parsing inside <state> ? */
    private transient int inKey;
    //private transient boolean inFilter;
@@ -71,7 +77,18 @@ public final class QueryKeySaxFactory extends SaxHandlerBase implements I_QueryK
    public QueryKeySaxFactory(Global glob) {
       super(glob);
       this.glob = glob;
+      this.owner = this;
+      this.pool = new SaxParserPool<QueryKeySaxFactory>(glob);
+   }
 
+   /**
+    * A pooled parser of the given shared instance.
+    */
+   private QueryKeySaxFactory(QueryKeySaxFactory owner) {
+      super(owner.glob);
+      this.glob = owner.glob;
+      this.owner = owner;
+      this.pool = null;
    }
 
    /**
@@ -79,7 +96,21 @@ public final class QueryKeySaxFactory extends SaxHandlerBase implements I_QueryK
     * Parsing of update() and subscribe() key is supported here.
     * @param the XML based ASCII string
     */
-   public synchronized QueryKeyData readObject(String xmlKey) throws XmlBlasterException {
+   public QueryKeyData readObject(String xmlKey) throws XmlBlasterException {
+      if (this.pool == null)
+         return parse(xmlKey);
+      QueryKeySaxFactory parser = this.pool.get();
+      if (parser == null)
+         parser = new QueryKeySaxFactory(this);
+      try {
+         return parser.parse(xmlKey);
+      }
+      finally {
+         this.pool.release(parser);
+      }
+   }
+
+   private QueryKeyData parse(String xmlKey) throws XmlBlasterException {
       if (xmlKey == null) {
          xmlKey = "<key/>";
       }
@@ -91,11 +122,16 @@ public final class QueryKeySaxFactory extends SaxHandlerBase implements I_QueryK
       this.inCdata = false;
       this.nameSpaceSet = null;
 
-      this.queryKeyData = new QueryKeyData(glob, this, xmlKey);
-
-      init(xmlKey);  // use SAX parser to parse it (is slow)
-
-      return queryKeyData;
+      this.queryKeyData = new QueryKeyData(glob, this.owner, xmlKey);
+      try {
+         init(xmlKey);  // use SAX parser to parse it (is slow)
+         return this.queryKeyData;
+      }
+      finally {
+         this.queryKeyData = null; // Don't hold it in the pool
+         this.tmpFilter = null;
+         this.innerTags = null;
+      }
    }
 
    /**
@@ -11,11 +11,11 @@ import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -63,8 +63,8 @@ public abstract class RequestReplyExecutor implements RequestReplyExecutorMBean
    protected I_CallbackExtended cbClient;
    /** The singleton handle for this xmlBlaster server (the server side) */
    private I_XmlBlaster xmlBlasterImpl;
-   /** A set containing LatchHolder instances */
-   private final Set latchSet = new HashSet();
+   /** A set containing LatchHolder instances, lock free as many (virtual) threads may wait on responses */
+   private final Set latchSet = ConcurrentHashMap.newKeySet();
    protected AddressBase addressConfig;
    protected AddressServer addressServer;
    /** A listener may register to receive send/receive progress informations */
@@ -776,24 +776,18 @@ public abstract class RequestReplyExecutor implements RequestReplyExecutorMBean
 
    private LatchHolder addLatch(CountDownLatch latch) {
       LatchHolder latchHolder = new LatchHolder(latch);
-      synchronized (this.latchSet) {
-         boolean added = this.latchSet.add(latchHolder);
-         if (!added)
-            throw new IllegalArgumentException("Didn't expect the latch already");
-      }
+      boolean added = this.latchSet.add(latchHolder);
+      if (!added)
+         throw new IllegalArgumentException("Didn't expect the latch already");
       return latchHolder;
    }
 
    private void removeLatch(LatchHolder latchHolder) {
-      synchronized (this.latchSet) {
-         this.latchSet.remove(latchHolder);
-      }
+      this.latchSet.remove(latchHolder);
    }
 
    private LatchHolder[] getLatches() {
-      synchronized (this.latchSet) {
-         return (LatchHolder[])this.latchSet.toArray(new LatchHolder[this.latchSet.size()]);
-      }
+      return (LatchHolder[])this.latchSet.toArray(new LatchHolder[0]);
    }
 
    /**
@@ -807,7 +801,9 @@ public abstract class RequestReplyExecutor implements RequestReplyExecutorMBean
          latches[i].latchIsInterrupted = true;
          latches[i].latch.countDown(); // wake up
       }
-      synchronized (this.latchSet) { latchSet.clear(); }
+      for (int i=0; i<latches.length; i++) {
+         this.latchSet.remove(latches[i]);
+      }
    }
 
    /**
@@ -0,0 +1,115 @@
+package org.xmlBlaster.util.protocol;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Non blocking counterpart of ZBlockInputStream.
+ * <p />
+ * The compressed bytes are pushed in pieces as they arrive with write(),
+ * every complete block is inflated and forwarded to the wrapped stream.
+ * The block format is the one written by ZBlockOutputStream:
+ * flag byte (0=raw, 1=deflated), 4 bytes uncompressed length,
+ * for flag 1 additional 4 bytes compressed length, followed by the data.
+ */
+public class ZBlockDecoder extends java.io.FilterOutputStream {
+
+    private final byte[] head = new byte[9];
+    private int headIndex;
+    private int headLen = 5;
+    private byte[] buffer;
+    private byte[] compBuffer;
+    private int blockLen = -1;
+    private int compSize;
+    private int readIndex;
+    private Inflater inflater;
+
+    public ZBlockDecoder(java.io.OutputStream out) {
+        super(out);
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLen < 0) {
+                if (headIndex == 0) {
+                    // the compression flag decides about the header length
+                    if (b[off] < 0 || b[off] > 1) {
+                        throw new IOException("Invalid stream input encountered.");
+                    }
+                    headLen = (b[off] == 1) ? 9 : 5;
+                }
+                int num = Math.min(len, headLen - headIndex);
+                System.arraycopy(b, off, head, headIndex, num);
+                headIndex += num;
+                off += num;
+                len -= num;
+                if (headIndex < headLen) continue;
+                startBlock();
+            }
+            else {
+                int missing = (head[0] == 1 ? compSize : blockLen) - readIndex;
+                int num = Math.min(len, missing);
+                System.arraycopy(b, off, head[0] == 1 ? compBuffer : buffer, readIndex, num);
+                readIndex += num;
+                off += num;
+                len -= num;
+            }
+            if (blockLen >= 0 && readIndex == (head[0] == 1 ? compSize : blockLen)) {
+                endBlock();
+            }
+        }
+    }
+
+    private void startBlock() throws IOException {
+        blockLen = readInt(1);
+        compSize = (head[0] == 1) ? readInt(5) : 0;
+        if (blockLen > ZBlockOutputStream.MAXBUFFERSIZE || compSize > ZBlockOutputStream.MAXBUFFERSIZE
+            || blockLen < 0 || compSize < 0) {
+            throw new IOException("Invalid chunk length encountered.");
+        }
+        if (buffer == null) {
+            buffer = new byte[ZBlockOutputStream.MAXBUFFERSIZE];
+        }
+        if (head[0] == 1 && compBuffer == null) {
+            compBuffer = new byte[ZBlockOutputStream.MAXBUFFERSIZE];
+            inflater = new Inflater();
+        }
+        readIndex = 0;
+    }
+
+    private void endBlock() throws IOException {
+        if (head[0] == 1) {
+            inflater.reset();
+            inflater.setInput(compBuffer, 0, compSize);
+            try {
+                int output = inflater.inflate(buffer);
+                if (output != blockLen) {
+                    throw new IOException("Bad uncompressed size");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Data format exception");
+            }
+        }
+        int len = blockLen;
+        blockLen = -1;
+        headIndex = 0;
+        headLen = 5;
+        out.write(buffer, 0, len);
+    }
+
+    private int readInt(int off) {
+        return (head[off] & 0xff) << 24 | (head[off+1] & 0xff) << 16 | (head[off+2] & 0xff) << 8 | (head[off+3] & 0xff);
+    }
+
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        super.close();
+    }
+}
@@ -106,7 +106,7 @@ public class ZBlockInputStream extends java.io.FilterInputStream {
 //        System.out.println("reading "+(compressionFlag==1 ? Integer.toString(compSize)+" compressed, " : "")
 //                +newReadIndex+" deflated bytes");
 
-        if (newReadIndex < ZBlockOutputStream.MAXBUFFERSIZE && compSize < ZBlockOutputStream.MAXBUFFERSIZE) {
+        if (newReadIndex <= ZBlockOutputStream.MAXBUFFERSIZE && compSize <= ZBlockOutputStream.MAXBUFFERSIZE) {
             // seems to be ok...
             maxReadIndex=newReadIndex;
 /*            if (buffer.length < maxReadIndex) {
@@ -0,0 +1,63 @@
+package org.xmlBlaster.util.protocol;
+
+import java.io.IOException;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * Non blocking counterpart of ZFlushInputStream.
+ * <p />
+ * The compressed stream bytes are pushed in pieces as they arrive with write(),
+ * everything which can be inflated is forwarded to the wrapped stream immediately.
+ * The sender (ZFlushOutputStream) flushes with Z_PARTIAL_FLUSH, so each
+ * message is complete after its last compressed byte arrived.
+ */
+public class ZFlushDecoder extends java.io.FilterOutputStream {
+
+    private byte[] buffer;
+    private ZStream inflater;
+
+    public ZFlushDecoder(java.io.OutputStream out) {
+        super(out);
+        buffer=new byte[ZFlushInputStream.RECBUFSIZE];
+        inflater=new ZStream();
+        inflater.inflateInit();
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        inflater.next_in=b;
+        inflater.next_in_index=off;
+        inflater.avail_in=len;
+        do {
+            inflater.next_out=buffer;
+            inflater.next_out_index=0;
+            inflater.avail_out=buffer.length;
+            int status=inflater.inflate(JZlib.Z_PARTIAL_FLUSH);
+            if (status!=JZlib.Z_OK && status!=JZlib.Z_BUF_ERROR && status!=JZlib.Z_STREAM_END) {
+                throw new IOException("JZlib error: "+status);
+            }
+            int produced=buffer.length-inflater.avail_out;
+            if (produced>0) {
+                out.write(buffer, 0, produced);
+            }
+            else if (status==JZlib.Z_BUF_ERROR || status==JZlib.Z_STREAM_END) {
+                break; // no progress possible
+            }
+        } while (inflater.avail_in>0 || inflater.avail_out==0);
+        inflater.next_in=null;
+    }
+
+    public synchronized float getCompressionRatio() {
+        return (float)inflater.total_in/inflater.total_out;
+    }
+
+    public void close() throws IOException {
+        inflater.inflateEnd();
+        super.close();
+    }
+}
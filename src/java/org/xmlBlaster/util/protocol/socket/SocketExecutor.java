@@ -24,12 +24,14 @@ import org.xmlBlaster.util.protocol.ZFlushOutputStream;
 import org.xmlBlaster.util.qos.address.AddressBase;
 import org.xmlBlaster.util.xbformat.I_ProgressListener;
 import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfFrame;
 import org.xmlBlaster.util.xbformat.XbfParser;
 import org.xmlBlaster.util.def.Constants;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Send/receive messages over outStream and inStream.
@@ -67,6 +69,17 @@ public abstract class SocketExecutor extends RequestReplyExecutor implements Soc
 
    protected boolean running = true;
 
+   /** -binaryQos: Send qos and key of publish messages in binary form if the peer supports it */
+   private boolean binaryQos = true;
+   /** Set when the peer marked a message as able to parse binary QoS */
+   private volatile boolean binaryQosPeer;
+
+   /**
+    * Serializes the writes of complete messages to oStream.
+    * A lock instead of synchronized as a blocked socket write inside a monitor pins a virtual thread.
+    */
+   protected final ReentrantLock writeLock = new ReentrantLock();
+
    public SocketExecutor() {
    }
 
@@ -87,6 +100,8 @@ public abstract class SocketExecutor extends RequestReplyExecutor implements Soc
       this.isNullTerminated = addressConfig.getEnv("isNullTerminated", false).getValue();
       this.maxChunkSize = addressConfig.getEnv("maxChunkSize", MAX_CHUNKSIZE_DEFAULT).getValue();
       if (log.isLoggable(Level.FINE)) log.fine("Max chunk size is '" + this.maxChunkSize + "'");
+      this.binaryQos = addressConfig.getEnv("binaryQos", true).getValue();
+      this.binaryQosPeer = false;
       if (isCompressZlibStream()) { // Statically configured for server side protocol plugin
          this.iStream = new ZFlushInputStream(iStream);
          this.oStream =  new ZFlushOutputStream(oStream);
@@ -249,6 +264,28 @@ public abstract class SocketExecutor extends RequestReplyExecutor implements Soc
    }
 
 
+   /**
+    * Remembers if the peer can parse messages with binary QoS, see XbfParser.BINARY_QOS_BYTE.
+    * Older peers send byte5 always empty and get the plain format.
+    */
+   public boolean receiveReply(MsgInfo receiver, boolean udp) throws XmlBlasterException, IOException {
+      if (this.binaryQos && !this.binaryQosPeer) {
+         byte byte5 = receiver.getByte5();
+         if (byte5 == XbfParser.BINARY_QOS_BYTE || byte5 == XbfParser.BINARY_QOS_CAPABLE_BYTE) {
+            if (log.isLoggable(Level.FINE)) log.fine("Peer supports binary QoS, switching XBF format");
+            this.binaryQosPeer = true;
+         }
+      }
+      return super.receiveReply(receiver, udp);
+   }
+
+   /**
+    * @return true if we send qos and key in binary form to our peer
+    */
+   public boolean isBinaryQosPeer() {
+      return this.binaryQosPeer;
+   }
+
    /**
     * Flush the data to the socket.
     * Overwrite this in your derived class to send UDP
@@ -257,36 +294,33 @@ public abstract class SocketExecutor extends RequestReplyExecutor implements Soc
       I_ProgressListener listener = this.progressListener;
       try {
          // TODO: On server side the msgInfoParserClassName should be from CbSocketDriver configuration
-         byte[] msg = msgInfo.createRawMsg(getCbMsgInfoParserClassName());
-         if (log.isLoggable(Level.FINEST)) log.finest("Sending TCP data of length " + msg.length + " >" + XbfParser.createLiteral(msg) + "<");
+         if (this.binaryQos)
+            msgInfo.setByte5(this.binaryQosPeer ? XbfParser.BINARY_QOS_BYTE : XbfParser.BINARY_QOS_CAPABLE_BYTE);
+         // Big contents are not copied, they are written directly from the MsgUnit
+         XbfFrame frame = msgInfo.createFrame(getCbMsgInfoParserClassName());
+         if (log.isLoggable(Level.FINEST)) log.finest("Sending TCP data of length " + frame.getLength() + " >" + XbfParser.createLiteral(frame.toByteArray()) + "<");
          if (listener != null) {
-            listener.progressWrite("", 0, msg.length);
+            listener.progressWrite("", 0, frame.getLength());
          }
          else
             log.fine("The progress listener is null");
 
-         int bytesLeft = msg.length;
-         int bytesRead = 0;
          if (oStream == null)
             throw new XmlBlasterException(glob, ErrorCode.COMMUNICATION_NOCONNECTION, ME, "sendMessage() invocation ignored, we are shutdown.");
-         synchronized (oStream) {
-            while (bytesLeft > 0) {
-               int toRead = bytesLeft > this.maxChunkSize ? this.maxChunkSize : bytesLeft;
-               oStream.write(msg, bytesRead, toRead);
-               oStream.flush();
-               bytesRead += toRead;
-               bytesLeft -= toRead;
-               if (listener != null)
-                  listener.progressWrite("", bytesRead, msg.length);
-            }
+         this.writeLock.lock();
+         try {
+            frame.writeTo(oStream, this.maxChunkSize, listener);
             if (this.isNullTerminated) { // If using XmlScriptInterpreter as parserClass, we finish each script with a null byte
                oStream.write(0);
                oStream.flush();
             }
             if (log.isLoggable(Level.FINE)) log.fine("TCP data is send");
          }
+         finally {
+            this.writeLock.unlock();
+         }
          if (listener != null) {
-            listener.progressWrite("", msg.length, msg.length);
+            listener.progressWrite("", frame.getLength(), frame.getLength());
          }
 
       }
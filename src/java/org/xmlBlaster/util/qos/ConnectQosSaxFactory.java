@@ -9,6 +9,7 @@ package org.xmlBlaster.util.qos;
 import java.util.Properties;
 import java.util.logging.Logger;
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.SaxParserPool;
 import org.xmlBlaster.util.qos.address.Address;
 import org.xmlBlaster.util.qos.address.AddressBase;
 import org.xmlBlaster.util.qos.address.CallbackAddress;
@@ -104,6 +105,11 @@ public final class ConnectQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase i
 
    private ConnectQosData connectQosData;
 
+   /** The shared instance which is handed to the parsed data, is this for the shared instance */
+   private final ConnectQosSaxFactory owner;
+   /** Idle parsers, only set for the shared instance */
+   private final SaxParserPool<ConnectQosSaxFactory> pool;
+
    // helper flags for SAX parsing
    //private boolean inServerRef;
    private boolean inQueue;
@@ -127,7 +133,18 @@ public final class ConnectQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase i
    public ConnectQosSaxFactory(Global glob) {
       super(glob);
       this.glob = glob;
+      this.owner = this;
+      this.pool = new SaxParserPool<ConnectQosSaxFactory>(glob);
+   }
 
+   /**
+    * A pooled parser of the given shared instance.
+    */
+   private ConnectQosSaxFactory(ConnectQosSaxFactory owner) {
+      super(owner.glob);
+      this.glob = owner.glob;
+      this.owner = owner;
+      this.pool = null;
    }
    
    /**
@@ -136,7 +153,21 @@ public final class ConnectQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase i
     * This call is thread safe if not intermixed with <tt>getConnectQosData()</tt> calls.
     * @param the XML based ASCII string
     */
-   public synchronized ConnectQosData readObject(String xmlQos) throws XmlBlasterException {
+   public ConnectQosData readObject(String xmlQos) throws XmlBlasterException {
+      if (this.pool == null)
+         return parse(xmlQos);
+      ConnectQosSaxFactory parser = this.pool.get();
+      if (parser == null)
+         parser = new ConnectQosSaxFactory(this);
+      try {
+         return parser.parse(xmlQos);
+      }
+      finally {
+         this.pool.release(parser);
+      }
+   }
+
+   private ConnectQosData parse(String xmlQos) throws XmlBlasterException {
       if (xmlQos == null) {
          xmlQos = "<qos/>";
       }
@@ -155,12 +186,21 @@ public final class ConnectQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase i
       this.tmpSecurityPluginVersion = null;
       //this.inIsPersistent = false;
       
-      this.connectQosData = new ConnectQosData(glob, this, xmlQos, null);
-
-      if (!isEmpty(xmlQos)) // if possible avoid expensive SAX parsing
-         init(xmlQos);      // use SAX parser to parse it (is slow)
-
-      return this.connectQosData;
+      this.connectQosData = new ConnectQosData(glob, this.owner, xmlQos, null);
+      try {
+         if (!isEmpty(xmlQos)) // if possible avoid expensive SAX parsing
+            init(xmlQos);      // use SAX parser to parse it (is slow)
+         return this.connectQosData;
+      }
+      finally {
+         // Don't hold the parse result in the pool
+         this.connectQosData = null;
+         this.tmpServerRef = null;
+         this.tmpCbProp = null;
+         this.tmpCbAddr = null;
+         this.tmpProp = null;
+         this.tmpAddr = null;
+      }
    }
 
    /**
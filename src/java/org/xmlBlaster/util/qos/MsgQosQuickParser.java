@@ -0,0 +1,317 @@
+/*------------------------------------------------------------------------------
+Name:      MsgQosQuickParser.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.qos;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.def.PriorityEnum;
+
+/**
+ * Parses the most common publish QoS without SAX.
+ * <p>
+ * Supported is a <code>&lt;qos></code> containing only the tags
+ * <pre>
+ *  &lt;persistent/> or &lt;persistent>true&lt;/persistent>
+ *  &lt;priority>5&lt;/priority>
+ *  &lt;expiration lifeTime='60000' forceDestroy='false' remainingLife='1000'/>
+ *  &lt;clientProperty name='a' type='int' encoding='base64' charset='UTF-8'>12&lt;/clientProperty>
+ *  &lt;isPublish/>, &lt;isUpdate/> or &lt;isGet/>
+ * </pre>
+ * with the predefined entities <code>&amp;lt; &amp;gt; &amp;amp; &amp;quot; &amp;apos;</code>.
+ * For any other markup (other tags, comments, CDATA, character references, ...)
+ * null is returned and the caller uses the SAX parser, the result is identical.
+ * </p>
+ * @see MsgQosSaxFactory
+ * @see org.xmlBlaster.test.classtest.qos.MsgQosQuickParserTest
+ */
+public final class MsgQosQuickParser
+{
+   private static final int MAX_ATTRS = 4;
+
+   private final String xml;
+   private final int len;
+   private int pos;
+   // The current tag
+   private int nameStart;
+   private int nameEnd;
+   private boolean emptyTag;
+   private int numAttrs;
+   private final int[] attrNameStart = new int[MAX_ATTRS];
+   private final int[] attrNameEnd = new int[MAX_ATTRS];
+   private final String[] attrValue = new String[MAX_ATTRS];
+
+   private MsgQosQuickParser(String xml) {
+      this.xml = xml;
+      this.len = xml.length();
+   }
+
+   /**
+    * @param factory The factory to pass to MsgQosData for serialization
+    * @return The parsed QoS or null if the markup is not supported (use SAX)
+    */
+   public static MsgQosData parse(Global glob, I_MsgQosFactory factory, String xmlQos) {
+      if (xmlQos == null)
+         return null;
+      MsgQosQuickParser p = new MsgQosQuickParser(xmlQos);
+      return p.parse(glob, factory);
+   }
+
+   private MsgQosData parse(Global glob, I_MsgQosFactory factory) {
+      skipWhitespace();
+      if (!this.xml.startsWith("<qos>", this.pos))
+         return null;
+      this.pos += 5;
+      MsgQosData data = new MsgQosData(glob, factory, this.xml, MethodName.UNKNOWN);
+      while (true) {
+         skipWhitespace();
+         if (this.pos >= this.len)
+            return null;
+         if (this.xml.startsWith("</qos>", this.pos)) {
+            this.pos += 6;
+            skipWhitespace();
+            return (this.pos == this.len) ? data : null;
+         }
+         if (!readStartTag())
+            return null;
+
+         if (isTag("persistent")) {
+            if (this.numAttrs > 0) return null;
+            data.setPersistent(true);
+            if (!this.emptyTag) {
+               String text = readText();
+               if (text == null) return null;
+               text = text.trim();
+               if (text.length() > 0)
+                  data.setPersistent(new Boolean(text).booleanValue());
+            }
+         }
+         else if (isTag("priority")) {
+            if (this.numAttrs > 0 || this.emptyTag) return null;
+            String text = readText();
+            if (text == null) return null;
+            try {
+               data.setPriority(PriorityEnum.parsePriority(text));
+            }
+            catch (IllegalArgumentException e) {
+               return null; // SAX logs the problem
+            }
+         }
+         else if (isTag("expiration")) {
+            String lifeTime = getAttr("lifeTime");
+            if (lifeTime == null) return null;
+            String forceDestroy = getAttr("forceDestroy");
+            String remainingLife = getAttr("remainingLife");
+            int known = 1 + (forceDestroy != null ? 1 : 0) + (remainingLife != null ? 1 : 0);
+            if (known != this.numAttrs) return null;
+            if (!this.emptyTag) {
+               String text = readText();
+               if (text == null || text.trim().length() > 0) return null;
+            }
+            try {
+               data.setLifeTime(Long.parseLong(lifeTime.trim()));
+               if (remainingLife != null)
+                  data.setRemainingLifeStatic(Long.parseLong(remainingLife.trim()));
+            }
+            catch (NumberFormatException e) {
+               return null;
+            }
+            if (forceDestroy != null)
+               data.setForceDestroy(new Boolean(forceDestroy.trim()).booleanValue());
+         }
+         else if (isTag(ClientProperty.CLIENTPROPERTY_TAG)) {
+            String name = getAttr("name");
+            if (name == null) return null;
+            String type = getAttr("type");
+            String encoding = getAttr("encoding");
+            String charset = getAttr("charset");
+            int known = 1 + (type != null ? 1 : 0) + (encoding != null ? 1 : 0) + (charset != null ? 1 : 0);
+            if (known != this.numAttrs) return null;
+            String text = "";
+            if (!this.emptyTag) {
+               text = readText();
+               if (text == null) return null;
+            }
+            ClientProperty clientProperty = new ClientProperty(name, type, encoding);
+            if (charset != null && charset.length() > 0)
+               clientProperty.setCharset(charset);
+            if (clientProperty.isStringType() && !clientProperty.isBase64())
+               clientProperty.setValue(text);
+            else if (clientProperty.isStringType())
+               clientProperty.setValueRaw(text);
+            else
+               clientProperty.setValueRaw(text.trim());
+            data.addClientProperty(clientProperty);
+         }
+         else if (isTag("isPublish") || isTag("isUpdate") || isTag("isGet")) {
+            if (this.numAttrs > 0) return null;
+            if (!this.emptyTag) {
+               String text = readText();
+               if (text == null) return null;
+            }
+            data.setMethod(isTag("isPublish") ? MethodName.PUBLISH : (isTag("isUpdate") ? MethodName.UPDATE : MethodName.GET));
+         }
+         else {
+            return null;
+         }
+      }
+   }
+
+   private void skipWhitespace() {
+      while (this.pos < this.len) {
+         char c = this.xml.charAt(this.pos);
+         if (c != ' ' && c != '\n' && c != '\t' && c != '\r')
+            return;
+         this.pos++;
+      }
+   }
+
+   private boolean isTag(String name) {
+      return (this.nameEnd - this.nameStart) == name.length()
+             && this.xml.regionMatches(this.nameStart, name, 0, name.length());
+   }
+
+   private String getAttr(String name) {
+      for (int i=0; i<this.numAttrs; i++) {
+         if ((this.attrNameEnd[i] - this.attrNameStart[i]) == name.length()
+             && this.xml.regionMatches(this.attrNameStart[i], name, 0, name.length()))
+            return this.attrValue[i];
+      }
+      return null;
+   }
+
+   private static boolean isNameChar(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+   }
+
+   /**
+    * Reads &lt;name attr='value' ...> or &lt;name .../>
+    * @return false if not supported
+    */
+   private boolean readStartTag() {
+      if (this.xml.charAt(this.pos) != '<')
+         return false;
+      this.pos++;
+      this.nameStart = this.pos;
+      while (this.pos < this.len && isNameChar(this.xml.charAt(this.pos)))
+         this.pos++;
+      this.nameEnd = this.pos;
+      if (this.nameEnd == this.nameStart)
+         return false; // comment, CDATA, end tag, processing instruction
+      this.numAttrs = 0;
+      while (true) {
+         int before = this.pos;
+         skipWhitespace();
+         if (this.pos >= this.len)
+            return false;
+         char c = this.xml.charAt(this.pos);
+         if (c == '>') {
+            this.pos++;
+            this.emptyTag = false;
+            return true;
+         }
+         if (c == '/') {
+            if (this.pos+1 >= this.len || this.xml.charAt(this.pos+1) != '>')
+               return false;
+            this.pos += 2;
+            this.emptyTag = true;
+            return true;
+         }
+         if (before == this.pos || this.numAttrs == MAX_ATTRS)
+            return false; // no whitespace before the attribute
+         int start = this.pos;
+         while (this.pos < this.len && isNameChar(this.xml.charAt(this.pos)))
+            this.pos++;
+         if (start == this.pos || this.pos >= this.len || this.xml.charAt(this.pos) != '=')
+            return false;
+         int end = this.pos;
+         for (int i=0; i<this.numAttrs; i++) {
+            if (this.attrNameEnd[i] - this.attrNameStart[i] == end - start
+                && this.xml.regionMatches(this.attrNameStart[i], this.xml, start, end - start))
+               return false; // duplicate attribute is an error for SAX
+         }
+         this.pos++;
+         if (this.pos >= this.len)
+            return false;
+         char quote = this.xml.charAt(this.pos);
+         if (quote != '\'' && quote != '"')
+            return false;
+         int valueEnd = this.xml.indexOf(quote, this.pos+1);
+         if (valueEnd < 0)
+            return false;
+         String value = unEscape(this.pos+1, valueEnd, true);
+         if (value == null)
+            return false;
+         this.attrNameStart[this.numAttrs] = start;
+         this.attrNameEnd[this.numAttrs] = end;
+         this.attrValue[this.numAttrs] = value;
+         this.numAttrs++;
+         this.pos = valueEnd + 1;
+      }
+   }
+
+   /**
+    * Reads the text up to the end tag of the current tag
+    * @return null if nested markup or unsupported escapes are found
+    */
+   private String readText() {
+      int end = this.xml.indexOf('<', this.pos);
+      if (end < 0)
+         return null;
+      int nameLen = this.nameEnd - this.nameStart;
+      if (end + 3 + nameLen > this.len
+          || this.xml.charAt(end+1) != '/'
+          || !this.xml.regionMatches(end+2, this.xml, this.nameStart, nameLen)
+          || this.xml.charAt(end+2+nameLen) != '>')
+         return null;
+      String text = unEscape(this.pos, end, false);
+      this.pos = end + 3 + nameLen;
+      return text;
+   }
+
+   /**
+    * Resolves the predefined entities.
+    * @param attribute true for attribute values, SAX normalizes whitespace there so we don't support it
+    * @return null if not supported
+    */
+   private String unEscape(int from, int to, boolean attribute) {
+      int amp = -1;
+      for (int i=from; i<to; i++) {
+         char c = this.xml.charAt(i);
+         if (c == '&') {
+            if (amp < 0) amp = i;
+         }
+         else if (c == '<' || c == '\r')
+            return null;
+         else if (attribute && (c == '\n' || c == '\t'))
+            return null;
+         else if (c == '>' && i >= 2 && this.xml.charAt(i-1) == ']' && this.xml.charAt(i-2) == ']')
+            return null; // "]]>" is not allowed in text
+      }
+      if (amp < 0)
+         return this.xml.substring(from, to);
+      StringBuilder sb = new StringBuilder(to - from);
+      sb.append(this.xml, from, amp);
+      for (int i=amp; i<to; i++) {
+         char c = this.xml.charAt(i);
+         if (c != '&') {
+            sb.append(c);
+            continue;
+         }
+         int semi = this.xml.indexOf(';', i);
+         if (semi < 0 || semi >= to)
+            return null;
+         int n = semi - i - 1;
+         if (n == 2 && this.xml.startsWith("lt", i+1)) sb.append('<');
+         else if (n == 2 && this.xml.startsWith("gt", i+1)) sb.append('>');
+         else if (n == 3 && this.xml.startsWith("amp", i+1)) sb.append('&');
+         else if (n == 4 && this.xml.startsWith("quot", i+1)) sb.append('"');
+         else if (n == 4 && this.xml.startsWith("apos", i+1)) sb.append('\'');
+         else return null;
+         i = semi;
+      }
+      return sb.toString();
+   }
+}
@@ -13,6 +13,7 @@ import java.util.logging.Logger;
 import org.xml.sax.Attributes;
 import org.xmlBlaster.util.FileLocator;
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.SaxParserPool;
 import org.xmlBlaster.util.RcvTimestamp;
 import org.xmlBlaster.util.SessionName;
 import org.xmlBlaster.util.Timestamp;
@@ -112,6 +113,11 @@ public class MsgQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase implements
 
    private  MsgQosData msgQosData;
 
+   /** The shared instance which is handed to the parsed data, is this for the shared instance */
+   private final MsgQosSaxFactory owner;
+   /** Idle parsers, only set for the shared instance */
+   private final SaxParserPool<MsgQosSaxFactory> pool;
+
    /** helper flag for SAX parsing: parsing inside <state> ? */
    //private boolean inState;
    //private boolean inSubscribe;
@@ -137,21 +143,59 @@ public class MsgQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase implements
 
    private boolean sendRemainingLife = true;
 
+   /** Use MsgQosQuickParser for simple publish QoS, configure with -msgQos/quickParse false */
+   private final boolean quickParse;
+
    /**
     * Can be used as singleton. 
     */
    public MsgQosSaxFactory(Global glob) {
       super(glob);
       this.glob = glob;
+      this.owner = this;
+      this.pool = new SaxParserPool<MsgQosSaxFactory>(glob);
+      this.quickParse = glob.getProperty().get("msgQos/quickParse", true);
+   }
 
+   /**
+    * A pooled parser of the given shared instance.
+    */
+   private MsgQosSaxFactory(MsgQosSaxFactory owner) {
+      super(owner.glob);
+      this.glob = owner.glob;
+      this.owner = owner;
+      this.pool = null;
+      this.quickParse = false;
    }
 
    /**
     * Parses the given xml Qos and returns a MsgQosData holding the data. 
     * Parsing of update() and publish() QoS is supported here.
+    * <p />
+    * Simple QoS containing only persistent, priority, expiration and clientProperty
+    * are parsed without SAX, see MsgQosQuickParser.
     * @param the XML based ASCII string
     */
-   public synchronized MsgQosData readObject(String xmlQos) throws XmlBlasterException {
+   public MsgQosData readObject(String xmlQos) throws XmlBlasterException {
+      if (this.quickParse) {
+         MsgQosData data = MsgQosQuickParser.parse(this.glob, this, xmlQos);
+         if (data != null)
+            return data;
+      }
+      if (this.pool == null)
+         return parse(xmlQos);
+      MsgQosSaxFactory parser = this.pool.get();
+      if (parser == null)
+         parser = new MsgQosSaxFactory(this);
+      try {
+         return parser.parse(xmlQos);
+      }
+      finally {
+         this.pool.release(parser);
+      }
+   }
+
+   private MsgQosData parse(String xmlQos) throws XmlBlasterException {
       if (xmlQos == null) {
          xmlQos = "<qos/>";
       }
@@ -180,12 +224,17 @@ public class MsgQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase implements
 
       this.sendRemainingLife = true;
       
-      this.msgQosData = new MsgQosData(glob, this, xmlQos, MethodName.UNKNOWN);
-
-      if (!isEmpty(xmlQos)) // if possible avoid expensive SAX parsing
-         init(xmlQos);      // use SAX parser to parse it (is slow)
-
-      return msgQosData;
+      this.msgQosData = new MsgQosData(glob, this.owner, xmlQos, MethodName.UNKNOWN);
+      try {
+         if (!isEmpty(xmlQos)) // if possible avoid expensive SAX parsing
+            init(xmlQos);      // use SAX parser to parse it (is slow)
+         return this.msgQosData;
+      }
+      finally {
+         this.msgQosData = null; // Don't hold it in the pool
+         this.destination = null;
+         this.routeInfo = null;
+      }
    }
 
    /**
@@ -14,6 +14,7 @@ import org.xmlBlaster.util.XmlBuffer;
 import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.MethodName;
 import org.xmlBlaster.util.RcvTimestamp;
+import org.xmlBlaster.util.Timestamp;
 
 import org.xml.sax.*;
 
@@ -262,6 +263,12 @@ public class StatusQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase implemen
    }
 	   
    public static final String writeObject_(StatusQosData statusQosData, String extraOffset, Properties props, boolean dumpClientProperties) {
+      if (props == null && (extraOffset == null || extraOffset.length() == 0)
+          && (!dumpClientProperties || statusQosData.getClientProperties().size() == 0)) {
+         String xml = writeSimple(statusQosData);
+         if (xml != null)
+            return xml;
+      }
       XmlBuffer sb = new XmlBuffer(180);
       if (extraOffset == null) extraOffset = "";
       String offset = Constants.OFFSET + extraOffset;
@@ -324,6 +331,50 @@ public class StatusQosSaxFactory extends org.xmlBlaster.util.XmlQoSBase implemen
       return sb.toString();
    }
 
+   /**
+    * The return QoS of publish() is created for each published message,
+    * for the common case of an OK state without subscriptionId we fill a template
+    * instead of walking through all the optional tags. 
+    * @return The same markup as the generic code or null if the QoS is not simple
+    */
+   private static String writeSimple(StatusQosData statusQosData) {
+      if (!statusQosData.isOk() || statusQosData.hasStateInfo() || statusQosData.getSubscriptionId() != null)
+         return null;
+      Timestamp rcvTimestamp = statusQosData.getRcvTimestamp();
+      if (rcvTimestamp != null && rcvTimestamp.getClass() != RcvTimestamp.class)
+         return null;
+      String methodTag = null;
+      MethodName method = statusQosData.getMethod();
+      if (method == MethodName.PUBLISH) methodTag = IS_PUBLISH;
+      else if (method == MethodName.ERASE) methodTag = IS_ERASE;
+      else if (method == MethodName.SUBSCRIBE) methodTag = IS_SUBSCRIBE;
+      else if (method == MethodName.UNSUBSCRIBE) methodTag = IS_UNSUBSCRIBE;
+      else if (method == MethodName.UPDATE) methodTag = IS_UPDATE;
+      String keyOid = statusQosData.getKeyOid();
+      if (keyOid == null && rcvTimestamp == null && methodTag == null)
+         return "<qos/>";
+
+      StringBuilder sb = new StringBuilder(100 + ((keyOid == null) ? 0 : keyOid.length()));
+      sb.append(Constants.OFFSET).append("<qos>");
+      if (keyOid != null) {
+         sb.append(Constants.OFFSET).append(" <key oid='");
+         XmlBuffer.appendAttr(sb, keyOid);
+         sb.append("'/>");
+      }
+      if (rcvTimestamp != null)
+         sb.append(Constants.OFFSET).append(" <rcvTimestamp nanos='").append(rcvTimestamp.getTimestamp()).append("'/>");
+      if (methodTag != null)
+         sb.append(methodTag);
+      sb.append(Constants.OFFSET).append("</qos>");
+      return sb.toString();
+   }
+
+   private static final String IS_PUBLISH = Constants.OFFSET + "<isPublish/>";
+   private static final String IS_ERASE = Constants.OFFSET + "<isErase/>";
+   private static final String IS_SUBSCRIBE = Constants.OFFSET + "<isSubscribe/>";
+   private static final String IS_UNSUBSCRIBE = Constants.OFFSET + "<isUnSubscribe/>";
+   private static final String IS_UPDATE = Constants.OFFSET + "<isUpdate/>";
+
    /*
     * Convenience method for server side XML string creation
    public static final String writeObject_(String state, String stateInfo, String subscriptionId, String keyOid, String extraOffset) {
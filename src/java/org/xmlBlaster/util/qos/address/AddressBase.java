@@ -118,6 +118,18 @@ public abstract class AddressBase implements Cloneable
 
    public static final long DEFAULT_burstModeMaxBytes = -1L;
    protected PropLong burstModeMaxBytes = new PropLong(DEFAULT_burstModeMaxBytes);
+
+   /** Number of bursts sent without waiting for their return, 1 is stop-and-wait */
+   public static final int DEFAULT_burstModeWindowSize = 1;
+   protected PropInt burstModeWindowSize = new PropInt(DEFAULT_burstModeWindowSize);
+
+   /** Shall the bulk size and collect time adapt to the measured send latency and queue depth */
+   public static final boolean DEFAULT_burstModeAdaptive = false;
+   protected PropBoolean burstModeAdaptive = new PropBoolean(DEFAULT_burstModeAdaptive);
+
+   /** The upper bound of the collect time in adaptive burst mode */
+   public static final long DEFAULT_burstModeMaxCollectTime = 100L;
+   protected PropLong burstModeMaxCollectTime = new PropLong(DEFAULT_burstModeMaxCollectTime);
    
    /** PtP messages wanted? Defaults to true, false prevents spamming */
    public static final boolean DEFAULT_ptpAllowed = true;
@@ -229,6 +241,9 @@ public abstract class AddressBase implements Cloneable
       // These are protocol unspecific values
       this.burstModeMaxEntries.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/maxEntries");
       this.burstModeMaxBytes.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/maxBytes");
+      this.burstModeWindowSize.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/windowSize");
+      this.burstModeAdaptive.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/adaptive");
+      this.burstModeMaxCollectTime.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/maxCollectTime");
       this.collectTime.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "burstMode/collectTime");
       this.pingInterval.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "pingInterval");
       this.retries.setFromEnv(this.glob, this.nodeId, context, className, this.instanceName, "retries");
@@ -712,6 +727,51 @@ public abstract class AddressBase implements Cloneable
       this.burstModeMaxBytes.setValue(burstModeMaxBytes);
    }
 
+   /**
+    * How many bulks the callback threads send to the client without waiting for their return. 
+    * With 1 (the default) the next bulk is sent after the previous one returned,
+    * with more the bulks are pipelined which helps on links with a long round trip time.
+    * The order of the messages is only kept inside a bulk.
+    */
+   public int getBurstModeWindowSize() {
+      return this.burstModeWindowSize.getValue();
+   }
+
+   public void setBurstModeWindowSize(int burstModeWindowSize) {
+      if (burstModeWindowSize < 1)
+         burstModeWindowSize = 1;
+
+      this.burstModeWindowSize.setValue(burstModeWindowSize);
+   }
+
+   /**
+    * If true the bulk size and the collect time are adjusted on each send
+    * between 1 and burstMode/maxEntries (1000 if not configured) respectively 0 and burstMode/maxCollectTime
+    * depending on the send latency and the queue depth. 
+    * The configured collectTime is ignored then.
+    */
+   public boolean isBurstModeAdaptive() {
+      return this.burstModeAdaptive.getValue();
+   }
+
+   public void setBurstModeAdaptive(boolean burstModeAdaptive) {
+      this.burstModeAdaptive.setValue(burstModeAdaptive);
+   }
+
+   /**
+    * The maximum milliseconds the adaptive burst mode waits to collect messages for a slow client. 
+    */
+   public long getBurstModeMaxCollectTime() {
+      return this.burstModeMaxCollectTime.getValue();
+   }
+
+   public void setBurstModeMaxCollectTime(long burstModeMaxCollectTime) {
+      if (burstModeMaxCollectTime < 0L)
+         burstModeMaxCollectTime = 0L;
+
+      this.burstModeMaxCollectTime.setValue(burstModeMaxCollectTime);
+   }
+
    /**
     * How long to wait between pings to the callback server. 
     * @return The pause time between pings in millis
@@ -1027,6 +1087,25 @@ public abstract class AddressBase implements Cloneable
                      log.severe("Wrong format of <burstMode maxBytes='" + ll + "'>, expected a long in bytes.");
                   }
                }
+               else if( attrs.getQName(ii).equalsIgnoreCase("windowSize") ) {
+                  String ll = attrs.getValue(ii).trim();
+                  try {
+                     setBurstModeWindowSize(new Integer(ll).intValue());
+                  } catch (NumberFormatException e) {
+                     log.severe("Wrong format of <burstMode windowSize='" + ll + "'>, expected an integer number.");
+                  }
+               }
+               else if( attrs.getQName(ii).equalsIgnoreCase("adaptive") ) {
+                  setBurstModeAdaptive(Boolean.valueOf(attrs.getValue(ii).trim()).booleanValue());
+               }
+               else if( attrs.getQName(ii).equalsIgnoreCase("maxCollectTime") ) {
+                  String ll = attrs.getValue(ii).trim();
+                  try {
+                     setBurstModeMaxCollectTime(new Long(ll).longValue());
+                  } catch (NumberFormatException e) {
+                     log.severe("Wrong format of <burstMode maxCollectTime='" + ll + "'>, expected a long in milliseconds.");
+                  }
+               }
             }
          }
          else {
@@ -1143,7 +1222,8 @@ public abstract class AddressBase implements Cloneable
       
       sb.append(">");
       sb.append(offset).append(" ").append(getRawAddress());
-      if (this.collectTime.isModified() || this.burstModeMaxEntries.isModified() || this.burstModeMaxBytes.isModified()) {
+      if (this.collectTime.isModified() || this.burstModeMaxEntries.isModified() || this.burstModeMaxBytes.isModified() || this.burstModeWindowSize.isModified()
+          || this.burstModeAdaptive.isModified() || this.burstModeMaxCollectTime.isModified()) {
          sb.append(offset).append(" ").append("<burstMode");
          if (this.collectTime.isModified())
             sb.append(" collectTime='").append(getCollectTime()).append("'");
@@ -1151,6 +1231,12 @@ public abstract class AddressBase implements Cloneable
             sb.append(" maxEntries='").append(getBurstModeMaxEntries()).append("'");
          if (this.burstModeMaxBytes.isModified())
             sb.append(" maxBytes='").append(getBurstModeMaxBytes()).append("'");
+         if (this.burstModeWindowSize.isModified())
+            sb.append(" windowSize='").append(getBurstModeWindowSize()).append("'");
+         if (this.burstModeAdaptive.isModified())
+            sb.append(" adaptive='").append(isBurstModeAdaptive()).append("'");
+         if (this.burstModeMaxCollectTime.isModified())
+            sb.append(" maxCollectTime='").append(getBurstModeMaxCollectTime()).append("'");
          sb.append("/>");
       }
       if (this.compressType.isModified())
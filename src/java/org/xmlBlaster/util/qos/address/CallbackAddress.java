@@ -124,6 +124,14 @@ public class CallbackAddress extends AddressBase
       text += "                       The maximum bulk size of a callback invocation [" + DEFAULT_burstModeMaxBytes + "]\n";
       text += "                       -1L takes all entries of highest priority available in the\n";
       text += "                       callback RAM queue possibly limited by maxEntries\n";
+      text += "   -dispatch/" + this.instanceName + "/burstMode/windowSize\n";
+      text += "                       The number of callback bulks sent without waiting\n";
+      text += "                       for their return [" + DEFAULT_burstModeWindowSize + "]\n";
+      text += "   -dispatch/" + this.instanceName + "/burstMode/adaptive\n";
+      text += "                       Adjust the bulk size and collect time to the measured\n";
+      text += "                       send latency and queue depth [" + DEFAULT_burstModeAdaptive + "]\n";
+      text += "   -dispatch/" + this.instanceName + "/burstMode/maxCollectTime\n";
+      text += "                       The upper bound of the adaptive collect time [" + DEFAULT_burstModeMaxCollectTime + "]\n";
       text += "   -dispatch/" + this.instanceName + "/oneway\n";
       text += "                       Shall the update() messages be send oneway (no\n";
       text += "                       application level ACK) [" + CallbackAddress.DEFAULT_oneway + "]\n";
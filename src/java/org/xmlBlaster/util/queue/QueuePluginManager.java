@@ -46,7 +46,9 @@ public class QueuePluginManager extends PluginManagerBase {
    public static final String pluginPropertyName = "QueuePlugin";
    private static final String[][] defaultPluginNames = { {"RAM", "org.xmlBlaster.util.queue.ram.RamQueuePlugin"},
                                                           {"JDBC", "org.xmlBlaster.util.queue.jdbc.JdbcQueuePlugin"},
-                                                          {"CACHE", "org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin"} };
+                                                          {"CACHE", "org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin"},
+                                                          {"FILE", "org.xmlBlaster.util.queue.file.FileQueuePlugin"},
+                                                          {"OFFHEAP", "org.xmlBlaster.util.queue.ram.OffHeapQueuePlugin"} };
 
    private Map/*<String(storageId), I_Queue>*/ storagesMap = new HashMap();
    private Map /*<String, StorageEventHandler>*/ eventHandlerMap = new HashMap();
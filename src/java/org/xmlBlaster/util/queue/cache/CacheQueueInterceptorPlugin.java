@@ -10,12 +10,17 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.I_Timeout;
+import org.xmlBlaster.util.LatencyHistogram;
+import org.xmlBlaster.util.Timestamp;
 import org.xmlBlaster.util.XmlBlasterException;
 import org.xmlBlaster.util.admin.I_AdminQueue;
 import org.xmlBlaster.util.context.ContextNode;
@@ -40,6 +45,18 @@ import org.xmlBlaster.util.queue.ram.RamQueuePlugin;
 /**
  * Implements a queue cache. 
  * Internally it utilizes a RAM queue and a JDBC queue and manages the cache logic. 
+ * <p>
+ * Optional plugin parameters:
+ * </p>
+ * <ul>
+ *  <li><code>prefetch=true</code> A worker thread reloads swapped entries from the persistent queue when the
+ *      transient queue drops below <code>prefetchLowWatermark</code> (fraction of maxEntriesCache/maxBytesCache, defaults to 0.5),
+ *      the consumer finds the next entries in RAM instead of waiting for the database.</li>
+ *  <li><code>writeBehind=true</code> Persistent entries are stored in RAM and in the journal queue
+ *      <code>writeBehindQueue</code> (defaults to FILE,1.0), put() returns then. A worker thread moves them
+ *      in batches of <code>writeBehindBatchSize</code> to the persistent queue, after a crash they are
+ *      replayed from the journal on startup.</li>
+ * </ul>
  * @see <a href="http://www.xmlblaster.org/xmlBlaster/doc/requirements/queue.cache.html">The queue.cache requirement</a>
  * @author michele@laghi.eu
  * @author xmlBlaster@marcelruff.info
@@ -60,7 +77,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    private I_Queue transientQueue;
    private I_Queue persistentQueue;
    private Global glob;
-   private boolean isConnected = false;
+   private volatile boolean isConnected = false;
 
    /** object used to control the swapping performance */
    //private CacheControlParam controlParam;
@@ -75,6 +92,50 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    private long maxFetchSize = Long.MAX_VALUE;
 
    private StorageSizeListenerHelper storageSizeListenerHelper;
+
+   /** Reload from the persistent queue in the background */
+   private boolean prefetch;
+   /** Prefetch if the transient queue is filled less than this fraction of its maximum */
+   private double prefetchLowWatermark = 0.5;
+   private boolean prefetchScheduled;
+   /** Is incremented on every change of the swapped range, an outdated prefetch is discarded */
+   private long swapGeneration;
+
+   /** Fill the transient queue from the persistent queue on first access instead of on initialize */
+   private boolean lazyLoad;
+   /** true until the lazy load is done */
+   private volatile boolean loadPending;
+
+   /** The journal of the not yet stored persistent entries, null if writeBehind is off */
+   private I_Queue writeBehindQueue;
+   private int writeBehindBatchSize = 500;
+   /** Protects the write behind state, is never held while waiting for 'this' */
+   private final Object writeBehindSync = new Object();
+   /** The persistent entries waiting for the flush, key is the uniqueId */
+   private LinkedHashMap writeBehindPending = new LinkedHashMap();
+   private long writeBehindPendingBytes;
+   /** The entries the flush is currently writing */
+   private LinkedHashMap writeBehindInFlight;
+   private long writeBehindInFlightBytes;
+   /** Entries removed by the consumer during the flush */
+   private List writeBehindRemovedInFlight;
+   private boolean flushScheduled;
+   /** The timer of the next flush after a failed write to the persistent queue, null if none is pending */
+   private Timestamp flushRetryTimerKey;
+   /** Millis until the next flush retry, doubled on each failure up to FLUSH_RETRY_MAX */
+   private long flushRetryDelay;
+   private static final long FLUSH_RETRY_MIN = 100L;
+   private static final long FLUSH_RETRY_MAX = 10000L;
+
+   // statistics
+   private long numSyncLoads;
+   private long numPrefetchLoads;
+   private long numPrefetchDiscarded;
+   private long numSwappedOut;
+   private long numSwappedIn;
+   private long numWriteBehindFlushed;
+   private final LatencyHistogram syncLoadLatency = new LatencyHistogram();
+   private final LatencyHistogram prefetchLatency = new LatencyHistogram();
    
    public CacheQueueInterceptorPlugin() {
       this.storageSizeListenerHelper = new StorageSizeListenerHelper(this);
@@ -151,17 +212,20 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    /**
     * @see I_StorageProblemListener#storageUnavailable(int)
     */
-   synchronized public void storageUnavailable(int oldStatus) {
+   public void storageUnavailable(int oldStatus) {
       if (log.isLoggable(Level.FINER)) 
          log.finer(ME+"entering storageUnavailable");
-      this.isConnected = false;
-      // we could optimize this by providing a peekLast method to the I_Queue
-      try {
-         this.transientQueue.peek(-1, -1L);
-      }
-      catch (XmlBlasterException ex) {
-         log.severe(ME+"storageUnavailable: exception occured when peeking the transient queue: " + ex.getMessage());
-         ex.printStackTrace();
+      this.isConnected = false; // before the monitor: a write behind flush in this thread may be awaited by its owner
+      synchronized (this) {
+         this.swapGeneration++;
+         // we could optimize this by providing a peekLast method to the I_Queue
+         try {
+            this.transientQueue.peek(-1, -1L);
+         }
+         catch (XmlBlasterException ex) {
+            log.severe(ME+"storageUnavailable: exception occured when peeking the transient queue: " + ex.getMessage());
+            ex.printStackTrace();
+         }
       }
    }
 
@@ -175,6 +239,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
      /* remove all obsolete messages from the persitence. */
 
       if (this.persistentQueue == null) return; // should never happen
+      this.swapGeneration++;
 
       try {
          boolean isInclusive = true; // if the reference is the original one then it is inclusive, if it is a new one then it is exclusive
@@ -234,6 +299,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       }
       finally {
          try {
+            flushWriteBehind();
             loadFromPersistence();
          }
          catch (XmlBlasterException ex) {
@@ -282,6 +348,18 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
          catch (Throwable e) {
              log.warning(ME+"Setting maxFetchSize failed: " + e.toString());
          }
+         boolean writeBehind = false;
+         try {
+            this.prefetch = Boolean.valueOf(pluginProperties.getProperty("prefetch", ""+this.prefetch).trim()).booleanValue();
+            this.prefetchLowWatermark = Double.valueOf(pluginProperties.getProperty("prefetchLowWatermark", ""+this.prefetchLowWatermark)).doubleValue();
+            writeBehind = Boolean.valueOf(pluginProperties.getProperty("writeBehind", "false").trim()).booleanValue();
+            this.writeBehindBatchSize = Integer.valueOf(pluginProperties.getProperty("writeBehindBatchSize", ""+this.writeBehindBatchSize)).intValue();
+            if (this.writeBehindBatchSize < 1) this.writeBehindBatchSize = 1;
+            this.lazyLoad = Boolean.valueOf(pluginProperties.getProperty("lazyLoad", ""+this.lazyLoad).trim()).booleanValue();
+         }
+         catch (Throwable e) {
+             log.warning(ME+"Setting prefetch, writeBehind or lazyLoad failed: " + e.toString());
+         }
 
          //instantiate and initialize the underlying queues
          String defaultTransient = pluginProperties.getProperty("transientQueue", "RAM,1.0").trim();
@@ -309,6 +387,22 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
             // to be notified about reconnections / disconnections
 //            this.glob.getJdbcQueueManager(this.queueId).registerListener(this);
             this.persistentQueue.registerStorageProblemListener(this);
+
+            if (writeBehind) {
+               String defaultJournal = pluginProperties.getProperty("writeBehindQueue", "FILE,1.0").trim();
+               StorageId journalId = uniqueQueueId;
+               if (uniqueQueueId.getXBStore() != null)
+                  journalId = new StorageId(this.glob, uniqueQueueId.getXBStore().getNode(), uniqueQueueId.getXBStore().getType(),
+                                            uniqueQueueId.getXBStore().getPostfix() + "_writeBehind");
+               queuePropertyBase.setEmbedded(true);
+               try {
+                  this.writeBehindQueue = pluginManager.getPlugin(defaultJournal, journalId, queuePropertyBase);
+               }
+               catch (XmlBlasterException ex) {
+                  log.severe(ME+"Could not initialize the write behind queue '" + defaultJournal + "', persistent entries are written directly: " + ex.getMessage());
+               }
+               queuePropertyBase.setEmbedded(oldEmbedded);
+            }
          }
          catch (XmlBlasterException ex) {
             log.severe(ME+"Could not initialize the persistent queue '" + uniqueQueueId + "'. Is the JDBC Driver jar file in the CLASSPATH ?" +
@@ -338,7 +432,14 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
             // not used yet
             //this.controlParam = new CacheControlParam((QueuePropertyBase)getProperties());
 
-            loadFromPersistence();
+            if (this.writeBehindQueue != null && this.writeBehindQueue.getNumOfEntries() > 0) {
+               int num = replayWriteBehind();
+               log.info(ME+"Replayed " + num + " entries from the write behind queue into the persistent queue");
+            }
+            if (this.lazyLoad && this.persistentQueue.getNumOfEntries() > 0)
+               this.loadPending = true; // on first access, a recovered session without client has a quick startup
+            else
+               loadFromPersistence();
 
             // on restart the added() event is not triggered!
 
@@ -453,6 +554,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     */
    public List<I_Entry> getEntries(I_EntryFilter entryFilter) throws XmlBlasterException {
            if (this.persistentQueue == null) return new ArrayList();
+           flushWriteBehind();
            return this.persistentQueue.getEntries(entryFilter);
    }
 
@@ -488,6 +590,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       }
 
       synchronized (this) {
+         assureLoaded(); // the new entries are sorted in after the recovered ones
          checkEntriesAvailable(this, 0L, true, "first check in put"); // throws XmlBlasterException if no space left
          checkSpaceAvailable(this, 0L, true,  "first check in put"); // throws XmlBlasterException if no space left
         
@@ -510,7 +613,9 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
         
             if (persistentsFromEntries.size() > 0) {
                try {
-                  this.persistentQueue.put((I_QueueEntry[])persistentsFromEntries.toArray(new I_QueueEntry[persistentsFromEntries.size()]), ignorePutInterceptor);
+                  I_QueueEntry[] persistents = (I_QueueEntry[])persistentsFromEntries.toArray(new I_QueueEntry[persistentsFromEntries.size()]);
+                  if (!putWriteBehind(persistents))
+                     this.persistentQueue.put(persistents, ignorePutInterceptor);
                }
                catch (XmlBlasterException ex) {
                   log.severe(ME+"put: an error occured when writing to the persistent queue: " + persistentsFromEntries.size() + " persistent entries will temporarly be handled as transient. Is the DB up and running ? " + ex.getMessage() + "state "  + this.toXml(""));
@@ -540,6 +645,8 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
             
                   List<I_Entry> transients = null;
                   try {
+                     flushWriteBehind(); // the swapped persistent entries must be in the persistent queue
+                     this.swapGeneration++;
                      List<I_Entry> swaps = null;
                      boolean needsLoading = false;
                      if (this.transientQueue.getNumOfEntries() == 0)
@@ -551,6 +658,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
                      if (log.isLoggable(Level.FINE)) {
                         log.fine(ME+"Swapping: moving '" + swaps.size() + "' entries from transient queue to persistent queue: exceedingEntries='" + exceedingEntries + "' and exceedingSize='" + exceedingSize + "'");
                      }
+                     this.numSwappedOut += swaps.size();
                      // get the transients
                      transients = new ArrayList<I_Entry>();
                      for (int i=0; i < swaps.size(); i++) {
@@ -576,6 +684,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
          } // end of peekSync here ...
       } // end of synchronized here ...
 
+      scheduleFlush();
       // these must be outside the synchronized ...
       if (this.notifiedAboutAddOrRemove) {
          for(int i=0; i<queueEntries.length; i++)
@@ -625,7 +734,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       
    private final boolean hasUncachedEntries() {
       return hasTransientsSwapped() || 
-             this.persistentQueue.getNumOfPersistentEntries() != this.transientQueue.getNumOfPersistentEntries();
+             this.persistentQueue.getNumOfPersistentEntries() + getNumOfUnflushedEntries() != this.transientQueue.getNumOfPersistentEntries();
    }
 
 
@@ -649,9 +758,12 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       boolean doNotify = false;
       try {
          synchronized(this) {
+            assureLoaded();
+            flushWriteBehind();
             boolean handlePersistents = isPersistenceAvailable() && hasUncachedEntries();
             if ( handlePersistents ) { 
                // swapping
+               this.swapGeneration++;
                try {
                   list = this.persistentQueue.takeLowest(numOfEntries, numOfBytes, limitEntry, leaveOne);
                   doNotify = true;
@@ -751,6 +863,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     * @see I_Queue#peek()
     */
    public I_QueueEntry peek() throws XmlBlasterException {
+      assureLoaded();
       synchronized(this.peekSync) {
          return this.transientQueue.peek();
       }
@@ -760,6 +873,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     * @see I_Queue#peek(int,long)
     */
    public List<I_Entry> peek(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      assureLoaded();
       synchronized(this.peekSync) {
          return this.transientQueue.peek(numOfEntries, numOfBytes);
       }
@@ -774,6 +888,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     * @see I_Queue#peekSamePriority(int, long)
     */
    public List<I_Entry> peekSamePriority(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      assureLoaded();
       synchronized(this.peekSync) {
          return this.transientQueue.peekSamePriority(numOfEntries, numOfBytes);
       }
@@ -784,6 +899,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     */
    public List<I_Entry> peekWithPriority(int numOfEntries, long numOfBytes, int minPriority, int maxPriority)
          throws XmlBlasterException {
+      assureLoaded();
       synchronized(this.peekSync) {
          return this.transientQueue.peekWithPriority(numOfEntries, numOfBytes, minPriority, maxPriority);
       }
@@ -794,6 +910,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     * @deprecated
     */
    public List<I_Entry> peekWithLimitEntry(I_QueueEntry limitEntry) throws XmlBlasterException {
+      assureLoaded();
       synchronized(this.peekSync) {
          return this.transientQueue.peekWithLimitEntry(limitEntry);
       }
@@ -804,6 +921,9 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
     * @see I_Queue#removeWithLimitEntry(I_QueueEntry, boolean)
     */
    synchronized public long removeWithLimitEntry(I_QueueEntry limitEntry, boolean inclusive) throws XmlBlasterException {
+      assureLoaded();
+      flushWriteBehind();
+      this.swapGeneration++;
       long ret = this.transientQueue.removeWithLimitEntry(limitEntry, inclusive);
 
       if (isPersistenceAvailable()) {
@@ -943,6 +1063,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       }
 
       try {
+         this.swapGeneration++;
          boolean[] ret1 = this.persistentQueue.removeRandom(unremovedEntries);
          count = 0;
          for (int i=0; i < ret.length; i++) {
@@ -978,6 +1099,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
                }
                if (log.isLoggable(Level.FINE)) log.fine(ME+"Remove " + persistents.size() + " persistent entries from persistent storage");
                try {
+                  removeWriteBehind(persistents);
                   this.persistentQueue.removeRandom((I_Entry[])persistents.toArray(new I_Entry[persistents.size()]));
                }
                catch (XmlBlasterException ex) {
@@ -999,7 +1121,10 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
          }
          finally {
             try {
-               loadFromPersistence();
+               if (this.prefetch && this.transientQueue.getNumOfEntries() > 0)
+                  schedulePrefetch(); // the consumer has still entries in RAM
+               else
+                  loadFromPersistence();
             }
             catch (XmlBlasterException ex1) {
                log.severe(ME+"removeRandom exception occured when loading from persistence: " + ex1.getMessage());
@@ -1034,6 +1159,20 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    }
 
 
+   /**
+    * With lazyLoad the transient queue is filled on the first access,
+    * call it before taking peekSync.
+    */
+   private final void assureLoaded() throws XmlBlasterException {
+      if (!this.loadPending) return;
+      synchronized(this) {
+         if (!this.loadPending) return;
+         this.loadPending = false;
+         if (log.isLoggable(Level.FINE)) log.fine(ME+"Lazy loading from the persistent queue on first access");
+         loadFromPersistence();
+      }
+   }
+
    /**
     * Loads from the persistence so much data as it fits into the transient
     * queue.
@@ -1044,8 +1183,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       // load further entries from persistence into transient queue
       if(hasUncachedEntries()) {
          //or should it only fill a certain amount (percent) of the queue size ?
-         long freeEntries = this.transientQueue.getMaxNumOfEntries() - this.transientQueue.getNumOfEntries();
-         if (freeEntries > maxFetchSize) freeEntries = maxFetchSize;
+         long freeEntries = getFreeCacheEntries();
          long freeBytes = this.transientQueue.getMaxNumOfBytes() - this.transientQueue.getNumOfBytes();
 
          if (freeEntries <= 0L || freeBytes <= 0L) {
@@ -1062,56 +1200,413 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
 
          // 1. Look into persistent store ...
          List<I_Entry> list = null;
+         long startNanos = System.nanoTime();
          try {
-            List<I_Entry> listLowest = this.transientQueue.peekLowest(1, -1, null, false);
-            I_QueueEntry firstEntry = null;
-            if (listLowest.size() == 1) {
-               firstEntry = (I_QueueEntry)listLowest.get(0); 
-            }
-            list = this.persistentQueue.peekStartAt((int)freeEntries, freeBytes, firstEntry);
+            list = this.persistentQueue.peekStartAt((int)freeEntries, freeBytes, getLowestCached());
          }
          catch (XmlBlasterException ex) {
             log.severe(ME+"Could not read back data from persistence: " + ex.getMessage());
             ex.printStackTrace();
          }
+         this.syncLoadLatency.add(System.nanoTime() - startNanos);
 
          if (list == null || list.size() < 1) {
             return 0;
          }
+         this.numSyncLoads++;
+         return putIntoCache(list);
+      }
 
-         // 2. Put it into RAM ...
-         try {
-            this.transientQueue.put((I_QueueEntry[])list.toArray(new I_QueueEntry[list.size()]), false);
+      return 0;
+   }
+
+   /**
+    * @return The number of entries the transient queue can take, limited by maxFetchSize
+    */
+   private final long getFreeCacheEntries() {
+      long freeEntries = this.transientQueue.getMaxNumOfEntries() - this.transientQueue.getNumOfEntries();
+      if (freeEntries > maxFetchSize) freeEntries = maxFetchSize;
+      return freeEntries;
+   }
+
+   /**
+    * @return The lowest entry of the transient queue, the reload starts after it, null if empty
+    */
+   private final I_QueueEntry getLowestCached() throws XmlBlasterException {
+      List<I_Entry> listLowest = this.transientQueue.peekLowest(1, -1, null, false);
+      if (listLowest.size() == 1)
+         return (I_QueueEntry)listLowest.get(0);
+      return null;
+   }
+
+   /**
+    * Puts the entries read from the persistent queue into the transient queue and
+    * erases the swapped transient entries from persistence, the caller holds the monitor.
+    */
+   private final int putIntoCache(List<I_Entry> list) {
+      this.swapGeneration++;
+      // 2. Put it into RAM ...
+      try {
+         this.transientQueue.put((I_QueueEntry[])list.toArray(new I_QueueEntry[list.size()]), false);
+      }
+      catch (XmlBlasterException ex) {
+         log.severe(ME+"loadFromPeristence: no space left on transient queue: " + ex.getMessage());
+         ex.printStackTrace();
+         return 0;
+      }
+      this.numSwappedIn += list.size();
+
+      // 3. Erase the swapped and transient entries from persistence ...
+      List<I_Entry> transients = new ArrayList<I_Entry>();
+      int n = list.size();
+      for(int i=0; i<n; i++) {
+         if (!((I_Entry)list.get(i)).isPersistent()) {
+            transients.add(list.get(i));
          }
-         catch (XmlBlasterException ex) {
-            log.severe(ME+"loadFromPeristence: no space left on transient queue: " + ex.getMessage());
-            ex.printStackTrace();
-            return 0;
+      }
+      try {
+         if (transients.size() > 0)
+            this.persistentQueue.removeRandom((I_Entry[])transients.toArray(new I_Entry[transients.size()]));
+      }
+      catch (XmlBlasterException ex) {
+         log.severe(ME+"loadFromPeristence: Memory leak: problems removing " + transients.size() + " swapped transient entries form persistent store: " + ex.getMessage());
+         return list.size();
+      }
+
+      return transients.size();
+   }
+
+   private final boolean execute(Runnable task) {
+      try {
+         return this.glob.getDispatchWorkerPool().execute(task);
+      }
+      catch (InterruptedException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Starts the background reload if the transient queue has dropped below the low watermark.
+    * The caller holds the monitor.
+    */
+   private final void schedulePrefetch() throws XmlBlasterException {
+      if (this.prefetchScheduled || this.isDown || !isPersistenceAvailable()) return;
+      if (this.transientQueue.getNumOfEntries() > this.transientQueue.getMaxNumOfEntries() * this.prefetchLowWatermark ||
+          this.transientQueue.getNumOfBytes() > this.transientQueue.getMaxNumOfBytes() * this.prefetchLowWatermark)
+         return;
+      if (!hasUncachedEntries()) return;
+      this.prefetchScheduled = true;
+      boolean started = execute(new Runnable() {
+         public void run() {
+            prefetch();
          }
+      });
+      if (!started) {
+         this.prefetchScheduled = false;
+         loadFromPersistence();
+      }
+   }
 
-         // 3. Erase the swapped and transient entries from persistence ...
-         List<I_Entry> transients = new ArrayList<I_Entry>();
-         int n = list.size();
-         for(int i=0; i<n; i++) {
-            if (!((I_Entry)list.get(i)).isPersistent()) {
-               transients.add(list.get(i));
+   /**
+    * Runs in a worker thread: the persistent queue is read without holding the monitor so that
+    * the consumer continues with the cached entries. The result is only used if nothing was
+    * swapped in the meantime (the lowest cached entry and the swapGeneration are unchanged),
+    * else the read is repeated.
+    */
+   private void prefetch() {
+      try {
+         for (int i=0; i<3; i++) {
+            long generation;
+            I_QueueEntry firstEntry;
+            long freeEntries;
+            long freeBytes;
+            synchronized (this) {
+               if (this.isDown || !isPersistenceAvailable() || !hasUncachedEntries()) return;
+               freeEntries = getFreeCacheEntries();
+               freeBytes = this.transientQueue.getMaxNumOfBytes() - this.transientQueue.getNumOfBytes();
+               if (freeEntries <= 0L || freeBytes <= 0L) return;
+               firstEntry = getLowestCached();
+               generation = this.swapGeneration;
+            }
+
+            long startNanos = System.nanoTime();
+            List<I_Entry> list = this.persistentQueue.peekStartAt((int)freeEntries, freeBytes, firstEntry);
+            this.prefetchLatency.add(System.nanoTime() - startNanos);
+
+            synchronized (this) {
+               I_QueueEntry lowest = getLowestCached();
+               boolean unchanged = (firstEntry == null) ? lowest == null : lowest != null && lowest.getUniqueId() == firstEntry.getUniqueId();
+               if (this.isDown || !isPersistenceAvailable())
+                  return;
+               if (generation != this.swapGeneration || !unchanged) {
+                  this.numPrefetchDiscarded++;
+                  if (log.isLoggable(Level.FINE)) log.fine(ME+"Prefetch of " + list.size() + " entries is outdated, reading again");
+                  continue;
+               }
+               if (list.size() > 0) {
+                  this.numPrefetchLoads++;
+                  putIntoCache(list);
+               }
+               return;
             }
          }
-         try {
-            if (transients.size() > 0)
-               this.persistentQueue.removeRandom((I_Entry[])transients.toArray(new I_Entry[transients.size()]));
+      }
+      catch (Throwable ex) {
+         log.warning(ME+"Prefetch from the persistent queue failed, the entries are loaded on demand: " + ex.toString());
+      }
+      finally {
+         synchronized (this) {
+            this.prefetchScheduled = false;
          }
-         catch (XmlBlasterException ex) {
-            log.severe(ME+"loadFromPeristence: Memory leak: problems removing " + transients.size() + " swapped transient entries form persistent store: " + ex.getMessage());
-            return list.size();
+      }
+   }
+
+   /**
+    * Stores the persistent entries in the write behind journal, the caller holds the monitor.
+    * @return false if writeBehind is not active, the caller writes them to the persistent queue
+    */
+   private final boolean putWriteBehind(I_QueueEntry[] entries) throws XmlBlasterException {
+      if (this.writeBehindQueue == null) return false;
+      synchronized (this.writeBehindSync) {
+         this.writeBehindQueue.put(entries, true);
+         for (int i=0; i < entries.length; i++) {
+            if (this.writeBehindPending.put(new Long(entries[i].getUniqueId()), entries[i]) == null)
+               this.writeBehindPendingBytes += entries[i].getSizeInBytes();
          }
+      }
+      return true;
+   }
 
-         return transients.size();
+   /**
+    * Forgets the given entries if they are not yet flushed, entries currently written by
+    * the flush are removed from the persistent queue after it.
+    */
+   private final void removeWriteBehind(List<I_Entry> entries) {
+      if (this.writeBehindQueue == null || entries.size() == 0) return;
+      synchronized (this.writeBehindSync) {
+         List<I_Entry> removed = new ArrayList<I_Entry>();
+         for (int i=0; i < entries.size(); i++) {
+            I_Entry entry = (I_Entry)entries.get(i);
+            Long key = new Long(entry.getUniqueId());
+            if (this.writeBehindPending.remove(key) != null) {
+               this.writeBehindPendingBytes -= entry.getSizeInBytes();
+               removed.add(entry);
+            }
+            else if (this.writeBehindInFlight != null && this.writeBehindInFlight.containsKey(key)) {
+               this.writeBehindRemovedInFlight.add(entry);
+            }
+         }
+         if (removed.size() > 0) {
+            try {
+               this.writeBehindQueue.removeRandom((I_Entry[])removed.toArray(new I_Entry[removed.size()]));
+            }
+            catch (XmlBlasterException ex) {
+               log.severe(ME+"Could not remove " + removed.size() + " entries from the write behind queue: " + ex.getMessage());
+            }
+         }
       }
+   }
 
-      return 0;
+   private final long getNumOfUnflushedEntries() {
+      if (this.writeBehindQueue == null) return 0L;
+      synchronized (this.writeBehindSync) {
+         long ret = this.writeBehindPending.size();
+         if (this.writeBehindInFlight != null) ret += this.writeBehindInFlight.size();
+         return ret;
+      }
    }
 
+   private final long getNumOfUnflushedBytes() {
+      if (this.writeBehindQueue == null) return 0L;
+      synchronized (this.writeBehindSync) {
+         return this.writeBehindPendingBytes + this.writeBehindInFlightBytes;
+      }
+   }
+
+   /**
+    * Starts a worker thread writing the pending entries to the persistent queue.
+    */
+   private final void scheduleFlush() {
+      if (this.writeBehindQueue == null) return;
+      synchronized (this.writeBehindSync) {
+         if (this.flushScheduled || this.writeBehindPending.size() == 0) return;
+         this.flushScheduled = true;
+      }
+      boolean started = execute(new Runnable() {
+         public void run() {
+            int count = 0;
+            try {
+               count = flushWriteBehind();
+            }
+            finally {
+               synchronized (writeBehindSync) {
+                  flushScheduled = false;
+               }
+               flushDone(count);
+            }
+         }
+      });
+      if (!started) {
+         synchronized (this.writeBehindSync) {
+            this.flushScheduled = false;
+         }
+         flushWriteBehind();
+      }
+   }
+
+   /**
+    * Decides after a background flush how to go on with the entries still pending.
+    * <p>
+    * Entries put after the last batch are flushed at once. If the flush made no progress
+    * it is not restarted immediately: an unavailable persistence is resumed by storageAvailable(),
+    * a failed write to the persistent queue is retried on a timer with an increasing delay.
+    * </p>
+    * @param count The number of entries the flush has written
+    */
+   private final void flushDone(int count) {
+      synchronized (this.writeBehindSync) {
+         if (this.writeBehindPending.size() == 0 || count > 0)
+            this.flushRetryDelay = 0L;
+         if (this.writeBehindPending.size() == 0)
+            return;
+      }
+      if (count > 0) {
+         scheduleFlush(); // entries put after the last batch
+         return;
+      }
+      if (this.isDown || !isPersistenceAvailable())
+         return; // storageAvailable() flushes
+      synchronized (this.writeBehindSync) {
+         if (this.flushRetryTimerKey != null)
+            return;
+         this.flushRetryDelay = (this.flushRetryDelay < FLUSH_RETRY_MIN) ? FLUSH_RETRY_MIN : Math.min(FLUSH_RETRY_MAX, 2*this.flushRetryDelay);
+         if (log.isLoggable(Level.FINE)) log.fine(ME+"Retrying the write behind flush in " + this.flushRetryDelay + " millis");
+         this.flushRetryTimerKey = this.glob.getBurstModeTimer().addTimeoutListener(new I_Timeout() {
+            public void timeout(Object userData) {
+               synchronized (writeBehindSync) {
+                  flushRetryTimerKey = null;
+               }
+               if (!isDown)
+                  scheduleFlush();
+            }
+         }, this.flushRetryDelay, null);
+      }
+   }
+
+   /**
+    * Writes the pending entries in batches to the persistent queue and removes them from the journal.
+    * Returns when nothing is pending anymore or the persistent queue failed, a concurrent flush is waited for.
+    * Must not be called holding writeBehindSync.
+    * @return The number of entries written
+    */
+   private final int flushWriteBehind() {
+      if (this.writeBehindQueue == null) return 0;
+      int count = 0;
+      while (true) {
+         I_QueueEntry[] batch;
+         synchronized (this.writeBehindSync) {
+            while (this.writeBehindInFlight != null) {
+               if (!isPersistenceAvailable())
+                  return count;
+               try {
+                  this.writeBehindSync.wait(100L);
+               }
+               catch (InterruptedException e) {
+                  return count;
+               }
+            }
+            if (this.writeBehindPending.size() == 0 || !isPersistenceAvailable())
+               return count;
+            int num = Math.min(this.writeBehindBatchSize, this.writeBehindPending.size());
+            batch = new I_QueueEntry[num];
+            this.writeBehindInFlight = new LinkedHashMap();
+            this.writeBehindRemovedInFlight = new ArrayList();
+            Iterator it = this.writeBehindPending.values().iterator();
+            for (int i=0; i < num; i++) {
+               batch[i] = (I_QueueEntry)it.next();
+               it.remove();
+               this.writeBehindInFlight.put(new Long(batch[i].getUniqueId()), batch[i]);
+               this.writeBehindInFlightBytes += batch[i].getSizeInBytes();
+               this.writeBehindPendingBytes -= batch[i].getSizeInBytes();
+            }
+         }
+
+         boolean stored = false;
+         List removedInFlight = null;
+         try {
+            this.persistentQueue.put(batch, true);
+            stored = true;
+         }
+         catch (Throwable ex) {
+            log.severe(ME+"Writing " + batch.length + " entries from the write behind queue to the persistent queue failed, is retried: " + ex.toString());
+         }
+         finally {
+            synchronized (this.writeBehindSync) {
+               removedInFlight = this.writeBehindRemovedInFlight;
+               if (stored) {
+                  try {
+                     this.writeBehindQueue.removeRandom(batch);
+                  }
+                  catch (XmlBlasterException ex) {
+                     log.severe(ME+"Could not remove " + batch.length + " flushed entries from the write behind queue: " + ex.getMessage());
+                  }
+               }
+               else { // back to the head of the pending entries, without the ones removed meanwhile
+                  for (int i=0; i < removedInFlight.size(); i++)
+                     this.writeBehindInFlight.remove(new Long(((I_Entry)removedInFlight.get(i)).getUniqueId()));
+                  if (removedInFlight.size() > 0) {
+                     try {
+                        this.writeBehindQueue.removeRandom((I_Entry[])removedInFlight.toArray(new I_Entry[removedInFlight.size()]));
+                     }
+                     catch (XmlBlasterException ex) {
+                        log.severe(ME+"Could not remove " + removedInFlight.size() + " entries from the write behind queue: " + ex.getMessage());
+                     }
+                  }
+                  this.writeBehindInFlight.putAll(this.writeBehindPending);
+                  this.writeBehindPending = this.writeBehindInFlight;
+                  this.writeBehindPendingBytes = 0L;
+                  for (Iterator it=this.writeBehindPending.values().iterator(); it.hasNext(); )
+                     this.writeBehindPendingBytes += ((I_Entry)it.next()).getSizeInBytes();
+               }
+               this.writeBehindInFlight = null;
+               this.writeBehindInFlightBytes = 0L;
+               this.writeBehindRemovedInFlight = null;
+               this.writeBehindSync.notifyAll();
+            }
+         }
+         if (!stored)
+            return count;
+         if (removedInFlight.size() > 0) { // the consumer was faster than the flush
+            try {
+               this.persistentQueue.removeRandom((I_Entry[])removedInFlight.toArray(new I_Entry[removedInFlight.size()]));
+            }
+            catch (Throwable ex) {
+               log.severe(ME+"Could not remove " + removedInFlight.size() + " consumed entries from the persistent queue: " + ex.toString());
+            }
+         }
+         count += batch.length;
+         synchronized (this.writeBehindSync) {
+            this.numWriteBehindFlushed += batch.length;
+         }
+      }
+   }
+
+   /**
+    * Writes the entries left in the write behind journal from the last run to the persistent queue,
+    * an entry stored already before the crash is ignored by the persistent queue.
+    */
+   private final int replayWriteBehind() throws XmlBlasterException {
+      int count = 0;
+      while (this.writeBehindQueue.getNumOfEntries() > 0) {
+         List<I_Entry> list = this.writeBehindQueue.peek(this.writeBehindBatchSize, -1L);
+         if (list.size() == 0) break;
+         I_QueueEntry[] entries = (I_QueueEntry[])list.toArray(new I_QueueEntry[list.size()]);
+         this.persistentQueue.put(entries, true);
+         this.writeBehindQueue.removeRandom(entries);
+         count += entries.length;
+      }
+      return count;
+   }
 
    /**
     * @see I_Queue#removeWithPriority(long, long, int, int)
@@ -1167,6 +1662,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       if (isPersistenceAvailable()) {
          ret = this.persistentQueue.getNumOfEntries();
          if (ret < 0L) return this.transientQueue.getNumOfEntries();
+         ret += getNumOfUnflushedEntries();
          ret += this.transientQueue.getNumOfEntries() - this.transientQueue.getNumOfPersistentEntries();
          return ret;
       }
@@ -1185,7 +1681,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       if (isPersistenceAvailable()) {
          ret = this.persistentQueue.getNumOfPersistentEntries();
          if (ret < 0L) return this.transientQueue.getNumOfEntries();
-         return this.persistentQueue.getNumOfPersistentEntries();
+         return ret + getNumOfUnflushedEntries();
       }
       return this.transientQueue.getNumOfPersistentEntries();
    }
@@ -1207,6 +1703,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       if (isPersistenceAvailable()) {
          ret = this.persistentQueue.getNumOfBytes();
          if (ret < 0L) return this.transientQueue.getNumOfBytes();
+         ret += getNumOfUnflushedBytes();
          ret += this.transientQueue.getNumOfBytes() - this.transientQueue.getNumOfPersistentBytes();
          return ret;
       }
@@ -1222,7 +1719,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
          ret = this.persistentQueue.getNumOfPersistentBytes();
          // if a persistent queue return -1L it means it was not able to get the correct size
          if (ret < 0L) return this.transientQueue.getNumOfPersistentBytes();
-         return ret;
+         return ret + getNumOfUnflushedBytes();
       }
       return this.transientQueue.getNumOfPersistentBytes();
    }
@@ -1276,6 +1773,14 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       else { // Entries don't have reference counting: The quick way:
          long numOfEntries = getNumOfEntries();
          try {
+            if (this.writeBehindQueue != null) {
+               flushWriteBehind(); // waits for a running flush
+               synchronized (this.writeBehindSync) {
+                  this.writeBehindPending.clear();
+                  this.writeBehindPendingBytes = 0L;
+                  this.writeBehindQueue.clear();
+               }
+            }
             if (this.persistentQueue != null) this.persistentQueue.clear();
          }
          catch (Throwable e) {
@@ -1315,6 +1820,13 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
          if (numTransients > 0) {
             log.warning(ME+"Shutting down cache queue which contains " + numTransients + " transient messages");
          }
+         synchronized (this.writeBehindSync) {
+            if (this.flushRetryTimerKey != null) {
+               this.glob.getBurstModeTimer().removeTimeoutListener(this.flushRetryTimerKey);
+               this.flushRetryTimerKey = null;
+            }
+         }
+         flushWriteBehind(); // what is left is replayed from the journal on next startup
    
          try {
             this.transientQueue.shutdown();
@@ -1326,6 +1838,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    
          try {
             if (this.persistentQueue != null) this.persistentQueue.shutdown();
+            if (this.writeBehindQueue != null) this.writeBehindQueue.shutdown();
          }
          catch (Throwable ex) {
             log.severe(ME+"shutdown: exception when processing transient queue. Reason: " + ex.toString());
@@ -1391,13 +1904,131 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
       sb.append("' numOfEntries='").append(getNumOfEntries());
       sb.append("' numOfBytes='").append(getNumOfBytes());
       sb.append("'>");
+      sb.append(offset).append(Constants.INDENT).append("<swapping prefetch='").append(this.prefetch);
+      sb.append("' writeBehind='").append(this.writeBehindQueue != null);
+      sb.append("' lazyLoad='").append(this.lazyLoad);
+      sb.append("' numSyncLoads='").append(this.numSyncLoads);
+      sb.append("' numPrefetchLoads='").append(this.numPrefetchLoads);
+      sb.append("' numPrefetchDiscarded='").append(this.numPrefetchDiscarded);
+      sb.append("' swapHitRate='").append(getSwapHitRate());
+      sb.append("' numSwappedOut='").append(this.numSwappedOut);
+      sb.append("' numSwappedIn='").append(this.numSwappedIn);
+      sb.append("' numWriteBehindPending='").append(getNumWriteBehindPending());
+      sb.append("' numWriteBehindFlushed='").append(getNumWriteBehindFlushed());
+      sb.append("' syncLoadLatency='").append(this.syncLoadLatency.toString());
+      sb.append("' prefetchLatency='").append(this.prefetchLatency.toString());
+      sb.append("'/>");
       sb.append(this.transientQueue.toXml(extraOffset+Constants.INDENT));
       if (this.persistentQueue != null)
          sb.append(this.persistentQueue.toXml(extraOffset+Constants.INDENT));
+      if (this.writeBehindQueue != null)
+         sb.append(this.writeBehindQueue.toXml(extraOffset+Constants.INDENT));
       sb.append(offset).append("</CacheQueueInterceptorPlugin>");
       return sb.toString();
    }
 
+   // JMX
+   public boolean isPrefetch() {
+      return this.prefetch;
+   }
+
+   // JMX
+   public boolean isWriteBehind() {
+      return this.writeBehindQueue != null;
+   }
+
+   // JMX
+   public boolean isLazyLoad() {
+      return this.lazyLoad;
+   }
+
+   /** @return true if the lazy load has not happened yet */
+   public boolean isLoadPending() {
+      return this.loadPending;
+   }
+
+   // JMX
+   public long getNumSyncLoads() {
+      return this.numSyncLoads;
+   }
+
+   // JMX
+   public long getNumPrefetchLoads() {
+      return this.numPrefetchLoads;
+   }
+
+   // JMX
+   public long getNumPrefetchDiscarded() {
+      return this.numPrefetchDiscarded;
+   }
+
+   // JMX
+   public double getSwapHitRate() {
+      long total = this.numPrefetchLoads + this.numSyncLoads;
+      return (total == 0L) ? 0.0 : (double)this.numPrefetchLoads / total;
+   }
+
+   // JMX
+   public long getNumSwappedOut() {
+      return this.numSwappedOut;
+   }
+
+   // JMX
+   public long getNumSwappedIn() {
+      return this.numSwappedIn;
+   }
+
+   // JMX
+   public long getNumWriteBehindPending() {
+      return getNumOfUnflushedEntries();
+   }
+
+   // JMX
+   public long getNumWriteBehindFlushed() {
+      synchronized (this.writeBehindSync) {
+         return this.numWriteBehindFlushed;
+      }
+   }
+
+   // JMX
+   public String getSyncLoadLatency() {
+      return this.syncLoadLatency.toString();
+   }
+
+   // JMX
+   public double getAverageSyncLoadMillis() {
+      return this.syncLoadLatency.getAverageMillis();
+   }
+
+   // JMX
+   public double getMaxSyncLoadMillis() {
+      return this.syncLoadLatency.getMaxMillis();
+   }
+
+   // JMX
+   public String getPrefetchLatency() {
+      return this.prefetchLatency.toString();
+   }
+
+   // JMX
+   public double getAveragePrefetchMillis() {
+      return this.prefetchLatency.getAverageMillis();
+   }
+
+   // JMX
+   public synchronized void resetSwapStatistics() {
+      this.numSyncLoads = 0L;
+      this.numPrefetchLoads = 0L;
+      this.numPrefetchDiscarded = 0L;
+      this.numSwappedOut = 0L;
+      this.numSwappedIn = 0L;
+      synchronized (this.writeBehindSync) {
+         this.numWriteBehindFlushed = 0L;
+      }
+      this.syncLoadLatency.reset();
+      this.prefetchLatency.reset();
+   }
+
    /**
     * Enforced by I_Plugin
     * @see org.xmlBlaster.util.plugin.I_Plugin#init(org.xmlBlaster.util.Global, PluginInfo)
@@ -1483,6 +2114,7 @@ public class CacheQueueInterceptorPlugin implements I_Queue, I_StoragePlugin, I_
    public long embeddedObjectsToXml(OutputStream out, Properties props) throws Exception {
       I_Queue queue = this.persistentQueue;
       if (queue != null) {
+         flushWriteBehind();
          return queue.embeddedQueueObjectsToXml(out, null);
       }
       log.warning(ME+"Sorry, dumping transient entries to '" + out + "' is not implemented");
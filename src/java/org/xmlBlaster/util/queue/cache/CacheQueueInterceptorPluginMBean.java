@@ -12,5 +12,35 @@ import org.xmlBlaster.util.admin.I_AdminQueue;
  */
 
 public interface CacheQueueInterceptorPluginMBean extends I_AdminQueue {
+   /** @return true if swapped entries are reloaded in the background */
+   public boolean isPrefetch();
+   /** @return true if persistent entries are written over the write behind journal */
+   public boolean isWriteBehind();
+   /** @return true if the queue is filled from the persistent queue on first access */
+   public boolean isLazyLoad();
+   /** @return Number of reloads from the persistent queue the caller had to wait for */
+   public long getNumSyncLoads();
+   /** @return Number of reloads done in the background */
+   public long getNumPrefetchLoads();
+   /** @return Number of background reloads thrown away as the queue changed meanwhile */
+   public long getNumPrefetchDiscarded();
+   /** @return The fraction of reloads done in the background, 0 to 1 */
+   public double getSwapHitRate();
+   /** @return Number of entries swapped out of the transient queue */
+   public long getNumSwappedOut();
+   /** @return Number of entries reloaded into the transient queue */
+   public long getNumSwappedIn();
+   /** @return Number of persistent entries not yet written to the persistent queue */
+   public long getNumWriteBehindPending();
+   /** @return Number of entries written from the write behind journal to the persistent queue */
+   public long getNumWriteBehindFlushed();
+   /** @return The latency histogram of the reloads the caller waited for */
+   public String getSyncLoadLatency();
+   public double getAverageSyncLoadMillis();
+   public double getMaxSyncLoadMillis();
+   /** @return The latency histogram of the background reloads */
+   public String getPrefetchLatency();
+   public double getAveragePrefetchMillis();
+   /** Sets the swapping statistics to zero */
+   public void resetSwapStatistics();
 }
-
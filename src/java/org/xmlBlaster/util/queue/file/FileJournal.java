@@ -0,0 +1,374 @@
+/*------------------------------------------------------------------------------
+Name:      FileJournal.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Segmented, memory mapped, append only journal file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append only journal split into memory mapped segment files.
+ * <p>
+ * Every segment file <code>journal-&lt;seq>.xbj</code> starts with a header
+ * (magic number and sequence number) followed by the records:
+ * </p>
+ * <pre>
+ *  int length | int crc32 | byte type | payload
+ * </pre>
+ * <p>
+ * The length counts the type and the payload, a length of 0 marks the end
+ * of the written data (new segments are zero filled). A record which doesn't fit
+ * into the current segment is appended to a new one.
+ * </p>
+ * <p>
+ * Appending only writes to the mapped buffer, the data is safe if the process dies.
+ * sync() forces the written segments to disk, threads calling sync() concurrently share
+ * one force (group commit).
+ * </p>
+ * <p>
+ * The journal knows nothing about the meaning of the records, the owner keeps
+ * track of the live records of each segment and removes segments which are not needed
+ * anymore. Segments may only be removed from the oldest on, a newer segment can hold
+ * records which cancel records of older segments.
+ * </p>
+ * @see FileQueuePlugin
+ */
+final class FileJournal
+{
+   private static Logger log = Logger.getLogger(FileJournal.class.getName());
+   public static final int MAGIC = 0x58424A31; // "XBJ1"
+   public static final int SEGMENT_HEADER_SIZE = 8;
+   public static final int RECORD_HEADER_SIZE = 8;
+   private static final String PREFIX = "journal-";
+   private static final String POSTFIX = ".xbj";
+
+   /**
+    * One segment file
+    */
+   static final class Segment {
+      final int seq;
+      final File file;
+      final MappedByteBuffer buffer;
+      int writePos = SEGMENT_HEADER_SIZE;
+      /** Number of records still needed, maintained by the journal owner */
+      int liveRecords;
+      /** Number of bytes of the records still needed, maintained by the journal owner */
+      long liveBytes;
+
+      Segment(int seq, File file, MappedByteBuffer buffer) {
+         this.seq = seq;
+         this.file = file;
+         this.buffer = buffer;
+      }
+
+      /** @return The number of bytes written to the segment */
+      int getUsedBytes() {
+         return this.writePos - SEGMENT_HEADER_SIZE;
+      }
+
+      public String toString() {
+         return this.file.getName() + "[used=" + getUsedBytes() + ", liveRecords=" + this.liveRecords + ", liveBytes=" + this.liveBytes + "]";
+      }
+   }
+
+   /**
+    * Is notified about every valid record on recovery
+    */
+   interface I_RecordHandler {
+      void record(Segment segment, int offset, int length, byte type, byte[] payload) throws IOException;
+   }
+
+   private final String ME;
+   private final File dir;
+   private final int segmentSize;
+   /** All segments, sorted by sequence number */
+   private final TreeMap segments = new TreeMap();
+   private Segment head;
+   private final ArrayList dirtySegments = new ArrayList();
+   private final CRC32 crc = new CRC32();
+   private long appendCount;
+   private long numWrittenBytes;
+
+   private final Object syncMonitor = new Object();
+   private long syncedCount;
+   private long numSyncs;
+
+   /**
+    * @param dir The directory of this journal, is created on first write
+    * @param segmentSize The size of a segment file
+    */
+   FileJournal(File dir, int segmentSize) {
+      this.ME = "FileJournal-" + dir.getName();
+      this.dir = dir;
+      this.segmentSize = segmentSize;
+   }
+
+   File getDir() {
+      return this.dir;
+   }
+
+   /**
+    * Reads all segments found in the directory and passes each valid record to the handler.
+    * <p>
+    * Reading of a segment stops at the first damaged record (a write torn by a crash),
+    * the damaged bytes of the last segment are cleared so that new records are appended
+    * at this position.
+    * </p>
+    */
+   synchronized void recover(I_RecordHandler handler) throws IOException {
+      File[] files = this.dir.listFiles();
+      if (files == null)
+         return;
+      ArrayList seqs = new ArrayList();
+      for (int i=0; i<files.length; i++) {
+         String name = files[i].getName();
+         if (!name.startsWith(PREFIX) || !name.endsWith(POSTFIX))
+            continue;
+         try {
+            seqs.add(new Integer(name.substring(PREFIX.length(), name.length()-POSTFIX.length())));
+         }
+         catch (NumberFormatException e) {
+            log.warning(ME + ": Ignoring unknown file " + files[i]);
+         }
+      }
+      Integer[] arr = (Integer[])seqs.toArray(new Integer[seqs.size()]);
+      Arrays.sort(arr);
+      for (int i=0; i<arr.length; i++) {
+         File file = getFile(arr[i].intValue());
+         Segment segment = map(arr[i].intValue(), file, file.length());
+         MappedByteBuffer buf = segment.buffer;
+         if (buf.capacity() < SEGMENT_HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != segment.seq) {
+            log.severe(ME + ": Ignoring damaged segment " + file);
+            continue;
+         }
+         this.segments.put(new Integer(segment.seq), segment);
+         int pos = SEGMENT_HEADER_SIZE;
+         boolean damaged = false;
+         while (pos + RECORD_HEADER_SIZE <= buf.capacity()) {
+            int len = buf.getInt(pos);
+            if (len == 0)
+               break;
+            if (len < 0 || pos + RECORD_HEADER_SIZE + len > buf.capacity()) {
+               damaged = true;
+               break;
+            }
+            byte[] tmp = new byte[len];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(pos + RECORD_HEADER_SIZE);
+            dup.get(tmp);
+            this.crc.reset();
+            this.crc.update(tmp, 0, len);
+            if ((int)this.crc.getValue() != buf.getInt(pos+4)) {
+               damaged = true;
+               break;
+            }
+            byte[] payload = new byte[len-1];
+            System.arraycopy(tmp, 1, payload, 0, payload.length);
+            handler.record(segment, pos, RECORD_HEADER_SIZE + len, tmp[0], payload);
+            pos += RECORD_HEADER_SIZE + len;
+         }
+         segment.writePos = pos;
+         if (damaged) {
+            log.warning(ME + ": Segment " + file + " is damaged at position " + pos + ", the following records are lost");
+            for (int j=pos; j<buf.capacity(); j++)
+               buf.put(j, (byte)0);
+            buf.force();
+         }
+         this.head = segment;
+      }
+      if (log.isLoggable(Level.FINE)) log.fine(ME + ": Recovered " + this.segments.size() + " segments");
+   }
+
+   private File getFile(int seq) {
+      return new File(this.dir, PREFIX + seq + POSTFIX);
+   }
+
+   private Segment map(int seq, File file, long size) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         if (raf.length() < size)
+            raf.setLength(size);
+         MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+         return new Segment(seq, file, buffer);
+      }
+      finally {
+         raf.close(); // the mapping stays valid
+      }
+   }
+
+   private Segment createSegment(int minSize) throws IOException {
+      if (!this.dir.exists() && !this.dir.mkdirs())
+         throw new IOException("Can't create directory " + this.dir.getAbsolutePath());
+      int seq = (this.head == null) ? 1 : this.head.seq + 1;
+      File file = getFile(seq);
+      if (file.exists())
+         file.delete();
+      Segment segment = map(seq, file, Math.max(this.segmentSize, minSize));
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putInt(4, seq);
+      this.segments.put(new Integer(seq), segment);
+      this.head = segment;
+      if (log.isLoggable(Level.FINE)) log.fine(ME + ": Created segment " + file);
+      return segment;
+   }
+
+   /**
+    * Appends a record.
+    * @param bytes The type byte followed by the payload
+    * @return The segment the record is written to, its offset is segment.writePos before the call
+    */
+   synchronized Segment append(byte[] bytes, int len) throws IOException {
+      int size = RECORD_HEADER_SIZE + len;
+      Segment segment = this.head;
+      if (segment == null || segment.writePos + size > segment.buffer.capacity())
+         segment = createSegment(SEGMENT_HEADER_SIZE + size);
+      this.crc.reset();
+      this.crc.update(bytes, 0, len);
+      MappedByteBuffer buf = segment.buffer;
+      int pos = segment.writePos;
+      buf.putInt(pos+4, (int)this.crc.getValue());
+      ByteBuffer dup = buf.duplicate();
+      dup.position(pos + RECORD_HEADER_SIZE);
+      dup.put(bytes, 0, len);
+      buf.putInt(pos, len); // the length is written last and marks the record as complete
+      segment.writePos = pos + size;
+      if (!this.dirtySegments.contains(segment))
+         this.dirtySegments.add(segment);
+      this.appendCount++;
+      this.numWrittenBytes += size;
+      return segment;
+   }
+
+   /**
+    * Reads the record at the given position.
+    * @return The type byte followed by the payload
+    */
+   byte[] read(Segment segment, int offset) throws IOException {
+      ByteBuffer dup = segment.buffer.duplicate();
+      int len = dup.getInt(offset);
+      if (len <= 0 || offset + RECORD_HEADER_SIZE + len > dup.capacity())
+         throw new IOException("Illegal record length " + len + " at " + segment + " offset=" + offset);
+      byte[] bytes = new byte[len];
+      dup.position(offset + RECORD_HEADER_SIZE);
+      dup.get(bytes);
+      return bytes;
+   }
+
+   /**
+    * Forces all appended records to disk.
+    * <p>
+    * A thread finding that another thread forced its records meanwhile returns
+    * immediately, so threads appending concurrently share one force.
+    * </p>
+    */
+   void sync() {
+      long target;
+      synchronized (this) {
+         target = this.appendCount;
+      }
+      synchronized (this.syncMonitor) {
+         if (this.syncedCount >= target)
+            return;
+         Segment[] dirty;
+         long count;
+         synchronized (this) {
+            dirty = (Segment[])this.dirtySegments.toArray(new Segment[this.dirtySegments.size()]);
+            this.dirtySegments.clear();
+            count = this.appendCount;
+         }
+         for (int i=0; i<dirty.length; i++)
+            dirty[i].buffer.force();
+         this.syncedCount = count;
+         this.numSyncs++;
+      }
+   }
+
+   /** @return The number of bytes appended since startup, including the record headers */
+   synchronized long getNumWrittenBytes() {
+      return this.numWrittenBytes;
+   }
+
+   /** @return The number of forces to disk done */
+   long getNumSyncs() {
+      synchronized (this.syncMonitor) {
+         return this.numSyncs;
+      }
+   }
+
+   synchronized Segment getHead() {
+      return this.head;
+   }
+
+   synchronized Segment getOldest() {
+      return this.segments.isEmpty() ? null : (Segment)this.segments.get(this.segments.firstKey());
+   }
+
+   synchronized int getNumSegments() {
+      return this.segments.size();
+   }
+
+   /** @return The size of all segment files */
+   synchronized long getFileSize() {
+      long size = 0L;
+      Iterator it = this.segments.values().iterator();
+      while (it.hasNext())
+         size += ((Segment)it.next()).buffer.capacity();
+      return size;
+   }
+
+   /**
+    * Deletes the oldest segment, it may not be the head.
+    */
+   synchronized void removeOldest() {
+      Segment oldest = getOldest();
+      if (oldest == null || oldest == this.head)
+         return;
+      this.segments.remove(new Integer(oldest.seq));
+      this.dirtySegments.remove(oldest);
+      if (!oldest.file.delete())
+         log.warning(ME + ": Can't delete segment " + oldest.file);
+      else if (log.isLoggable(Level.FINE)) log.fine(ME + ": Removed segment " + oldest);
+   }
+
+   /**
+    * Deletes all segments older than the head.
+    */
+   synchronized void removeAllButHead() {
+      while (this.segments.size() > 1)
+         removeOldest();
+   }
+
+   /**
+    * Deletes all segment files and the directory.
+    */
+   synchronized void delete() {
+      Iterator it = this.segments.values().iterator();
+      while (it.hasNext()) {
+         Segment segment = (Segment)it.next();
+         if (!segment.file.delete())
+            log.warning(ME + ": Can't delete segment " + segment.file);
+      }
+      this.segments.clear();
+      this.dirtySegments.clear();
+      this.head = null;
+      this.dir.delete();
+   }
+
+   public String toString() {
+      return ME + " segments=" + this.segments.values();
+   }
+}
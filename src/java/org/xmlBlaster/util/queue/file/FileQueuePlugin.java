@@ -0,0 +1,1478 @@
+/*------------------------------------------------------------------------------
+Name:      FileQueuePlugin.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Persistent queue and map on memory mapped journal files
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.msgstore.I_ChangeCallback;
+import org.xmlBlaster.engine.msgstore.I_Map;
+import org.xmlBlaster.engine.msgstore.I_MapEntry;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.ReplaceVariable;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.ErrorCode;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.storage.QueuePropertyBase;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_EntryFilter;
+import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.I_QueuePutListener;
+import org.xmlBlaster.util.queue.I_Storage;
+import org.xmlBlaster.util.queue.I_StoragePlugin;
+import org.xmlBlaster.util.queue.I_StorageProblemListener;
+import org.xmlBlaster.util.queue.I_StorageSizeListener;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.StorageSizeListenerHelper;
+import org.xmlBlaster.util.queue.jdbc.XBMeat;
+import org.xmlBlaster.util.queue.jdbc.XBRef;
+import org.xmlBlaster.util.queue.jdbc.XBStore;
+
+/**
+ * Persistent queue and map implementation on append only journal files, no database is needed.
+ * <p>
+ * Every storage writes to its own directory of memory mapped segment files,
+ * see {@link FileJournal}. A put appends the XBRef/XBMeat data of the entries, a remove appends
+ * the unique ids of the removed entries. The entries are not held in RAM, only a sorted index
+ * pointing into the journal, on access the entries are read from the mapped files and created
+ * with the I_EntryFactory like the JDBC queues do it.
+ * </p>
+ * <p>
+ * On startup the journal is read to rebuild the index, transient entries are dropped.
+ * Segments which don't hold live entries anymore are deleted, if the live entries of the
+ * oldest segment use less than <code>journal/compactRatio</code> of it they are copied to the
+ * newest segment and the oldest is deleted (compaction, checked after each modification
+ * once the index is updated).
+ * </p>
+ * Configuration example:
+ * <pre>
+ * QueuePlugin[FILE][1.0]=org.xmlBlaster.util.queue.file.FileQueuePlugin,\
+ *                        journal/path=${user.home}${file.separator}tmp${file.separator}$_{xmlBlaster_uniqueId}.journal,\
+ *                        journal/segmentSize=4194304,\
+ *                        journal/syncMode=always,\
+ *                        journal/syncInterval=50,\
+ *                        journal/compactRatio=0.5
+ * StoragePlugin[FILE][1.0]=org.xmlBlaster.util.queue.file.FileQueuePlugin
+ * QueuePlugin[CACHE][1.0]=org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin,persistentQueue=FILE,transientQueue=RAM
+ * StoragePlugin[CACHE][1.0]=org.xmlBlaster.engine.msgstore.cache.PersistenceCachePlugin,persistentQueue=FILE,transientQueue=RAM
+ * </pre>
+ * <p>
+ * <code>journal/syncMode</code> is <code>always</code> (every put and remove returns after
+ * the data is forced to disk, concurrent calls share one force), <code>interval</code>
+ * (forced at most every <code>journal/syncInterval</code> milliseconds) or <code>none</code>
+ * (left to the operating system). Data written to the mapped files survives a crash of the
+ * process in any mode, the modes only differ for a crash of the operating system.
+ * </p>
+ * @see org.xmlBlaster.util.queue.jdbc.JdbcQueue
+ */
+public final class FileQueuePlugin implements I_Queue, I_StoragePlugin, I_Map
+{
+   private String ME = "FileQueuePlugin";
+   private static Logger log = Logger.getLogger(FileQueuePlugin.class.getName());
+
+   private static final byte RECORD_ADD = 1;
+   private static final byte RECORD_REMOVE = 2;
+   private static final byte RECORD_COUNTERS = 3;
+   private static final byte RECORD_CLEAR = 4;
+
+   private static final byte HAS_REF = 1;
+   private static final byte HAS_MEAT = 2;
+
+   public static final int SYNC_NONE = 0;
+   public static final int SYNC_INTERVAL = 1;
+   public static final int SYNC_ALWAYS = 2;
+
+   private Global glob;
+   private PluginInfo pluginInfo;
+   private QueuePropertyBase property;
+   private StorageId storageId;
+   private XBStore xbStore;
+   private boolean notifiedAboutAddOrRemove = false;
+   private I_QueuePutListener putListener;
+   private boolean isDown = true;
+   private StorageSizeListenerHelper storageSizeListenerHelper;
+
+   private FileJournal journal;
+   private int syncMode = SYNC_ALWAYS;
+   private long syncInterval = 50L;
+   private long lastSync;
+   private double compactRatio = 0.5;
+   private boolean compacting;
+
+   /** Monitor object used to synchronize the index and the journal */
+   private final Object modificationMonitor = new Object();
+   /** The entries sorted by priority and unique id */
+   private TreeSet index;
+   private HashMap indexById;
+   private long numOfBytes;
+   private long numOfPersistentEntries;
+   private long numOfPersistentBytes;
+   private int entryCounter;
+
+   /**
+    * The in RAM reference of an entry to its record in the journal
+    */
+   static final class IndexEntry {
+      final long uniqueId;
+      final int priority;
+      long sizeInBytes;
+      boolean persistent;
+      FileJournal.Segment segment;
+      int offset;
+      int recordSize;
+      /** The reference counters written later than the record, -1 if not changed */
+      long refCount = -1L;
+      long refCount2 = -1L;
+
+      IndexEntry(long uniqueId, int priority) {
+         this.uniqueId = uniqueId;
+         this.priority = priority;
+      }
+   }
+
+   /**
+    * Sorts like MsgQueueEntry.compare(): the higher priority first, then the older entry first.
+    */
+   static final class IndexComparator implements Comparator {
+      public int compare(Object o1, Object o2) {
+         IndexEntry e1 = (IndexEntry)o1;
+         IndexEntry e2 = (IndexEntry)o2;
+         int diff = e2.priority - e1.priority;
+         if (diff != 0)
+            return diff;
+         if (e1.uniqueId < e2.uniqueId)
+            return -1;
+         return (e1.uniqueId > e2.uniqueId) ? 1 : 0;
+      }
+   }
+
+   private final IndexComparator comparator = new IndexComparator();
+
+   public FileQueuePlugin() {
+      this.storageSizeListenerHelper = new StorageSizeListenerHelper(this);
+   }
+
+   public boolean isTransient() {
+      return false;
+   }
+
+   /**
+    * Is called after the instance is created, reads an existing journal.
+    * @param uniqueQueueId A unique name, allowing to create a unique name for a persistent store (e.g. file name)
+    * @see I_Queue#initialize(StorageId, Object)
+    */
+   public void initialize(StorageId uniqueQueueId, Object userData) throws XmlBlasterException {
+      synchronized (this.modificationMonitor) {
+         if (!this.isDown)
+            return;
+         this.property = null;
+         setProperties(userData);
+         if (this.property == null)
+            throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "initialize: no queue properties given for " + uniqueQueueId);
+         this.glob = this.property.getGlobal();
+         this.storageId = uniqueQueueId;
+         this.xbStore = uniqueQueueId.getXBStore();
+         this.ME = "FileQueuePlugin-" + uniqueQueueId.getId();
+
+         String defaultPath = System.getProperty("user.home") + File.separator + "tmp" + File.separator + "$_{xmlBlaster_uniqueId}.journal";
+         String path = this.glob.get("journal/path", defaultPath, null, this.pluginInfo);
+         path = ReplaceVariable.replaceFirst(path, "$_{xmlBlaster_uniqueId}", this.glob.getStrippedId());
+         int segmentSize = this.glob.get("journal/segmentSize", 4*1024*1024, null, this.pluginInfo);
+         String mode = this.glob.get("journal/syncMode", "always", null, this.pluginInfo);
+         if ("none".equalsIgnoreCase(mode))
+            this.syncMode = SYNC_NONE;
+         else if ("interval".equalsIgnoreCase(mode))
+            this.syncMode = SYNC_INTERVAL;
+         else if ("always".equalsIgnoreCase(mode))
+            this.syncMode = SYNC_ALWAYS;
+         else
+            log.warning(ME + ": Ignoring unknown journal/syncMode=" + mode + ", using 'always'");
+         this.syncInterval = this.glob.get("journal/syncInterval", 50L, null, this.pluginInfo);
+         this.compactRatio = this.glob.get("journal/compactRatio", 0.5, null, this.pluginInfo);
+
+         File dir = new File(new File(path, toFileName(this.xbStore.getNode())),
+                             toFileName(this.xbStore.getType() + "_" + this.xbStore.getPostfix()));
+         this.journal = new FileJournal(dir, segmentSize);
+         this.index = new TreeSet(this.comparator);
+         this.indexById = new HashMap();
+         this.numOfBytes = 0L;
+         this.numOfPersistentEntries = 0L;
+         this.numOfPersistentBytes = 0L;
+         try {
+            this.journal.recover(new FileJournal.I_RecordHandler() {
+               public void record(FileJournal.Segment segment, int offset, int length, byte type, byte[] payload) throws IOException {
+                  replay(segment, offset, length, type, payload);
+               }
+            });
+         }
+         catch (IOException e) {
+            throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNKNOWN, ME, "initialize: can't read journal " + dir, e);
+         }
+         compact();
+         this.isDown = false;
+         if (log.isLoggable(Level.FINE)) log.fine(ME + ": Initialized with " + this.index.size() + " entries from " + this.journal);
+      }
+   }
+
+   /**
+    * Converts the given text to a portable file name.
+    */
+   static String toFileName(String text) {
+      if (text == null || text.length() == 0)
+         return "_";
+      StringBuffer sb = new StringBuffer(text.length() + 16);
+      for (int i=0; i<text.length(); i++) {
+         char c = text.charAt(i);
+         if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_')
+            sb.append(c);
+         else
+            sb.append('%').append(Integer.toHexString(c).toUpperCase());
+      }
+      if (sb.length() > 200) // file names are limited to 255 chars
+         return sb.substring(0, 180) + "%" + Integer.toHexString(text.hashCode()).toUpperCase();
+      return sb.toString();
+   }
+
+   /**
+    * Applies a record read on startup to the index.
+    */
+   private void replay(FileJournal.Segment segment, int offset, int length, byte type, byte[] payload) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      if (type == RECORD_ADD) {
+         IndexEntry entry = new IndexEntry(in.readLong(), in.readInt());
+         entry.sizeInBytes = in.readLong();
+         entry.persistent = in.readBoolean();
+         entry.segment = segment;
+         entry.offset = offset;
+         entry.recordSize = length;
+         removeFromIndex(entry.uniqueId); // a changed entry is written again
+         if (entry.persistent) // transient entries don't survive a restart
+            addToIndex(entry);
+      }
+      else if (type == RECORD_REMOVE) {
+         int num = in.readInt();
+         for (int i=0; i<num; i++)
+            removeFromIndex(in.readLong());
+      }
+      else if (type == RECORD_COUNTERS) {
+         IndexEntry entry = (IndexEntry)this.indexById.get(new Long(in.readLong()));
+         if (entry != null) {
+            entry.refCount = in.readLong();
+            entry.refCount2 = in.readLong();
+         }
+      }
+      else if (type == RECORD_CLEAR) {
+         clearIndex();
+      }
+      else {
+         log.severe(ME + ": Ignoring unknown record type " + type + " in " + segment);
+      }
+   }
+
+   private void addToIndex(IndexEntry entry) {
+      this.index.add(entry);
+      this.indexById.put(new Long(entry.uniqueId), entry);
+      this.numOfBytes += entry.sizeInBytes;
+      if (entry.persistent) {
+         this.numOfPersistentEntries++;
+         this.numOfPersistentBytes += entry.sizeInBytes;
+      }
+      entry.segment.liveRecords++;
+      entry.segment.liveBytes += entry.recordSize;
+   }
+
+   private IndexEntry removeFromIndex(long uniqueId) {
+      IndexEntry entry = (IndexEntry)this.indexById.remove(new Long(uniqueId));
+      if (entry == null)
+         return null;
+      this.index.remove(entry);
+      this.numOfBytes -= entry.sizeInBytes;
+      if (entry.persistent) {
+         this.numOfPersistentEntries--;
+         this.numOfPersistentBytes -= entry.sizeInBytes;
+      }
+      entry.segment.liveRecords--;
+      entry.segment.liveBytes -= entry.recordSize;
+      return entry;
+   }
+
+   private void clearIndex() {
+      Iterator it = this.index.iterator();
+      while (it.hasNext()) {
+         IndexEntry entry = (IndexEntry)it.next();
+         entry.segment.liveRecords--;
+         entry.segment.liveBytes -= entry.recordSize;
+      }
+      this.index.clear();
+      this.indexById.clear();
+      this.numOfBytes = 0L;
+      this.numOfPersistentEntries = 0L;
+      this.numOfPersistentBytes = 0L;
+   }
+
+   private static void writeString(DataOutputStream out, String str) throws IOException {
+      if (str == null) {
+         out.writeInt(-1);
+         return;
+      }
+      byte[] bytes = str.getBytes(Constants.UTF8_ENCODING);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      int len = in.readInt();
+      if (len < 0)
+         return null;
+      byte[] bytes = new byte[len];
+      in.readFully(bytes);
+      return new String(bytes, Constants.UTF8_ENCODING);
+   }
+
+   private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+      if (bytes == null) {
+         out.writeInt(-1);
+         return;
+      }
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static byte[] readBytes(DataInputStream in) throws IOException {
+      int len = in.readInt();
+      if (len < 0)
+         return null;
+      byte[] bytes = new byte[len];
+      in.readFully(bytes);
+      return bytes;
+   }
+
+   /**
+    * Serializes the ADD record of an entry: the index data followed by the XBRef and XBMeat fields.
+    */
+   private void writeAdd(ByteArrayOutputStream bytes, long uniqueId, int priority, long sizeInBytes, boolean persistent,
+                         XBRef ref, XBMeat meat) throws IOException {
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeByte(RECORD_ADD);
+      out.writeLong(uniqueId);
+      out.writeInt(priority);
+      out.writeLong(sizeInBytes);
+      out.writeBoolean(persistent);
+      out.writeByte((ref != null ? HAS_REF : 0) | (meat != null ? HAS_MEAT : 0));
+      if (ref != null) {
+         out.writeLong(ref.getId());
+         out.writeLong(ref.getMeatId());
+         out.writeBoolean(ref.isDurable());
+         out.writeLong(ref.getByteSize());
+         out.writeInt(ref.getPrio());
+         writeString(out, ref.getMethodName());
+         writeString(out, ref.getMetaInfo());
+         writeString(out, ref.getFlag1());
+      }
+      if (meat != null) {
+         out.writeLong(meat.getId());
+         out.writeBoolean(meat.isDurable());
+         out.writeLong(meat.getByteSize());
+         out.writeLong(meat.getRefCount());
+         out.writeLong(meat.getRefCount2());
+         writeString(out, meat.getDataType());
+         writeString(out, meat.getMetaInfo());
+         writeString(out, meat.getFlag1());
+         writeString(out, meat.getKey());
+         writeString(out, meat.getQos());
+         writeBytes(out, meat.getContent());
+      }
+      out.flush();
+   }
+
+   /**
+    * Reads back an ADD record (the bytes start with the record type).
+    * @return [XBRef, XBMeat], both can be null
+    */
+   private Object[] readAdd(byte[] bytes, IndexEntry indexEntry) throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readByte() != RECORD_ADD)
+         throw new IOException("Record of entry " + indexEntry.uniqueId + " is not of type ADD");
+      if (in.readLong() != indexEntry.uniqueId)
+         throw new IOException("Record of entry " + indexEntry.uniqueId + " belongs to a different entry");
+      in.readInt();
+      in.readLong();
+      in.readBoolean();
+      byte flags = in.readByte();
+      XBRef ref = null;
+      XBMeat meat = null;
+      if ((flags & HAS_REF) != 0) {
+         ref = new XBRef();
+         ref.setId(in.readLong());
+         ref.setMeatId(in.readLong());
+         ref.setDurable(in.readBoolean());
+         ref.setByteSize(in.readLong());
+         ref.setPrio(in.readInt());
+         ref.setMethodName(readString(in));
+         ref.setMetaInfo(readString(in));
+         ref.setFlag1(readString(in));
+      }
+      if ((flags & HAS_MEAT) != 0) {
+         meat = new XBMeat();
+         meat.setId(in.readLong());
+         meat.setDurable(in.readBoolean());
+         meat.setByteSize(in.readLong());
+         meat.setRefCount(in.readLong());
+         meat.setRefCount2(in.readLong());
+         meat.setDataType(readString(in));
+         meat.setMetaInfo(readString(in));
+         meat.setFlag1(readString(in));
+         meat.setKey(readString(in));
+         meat.setQos(readString(in));
+         meat.setContent(readBytes(in));
+         if (indexEntry.refCount >= 0L) {
+            meat.setRefCount(indexEntry.refCount);
+            meat.setRefCount2(indexEntry.refCount2);
+         }
+         if (ref != null)
+            ref.setMeat(meat);
+      }
+      return new Object[] { ref, meat };
+   }
+
+   /**
+    * Appends a record, the caller holds the modificationMonitor.
+    * <p>
+    * No compaction is done here: the index must match the journal when entries are copied,
+    * so the callers invoke compact() after their index changes are done.
+    * </p>
+    */
+   private FileJournal.Segment append(ByteArrayOutputStream bytes) throws XmlBlasterException {
+      try {
+         return this.journal.append(toByteArray(bytes), bytes.size());
+      }
+      catch (IOException e) {
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNKNOWN, ME, "Writing to journal failed", e);
+      }
+   }
+
+   /** Access the internal buffer of ByteArrayOutputStream without copying */
+   private static byte[] toByteArray(ByteArrayOutputStream bytes) {
+      return (bytes instanceof Buffer) ? ((Buffer)bytes).getBuffer() : bytes.toByteArray();
+   }
+
+   private static final class Buffer extends ByteArrayOutputStream {
+      Buffer(int size) {
+         super(size);
+      }
+      byte[] getBuffer() {
+         return super.buf;
+      }
+   }
+
+   /**
+    * Appends the ADD record of the entry and adds it to the index, the caller holds the modificationMonitor.
+    * @return false if an entry with the same unique id exists already
+    */
+   private boolean appendEntry(I_Entry entry) throws XmlBlasterException {
+      if (this.indexById.containsKey(new Long(entry.getUniqueId()))) {
+         if (log.isLoggable(Level.FINE)) log.fine(ME + ": Ignoring put of existing entry " + entry.getLogId());
+         return false;
+      }
+      IndexEntry indexEntry = new IndexEntry(entry.getUniqueId(), entry.getPriority());
+      indexEntry.sizeInBytes = entry.getSizeInBytes();
+      indexEntry.persistent = entry.isPersistent();
+      writeEntry(indexEntry, entry.getRef(), entry.getMeat());
+      addToIndex(indexEntry);
+      return true;
+   }
+
+   private void writeEntry(IndexEntry indexEntry, XBRef ref, XBMeat meat) throws XmlBlasterException {
+      Buffer bytes = new Buffer(256 + ((meat != null && meat.getContent() != null) ? meat.getContent().length : 0));
+      try {
+         writeAdd(bytes, indexEntry.uniqueId, indexEntry.priority, indexEntry.sizeInBytes, indexEntry.persistent, ref, meat);
+      }
+      catch (IOException e) {
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME, "Serializing entry " + indexEntry.uniqueId + " failed", e);
+      }
+      FileJournal.Segment segment = this.journal.getHead();
+      int offset = (segment == null) ? -1 : segment.writePos;
+      FileJournal.Segment written = append(bytes);
+      if (written != segment)
+         offset = FileJournal.SEGMENT_HEADER_SIZE;
+      indexEntry.segment = written;
+      indexEntry.offset = offset;
+      indexEntry.recordSize = FileJournal.RECORD_HEADER_SIZE + bytes.size();
+      indexEntry.refCount = -1L;
+      indexEntry.refCount2 = -1L;
+   }
+
+   /**
+    * Appends a REMOVE record for the given ids, the caller holds the modificationMonitor.
+    */
+   private void appendRemove(long[] ids, int num) throws XmlBlasterException {
+      if (num < 1)
+         return;
+      Buffer bytes = new Buffer(5 + 8*num);
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeByte(RECORD_REMOVE);
+         out.writeInt(num);
+         for (int i=0; i<num; i++)
+            out.writeLong(ids[i]);
+         out.flush();
+      }
+      catch (IOException e) {
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME, "Serializing remove failed", e);
+      }
+      append(bytes);
+   }
+
+   /**
+    * Removes segments which are not needed anymore, the caller holds the modificationMonitor.
+    * <p>
+    * Only the oldest segment is removed, as newer ones may hold REMOVE records for its entries.
+    * Its live entries are copied to the newest segment if they use less than compactRatio of it.
+    * </p>
+    */
+   private void compact() {
+      if (this.compacting)
+         return;
+      this.compacting = true;
+      try {
+         while (this.journal.getNumSegments() > 1) {
+            FileJournal.Segment oldest = this.journal.getOldest();
+            if (oldest.liveRecords > 0) {
+               if (oldest.liveBytes > this.compactRatio * oldest.getUsedBytes())
+                  break;
+               ArrayList moved = new ArrayList();
+               Iterator it = this.index.iterator();
+               while (it.hasNext()) {
+                  IndexEntry entry = (IndexEntry)it.next();
+                  if (entry.segment == oldest)
+                     moved.add(entry);
+               }
+               if (log.isLoggable(Level.FINE)) log.fine(ME + ": Compacting " + oldest + ", moving " + moved.size() + " entries");
+               for (int i=0; i<moved.size(); i++) {
+                  IndexEntry entry = (IndexEntry)moved.get(i);
+                  Object[] refMeat = readAdd(this.journal.read(entry.segment, entry.offset), entry);
+                  FileJournal.Segment from = entry.segment;
+                  int size = entry.recordSize;
+                  writeEntry(entry, (XBRef)refMeat[0], (XBMeat)refMeat[1]);
+                  from.liveRecords--;
+                  from.liveBytes -= size;
+                  entry.segment.liveRecords++;
+                  entry.segment.liveBytes += entry.recordSize;
+               }
+               // The copies must be on disk before the originals are deleted
+               this.journal.sync();
+            }
+            this.journal.removeOldest();
+         }
+      }
+      catch (Throwable e) {
+         log.severe(ME + ": Compacting the journal failed, will retry later: " + e.toString());
+      }
+      finally {
+         this.compacting = false;
+      }
+   }
+
+   /**
+    * Forces the written records to disk depending on the journal/syncMode,
+    * is called after the modificationMonitor is released to allow group commit.
+    */
+   private void commit() {
+      if (this.syncMode == SYNC_ALWAYS) {
+         this.journal.sync();
+      }
+      else if (this.syncMode == SYNC_INTERVAL) {
+         long now = System.currentTimeMillis();
+         if (now - this.lastSync >= this.syncInterval) {
+            this.lastSync = now;
+            this.journal.sync();
+         }
+      }
+   }
+
+   /**
+    * Creates the entry from its journal record.
+    */
+   private I_Entry createEntry(IndexEntry indexEntry, byte[] bytes) throws XmlBlasterException {
+      Object[] refMeat;
+      try {
+         refMeat = readAdd(bytes, indexEntry);
+      }
+      catch (IOException e) {
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNKNOWN, ME, "Reading entry " + indexEntry.uniqueId + " from journal failed", e);
+      }
+      return this.glob.getEntryFactory().createEntry(this.xbStore, (XBMeat)refMeat[1], (XBRef)refMeat[0]);
+   }
+
+   /**
+    * Reads the journal records of the given index entries.
+    * @return The entries, filtered if a filter is given
+    */
+   private ArrayList createEntries(ArrayList indexEntries, I_EntryFilter entryFilter) throws XmlBlasterException {
+      byte[][] records = new byte[indexEntries.size()][];
+      synchronized (this.modificationMonitor) {
+         for (int i=0; i<records.length; i++) {
+            IndexEntry indexEntry = (IndexEntry)indexEntries.get(i);
+            try {
+               records[i] = this.journal.read(indexEntry.segment, indexEntry.offset);
+            }
+            catch (IOException e) {
+               throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNKNOWN, ME, "Reading entry " + indexEntry.uniqueId + " from journal failed", e);
+            }
+         }
+      }
+      ArrayList ret = new ArrayList(records.length);
+      for (int i=0; i<records.length; i++) {
+         I_Entry entry = createEntry((IndexEntry)indexEntries.get(i), records[i]);
+         if (entryFilter != null)
+            entry = entryFilter.intercept(entry, this);
+         if (entry != null)
+            ret.add(entry);
+      }
+      return ret;
+   }
+
+   private void checkIsUp(String method) throws XmlBlasterException {
+      if (this.isDown)
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNAVAILABLE, ME, "The storage is shutdown, " + method + " is not possible");
+   }
+
+   /**
+    * Checks the overflow, one superload is allowed like in the other queues
+    */
+   private void checkSpaceLeft(String method) throws XmlBlasterException {
+      if (this.index.size() > getMaxNumOfEntries())
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_OVERFLOW_QUEUE_ENTRIES, ME, method + ": Queue overflow (number of entries), " +
+               this.index.size() + " entries are in queue, try increasing property '" + this.property.getPropName("maxEntries") + "'");
+      if (this.numOfBytes > getMaxNumOfBytes())
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_OVERFLOW_QUEUE_BYTES, ME, method + ": Queue overflow, " +
+               this.numOfBytes + " bytes are in queue, try increasing property '" + this.property.getPropName("maxBytes") + "'");
+   }
+
+   /**
+    * @see I_Queue#setProperties(Object)
+    */
+   public void setProperties(Object userData) throws XmlBlasterException {
+      if (userData == null) return;
+      try {
+         this.property = (QueuePropertyBase)userData;
+      }
+      catch(Throwable e) {
+         throw XmlBlasterException.convert(this.glob, ME, "Can't configure queue, your properties are invalid", e);
+      }
+   }
+
+   /**
+    * Access the current queue configuration
+    */
+   public Object getProperties() {
+      return this.property;
+   }
+
+   public void setNotifiedAboutAddOrRemove(boolean notify) {
+      this.notifiedAboutAddOrRemove = notify;
+   }
+
+   public boolean isNotifiedAboutAddOrRemove() {
+      return this.notifiedAboutAddOrRemove;
+   }
+
+   /**
+    * @see I_Queue#addPutListener(I_QueuePutListener)
+    */
+   public void addPutListener(I_QueuePutListener l) {
+      if (l == null)
+         throw new IllegalArgumentException(ME + ": addPustListener(null) is not allowed");
+      if (this.putListener != null)
+         throw new IllegalArgumentException(ME + ": addPustListener() failed, there is a listener registered already");
+      this.putListener = l;
+   }
+
+   /**
+    * @see I_Queue#removePutListener(I_QueuePutListener)
+    */
+   public void removePutListener(I_QueuePutListener l) {
+      this.putListener = null;
+   }
+
+   /**
+    * @see I_Queue#getEntryReferences()
+    */
+   public long[] getEntryReferences() throws XmlBlasterException {
+      throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_NOTIMPLEMENTED, ME, "getEntryReferences not implemented");
+   }
+
+   /**
+    * @see I_Queue#getEntries(I_EntryFilter)
+    */
+   public List getEntries(I_EntryFilter entryFilter) throws XmlBlasterException {
+      ArrayList list;
+      synchronized (this.modificationMonitor) {
+         list = new ArrayList(this.index);
+      }
+      return createEntries(list, entryFilter);
+   }
+
+   /**
+    * @see I_Queue#put(I_QueueEntry, boolean)
+    */
+   public void put(I_QueueEntry queueEntry, boolean ignorePutInterceptor) throws XmlBlasterException {
+      if (queueEntry == null)
+         return;
+      put(new I_QueueEntry[] { queueEntry }, ignorePutInterceptor);
+   }
+
+   /**
+    * All entries are appended to the journal and forced to disk together.
+    * @see I_Queue#put(I_QueueEntry[], boolean)
+    */
+   public void put(I_QueueEntry[] queueEntries, boolean ignorePutInterceptor) throws XmlBlasterException {
+      if (queueEntries == null || queueEntries.length == 0)
+         return;
+
+      if ((this.putListener != null) && (!ignorePutInterceptor)) {
+         // Is an interceptor registered (and not bypassed) ?
+         if (this.putListener.putPre(queueEntries) == false)
+            return;
+      }
+
+      ArrayList added = null;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("put");
+         checkSpaceLeft("put");
+         for (int i=0; i<queueEntries.length; i++) {
+            if (queueEntries[i] == null)
+               continue;
+            if (appendEntry(queueEntries[i]) && this.notifiedAboutAddOrRemove) {
+               if (added == null) added = new ArrayList();
+               added.add(queueEntries[i]);
+            }
+         }
+         compact();
+      }
+      commit();
+      if (added != null) {
+         for (int i=0; i<added.size(); i++)
+            ((I_Entry)added.get(i)).added(this.storageId);
+      }
+
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      if (this.putListener != null && !ignorePutInterceptor) {
+         this.putListener.putPost(queueEntries);
+      }
+   }
+
+   /**
+    * Returns the unique ID of this queue
+    */
+   public StorageId getStorageId() {
+      return this.storageId;
+   }
+
+   /**
+    * Collects the index entries in priority order.
+    * @param minPrio if negative only entries with the priority of the first entry are taken
+    */
+   private ArrayList genericPeek(Iterator iter, int numOfEntries, long numOfBytes, int minPrio, int maxPrio) {
+      ArrayList ret = new ArrayList();
+      long countBytes = 0L;
+      while (iter.hasNext() && (ret.size()<numOfEntries||numOfEntries<0)) {
+         IndexEntry entry = (IndexEntry)iter.next();
+         if ((countBytes+entry.sizeInBytes>=numOfBytes) && ret.size()>0 && numOfBytes>-1) break;
+         int prio = entry.priority;
+         if (minPrio < 0) {
+            minPrio = prio;
+            maxPrio = minPrio;
+         }
+         if (prio < minPrio) break;
+         if (prio <= maxPrio) {
+            countBytes += entry.sizeInBytes;
+            ret.add(entry);
+         }
+      }
+      return ret;
+   }
+
+   private ArrayList peekIndex(int numOfEntries, long numOfBytes, int minPrio, int maxPrio) {
+      synchronized (this.modificationMonitor) {
+         return genericPeek(this.index.iterator(), numOfEntries, numOfBytes, minPrio, maxPrio);
+      }
+   }
+
+   /**
+    * @see I_Queue#takeWithPriority(int,long,int,int)
+    */
+   public List takeWithPriority(int numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      ArrayList ret;
+      synchronized (this.modificationMonitor) {
+         ret = peekWithPriority(numOfEntries, numOfBytes, minPriority, maxPriority);
+         removeRandom((I_Entry[])ret.toArray(new I_Entry[ret.size()]));
+      }
+      return ret;
+   }
+
+   /**
+    * Helper method to find out if still to retrieve entries in takeLowest or not.
+    */
+   private final boolean isInsideRange(int numEntries, int maxNumEntries, long numBytes, long maxNumBytes) {
+      if (maxNumEntries < 0) {
+         if (maxNumBytes <0L) return true;
+         return numBytes < maxNumBytes;
+      }
+      if (maxNumBytes <0L) return numEntries < maxNumEntries;
+      return numEntries < maxNumEntries || numBytes < maxNumBytes;
+   }
+
+   private ArrayList takeOrPeekLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne, boolean doDelete)
+      throws XmlBlasterException {
+      ArrayList ret;
+      synchronized (this.modificationMonitor) {
+         IndexEntry limit = (limitEntry == null) ? null : new IndexEntry(limitEntry.getUniqueId(), limitEntry.getPriority());
+         ArrayList list = new ArrayList();
+         Iterator iter = this.index.descendingIterator();
+         long totalSizeInBytes = 0L;
+         while (iter.hasNext()) {
+            IndexEntry entry = (IndexEntry)iter.next();
+            if (!isInsideRange(list.size(), numOfEntries, totalSizeInBytes, numOfBytes)) break;
+            totalSizeInBytes += entry.sizeInBytes;
+            if (limit != null && this.comparator.compare(limit, entry) >= 0) break;
+            list.add(entry);
+         }
+         if (leaveOne && this.index.size() == list.size() && list.size() > 0)
+            list.remove(list.size()-1);
+         ret = createEntries(list, null);
+         if (doDelete)
+            removeRandom((I_Entry[])ret.toArray(new I_Entry[ret.size()]));
+      }
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#takeLowest(int, long, I_QueueEntry, boolean)
+    */
+   public List takeLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne) throws XmlBlasterException {
+      return takeOrPeekLowest(numOfEntries, numOfBytes, limitEntry, leaveOne, true);
+   }
+
+   /**
+    * @see I_Queue#peekLowest(int, long, I_QueueEntry, boolean)
+    */
+   public List peekLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne) throws XmlBlasterException {
+      return takeOrPeekLowest(numOfEntries, numOfBytes, limitEntry, leaveOne, false);
+   }
+
+   /**
+    * @see I_Queue#peek()
+    */
+   public I_QueueEntry peek() throws XmlBlasterException {
+      ArrayList list = peek(1, -1L);
+      return (list.size() < 1) ? null : (I_QueueEntry)list.get(0);
+   }
+
+   /**
+    * @see I_Queue#peek(int,long)
+    */
+   public ArrayList peek(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      if (numOfEntries == 0) return new ArrayList();
+      return createEntries(peekIndex(numOfEntries, numOfBytes, 0, Integer.MAX_VALUE), null);
+   }
+
+   /**
+    * @see I_Queue#peekStartAt(int,long,I_QueueEntry)
+    */
+   public ArrayList peekStartAt(int numOfEntries, long numOfBytes, I_QueueEntry firstEntryExlusive) throws XmlBlasterException {
+      if (firstEntryExlusive == null)
+         return peek(numOfEntries, numOfBytes);
+      if (numOfEntries == 0) return new ArrayList();
+      ArrayList list;
+      synchronized (this.modificationMonitor) {
+         IndexEntry start = new IndexEntry(firstEntryExlusive.getUniqueId(), firstEntryExlusive.getPriority());
+         list = genericPeek(this.index.tailSet(start, false).iterator(), numOfEntries, numOfBytes, 0, Integer.MAX_VALUE);
+      }
+      return createEntries(list, null);
+   }
+
+   /**
+    * @see I_Queue#peekSamePriority(int, long)
+    */
+   public ArrayList peekSamePriority(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      if (numOfEntries == 0) return new ArrayList();
+      return createEntries(peekIndex(numOfEntries, numOfBytes, -1, -1), null);
+   }
+
+   /**
+    * @see I_Queue#peekWithPriority(int, long, int, int)
+    */
+   public ArrayList peekWithPriority(int numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      if (numOfEntries == 0) return new ArrayList();
+      return createEntries(peekIndex(numOfEntries, numOfBytes, minPriority, maxPriority), null);
+   }
+
+   /**
+    * @see I_Queue#peekWithLimitEntry(I_QueueEntry)
+    * @deprecated
+    */
+   @Deprecated
+   public ArrayList peekWithLimitEntry(I_QueueEntry limitEntry) throws XmlBlasterException {
+      if (limitEntry == null) return new ArrayList();
+      ArrayList list;
+      synchronized (this.modificationMonitor) {
+         list = new ArrayList(this.index.headSet(new IndexEntry(limitEntry.getUniqueId(), limitEntry.getPriority())));
+      }
+      return createEntries(list, null);
+   }
+
+   /**
+    * @see I_Queue#removeWithLimitEntry(I_QueueEntry, boolean)
+    */
+   public long removeWithLimitEntry(I_QueueEntry limitEntry, boolean inclusive) throws XmlBlasterException {
+      if (limitEntry == null) return 0L;
+      ArrayList list;
+      synchronized (this.modificationMonitor) {
+         list = new ArrayList(this.index.headSet(new IndexEntry(limitEntry.getUniqueId(), limitEntry.getPriority()), inclusive));
+      }
+      return removeIndexEntries(list);
+   }
+
+   /**
+    * @see I_Queue#remove()
+    */
+   public int remove() throws XmlBlasterException {
+      return (int)removeNum(1L);
+   }
+
+   /**
+    * @see I_Queue#removeNum(long)
+    */
+   public long removeNum(long numOfEntries) throws XmlBlasterException {
+      if (numOfEntries == 0)
+         return 0L;
+      if (numOfEntries > Integer.MAX_VALUE)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "remove: too many entries to remove " + numOfEntries);
+      return removeIndexEntries(peekIndex((int)numOfEntries, -1L, 0, Integer.MAX_VALUE));
+   }
+
+   /**
+    * Removes the given index entries, notifies the entries if needed.
+    * @return The number of removed entries
+    */
+   private long removeIndexEntries(ArrayList list) throws XmlBlasterException {
+      if (list.size() == 0)
+         return 0L;
+      ArrayList removed = null;
+      if (this.notifiedAboutAddOrRemove)
+         removed = createEntries(list, null);
+      long[] ids = new long[list.size()];
+      int num = 0;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("remove");
+         for (int i=0; i<list.size(); i++) {
+            long id = ((IndexEntry)list.get(i)).uniqueId;
+            if (this.indexById.containsKey(new Long(id)))
+               ids[num++] = id;
+         }
+         for (int i=0; i<num; i++)
+            removeFromIndex(ids[i]);
+         appendRemove(ids, num);
+         compact();
+      }
+      commit();
+      if (removed != null) {
+         for (int i=0; i<removed.size(); i++)
+            ((I_Entry)removed.get(i)).removed(this.storageId);
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return num;
+   }
+
+   /**
+    * @see I_Queue#removeRandom(I_Entry)
+    */
+   public int removeRandom(I_Entry entry) throws XmlBlasterException {
+      if (entry == null)
+         return 0;
+      return removeRandom(new I_Entry[] { entry })[0] ? 1 : 0;
+   }
+
+   /**
+    * @see I_Queue#removeRandom(I_Entry[])
+    */
+   public boolean[] removeRandom(I_Entry[] queueEntries) throws XmlBlasterException {
+      if (queueEntries == null)
+         return new boolean[0];
+      boolean[] ret = new boolean[queueEntries.length];
+      long[] ids = new long[queueEntries.length];
+      int num = 0;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("removeRandom");
+         for (int i=0; i<queueEntries.length; i++) {
+            if (queueEntries[i] == null)
+               continue;
+            long id = queueEntries[i].getUniqueId();
+            if (this.indexById.containsKey(new Long(id))) {
+               ret[i] = true;
+               ids[num++] = id;
+            }
+         }
+         for (int i=0; i<num; i++)
+            removeFromIndex(ids[i]);
+         appendRemove(ids, num);
+         compact();
+      }
+      commit();
+      if (this.notifiedAboutAddOrRemove) {
+         for (int i=0; i<queueEntries.length; i++) {
+            if (ret[i])
+               queueEntries[i].removed(this.storageId);
+         }
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#removeWithPriority(long, long, int, int)
+    */
+   public long removeWithPriority(long numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      if (numOfEntries > Integer.MAX_VALUE)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "remove: too many entries to remove " + numOfEntries);
+      return removeIndexEntries(peekIndex((int)numOfEntries, numOfBytes, minPriority, maxPriority));
+   }
+
+   /**
+    * @see I_Queue#getNumOfEntries()
+    */
+   public long getNumOfEntries() {
+      synchronized (this.modificationMonitor) {
+         return (this.index == null) ? 0L : this.index.size();
+      }
+   }
+
+   /**
+    * @see I_Queue#getNumOfPersistentEntries()
+    */
+   public long getNumOfPersistentEntries() {
+      return this.numOfPersistentEntries;
+   }
+
+   /**
+    * @see I_Queue#getMaxNumOfEntries()
+    */
+   public long getMaxNumOfEntries() {
+      return this.property.getMaxEntries();
+   }
+
+   /**
+    * @see I_Queue#getNumOfBytes()
+    */
+   public long getNumOfBytes() {
+      return this.numOfBytes;
+   }
+
+   /**
+    * @see I_Queue#getNumOfPersistentBytes()
+    */
+   public long getNumOfPersistentBytes() {
+      return this.numOfPersistentBytes;
+   }
+
+   /**
+    * @return The number of bytes appended to the journal since startup (all records, not only the live ones)
+    */
+   public long getNumOfWrittenBytes() {
+      FileJournal journal = this.journal;
+      return (journal == null) ? 0L : journal.getNumWrittenBytes();
+   }
+
+   /**
+    * @see I_Queue#getMaxNumOfBytes()
+    */
+   public long getMaxNumOfBytes() {
+      return this.property.getMaxBytes();
+   }
+
+   /**
+    * Removes all entries, a CLEAR record is written and all older segments are deleted.
+    * @see I_Queue#clear()
+    */
+   public long clear() {
+      List removed = null;
+      long ret = 0L;
+      try {
+         if (this.notifiedAboutAddOrRemove)
+            removed = getEntries(null);
+         synchronized (this.modificationMonitor) {
+            if (this.isDown)
+               return 0L;
+            ret = this.index.size();
+            if (this.journal.getHead() != null) {
+               Buffer bytes = new Buffer(1);
+               bytes.write(RECORD_CLEAR);
+               append(bytes);
+               this.journal.sync();
+            }
+            clearIndex();
+            this.journal.removeAllButHead();
+         }
+      }
+      catch (XmlBlasterException ex) {
+         log.severe(ME + ": clear failed: " + ex.getMessage());
+      }
+      if (removed != null) {
+         for (int i=0; i<removed.size(); i++)
+            ((I_Entry)removed.get(i)).removed(this.storageId);
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#removeHead(I_QueueEntry)
+    */
+   public long removeHead(I_QueueEntry toEntry) throws XmlBlasterException {
+      throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_NOTIMPLEMENTED, ME, "removeHead not implemented");
+   }
+
+   /**
+    * Forces everything to disk, an empty journal is deleted
+    */
+   public void shutdown() {
+      synchronized (this.modificationMonitor) {
+         if (this.isDown)
+            return;
+         this.isDown = true;
+         if (this.index.size() == 0)
+            this.journal.delete();
+         else
+            this.journal.sync();
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      removeStorageSizeListener(null);
+      this.glob.getQueuePluginManager().cleanup(this);
+      if (log.isLoggable(Level.FINE)) log.fine(ME + ": shutdown");
+   }
+
+   public boolean isShutdown() {
+      return this.isDown;
+   }
+
+   /**
+    * Removes all entries and the journal files.
+    */
+   public void destroy() throws XmlBlasterException {
+      clear();
+      synchronized (this.modificationMonitor) {
+         if (this.journal != null)
+            this.journal.delete();
+      }
+      shutdown();
+      this.property = null;
+   }
+
+   /**
+    * @return a human readable usage help string
+    */
+   public String usage() {
+      return "Persistent queue on memory mapped journal files, configure with journal/path, journal/segmentSize, journal/syncMode, journal/syncInterval and journal/compactRatio";
+   }
+
+   /**
+    * @return Internal state as an XML ASCII string
+    */
+   public final String toXml(String extraOffset) {
+      StringBuffer sb = new StringBuffer(1000);
+      if (extraOffset == null) extraOffset = "";
+      String offset = Constants.OFFSET + extraOffset;
+
+      sb.append(offset).append("<FileQueuePlugin id='").append(getStorageId().getId());
+      sb.append("' type='").append(getType());
+      sb.append("' version='").append(getVersion());
+      sb.append("' numOfEntries='").append(getNumOfEntries());
+      sb.append("' numOfBytes='").append(getNumOfBytes());
+      sb.append("' numOfPersistentEntries='").append(getNumOfPersistentEntries());
+      sb.append("' numOfPersistentBytes='").append(getNumOfPersistentBytes());
+      sb.append("'>");
+      if (this.property != null)
+         sb.append(this.property.toXml(extraOffset+Constants.INDENT));
+      if (this.journal != null) {
+         sb.append(offset).append(" <journal path='").append(this.journal.getDir().getAbsolutePath());
+         sb.append("' numSegments='").append(this.journal.getNumSegments());
+         sb.append("' fileSize='").append(this.journal.getFileSize());
+         sb.append("' numSyncs='").append(this.journal.getNumSyncs());
+         sb.append("' numWrittenBytes='").append(this.journal.getNumWrittenBytes());
+         sb.append("'/>");
+      }
+      sb.append(offset).append("</FileQueuePlugin>");
+      return sb.toString();
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @see org.xmlBlaster.util.plugin.I_Plugin#init(org.xmlBlaster.util.Global, PluginInfo)
+    */
+   public void init(org.xmlBlaster.util.Global glob, PluginInfo pluginInfo) {
+      this.glob = glob;
+      this.pluginInfo = pluginInfo;
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @return "FILE"
+    */
+   public String getType() {
+      return "FILE";
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @return "1.0"
+    */
+   public String getVersion() {
+      return "1.0";
+   }
+
+   /**
+    * Enforced by I_StoragePlugin
+    * @return the pluginInfo object.
+    */
+   public PluginInfo getInfo() {
+      return this.pluginInfo;
+   }
+
+   /////////////////////////// I_Map implementation ///////////////////////
+   /**
+    * @see I_Map#get(long)
+    */
+   public I_MapEntry get(final long uniqueId) throws XmlBlasterException {
+      ArrayList list = new ArrayList(1);
+      synchronized (this.modificationMonitor) {
+         IndexEntry entry = (this.indexById == null) ? null : (IndexEntry)this.indexById.get(new Long(uniqueId));
+         if (entry == null)
+            return null;
+         list.add(entry);
+      }
+      list = createEntries(list, null);
+      return (list.size() < 1) ? null : (I_MapEntry)list.get(0);
+   }
+
+   /**
+    * @see I_Map#getAll(I_EntryFilter)
+    */
+   public I_MapEntry[] getAll(I_EntryFilter entryFilter) throws XmlBlasterException {
+      List list = getEntries(entryFilter);
+      return (I_MapEntry[])list.toArray(new I_MapEntry[list.size()]);
+   }
+
+   /**
+    * @see I_Map#put(I_MapEntry)
+    */
+   public int put(I_MapEntry mapEntry) throws XmlBlasterException {
+      if (mapEntry == null)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "put(I_MapEntry="+mapEntry+")");
+      boolean added;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("put");
+         checkSpaceLeft("put");
+         added = appendEntry(mapEntry);
+         compact();
+      }
+      if (!added)
+         return 0;
+      commit();
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return 1;
+   }
+
+   /**
+    * @see I_Map#remove(I_MapEntry)
+    */
+   public int remove(final I_MapEntry mapEntry) throws XmlBlasterException {
+      return removeRandom(mapEntry);
+   }
+
+   /**
+    * @see I_Map#remove(long)
+    */
+   public int remove(final long uniqueId) throws XmlBlasterException {
+      ArrayList list = new ArrayList(1);
+      synchronized (this.modificationMonitor) {
+         IndexEntry entry = (IndexEntry)this.indexById.get(new Long(uniqueId));
+         if (entry == null)
+            return 0;
+         list.add(entry);
+      }
+      return (int)removeIndexEntries(list);
+   }
+
+   /**
+    * @see I_Map#removeOldest()
+    */
+   public I_MapEntry removeOldest() throws XmlBlasterException {
+      throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_NOTIMPLEMENTED, ME, "removeOldest is not implemented");
+   }
+
+   /**
+    * The changed entry is written again, the old record is garbage from now on.
+    * @see I_Map#change(I_MapEntry, I_ChangeCallback)
+    */
+   public I_MapEntry change(I_MapEntry entry, I_ChangeCallback callback) throws XmlBlasterException {
+      I_MapEntry newEntry;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("change");
+         newEntry = entry;
+         if (callback != null)
+            newEntry = callback.changeEntry(entry);
+         if (newEntry == null)
+            return entry;
+         if (newEntry.isPersistent() != entry.isPersistent()) {
+            throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME + ".change",
+                  "changing  oldEntry.isPersistent=" + entry.isPersistent() + " to newEntry.isPersistent=" + newEntry.isPersistent() + "differs. This is not allowed");
+         }
+         IndexEntry old = removeFromIndex(entry.getUniqueId());
+         IndexEntry indexEntry = new IndexEntry(newEntry.getUniqueId(), newEntry.getPriority());
+         indexEntry.sizeInBytes = newEntry.getSizeInBytes();
+         indexEntry.persistent = newEntry.isPersistent();
+         if (old != null && old.uniqueId != indexEntry.uniqueId)
+            appendRemove(new long[] { old.uniqueId }, 1);
+         writeEntry(indexEntry, newEntry.getRef(), newEntry.getMeat());
+         addToIndex(indexEntry);
+         compact();
+      }
+      commit();
+      return newEntry;
+   }
+
+   /**
+    * @see I_Map#change(long, I_ChangeCallback)
+    */
+   public I_MapEntry change(long uniqueId, I_ChangeCallback callback) throws XmlBlasterException {
+      synchronized (this.modificationMonitor) {
+         I_MapEntry oldEntry = get(uniqueId);
+         if (oldEntry == null)
+            return null;
+         return change(oldEntry, callback);
+      }
+   }
+
+   /**
+    * Only the reference counters are written.
+    * @see I_Map#updateCounters(I_MapEntry)
+    */
+   public void updateCounters(I_MapEntry entry) throws XmlBlasterException {
+      if (entry == null)
+         return;
+      XBMeat meat = entry.getMeat();
+      if (meat == null)
+         return;
+      synchronized (this.modificationMonitor) {
+         checkIsUp("updateCounters");
+         IndexEntry indexEntry = (IndexEntry)this.indexById.get(new Long(entry.getUniqueId()));
+         if (indexEntry == null)
+            return;
+         Buffer bytes = new Buffer(25);
+         DataOutputStream out = new DataOutputStream(bytes);
+         try {
+            out.writeByte(RECORD_COUNTERS);
+            out.writeLong(indexEntry.uniqueId);
+            out.writeLong(meat.getRefCount());
+            out.writeLong(meat.getRefCount2());
+            out.flush();
+         }
+         catch (IOException e) {
+            throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME, "Serializing counters failed", e);
+         }
+         indexEntry.refCount = meat.getRefCount();
+         indexEntry.refCount2 = meat.getRefCount2();
+         append(bytes);
+         compact();
+      }
+      commit();
+   }
+
+   /**
+    * @see org.xmlBlaster.util.queue.I_StorageProblemNotifier#registerStorageProblemListener(I_StorageProblemListener)
+    */
+   public boolean registerStorageProblemListener(I_StorageProblemListener listener) {
+      return false;
+   }
+
+   /**
+    * @see org.xmlBlaster.util.queue.I_StorageProblemNotifier#unRegisterStorageProblemListener(I_StorageProblemListener)
+    */
+   public boolean unRegisterStorageProblemListener(I_StorageProblemListener listener) {
+      return false;
+   }
+
+   /**
+    * @see I_Queue#addStorageSizeListener(I_StorageSizeListener)
+    */
+   public void addStorageSizeListener(I_StorageSizeListener listener) {
+      this.storageSizeListenerHelper.addStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Queue#removeStorageSizeListener(I_StorageSizeListener)
+    */
+   public void removeStorageSizeListener(I_StorageSizeListener listener) {
+      this.storageSizeListenerHelper.removeStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Queue#hasStorageSizeListener(I_StorageSizeListener)
+    */
+   public boolean hasStorageSizeListener(I_StorageSizeListener listener) {
+      return this.storageSizeListenerHelper.hasStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Storage#getStorageSizeListeners()
+    */
+   public I_StorageSizeListener[] getStorageSizeListeners() {
+      return this.storageSizeListenerHelper.getStorageSizeListeners();
+   }
+
+   public long embeddedQueueObjectsToXml(OutputStream out, Properties props) throws Exception {
+      return embeddedObjectsToXml(out, props);
+   }
+
+   /**
+    * @see I_Map#embeddedObjectsToXml(OutputStream, Properties)
+    */
+   public long embeddedObjectsToXml(final OutputStream out, final Properties props) throws Exception {
+      if (out == null) return 0;
+      this.entryCounter = 0;
+      getEntries(new I_EntryFilter() {
+         public I_Entry intercept(I_Entry entry, I_Storage storage) {
+            entryCounter++;
+            try {
+               entry.embeddedObjectToXml(out, props);
+            }
+            catch (IOException e) {
+               log.warning("Ignoring dumpToFile() problem: "+e.toString());
+            }
+            return null;
+         }
+      });
+      return this.entryCounter;
+   }
+}
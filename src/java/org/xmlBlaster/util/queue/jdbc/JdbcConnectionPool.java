@@ -10,8 +10,14 @@ package org.xmlBlaster.util.queue.jdbc;
 
 //import org.apache.commons.lang.text.StrTokenizer;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import org.xmlBlaster.util.ReplaceVariable;
@@ -29,6 +35,8 @@ import java.sql.Statement;
 import java.util.Hashtable;
 
 import org.xmlBlaster.util.I_Timeout;
+import org.xmlBlaster.util.LatencyHistogram;
+import org.xmlBlaster.util.context.ContextNode;
 import org.xmlBlaster.util.def.ErrorCode;
 
 import org.xmlBlaster.util.queue.I_StorageProblemListener;
@@ -39,17 +47,38 @@ import org.xmlBlaster.util.queue.I_StorageProblemNotifier;
 /**
  * A Pool of connections to the database to be used for a persistent queue. To
  * keep genericity, queries and update strings are read from properties.
+ * <p>
+ * The free connections are kept in a lock free list, a fair semaphore counts the free
+ * slots so that waiting threads get a connection in arrival order and never wait longer than
+ * <code>connectionBusyTimeout</code>. A slot whose connection was discarded is filled
+ * with a new connection by the next thread taking it.
+ * </p>
+ * <p>
+ * Connections are not checked on checkout, idle connections are validated every
+ * <code>validationInterval</code> milliseconds (0 switches validation off) and broken ones
+ * are replaced. The validation runs on the dispatch worker pool so that a slow
+ * <code>isValid()</code> does not block the timer shared by all pools.
+ * The wait and hold time histograms are available over JMX.
+ * </p>
+ * <p>
+ * Each pool owns its prepared statement cache, switched off with <code>statementCache=false</code>.
+ * </p>
  * @see <a href="http://www.xmlBlaster.org/xmlBlaster/doc/requirements/queue.jdbc.commontable.html">The queue.jdbc.commontable requirement</a>
  */
-public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
+public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier, JdbcConnectionPoolMBean {
    private static String ME = "JdbcConnectionPool";
    private static Logger log = Logger.getLogger(JdbcConnectionPool.class.getName());
    private Global glob = null;
-   private LinkedBlockingQueue<Connection> connections;
+   /** The free connections */
+   private final ConcurrentLinkedQueue<Connection> connections = new ConcurrentLinkedQueue<Connection>();
+   /** The connections given out and the System.nanoTime() of the checkout */
+   private final Map<Connection, Long> busyConnections = new ConcurrentHashMap<Connection, Long>();
+   /** Counts the free slots, a free slot has a connection in 'connections' or none if it was discarded */
+   private Semaphore freeSlots = new Semaphore(0, true);
    
    /** the initial capacity of this pool. */
    private int capacity;
-   private int waitingCalls = 0;
+   private final AtomicInteger waitingCalls = new AtomicInteger();
    private long connectionBusyTimeout = 20*60*1000L; /* On high load we wait up to 20 min until xmlBlaster shuts down */
    private int   maxWaitingThreads = 200;
    private Hashtable<String, String> mapping = null;
@@ -59,7 +88,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    private String colNamePrefix = "";     // SQLServer does not allow column name 'byteSize' and 'dataId', so we can add a token e.g. XBbyteSize, XBdataId
    private int tableAllocationIncrement = 2;
    /** will be set when a connecton is broken */
-   private int status = I_StorageProblemListener.UNDEF;
+   private volatile int status = I_StorageProblemListener.UNDEF;
    private boolean waitingForReentrantConnections = false;
    private String url;
    private String user;
@@ -79,7 +108,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    */
    private int queryTimeout = 0; // wait indefinitely
    private int managerCount = 0;
-   private boolean isShutdown = false;
+   private volatile boolean isShutdown = false;
    private boolean enableBatchMode;
    private String configurationIdentifier;
    private boolean cascadeDeleteSupported;
@@ -89,6 +118,24 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    
    private final int MIN_POOL_SIZE = 1;
 
+   /** Timer userData to distinguish the idle validation from the reconnect polling */
+   private static final String VALIDATE = "validate";
+   private static final AtomicInteger instanceCounter = new AtomicInteger();
+   /** Validation of idle connections [millis], 0 is off */
+   private long validationInterval = 60000L;
+   private boolean validationSupported = true;
+   private final LatencyHistogram waitHistogram = new LatencyHistogram();
+   private final LatencyHistogram holdHistogram = new LatencyHistogram();
+   private final AtomicLong numTimeouts = new AtomicLong();
+   private final AtomicLong numDiscarded = new AtomicLong();
+   private final AtomicLong numValidated = new AtomicLong();
+   private final AtomicLong numInvalid = new AtomicLong();
+   /** Set while a validation is running on the dispatch worker pool */
+   private final AtomicBoolean validating = new AtomicBoolean();
+   private XBStatementCache statementCache = new XBStatementCache(true);
+   private ContextNode contextNode;
+   private Object mbeanHandle;
+
    /**
     * returns the plugin properties, i.e. the specific properties passed to the jdbc queue plugin.
     * These are commonly used by the jdbc manager.
@@ -102,11 +149,37 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    * @see I_Timeout#timeout(Object)
    */
    public void timeout(Object userData) {
+      if (VALIDATE.equals(userData)) {
+         if (!this.validating.compareAndSet(false, true))
+            return;
+         Runnable validation = new Runnable() {
+            public void run() {
+               try {
+                  validateIdleConnections();
+               }
+               finally {
+                  validating.set(false);
+                  if (!isShutdown && validationSupported && validationInterval > 0L)
+                     glob.getJdbcConnectionPoolTimer().addTimeoutListener(JdbcConnectionPool.this, validationInterval, VALIDATE);
+               }
+            }
+         };
+         boolean started = false;
+         try {
+            started = this.glob.getDispatchWorkerPool().execute(validation);
+         }
+         catch (InterruptedException e) {
+            log.warning("Could not start the validation of idle connections on the dispatch worker pool: " + e.toString());
+         }
+         if (!started)
+            validation.run();
+         return;
+      }
       log.info("Timeout, trying DB reconnect, current index: " + this.connections.size() + ", waiting for reentrant connections: " + this.waitingForReentrantConnections);
 
       synchronized (this) {
          if (this.waitingForReentrantConnections) {
-            if (this.connections.size() == this.capacity)
+            if (this.busyConnections.isEmpty())
                this.waitingForReentrantConnections = false;
             else {
                // respan the timer ...
@@ -156,99 +229,122 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
 
 
    /**
-    * returns null if no connection available
+    * Takes a free connection, waits in arrival order for up to 'delay' millis.
+    * @throws XmlBlasterException if no connection was freed in time
     */
    private Connection get(long delay) throws XmlBlasterException {
       if (log.isLoggable(Level.FINER)) log.finer("get invoked");
-      Connection conn = null;
-      if (this.connections.size() > this.capacity)
-         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME, "get: Inconsistency in connection index: a negative one is not possible: '" + this.connections.size() + "'");
-   
-      if (log.isLoggable(Level.FINE)) log.fine("going to retreive a connection");
+      long start = System.nanoTime();
+      boolean gotSlot = false;
       try  {
-         conn = (Connection)this.connections.poll(delay, TimeUnit.MILLISECONDS); // Return and remove an item from channel only if one is available within msecs milliseconds.
-         if (conn != null) { // assert code
-            setInPool(conn, false);
-            /*
-            try {
-               if (!conn.getAutoCommit()) {
-                  log.severe("Get error, expected autoCommit=true but was false" + ThreadLister.getAllStackTraces());
-                  conn.setAutoCommit(true);
-               }
-            }
-            catch (Throwable e) {
-               log.severe("Get error, expected autoCommit=true but got exception: " + e.toString() + ThreadLister.getAllStackTraces());
-            }
-            */
-         }
+         gotSlot = this.freeSlots.tryAcquire(delay, TimeUnit.MILLISECONDS);
       }
       catch (InterruptedException ex) {
          log.warning("the waiting for a connection was interrupted: " + ex.getMessage());
       }
-      if (log.isLoggable(Level.FINE)) log.fine("retreived the connection");
-      if (conn == null)
+      long now = System.nanoTime();
+      this.waitHistogram.add(now - start);
+      if (!gotSlot) {
+         this.numTimeouts.incrementAndGet();
          throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNAVAILABLE, ME,
             "get: connectionBusyTimeout=" + this.connectionBusyTimeout +
             " occured when waiting for a free DB connection (see xmlBlaster.properties)." +
             " Either the timeout is too short or other connections are blocking, waitingCalls=" +
-            this.waitingCalls +
+            this.waitingCalls.get() +
             ", connectionPoolSize=" + this.capacity);
+      }
+      Connection conn = this.connections.poll();
+      if (conn == null) { // the connection of this slot was discarded
+         try {
+            conn = createNewConnection(false);
+         }
+         catch (SQLException ex) {
+            this.freeSlots.release();
+            throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNAVAILABLE, ME,
+               "get: Could not replace a discarded connection: " + ex.getMessage(), ex);
+         }
+      }
+      this.busyConnections.put(conn, new Long(now));
+      if (log.isLoggable(Level.FINE)) log.fine("retreived the connection");
       return conn;             
    }
 
-
+   /**
+    * Gives a connection back to the free list.
+    * @return false if the connection was not taken from this pool
+    */
    private boolean put(Connection conn) throws XmlBlasterException {
-      if (log.isLoggable(Level.FINER)) {
-         String warning = "";
-         try {
-            SQLException warn = conn.getWarnings();
-            warning = warn.getMessage();
-         }
-         catch (Throwable e) {}
-         log.finer("put invoked " + warning);
-      }
+      if (log.isLoggable(Level.FINER)) log.finer("put invoked");
       if (conn == null) return false;
+      if (!checkin(conn))
+         return false;
+      this.connections.offer(conn);
+      this.freeSlots.release();
+      return true;
+   }
 
-      if (isInPool(conn)) { // assert code
-         log.severe("Put error, the returned connection is already in the pool: " + ThreadLister.getAllStackTraces());
-         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALSTATE, ME, 
-               "Put error, the returned connection is already in the pool");
-      }
-      /*
-      try {
-         if (!conn.getAutoCommit()) { // assert
-            log.severe("Put error, expected autoCommit=true but was false" + ThreadLister.getAllStackTraces());
-            conn.setAutoCommit(true);
+   /**
+    * Removes the connection from the busy ones and measures the time it was used.
+    * @return false if it is not busy
+    */
+   private boolean checkin(Connection conn) {
+      Long start = (Long)this.busyConnections.remove(conn);
+      if (start == null)
+         return false;
+      this.holdHistogram.add(System.nanoTime() - start.longValue());
+      return true;
+   }
+
+   /**
+    * Validates the idle connections, each one is taken out of the pool during its check.
+    */
+   private void validateIdleConnections() {
+      int num = this.connections.size();
+      int timeoutSec = (this.queryTimeout > 0) ? this.queryTimeout : 5;
+      for (int i=0; i < num && !this.isShutdown; i++) {
+         if (!this.freeSlots.tryAcquire())
+            return; // all busy, they are validated the next time
+         Connection conn = this.connections.poll();
+         if (conn == null) {
+            this.freeSlots.release();
+            return;
          }
-      }
-      catch (Throwable e) {
-         log.severe("Put error, expected autoCommit=true but got exception: " + e.toString() + ThreadLister.getAllStackTraces());
-         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALSTATE, ME, 
-               "Put error, expected autoCommit=true but got exception", e);
-      }
-      */
-      try {
-         setInPool(conn, true);
-         boolean tmp = this.connections.offer(conn, 5L, TimeUnit.MILLISECONDS);
-         return tmp;
-      }
-      catch (InterruptedException ex) {
-         log.warning("put: an interruption occured: " + ex.getMessage());
-         boolean ret = false;
-         // we do this loop since a CTRL-C could cause an interrupted exception 
-         // and thereby cause the loss of one entry in the connection pool.
-         for (int i=0; i < 3; i++) {
+         boolean valid = true;
+         try {
+            valid = conn.isValid(timeoutSec);
+         }
+         catch (Throwable ex) { // AbstractMethodError or SQLFeatureNotSupportedException of old drivers
+            log.info("The JDBC driver does not support Connection.isValid(), validation of idle connections is switched off: " + ex.toString());
+            this.validationSupported = false;
+         }
+         this.numValidated.incrementAndGet();
+         if (!valid) {
+            this.numInvalid.incrementAndGet();
+            log.warning("Replacing invalid idle connection to '" + this.url + "'");
+            closeConnection(conn);
             try {
-               ret = this.connections.offer(conn, 5L, TimeUnit.MILLISECONDS);
-               setInPool(conn, true);
-               break;
+               conn = createNewConnection(false);
             }
-            catch (InterruptedException e) {
-               log.warning("put: an interruption occured #" + i + " : " + e.getMessage());
+            catch (SQLException ex) {
+               log.warning("Could not replace invalid connection, will try again on next usage: " + ex.getMessage());
+               conn = null;
             }
          }
-         //if (i >= 3) is logged by calling function
-         return ret;
+         if (conn != null)
+            this.connections.offer(conn);
+         this.freeSlots.release();
+         if (!this.validationSupported)
+            return;
+      }
+   }
+
+   private void closeConnection(Connection conn) {
+      this.statementCache.remove(conn);
+      try {
+         conn.close();
+      }
+      catch (Throwable ex) {
+         log.warning("Could not close the connection to be discarded");
       }
    }
 
@@ -285,7 +381,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       if (conn == null)
          throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNKNOWN, "discardConnection", "The connection to discard is null"); 
       if (log.isLoggable(Level.FINER)) 
-         log.finer("discardConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls);
+         log.finer("discardConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls.get());
       try {
          SQLWarning warns = conn.getWarnings();
          if (log.isLoggable(Level.FINE)) {
@@ -299,18 +395,21 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
          log.warning("clearWarnings() failed: " + e.toString());
       }
       
+      boolean wasBusy = checkin(conn);
+      closeConnection(conn);
+      this.numDiscarded.incrementAndGet();
+      if (!wasBusy)
+         return;
+      Connection fresh = null;
       try {
-         conn.close();
-      }
-      catch (Throwable ex) {
-         log.warning("Could not close the connection to be discarded");
-      }
-      try {
-         addConnectionToPool(false);
+         fresh = createNewConnection(false);
       }
       catch (SQLException ex) {
-         log.warning("Could not add a fresh connection to the pool after discarding");
+         log.warning("Could not add a fresh connection to the pool after discarding, will try again on next usage");
       }
+      if (fresh != null)
+         this.connections.offer(fresh);
+      this.freeSlots.release(); // an empty slot is filled by get()
    }
    
 
@@ -380,8 +479,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    
 
    private synchronized void addConnectionToPool(boolean doLog) throws SQLException {
-      try {
-         if (this.connections.size() == this.capacity) {
+         if (this.connections.size() + this.busyConnections.size() >= this.capacity) {
             log.severe("Can't add more JDBC connections to pool, capacity="
                   + this.capacity + " is reached");
             return;
@@ -397,13 +495,9 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
          }
          if (this.forceIsolationLevel != -1)
             conn.setTransactionIsolation(this.forceIsolationLevel);
-         this.connections.put(conn);
-         setInPool(conn, true);
+         this.connections.offer(conn);
+         this.freeSlots.release();
          // log.info(ME, "DriverManager:" + buf.toString());
-      }
-      catch (InterruptedException e) {
-         log.severe("connect: an interrupted exception occured " + e.getMessage());
-      }
    }
    
    /**
@@ -415,7 +509,8 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       I_StorageProblemListener lst = null;
       synchronized(this) {
          if (disconnectFirst) disconnect();
-         for (int i = 0; i < this.capacity; i++) {
+         // connections still in use are given back later
+         for (int i = this.busyConnections.size(); i < this.capacity; i++) {
             if (log.isLoggable(Level.FINE)) log.fine("initializing DB connection "+ i + " url=" + url + " user=" + user); // + " password=" + password);
             //Logging since JDK 1.3:
             //java.io.OutputStream buf = new java.io.ByteArrayOutputStream();
@@ -566,6 +661,17 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
          log.warning("the 'maxWaitingThreads' plugin-property is not parseable: '" + help + "' will be using the default '" + this.maxWaitingThreads + "'");
       }
 
+      help = getProp("validationInterval", "" + this.validationInterval);
+      try {
+         this.validationInterval = Long.parseLong(help.trim());
+      }
+      catch (Exception ex) {
+         log.warning("the 'validationInterval' plugin-property is not parseable: '" + help + "' will be using the default '" + this.validationInterval + "'");
+      }
+
+      help = getProp("statementCache", "" + this.statementCache.isEnabled());
+      this.statementCache = new XBStatementCache(Boolean.valueOf(help.trim()).booleanValue());
+
       help = pluginProp.getProperty("queryTimeout", "" + this.queryTimeout);
       try {
          this.queryTimeout = Integer.parseInt(help);
@@ -640,6 +746,8 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
          log.finest("initialize -cascadeDeleteSupported :" + this.cascadeDeleteSupported);
          log.finest("initialize -nestedBracketsSupported:" + this.nestedBracketsSupported);
          log.finest("initialize -debug                  :" + this.debug);
+         log.finest("initialize -validationInterval     :" + this.validationInterval);
+         log.finest("initialize -statementCache         :" + this.statementCache.isEnabled());
          
          if (this.configurationIdentifier != null) 
             log.finest("initialize -configurationIdentifier:" + this.configurationIdentifier);
@@ -647,8 +755,6 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
 
       // could block quite a long time if the number of connections is big
       // or if the connection to the DB is slow.
-      this.connections = new LinkedBlockingQueue<Connection>(this.capacity);
-      //this.connections.setCapacity(this.capacity);
       try {
          // initializing and establishing of connections to DB (but first disconnect if already connected)
          final boolean disconnectFirst = true;
@@ -683,9 +789,24 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
          disconnect(-1L, false);
          throw ex;
       }
+      if (this.validationInterval > 0L)
+         this.glob.getJdbcConnectionPoolTimer().addTimeoutListener(this, this.validationInterval, VALIDATE);
+      registerMBean();
       log.info("Connections to DB '" + url + "' successfully established.");
    }
 
+   private void registerMBean() throws XmlBlasterException {
+      boolean registerJmx = this.glob.get("xmlBlaster/jmx/registerJdbcConnectionPool", true, null, null);
+      if (!registerJmx || this.mbeanHandle != null)
+         return;
+      String name = (this.configurationIdentifier != null) ? this.configurationIdentifier : "pool" + instanceCounter.incrementAndGet();
+      // For JMX instanceName may not contain ","
+      name = ReplaceVariable.replaceAll(name, ",", "_");
+      this.contextNode = new ContextNode(ContextNode.SERVICE_MARKER_TAG,
+                          "JdbcConnectionPool[" + name + "]", this.glob.getScopeContextNode());
+      this.mbeanHandle = this.glob.registerMBean(this.contextNode, this);
+   }
+
 
    /**
     * @return the prefix for the name of the tables to associate to the queues
@@ -791,13 +912,16 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       return this.mapping;
    }
 
+   /**
+    * Closes the free connections, the ones in use are given back later.
+    */
    synchronized private final void disconnect(long waitTime, boolean silent) {
-      if (waitTime < 5L) waitTime = 5L;
       Connection conn = null;
-      for (int i=0; i < this.connections.size(); i++) {
+      while (this.freeSlots.tryAcquire()) {
+         conn = this.connections.poll();
+         if (conn == null) continue; // an empty slot of a discarded connection
          try {
-            conn = get(waitTime);            
-            if (conn == null) break;
+            this.statementCache.remove(conn);
             // It is <b>strongly recommended</b> that an application explicitly 
             // commits or rolls back an active transaction prior to calling the 
             // <code>close</code> method.  If the <code>close</code> method is called
@@ -886,13 +1010,11 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
    public Connection getConnection() throws XmlBlasterException {
       if (this.status != I_StorageProblemListener.AVAILABLE) 
          throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNAVAILABLE, ME, "getConnection: Connection Lost. Going in polling modus");
-      if (this.waitingCalls >= this.maxWaitingThreads)
+      if (this.waitingCalls.incrementAndGet() > this.maxWaitingThreads) {
+         this.waitingCalls.decrementAndGet();
          throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_TOO_MANY_THREADS, ME, "Too many threads waiting for a connection to the DB. Increase the property 'queue.persistent.maxWaitingThreads'");
-
-      synchronized (this) {
-         this.waitingCalls++;
       }
-      if (log.isLoggable(Level.FINER)) log.finer("getConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls);
+      if (log.isLoggable(Level.FINER)) log.finer("getConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls.get());
       try {
          if (this.isShutdown) connect(false, false);
          return get(this.connectionBusyTimeout);
@@ -905,9 +1027,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       }
       
       finally {
-         synchronized (this) {
-            this.waitingCalls--;
-         }
+         this.waitingCalls.decrementAndGet();
       }
    }
 
@@ -929,7 +1049,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
     * it will throw an exception.
     */
    private void releaseConnection(Connection conn) throws XmlBlasterException {
-      if (log.isLoggable(Level.FINER)) log.finer("releaseConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls);
+      if (log.isLoggable(Level.FINER)) log.finer("releaseConnection " + this.connections.size() + " waiting calls: " + this.waitingCalls.get());
       try {
          SQLWarning warns = conn.getWarnings();
          /*
@@ -952,7 +1072,7 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       }
       boolean isOk = put(conn); // if an exception occured it would be better to throw away the connection and make a new one
       if (!isOk) {
-         log.severe("the connection pool is already full: " + ThreadLister.listAllThreads());
+         log.severe("the connection was not taken from this pool or given back twice: " + ThreadLister.listAllThreads());
       }
 
    }
@@ -1069,6 +1189,10 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       disconnect();
 //      this.initialized = false;
       this.isShutdown = true;
+      if (this.mbeanHandle != null) {
+         this.glob.unregisterMBean(this.mbeanHandle);
+         this.mbeanHandle = null;
+      }
    }
 
    synchronized public void registerManager(Object manager) {
@@ -1118,6 +1242,93 @@ public class JdbcConnectionPool implements I_Timeout, I_StorageProblemNotifier {
       return (this.url==null) ? "" : this.url;
    }
 
+   public int getPoolSize() {
+      return this.capacity;
+   }
+
+   public int getNumIdle() {
+      return this.connections.size();
+   }
+
+   public int getNumBusy() {
+      return this.busyConnections.size();
+   }
+
+   public int getNumWaiting() {
+      return this.freeSlots.getQueueLength();
+   }
+
+   public long getNumTimeouts() {
+      return this.numTimeouts.get();
+   }
+
+   public long getNumDiscarded() {
+      return this.numDiscarded.get();
+   }
+
+   public long getNumValidated() {
+      return this.numValidated.get();
+   }
+
+   public long getNumInvalid() {
+      return this.numInvalid.get();
+   }
+
+   public long getValidationInterval() {
+      return (this.validationSupported) ? this.validationInterval : 0L;
+   }
+
+   public String getWaitHistogram() {
+      return this.waitHistogram.toString();
+   }
+
+   public double getAverageWaitMillis() {
+      return this.waitHistogram.getAverageMillis();
+   }
+
+   public double getMaxWaitMillis() {
+      return this.waitHistogram.getMaxMillis();
+   }
+
+   public String getHoldHistogram() {
+      return this.holdHistogram.toString();
+   }
+
+   public double getAverageHoldMillis() {
+      return this.holdHistogram.getAverageMillis();
+   }
+
+   public double getMaxHoldMillis() {
+      return this.holdHistogram.getMaxMillis();
+   }
+
+   /**
+    * @return The prepared statement cache of this pool, never null
+    */
+   public XBStatementCache getStatementCache() {
+      return this.statementCache;
+   }
+
+   public boolean isStatementCacheEnabled() {
+      return this.statementCache.isEnabled();
+   }
+
+   public long getNumStatementCacheHits() {
+      return this.statementCache.getNumHits();
+   }
+
+   public long getNumStatementCacheMisses() {
+      return this.statementCache.getNumMisses();
+   }
+
+   public void resetStatistics() {
+      this.waitHistogram.reset();
+      this.holdHistogram.reset();
+      this.numTimeouts.set(0L);
+      this.numDiscarded.set(0L);
+      this.numValidated.set(0L);
+      this.numInvalid.set(0L);
+   }
 }
 
 
@@ -0,0 +1,73 @@
+/*------------------------------------------------------------------------------
+Name:      JdbcConnectionPoolMBean.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   JMX access to the JDBC connection pool
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.jdbc;
+
+/**
+ * Monitoring of the JDBC connection pool of the persistent queues.
+ * <p>
+ * Switch the registration off with <code>xmlBlaster/jmx/registerJdbcConnectionPool=false</code>.
+ * </p>
+ */
+public interface JdbcConnectionPoolMBean {
+   /** @return The JDBC url of the database */
+   public String getUrl();
+
+   public String getUserName();
+
+   /** @return The configured number of connections */
+   public int getPoolSize();
+
+   /** @return The number of free connections */
+   public int getNumIdle();
+
+   /** @return The number of connections in use */
+   public int getNumBusy();
+
+   /** @return The number of threads waiting for a connection */
+   public int getNumWaiting();
+
+   /** @return How often no connection was freed within connectionBusyTimeout */
+   public long getNumTimeouts();
+
+   /** @return The number of broken connections which were closed and replaced */
+   public long getNumDiscarded();
+
+   /** @return The number of checks of idle connections */
+   public long getNumValidated();
+
+   /** @return The number of idle connections found broken */
+   public long getNumInvalid();
+
+   /** @return The interval of the idle connection check in milliseconds, 0 is off */
+   public long getValidationInterval();
+
+   /** @return The counts of the waiting time for a connection, e.g. "&lt;1ms=120 &lt;2ms=3 ... &gt;=5000ms=0" */
+   public String getWaitHistogram();
+
+   public double getAverageWaitMillis();
+
+   public double getMaxWaitMillis();
+
+   /** @return The counts of the time a connection was used until it was given back */
+   public String getHoldHistogram();
+
+   public double getAverageHoldMillis();
+
+   public double getMaxHoldMillis();
+
+   /** @return Is the prepared statement cache switched on (JDBC plugin parameter statementCache) */
+   public boolean isStatementCacheEnabled();
+
+   /** @return The number of prepared statements reused, of all pools */
+   public long getNumStatementCacheHits();
+
+   /** @return The number of statements prepared, of all pools */
+   public long getNumStatementCacheMisses();
+
+   /** Sets all counters and histograms to zero */
+   public void resetStatistics();
+}
@@ -1184,6 +1184,8 @@ public final class JdbcQueue implements I_Queue, I_StoragePlugin, I_Map {
       }
       catch (XmlBlasterException e) {
       }
+      if (this.databaseAccessor != null && this.databaseAccessor.getGroupCommitter() != null)
+         sb.append(this.databaseAccessor.getGroupCommitter().toXml(offset + " "));
 
       sb.append(offset).append("</JdbcQueue>");
       return sb.toString();
@@ -19,6 +19,7 @@ import java.util.logging.Logger;
 
 import org.xmlBlaster.contrib.GlobalInfo;
 import org.xmlBlaster.contrib.I_Info;
+import org.xmlBlaster.contrib.db.DbWaitingPool;
 import org.xmlBlaster.contrib.db.I_DbPool;
 import org.xmlBlaster.contrib.dbwatcher.DbWatcher;
 import org.xmlBlaster.util.Global;
@@ -198,6 +199,9 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
     private int maxNumStatements;
     private int maxSelectLimit;
     private int timeout;
+
+    /** Coalesces concurrent adds and deletes into one transaction, null if switched off */
+    private XBGroupCommitter groupCommitter;
     private boolean dbAdmin = true;
     
     public XBDatabaseAccessor() {
@@ -342,6 +346,22 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
          storeFactory.create(conn);
          meatFactory.create(conn);
          refFactory.create(conn);
+
+         // the statement cache is owned by the connection pool, -statementCache false prepares each statement again
+         XBStatementCache statementCache = null;
+         if (pool instanceof DbWaitingPool)
+            statementCache = ((DbWaitingPool)pool).getConnectionPool().getStatementCache();
+         storeFactory.setStatementCache(statementCache);
+         meatFactory.setStatementCache(statementCache);
+         refFactory.setStatementCache(statementCache);
+
+         // -groupCommitWindow 2 (milliseconds, 0 is off)
+         long groupCommitWindow = info.getLong("groupCommitWindow", 0L);
+         if (groupCommitWindow > 0L) {
+            int groupCommitMaxBatch = info.getInt("groupCommitMaxBatch", 500);
+            groupCommitter = new XBGroupCommitter(pool, meatFactory, refFactory, groupCommitWindow, groupCommitMaxBatch, supportsBatch, timeout);
+            log.info("Group commit is switched on with groupCommitWindow=" + groupCommitWindow + " ms and groupCommitMaxBatch=" + groupCommitMaxBatch);
+         }
          isConnected = true;
          log.info("Using DB " + dbmd.getDatabaseProductName() + " " + dbmd.getDatabaseProductVersion() + " " + dbmd.getDriverName());
       }
@@ -767,6 +787,8 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
     * @throws XmlBlasterException if an error occured when trying to get a connection
     */
    public boolean addEntry(XBStore store, I_Entry entry) throws XmlBlasterException {
+      if (groupCommitter != null && isConnected && groupCommitter.addEntries(store, new I_Entry[] { entry }))
+         return true;
       Connection conn = null;
       boolean success = true;
       try {
@@ -847,6 +869,13 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
          throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_DB_UNAVAILABLE, ME + ".addEntries", " the connection to the DB is unavailable already before trying to add entries"); 
       }
 
+      if (groupCommitter != null && groupCommitter.addEntries(store, entries)) {
+         int[] ret = new int[entries.length];
+         for (int i=0; i < ret.length; i++)
+            ret[i] = 1;
+         return ret;
+      }
+
       Connection conn = null;
       boolean success = true;
       try {
@@ -1246,6 +1275,11 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
             log.fine("Currently not possible. No connection to the DB");
          return 0;
       }
+      if (groupCommitter != null) {
+         int num = groupCommitter.deleteEntry(store, refId, meatId);
+         if (num > -1)
+            return num;
+      }
       Connection conn = null;
       boolean success = true;
       int ret = 0;
@@ -1928,6 +1962,13 @@ public class XBDatabaseAccessor extends XBFactoryBase implements I_StorageProble
 
    }
 
+   /**
+    * @return The group commit statistic or null if group commit is switched off
+    */
+   public XBGroupCommitter getGroupCommitter() {
+      return groupCommitter;
+   }
+
    public XBStoreFactory getXBStoreFactory() {
 	 return storeFactory;
    }
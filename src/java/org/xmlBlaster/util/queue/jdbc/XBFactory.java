@@ -20,6 +20,7 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.xmlBlaster.contrib.I_Info;
@@ -52,6 +53,7 @@ public abstract class XBFactory extends XBFactoryBase {
    private String tableNameDefault;
    protected String inList;
    protected String base;
+   private volatile XBStatementCache statementCache;
    
    /**
     * 
@@ -107,22 +109,78 @@ public abstract class XBFactory extends XBFactoryBase {
       return info;
    }
    
+   /**
+    * Sets the statement cache of the connection pool, null prepares each statement again.
+    */
+   public final void setStatementCache(XBStatementCache statementCache) {
+      this.statementCache = statementCache;
+   }
+
+   /**
+    * Prepares a statement, it is taken from the XBStatementCache of the connection if the cache is switched on.
+    * Only use it for statements without a ResultSet and give it back with release().
+    */
+   protected final PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+      XBStatementCache cache = this.statementCache;
+      if (cache == null)
+         return conn.prepareStatement(sql);
+      return cache.prepare(conn, sql);
+   }
+
+   /**
+    * Gives back a statement got from prepare().
+    */
+   protected final void release(PreparedStatement preStatement) {
+      XBStatementCache cache = this.statementCache;
+      if (cache != null) {
+         cache.release(preStatement);
+         return;
+      }
+      try {
+         preStatement.close();
+      }
+      catch (SQLException ex) {
+         if (log.isLoggable(Level.FINE)) log.fine("Closing the statement failed: " + ex.toString());
+      }
+   }
+
+   /**
+    * @return The SQL statement used by insert()
+    */
+   public final String getInsertStatement() {
+      return insertSt;
+   }
+
+   /**
+    * @return The SQL statement used by delete()
+    */
+   public final String getDeleteStatement() {
+      return deleteSt;
+   }
+
+   /**
+    * Sets the parameters of the delete statement, used directly for batch deletes.
+    * @param preStatement prepared with getDeleteStatement()
+    */
+   public final void fillDeleteStatement(PreparedStatement preStatement, long storeId, long id) throws SQLException {
+      preStatement.setLong(1, storeId);
+      preStatement.setLong(2, id);
+   }
+
    public int delete(long storeId, long id, Connection conn, int timeout) throws SQLException {
       if (conn == null)
          return 0;
-      PreparedStatement preStatement = conn.prepareStatement(deleteSt);
-      if (timeout > 0)
-         preStatement.setQueryTimeout(timeout);
-      
+      PreparedStatement preStatement = prepare(conn, deleteSt);
       try {
+         if (timeout > 0)
+            preStatement.setQueryTimeout(timeout);
          preStatement.setLong(1, storeId);
          if (id != 0)
             preStatement.setLong(2, id);
          return preStatement.executeUpdate();
       }
       finally {
-         if (preStatement != null)
-            preStatement.close();
+         release(preStatement);
       }
    }
 
@@ -0,0 +1,465 @@
+/*------------------------------------------------------------------------------
+Name:      XBGroupCommitter.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Coalesces concurrent inserts and deletes into one JDBC transaction
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.contrib.db.I_DbPool;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.queue.I_Entry;
+
+/**
+ * Group commit for the XBDatabaseAccessor.
+ * <p>
+ * Threads adding or deleting entries of any store hand their request to this class and block.
+ * The first of them becomes the leader: it waits up to <code>groupCommitWindow</code> milliseconds
+ * (or until <code>groupCommitMaxBatch</code> requests are pending) for other threads to join,
+ * then writes all collected requests with JDBC batch statements on one connection and commits
+ * them in one transaction. Every caller returns after the commit, so it still blocks until its
+ * own data is durable, but many callback queues share one commit (and one fsync of the database).
+ * </p>
+ * <p>
+ * If the batch fails it is rolled back and every request is marked as not done, the callers
+ * then redo it with the single statement code of XBDatabaseAccessor which handles
+ * existing entries and lost connections individually.
+ * </p>
+ * Configuration as plugin parameters of the JDBC queue plugin:
+ * <pre>
+ * groupCommitWindow=2       (milliseconds, 0 switches group commit off, is default)
+ * groupCommitMaxBatch=500   (maximum requests in one transaction)
+ * </pre>
+ * @see XBDatabaseAccessor
+ */
+public final class XBGroupCommitter
+{
+   private static Logger log = Logger.getLogger(XBGroupCommitter.class.getName());
+
+   /**
+    * One add or delete request of a caller.
+    */
+   static final class Request {
+      final XBStore store;
+      /** The meats and refs to insert (may contain nulls), or null for a delete request */
+      final XBMeat[] meats;
+      final XBRef[] refs;
+      final long refId;
+      final long meatId;
+      /** For deletes: the number of deleted rows like XBDatabaseAccessor.deleteEntry() returns it */
+      int deleted;
+      boolean processed;
+      boolean committed;
+      final long enqueueTime = System.currentTimeMillis();
+
+      Request(XBStore store, XBMeat[] meats, XBRef[] refs) {
+         this.store = store;
+         this.meats = meats;
+         this.refs = refs;
+         this.refId = -1L;
+         this.meatId = -1L;
+      }
+
+      Request(XBStore store, long refId, long meatId) {
+         this.store = store;
+         this.meats = null;
+         this.refs = null;
+         this.refId = refId;
+         this.meatId = meatId;
+      }
+   }
+
+   private final I_DbPool pool;
+   private final XBMeatFactory meatFactory;
+   private final XBRefFactory refFactory;
+   private final long windowMillis;
+   private final int maxBatch;
+   private final boolean supportsBatch;
+   private final int timeout;
+
+   private final Object lock = new Object();
+   private ArrayList pending = new ArrayList();
+   private boolean leaderActive;
+
+   // statistic, guarded by lock
+   private long numCommits;
+   private long numFailedCommits;
+   private long numRequests;
+   private long numRows;
+   private int maxBatchSize;
+   private long sumCommitMillis;
+   private long maxCommitMillis;
+   private long numWaits;
+   private long sumWaitMillis;
+   private long maxWaitMillis;
+
+   /**
+    * @param windowMillis The time the leader waits for other requests, must be &gt; 0
+    * @param maxBatch The maximum number of requests committed together
+    * @param supportsBatch false if the JDBC driver does not support addBatch(),
+    *        the statements are then executed one by one but still committed together
+    * @param timeout The query timeout in seconds, 0 for none
+    */
+   public XBGroupCommitter(I_DbPool pool, XBMeatFactory meatFactory, XBRefFactory refFactory,
+                    long windowMillis, int maxBatch, boolean supportsBatch, int timeout) {
+      this.pool = pool;
+      this.meatFactory = meatFactory;
+      this.refFactory = refFactory;
+      this.windowMillis = windowMillis;
+      this.maxBatch = (maxBatch < 1) ? 1 : maxBatch;
+      this.supportsBatch = supportsBatch;
+      this.timeout = timeout;
+   }
+
+   /**
+    * Inserts the meats and refs of the given entries, the store id is set on them.
+    * @return false if the group commit failed, the caller must then insert the entries itself
+    */
+   public boolean addEntries(XBStore store, I_Entry[] entries) throws XmlBlasterException {
+      XBMeat[] meats = new XBMeat[entries.length];
+      XBRef[] refs = new XBRef[entries.length];
+      for (int i=0; i<entries.length; i++) {
+         meats[i] = entries[i].getMeat();
+         if (meats[i] != null)
+            meats[i].setStoreId(store.getId());
+         refs[i] = entries[i].getRef();
+         if (refs[i] != null)
+            refs[i].setStoreId(store.getId());
+      }
+      return submit(new Request(store, meats, refs)).committed;
+   }
+
+   /**
+    * Deletes the ref and/or the meat, -1 if there is none.
+    * @return The number of rows deleted or -1 if the group commit failed,
+    *         the caller must then delete the entry itself
+    */
+   public int deleteEntry(XBStore store, long refId, long meatId) {
+      Request request = submit(new Request(store, refId, meatId));
+      return request.committed ? request.deleted : -1;
+   }
+
+   private Request submit(Request request) {
+      ArrayList batch = null;
+      synchronized (this.lock) {
+         this.pending.add(request);
+         if (this.pending.size() >= this.maxBatch)
+            this.lock.notifyAll();
+         while (!request.processed && this.leaderActive)
+            waitLock(0L);
+         if (request.processed)
+            return request;
+         // we are the leader, collect the requests of the other threads
+         this.leaderActive = true;
+         long end = System.currentTimeMillis() + this.windowMillis;
+         long remaining = this.windowMillis;
+         while (this.pending.size() < this.maxBatch && remaining > 0L) {
+            waitLock(remaining);
+            remaining = end - System.currentTimeMillis();
+         }
+         int num = Math.min(this.pending.size(), this.maxBatch);
+         batch = new ArrayList(this.pending.subList(0, num));
+         if (!batch.contains(request)) { // the leader always processes its own request
+            batch.remove(batch.size()-1);
+            batch.add(request);
+         }
+         this.pending.removeAll(batch);
+      }
+
+      long start = System.currentTimeMillis();
+      boolean committed = false;
+      int rows = 0;
+      try {
+         rows = execute(batch);
+         committed = true;
+      }
+      catch (Throwable ex) {
+         log.warning("Group commit of " + batch.size() + " requests failed, the requests are retried one by one: " + ex.toString());
+      }
+      finally {
+         long now = System.currentTimeMillis();
+         synchronized (this.lock) {
+            for (int i=0; i<batch.size(); i++) {
+               Request r = (Request)batch.get(i);
+               r.committed = committed;
+               r.processed = true;
+               long wait = now - r.enqueueTime;
+               this.numWaits++;
+               this.sumWaitMillis += wait;
+               if (wait > this.maxWaitMillis) this.maxWaitMillis = wait;
+            }
+            long commitMillis = now - start;
+            if (committed) {
+               this.numCommits++;
+               this.numRequests += batch.size();
+               this.numRows += rows;
+               if (batch.size() > this.maxBatchSize) this.maxBatchSize = batch.size();
+               this.sumCommitMillis += commitMillis;
+               if (commitMillis > this.maxCommitMillis) this.maxCommitMillis = commitMillis;
+            }
+            else
+               this.numFailedCommits++;
+            this.leaderActive = false;
+            this.lock.notifyAll();
+         }
+      }
+      if (log.isLoggable(Level.FINE)) log.fine("Committed " + batch.size() + " requests with " + rows + " rows in " + (System.currentTimeMillis()-start) + " ms");
+      return request;
+   }
+
+   private void waitLock(long millis) {
+      try {
+         this.lock.wait(millis);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Writes the batch in one transaction.
+    * Meats are inserted before the refs pointing to them and refs deleted before their meats.
+    * @return The number of rows written
+    */
+   private int execute(ArrayList batch) throws Exception {
+      Connection conn = null;
+      boolean success = false;
+      PreparedStatement[] sts = new PreparedStatement[4];
+      try {
+         conn = this.pool.reserve();
+         conn.setAutoCommit(false);
+         final int MEAT_INSERT = 0, REF_INSERT = 1, REF_DELETE = 2, MEAT_DELETE = 3;
+         sts[MEAT_INSERT] = this.meatFactory.prepare(conn, this.meatFactory.getInsertStatement());
+         sts[REF_INSERT] = this.refFactory.prepare(conn, this.refFactory.getInsertStatement());
+         sts[REF_DELETE] = this.refFactory.prepare(conn, this.refFactory.getDeleteStatement());
+         sts[MEAT_DELETE] = this.meatFactory.prepare(conn, this.meatFactory.getDeleteStatement());
+         if (this.timeout > 0) {
+            for (int i=0; i<sts.length; i++)
+               sts[i].setQueryTimeout(this.timeout);
+         }
+         int[] num = new int[sts.length];
+         int[][] counts = new int[sts.length][];
+         for (int k=0; k<sts.length; k++)
+            counts[k] = new int[batch.size()];
+         int[][] index = new int[sts.length][batch.size()]; // the position of each request in its batch
+         for (int i=0; i<batch.size(); i++) {
+            Request r = (Request)batch.get(i);
+            for (int k=0; k<sts.length; k++)
+               index[k][i] = -1;
+            if (r.meats != null) {
+               for (int j=0; j<r.meats.length; j++) {
+                  if (r.meats[j] != null) {
+                     this.meatFactory.fillInsertStatement(sts[MEAT_INSERT], r.meats[j]);
+                     addRow(sts, MEAT_INSERT, num, counts);
+                  }
+               }
+            }
+            else {
+               if (r.refId > -1L) {
+                  this.refFactory.fillDeleteStatement(sts[REF_DELETE], r.store.getId(), r.refId);
+                  index[REF_DELETE][i] = num[REF_DELETE];
+                  addRow(sts, REF_DELETE, num, counts);
+               }
+               if (r.meatId > -1L) {
+                  this.meatFactory.fillDeleteStatement(sts[MEAT_DELETE], r.store.getId(), r.meatId);
+                  index[MEAT_DELETE][i] = num[MEAT_DELETE];
+                  addRow(sts, MEAT_DELETE, num, counts);
+               }
+            }
+         }
+         for (int i=0; i<batch.size(); i++) {
+            Request r = (Request)batch.get(i);
+            if (r.refs == null)
+               continue;
+            for (int j=0; j<r.refs.length; j++) {
+               if (r.refs[j] != null) {
+                  this.refFactory.fillInsertStatement(sts[REF_INSERT], r.refs[j]);
+                  addRow(sts, REF_INSERT, num, counts);
+               }
+            }
+         }
+
+         int rows = 0;
+         int[][] results = new int[sts.length][];
+         for (int k=0; k<sts.length; k++) {
+            if (this.supportsBatch && num[k] > 0)
+               results[k] = sts[k].executeBatch();
+            else
+               results[k] = counts[k];
+            rows += num[k];
+         }
+         conn.commit();
+         success = true;
+
+         for (int i=0; i<batch.size(); i++) {
+            Request r = (Request)batch.get(i);
+            if (r.meats != null)
+               continue;
+            int refDeleted = getCount(results[REF_DELETE], index[REF_DELETE][i]);
+            int meatDeleted = getCount(results[MEAT_DELETE], index[MEAT_DELETE][i]);
+            r.deleted = (refDeleted == 0) ? meatDeleted : refDeleted;
+         }
+         return rows;
+      }
+      finally {
+         for (int i=0; i<sts.length; i++) {
+            if (sts[i] == null)
+               continue;
+            if (!success && this.supportsBatch) {
+               try {
+                  sts[i].clearBatch();
+               }
+               catch (Throwable ex) {
+                  if (log.isLoggable(Level.FINE)) log.fine("clearBatch() failed: " + ex.toString());
+               }
+            }
+            this.meatFactory.release(sts[i]);
+         }
+         if (conn != null) {
+            if (!success) {
+               try {
+                  conn.rollback();
+               }
+               catch (Throwable ex) {
+                  log.warning("Rollback of group commit failed: " + ex.toString());
+               }
+            }
+            try {
+               conn.setAutoCommit(true);
+            }
+            catch (Throwable ex) {
+               success = false;
+            }
+            if (success)
+               this.pool.release(conn);
+            else
+               this.pool.erase(conn);
+         }
+      }
+   }
+
+   private void addRow(PreparedStatement[] sts, int k, int[] num, int[][] counts) throws SQLException {
+      if (this.supportsBatch) {
+         sts[k].addBatch();
+      }
+      else {
+         if (num[k] >= counts[k].length) {
+            int[] tmp = new int[counts[k].length * 2 + 1];
+            System.arraycopy(counts[k], 0, tmp, 0, counts[k].length);
+            counts[k] = tmp;
+         }
+         counts[k][num[k]] = sts[k].executeUpdate();
+      }
+      num[k]++;
+   }
+
+   /**
+    * @return The update count, 1 if the driver doesn't know it, 0 if there was no statement
+    */
+   private static int getCount(int[] results, int index) {
+      if (index < 0 || results == null || index >= results.length)
+         return 0;
+      int count = results[index];
+      if (count == Statement.SUCCESS_NO_INFO)
+         return 1;
+      return (count < 0) ? 0 : count;
+   }
+
+   /** @return The configured latency window in milliseconds */
+   public long getWindowMillis() {
+      return this.windowMillis;
+   }
+
+   /** @return The number of transactions committed */
+   public long getNumCommits() {
+      synchronized (this.lock) {
+         return this.numCommits;
+      }
+   }
+
+   /** @return The number of group commits which failed and were redone one by one */
+   public long getNumFailedCommits() {
+      synchronized (this.lock) {
+         return this.numFailedCommits;
+      }
+   }
+
+   /** @return The number of add and delete requests committed */
+   public long getNumRequests() {
+      synchronized (this.lock) {
+         return this.numRequests;
+      }
+   }
+
+   /** @return The number of rows inserted or deleted */
+   public long getNumRows() {
+      synchronized (this.lock) {
+         return this.numRows;
+      }
+   }
+
+   /** @return The average number of requests per commit */
+   public double getAverageBatchSize() {
+      synchronized (this.lock) {
+         return (this.numCommits == 0L) ? 0.0 : (double)this.numRequests / this.numCommits;
+      }
+   }
+
+   /** @return The most requests committed together */
+   public int getMaxBatchSize() {
+      synchronized (this.lock) {
+         return this.maxBatchSize;
+      }
+   }
+
+   /** @return The average time in milliseconds to write and commit a batch */
+   public double getAverageCommitMillis() {
+      synchronized (this.lock) {
+         return (this.numCommits == 0L) ? 0.0 : (double)this.sumCommitMillis / this.numCommits;
+      }
+   }
+
+   /** @return The longest time in milliseconds to write and commit a batch */
+   public long getMaxCommitMillis() {
+      synchronized (this.lock) {
+         return this.maxCommitMillis;
+      }
+   }
+
+   /** @return The average time in milliseconds a caller was blocked, including the latency window */
+   public double getAverageWaitMillis() {
+      synchronized (this.lock) {
+         return (this.numWaits == 0L) ? 0.0 : (double)this.sumWaitMillis / this.numWaits;
+      }
+   }
+
+   /** @return The longest time in milliseconds a caller was blocked */
+   public long getMaxWaitMillis() {
+      synchronized (this.lock) {
+         return this.maxWaitMillis;
+      }
+   }
+
+   public String toXml(String offset) {
+      StringBuffer sb = new StringBuffer(256);
+      sb.append(offset).append("<groupCommit window='").append(this.windowMillis);
+      sb.append("' numCommits='").append(getNumCommits());
+      sb.append("' numFailedCommits='").append(getNumFailedCommits());
+      sb.append("' numRequests='").append(getNumRequests());
+      sb.append("' averageBatchSize='").append(getAverageBatchSize());
+      sb.append("' maxBatchSize='").append(getMaxBatchSize());
+      sb.append("' averageCommitMillis='").append(getAverageCommitMillis());
+      sb.append("' maxCommitMillis='").append(getMaxCommitMillis());
+      sb.append("' averageWaitMillis='").append(getAverageWaitMillis());
+      sb.append("'/>");
+      return sb.toString();
+   }
+}
@@ -364,7 +364,7 @@ public class XBMeatFactory extends XBFactory {
          throws SQLException, IOException {
       if (xbMeat == null || conn == null)
          return;
-      PreparedStatement preStatement = conn.prepareStatement(insertSt);
+      PreparedStatement preStatement = prepare(conn, insertSt);
       try {
          if (timeout > 0)
             preStatement.setQueryTimeout(timeout);
@@ -373,12 +373,20 @@ public class XBMeatFactory extends XBFactory {
             log.finest(insertSt);
          preStatement.execute();
       } finally {
-         if (preStatement != null)
-            preStatement.close();
+         release(preStatement);
       }
 
    }
 
+   /**
+    * Sets the parameters of the insert statement, used directly for batch inserts.
+    * @param preStatement prepared with getInsertStatement()
+    */
+   public void fillInsertStatement(PreparedStatement preStatement, XBMeat xbMeat)
+         throws SQLException, IOException {
+      fillStatement(preStatement, xbMeat);
+   }
+
    /**
     * Updates the XBMeat object. If qos, flag or
     * 
@@ -404,7 +412,7 @@ public class XBMeatFactory extends XBFactory {
          }
       }
       
-      PreparedStatement preStatement = conn.prepareStatement(updateRefCounterSt);
+      PreparedStatement preStatement = prepare(conn, updateRefCounterSt);
       try {
          if (timeout > 0)
             preStatement.setQueryTimeout(timeout);
@@ -417,8 +425,7 @@ public class XBMeatFactory extends XBFactory {
             log.finest(updateRefCounterSt);
          preStatement.executeUpdate();
       } finally {
-         if (preStatement != null)
-            preStatement.close();
+         release(preStatement);
       }
    }
 
@@ -434,7 +441,7 @@ public class XBMeatFactory extends XBFactory {
          throws SQLException, IOException {
       if (xbMeat == null || conn == null)
          return;
-      PreparedStatement preStatement = conn.prepareStatement(updateSt);
+      PreparedStatement preStatement = prepare(conn, updateSt);
       try {
          if (timeout > 0)
             preStatement.setQueryTimeout(timeout);
@@ -445,8 +452,7 @@ public class XBMeatFactory extends XBFactory {
             log.finest(updateSt);
          preStatement.executeUpdate();
       } finally {
-         if (preStatement != null)
-            preStatement.close();
+         release(preStatement);
       }
    }
 
@@ -291,42 +291,48 @@ public class XBRefFactory extends XBFactory {
    public void insert(XBRef xbRef, Connection conn, int timeout) throws SQLException, UnsupportedEncodingException {
       if (xbRef == null || conn == null)
          return;
-      PreparedStatement preStatement = conn.prepareStatement(insertSt);
+      PreparedStatement preStatement = prepare(conn, insertSt);
       try {
          if (timeout > 0)
             preStatement.setQueryTimeout(timeout);
-         preStatement.setLong(REF_ID, xbRef.getId());
-         preStatement.setLong(STORE_ID, xbRef.getStoreId());
-         long val = xbRef.getMeatId();
-         if (val != 0)
-            preStatement.setLong(MEAT_ID, val);
-         else
-            preStatement.setNull(MEAT_ID, Types.NUMERIC);
-
-         if (xbRef.isDurable())
-            preStatement.setString(DURABLE, "T");
-         else 
-            preStatement.setString(DURABLE, "F");
-
-         preStatement.setLong(BYTE_SIZE, xbRef.getByteSize());
-
-         fillDbCol(preStatement, META_INFO, xbRef.getMetaInfo());
-         fillDbCol(preStatement, FLAG1, xbRef.getFlag1());
-
-         preStatement.setInt(PRIO, xbRef.getPrio());
-
-         fillDbCol(preStatement, METHOD_NAME, xbRef.getMethodName());
-
+         fillInsertStatement(preStatement, xbRef);
          if (log.isLoggable(Level.FINEST)) 
             log.finest(insertSt);
          preStatement.execute();
       }
       finally {
-         if (preStatement != null)
-            preStatement.close();
+         release(preStatement);
       }
    }
 
+   /**
+    * Sets the parameters of the insert statement, used directly for batch inserts.
+    * @param preStatement prepared with getInsertStatement()
+    */
+   public void fillInsertStatement(PreparedStatement preStatement, XBRef xbRef) throws SQLException, UnsupportedEncodingException {
+      preStatement.setLong(REF_ID, xbRef.getId());
+      preStatement.setLong(STORE_ID, xbRef.getStoreId());
+      long val = xbRef.getMeatId();
+      if (val != 0)
+         preStatement.setLong(MEAT_ID, val);
+      else
+         preStatement.setNull(MEAT_ID, Types.NUMERIC);
+
+      if (xbRef.isDurable())
+         preStatement.setString(DURABLE, "T");
+      else 
+         preStatement.setString(DURABLE, "F");
+
+      preStatement.setLong(BYTE_SIZE, xbRef.getByteSize());
+
+      fillDbCol(preStatement, META_INFO, xbRef.getMetaInfo());
+      fillDbCol(preStatement, FLAG1, xbRef.getFlag1());
+
+      preStatement.setInt(PRIO, xbRef.getPrio());
+
+      fillDbCol(preStatement, METHOD_NAME, xbRef.getMethodName());
+   }
+
    protected XBRef rsToEntry(XBStore store, ResultSet rs) throws SQLException, IOException {
       XBRef xbRef = new XBRef();
       xbRef.setId(rs.getLong(REF_ID));
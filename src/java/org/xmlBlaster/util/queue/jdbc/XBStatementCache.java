@@ -0,0 +1,129 @@
+/*------------------------------------------------------------------------------
+Name:      XBStatementCache.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Per connection cache of prepared statements
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the prepared insert, update and delete statements of the XBMeatFactory and XBRefFactory
+ * for each connection of one JdbcConnectionPool, so they are parsed by the database only once per connection.
+ * <p>
+ * A connection is used by one thread at a time (it is reserved from the pool), so
+ * the statements of one connection need no locking. The cached statements reference
+ * their connection, so the cache holds it until {@link #remove(Connection)} is called:
+ * JdbcConnectionPool does this for every connection it closes (discarded, invalid or on disconnect).
+ * </p>
+ * <p>
+ * Statements returning a ResultSet are not cached.
+ * Each pool owns its cache, switch it off with the JDBC plugin parameter <code>statementCache=false</code>.
+ * </p>
+ * @see JdbcConnectionPool#getStatementCache()
+ * @see XBFactory#prepare(Connection, String)
+ */
+public final class XBStatementCache
+{
+   private static Logger log = Logger.getLogger(XBStatementCache.class.getName());
+   private final Map caches = Collections.synchronizedMap(new HashMap());
+   private final boolean enabled;
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+
+   /**
+    * @param enabled false prepares every statement again and closes it on release()
+    */
+   public XBStatementCache(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   public boolean isEnabled() {
+      return this.enabled;
+   }
+
+   /**
+    * @return The cached statement of the connection or a new one, release it with release()
+    */
+   public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+      if (!this.enabled)
+         return conn.prepareStatement(sql);
+      Map statements = (Map)this.caches.get(conn);
+      if (statements == null) {
+         statements = new HashMap();
+         this.caches.put(conn, statements);
+      }
+      PreparedStatement st = (PreparedStatement)statements.get(sql);
+      if (st != null) {
+         this.hits.incrementAndGet();
+         return st;
+      }
+      this.misses.incrementAndGet();
+      st = conn.prepareStatement(sql);
+      statements.put(sql, st);
+      return st;
+   }
+
+   /**
+    * Gives the statement back, it is closed if the cache is switched off.
+    */
+   public void release(PreparedStatement st) {
+      if (st == null)
+         return;
+      try {
+         if (this.enabled)
+            st.clearParameters();
+         else
+            st.close();
+      }
+      catch (Throwable ex) { // the connection is broken and will be discarded by the pool
+         if (log.isLoggable(Level.FINE)) log.fine("Releasing statement failed: " + ex.toString());
+      }
+   }
+
+   /**
+    * Closes the cached statements of the connection and forgets it,
+    * to be called before the connection is closed.
+    */
+   public void remove(Connection conn) {
+      if (conn == null)
+         return;
+      Map statements = (Map)this.caches.remove(conn);
+      if (statements == null)
+         return;
+      Iterator it = statements.values().iterator();
+      while (it.hasNext()) {
+         try {
+            ((PreparedStatement)it.next()).close();
+         }
+         catch (Throwable ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Closing cached statement failed: " + ex.toString());
+         }
+      }
+   }
+
+   /** @return The number of statements taken from the cache */
+   public long getNumHits() {
+      return this.hits.get();
+   }
+
+   /** @return The number of statements prepared */
+   public long getNumMisses() {
+      return this.misses.get();
+   }
+
+   /** @return The number of connections with cached statements */
+   public int getNumConnections() {
+      return this.caches.size();
+   }
+}
@@ -0,0 +1,1459 @@
+/*------------------------------------------------------------------------------
+Name:      OffHeapQueuePlugin.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Transient queue keeping the entries outside of the java heap
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.ram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.ErrorCode;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.storage.QueuePropertyBase;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_EntryFilter;
+import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.I_QueuePutListener;
+import org.xmlBlaster.util.queue.I_Storage;
+import org.xmlBlaster.util.queue.I_StoragePlugin;
+import org.xmlBlaster.util.queue.I_StorageProblemListener;
+import org.xmlBlaster.util.queue.I_StorageSizeListener;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.StorageSizeListenerHelper;
+import org.xmlBlaster.util.queue.jdbc.XBMeat;
+import org.xmlBlaster.util.queue.jdbc.XBRef;
+import org.xmlBlaster.util.queue.jdbc.XBStore;
+
+/**
+ * Transient queue for big backlogs, the entries are not kept as java objects but
+ * serialized to direct (off-heap) memory.
+ * <p>
+ * Every priority has its own ring of unique ids sorted ascending, the metadata of an entry
+ * (size, priority, address of its data) is held in primitive arrays. On the java heap an entry
+ * costs about 50 bytes, independent of its content, the garbage collector doesn't see the
+ * entries at all. The XBRef/XBMeat data is written to direct memory chunks of
+ * <code>offHeap/chunkSize</code> bytes, a chunk is freed when its last entry is removed
+ * (empty chunks are kept for reuse up to <code>offHeap/maxFreeChunks</code>). A single entry
+ * which remains in the queue keeps its chunk allocated.
+ * </p>
+ * <p>
+ * On access the entries are created again with the I_EntryFactory like the persistent queues do it,
+ * so the caller gets a new instance on every peek. The queue is sorted like the RamQueuePlugin:
+ * the higher priority first, then the older entry (smaller unique id) first.
+ * </p>
+ * Configuration example:
+ * <pre>
+ * QueuePlugin[OFFHEAP][1.0]=org.xmlBlaster.util.queue.ram.OffHeapQueuePlugin,\
+ *                           offHeap/chunkSize=1048576,\
+ *                           offHeap/maxFreeChunks=2
+ * QueuePlugin[CACHE][1.0]=org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin,persistentQueue=JDBC,transientQueue=OFFHEAP
+ * </pre>
+ * <p>
+ * The maximum direct memory of the JVM is set with <code>-XX:MaxDirectMemorySize</code>,
+ * if it is exhausted a put fails with <code>resource.outOfMemory</code>.
+ * </p>
+ * @see RamQueuePlugin
+ */
+public final class OffHeapQueuePlugin implements I_Queue, I_StoragePlugin
+{
+   private String ME = "OffHeapQueuePlugin";
+   private static Logger log = Logger.getLogger(OffHeapQueuePlugin.class.getName());
+
+   private static final int NUM_PRIO = PriorityEnum.MAX_PRIORITY.getInt() + 1;
+   private static final byte HAS_REF = 1;
+   private static final byte HAS_MEAT = 2;
+   private static final int INITIAL_SLOTS = 64;
+
+   private Global glob;
+   private PluginInfo pluginInfo;
+   private QueuePropertyBase property;
+   private StorageId storageId;
+   private XBStore xbStore;
+   private boolean notifiedAboutAddOrRemove = false;
+   private I_QueuePutListener putListener;
+   private boolean isShutdown = false;
+   private StorageSizeListenerHelper storageSizeListenerHelper;
+
+   /** The unique ids of each priority, index is the priority */
+   private Ring[] rings;
+   private LongIntMap slotById;
+
+   /** The metadata of the entries, indexed by slot */
+   private long[] slotUniqueId;
+   private long[] slotSize;
+   private long[] slotAddress;
+   private byte[] slotPrio;
+   private boolean[] slotPersistent;
+   private int[] freeSlots;
+   private int numFreeSlots;
+   private int numUsedSlots;
+
+   private int numOfEntries;
+   private long numOfBytes;
+   private long numOfPersistentEntries;
+   private long numOfPersistentBytes;
+
+   /** The direct memory, the chunk index is the high int of an address */
+   private ArrayList chunks;
+   private ArrayList freeChunks;
+   private Chunk current;
+   private int chunkSize = 1024*1024;
+   private int maxFreeChunks = 2;
+   private long directBytes;
+   private int entryCounter;
+
+   /**
+    * A block of direct memory, records are appended and the chunk is given back when the last one is removed.
+    */
+   static final class Chunk {
+      final ByteBuffer buf;
+      int index;
+      int writePos;
+      int liveRecords;
+
+      Chunk(ByteBuffer buf) {
+         this.buf = buf;
+      }
+   }
+
+   /**
+    * The unique ids of one priority in ascending order with the slot of each entry.
+    * Entries are taken from the head and put at the tail, so both are O(1) in the usual case.
+    */
+   static final class Ring {
+      long[] ids = new long[16];
+      int[] slots = new int[16];
+      int head;
+      int tail;
+
+      int size() {
+         return this.tail - this.head;
+      }
+
+      void add(long id, int slot) {
+         if (this.tail == this.ids.length)
+            makeRoom();
+         int pos = this.tail;
+         if (this.tail > this.head && id < this.ids[this.tail-1]) { // older than the newest, insert sorted
+            pos = -(Arrays.binarySearch(this.ids, this.head, this.tail, id) + 1);
+            System.arraycopy(this.ids, pos, this.ids, pos+1, this.tail-pos);
+            System.arraycopy(this.slots, pos, this.slots, pos+1, this.tail-pos);
+         }
+         this.ids[pos] = id;
+         this.slots[pos] = slot;
+         this.tail++;
+      }
+
+      /** @return The index of the id or a negative value */
+      int indexOf(long id) {
+         if (this.tail == this.head)
+            return -1;
+         return Arrays.binarySearch(this.ids, this.head, this.tail, id);
+      }
+
+      /** @return The index of the first id bigger than the given one */
+      int indexAfter(long id) {
+         int pos = indexOf(id);
+         return (pos < 0) ? -(pos + 1) : pos + 1;
+      }
+
+      void removeAt(int pos) {
+         if (pos - this.head < this.tail - pos - 1) { // shift the shorter side
+            System.arraycopy(this.ids, this.head, this.ids, this.head+1, pos-this.head);
+            System.arraycopy(this.slots, this.head, this.slots, this.head+1, pos-this.head);
+            this.head++;
+         }
+         else {
+            System.arraycopy(this.ids, pos+1, this.ids, pos, this.tail-pos-1);
+            System.arraycopy(this.slots, pos+1, this.slots, pos, this.tail-pos-1);
+            this.tail--;
+         }
+         if (this.head == this.tail) {
+            this.head = 0;
+            this.tail = 0;
+         }
+         if (this.ids.length > 1024 && size()*4 < this.ids.length) // give back the heap after a backlog is sent
+            resize(this.ids.length / 2);
+      }
+
+      private void makeRoom() {
+         if (size()*2 <= this.ids.length)
+            resize(this.ids.length); // only move to the front
+         else
+            resize(this.ids.length * 2);
+      }
+
+      private void resize(int capacity) {
+         int size = size();
+         long[] newIds = new long[capacity];
+         int[] newSlots = new int[capacity];
+         System.arraycopy(this.ids, this.head, newIds, 0, size);
+         System.arraycopy(this.slots, this.head, newSlots, 0, size);
+         this.ids = newIds;
+         this.slots = newSlots;
+         this.head = 0;
+         this.tail = size;
+      }
+   }
+
+   /**
+    * Maps the unique id to the slot without creating Long objects (open addressing, -1 is empty).
+    */
+   static final class LongIntMap {
+      private long[] keys;
+      private int[] values;
+      private int size;
+      private int mask;
+
+      LongIntMap() {
+         allocate(64);
+      }
+
+      private void allocate(int capacity) {
+         this.keys = new long[capacity];
+         this.values = new int[capacity];
+         Arrays.fill(this.values, -1);
+         this.mask = capacity - 1;
+         this.size = 0;
+      }
+
+      private int hash(long key) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int)(h ^ (h >>> 32)) & this.mask;
+      }
+
+      int size() {
+         return this.size;
+      }
+
+      int get(long key) {
+         int i = hash(key);
+         while (this.values[i] != -1) {
+            if (this.keys[i] == key)
+               return this.values[i];
+            i = (i + 1) & this.mask;
+         }
+         return -1;
+      }
+
+      void put(long key, int value) {
+         if ((this.size + 1) * 3 > this.keys.length * 2)
+            rehash(this.keys.length * 2);
+         int i = hash(key);
+         while (this.values[i] != -1) {
+            if (this.keys[i] == key) {
+               this.values[i] = value;
+               return;
+            }
+            i = (i + 1) & this.mask;
+         }
+         this.keys[i] = key;
+         this.values[i] = value;
+         this.size++;
+      }
+
+      void remove(long key) {
+         int i = hash(key);
+         while (this.values[i] != -1) {
+            if (this.keys[i] == key)
+               break;
+            i = (i + 1) & this.mask;
+         }
+         if (this.values[i] == -1)
+            return;
+         this.values[i] = -1;
+         this.size--;
+         int j = i;
+         while (true) { // move the following entries of the cluster into the gap
+            j = (j + 1) & this.mask;
+            if (this.values[j] == -1)
+               break;
+            int k = hash(this.keys[j]);
+            if ((i <= j) ? (i < k && k <= j) : (i < k || k <= j))
+               continue;
+            this.keys[i] = this.keys[j];
+            this.values[i] = this.values[j];
+            this.values[j] = -1;
+            i = j;
+         }
+         if (this.keys.length > 1024 && this.size * 8 < this.keys.length)
+            rehash(this.keys.length / 2);
+      }
+
+      void clear() {
+         allocate(64);
+      }
+
+      private void rehash(int capacity) {
+         long[] oldKeys = this.keys;
+         int[] oldValues = this.values;
+         allocate(capacity);
+         for (int i=0; i<oldKeys.length; i++) {
+            if (oldValues[i] != -1)
+               put(oldKeys[i], oldValues[i]);
+         }
+      }
+   }
+
+   public OffHeapQueuePlugin() {
+      this.storageSizeListenerHelper = new StorageSizeListenerHelper(this);
+   }
+
+   /**
+    * Is called after the instance is created, an existing content is dropped.
+    * @see I_Queue#initialize(StorageId, Object)
+    */
+   public void initialize(StorageId uniqueQueueId, Object userData) throws XmlBlasterException {
+      this.property = null;
+      setProperties(userData);
+      if (this.property == null || uniqueQueueId == null)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "Illegal arguments in initialize: storageId=" + uniqueQueueId);
+      this.glob = this.property.getGlobal();
+      this.storageId = uniqueQueueId;
+      this.xbStore = uniqueQueueId.getXBStore();
+      this.ME = "OffHeapQueuePlugin-" + uniqueQueueId.getId();
+      this.chunkSize = this.glob.get("offHeap/chunkSize", this.chunkSize, null, this.pluginInfo);
+      if (this.chunkSize < 1024) {
+         log.warning(ME + ": offHeap/chunkSize=" + this.chunkSize + " is too small, using 1024");
+         this.chunkSize = 1024;
+      }
+      this.maxFreeChunks = this.glob.get("offHeap/maxFreeChunks", this.maxFreeChunks, null, this.pluginInfo);
+      synchronized (this) {
+         reset();
+         this.isShutdown = false;
+      }
+   }
+
+   /**
+    * Drops all entries and the direct memory, the caller holds the monitor.
+    */
+   private void reset() {
+      this.rings = new Ring[NUM_PRIO];
+      for (int i=0; i<NUM_PRIO; i++)
+         this.rings[i] = new Ring();
+      this.slotById = new LongIntMap();
+      this.slotUniqueId = new long[INITIAL_SLOTS];
+      this.slotSize = new long[INITIAL_SLOTS];
+      this.slotAddress = new long[INITIAL_SLOTS];
+      this.slotPrio = new byte[INITIAL_SLOTS];
+      this.slotPersistent = new boolean[INITIAL_SLOTS];
+      this.freeSlots = new int[INITIAL_SLOTS];
+      this.numFreeSlots = 0;
+      this.numUsedSlots = 0;
+      this.numOfEntries = 0;
+      this.numOfBytes = 0L;
+      this.numOfPersistentEntries = 0L;
+      this.numOfPersistentBytes = 0L;
+      this.chunks = new ArrayList();
+      this.freeChunks = new ArrayList();
+      this.current = null;
+      this.directBytes = 0L;
+   }
+
+   /**
+    * @see I_Queue#setProperties(Object)
+    */
+   public void setProperties(Object userData) throws XmlBlasterException {
+      if (userData == null) return;
+      try {
+         this.property = (QueuePropertyBase)userData;
+      }
+      catch(Throwable e) {
+         throw XmlBlasterException.convert(this.glob, ME, "Can't configure queue, your properties are invalid", e);
+      }
+   }
+
+   /**
+    * Access the current queue configuration
+    */
+   public Object getProperties() {
+      return this.property;
+   }
+
+   public boolean isTransient() {
+      return true;
+   }
+
+   public void setNotifiedAboutAddOrRemove(boolean notify) {
+      this.notifiedAboutAddOrRemove = notify;
+   }
+
+   public boolean isNotifiedAboutAddOrRemove() {
+      return this.notifiedAboutAddOrRemove;
+   }
+
+   /**
+    * @see I_Queue#addPutListener(I_QueuePutListener)
+    */
+   public void addPutListener(I_QueuePutListener l) {
+      if (l == null)
+         throw new IllegalArgumentException(ME + ": addPustListener(null) is not allowed");
+      if (this.putListener != null)
+         throw new IllegalArgumentException(ME + ": addPustListener() failed, there is a listener registered already");
+      this.putListener = l;
+   }
+
+   /**
+    * @see I_Queue#removePutListener(I_QueuePutListener)
+    */
+   public void removePutListener(I_QueuePutListener l) {
+      this.putListener = null;
+   }
+
+   /**
+    * @see I_Queue#getEntryReferences()
+    */
+   public long[] getEntryReferences() throws XmlBlasterException {
+      throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_NOTIMPLEMENTED, ME, "getEntryReferences() is not implemented");
+   }
+
+   /**
+    * @see I_Queue#getEntries(I_EntryFilter)
+    */
+   public List getEntries(I_EntryFilter entryFilter) throws XmlBlasterException {
+      ArrayList records;
+      synchronized (this) {
+         records = readRecords(collect(-1, -1L, 0, NUM_PRIO-1, NUM_PRIO, 0L));
+      }
+      return createEntries(records, entryFilter);
+   }
+
+   /** For verbose logging */
+   public StorageId getStorageId() {
+      return this.storageId;
+   }
+
+   //////////////////////////// direct memory ////////////////////////////
+
+   /**
+    * Reserves len bytes of direct memory, the caller holds the monitor.
+    * @return The address, the chunk index in the high int and the offset in the low int
+    */
+   private long allocate(int len) throws XmlBlasterException {
+      Chunk chunk = this.current;
+      try {
+         if (len > this.chunkSize) {
+            chunk = addChunk(ByteBuffer.allocateDirect(len)); // for this entry only
+            this.directBytes += len;
+         }
+         else if (chunk == null || chunk.writePos + len > chunk.buf.capacity()) {
+            if (chunk != null && chunk.liveRecords == 0) {
+               chunk.writePos = 0;
+            }
+            else {
+               ByteBuffer buf;
+               if (this.freeChunks.size() > 0) {
+                  buf = (ByteBuffer)this.freeChunks.remove(this.freeChunks.size()-1);
+               }
+               else {
+                  buf = ByteBuffer.allocateDirect(this.chunkSize);
+                  this.directBytes += this.chunkSize;
+               }
+               chunk = addChunk(buf);
+               this.current = chunk;
+            }
+         }
+      }
+      catch (OutOfMemoryError e) {
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_OUTOFMEMORY, ME,
+               "No direct memory left for " + len + " bytes, " + this.directBytes + " bytes are used, try increasing -XX:MaxDirectMemorySize", e);
+      }
+      int offset = chunk.writePos;
+      chunk.writePos += len;
+      chunk.liveRecords++;
+      return ((long)chunk.index << 32) | offset;
+   }
+
+   private Chunk addChunk(ByteBuffer buf) {
+      Chunk chunk = new Chunk(buf);
+      int index = this.chunks.indexOf(null);
+      if (index < 0) {
+         index = this.chunks.size();
+         this.chunks.add(chunk);
+      }
+      else {
+         this.chunks.set(index, chunk);
+      }
+      chunk.index = index;
+      return chunk;
+   }
+
+   /**
+    * Gives the record at the address back, the caller holds the monitor.
+    */
+   private void release(long address) {
+      Chunk chunk = (Chunk)this.chunks.get((int)(address >>> 32));
+      chunk.liveRecords--;
+      if (chunk.liveRecords > 0)
+         return;
+      if (chunk == this.current) {
+         chunk.writePos = 0;
+         return;
+      }
+      this.chunks.set(chunk.index, null);
+      if (chunk.buf.capacity() == this.chunkSize && this.freeChunks.size() < this.maxFreeChunks) {
+         chunk.buf.clear();
+         this.freeChunks.add(chunk.buf);
+      }
+      else {
+         this.directBytes -= chunk.buf.capacity(); // freed by the garbage collector
+      }
+   }
+
+   private ByteBuffer position(long address) {
+      ByteBuffer buf = ((Chunk)this.chunks.get((int)(address >>> 32))).buf;
+      buf.position((int)address);
+      return buf;
+   }
+
+   //////////////////////////// serialization ////////////////////////////
+
+   private static byte[] toBytes(String str) {
+      if (str == null)
+         return null;
+      try {
+         return str.getBytes(Constants.UTF8_ENCODING);
+      }
+      catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e.toString());
+      }
+   }
+
+   private static int sizeOf(byte[] bytes) {
+      return 4 + ((bytes == null) ? 0 : bytes.length);
+   }
+
+   private static void put(ByteBuffer buf, byte[] bytes) {
+      if (bytes == null) {
+         buf.putInt(-1);
+         return;
+      }
+      buf.putInt(bytes.length);
+      buf.put(bytes);
+   }
+
+   private static byte[] getBytes(ByteBuffer buf) {
+      int len = buf.getInt();
+      if (len < 0)
+         return null;
+      byte[] bytes = new byte[len];
+      buf.get(bytes);
+      return bytes;
+   }
+
+   private static String getString(ByteBuffer buf) {
+      byte[] bytes = getBytes(buf);
+      if (bytes == null)
+         return null;
+      try {
+         return new String(bytes, Constants.UTF8_ENCODING);
+      }
+      catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e.toString());
+      }
+   }
+
+   /**
+    * The XBRef and XBMeat of an entry prepared for writing, created outside of the monitor.
+    */
+   private static final class Record {
+      final I_QueueEntry entry;
+      final XBRef ref;
+      final XBMeat meat;
+      final byte[][] strings;
+      final int length;
+
+      Record(I_QueueEntry entry) throws XmlBlasterException {
+         this.entry = entry;
+         this.ref = entry.getRef();
+         this.meat = entry.getMeat();
+         this.strings = new byte[9][];
+         int len = 1;
+         if (this.ref != null) {
+            this.strings[0] = toBytes(this.ref.getMethodName());
+            this.strings[1] = toBytes(this.ref.getMetaInfo());
+            this.strings[2] = toBytes(this.ref.getFlag1());
+            len += 8 + 8 + 1 + 8 + 4 + sizeOf(this.strings[0]) + sizeOf(this.strings[1]) + sizeOf(this.strings[2]);
+         }
+         if (this.meat != null) {
+            this.strings[3] = toBytes(this.meat.getDataType());
+            this.strings[4] = toBytes(this.meat.getMetaInfo());
+            this.strings[5] = toBytes(this.meat.getFlag1());
+            this.strings[6] = toBytes(this.meat.getKey());
+            this.strings[7] = toBytes(this.meat.getQos());
+            this.strings[8] = this.meat.getContent();
+            len += 8 + 1 + 8 + 8 + 8;
+            for (int i=3; i<9; i++)
+               len += sizeOf(this.strings[i]);
+         }
+         this.length = len;
+      }
+
+      void write(ByteBuffer buf) {
+         buf.put((byte)((this.ref != null ? HAS_REF : 0) | (this.meat != null ? HAS_MEAT : 0)));
+         if (this.ref != null) {
+            buf.putLong(this.ref.getId());
+            buf.putLong(this.ref.getMeatId());
+            buf.put(this.ref.isDurable() ? (byte)1 : (byte)0);
+            buf.putLong(this.ref.getByteSize());
+            buf.putInt(this.ref.getPrio());
+            for (int i=0; i<3; i++)
+               put(buf, this.strings[i]);
+         }
+         if (this.meat != null) {
+            buf.putLong(this.meat.getId());
+            buf.put(this.meat.isDurable() ? (byte)1 : (byte)0);
+            buf.putLong(this.meat.getByteSize());
+            buf.putLong(this.meat.getRefCount());
+            buf.putLong(this.meat.getRefCount2());
+            for (int i=3; i<9; i++)
+               put(buf, this.strings[i]);
+         }
+      }
+   }
+
+   /**
+    * Reads the record of the slot, the caller holds the monitor.
+    * @return [XBRef, XBMeat], both can be null
+    */
+   private Object[] readRecord(int slot) {
+      ByteBuffer buf = position(this.slotAddress[slot]);
+      byte flags = buf.get();
+      XBRef ref = null;
+      XBMeat meat = null;
+      if ((flags & HAS_REF) != 0) {
+         ref = new XBRef();
+         ref.setId(buf.getLong());
+         ref.setMeatId(buf.getLong());
+         ref.setDurable(buf.get() != 0);
+         ref.setByteSize(buf.getLong());
+         ref.setPrio(buf.getInt());
+         ref.setMethodName(getString(buf));
+         ref.setMetaInfo(getString(buf));
+         ref.setFlag1(getString(buf));
+      }
+      if ((flags & HAS_MEAT) != 0) {
+         meat = new XBMeat();
+         meat.setId(buf.getLong());
+         meat.setDurable(buf.get() != 0);
+         meat.setByteSize(buf.getLong());
+         meat.setRefCount(buf.getLong());
+         meat.setRefCount2(buf.getLong());
+         meat.setDataType(getString(buf));
+         meat.setMetaInfo(getString(buf));
+         meat.setFlag1(getString(buf));
+         meat.setKey(getString(buf));
+         meat.setQos(getString(buf));
+         meat.setContent(getBytes(buf));
+         if (ref != null)
+            ref.setMeat(meat);
+      }
+      return new Object[] { ref, meat };
+   }
+
+   private ArrayList readRecords(int[] slots) {
+      ArrayList ret = new ArrayList(slots.length);
+      for (int i=0; i<slots.length; i++)
+         ret.add(readRecord(slots[i]));
+      return ret;
+   }
+
+   /**
+    * Creates the entries outside of the monitor, this is the expensive part (parsing of the QoS).
+    */
+   private ArrayList createEntries(ArrayList records, I_EntryFilter entryFilter) throws XmlBlasterException {
+      ArrayList ret = new ArrayList(records.size());
+      for (int i=0; i<records.size(); i++) {
+         Object[] refMeat = (Object[])records.get(i);
+         I_Entry entry = this.glob.getEntryFactory().createEntry(this.xbStore, (XBMeat)refMeat[1], (XBRef)refMeat[0]);
+         if (entryFilter != null)
+            entry = entryFilter.intercept(entry, this);
+         if (entry != null)
+            ret.add(entry);
+      }
+      return ret;
+   }
+
+   //////////////////////////// index ////////////////////////////
+
+   private static int toPrio(int priority) {
+      if (priority < 0) return 0;
+      return (priority >= NUM_PRIO) ? NUM_PRIO-1 : priority;
+   }
+
+   private int newSlot() {
+      if (this.numFreeSlots > 0)
+         return this.freeSlots[--this.numFreeSlots];
+      if (this.numUsedSlots == this.slotUniqueId.length) {
+         int capacity = this.slotUniqueId.length * 2;
+         long[] ids = new long[capacity];
+         System.arraycopy(this.slotUniqueId, 0, ids, 0, this.numUsedSlots);
+         this.slotUniqueId = ids;
+         long[] sizes = new long[capacity];
+         System.arraycopy(this.slotSize, 0, sizes, 0, this.numUsedSlots);
+         this.slotSize = sizes;
+         long[] addresses = new long[capacity];
+         System.arraycopy(this.slotAddress, 0, addresses, 0, this.numUsedSlots);
+         this.slotAddress = addresses;
+         byte[] prios = new byte[capacity];
+         System.arraycopy(this.slotPrio, 0, prios, 0, this.numUsedSlots);
+         this.slotPrio = prios;
+         boolean[] persistent = new boolean[capacity];
+         System.arraycopy(this.slotPersistent, 0, persistent, 0, this.numUsedSlots);
+         this.slotPersistent = persistent;
+         int[] free = new int[capacity];
+         System.arraycopy(this.freeSlots, 0, free, 0, this.numFreeSlots);
+         this.freeSlots = free;
+      }
+      return this.numUsedSlots++;
+   }
+
+   /**
+    * Writes the entry to direct memory and adds it to the index, the caller holds the monitor.
+    * @return false if the entry is in the queue already
+    */
+   private boolean add(Record record) throws XmlBlasterException {
+      I_QueueEntry entry = record.entry;
+      long uniqueId = entry.getUniqueId();
+      if (this.slotById.get(uniqueId) >= 0) {
+         log.severe(ME + ": Ignoring IDENTICAL uniqueId=" + uniqueId);
+         return false;
+      }
+      long address = allocate(record.length);
+      record.write(position(address));
+      int slot = newSlot();
+      int prio = toPrio(entry.getPriority());
+      long size = entry.getSizeInBytes();
+      this.slotUniqueId[slot] = uniqueId;
+      this.slotSize[slot] = size;
+      this.slotAddress[slot] = address;
+      this.slotPrio[slot] = (byte)prio;
+      this.slotPersistent[slot] = entry.isPersistent();
+      this.rings[prio].add(uniqueId, slot);
+      this.slotById.put(uniqueId, slot);
+      this.numOfEntries++;
+      this.numOfBytes += size;
+      if (entry.isPersistent()) {
+         this.numOfPersistentEntries++;
+         this.numOfPersistentBytes += size;
+      }
+      return true;
+   }
+
+   /**
+    * Removes the entry of the slot, the caller holds the monitor.
+    */
+   private void removeSlot(int slot) {
+      long uniqueId = this.slotUniqueId[slot];
+      Ring ring = this.rings[this.slotPrio[slot]];
+      int pos = ring.indexOf(uniqueId);
+      if (pos >= 0)
+         ring.removeAt(pos);
+      this.slotById.remove(uniqueId);
+      release(this.slotAddress[slot]);
+      this.numOfEntries--;
+      this.numOfBytes -= this.slotSize[slot];
+      if (this.slotPersistent[slot]) {
+         this.numOfPersistentEntries--;
+         this.numOfPersistentBytes -= this.slotSize[slot];
+      }
+      this.freeSlots[this.numFreeSlots++] = slot;
+      if (this.numOfEntries == 0 && this.slotUniqueId.length > 4096) // release the heap of a big backlog
+         shrinkSlots();
+   }
+
+   private void shrinkSlots() {
+      this.slotUniqueId = new long[INITIAL_SLOTS];
+      this.slotSize = new long[INITIAL_SLOTS];
+      this.slotAddress = new long[INITIAL_SLOTS];
+      this.slotPrio = new byte[INITIAL_SLOTS];
+      this.slotPersistent = new boolean[INITIAL_SLOTS];
+      this.freeSlots = new int[INITIAL_SLOTS];
+      this.numFreeSlots = 0;
+      this.numUsedSlots = 0;
+   }
+
+   private void removeSlots(int[] slots) {
+      for (int i=0; i<slots.length; i++)
+         removeSlot(slots[i]);
+   }
+
+   private static int[] toArray(int[] slots, int num) {
+      if (num == slots.length)
+         return slots;
+      int[] ret = new int[num];
+      System.arraycopy(slots, 0, ret, 0, num);
+      return ret;
+   }
+
+   /**
+    * Collects the slots in queue order like RamQueuePlugin.genericPeek(), the caller holds the monitor.
+    * @param minPrio if negative only entries with the priority of the first entry are taken
+    * @param startPrio Only entries after the entry startPrio/startId are taken, NUM_PRIO to start at the beginning
+    */
+   private int[] collect(int numOfEntries, long numOfBytes, int minPrio, int maxPrio, int startPrio, long startId) {
+      int[] ret = new int[(numOfEntries < 0) ? Math.min(this.numOfEntries, 1024) : Math.min(this.numOfEntries, numOfEntries)];
+      int num = 0;
+      long countBytes = 0L;
+      outer:
+      for (int prio=NUM_PRIO-1; prio>=0; prio--) {
+         Ring ring = this.rings[prio];
+         if (ring.size() == 0 || prio > startPrio)
+            continue;
+         int i = (prio == startPrio) ? ring.indexAfter(startId) : ring.head;
+         for (; i<ring.tail; i++) {
+            if (num >= numOfEntries && numOfEntries >= 0) break outer;
+            int slot = ring.slots[i];
+            long size = this.slotSize[slot];
+            if ((countBytes+size>=numOfBytes) && num>0 && numOfBytes>-1) break outer;
+            if (minPrio < 0) {
+               minPrio = prio;
+               maxPrio = minPrio;
+            }
+            if (prio < minPrio) break outer;
+            if (prio > maxPrio) break; // the next lower priority may match
+            countBytes += size;
+            if (num == ret.length) {
+               int[] tmp = new int[num*2];
+               System.arraycopy(ret, 0, tmp, 0, num);
+               ret = tmp;
+            }
+            ret[num++] = slot;
+         }
+      }
+      return toArray(ret, num);
+   }
+
+   /**
+    * Like MsgQueueEntry.compare(): is the entry prio/id sorted before the entry limitPrio/limitId?
+    */
+   private static boolean isBefore(int prio, long id, int limitPrio, long limitId) {
+      if (prio != limitPrio)
+         return prio > limitPrio;
+      return id < limitId;
+   }
+
+   /**
+    * The slots of all entries sorted before the limit entry, the caller holds the monitor.
+    */
+   private int[] collectBefore(I_QueueEntry limitEntry, boolean inclusive) {
+      int limitPrio = limitEntry.getPriority();
+      long limitId = limitEntry.getUniqueId();
+      int[] ret = new int[Math.min(this.numOfEntries, 1024)];
+      int num = 0;
+      outer:
+      for (int prio=NUM_PRIO-1; prio>=0; prio--) {
+         Ring ring = this.rings[prio];
+         for (int i=ring.head; i<ring.tail; i++) {
+            long id = ring.ids[i];
+            if (!isBefore(prio, id, limitPrio, limitId)) {
+               if (inclusive && prio == limitPrio && id == limitId) {
+                  if (num == ret.length) ret = toArray(ret, num, num+1);
+                  ret[num++] = ring.slots[i];
+               }
+               break outer;
+            }
+            if (num == ret.length) ret = toArray(ret, num, num*2+1);
+            ret[num++] = ring.slots[i];
+         }
+      }
+      return toArray(ret, num);
+   }
+
+   private static int[] toArray(int[] slots, int num, int capacity) {
+      int[] ret = new int[capacity];
+      System.arraycopy(slots, 0, ret, 0, num);
+      return ret;
+   }
+
+   private void checkIsUp(String method) throws XmlBlasterException {
+      if (this.isShutdown) {
+         if (log.isLoggable(Level.FINE)) log.fine(ME + ": The queue is shutdown, " + method + "() failed");
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_UNKNOWN, ME, "The queue is shutdown, " + method + "() failed");
+      }
+   }
+
+   /**
+    * Checks the overflow, one superload is allowed like in the other queues
+    */
+   private void checkSpaceLeft() throws XmlBlasterException {
+      if (this.numOfEntries > getMaxNumOfEntries()) {
+         String reason = "Queue overflow (number of entries), " + getMaxNumOfEntries() +
+                         " messages are in queue, try increasing '" + this.property.getPropName("maxEntries") + "' on client login.";
+         if (log.isLoggable(Level.FINE)) log.fine(reason);
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_OVERFLOW_QUEUE_ENTRIES, ME, reason);
+      }
+      if (this.numOfBytes > getMaxNumOfBytes()) {
+         String reason = "Queue overflow, " + this.numOfBytes + " bytes are in queue, try increasing '" +
+                         this.property.getPropName("maxBytes") + "' on client login.";
+         if (log.isLoggable(Level.FINE)) log.fine(reason);
+         throw new XmlBlasterException(this.glob, ErrorCode.RESOURCE_OVERFLOW_QUEUE_BYTES, ME, reason);
+      }
+   }
+
+   private void notifyRemoved(List entries) {
+      if (!this.notifiedAboutAddOrRemove || entries == null)
+         return;
+      for (int i=0; i<entries.size(); i++)
+         ((I_Entry)entries.get(i)).removed(this.storageId);
+   }
+
+   //////////////////////////// I_Queue ////////////////////////////
+
+   /**
+    * @see I_Queue#put(I_QueueEntry, boolean)
+    */
+   public void put(I_QueueEntry queueEntry, boolean ignorePutInterceptor) throws XmlBlasterException {
+      if (queueEntry == null)
+         return;
+      put(new I_QueueEntry[] { queueEntry }, ignorePutInterceptor);
+   }
+
+   /**
+    * The entries are serialized before the monitor is taken.
+    * @see I_Queue#put(I_QueueEntry[], boolean)
+    */
+   public void put(I_QueueEntry[] queueEntries, boolean ignorePutInterceptor) throws XmlBlasterException {
+      if (queueEntries == null || queueEntries.length == 0)
+         return;
+      checkIsUp("put");
+
+      if ((this.putListener != null) && (!ignorePutInterceptor)) {
+         // Is an interceptor registered (and not bypassed) ?
+         if (this.putListener.putPre(queueEntries) == false)
+            return;
+      }
+
+      Record[] records = new Record[queueEntries.length];
+      for (int i=0; i<queueEntries.length; i++) {
+         if (queueEntries[i] != null)
+            records[i] = new Record(queueEntries[i]);
+      }
+
+      boolean[] added = new boolean[records.length];
+      synchronized (this) {
+         checkIsUp("put");
+         checkSpaceLeft();
+         for (int i=0; i<records.length; i++) {
+            if (records[i] != null)
+               added[i] = add(records[i]);
+         }
+      }
+      for (int i=0; i<queueEntries.length; i++) {
+         if (!added[i])
+            continue;
+         queueEntries[i].setStored(true);
+         if (this.notifiedAboutAddOrRemove)
+            queueEntries[i].added(this.storageId);
+      }
+
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      if (this.putListener != null && !ignorePutInterceptor) {
+         this.putListener.putPost(queueEntries);
+      }
+   }
+
+   /**
+    * @see I_Queue#peek()
+    */
+   public I_QueueEntry peek() throws XmlBlasterException {
+      List list = peek(1, -1L);
+      return (list.size() < 1) ? null : (I_QueueEntry)list.get(0);
+   }
+
+   /**
+    * @see I_Queue#peek(int, long)
+    */
+   public ArrayList peek(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      return peekWithPriority(numOfEntries, numOfBytes, 0, NUM_PRIO-1);
+   }
+
+   /**
+    * @see I_Queue#peekStartAt(int, long, I_QueueEntry)
+    */
+   public ArrayList peekStartAt(int numOfEntries, long numOfBytes, I_QueueEntry firstEntryExlusive) throws XmlBlasterException {
+      if (firstEntryExlusive == null)
+         return peek(numOfEntries, numOfBytes);
+      if (numOfEntries == 0) return new ArrayList();
+      ArrayList records;
+      synchronized (this) {
+         records = readRecords(collect(numOfEntries, numOfBytes, 0, NUM_PRIO-1,
+                                       toPrio(firstEntryExlusive.getPriority()), firstEntryExlusive.getUniqueId()));
+      }
+      return createEntries(records, null);
+   }
+
+   /**
+    * @see I_Queue#peekSamePriority(int, long)
+    */
+   public ArrayList peekSamePriority(int numOfEntries, long numOfBytes) throws XmlBlasterException {
+      return peekWithPriority(numOfEntries, numOfBytes, -1, -1);
+   }
+
+   /**
+    * @param minPriority if -1 then only entries with similar priority as the first one are taken (= peekSamePriority())
+    * @see I_Queue#peekWithPriority(int, long, int, int)
+    */
+   public ArrayList peekWithPriority(int numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      if (numOfEntries == 0) return new ArrayList();
+      ArrayList records;
+      synchronized (this) {
+         records = readRecords(collect(numOfEntries, numOfBytes, minPriority, maxPriority, NUM_PRIO, 0L));
+      }
+      return createEntries(records, null);
+   }
+
+   /**
+    * @see I_Queue#peekWithLimitEntry(I_QueueEntry)
+    * @deprecated
+    */
+   @Deprecated
+   public ArrayList peekWithLimitEntry(I_QueueEntry limitEntry) throws XmlBlasterException {
+      if (limitEntry == null) return new ArrayList();
+      ArrayList records;
+      synchronized (this) {
+         records = readRecords(collectBefore(limitEntry, false));
+      }
+      return createEntries(records, null);
+   }
+
+   /**
+    * @see I_Queue#removeWithLimitEntry(I_QueueEntry, boolean)
+    */
+   public long removeWithLimitEntry(I_QueueEntry limitEntry, boolean inclusive) throws XmlBlasterException {
+      if (limitEntry == null) return 0L;
+      ArrayList records = null;
+      int num;
+      synchronized (this) {
+         int[] slots = collectBefore(limitEntry, inclusive);
+         if (this.notifiedAboutAddOrRemove)
+            records = readRecords(slots);
+         removeSlots(slots);
+         num = slots.length;
+      }
+      if (records != null)
+         notifyRemoved(createEntries(records, null));
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return num;
+   }
+
+   /**
+    * @see I_Queue#takeWithPriority(int, long, int, int)
+    */
+   public ArrayList takeWithPriority(int numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      checkIsUp("takeWithPriority");
+      if (numOfEntries == 0) return new ArrayList();
+      ArrayList records;
+      synchronized (this) {
+         int[] slots = collect(numOfEntries, numOfBytes, minPriority, maxPriority, NUM_PRIO, 0L);
+         records = readRecords(slots);
+         removeSlots(slots);
+      }
+      ArrayList ret = createEntries(records, null);
+      notifyRemoved(ret);
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return ret;
+   }
+
+   /**
+    * Helper method to find out if still to retrieve entries in takeLowest or not.
+    */
+   private final boolean isInsideRange(int numEntries, int maxNumEntries, long numBytes, long maxNumBytes) {
+      if (maxNumEntries < 0) {
+         if (maxNumBytes <0L) return true;
+         return numBytes < maxNumBytes;
+      }
+      if (maxNumBytes <0L) return numEntries < maxNumEntries;
+      return numEntries < maxNumEntries || numBytes < maxNumBytes;
+   }
+
+   /**
+    * Walks from the lowest priority and the newest entry backwards.
+    */
+   private ArrayList takeOrPeekLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne, boolean doDelete)
+      throws XmlBlasterException {
+      ArrayList records;
+      synchronized (this) {
+         int[] slots = new int[Math.min(this.numOfEntries, (numOfEntries < 0) ? 1024 : numOfEntries+1)];
+         int num = 0;
+         long totalSizeInBytes = 0L;
+         outer:
+         for (int prio=0; prio<NUM_PRIO; prio++) {
+            Ring ring = this.rings[prio];
+            for (int i=ring.tail-1; i>=ring.head; i--) {
+               if (!isInsideRange(num, numOfEntries, totalSizeInBytes, numOfBytes)) break outer;
+               int slot = ring.slots[i];
+               totalSizeInBytes += this.slotSize[slot];
+               if (limitEntry != null && !isBefore(limitEntry.getPriority(), limitEntry.getUniqueId(), prio, ring.ids[i])) break outer;
+               if (num == slots.length) slots = toArray(slots, num, num*2+1);
+               slots[num++] = slot;
+            }
+         }
+         if (leaveOne && this.numOfEntries == num && num > 0)
+            num--;
+         slots = toArray(slots, num);
+         records = readRecords(slots);
+         if (doDelete)
+            removeSlots(slots);
+      }
+      ArrayList ret = createEntries(records, null);
+      if (doDelete) {
+         notifyRemoved(ret);
+         this.storageSizeListenerHelper.invokeStorageSizeListener();
+      }
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#takeLowest(int, long, I_QueueEntry, boolean)
+    */
+   public ArrayList takeLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne) throws XmlBlasterException {
+      return takeOrPeekLowest(numOfEntries, numOfBytes, limitEntry, leaveOne, true);
+   }
+
+   /**
+    * @see I_Queue#peekLowest(int, long, I_QueueEntry, boolean)
+    */
+   public ArrayList peekLowest(int numOfEntries, long numOfBytes, I_QueueEntry limitEntry, boolean leaveOne) throws XmlBlasterException {
+      return takeOrPeekLowest(numOfEntries, numOfBytes, limitEntry, leaveOne, false);
+   }
+
+   /**
+    * @see I_Queue#remove()
+    */
+   public int remove() throws XmlBlasterException {
+      return (int)removeNum(1L);
+   }
+
+   /**
+    * @see I_Queue#removeNum(long)
+    */
+   public long removeNum(long numOfEntries) throws XmlBlasterException {
+      if (numOfEntries > Integer.MAX_VALUE)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "remove: too many entries to remove " + numOfEntries);
+      return removeWithPriority(numOfEntries, -1L, 0, NUM_PRIO-1);
+   }
+
+   /**
+    * @see I_Queue#removeWithPriority(long, long, int, int)
+    */
+   public long removeWithPriority(long numOfEntries, long numOfBytes, int minPriority, int maxPriority) throws XmlBlasterException {
+      if (numOfEntries > Integer.MAX_VALUE)
+         throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "remove: too many entries to remove " + numOfEntries);
+      if (numOfEntries == 0) return 0L;
+      ArrayList records = null;
+      int num;
+      synchronized (this) {
+         int[] slots = collect((int)numOfEntries, numOfBytes, minPriority, maxPriority, NUM_PRIO, 0L);
+         if (this.notifiedAboutAddOrRemove)
+            records = readRecords(slots);
+         removeSlots(slots);
+         num = slots.length;
+      }
+      if (records != null)
+         notifyRemoved(createEntries(records, null));
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return num;
+   }
+
+   /**
+    * @see I_Queue#removeRandom(I_Entry)
+    */
+   public int removeRandom(I_Entry entry) throws XmlBlasterException {
+      if (entry == null)
+         return 0;
+      return removeRandom(new I_Entry[] { entry })[0] ? 1 : 0;
+   }
+
+   /**
+    * The entries are found by their unique id, the passed instances are notified.
+    * @see I_Queue#removeRandom(I_Entry[])
+    */
+   public boolean[] removeRandom(I_Entry[] queueEntries) throws XmlBlasterException {
+      if (queueEntries == null || queueEntries.length == 0)
+         return new boolean[0];
+      boolean[] ret = new boolean[queueEntries.length];
+      synchronized (this) {
+         for (int i=0; i<queueEntries.length; i++) {
+            if (queueEntries[i] == null)
+               continue;
+            int slot = this.slotById.get(queueEntries[i].getUniqueId());
+            if (slot >= 0) {
+               removeSlot(slot);
+               ret[i] = true;
+            }
+         }
+      }
+      for (int i=0; i<queueEntries.length; i++) {
+         if (queueEntries[i] == null)
+            continue;
+         queueEntries[i].setStored(false); // tell the entry it has been removed from the storage ...
+         if (this.notifiedAboutAddOrRemove)
+            queueEntries[i].removed(this.storageId);
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#getNumOfEntries()
+    */
+   public synchronized long getNumOfEntries() {
+      return this.numOfEntries;
+   }
+
+   /**
+    * @see I_Queue#getNumOfPersistentEntries()
+    */
+   public long getNumOfPersistentEntries() {
+      return this.numOfPersistentEntries;
+   }
+
+   /**
+    * @see I_Queue#getMaxNumOfEntries()
+    */
+   public long getMaxNumOfEntries() {
+      return this.property.getMaxEntries();
+   }
+
+   /**
+    * @see I_Queue#getNumOfBytes()
+    */
+   public long getNumOfBytes() {
+      return this.numOfBytes;
+   }
+
+   /**
+    * @see I_Queue#getNumOfPersistentBytes()
+    */
+   public long getNumOfPersistentBytes() {
+      return this.numOfPersistentBytes;
+   }
+
+   /**
+    * @see I_Queue#getMaxNumOfBytes()
+    */
+   public long getMaxNumOfBytes() {
+      return this.property.getMaxBytes();
+   }
+
+   /**
+    * @return The allocated direct memory in bytes, including the free chunks kept for reuse
+    */
+   public synchronized long getNumOfDirectBytes() {
+      return this.directBytes;
+   }
+
+   /**
+    * Flush the queue, the direct memory is given back
+    * @return The number of messages erased
+    */
+   public long clear() {
+      List removed = null;
+      long ret;
+      try {
+         if (this.notifiedAboutAddOrRemove)
+            removed = getEntries(null);
+      }
+      catch (XmlBlasterException e) {
+         log.severe(ME + ": clear can't notify the removed entries: " + e.getMessage());
+      }
+      synchronized (this) {
+         if (this.rings == null)
+            return 0L;
+         ret = this.numOfEntries;
+         reset();
+      }
+      notifyRemoved(removed);
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      return ret;
+   }
+
+   /**
+    * @see I_Queue#removeHead(I_QueueEntry)
+    */
+   public long removeHead(I_QueueEntry toEntry) throws XmlBlasterException {
+      throw new XmlBlasterException(this.glob, ErrorCode.INTERNAL_NOTIMPLEMENTED, ME, "removeHead() is not implemented");
+   }
+
+   public void shutdown() {
+      int size;
+      synchronized (this) {
+         if (this.isShutdown) return;
+         this.isShutdown = true;
+         size = this.numOfEntries;
+      }
+      this.storageSizeListenerHelper.invokeStorageSizeListener();
+      removeStorageSizeListener(null);
+      if (size > 0 && log.isLoggable(Level.FINE))
+         log.fine(ME + ": Shutting down off-heap queue which contains " + size + " messages");
+      this.glob.getQueuePluginManager().cleanup(this);
+   }
+
+   public boolean isShutdown() {
+      return this.isShutdown;
+   }
+
+   /**
+    * Destroys silently all the resources associated to this queue.
+    */
+   public void destroy() throws XmlBlasterException {
+      synchronized (this) {
+         reset();
+      }
+      shutdown();
+      this.property = null;
+   }
+
+   /**
+    * @return a human readable usage help string
+    */
+   public String usage() {
+      return "Transient queue in direct memory, configure with offHeap/chunkSize and offHeap/maxFreeChunks";
+   }
+
+   /**
+    * Dump state of this object into a XML ASCII string.
+    */
+   public String toXml() {
+      return toXml((String)null);
+   }
+
+   /**
+    * @return internal state as a XML ASCII string
+    */
+   public String toXml(String extraOffset) {
+      StringBuffer sb = new StringBuffer(256);
+      if (extraOffset == null) extraOffset = "";
+      String offset = Constants.OFFSET + extraOffset;
+
+      sb.append(offset).append("<OffHeapQueuePlugin id='").append(getStorageId().getId());
+      sb.append("' type='").append(getType());
+      sb.append("' version='").append(getVersion());
+      sb.append("' numOfEntries='").append(getNumOfEntries());
+      sb.append("' numOfBytes='").append(getNumOfBytes());
+      sb.append("' numOfPersistentEntries='").append(getNumOfPersistentEntries());
+      sb.append("' numOfPersistentBytes='").append(getNumOfPersistentBytes());
+      sb.append("' numOfDirectBytes='").append(getNumOfDirectBytes());
+      sb.append("'>");
+      if (this.property != null)
+         sb.append(this.property.toXml(extraOffset+Constants.INDENT));
+      sb.append(offset).append("</OffHeapQueuePlugin>");
+      return sb.toString();
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @see org.xmlBlaster.util.plugin.I_Plugin#init(org.xmlBlaster.util.Global, PluginInfo)
+    */
+   public void init(org.xmlBlaster.util.Global glob, PluginInfo pluginInfo) {
+      this.glob = glob;
+      this.pluginInfo = pluginInfo;
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @return "OFFHEAP"
+    */
+   public String getType() {
+      return "OFFHEAP";
+   }
+
+   /**
+    * Enforced by I_Plugin
+    * @return "1.0"
+    */
+   public String getVersion() {
+      return "1.0";
+   }
+
+   /**
+    * Enforced by I_StoragePlugin
+    * @return the pluginInfo object.
+    */
+   public PluginInfo getInfo() {
+      return this.pluginInfo;
+   }
+
+   /**
+    * @see org.xmlBlaster.util.queue.I_StorageProblemNotifier#registerStorageProblemListener(I_StorageProblemListener)
+    */
+   public boolean registerStorageProblemListener(I_StorageProblemListener listener) {
+      return false;
+   }
+
+   /**
+    * @see org.xmlBlaster.util.queue.I_StorageProblemNotifier#unRegisterStorageProblemListener(I_StorageProblemListener)
+    */
+   public boolean unRegisterStorageProblemListener(I_StorageProblemListener listener) {
+      return false;
+   }
+
+   /**
+    * @see I_Queue#addStorageSizeListener(I_StorageSizeListener)
+    */
+   public void addStorageSizeListener(I_StorageSizeListener listener) {
+      this.storageSizeListenerHelper.addStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Queue#removeStorageSizeListener(I_StorageSizeListener)
+    */
+   public void removeStorageSizeListener(I_StorageSizeListener listener) {
+      this.storageSizeListenerHelper.removeStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Queue#hasStorageSizeListener(I_StorageSizeListener)
+    */
+   public boolean hasStorageSizeListener(I_StorageSizeListener listener) {
+      return this.storageSizeListenerHelper.hasStorageSizeListener(listener);
+   }
+
+   /**
+    * @see I_Storage#getStorageSizeListeners()
+    */
+   public I_StorageSizeListener[] getStorageSizeListeners() {
+      return this.storageSizeListenerHelper.getStorageSizeListeners();
+   }
+
+   public long embeddedQueueObjectsToXml(OutputStream out, Properties props) throws Exception {
+      return embeddedObjectsToXml(out, props);
+   }
+
+   /**
+    * @see I_Queue#embeddedObjectsToXml(OutputStream, Properties)
+    */
+   public long embeddedObjectsToXml(final OutputStream out, final Properties props) throws Exception {
+      if (out == null) return 0;
+      this.entryCounter = 0;
+      getEntries(new I_EntryFilter() {
+         public I_Entry intercept(I_Entry entry, I_Storage storage) {
+            entryCounter++;
+            try {
+               entry.embeddedObjectToXml(out, props);
+            }
+            catch (IOException e) {
+               log.warning("Ignoring dumpToFile() problem: "+e.toString());
+            }
+            return null;
+         }
+      });
+      return this.entryCounter;
+   }
+}
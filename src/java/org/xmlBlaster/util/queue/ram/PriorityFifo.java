@@ -0,0 +1,291 @@
+/*------------------------------------------------------------------------------
+Name:      PriorityFifo.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   The storage of RamQueuePlugin, one FIFO per priority
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.queue.ram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+
+/**
+ * Holds the entries sorted like the TreeSet with MsgComparator did it: higher priority first,
+ * then the smaller uniqueId first.
+ * <p>
+ * There is one array FIFO per priority. As the uniqueId is a timestamp, new entries are appended
+ * at the tail and the dispatcher takes from the head, both are O(1).
+ * The uniqueIds are kept sorted in a parallel long[], this is the index for contains() and remove()
+ * (binary search, no Long objects). A removed entry in the middle leaves a null slot which
+ * is dropped when the array is compacted, an entry with an older uniqueId (e.g. reloaded from
+ * the persistent store) is inserted at its sorted position.
+ * </p>
+ * Not thread safe, RamQueuePlugin synchronizes all access.
+ */
+final class PriorityFifo
+{
+   private static final int NUM_PRIO = PriorityEnum.MAX_PRIORITY.getInt() + 1;
+   private final Fifo[] fifos = new Fifo[NUM_PRIO];
+   private int size;
+
+   /**
+    * The entries of one priority, the live entries are between head and tail.
+    */
+   private static final class Fifo {
+      I_QueueEntry[] entries = new I_QueueEntry[16];
+      long[] ids = new long[16];
+      int head;
+      int tail;
+      int size;
+
+      /** @return The index of the id between head and tail or a negative insert position like Arrays.binarySearch() */
+      int indexOf(long id) {
+         if (this.tail == this.head)
+            return -(this.head + 1);
+         if (id > this.ids[this.tail-1])
+            return -(this.tail + 1);
+         return Arrays.binarySearch(this.ids, this.head, this.tail, id);
+      }
+
+      boolean add(I_QueueEntry entry) {
+         long id = entry.getUniqueId();
+         int pos = indexOf(id);
+         if (pos >= 0) {
+            if (this.entries[pos] != null)
+               return false;
+            this.entries[pos] = entry; // the removed slot of the same id
+            this.size++;
+            return true;
+         }
+         pos = -(pos + 1);
+         if (pos == this.head && this.head > 0) { // older than all, use the free slot before the head
+            this.head--;
+            this.entries[this.head] = entry;
+            this.ids[this.head] = id;
+            this.size++;
+            return true;
+         }
+         if (this.tail == this.entries.length) {
+            int before = pos - this.head - countRemoved(this.head, pos);
+            makeRoom();
+            pos = this.head + before;
+         }
+         if (pos < this.tail) {
+            System.arraycopy(this.entries, pos, this.entries, pos+1, this.tail-pos);
+            System.arraycopy(this.ids, pos, this.ids, pos+1, this.tail-pos);
+         }
+         this.entries[pos] = entry;
+         this.ids[pos] = id;
+         this.tail++;
+         this.size++;
+         return true;
+      }
+
+      I_QueueEntry remove(long id) {
+         int pos = indexOf(id);
+         if (pos < 0 || this.entries[pos] == null)
+            return null;
+         I_QueueEntry entry = this.entries[pos];
+         this.entries[pos] = null;
+         this.size--;
+         if (this.size == 0) {
+            this.head = 0;
+            this.tail = 0;
+         }
+         else {
+            while (this.entries[this.head] == null) this.head++;
+            while (this.entries[this.tail-1] == null) this.tail--;
+         }
+         if (this.entries.length > 1024 && this.size*4 < this.entries.length)
+            compact(this.entries.length/2); // give back the memory after a backlog is delivered
+         return entry;
+      }
+
+      private int countRemoved(int from, int to) {
+         int count = 0;
+         for (int i=from; i<to; i++)
+            if (this.entries[i] == null) count++;
+         return count;
+      }
+
+      private void makeRoom() {
+         if (this.size*2 <= this.entries.length)
+            compact(this.entries.length);
+         else
+            compact(this.entries.length*2);
+      }
+
+      /** Moves the live entries to the front of a new array */
+      private void compact(int capacity) {
+         I_QueueEntry[] newEntries = new I_QueueEntry[capacity];
+         long[] newIds = new long[capacity];
+         int j = 0;
+         for (int i=this.head; i<this.tail; i++) {
+            if (this.entries[i] == null) continue;
+            newEntries[j] = this.entries[i];
+            newIds[j] = this.ids[i];
+            j++;
+         }
+         this.entries = newEntries;
+         this.ids = newIds;
+         this.head = 0;
+         this.tail = j;
+      }
+   }
+
+   PriorityFifo() {
+      for (int i=0; i<NUM_PRIO; i++)
+         this.fifos[i] = new Fifo();
+   }
+
+   private static int toIndex(int priority) {
+      if (priority < 0) return 0;
+      return (priority >= NUM_PRIO) ? NUM_PRIO-1 : priority;
+   }
+
+   int size() {
+      return this.size;
+   }
+
+   /**
+    * @return false if an entry with the same priority and uniqueId is stored already
+    */
+   boolean add(I_QueueEntry entry) {
+      if (!this.fifos[toIndex(entry.getPriority())].add(entry))
+         return false;
+      this.size++;
+      return true;
+   }
+
+   boolean contains(I_Entry entry) {
+      Fifo fifo = this.fifos[toIndex(entry.getPriority())];
+      int pos = fifo.indexOf(entry.getUniqueId());
+      return pos >= 0 && fifo.entries[pos] != null;
+   }
+
+   /**
+    * @return The stored entry with the same priority and uniqueId or null if not found
+    */
+   I_QueueEntry remove(I_Entry entry) {
+      I_QueueEntry removed = this.fifos[toIndex(entry.getPriority())].remove(entry.getUniqueId());
+      if (removed != null)
+         this.size--;
+      return removed;
+   }
+
+   /**
+    * @return The entry with the highest priority and the smallest uniqueId or null
+    */
+   I_QueueEntry first() {
+      for (int prio=NUM_PRIO-1; prio>=0; prio--) {
+         Fifo fifo = this.fifos[prio];
+         if (fifo.size > 0)
+            return fifo.entries[fifo.head];
+      }
+      return null;
+   }
+
+   void clear() {
+      for (int i=0; i<NUM_PRIO; i++)
+         this.fifos[i] = new Fifo();
+      this.size = 0;
+   }
+
+   I_QueueEntry[] toArray() {
+      I_QueueEntry[] ret = new I_QueueEntry[this.size];
+      int j = 0;
+      for (Iterator it=iterator(); it.hasNext();)
+         ret[j++] = (I_QueueEntry)it.next();
+      return ret;
+   }
+
+   /**
+    * The entries sorted before limitEntry, like TreeSet.headSet().
+    * @param inclusive if true limitEntry itself is added if it is stored
+    */
+   ArrayList headSet(I_QueueEntry limitEntry, boolean inclusive) {
+      ArrayList ret = new ArrayList();
+      int limitPrio = limitEntry.getPriority();
+      long limitId = limitEntry.getUniqueId();
+      for (int prio=NUM_PRIO-1; prio>=0; prio--) {
+         if (prio < limitPrio)
+            break;
+         Fifo fifo = this.fifos[prio];
+         for (int i=fifo.head; i<fifo.tail; i++) {
+            if (fifo.entries[i] == null) continue;
+            if (prio == limitPrio && (fifo.ids[i] > limitId || (fifo.ids[i] == limitId && !inclusive)))
+               break;
+            ret.add(fifo.entries[i]);
+         }
+      }
+      return ret;
+   }
+
+   /**
+    * @return The entries in queue order, remove() is not supported
+    */
+   Iterator iterator() {
+      return new Iter(false);
+   }
+
+   /**
+    * @return The entries in reverse queue order (lowest priority and newest first), remove() is not supported
+    */
+   Iterator descendingIterator() {
+      return new Iter(true);
+   }
+
+   private final class Iter implements Iterator {
+      private final boolean descending;
+      private int prio;
+      private int pos;
+      private I_QueueEntry next;
+
+      Iter(boolean descending) {
+         this.descending = descending;
+         this.prio = descending ? 0 : NUM_PRIO-1;
+         this.pos = descending ? fifos[this.prio].tail-1 : fifos[this.prio].head;
+         advance();
+      }
+
+      private void advance() {
+         this.next = null;
+         while (this.prio >= 0 && this.prio < NUM_PRIO) {
+            Fifo fifo = fifos[this.prio];
+            while (this.pos >= fifo.head && this.pos < fifo.tail) {
+               I_QueueEntry entry = fifo.entries[this.pos];
+               this.pos += this.descending ? -1 : 1;
+               if (entry != null) {
+                  this.next = entry;
+                  return;
+               }
+            }
+            this.prio += this.descending ? 1 : -1;
+            if (this.prio >= 0 && this.prio < NUM_PRIO)
+               this.pos = this.descending ? fifos[this.prio].tail-1 : fifos[this.prio].head;
+         }
+      }
+
+      public boolean hasNext() {
+         return this.next != null;
+      }
+
+      public Object next() {
+         if (this.next == null)
+            throw new NoSuchElementException();
+         I_QueueEntry ret = this.next;
+         advance();
+         return ret;
+      }
+
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
@@ -9,11 +9,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.Properties;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +34,11 @@ import org.xmlBlaster.util.queue.StorageSizeListenerHelper;
 
 
 /**
- * Queueing messages in RAM only, sorted after priority and timestamp
+ * Queueing messages in RAM only, sorted after priority and timestamp.
+ * <p>
+ * The entries are stored in one FIFO per priority, put, peek and take of the
+ * head are O(1), see PriorityFifo.
+ * </p>
  * @author xmlBlaster@marcelruff.info
  */
 public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
@@ -47,7 +47,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
    private StorageId storageId;       // e.g. "history:/node/heron/12345"
    private boolean notifiedAboutAddOrRemove = false;
 //   private BoundedPriorityQueue boundedPriorityQueue;
-   private TreeSet storage;
+   private PriorityFifo storage;
    private QueuePropertyBase property;
    private Global glob;
    private static Logger log = Logger.getLogger(RamQueuePlugin.class.getName());
@@ -93,7 +93,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
       if (maxEntries > Integer.MAX_VALUE)
          throw new XmlBlasterException(glob, ErrorCode.INTERNAL_ILLEGALARGUMENT, ME, "initialize: The maximum number of messages is too big");
       this.comparator = new MsgComparator();
-      this.storage = new TreeSet(this.comparator);
+      this.storage = new PriorityFifo();
       this.numOfPersistentEntries = 0L;
       this.persistentSizeInBytes = 0L;
       this.isShutdown = false;
@@ -222,7 +222,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
             ret = this.storage.size();
    
             // Take a copy to avoid java.util.ConcurrentModificationException
-            entries = (I_QueueEntry[])this.storage.toArray(new I_QueueEntry[this.storage.size()]);
+            entries = this.storage.toArray();
    
             for (int ii=0; ii<entries.length; ii++) {
                entries[ii].setStored(false);
@@ -278,7 +278,8 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
                entry.setStored(false); // tell the entry it has been removed from the storage ...
             }
 
-            this.storage.removeAll(elementsToDelete);
+            for (int i=0; i < elementsToDelete.size(); i++)
+               this.storage.remove((I_QueueEntry)elementsToDelete.get(i));
             this.sizeInBytes -= ret.countBytes;
             size = elementsToDelete.size();
          }
@@ -411,7 +412,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
    public ArrayList peekWithLimitEntry(I_QueueEntry limitEntry) throws XmlBlasterException {
       if (limitEntry == null) return new ArrayList();
       synchronized (this) {
-         return new ArrayList(this.storage.headSet(limitEntry));
+         return this.storage.headSet(limitEntry, false);
       }
    }
 
@@ -424,12 +425,16 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
          return ret;
       
       synchronized (this) {
-         SortedSet set = this.storage.headSet(limitEntry);
-         ret = set.size();
-         this.storage.removeAll(set);
-         if (inclusive) {
-            if (this.storage.remove(limitEntry)) ret++;
+         ArrayList list = this.storage.headSet(limitEntry, inclusive);
+         for (int i=0; i < list.size(); i++) {
+            I_QueueEntry entry = this.storage.remove((I_QueueEntry)list.get(i));
+            this.sizeInBytes -= entry.getSizeInBytes();
+            if (entry.isPersistent()) {
+               this.numOfPersistentEntries--;
+               this.persistentSizeInBytes -= entry.getSizeInBytes();
+            }
          }
+         ret = list.size();
       }
       this.storageSizeListenerHelper.invokeStorageSizeListener();
       
@@ -528,9 +533,9 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
                   entriesToRemove.add(queueEntries[j]);
                }
                queueEntries[j].setStored(false); // tell the entry it has been removed from the storage ...
-               if (this.storage.remove(queueEntries[j])) {
+               I_Entry entry = this.storage.remove(queueEntries[j]);
+               if (entry != null) {
                   ret[j] = true;
-                  I_Entry entry = queueEntries[j];
                   this.sizeInBytes -= entry.getSizeInBytes();
                   if (entry.isPersistent()) {
                      this.persistentSizeInBytes -= entry.getSizeInBytes();
@@ -592,7 +597,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
                   entriesToRemove.add(entry);
                }
                entry.setStored(false); // tell the entry it has been removed from the storage ...
-               if (this.storage.remove(entry)) {
+               if (this.storage.remove(entry) != null) {
                   this.sizeInBytes -= entry.getSizeInBytes();
                   if (entry.isPersistent()) {
                      this.numOfPersistentEntries--;
@@ -654,16 +659,15 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
       ArrayList entriesToRemove = new ArrayList();
       try {
          synchronized(this) {
-            LinkedList list = new LinkedList(this.storage);
-            ListIterator iter = list.listIterator(list.size());
+            Iterator iter = this.storage.descendingIterator();
             int count = 0;
             long currentSizeInBytes = 0L;
             long totalSizeInBytes = 0L;
             ret = new ArrayList();
 
             // it leaves at least one entry in the list
-            while (iter.hasPrevious()) {
-               I_QueueEntry entry = (I_QueueEntry)iter.previous();
+            while (iter.hasNext()) {
+               I_QueueEntry entry = (I_QueueEntry)iter.next();
                currentSizeInBytes = entry.getSizeInBytes();
                if (!isInsideRange(count, numOfEntries, totalSizeInBytes, numOfBytes)) break;
                totalSizeInBytes += currentSizeInBytes;
@@ -682,7 +686,7 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
                      entriesToRemove.add(entry);
                   }
                   entry.setStored(false); // tell the entry it has been removed from the storage ...
-                  if (this.storage.remove(entry)) {
+                  if (this.storage.remove(entry) != null) {
                      this.sizeInBytes -= entry.getSizeInBytes();
                      if (entry.isPersistent()) {
                         this.numOfPersistentEntries--;
@@ -738,17 +742,15 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
       }
 
       synchronized(this) {
-         if (!this.storage.contains(entry)) {
-            if (this.storage.add(entry)) {
-               entry.setStored(true);
-               this.sizeInBytes += entry.getSizeInBytes();
-               if (entry.isPersistent()) {
-                  this.numOfPersistentEntries++;
-                  this.persistentSizeInBytes += entry.getSizeInBytes();
-               }
-               if (this.notifiedAboutAddOrRemove) {
-                  entry.added(this.storageId);
-               }
+         if (this.storage.add(entry)) {
+            entry.setStored(true);
+            this.sizeInBytes += entry.getSizeInBytes();
+            if (entry.isPersistent()) {
+               this.numOfPersistentEntries++;
+               this.persistentSizeInBytes += entry.getSizeInBytes();
+            }
+            if (this.notifiedAboutAddOrRemove) {
+               entry.added(this.storageId);
             }
          }
          else {
@@ -803,17 +805,15 @@ public final class RamQueuePlugin implements I_Queue, I_StoragePlugin
 //         this.storage.addAll(java.util.Arrays.asList(msgArr));
          for (int i=0; i < msgArr.length; i++) {
             I_QueueEntry entry = msgArr[i];
-            if (!this.storage.contains(entry)) {
-               if (this.storage.add(entry)) {
-                  entry.setStored(true);
-                  this.sizeInBytes += entry.getSizeInBytes();
-                  if (entry.isPersistent()) {
-                     this.numOfPersistentEntries++;
-                     this.persistentSizeInBytes += entry.getSizeInBytes();
-                  }
-                  if (this.notifiedAboutAddOrRemove) {
-                     entry.added(this.storageId);
-                  }
+            if (this.storage.add(entry)) {
+               entry.setStored(true);
+               this.sizeInBytes += entry.getSizeInBytes();
+               if (entry.isPersistent()) {
+                  this.numOfPersistentEntries++;
+                  this.persistentSizeInBytes += entry.getSizeInBytes();
+               }
+               if (this.notifiedAboutAddOrRemove) {
+                  entry.added(this.storageId);
                }
             }
          }
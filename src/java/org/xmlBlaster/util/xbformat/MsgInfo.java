@@ -639,6 +639,20 @@ public class MsgInfo {
       return size;
    }
 
+   /**
+    * @return Returns the byte4.
+    */
+   public byte getByte4() {
+      return this.byte4;
+   }
+
+   /**
+    * @return Returns the byte5, see XbfParser.BINARY_QOS_BYTE
+    */
+   public byte getByte5() {
+      return this.byte5;
+   }
+
    /**
     * @param byte4
     *           The byte4 to set.
@@ -785,6 +799,21 @@ public class MsgInfo {
       return getMsgInfoParser(className, this.pluginConfig).createRawMsg(this);
    }
 
+   /**
+    * Access the serialized message, ready to send over the wire.
+    * The XbfParser references big contents instead of copying them.
+    * 
+    * @param className The parser/serializer to use
+    * @return The raw message as segments
+    * @throws XmlBlasterException
+    */
+   public final XbfFrame createFrame(String className) throws XmlBlasterException {
+      I_MsgInfoParser parser = getMsgInfoParser(className, this.pluginConfig);
+      if (parser instanceof XbfParser)
+         return ((XbfParser)parser).createFrame(this);
+      return new XbfFrame(parser.createRawMsg(this));
+   }
+
    /**
     * Convenience method.
     * 
@@ -815,8 +844,26 @@ public class MsgInfo {
          I_PluginConfig pluginConfig)
          throws IOException, XmlBlasterException {
       //log.finer(new String(rawMsg));
-      return parse(glob, progressListener, new ByteArrayInputStream(rawMsg),
-            className, pluginConfig);
+      return parse(glob, progressListener, new XbfFrame(rawMsg), className, pluginConfig);
+   }
+
+   /**
+    * Convenience method, the XbfParser parses the frame without copying it.
+    * 
+    * @param className Class implementing I_MsgInfoParser
+    *           Can be null to choose the default parser
+    * @param pluginConfig The configuration of the plugin, can be null
+    * @return Never null, usually of length==1
+    */
+   public static MsgInfo[] parse(Global glob,
+         I_ProgressListener progressListener, XbfFrame frame, String className,
+         I_PluginConfig pluginConfig)
+         throws IOException, XmlBlasterException {
+      I_MsgInfoParser parser = MsgInfoParserFactory.instance()
+            .getMsgInfoParser(glob, progressListener, className, pluginConfig);
+      if (parser instanceof XbfParser)
+         return ((XbfParser)parser).parse(frame);
+      return parser.parse(new ByteArrayInputStream(frame.toByteArray()));
    }
 
    /**
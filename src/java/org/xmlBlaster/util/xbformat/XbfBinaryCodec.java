@@ -0,0 +1,426 @@
+/*------------------------------------------------------------------------------
+Name:      XbfBinaryCodec.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Compact tag-length-value form of publish QoS and key
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.xbformat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.SessionName;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.key.KeyData;
+import org.xmlBlaster.util.key.MsgKeyData;
+import org.xmlBlaster.util.qos.ClientProperty;
+import org.xmlBlaster.util.qos.MsgQosData;
+
+/**
+ * Binary encoding of MsgQosData and MsgKeyData for the XBF format.
+ * <p />
+ * The binary form starts with the byte {@link #BINARY_MARKER} which can't
+ * start an XML markup, followed by tag-length-value fields:
+ * <pre>
+ *  QoS: persistent, priority, expiration (lifeTime, remainingLife, forceDestroy),
+ *       subscribable, forceUpdate, sender, isPublish/isUpdate/isGet and the client properties
+ *  Key: oid, contentMime, contentMimeExtended, domain
+ * </pre>
+ * Only QoS and keys which contain nothing else are encoded (for example no destinations
+ * or client tags in the key), others are sent as XML markup.
+ * The decoded data is the same as parsing the XML markup with the SAX factories.
+ * <p />
+ * Numbers are written as variable length (7 bit per byte), strings as
+ * UTF-8 with a preceding length (-1 is null).
+ * @see XbfParser
+ */
+public final class XbfBinaryCodec
+{
+   /** First byte of the binary form, XML markup starts with '&lt;' or white space */
+   public static final byte BINARY_MARKER = (byte)1;
+   private static final int FORMAT_VERSION = 1;
+
+   private static final int QOS_PERSISTENT = 1;
+   private static final int QOS_PRIORITY = 2;
+   private static final int QOS_EXPIRATION = 3;
+   private static final int QOS_SUBSCRIBABLE = 4;
+   private static final int QOS_FORCEUPDATE = 5;
+   private static final int QOS_SENDER = 6;
+   private static final int QOS_METHOD = 7;
+   private static final int QOS_CLIENTPROPERTY = 8;
+
+   private static final int KEY_OID = 1;
+   private static final int KEY_CONTENTMIME = 2;
+   private static final int KEY_CONTENTMIMEEXTENDED = 3;
+   private static final int KEY_DOMAIN = 4;
+
+   private static final int EXPIRATION_LIFETIME = 1;
+   private static final int EXPIRATION_REMAININGLIFE = 2;
+   private static final int EXPIRATION_FORCEDESTROY = 4;
+
+   private XbfBinaryCodec() {
+   }
+
+   /**
+    * @return true if the bytes contain the binary form
+    */
+   public static boolean isBinary(byte[] arr) {
+      return arr != null && arr.length > 0 && arr[0] == BINARY_MARKER;
+   }
+
+   /**
+    * @return The binary form of qos and key of the message or null if
+    *         they contain fields which are only supported by the XML markup
+    */
+   public static byte[][] encode(MsgUnit msgUnit) {
+      if (!(msgUnit.getQosData() instanceof MsgQosData) || !(msgUnit.getKeyData() instanceof MsgKeyData))
+         return null;
+      byte[] qos = encodeQos((MsgQosData)msgUnit.getQosData());
+      if (qos == null)
+         return null;
+      byte[] key = encodeKey((MsgKeyData)msgUnit.getKeyData());
+      if (key == null)
+         return null;
+      return new byte[][] { qos, key };
+   }
+
+   /**
+    * @return The binary form or null if not supported
+    */
+   public static byte[] encodeQos(MsgQosData qos) {
+      if (!qos.isOk() || qos.getStateInfo() != null && qos.getStateInfo().length() > 0)
+         return null;
+      ArrayList destinations = qos.getDestinations();
+      if (destinations != null && destinations.size() > 0)
+         return null;
+      if (qos.getSubscriptionId() != null || qos.getRcvTimestamp() != null || qos.getQueueSize() > 0
+          || qos.getAdministrativeProp().isModified() || qos.getRedeliver() > 0
+          || qos.getRouteNodes().length > 0 || qos.hasTopicProperty())
+         return null;
+      String sender = null;
+      if (qos.getSender() != null) {
+         sender = qos.getSender().getAbsoluteName();
+         if (!isPlainAttribute(sender))
+            return null;
+      }
+
+      Writer out = new Writer(64);
+      out.writeByte(BINARY_MARKER);
+      out.writeVarLong(FORMAT_VERSION);
+
+      if (qos.getPersistentProp().isModified()) {
+         out.writeVarLong(QOS_PERSISTENT);
+         out.writeBoolean(qos.isPersistent());
+      }
+      if (PriorityEnum.NORM_PRIORITY != qos.getPriority()) {
+         out.writeVarLong(QOS_PRIORITY);
+         out.writeVarLong(qos.getPriority().getInt());
+      }
+      if (qos.getLifeTimeProp().isModified() || qos.getForceDestroyProp().isModified()) {
+         // The same information as the <expiration> tag
+         int flags = 0;
+         long remainingLife = qos.getRemainingLife();
+         if (remainingLife <= 0)
+            remainingLife = qos.getRemainingLifeStatic();
+         if (qos.getLifeTimeProp().isModified()) flags |= EXPIRATION_LIFETIME;
+         if (remainingLife >= 0) flags |= EXPIRATION_REMAININGLIFE;
+         if (qos.getForceDestroyProp().isModified()) flags |= EXPIRATION_FORCEDESTROY;
+         out.writeVarLong(QOS_EXPIRATION);
+         out.writeVarLong(flags);
+         if ((flags & EXPIRATION_LIFETIME) != 0) out.writeVarLong(qos.getLifeTime());
+         if ((flags & EXPIRATION_REMAININGLIFE) != 0) out.writeVarLong(remainingLife);
+         if ((flags & EXPIRATION_FORCEDESTROY) != 0) out.writeBoolean(qos.isForceDestroy());
+      }
+      if (qos.getSubscribableProp().isModified()) {
+         out.writeVarLong(QOS_SUBSCRIBABLE);
+         out.writeBoolean(qos.isSubscribable());
+      }
+      if (qos.getForceUpdateProp().isModified()) {
+         out.writeVarLong(QOS_FORCEUPDATE);
+         out.writeBoolean(qos.isForceUpdate());
+      }
+      if (sender != null) {
+         out.writeVarLong(QOS_SENDER);
+         out.writeString(sender);
+      }
+      MethodName method = qos.getMethod();
+      if (method == MethodName.PUBLISH || method == MethodName.UPDATE || method == MethodName.GET) {
+         out.writeVarLong(QOS_METHOD);
+         out.writeString(method.getMethodName());
+      }
+      ClientProperty[] props = qos.getClientPropertyArr();
+      for (int i=0; i<props.length; i++) {
+         ClientProperty prop = props[i];
+         if (prop.getName() == null)
+            return null;
+         out.writeVarLong(QOS_CLIENTPROPERTY);
+         out.writeString(prop.getName());
+         out.writeString(prop.getType());
+         out.writeString(prop.getEncoding());
+         out.writeString(prop.getCharset());
+         out.writeString(prop.getValueRaw());
+      }
+      return out.toByteArray();
+   }
+
+   /**
+    * @return The binary form or null if not supported
+    */
+   public static byte[] encodeKey(MsgKeyData key) {
+      if (key.getClientTags() != null)
+         return null;
+      String oid = key.getOid();
+      String contentMime = key.getContentMime();
+      if (contentMime != null && contentMime.equals(KeyData.CONTENTMIME_DEFAULT))
+         contentMime = null;
+      String contentMimeExtended = key.getContentMimeExtended();
+      if (contentMimeExtended != null && contentMimeExtended.equals(KeyData.CONTENTMIMEEXTENDED_DEFAULT))
+         contentMimeExtended = null;
+      String domain = key.getDomain();
+      if (domain != null && domain.length() == 0)
+         domain = null;
+      if (!isPlainAttribute(oid) || !isPlainAttribute(contentMime)
+          || !isPlainAttribute(contentMimeExtended) || !isPlainAttribute(domain))
+         return null;
+
+      Writer out = new Writer(32 + oid.length());
+      out.writeByte(BINARY_MARKER);
+      out.writeVarLong(FORMAT_VERSION);
+      out.writeVarLong(KEY_OID);
+      out.writeString(oid);
+      if (contentMime != null) {
+         out.writeVarLong(KEY_CONTENTMIME);
+         out.writeString(contentMime);
+      }
+      if (contentMimeExtended != null) {
+         out.writeVarLong(KEY_CONTENTMIMEEXTENDED);
+         out.writeString(contentMimeExtended);
+      }
+      if (domain != null) {
+         out.writeVarLong(KEY_DOMAIN);
+         out.writeString(domain);
+      }
+      return out.toByteArray();
+   }
+
+   /**
+    * SAX trims attribute values and normalizes white space, we only encode values
+    * which are not changed by a XML round trip.
+    */
+   private static boolean isPlainAttribute(String value) {
+      if (value == null)
+         return true;
+      int len = value.length();
+      if (len > 0 && (value.charAt(0) == ' ' || value.charAt(len-1) == ' '))
+         return false;
+      for (int i=0; i<len; i++) {
+         if (value.charAt(i) < ' ')
+            return false;
+      }
+      return true;
+   }
+
+   /**
+    * Creates the message as the SAX factories would do for the XML markup.
+    * @param qos The binary form of the QoS
+    * @param key The binary form of the key
+    */
+   public static MsgUnit decode(Global glob, byte[] key, byte[] content, byte[] qos) throws IOException {
+      return new MsgUnit(decodeKey(glob, key), content, decodeQos(glob, qos));
+   }
+
+   public static MsgQosData decodeQos(Global glob, byte[] arr) throws IOException {
+      Reader in = new Reader(arr);
+      MsgQosData qos = new MsgQosData(glob, glob.getMsgQosFactory(), null, MethodName.UNKNOWN);
+      while (in.hasMore()) {
+         int tag = (int)in.readVarLong();
+         switch (tag) {
+            case QOS_PERSISTENT:
+               qos.setPersistent(in.readBoolean());
+               break;
+            case QOS_PRIORITY:
+               try {
+                  qos.setPriority(PriorityEnum.toPriorityEnum((int)in.readVarLong()));
+               }
+               catch (IllegalArgumentException e) {
+                  throw new IOException("XbfBinaryCodec: Invalid priority: " + e.toString());
+               }
+               break;
+            case QOS_EXPIRATION:
+               int flags = (int)in.readVarLong();
+               if ((flags & EXPIRATION_LIFETIME) != 0)
+                  qos.setLifeTime(in.readVarLong());
+               else
+                  qos.setLifeTime(MsgQosData.getMaxLifeTime());
+               if ((flags & EXPIRATION_REMAININGLIFE) != 0)
+                  qos.setRemainingLifeStatic(in.readVarLong());
+               if ((flags & EXPIRATION_FORCEDESTROY) != 0)
+                  qos.setForceDestroy(in.readBoolean());
+               break;
+            case QOS_SUBSCRIBABLE:
+               qos.setSubscribable(in.readBoolean());
+               break;
+            case QOS_FORCEUPDATE:
+               qos.setForceUpdate(in.readBoolean());
+               break;
+            case QOS_SENDER:
+               qos.setSender(new SessionName(glob, in.readString()));
+               break;
+            case QOS_METHOD:
+               qos.setMethod(MethodName.toMethodName(in.readString()));
+               break;
+            case QOS_CLIENTPROPERTY:
+               ClientProperty prop = new ClientProperty(in.readString(), in.readString(), in.readString());
+               String charset = in.readString();
+               if (charset != null && charset.length() > 0)
+                  prop.setCharset(charset);
+               prop.setValueRaw(in.readString());
+               qos.addClientProperty(prop);
+               break;
+            default:
+               throw new IOException("XbfBinaryCodec: Unknown QoS field " + tag);
+         }
+      }
+      return qos;
+   }
+
+   public static MsgKeyData decodeKey(Global glob, byte[] arr) throws IOException {
+      Reader in = new Reader(arr);
+      MsgKeyData key = new MsgKeyData(glob, glob.getMsgKeyFactory(), null);
+      while (in.hasMore()) {
+         int tag = (int)in.readVarLong();
+         switch (tag) {
+            case KEY_OID:
+               key.setOid(in.readString());
+               break;
+            case KEY_CONTENTMIME:
+               key.setContentMime(in.readString());
+               break;
+            case KEY_CONTENTMIMEEXTENDED:
+               key.setContentMimeExtended(in.readString());
+               break;
+            case KEY_DOMAIN:
+               key.setDomain(in.readString());
+               break;
+            default:
+               throw new IOException("XbfBinaryCodec: Unknown key field " + tag);
+         }
+      }
+      if (key.getOid() == null || key.getOid().length() < 1)
+         key.setOid(key.generateOid(glob.getStrippedId()));
+      return key;
+   }
+
+   /**
+    * Growing byte buffer, we don't need the synchronization of ByteArrayOutputStream
+    */
+   private static final class Writer {
+      private byte[] buf;
+      private int len;
+
+      Writer(int size) {
+         this.buf = new byte[size];
+      }
+
+      private void ensure(int num) {
+         if (this.len + num > this.buf.length) {
+            byte[] tmp = new byte[Math.max(this.buf.length * 2, this.len + num)];
+            System.arraycopy(this.buf, 0, tmp, 0, this.len);
+            this.buf = tmp;
+         }
+      }
+
+      void writeByte(int b) {
+         ensure(1);
+         this.buf[this.len++] = (byte)b;
+      }
+
+      void writeBoolean(boolean b) {
+         writeByte(b ? 1 : 0);
+      }
+
+      /** Zig-zag and 7 bit per byte, small positive and negative numbers use few bytes */
+      void writeVarLong(long value) {
+         long v = (value << 1) ^ (value >> 63);
+         ensure(10);
+         while ((v & ~0x7FL) != 0L) {
+            this.buf[this.len++] = (byte)((v & 0x7F) | 0x80);
+            v >>>= 7;
+         }
+         this.buf[this.len++] = (byte)v;
+      }
+
+      void writeString(String str) {
+         if (str == null) {
+            writeVarLong(-1);
+            return;
+         }
+         byte[] bytes = Constants.toUtf8Bytes(str);
+         writeVarLong(bytes.length);
+         ensure(bytes.length);
+         System.arraycopy(bytes, 0, this.buf, this.len, bytes.length);
+         this.len += bytes.length;
+      }
+
+      byte[] toByteArray() {
+         byte[] tmp = new byte[this.len];
+         System.arraycopy(this.buf, 0, tmp, 0, this.len);
+         return tmp;
+      }
+   }
+
+   private static final class Reader {
+      private final byte[] buf;
+      private int pos;
+
+      Reader(byte[] buf) throws IOException {
+         this.buf = buf;
+         if (!isBinary(buf))
+            throw new IOException("XbfBinaryCodec: Missing binary marker");
+         this.pos = 1;
+         int version = (int)readVarLong();
+         if (version != FORMAT_VERSION)
+            throw new IOException("XbfBinaryCodec: Binary format version " + version + " is not supported");
+      }
+
+      boolean hasMore() {
+         return this.pos < this.buf.length;
+      }
+
+      private byte next() throws IOException {
+         if (this.pos >= this.buf.length)
+            throw new IOException("XbfBinaryCodec: Binary QoS/key is truncated");
+         return this.buf[this.pos++];
+      }
+
+      boolean readBoolean() throws IOException {
+         return next() != 0;
+      }
+
+      long readVarLong() throws IOException {
+         long v = 0L;
+         for (int shift=0; shift<64; shift+=7) {
+            byte b = next();
+            v |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+               return (v >>> 1) ^ -(v & 1);
+         }
+         throw new IOException("XbfBinaryCodec: Invalid number");
+      }
+
+      String readString() throws IOException {
+         long len = readVarLong();
+         if (len < 0)
+            return null;
+         if (len > this.buf.length - this.pos)
+            throw new IOException("XbfBinaryCodec: Binary QoS/key is truncated");
+         String str = new String(this.buf, this.pos, (int)len, Constants.UTF8_ENCODING);
+         this.pos += (int)len;
+         return str;
+      }
+   }
+}
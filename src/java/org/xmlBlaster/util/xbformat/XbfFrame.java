@@ -0,0 +1,132 @@
+/*------------------------------------------------------------------------------
+Name:      XbfFrame.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   A raw xbf message as a sequence of byte[] segments
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.xbformat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A raw xbf message held as a sequence of byte[] segments.
+ * <p />
+ * The message contents are referenced and not copied: on sending the segments are the
+ * serialized header, qos and key parts and the content arrays of the messages, on
+ * receiving the first segment holds everything up to the content of the last
+ * message and the optional second segment is this content, read directly from the socket.
+ * <p />
+ * The content arrays are shared with the MsgUnit instances and the queues,
+ * they may never be changed.
+ * @see XbfParser#createFrame(MsgInfo)
+ * @see XbfParser#parse(XbfFrame)
+ */
+public final class XbfFrame
+{
+   private byte[][] segments = new byte[3][];
+   private int[] offsets = new int[3];
+   private int[] lengths = new int[3];
+   private int count;
+   private long length;
+
+   public XbfFrame() {
+   }
+
+   /**
+    * @param raw A complete message
+    */
+   public XbfFrame(byte[] raw) {
+      add(raw, 0, raw.length);
+   }
+
+   /**
+    * Appends a segment, the bytes are not copied.
+    */
+   public void add(byte[] b, int off, int len) {
+      if (len == 0)
+         return;
+      if (this.count == this.segments.length) {
+         int size = this.count * 2;
+         byte[][] tmp = new byte[size][];
+         System.arraycopy(this.segments, 0, tmp, 0, this.count);
+         this.segments = tmp;
+         int[] tmpOff = new int[size];
+         System.arraycopy(this.offsets, 0, tmpOff, 0, this.count);
+         this.offsets = tmpOff;
+         int[] tmpLen = new int[size];
+         System.arraycopy(this.lengths, 0, tmpLen, 0, this.count);
+         this.lengths = tmpLen;
+      }
+      this.segments[this.count] = b;
+      this.offsets[this.count] = off;
+      this.lengths[this.count] = len;
+      this.count++;
+      this.length += len;
+   }
+
+   public int getNumSegments() {
+      return this.count;
+   }
+
+   public byte[] getSegment(int index) {
+      return this.segments[index];
+   }
+
+   public int getSegmentOffset(int index) {
+      return this.offsets[index];
+   }
+
+   public int getSegmentLength(int index) {
+      return this.lengths[index];
+   }
+
+   /**
+    * @return The total number of bytes
+    */
+   public long getLength() {
+      return this.length;
+   }
+
+   /**
+    * @return The segment as is if it is only one which covers the whole array, else a copy of all segments
+    */
+   public byte[] toByteArray() {
+      if (this.count == 1 && this.offsets[0] == 0 && this.lengths[0] == this.segments[0].length)
+         return this.segments[0];
+      byte[] tmp = new byte[(int)this.length];
+      int pos = 0;
+      for (int i=0; i<this.count; i++) {
+         System.arraycopy(this.segments[i], this.offsets[i], tmp, pos, this.lengths[i]);
+         pos += this.lengths[i];
+      }
+      return tmp;
+   }
+
+   /**
+    * Writes all segments in pieces of maxChunkSize, the stream is flushed after each piece.
+    * @param listener Is notified about the progress, can be null
+    */
+   public void writeTo(OutputStream out, int maxChunkSize, I_ProgressListener listener) throws IOException {
+      long written = 0L;
+      int unflushed = 0;
+      for (int i=0; i<this.count; i++) {
+         int off = this.offsets[i];
+         int bytesLeft = this.lengths[i];
+         while (bytesLeft > 0) {
+            int num = Math.min(bytesLeft, maxChunkSize - unflushed);
+            out.write(this.segments[i], off, num);
+            off += num;
+            bytesLeft -= num;
+            written += num;
+            unflushed += num;
+            if (unflushed == maxChunkSize || written == this.length) {
+               out.flush();
+               unflushed = 0;
+               if (listener != null)
+                  listener.progressWrite("", written, this.length);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,189 @@
+/*------------------------------------------------------------------------------
+Name:      XbfFrameDecoder.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Incremental framing of raw xbf messages
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.util.xbformat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+/**
+ * Cuts a stream of bytes into complete xbf messages without blocking.
+ * <p />
+ * The bytes are pushed with write() as they arrive from the network
+ * (in arbitrary pieces), every complete message is available with
+ * nextFrame() and may be parsed with
+ * <code>MsgInfo.parse(glob, listener, frame, XbfParser.class.getName(), pluginConfig)</code>.
+ * <p />
+ * The framing is the same as in XbfParser.readOneMsg(): The first
+ * 10 bytes contain the total message length as ASCII digits.
+ * A message of length 10 is an empty ping.
+ * <p />
+ * Like XbfParser.readOneMsg() a big content which reaches until the end of the message
+ * is collected in its own byte[], the frame has two segments then and the content
+ * is passed to the MsgUnitRaw without copying.
+ * <p />
+ * This class is not thread safe, it is used by exactly one reader.
+ *
+ * @see XbfParser
+ * @see XbfParser#findTailContent(byte[], int, int)
+ */
+public class XbfFrameDecoder extends OutputStream
+{
+   private static final int HEAD_CHUNK_SIZE = 4096;
+   private static final int MAX_HEAD_SIZE = 64*1024;
+   private final int maxMsgLength;
+   private final byte[] header = new byte[XbfParser.NUM_FIELD_LEN];
+   private int headerLen;
+   /** The message currently assembled (or its head if content!=null), null while reading the header */
+   private byte[] frame;
+   private int frameLen;
+   /** The separately collected content of the last message or null */
+   private byte[] content;
+   private int contentLen;
+   private int msgLength;
+   /** true while the head of a big message is scanned for its content */
+   private boolean scanning;
+   private final LinkedList frames = new LinkedList();
+
+   public XbfFrameDecoder() {
+      this(Integer.MAX_VALUE);
+   }
+
+   /**
+    * @param maxMsgLength Bigger messages are rejected with an IOException
+    */
+   public XbfFrameDecoder(int maxMsgLength) {
+      this.maxMsgLength = maxMsgLength;
+   }
+
+   public void write(int b) throws IOException {
+      write(new byte[] { (byte)b }, 0, 1);
+   }
+
+   public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+         if (this.frame == null) {
+            int num = Math.min(len, XbfParser.NUM_FIELD_LEN - this.headerLen);
+            System.arraycopy(b, off, this.header, this.headerLen, num);
+            this.headerLen += num;
+            off += num;
+            len -= num;
+            if (this.headerLen < XbfParser.NUM_FIELD_LEN)
+               return;
+            startFrame();
+         }
+         else if (this.content != null) {
+            int num = Math.min(len, this.content.length - this.contentLen);
+            System.arraycopy(b, off, this.content, this.contentLen, num);
+            this.contentLen += num;
+            off += num;
+            len -= num;
+         }
+         else {
+            int num = Math.min(len, this.frame.length - this.frameLen);
+            System.arraycopy(b, off, this.frame, this.frameLen, num);
+            this.frameLen += num;
+            off += num;
+            len -= num;
+            if (this.scanning)
+               scan();
+         }
+         if (this.frame != null && this.frameLen + this.contentLen == this.msgLength) {
+            XbfFrame xbfFrame = new XbfFrame(this.frame);
+            if (this.content != null)
+               xbfFrame.add(this.content, 0, this.content.length);
+            this.frames.add(xbfFrame);
+            this.frame = null;
+            this.frameLen = 0;
+            this.content = null;
+            this.contentLen = 0;
+            this.headerLen = 0;
+         }
+      }
+   }
+
+   /**
+    * Looks for the content in the head received so far and decides how to continue.
+    */
+   private void scan() throws IOException {
+      int contentStart = XbfParser.findTailContent(this.frame, this.frameLen, this.msgLength);
+      try {
+         if (contentStart > 0) {
+            this.scanning = false;
+            this.content = new byte[this.msgLength - contentStart];
+            this.contentLen = this.frameLen - contentStart;
+            System.arraycopy(this.frame, contentStart, this.content, 0, this.contentLen);
+            resize(contentStart);
+            this.frameLen = contentStart;
+         }
+         else if (contentStart == 0) {
+            this.scanning = false;
+            resize(this.msgLength);
+         }
+         else if (this.frameLen == this.frame.length && this.frameLen < this.msgLength) {
+            if (this.frameLen >= MAX_HEAD_SIZE) {
+               this.scanning = false;
+               resize(this.msgLength);
+            }
+            else {
+               resize(Math.min(this.msgLength, this.frameLen*2));
+            }
+         }
+      }
+      catch (OutOfMemoryError e) {
+         throw new IOException("XbfFrameDecoder: Message format is corrupted, the given message length=" + this.msgLength + " produces:" + e.toString());
+      }
+   }
+
+   private void resize(int size) {
+      if (this.frame.length == size)
+         return;
+      byte[] tmp = new byte[size];
+      System.arraycopy(this.frame, 0, tmp, 0, Math.min(size, this.frameLen));
+      this.frame = tmp;
+   }
+
+   private void startFrame() throws IOException {
+      int msgLength;
+      try {
+         msgLength = Integer.parseInt((new String(this.header, 0, XbfParser.NUM_FIELD_LEN)).trim());
+      }
+      catch (NumberFormatException e) {
+         throw new IOException("XbfFrameDecoder: Format of xbf-message header is corrupted '" + new String(this.header) + "', expected integral value");
+      }
+      if (msgLength != XbfParser.NUM_FIELD_LEN && msgLength < (XbfParser.NUM_FIELD_LEN+XbfParser.FLAG_FIELD_LEN))
+         throw new IOException("XbfFrameDecoder: Message format is corrupted, the given message length=" + msgLength + " is invalid");
+      if (msgLength > this.maxMsgLength)
+         throw new IOException("XbfFrameDecoder: Message format is corrupted, the given message length=" + msgLength + " would produce an OutOfMemory");
+      this.msgLength = msgLength;
+      this.scanning = msgLength >= XbfParser.DIRECT_CONTENT_MIN_SIZE;
+      try {
+         this.frame = new byte[(this.scanning) ? Math.min(msgLength, HEAD_CHUNK_SIZE) : msgLength];
+      }
+      catch (OutOfMemoryError e) {
+         throw new IOException("XbfFrameDecoder: Message format is corrupted, the given message length=" + msgLength + " produces:" + e.toString());
+      }
+      System.arraycopy(this.header, 0, this.frame, 0, XbfParser.NUM_FIELD_LEN);
+      this.frameLen = XbfParser.NUM_FIELD_LEN;
+   }
+
+   /**
+    * @return The next complete raw message (including the 10 bytes header) or null
+    */
+   public XbfFrame nextFrame() {
+      if (this.frames.isEmpty())
+         return null;
+      return (XbfFrame)this.frames.removeFirst();
+   }
+
+   /**
+    * @return Number of bytes of the currently incomplete message (0 if none)
+    */
+   public int getPendingBytes() {
+      return (this.frame == null) ? this.headerLen : this.frameLen + this.contentLen;
+   }
+}
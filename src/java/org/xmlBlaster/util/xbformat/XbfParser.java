@@ -15,11 +15,13 @@ import org.xmlBlaster.util.def.Constants;
 import org.xmlBlaster.util.def.MethodName;
 import org.xmlBlaster.util.def.ErrorCode;
 import org.xmlBlaster.util.plugin.I_PluginConfig;
+import org.xmlBlaster.util.MsgUnit;
 import org.xmlBlaster.util.MsgUnitRaw;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 
 /**
  * XbfParser class for raw socket/email messages. 
@@ -73,6 +75,16 @@ import java.io.InputStream;
  *  |       100**I**17711*publish*oxf6hZs**<qos/>*<key oid='x1'/>*6*Hello1<qos/>*<key oid='x2'/>*6*Hello2|
  * </pre>
  *
+ * If byte5 is 'B' the qos and key are preceded by their length like the content,
+ * they contain the XML markup or the binary form of XbfBinaryCodec (starting with 0x01):
+ * <pre>
+ *  qosLen qos  keyLen key  len  content
+ *  +-----*----+------*----+----*----------+
+ * </pre>
+ * A sender which understands 'B' marks its messages with 'b' (or 'B'), a peer seeing this
+ * may send 'B' messages from then on. Older peers ignore byte5 and always send and get
+ * the plain format.
+ *
  * @author xmlBlaster@marcelruff.info
  * @see <a href="http://www.xmlBlaster.org/xmlBlaster/doc/requirements/protocol.socket.html">The protocol.socket requirement</a>
  */
@@ -97,8 +109,17 @@ public class XbfParser implements I_MsgInfoParser
    public static final byte CHECKSUM_ADLER_BYTE = (byte)65; // 'A'
    public static final byte COMPRESSED_GZIP_BYTE = (byte)90; // 'Z'
    public static final byte VERSION_1_BYTE = (byte)49;  // '1'
+   /** byte5: qos and key are length prefixed and may be in the binary form of XbfBinaryCodec */
+   public static final byte BINARY_QOS_BYTE = (byte)66; // 'B'
+   /** byte5: plain format but the sender can parse BINARY_QOS_BYTE messages */
+   public static final byte BINARY_QOS_CAPABLE_BYTE = (byte)98; // 'b'
    private static final byte[] EMPTY10 = new String("          ").getBytes();
    private static final byte NULL_BYTE = (byte)0;
+   /** Bigger contents are read directly into their own byte[] and are written without copying */
+   public static final int DIRECT_CONTENT_MIN_SIZE = 16*1024;
+   private static final int HEAD_CHUNK_SIZE = 4096;
+   /** If qos and key are bigger the message is read in one piece */
+   private static final int MAX_HEAD_SIZE = 64*1024;
    
    public static final String XBFORMAT_EXTENSION = ".xbf";
    public static final String XBFORMAT_ZLIB_EXTENSION = ".xbfz";
@@ -213,6 +234,11 @@ public class XbfParser implements I_MsgInfoParser
             throw new IOException(ME + ": Message format is corrupted, the given message length=" + msgLength + " would produce an OutOfMemory");
          }
 
+         if (msgLength >= DIRECT_CONTENT_MIN_SIZE) {
+            readHeadAndContent(in, msgLength);
+            return buf;
+         }
+
          // Now we know the msgLength, lets extract the complete message ...
          if (buf.buf == null || buf.buf.length != msgLength) {
             buf.buf = null;
@@ -249,6 +275,161 @@ public class XbfParser implements I_MsgInfoParser
       return buf;
    }
 
+   /**
+    * Reads a big message in two steps: First the head until the content of the first message
+    * is found, if this content reaches until the end of the message (one message without checksum)
+    * it is read directly into its own byte[] which is passed to the MsgUnitRaw without copying.
+    * Other messages are read completely into one byte[] as usual.
+    */
+   private final void readHeadAndContent(InputStream in, int msgLength) throws IOException {
+      byte[] head = new byte[Math.min(msgLength, HEAD_CHUNK_SIZE)];
+      int headLen = NUM_FIELD_LEN;
+      int contentStart = -1;
+      while (contentStart == -1) {
+         if (headLen == head.length) {
+            if (headLen == msgLength || headLen >= MAX_HEAD_SIZE) {
+               contentStart = 0;
+               break;
+            }
+            byte[] tmp = new byte[Math.min(msgLength, headLen*2)];
+            System.arraycopy(head, 0, tmp, 0, headLen);
+            head = tmp;
+         }
+         int lenRead = in.read(head, headLen, head.length - headLen);
+         if (lenRead == -1)
+            throw new IOException(ME + ": Can't read complete message (" + msgLength + " bytes) from socket, only " + headLen + " received, message is corrupted");
+         headLen += lenRead;
+         I_ProgressListener listener = this.progressListener;
+         if (listener != null) {
+            listener.progressRead("", headLen, msgLength);
+         }
+         contentStart = findTailContent(head, headLen, msgLength);
+      }
+
+      try {
+         if (contentStart == 0) {
+            byte[] all = head;
+            if (head.length != msgLength) {
+               all = new byte[msgLength];
+               System.arraycopy(head, 0, all, 0, headLen);
+            }
+            readFully(in, all, headLen, msgLength);
+            buf.buf = all;
+            buf.tail = null;
+         }
+         else {
+            byte[] content = new byte[msgLength - contentStart];
+            int num = headLen - contentStart;
+            System.arraycopy(head, contentStart, content, 0, num);
+            readFully(in, content, num, msgLength);
+            if (head.length != contentStart) {
+               byte[] tmp = new byte[contentStart];
+               System.arraycopy(head, 0, tmp, 0, contentStart);
+               head = tmp;
+            }
+            buf.buf = head;
+            buf.tail = content;
+         }
+      }
+      catch (OutOfMemoryError e) {
+         throw new IOException(ME + ": Message format is corrupted, the given message length=" + msgLength + " produces:" + e.toString());
+      }
+      buf.offset = NUM_FIELD_LEN;
+   }
+
+   /**
+    * Fills b from offset off to its end.
+    */
+   private final void readFully(InputStream in, byte[] b, int off, int msgLength) throws IOException {
+      int remainLength = b.length - off;
+      while (remainLength > 0) {
+         int lenRead = in.read(b, off, remainLength);
+         if (lenRead == -1)
+            throw new IOException(ME + ": Can't read complete message (" + msgLength + " bytes) from socket, " + remainLength + " bytes are missing, message is corrupted");
+         off += lenRead;
+         remainLength -= lenRead;
+         I_ProgressListener listener = this.progressListener;
+         if (listener != null) {
+            listener.progressRead("", msgLength-remainLength, msgLength);
+         }
+      }
+   }
+
+   /**
+    * Scans the beginning of a raw message for the content of the first message,
+    * if this content reaches until the end of the raw message it can be read
+    * directly into its own byte[].
+    * @param b The first bytes of the raw message, including the 10 bytes msgLength
+    * @param len The number of valid bytes in b
+    * @param msgLength The total length of the raw message
+    * @return The offset of the content,
+    *         0 if the message has a different layout (e.g. more messages or a checksum),
+    *         -1 if more bytes are needed to decide
+    */
+   public static int findTailContent(byte[] b, int len, int msgLength) {
+      int pos = NUM_FIELD_LEN;
+      if (len < pos + FLAG_FIELD_LEN)
+         return -1;
+      if (b[pos] != NULL_BYTE)
+         return 0; // the checksum follows the content
+      boolean binaryQos = b[pos+4] == BINARY_QOS_BYTE;
+      pos += FLAG_FIELD_LEN;
+      // requestId, methodName, sessionId, lenUnzipped [, qos, key]
+      int numStrings = (binaryQos) ? 4 : 6;
+      for (int ii=0; ii<numStrings; ii++) {
+         pos = indexOfNull(b, pos, len);
+         if (pos == -1)
+            return -1;
+         pos++;
+      }
+      if (binaryQos) {
+         for (int ii=0; ii<2; ii++) { // qosLen qos keyLen key
+            int end = indexOfNull(b, pos, len);
+            if (end == -1)
+               return -1;
+            int num = parseNumber(b, pos, end);
+            if (num < 0 || num > msgLength - end - 1)
+               return 0;
+            pos = end + 1 + num;
+            if (pos >= len)
+               return -1;
+         }
+      }
+      int end = indexOfNull(b, pos, len);
+      if (end == -1)
+         return -1;
+      int num = parseNumber(b, pos, end);
+      int contentStart = end + 1;
+      if (num > 0 && num == msgLength - contentStart)
+         return contentStart;
+      return 0;
+   }
+
+   private static int indexOfNull(byte[] b, int from, int len) {
+      for (int ii=from; ii<len; ii++) {
+         if (b[ii] == NULL_BYTE)
+            return ii;
+      }
+      return -1;
+   }
+
+   /**
+    * @return The decimal number between from and end or -1 if it is empty or no number
+    */
+   private static int parseNumber(byte[] b, int from, int end) {
+      long num = 0L;
+      boolean found = false;
+      for (int ii=from; ii<end; ii++) {
+         if (b[ii] == ' ')
+            continue;
+         if (b[ii] < '0' || b[ii] > '9' || num > Integer.MAX_VALUE)
+            return -1;
+         num = num*10 + (b[ii] - '0');
+         found = true;
+      }
+      return (found && num <= Integer.MAX_VALUE) ? (int)num : -1;
+   }
+
    /**
     * This parses the raw message from an InputStream (typically from a socket).
     * Use the get...() methods to access the data.
@@ -269,6 +450,44 @@ public class XbfParser implements I_MsgInfoParser
          return new MsgInfo[] { msgInfo }; // The shortest ping ever
       }
 
+      return parse(msgInfo, buf);
+   }
+
+   /**
+    * Parses a complete raw message which is already in memory, for example
+    * assembled by XbfFrameDecoder.
+    * <p />
+    * A frame of two segments holds the content of the last message in the second
+    * segment (see findTailContent()), it is passed on without copying.
+    * @return Guaranteed to be always an array of length=1
+    */
+   public final MsgInfo[] parse(XbfFrame frame) throws IOException {
+      if (log.isLoggable(Level.FINER)) log.finer("Entering parse(XbfFrame)");
+      MsgInfo msgInfo = new MsgInfo(this.glob);
+      msgInfo.setMsgInfoParser(this);
+      initialize();
+
+      if (frame.getLength() <= NUM_FIELD_LEN) {
+         msgInfo.setMethodName(MethodName.PING);
+         return new MsgInfo[] { msgInfo };
+      }
+
+      if (isWholeArray(frame, 0) && (frame.getNumSegments() == 1 ||
+          frame.getNumSegments() == 2 && isWholeArray(frame, 1))) {
+         buf.buf = frame.getSegment(0);
+         buf.tail = (frame.getNumSegments() == 2) ? frame.getSegment(1) : null;
+      }
+      else {
+         buf.buf = frame.toByteArray();
+      }
+      return parse(msgInfo, buf);
+   }
+
+   private static boolean isWholeArray(XbfFrame frame, int index) {
+      return frame.getSegmentOffset(index) == 0 && frame.getSegmentLength(index) == frame.getSegment(index).length;
+   }
+
+   private final MsgInfo[] parse(MsgInfo msgInfo, Buf buf) throws IOException {
       if (log.isLoggable(Level.FINEST)) log.finest("Raw message of length " + buf.buf.length + " received >" + toLiteral(buf.buf) + "<");
 
       msgInfo.setChecksum(buf.buf[NUM_FIELD_LEN] > 0);
@@ -298,6 +517,10 @@ public class XbfParser implements I_MsgInfoParser
          if (log.isLoggable(Level.FINE)) log.fine("Ignoring given unzipped message length of size " + lenUnzipped);
       }
 
+      if (msgInfo.getByte5() == BINARY_QOS_BYTE) {
+         parseBinaryQos(msgInfo, buf);
+      }
+      else {
       String qos = null;
       for (int ii=0; ii<Integer.MAX_VALUE; ii++) {
          qos = toString(buf);
@@ -322,11 +545,12 @@ public class XbfParser implements I_MsgInfoParser
 
          if (buf.offset >= buf.buf.length) break;
       }
+      }
 
       if (msgInfo.isChecksum())
          checkSumResult = toLong0(buf, -1);
 
-      if (buf.offset != buf.buf.length) {
+      if (buf.offset != buf.buf.length || buf.tail != null) {
          String str = "Format mismatch, read index=" + buf.offset + " expected message length=" + buf.buf.length + " we need to disconnect the client, can't recover.";
          throw new IOException(ME + ": " + str);
       }
@@ -335,6 +559,42 @@ public class XbfParser implements I_MsgInfoParser
       return new MsgInfo[] { msgInfo };
    }
 
+   /**
+    * Parses the userData of a BINARY_QOS_BYTE message, the same sequence as the plain format
+    * but with length prefixed qos and key.
+    */
+   private void parseBinaryQos(MsgInfo msgInfo, Buf buf) throws IOException {
+      for (int ii=0; ii<Integer.MAX_VALUE; ii++) {
+         byte[] qos = toByte(buf);
+         if (buf.offset >= buf.buf.length) {
+            if (qos.length > 0)
+               msgInfo.addMessage(createMsgUnitRaw(null, null, qos));
+            break;
+         }
+
+         byte[] key = toByte(buf);
+         if (buf.offset >= buf.buf.length) {
+            msgInfo.addMessage(createMsgUnitRaw(key, null, qos));
+            break;
+         }
+
+         if (log.isLoggable(Level.FINE)) log.fine("Getting messageUnit #" + ii);
+         msgInfo.addMessage(createMsgUnitRaw(key, toByte(buf), qos));
+
+         if (buf.offset >= buf.buf.length) break;
+      }
+   }
+
+   private MsgUnitRaw createMsgUnitRaw(byte[] key, byte[] content, byte[] qos) throws IOException {
+      if (XbfBinaryCodec.isBinary(qos) && XbfBinaryCodec.isBinary(key)) {
+         // The XML markup is only created if somebody asks for it
+         return new MsgUnitRaw(XbfBinaryCodec.decode(this.glob, key, (content == null) ? new byte[0] : content, qos));
+      }
+      if (XbfBinaryCodec.isBinary(qos) || XbfBinaryCodec.isBinary(key))
+         throw new IOException(ME + ": Binary QoS and XML key (or vice versa) is not supported");
+      return new MsgUnitRaw(null, (key == null || key.length == 0) ? null : key, content, qos);
+   }
+
    /**
     * Returns a raw data string.
     * <pre>
@@ -354,9 +614,32 @@ public class XbfParser implements I_MsgInfoParser
     * </pre>
     */
    public final byte[] createRawMsg(MsgInfo msgInfo) throws XmlBlasterException {
+      return createFrame(msgInfo, false).toByteArray();
+   }
+
+   /**
+    * Same as createRawMsg() but contents bigger than DIRECT_CONTENT_MIN_SIZE are
+    * not copied, they are referenced as own segments of the returned frame.
+    * @see XbfFrame#writeTo(java.io.OutputStream, int, I_ProgressListener)
+    */
+   public final XbfFrame createFrame(MsgInfo msgInfo) throws XmlBlasterException {
+      return createFrame(msgInfo, true);
+   }
+
+   private XbfFrame createFrame(MsgInfo msgInfo, boolean referenceContent) throws XmlBlasterException {
 
       try {
          long len = msgInfo.getUserDataLen() + 500;
+         // Alternating the position in 'out' (Integer) and the referenced content (byte[])
+         ArrayList refs = null;
+         if (referenceContent) {
+            refs = new ArrayList();
+            for (int ii=0; ii<msgInfo.getMessages().size(); ii++) {
+               int contentLen = ((MsgUnitRaw)msgInfo.getMessages().elementAt(ii)).getContent().length;
+               if (contentLen >= DIRECT_CONTENT_MIN_SIZE)
+                  len -= contentLen;
+            }
+         }
          ByteArray out = new ByteArray((int)len);
 
             /*
@@ -389,7 +672,8 @@ public class XbfParser implements I_MsgInfoParser
          out.write((msgInfo.isCompressed())?COMPRESSED_GZIP_BYTE:NULL_BYTE); // 'Z'
          out.write(msgInfo.getType()); // 'I' or 'R' or 'E'
          out.write(NULL_BYTE);       // byte4
-         out.write(NULL_BYTE);       // byte5
+         boolean binaryQos = msgInfo.getByte5() == BINARY_QOS_BYTE;
+         out.write((binaryQos || msgInfo.getByte5() == BINARY_QOS_CAPABLE_BYTE) ? msgInfo.getByte5() : NULL_BYTE); // byte5
          out.write(VERSION_1_BYTE);  // '1'
 
          out.write(msgInfo.createRequestId(null).getBytes());
@@ -407,14 +691,15 @@ public class XbfParser implements I_MsgInfoParser
 
          for (int ii=0; ii<msgInfo.getMessages().size(); ii++) {
             MsgUnitRaw unit = (MsgUnitRaw)msgInfo.getMessages().elementAt(ii);
+            if (binaryQos) {
+               writeBinaryQos(out, unit, refs);
+               continue;
+            }
             out.write(unit.getQos().getBytes());
             out.write(NULL_BYTE);
             out.write(unit.getKey().getBytes());
             out.write(NULL_BYTE);
-            byte[] tmp = unit.getContent();
-            out.write(Integer.toString(tmp.length).getBytes());
-            out.write(NULL_BYTE);
-            out.write(tmp);
+            writeContent(out, unit.getContent(), refs);
          }
 
          if (msgInfo.isChecksum() == true) {
@@ -424,9 +709,26 @@ public class XbfParser implements I_MsgInfoParser
             out.insert(pos+EMPTY10.length-checkSumResultB.length, checkSumResultB);
          }
          // Finally we know the overall length, write it to the header:
-         byte[] msgLengthB = (Integer.toString(out.size())).getBytes();
+         long msgLength = out.size();
+         for (int ii=1; refs != null && ii<refs.size(); ii+=2)
+            msgLength += ((byte[])refs.get(ii)).length;
+         if (msgLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(ME + ": Message size is limited to " + Integer.MAX_VALUE + " bytes");
+         byte[] msgLengthB = (Long.toString(msgLength)).getBytes();
          out.insert(EMPTY10.length - msgLengthB.length, msgLengthB);
-         return out.toByteArray();
+
+         XbfFrame frame = new XbfFrame();
+         byte[] head = out.getByteArray();
+         int pos = 0;
+         for (int ii=0; refs != null && ii<refs.size(); ii+=2) {
+            int mark = ((Integer)refs.get(ii)).intValue();
+            byte[] content = (byte[])refs.get(ii+1);
+            frame.add(head, pos, mark-pos);
+            frame.add(content, 0, content.length);
+            pos = mark;
+         }
+         frame.add(head, pos, out.size()-pos);
+         return frame;
       }
       catch(IOException e) {
          String text = "Creation of message failed.";
@@ -435,12 +737,53 @@ public class XbfParser implements I_MsgInfoParser
       }
    }
 
+   /**
+    * Writes qos, key and content length prefixed, qos and key in binary form if
+    * the message was created from a MsgUnit holding only fields known by XbfBinaryCodec.
+    */
+   private void writeBinaryQos(ByteArray out, MsgUnitRaw unit, ArrayList refs) throws IOException {
+      byte[][] qosKey = null;
+      MsgUnit msgUnit = unit.getMarkupSource();
+      if (msgUnit != null)
+         qosKey = XbfBinaryCodec.encode(msgUnit);
+      byte[] qos = (qosKey != null) ? qosKey[0] : unit.getQosBytes();
+      byte[] key = (qosKey != null) ? qosKey[1] : unit.getKeyBytes();
+      out.write(Integer.toString(qos.length).getBytes());
+      out.write(NULL_BYTE);
+      out.write(qos);
+      out.write(Integer.toString(key.length).getBytes());
+      out.write(NULL_BYTE);
+      out.write(key);
+      writeContent(out, unit.getContent(), refs);
+   }
+
+   /**
+    * Writes the content length and the content, a big content is not written
+    * but remembered in refs together with its position in out.
+    */
+   private void writeContent(ByteArray out, byte[] content, ArrayList refs) throws IOException {
+      out.write(Integer.toString(content.length).getBytes());
+      out.write(NULL_BYTE);
+      if (refs != null && content.length >= DIRECT_CONTENT_MIN_SIZE) {
+         refs.add(new Integer(out.size()));
+         refs.add(content);
+      }
+      else {
+         out.write(content);
+      }
+   }
+
    /**
     * Reads the binary content of a message. First we parse the long value which
     * holds the content length, than we retrieve the binary content.
     */
    public final byte[] toByte(Buf buf) throws IOException {
       int len = toInt0(buf, 0);
+      if (buf.tail != null && buf.offset == buf.buf.length && len == buf.tail.length) {
+         byte[] b = buf.tail; // was read directly from the socket
+         buf.tail = null;
+         return b;
+      }
       byte[] b = new byte[len];
       if (len == 0L)
          return b;
@@ -560,6 +903,7 @@ public class XbfParser implements I_MsgInfoParser
    private class Buf {
       byte[] buf; // Holding one message
       int offset; // Current position of reading
+      byte[] tail; // The content of the last message if it is not contained in buf
 
       public String toString() {
          if (buf == null) return "null";
@@ -25,6 +25,7 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.XmlBlasterAccessTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.TimestampTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.TimeoutTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.TimeoutWheelTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.ClientPropertyTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.ConnectQosTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.DisconnectQosTest.class));
@@ -36,6 +37,11 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.Sql92SelectorTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.PropertyTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.TestDispatchWorkerPool.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.StartupRecoveryTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.LazyCallbackQueueTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.TopicAccessorTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.XbfBinaryCodecTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.XbfZeroCopyTest.class));
       suite.addTest(org.xmlBlaster.test.classtest.key.AllTests.suite());
       suite.addTest(org.xmlBlaster.test.classtest.qos.AllTests.suite());
       suite.addTest(org.xmlBlaster.test.classtest.queue.AllTests.suite());
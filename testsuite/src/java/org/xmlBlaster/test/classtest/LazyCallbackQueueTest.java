@@ -0,0 +1,174 @@
+package org.xmlBlaster.test.classtest;
+
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.authentication.SessionInfo;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.qos.AddressServer;
+import org.xmlBlaster.engine.qos.ConnectQosServer;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.MsgUnitRaw;
+import org.xmlBlaster.util.SessionName;
+
+/**
+ * Tests the callback queues which are created with the first message (session/lazyCallbackQueue)
+ * and released again when idle (session/callbackQueueIdleRelease).
+ * <p>
+ * testHeapPerIdleSession() logs the heap used per connected session which never gets a message,
+ * with the callback queue created on login and with the lazy callback queue.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.LazyCallbackQueueTest
+ * </p>
+ * @see org.xmlBlaster.authentication.SessionInfo
+ */
+public class LazyCallbackQueueTest extends TestCase {
+   private static Logger log = Logger.getLogger(LazyCallbackQueueTest.class.getName());
+   private EmbeddedXmlBlaster serverThread;
+   private ServerScope serverScope;
+   private AddressServer addressServer;
+
+   public LazyCallbackQueueTest(String name) {
+      super(name);
+   }
+
+   protected void tearDown() {
+      stopServer();
+   }
+
+   private void startServer(boolean lazy, long idleRelease) {
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(8618, new String[] {
+         "-cluster.node.id", "lazyTest",
+         "-xmlBlaster/jmx/HtmlAdaptor", "false",
+         "-session/lazyCallbackQueue", "" + lazy,
+         "-session/callbackQueueIdleRelease", "" + idleRelease }));
+      this.serverScope = this.serverThread.getMain().getGlobal();
+      this.addressServer = new AddressServer(this.serverScope, "NATIVE", this.serverScope.getId(), (java.util.Properties)null);
+   }
+
+   private void stopServer() {
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      this.serverScope = null;
+   }
+
+   /**
+    * @param callback true: the session has a callback address (of a client which is gone)
+    * @return The secret session id
+    */
+   private String connect(String loginName, boolean callback) throws Exception {
+      ConnectQosServer connectQos = new ConnectQosServer(this.serverScope,
+            "<qos><securityService type='htpasswd' version='1.0'><![CDATA[<user>" + loginName + "</user><passwd>secret</passwd>]]></securityService>" +
+            "<session name='client/" + loginName + "/session/1' timeout='0'/>" +
+            ((callback) ? "<queue relating='callback'><callback type='XMLRPC' retries='-1' delay='3600000' pingInterval='0'>http://127.0.0.1:1</callback></queue>" : "") +
+            "</qos>");
+      connectQos.setAddressServer(this.addressServer);
+      return this.serverScope.getAuthenticate().connect(connectQos).getSecretSessionId();
+   }
+
+   private SessionInfo getSessionInfo(String loginName) {
+      return this.serverScope.getRequestBroker().getAuthenticate(null).getSessionInfo(new SessionName(this.serverScope, "client/" + loginName + "/session/1"));
+   }
+
+   private void publishPtp(String publisherId, String loginName) throws Exception {
+      MsgUnitRaw msgUnit = new MsgUnitRaw("<key oid='LazyCallbackQueueTest'/>", "hello".getBytes(),
+            "<qos><destination>client/" + loginName + "/session/1</destination></qos>");
+      this.serverScope.getAuthenticate().getXmlBlaster().publishArr(this.addressServer, publisherId, new MsgUnitRaw[] { msgUnit });
+   }
+
+   private static long usedHeap() throws Exception {
+      Runtime rt = Runtime.getRuntime();
+      for (int i=0; i<5; i++) {
+         System.gc();
+         Thread.sleep(100L);
+      }
+      return rt.totalMemory() - rt.freeMemory();
+   }
+
+   private void waitForRelease(SessionInfo sessionInfo, boolean released) throws Exception {
+      for (int i=0; i<100 && sessionInfo.isCallbackQueueMaterialized() == released; i++)
+         Thread.sleep(50L);
+   }
+
+   /**
+    * The queue is created with the first message and released when it is empty and idle.
+    */
+   public void testMaterializeAndRelease() throws Exception {
+      System.out.println("***LazyCallbackQueueTest: testMaterializeAndRelease ...");
+      startServer(true, 200L);
+      String publisherId = connect("publisher", false);
+      connect("device", true);
+      SessionInfo sessionInfo = getSessionInfo("device");
+      assertTrue(sessionInfo.isLazyCallbackQueue());
+      assertFalse(sessionInfo.isCallbackQueueMaterialized());
+      assertTrue("A lazy session has a callback", sessionInfo.hasCallback());
+      assertNull(sessionInfo.getDispatchManager());
+      assertEquals(0L, sessionInfo.getCbQueueNumMsgs());
+      publishPtp(publisherId, "device");
+      assertTrue(sessionInfo.isCallbackQueueMaterialized());
+      assertNotNull(sessionInfo.getDispatchManager());
+
+      // Without a callback the messages stay in the queue until the client fetches them
+      connect("poller", false);
+      sessionInfo = getSessionInfo("poller");
+      assertFalse(sessionInfo.isCallbackQueueMaterialized());
+      publishPtp(publisherId, "poller");
+      assertTrue(sessionInfo.isCallbackQueueMaterialized());
+      assertNull(sessionInfo.getDispatchManager());
+      assertEquals(1L, sessionInfo.getCbQueueNumMsgs());
+      assertEquals(1L, sessionInfo.getNumCallbackQueueMaterialized());
+
+      Thread.sleep(600L);
+      assertTrue("A queue with entries is not released", sessionInfo.isCallbackQueueMaterialized());
+      sessionInfo.clearCallbackQueue();
+      waitForRelease(sessionInfo, true);
+      assertFalse(sessionInfo.isCallbackQueueMaterialized());
+      assertEquals(0L, sessionInfo.getCbQueueNumMsgs());
+      assertEquals(1L, sessionInfo.getNumCallbackQueueReleased());
+
+      publishPtp(publisherId, "poller");
+      assertTrue(sessionInfo.isCallbackQueueMaterialized());
+      assertEquals(1L, sessionInfo.getCbQueueNumMsgs());
+      assertEquals(2L, sessionInfo.getNumCallbackQueueMaterialized());
+      System.out.println("***LazyCallbackQueueTest: testMaterializeAndRelease [SUCCESS]");
+   }
+
+   /**
+    * Connects many sessions which never get a message and logs the heap used per session.
+    */
+   public void testHeapPerIdleSession() throws Exception {
+      System.out.println("***LazyCallbackQueueTest: testHeapPerIdleSession ...");
+      int numSessions = 2000;
+      long[] perSession = new long[2];
+      for (int run=0; run<2; run++) {
+         boolean lazy = run == 1;
+         startServer(lazy, 0L);
+         long before = usedHeap();
+         long start = System.currentTimeMillis();
+         for (int i=0; i<numSessions; i++)
+            connect("idle" + i, true);
+         long elapsed = System.currentTimeMillis() - start;
+         perSession[run] = (usedHeap() - before) / numSessions;
+         assertEquals(!lazy, getSessionInfo("idle0").isCallbackQueueMaterialized());
+         log.info("session/lazyCallbackQueue=" + lazy + ": " + numSessions + " idle sessions connected in " + elapsed
+                  + " ms, heap per idle session=" + perSession[run] + " bytes");
+         stopServer();
+      }
+      log.info("Heap per idle session: callback queue on login=" + perSession[0] + " bytes, lazy callback queue="
+               + perSession[1] + " bytes");
+      assertTrue("Lazy session is not smaller: " + perSession[1] + " >= " + perSession[0], perSession[1] < perSession[0]);
+      System.out.println("***LazyCallbackQueueTest: testHeapPerIdleSession [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.LazyCallbackQueueTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(LazyCallbackQueueTest.class));
+   }
+}
@@ -0,0 +1,157 @@
+package org.xmlBlaster.test.classtest;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.qos.AddressServer;
+import org.xmlBlaster.engine.qos.ConnectQosServer;
+import org.xmlBlaster.engine.qos.ConnectReturnQosServer;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.MsgUnitRaw;
+
+/**
+ * Measures the time until a restarted xmlBlaster is ready (run level RUNNING)
+ * with persistent topics, sessions and subscriptions to recover.
+ * <p>
+ * All persistence is on the FILE plugin so that no database is needed,
+ * the callback queues are CACHE queues on FILE.
+ * testTimeToReady() logs the startup time with one recovery thread, with
+ * four recovery threads and additionally with lazy loaded callback queues.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.StartupRecoveryTest
+ * </p>
+ * @see org.xmlBlaster.engine.StartupRecovery
+ */
+public class StartupRecoveryTest extends TestCase {
+   private static Logger log = Logger.getLogger(StartupRecoveryTest.class.getName());
+   private File dir;
+   private EmbeddedXmlBlaster serverThread;
+   private final int numSessions = 500;
+   private final int numSubscriptionsPerSession = 2;
+   private final int numTopics = 20;
+   /** The internal clients of the server */
+   private int numInternalClients;
+
+   public StartupRecoveryTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.dir = new File(System.getProperty("java.io.tmpdir"), "StartupRecoveryTest");
+      deleteDir(this.dir);
+   }
+
+   protected void tearDown() {
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      deleteDir(this.dir);
+   }
+
+   private static void deleteDir(File file) {
+      File[] files = file.listFiles();
+      for (int i=0; files!=null && i<files.length; i++)
+         deleteDir(files[i]);
+      file.delete();
+   }
+
+   private String[] getArgs(int threads, boolean lazyLoad) {
+      String journal = "journal/path=" + this.dir.getAbsolutePath() + ",journal/segmentSize=65536,journal/syncMode=none";
+      return Util.getOtherServerPorts(8617, new String[] {
+         "-cluster.node.id", "recoveryTest",
+         "-xmlBlaster/jmx/HtmlAdaptor", "false",
+         "-QueuePlugin[FILE][1.0]", "org.xmlBlaster.util.queue.file.FileQueuePlugin," + journal,
+         "-StoragePlugin[FILE][1.0]", "org.xmlBlaster.util.queue.file.FileQueuePlugin," + journal,
+         "-QueuePlugin[CACHE][1.0]", "org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin,persistentQueue=FILE,transientQueue=RAM,lazyLoad=" + lazyLoad,
+         "-persistence/session/defaultPlugin", "FILE,1.0",
+         "-persistence/subscribe/defaultPlugin", "FILE,1.0",
+         "-persistence/topicStore/defaultPlugin", "FILE,1.0",
+         "-persistence/msgUnitStore/defaultPlugin", "FILE,1.0",
+         "-queue/history/defaultPlugin", "FILE,1.0",
+         "-queue/callback/defaultPlugin", "CACHE,1.0",
+         "-useTopicStore", "true",
+         "-recovery/threads", "" + threads });
+   }
+
+   /**
+    * Creates the persistent topics, sessions and subscriptions in a running server.
+    */
+   private void createDataset(ServerScope serverScope) throws Exception {
+      AddressServer addressServer = new AddressServer(serverScope, "NATIVE", serverScope.getId(), (java.util.Properties)null);
+      ConnectQosServer publisherQos = new ConnectQosServer(serverScope,
+            "<qos><securityService type='htpasswd' version='1.0'><![CDATA[<user>publisher</user><passwd>secret</passwd>]]></securityService></qos>");
+      publisherQos.setAddressServer(addressServer);
+      String publisherId = serverScope.getAuthenticate().connect(publisherQos).getSecretSessionId();
+      for (int i=0; i<this.numTopics; i++) {
+         MsgUnitRaw msgUnit = new MsgUnitRaw("<key oid='StartupRecoveryTest-" + i + "'/>", new byte[100], "<qos><persistent/></qos>");
+         serverScope.getAuthenticate().getXmlBlaster().publishArr(addressServer, publisherId, new MsgUnitRaw[] { msgUnit });
+      }
+      for (int i=0; i<this.numSessions; i++) {
+         ConnectQosServer connectQos = new ConnectQosServer(serverScope,
+               "<qos><securityService type='htpasswd' version='1.0'><![CDATA[<user>recovery" + i + "</user><passwd>secret</passwd>]]></securityService>" +
+               "<session name='client/recovery" + i + "/session/1' timeout='0'/><persistent/>" +
+               "<queue relating='callback'><callback type='XMLRPC' retries='-1' delay='3600000' pingInterval='0'>http://127.0.0.1:1</callback></queue></qos>"); // the client is gone
+         connectQos.setAddressServer(addressServer);
+         ConnectReturnQosServer ret = serverScope.getAuthenticate().connect(connectQos);
+         for (int j=0; j<this.numSubscriptionsPerSession; j++) {
+            int topic = (i + j) % this.numTopics;
+            serverScope.getAuthenticate().getXmlBlaster().subscribe(addressServer, ret.getSecretSessionId(),
+                  "<key oid='StartupRecoveryTest-" + topic + "'/>", "<qos><persistent/></qos>");
+         }
+      }
+   }
+
+   /**
+    * @return The milliseconds until the server is ready
+    */
+   private long restart(int threads, boolean lazyLoad) {
+      long start = System.currentTimeMillis();
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(getArgs(threads, lazyLoad));
+      long elapsed = System.currentTimeMillis() - start;
+      ServerScope serverScope = this.serverThread.getMain().getGlobal();
+      assertTrue(serverScope.getRunlevelManager().isRunning());
+      assertEquals("Sessions not recovered", this.numInternalClients + this.numSessions, serverScope.getRequestBroker().getNumClients());
+      assertEquals("Subscriptions not recovered", this.numSessions*this.numSubscriptionsPerSession,
+                   serverScope.getRequestBroker().getNumSubscriptions());
+      assertTrue("Topics not recovered", serverScope.getRequestBroker().getNumTopics() >= this.numTopics);
+      log.info("recovery/threads=" + threads + " lazyLoad=" + lazyLoad + ": ready after " + elapsed + " ms, "
+               + serverScope.getRunlevelManager().getRecoveryProgress());
+      EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      return elapsed;
+   }
+
+   /**
+    * Restarts the server on the same persistent dataset with different recovery settings.
+    */
+   public void testTimeToReady() throws Exception {
+      System.out.println("***StartupRecoveryTest: testTimeToReady ...");
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(getArgs(1, false));
+      this.numInternalClients = this.serverThread.getMain().getGlobal().getRequestBroker().getNumClients();
+      createDataset(this.serverThread.getMain().getGlobal());
+      EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+
+      restart(1, false); // warm up
+      long sequential = restart(1, false);
+      long parallel = restart(4, false);
+      long lazy = restart(4, true);
+      log.info(this.numTopics + " topics, " + this.numSessions + " sessions, " + (this.numSessions*this.numSubscriptionsPerSession)
+               + " subscriptions: time-to-ready sequential=" + sequential + " ms, parallel=" + parallel
+               + " ms, parallel with lazy callback queues=" + lazy + " ms");
+      System.out.println("***StartupRecoveryTest: testTimeToReady [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.StartupRecoveryTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(StartupRecoveryTest.class));
+   }
+}
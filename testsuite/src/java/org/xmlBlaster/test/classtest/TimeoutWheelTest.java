@@ -0,0 +1,231 @@
+package org.xmlBlaster.test.classtest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.I_Timeout;
+import org.xmlBlaster.util.I_TimeoutManager;
+import org.xmlBlaster.util.Timeout;
+import org.xmlBlaster.util.TimeoutWheel;
+import org.xmlBlaster.util.Timestamp;
+import org.xmlBlaster.util.XmlBlasterException;
+
+import junit.framework.*;
+
+/**
+ * Test the hashed timing wheel TimeoutWheel and compare it with the TreeMap based Timeout.
+ * <p />
+ * testCompareRefreshThroughput() refreshes the timers of many simulated sessions
+ * from several threads, as SessionInfo.refreshSession() does on every client
+ * request, and logs the refreshes/sec of both implementations.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.TimeoutWheelTest
+ * @see org.xmlBlaster.util.TimeoutWheel
+ */
+public class TimeoutWheelTest extends TestCase {
+   private static Logger log = Logger.getLogger(TimeoutWheelTest.class.getName());
+
+   public TimeoutWheelTest(String name) {
+      super(name);
+   }
+
+   /**
+    * A timeout may never fire too early and should fire within some ticks
+    */
+   public void testTimeout() throws Exception {
+      System.out.println("***TimeoutWheelTest: testTimeout ...");
+      TimeoutWheel timeout = new TimeoutWheel("TimeoutWheelTest");
+      final long[] delays = { 0L, 5L, 50L, 500L, 2600L /* level 1 */ };
+      final long[] fired = new long[delays.length];
+      final Timestamp[] keys = new Timestamp[delays.length];
+      long start = System.currentTimeMillis();
+      for (int i=0; i<delays.length; i++) {
+         final int index = i;
+         keys[i] = timeout.addTimeoutListener(new I_Timeout() {
+            public void timeout(Object userData) {
+               fired[index] = System.currentTimeMillis();
+            }
+         }, delays[i], null);
+      }
+      assertEquals(delays.length, timeout.getSize());
+      assertFalse(timeout.isExpired(keys[4]));
+      assertTrue(timeout.spanToTimeout(keys[4]) > 2000L);
+      Thread.sleep(3000L);
+      for (int i=0; i<delays.length; i++) {
+         assertTrue("Timer " + delays[i] + " has not fired", fired[i] != 0L);
+         long diff = fired[i] - start;
+         log.info("Timer " + delays[i] + " fired after " + diff + " millis");
+         assertTrue("Timer " + delays[i] + " fired too early after " + diff, diff >= delays[i]);
+         assertTrue("Timer " + delays[i] + " fired too late after " + diff, diff < delays[i] + 200L);
+         assertTrue(timeout.isExpired(keys[i]));
+         assertEquals(-1L, timeout.spanToTimeout(keys[i]));
+      }
+      assertEquals(0, timeout.getSize());
+      timeout.shutdown();
+      System.out.println("***TimeoutWheelTest: testTimeout [SUCCESS]");
+   }
+
+   /**
+    * Remove and refresh, stale or foreign handles
+    */
+   public void testRemoveAndRefresh() throws Exception {
+      System.out.println("***TimeoutWheelTest: testRemoveAndRefresh ...");
+      TimeoutWheel timeout = new TimeoutWheel("TimeoutWheelTest");
+      final AtomicInteger counter = new AtomicInteger();
+      I_Timeout listener = new I_Timeout() {
+         public void timeout(Object userData) {
+            assertEquals("myData", userData);
+            counter.incrementAndGet();
+         }
+      };
+      timeout.removeTimeoutListener(null);
+      timeout.removeTimeoutListener(new Timestamp(12));
+
+      Timestamp removed = timeout.addTimeoutListener(listener, 200L, "myData");
+      timeout.removeTimeoutListener(removed);
+      assertTrue(timeout.isExpired(removed));
+      try {
+         timeout.refreshTimeoutListener(removed, 100L);
+         fail("Refresh of removed timer must fail");
+      }
+      catch (XmlBlasterException e) {
+         log.info("Refresh failed which is OK (it is a test): " + e.getMessage());
+      }
+
+      Timestamp key = timeout.addTimeoutListener(listener, 300L, "myData");
+      for (int i=0; i<10; i++) {
+         Thread.sleep(100L);
+         key = timeout.refreshTimeoutListener(key, 300L);
+      }
+      assertEquals("Refreshed timer may not fire", 0, counter.get());
+      assertEquals(1, timeout.getSize());
+      Thread.sleep(600L);
+      assertEquals(1, counter.get());
+      assertTrue(timeout.isExpired(key));
+
+      // Expired handle: addOrRefresh creates a new timer
+      key = timeout.addOrRefreshTimeoutListener(listener, 50L, "myData", key);
+      Thread.sleep(300L);
+      assertEquals(2, counter.get());
+
+      timeout.addTimeoutListener(listener, 100L, "myData");
+      timeout.addTimeoutListener(listener, 100L, "myData");
+      timeout.removeAll();
+      assertEquals(0, timeout.getSize());
+      Thread.sleep(300L);
+      assertEquals("removeAll() did not remove the timers", 2, counter.get());
+      timeout.shutdown();
+      System.out.println("***TimeoutWheelTest: testRemoveAndRefresh [SUCCESS]");
+   }
+
+   /**
+    * Cascading through the levels with a short tick
+    */
+   public void testCascade() throws Exception {
+      System.out.println("***TimeoutWheelTest: testCascade ...");
+      TimeoutWheel timeout = new TimeoutWheel("TimeoutWheelTest", false, 1L);
+      final int numTimers = 5000;
+      final AtomicInteger counter = new AtomicInteger();
+      final AtomicInteger early = new AtomicInteger();
+      I_Timeout listener = new I_Timeout() {
+         public void timeout(Object userData) {
+            if (System.currentTimeMillis() < ((Long)userData).longValue())
+               early.incrementAndGet();
+            counter.incrementAndGet();
+         }
+      };
+      for (int i=0; i<numTimers; i++) {
+         long delay = (i * 7919L) % 1500L; // spread over level 0 and 1
+         timeout.addTimeoutListener(listener, delay, new Long(System.currentTimeMillis() + delay));
+      }
+      for (int i=0; i<40 && counter.get() < numTimers; i++)
+         Thread.sleep(100L);
+      assertEquals(numTimers, counter.get());
+      assertEquals("Timers fired too early", 0, early.get());
+      timeout.shutdown();
+      System.out.println("***TimeoutWheelTest: testCascade [SUCCESS]");
+   }
+
+   /**
+    * -timeout/type selects the implementation
+    */
+   public void testCreateTimeoutManager() {
+      System.out.println("***TimeoutWheelTest: testCreateTimeoutManager ...");
+      Global glob = new Global(new String[] { "-timeout/type", "HashedWheel" });
+      I_TimeoutManager timer = glob.getBurstModeTimer();
+      assertTrue(timer.toString(), timer instanceof TimeoutWheel);
+      glob.shutdown();
+      glob = new Global(new String[0]);
+      timer = glob.getBurstModeTimer();
+      assertTrue(timer.toString(), timer instanceof Timeout);
+      glob.shutdown();
+      System.out.println("***TimeoutWheelTest: testCreateTimeoutManager [SUCCESS]");
+   }
+
+   /**
+    * Many threads refresh session timers concurrently, compare both implementations
+    */
+   public void testCompareRefreshThroughput() throws Exception {
+      System.out.println("***TimeoutWheelTest: testCompareRefreshThroughput ...");
+      int numSessions = 100000;
+      int numThreads = 8;
+      int refreshesPerThread = 200000;
+      for (int run=0; run<2; run++) { // first run is warm up
+         long treeMap = refreshThroughput(new Timeout("TreeMap"), numSessions, numThreads, refreshesPerThread);
+         long wheel = refreshThroughput(new TimeoutWheel("HashedWheel"), numSessions, numThreads, refreshesPerThread);
+         log.info((run==0 ? "Warm up: " : "") + "sessions=" + numSessions + " threads=" + numThreads +
+                  " TreeMap=" + treeMap + " refreshes/sec HashedWheel=" + wheel + " refreshes/sec");
+      }
+      System.out.println("***TimeoutWheelTest: testCompareRefreshThroughput [SUCCESS]");
+   }
+
+   private long refreshThroughput(final I_TimeoutManager timeout, int numSessions,
+                                  int numThreads, final int refreshesPerThread) throws Exception {
+      final I_Timeout listener = new I_Timeout() {
+         public void timeout(Object userData) {
+            fail("Session timer may not expire");
+         }
+      };
+      final Timestamp[] keys = new Timestamp[numSessions];
+      for (int i=0; i<keys.length; i++)
+         keys[i] = timeout.addTimeoutListener(listener, 60000L + i, null);
+      final AtomicInteger errors = new AtomicInteger();
+      Thread[] threads = new Thread[numThreads];
+      for (int t=0; t<threads.length; t++) {
+         final int offset = t;
+         final int stride = threads.length;
+         threads[t] = new Thread() {
+            public void run() {
+               int index = offset;
+               for (int i=0; i<refreshesPerThread; i++) {
+                  // Each thread has its own sessions, like one request per session at a time
+                  try {
+                     keys[index] = timeout.refreshTimeoutListener(keys[index], 60000L);
+                  }
+                  catch (XmlBlasterException e) {
+                     errors.incrementAndGet();
+                  }
+                  index += stride;
+                  if (index >= keys.length) index = offset;
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (int t=0; t<threads.length; t++) threads[t].start();
+      for (int t=0; t<threads.length; t++) threads[t].join();
+      long elapsed = Math.max(1L, System.nanoTime() - start);
+      assertEquals(0, errors.get());
+      assertEquals(numSessions, timeout.getSize());
+      timeout.shutdown();
+      return (long)numThreads * refreshesPerThread * 1000000000L / elapsed;
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.TimeoutWheelTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TimeoutWheelTest.class));
+   }
+}
@@ -0,0 +1,158 @@
+package org.xmlBlaster.test.classtest;
+
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.TopicAccessor;
+import org.xmlBlaster.engine.TopicHandler;
+
+import junit.framework.*;
+
+/**
+ * Test the TopicAccessor registry and measure its contention behaviour.
+ * <p />
+ * testContention() accesses/releases topics with 1, 2, 4 ... (cores) threads
+ * where each thread works on its own set of oids, the throughput should
+ * scale with the number of cores as there is no common monitor anymore.
+ * <p />
+ * Invoke: java junit.textui.TestRunner -noloading org.xmlBlaster.test.classtest.TopicAccessorTest
+ * @see org.xmlBlaster.engine.TopicAccessor
+ */
+public class TopicAccessorTest extends TestCase {
+   private static Logger log = Logger.getLogger(TopicAccessorTest.class.getName());
+   private ServerScope glob;
+   private TopicAccessor topicAccessor;
+
+   public TopicAccessorTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = new ServerScope();
+      this.topicAccessor = new TopicAccessor(this.glob);
+   }
+
+   protected void tearDown() {
+      this.glob.shutdown();
+   }
+
+   /**
+    * Create, access, release and erase some topics
+    */
+   public void testFunctionality() throws Exception {
+      System.out.println("***TopicAccessorTest: testFunctionality ...");
+      assertEquals(0, this.topicAccessor.getNumTopics());
+      assertNull(this.topicAccessor.access("unknown"));
+
+      TopicHandler th = this.topicAccessor.findOrCreate(null, "topic1");
+      assertNotNull(th);
+      assertEquals("topic1", th.getUniqueKey());
+      this.topicAccessor.release(th);
+
+      TopicHandler th2 = this.topicAccessor.findOrCreate(null, "topic1");
+      assertTrue("Expected same instance", th == th2);
+      this.topicAccessor.release(th2);
+
+      th = this.topicAccessor.findOrCreate(null, "topic2");
+      this.topicAccessor.release(th);
+      assertEquals(2, this.topicAccessor.getNumTopics());
+      assertEquals(2, this.topicAccessor.getTopics().length);
+
+      th = this.topicAccessor.access("topic2");
+      assertNotNull(th);
+      this.topicAccessor.release(th);
+      assertNotNull(this.topicAccessor.accessDirtyRead("topic2"));
+
+      this.topicAccessor.erase("topic2");
+      assertNull(this.topicAccessor.access("topic2"));
+      assertEquals(1, this.topicAccessor.getNumTopics());
+      assertEquals("topic1", this.topicAccessor.getTopics()[0]);
+      System.out.println("***TopicAccessorTest: testFunctionality [SUCCESS]");
+   }
+
+   /**
+    * Many threads create the same topic simultaneously, only one instance may be created
+    */
+   public void testConcurrentCreate() throws Exception {
+      System.out.println("***TopicAccessorTest: testConcurrentCreate ...");
+      final int numThreads = 8;
+      final TopicHandler[] result = new TopicHandler[numThreads];
+      final Exception[] ex = new Exception[1];
+      Thread[] threads = new Thread[numThreads];
+      for (int i=0; i<numThreads; i++) {
+         final int index = i;
+         threads[i] = new Thread() {
+            public void run() {
+               try {
+                  TopicHandler th = topicAccessor.findOrCreate(null, "sameTopic");
+                  result[index] = th;
+                  topicAccessor.release(th);
+               }
+               catch (Exception e) {
+                  ex[0] = e;
+               }
+            }
+         };
+      }
+      for (int i=0; i<numThreads; i++) threads[i].start();
+      for (int i=0; i<numThreads; i++) threads[i].join();
+      assertNull("" + ex[0], ex[0]);
+      for (int i=1; i<numThreads; i++)
+         assertTrue("Expected same instance", result[0] == result[i]);
+      assertEquals(1, this.topicAccessor.getNumTopics());
+      System.out.println("***TopicAccessorTest: testConcurrentCreate [SUCCESS]");
+   }
+
+   /**
+    * Measure access/release throughput with a growing number of threads.
+    * Each thread uses its own oids, like many publishers to different topics.
+    */
+   public void testContention() throws Exception {
+      System.out.println("***TopicAccessorTest: testContention ...");
+      final int topicsPerThread = 100;
+      final int loops = 200000;
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int numThreads=1; numThreads<=Math.max(cores, 2); numThreads*=2) {
+         final String[][] oids = new String[numThreads][topicsPerThread];
+         for (int t=0; t<numThreads; t++) {
+            for (int i=0; i<topicsPerThread; i++) {
+               oids[t][i] = "contention-" + t + "-" + i;
+               TopicHandler th = this.topicAccessor.findOrCreate(null, oids[t][i]);
+               this.topicAccessor.release(th);
+            }
+         }
+         final int[] errors = new int[1];
+         Thread[] threads = new Thread[numThreads];
+         for (int t=0; t<numThreads; t++) {
+            final String[] myOids = oids[t];
+            threads[t] = new Thread() {
+               public void run() {
+                  for (int i=0; i<loops; i++) {
+                     TopicHandler th = topicAccessor.access(myOids[i % myOids.length]);
+                     if (th == null) {
+                        synchronized (errors) { errors[0]++; }
+                        continue;
+                     }
+                     topicAccessor.release(th);
+                  }
+               }
+            };
+         }
+         long start = System.currentTimeMillis();
+         for (int t=0; t<numThreads; t++) threads[t].start();
+         for (int t=0; t<numThreads; t++) threads[t].join();
+         long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+         assertEquals("Topics disappeared", 0, errors[0]);
+         long total = (long)numThreads * loops;
+         log.info("threads=" + numThreads + " accesses=" + total + " elapsed=" + elapsed + " millis -> " + (total*1000L/elapsed) + " access/release per sec");
+      }
+      System.out.println("***TopicAccessorTest: testContention [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.TopicAccessorTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TopicAccessorTest.class));
+   }
+}
@@ -0,0 +1,263 @@
+package org.xmlBlaster.test.classtest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.MsgUnitRaw;
+import org.xmlBlaster.util.SessionName;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.key.MsgKeyData;
+import org.xmlBlaster.util.qos.ClientProperty;
+import org.xmlBlaster.util.qos.MsgQosData;
+import org.xmlBlaster.util.qos.address.Destination;
+import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfBinaryCodec;
+import org.xmlBlaster.util.xbformat.XbfParser;
+
+import junit.framework.*;
+
+/**
+ * Tests the binary QoS/key form of the XBF format.
+ * <p />
+ * The decoded binary form must be identical to the SAX parsed XML markup,
+ * QoS with fields unknown to the codec must fall back to XML.
+ * testDecodeThroughput() logs the SAX parse and the binary decode rate and the sizes.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.XbfBinaryCodecTest
+ * @see org.xmlBlaster.util.xbformat.XbfBinaryCodec
+ */
+public class XbfBinaryCodecTest extends TestCase {
+   private static Logger log = Logger.getLogger(XbfBinaryCodecTest.class.getName());
+   private Global glob;
+
+   public XbfBinaryCodecTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = Global.instance();
+   }
+
+   private MsgUnit[] createSimple() throws Exception {
+      MsgUnit[] arr = new MsgUnit[5];
+      arr[0] = new MsgUnit(new PublishKey(this.glob, "HelloTopic"), "Hello".getBytes(), new PublishQos(this.glob));
+
+      PublishKey key = new PublishKey(this.glob, "a<b&'c\"");
+      key.setContentMime("text/xml");
+      key.setContentMimeExtended("1.0");
+      key.setDomain("RUGBY");
+      PublishQos qos = new PublishQos(this.glob);
+      qos.setPersistent(true);
+      qos.setPriority(PriorityEnum.HIGH_PRIORITY);
+      qos.setLifeTime(60000L);
+      qos.setForceDestroy(true);
+      qos.setForceUpdate(false);
+      qos.setSubscribable(false);
+      qos.setSender(new SessionName(this.glob, "joe/1"));
+      qos.addClientProperty("index", 4711);
+      qos.addClientProperty("flag", true);
+      qos.addClientProperty("text", " a <b> & ]]> ");
+      qos.addClientProperty("empty", "");
+      qos.addClientProperty("blob", new byte[] { 0, 1, 2, -1 });
+      qos.addClientProperty("pi", 3.14);
+      arr[1] = new MsgUnit(key, new byte[0], qos);
+
+      qos = new PublishQos(this.glob);
+      qos.setPriority(PriorityEnum.MIN_PRIORITY);
+      qos.setLifeTime(-1L);
+      arr[2] = new MsgUnit(new PublishKey(this.glob, ""), new byte[100], qos);
+
+      qos = new PublishQos(this.glob);
+      qos.setPersistent(false);
+      qos.setForceDestroy(false);
+      arr[3] = new MsgUnit(new PublishKey(this.glob, "x"), "x".getBytes(), qos);
+
+      MsgQosData qosData = new MsgQosData(this.glob, MethodName.UPDATE);
+      qosData.setRemainingLifeStatic(1200L);
+      qosData.setLifeTime(5000L);
+      arr[4] = new MsgUnit(new MsgKeyData(this.glob, "upd"), "u".getBytes(), qosData);
+      return arr;
+   }
+
+   private MsgUnit[] createComplex() throws Exception {
+      MsgUnit[] arr = new MsgUnit[4];
+      PublishQos qos = new PublishQos(this.glob);
+      qos.addDestination(new Destination(new SessionName(this.glob, "joe")));
+      arr[0] = new MsgUnit(new PublishKey(this.glob, "PtP"), new byte[0], qos);
+
+      PublishKey key = new PublishKey(this.glob, "tags");
+      key.setClientTags("<a><b/></a>");
+      arr[1] = new MsgUnit(key, new byte[0], new PublishQos(this.glob));
+
+      qos = new PublishQos(this.glob);
+      qos.setAdministrative(true);
+      arr[2] = new MsgUnit(new PublishKey(this.glob, "admin"), new byte[0], qos);
+
+      arr[3] = new MsgUnit(new PublishKey(this.glob, " blank "), new byte[0], new PublishQos(this.glob));
+      return arr;
+   }
+
+   private void assertSame(String txt, MsgUnit expected, MsgUnit msgUnit, boolean compareKey) {
+      MsgQosData e = (MsgQosData)expected.getQosData();
+      MsgQosData q = (MsgQosData)msgUnit.getQosData();
+      assertEquals(txt, e.isPersistent(), q.isPersistent());
+      assertEquals(txt, e.getPriority(), q.getPriority());
+      assertEquals(txt, e.getLifeTime(), q.getLifeTime());
+      assertEquals(txt, e.isForceDestroy(), q.isForceDestroy());
+      assertEquals(txt, e.getRemainingLifeStatic(), q.getRemainingLifeStatic());
+      assertEquals(txt, e.isSubscribable(), q.isSubscribable());
+      assertEquals(txt, e.isForceUpdate(), q.isForceUpdate());
+      assertEquals(txt, e.getMethod(), q.getMethod());
+      assertEquals(txt, (e.getSender()==null) ? null : e.getSender().getAbsoluteName(),
+                        (q.getSender()==null) ? null : q.getSender().getAbsoluteName());
+      Map expectedProps = e.getClientProperties();
+      Map props = q.getClientProperties();
+      assertEquals(txt, expectedProps.size(), props.size());
+      Iterator it = expectedProps.values().iterator();
+      while (it.hasNext()) {
+         ClientProperty ep = (ClientProperty)it.next();
+         ClientProperty p = (ClientProperty)props.get(ep.getName());
+         assertNotNull(txt + ": " + ep.getName(), p);
+         assertEquals(txt, ep.getType(), p.getType());
+         assertEquals(txt, ep.getEncoding(), p.getEncoding());
+         assertEquals(txt, ep.getValueRaw(), p.getValueRaw());
+         assertEquals(txt, ep.getStringValue(), p.getStringValue());
+      }
+      assertEquals(txt, e.toXml(), q.toXml());
+      if (compareKey)
+         assertEquals(txt, expected.getKeyData().toXml(), msgUnit.getKeyData().toXml());
+   }
+
+   /** What the server gets with the XML markup */
+   private MsgUnit parseXml(MsgUnit msgUnit) throws Exception {
+      return new MsgUnit(this.glob, msgUnit.getKeyData().toXml(), msgUnit.getContent(),
+                         msgUnit.getQosData().toXml(), MethodName.UPDATE);
+   }
+
+   public void testRoundTrip() throws Exception {
+      System.out.println("***XbfBinaryCodecTest: testRoundTrip ...");
+      MsgUnit[] arr = createSimple();
+      for (int i=0; i<arr.length; i++) {
+         byte[][] qosKey = XbfBinaryCodec.encode(arr[i]);
+         assertNotNull("Should be encodable: " + arr[i].toXml(), qosKey);
+         assertTrue(XbfBinaryCodec.isBinary(qosKey[0]));
+         assertTrue(XbfBinaryCodec.isBinary(qosKey[1]));
+         MsgUnit decoded = XbfBinaryCodec.decode(this.glob, qosKey[1], arr[i].getContent(), qosKey[0]);
+         MsgUnit sax = parseXml(arr[i]);
+         sax.getQosData().setMethod(arr[i].getQosData().getMethod());
+         assertSame(arr[i].toXml(), sax, decoded, arr[i].getKeyOid().length() > 0); // else a generated oid
+      }
+      // An empty oid is generated by the receiver as SAX does
+      MsgUnit decoded = XbfBinaryCodec.decode(this.glob, XbfBinaryCodec.encodeKey((MsgKeyData)arr[2].getKeyData()),
+                                              null, XbfBinaryCodec.encodeQos((MsgQosData)arr[2].getQosData()));
+      assertTrue(decoded.getKeyOid().length() > 0);
+      System.out.println("***XbfBinaryCodecTest: testRoundTrip [SUCCESS]");
+   }
+
+   public void testFallback() throws Exception {
+      System.out.println("***XbfBinaryCodecTest: testFallback ...");
+      MsgUnit[] arr = createComplex();
+      for (int i=0; i<arr.length; i++)
+         assertNull("Should not be encodable: " + arr[i].toXml(), XbfBinaryCodec.encode(arr[i]));
+      try {
+         XbfBinaryCodec.decodeQos(this.glob, "<qos/>".getBytes());
+         fail("XML is not binary");
+      }
+      catch (java.io.IOException e) {
+      }
+      try {
+         byte[] qos = XbfBinaryCodec.encodeQos((MsgQosData)createSimple()[1].getQosData());
+         byte[] truncated = new byte[qos.length-3];
+         System.arraycopy(qos, 0, truncated, 0, truncated.length);
+         XbfBinaryCodec.decodeQos(this.glob, truncated);
+         fail("Truncated binary must fail");
+      }
+      catch (java.io.IOException e) {
+      }
+      System.out.println("***XbfBinaryCodecTest: testFallback [SUCCESS]");
+   }
+
+   /**
+    * Binary and XML messages mixed in one 'B' message, the return value with only a QoS
+    * and the plain format with the 'b' flag.
+    */
+   public void testXbfParser() throws Exception {
+      System.out.println("***XbfBinaryCodecTest: testXbfParser ...");
+      MsgUnit[] simple = createSimple();
+      MsgUnit[] complex = createComplex();
+      for (int flag=0; flag<2; flag++) {
+         MsgInfo msgInfo = new MsgInfo(this.glob, MsgInfo.INVOKE_BYTE, MethodName.PUBLISH_ARR, "secret");
+         msgInfo.setByte5((flag == 0) ? XbfParser.BINARY_QOS_BYTE : XbfParser.BINARY_QOS_CAPABLE_BYTE);
+         msgInfo.addMessage(simple[1].getMsgUnitRaw());
+         msgInfo.addMessage(complex[0].getMsgUnitRaw());
+         msgInfo.addMessage(new MsgUnitRaw("<key oid='plain'/>", "plain".getBytes(), "<qos><persistent/></qos>"));
+         msgInfo.addMessage(simple[0].getMsgUnitRaw());
+         byte[] raw = msgInfo.createRawMsg(XbfParser.class.getName());
+
+         MsgInfo parsed = MsgInfo.parse(this.glob, null, raw, XbfParser.class.getName(), null)[0];
+         assertEquals(msgInfo.getByte5(), parsed.getByte5());
+         MsgUnitRaw[] arr = parsed.getMessageArr();
+         assertEquals(4, arr.length);
+         if (flag == 0) {
+            assertNotNull(arr[0].getDecodedMsgUnit());
+            assertNull(arr[1].getDecodedMsgUnit());
+            assertNull(arr[2].getDecodedMsgUnit());
+            assertNotNull(arr[3].getDecodedMsgUnit());
+         }
+         else {
+            for (int i=0; i<arr.length; i++)
+               assertNull(arr[i].getDecodedMsgUnit());
+         }
+         assertSame("flag=" + flag, parseXml(simple[1]), new MsgUnit(this.glob, arr[0].getKey(), arr[0].getContent(), arr[0].getQos(), MethodName.UPDATE), true);
+         assertEquals(complex[0].getQosData().toXml(), arr[1].getQos());
+         assertEquals("<key oid='plain'/>", arr[2].getKey());
+         assertEquals("plain", arr[2].getContentStr());
+         assertEquals("Hello", arr[3].getContentStr());
+         assertEquals("HelloTopic", new MsgUnit(this.glob, arr[3], MethodName.PUBLISH).getKeyOid());
+
+         MsgInfo returner = parsed.createReturner(MsgInfo.RESPONSE_BYTE);
+         returner.setByte5(msgInfo.getByte5());
+         returner.addMessage(new String[] { "<qos><state id='OK'/></qos>", "<qos/>" });
+         MsgInfo ret = MsgInfo.parse(this.glob, null, returner.createRawMsg(XbfParser.class.getName()), XbfParser.class.getName(), null)[0];
+         assertEquals(2, ret.getQosArr().length);
+         assertEquals("<qos/>", ret.getQosArr()[1]);
+      }
+      System.out.println("***XbfBinaryCodecTest: testXbfParser [SUCCESS]");
+   }
+
+   public void testDecodeThroughput() throws Exception {
+      System.out.println("***XbfBinaryCodecTest: testDecodeThroughput ...");
+      MsgUnit msgUnit = createSimple()[1];
+      String xmlKey = msgUnit.getKeyData().toXml();
+      String xmlQos = msgUnit.getQosData().toXml();
+      byte[][] qosKey = XbfBinaryCodec.encode(msgUnit);
+      log.info("XML size qos=" + xmlQos.length() + " key=" + xmlKey.length() +
+               " bytes, binary size qos=" + qosKey[0].length + " key=" + qosKey[1].length + " bytes");
+      int loops = 20000;
+      for (int run=0; run<2; run++) { // first run is warm up
+         long start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            new MsgUnit(this.glob, xmlKey, msgUnit.getContent(), xmlQos, MethodName.PUBLISH);
+         long sax = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            XbfBinaryCodec.decode(this.glob, qosKey[1], msgUnit.getContent(), qosKey[0]);
+         long binary = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         log.info((run==0 ? "Warm up: " : "") + "XML parse=" + sax + " msgs/sec binary decode=" + binary + " msgs/sec");
+      }
+      System.out.println("***XbfBinaryCodecTest: testDecodeThroughput [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.XbfBinaryCodecTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(XbfBinaryCodecTest.class));
+   }
+}
@@ -0,0 +1,219 @@
+package org.xmlBlaster.test.classtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.MsgUnitRaw;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfFrame;
+import org.xmlBlaster.util.xbformat.XbfFrameDecoder;
+import org.xmlBlaster.util.xbformat.XbfParser;
+
+import junit.framework.*;
+
+/**
+ * Tests that big message contents are passed between the socket and the MsgUnit without copying.
+ * <p />
+ * The sender references the content arrays in the XbfFrame, the receiver reads the
+ * content of the last message directly into its own byte[] (blocking with XbfParser.readOneMsg(),
+ * non blocking with XbfFrameDecoder). All other layouts must still be parsed as before.
+ * testThroughput() logs the send and receive rate with and without copying.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.XbfZeroCopyTest
+ * @see org.xmlBlaster.util.xbformat.XbfFrame
+ */
+public class XbfZeroCopyTest extends TestCase {
+   private static Logger log = Logger.getLogger(XbfZeroCopyTest.class.getName());
+   private Global glob;
+   private Random random = new Random(4711L);
+
+   public XbfZeroCopyTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = Global.instance();
+   }
+
+   private byte[] createContent(int len) {
+      byte[] content = new byte[len];
+      this.random.nextBytes(content);
+      return content;
+   }
+
+   private MsgInfo createMsgInfo(byte byte5, MsgUnitRaw[] arr) {
+      MsgInfo msgInfo = new MsgInfo(this.glob, MsgInfo.INVOKE_BYTE, MethodName.PUBLISH, "secret");
+      msgInfo.setByte5(byte5);
+      for (int i=0; i<arr.length; i++)
+         msgInfo.addMessage(arr[i]);
+      return msgInfo;
+   }
+
+   private MsgUnitRaw createMsgUnitRaw(String oid, byte[] content) throws Exception {
+      PublishQos qos = new PublishQos(this.glob);
+      qos.addClientProperty("len", content.length);
+      return new MsgUnit(new PublishKey(this.glob, oid), content, qos).getMsgUnitRaw();
+   }
+
+   /** Delivers the bytes in small pieces like a slow socket */
+   private InputStream createSlowStream(byte[] raw) {
+      return new ByteArrayInputStream(raw) {
+         public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(3000)));
+         }
+      };
+   }
+
+   private XbfFrame decode(byte[] raw, int maxPiece) throws Exception {
+      XbfFrameDecoder decoder = new XbfFrameDecoder();
+      int pos = 0;
+      while (pos < raw.length) {
+         int num = Math.min(raw.length - pos, 1 + this.random.nextInt(maxPiece));
+         decoder.write(raw, pos, num);
+         pos += num;
+      }
+      XbfFrame frame = decoder.nextFrame();
+      assertNotNull(frame);
+      assertNull(decoder.nextFrame());
+      assertEquals(0, decoder.getPendingBytes());
+      return frame;
+   }
+
+   private void assertSameMessages(String txt, MsgUnitRaw[] expected, MsgInfo parsed) {
+      MsgUnitRaw[] arr = parsed.getMessageArr();
+      assertEquals(txt, expected.length, arr.length);
+      for (int i=0; i<arr.length; i++) {
+         assertEquals(txt, expected[i].getQos(), arr[i].getQos());
+         assertEquals(txt, expected[i].getKey(), arr[i].getKey());
+         assertTrue(txt, Arrays.equals(expected[i].getContent(), arr[i].getContent()));
+      }
+   }
+
+   public void testDirectContent() throws Exception {
+      System.out.println("***XbfZeroCopyTest: testDirectContent ...");
+      byte[] byte5s = { 0, XbfParser.BINARY_QOS_BYTE };
+      for (int b=0; b<byte5s.length; b++) {
+         String txt = "byte5=" + byte5s[b];
+         byte[] content = createContent(300*1024);
+         MsgUnitRaw[] arr = new MsgUnitRaw[] { createMsgUnitRaw("ZeroCopy", content) };
+         MsgInfo msgInfo = createMsgInfo(byte5s[b], arr);
+
+         // Sender: the content is referenced, not copied
+         XbfFrame sendFrame = msgInfo.createFrame(XbfParser.class.getName());
+         assertEquals(txt, 2, sendFrame.getNumSegments());
+         assertTrue(txt, content == sendFrame.getSegment(1));
+         byte[] raw = msgInfo.createRawMsg(XbfParser.class.getName());
+         assertEquals(txt, raw.length, sendFrame.getLength());
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         sendFrame.writeTo(out, 1000, null);
+         assertTrue(txt, Arrays.equals(raw, out.toByteArray()));
+
+         // Blocking receiver
+         MsgInfo parsed = MsgInfo.parse(this.glob, null, createSlowStream(raw), XbfParser.class.getName(), null)[0];
+         assertEquals(txt, MethodName.PUBLISH, parsed.getMethodName());
+         assertSameMessages(txt, arr, parsed);
+
+         // Non blocking receiver: the content of the frame is the content of the message
+         XbfFrame frame = decode(raw, 2000);
+         assertEquals(txt, 2, frame.getNumSegments());
+         assertEquals(txt, content.length, frame.getSegmentLength(1));
+         parsed = MsgInfo.parse(this.glob, null, frame, XbfParser.class.getName(), null)[0];
+         assertSameMessages(txt, arr, parsed);
+         assertTrue(txt, frame.getSegment(1) == parsed.getMessageArr()[0].getContent());
+      }
+      System.out.println("***XbfZeroCopyTest: testDirectContent [SUCCESS]");
+   }
+
+   /**
+    * Layouts where the content doesn't end the message are received in one piece.
+    */
+   public void testOtherLayouts() throws Exception {
+      System.out.println("***XbfZeroCopyTest: testOtherLayouts ...");
+      StringBuffer bigQos = new StringBuffer(100*1024);
+      bigQos.append("<qos><clientProperty name='big'>");
+      for (int i=0; i<10000; i++)
+         bigQos.append("0123456789");
+      bigQos.append("</clientProperty></qos>");
+
+      MsgUnitRaw[][] layouts = new MsgUnitRaw[][] {
+         // two big contents
+         { createMsgUnitRaw("first", createContent(40*1024)), createMsgUnitRaw("second", createContent(50*1024)) },
+         // qos and key bigger than the scanned head
+         { new MsgUnitRaw("<key oid='bigQos'/>", createContent(20*1024), bigQos.toString()) },
+         // a big message without content
+         { new MsgUnitRaw("<key oid='noContent'/>", new byte[0], bigQos.toString()) },
+         // a small message
+         { createMsgUnitRaw("small", createContent(100)) },
+      };
+      byte[] byte5s = { 0, XbfParser.BINARY_QOS_BYTE };
+      for (int b=0; b<byte5s.length; b++) {
+         for (int i=0; i<layouts.length; i++) {
+            String txt = "byte5=" + byte5s[b] + " layout=" + i;
+            MsgInfo msgInfo = createMsgInfo(byte5s[b], layouts[i]);
+            byte[] raw = msgInfo.createRawMsg(XbfParser.class.getName());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            msgInfo.createFrame(XbfParser.class.getName()).writeTo(out, 4096, null);
+            assertTrue(txt, Arrays.equals(raw, out.toByteArray()));
+
+            MsgInfo parsed = MsgInfo.parse(this.glob, null, createSlowStream(raw), XbfParser.class.getName(), null)[0];
+            assertSameMessages(txt, layouts[i], parsed);
+
+            XbfFrame frame = decode(raw, 5000);
+            assertEquals(txt, 1, frame.getNumSegments());
+            assertSameMessages(txt, layouts[i], MsgInfo.parse(this.glob, null, frame, XbfParser.class.getName(), null)[0]);
+         }
+      }
+      System.out.println("***XbfZeroCopyTest: testOtherLayouts [SUCCESS]");
+   }
+
+   public void testThroughput() throws Exception {
+      System.out.println("***XbfZeroCopyTest: testThroughput ...");
+      MsgUnitRaw[] arr = new MsgUnitRaw[] { createMsgUnitRaw("Throughput", createContent(1024*1024)) };
+      MsgInfo msgInfo = createMsgInfo((byte)0, arr);
+      String parser = XbfParser.class.getName();
+      byte[] raw = msgInfo.createRawMsg(parser);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length + 100);
+      int loops = 200;
+      for (int run=0; run<2; run++) { // first run is warm up
+         long start = System.nanoTime();
+         for (int i=0; i<loops; i++) {
+            out.reset();
+            out.write(msgInfo.createRawMsg(parser));
+         }
+         long copy = mbPerSec(loops, raw.length, start);
+         start = System.nanoTime();
+         for (int i=0; i<loops; i++) {
+            out.reset();
+            msgInfo.createFrame(parser).writeTo(out, Integer.MAX_VALUE, null);
+         }
+         long frame = mbPerSec(loops, raw.length, start);
+         start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            MsgInfo.parse(this.glob, null, new ByteArrayInputStream(raw), parser, null);
+         long read = mbPerSec(loops, raw.length, start);
+         log.info((run==0 ? "Warm up: " : "") + "Sending 1 MByte messages: createRawMsg=" + copy +
+                  " MB/sec createFrame=" + frame + " MB/sec, receiving with direct content=" + read + " MB/sec");
+      }
+      System.out.println("***XbfZeroCopyTest: testThroughput [SUCCESS]");
+   }
+
+   private long mbPerSec(int loops, int len, long startNanos) {
+      return (long)loops * len * 1000L / Math.max(1L, System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.XbfZeroCopyTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(XbfZeroCopyTest.class));
+   }
+}
@@ -18,6 +18,7 @@ public class AllTests {
       TestSuite suite= new TestSuite("All xmlBlaster Key tests");
       suite.addTest(MsgKeyFactoryTest.suite());
       suite.addTest(QueryKeyFactoryTest.suite());
+      suite.addTest(new TestSuite(XPathSubscriptionIndexTest.class));
       return suite;
    }
 }
@@ -0,0 +1,178 @@
+package org.xmlBlaster.test.classtest.key;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.xml2java.XPathSubscriptionIndex;
+import org.xmlBlaster.engine.xml2java.XmlKey;
+import org.xmlBlaster.util.key.MsgKeyData;
+
+import junit.framework.*;
+
+/**
+ * Test the XPath subscription index against the full XPath evaluation on the key DOM.
+ * <p />
+ * <pre>
+ * java -Djava.compiler= junit.textui.TestRunner -noloading org.xmlBlaster.test.classtest.key.XPathSubscriptionIndexTest
+ * </pre>
+ * @see org.xmlBlaster.engine.xml2java.XPathSubscriptionIndex
+ */
+public class XPathSubscriptionIndexTest extends TestCase {
+   private static Logger log = Logger.getLogger(XPathSubscriptionIndexTest.class.getName());
+   private ServerScope glob;
+
+   static final String[] KEYS = {
+      "<key oid='Hello'/>",
+      "<key oid='radar.track.1' domain='RUGBY'/>",
+      "<key oid='radar.plot.7' contentMime='text/xml' contentMimeExtended='1.0'/>",
+      "<key oid='Other' contentMime='text/plain'/>",
+      "<key oid='agent1'><AGENT id='192.168.124.10' subId='1' type='generic'><DRIVER id='FileProof' pollingFreq='10'></DRIVER></AGENT></key>",
+      "<key oid='agent2'><!-- no agent --><SIZE/><![CDATA[<AGENT/>]]></key>",
+      "<key oid='nested'><a><key oid='Hello'/></a></key>",
+      "<key oid='drivers'><DRIVER/></key>",
+   };
+
+   static final String[] QUERIES = {
+      "//key[@oid='Hello']",
+      "/xmlBlaster/key[@oid=\"Hello\"]",
+      "//key[@oid='Unknown']",
+      "//key[starts-with(@oid,'radar.')]",
+      "//key[ starts-with( @oid , \"radar.track\" ) ]",
+      "//key[starts-with(@oid,'')]",
+      "//key[@domain='RUGBY']",
+      "//key[@contentMime='text/xml']",
+      "//key[@contentMime='text/plain']",
+      "//key[@contentMimeExtended='1.0']",
+      "//key/AGENT",
+      "//key/DRIVER",
+      "//key/SIZE",
+      "//key",
+      "/xmlBlaster/key",
+      "//key/AGENT/DRIVER[@id='FileProof']",
+      "//key[@oid='Hello' or @oid='Other']",
+      "//key[contains(@oid,'agent')]",
+   };
+
+   public XPathSubscriptionIndexTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = new ServerScope();
+   }
+
+   protected void tearDown() {
+      this.glob.shutdown();
+   }
+
+   private XmlKey createXmlKey(String xml) throws Exception {
+      MsgKeyData keyData = this.glob.getMsgKeyFactory().readObject(xml);
+      return new XmlKey(this.glob, keyData);
+   }
+
+   /**
+    * The index must deliver exactly the same result as the XPath evaluation on the DOM
+    */
+   public void testSameAsDom() throws Exception {
+      System.out.println("***XPathSubscriptionIndexTest: testSameAsDom ...");
+      XPathSubscriptionIndex index = new XPathSubscriptionIndex();
+      for (int i=0; i<QUERIES.length; i++)
+         index.add(QUERIES[i], QUERIES[i]);
+      assertEquals(QUERIES.length, index.size());
+      assertEquals(3, index.getNumFallbackQueries());
+
+      for (int k=0; k<KEYS.length; k++) {
+         XmlKey xmlKey = createXmlKey(KEYS[k]);
+         List matching = index.getMatching(xmlKey);
+         for (int q=0; q<QUERIES.length; q++) {
+            boolean expected = xmlKey.match(QUERIES[q]);
+            assertEquals("Key " + KEYS[k] + " query " + QUERIES[q], expected, matching.contains(QUERIES[q]));
+         }
+         assertEquals("Duplicates for " + KEYS[k] + ": " + matching, matching.size(), new java.util.HashSet(matching).size());
+         xmlKey.cleanupMatch();
+      }
+      System.out.println("***XPathSubscriptionIndexTest: testSameAsDom [SUCCESS]");
+   }
+
+   /**
+    * Add and remove subscriptions, some sharing the same query
+    */
+   public void testAddRemove() throws Exception {
+      System.out.println("***XPathSubscriptionIndexTest: testAddRemove ...");
+      XPathSubscriptionIndex index = new XPathSubscriptionIndex();
+      index.add("//key[@oid='Hello']", "sub1");
+      index.add("//key[@oid='Hello']", "sub2");
+      index.add("//key[starts-with(@oid,'He')]", "sub3");
+      index.add("//key[contains(@oid,'ell')]", "sub4");
+      index.add(null, "regexSub");
+      assertEquals(5, index.size());
+
+      XmlKey xmlKey = createXmlKey("<key oid='Hello'/>");
+      assertEquals(4, index.getMatching(xmlKey).size());
+
+      assertTrue(index.remove("sub1"));
+      assertFalse(index.remove("sub1"));
+      assertTrue(index.remove("sub3"));
+      assertTrue(index.remove("regexSub"));
+      List matching = index.getMatching(xmlKey);
+      assertEquals(2, matching.size());
+      assertTrue(matching.contains("sub2"));
+      assertTrue(matching.contains("sub4"));
+
+      assertTrue(index.remove("sub4"));
+      assertEquals(0, index.getNumFallbackQueries());
+      assertEquals(1, index.size());
+      System.out.println("***XPathSubscriptionIndexTest: testAddRemove [SUCCESS]");
+   }
+
+   /**
+    * Compare the time to check 10000 XPath subscriptions on new topics
+    */
+   public void testPerformance() throws Exception {
+      System.out.println("***XPathSubscriptionIndexTest: testPerformance ...");
+      final int numSubs = 10000;
+      final int numTopics = 20;
+      XPathSubscriptionIndex index = new XPathSubscriptionIndex();
+      String[] queries = new String[numSubs];
+      for (int i=0; i<numSubs; i++) {
+         switch (i % 3) {
+            case 0: queries[i] = "//key[@oid='topic-" + i + "']"; break;
+            case 1: queries[i] = "//key[starts-with(@oid,'topic-" + i + ".')]"; break;
+            default: queries[i] = "//key[@domain='domain-" + i + "']"; break;
+         }
+         index.add(queries[i], new Integer(i));
+      }
+
+      long start = System.currentTimeMillis();
+      for (int t=0; t<numTopics; t++) {
+         XmlKey xmlKey = createXmlKey("<key oid='topic-" + (3*t) + "' domain='domain-" + (3*t+2) + "'/>");
+         List matching = index.getMatching(xmlKey);
+         xmlKey.cleanupMatch();
+         assertEquals(2, matching.size());
+      }
+      long indexed = Math.max(1L, System.currentTimeMillis() - start);
+
+      start = System.currentTimeMillis();
+      final int domTopics = 2;
+      for (int t=0; t<domTopics; t++) {
+         XmlKey xmlKey = createXmlKey("<key oid='topic-" + t + "' domain='domain-" + (t+2) + "'/>");
+         for (int i=0; i<numSubs; i++)
+            xmlKey.match(queries[i]);
+         xmlKey.cleanupMatch();
+      }
+      long dom = Math.max(1L, System.currentTimeMillis() - start);
+      log.info("New topic check against " + numSubs + " XPath subscriptions: index=" + (indexed/numTopics) +
+               " millis/topic, DOM=" + (dom/domTopics) + " millis/topic");
+      System.out.println("***XPathSubscriptionIndexTest: testPerformance [SUCCESS]");
+   }
+
+   /**
+    * <pre>
+    *  java org.xmlBlaster.test.classtest.key.XPathSubscriptionIndexTest
+    * </pre>
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(XPathSubscriptionIndexTest.class));
+   }
+}
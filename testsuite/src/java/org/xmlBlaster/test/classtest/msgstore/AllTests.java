@@ -18,6 +18,7 @@ public class AllTests {
       TestSuite suite= new TestSuite("All xmlBlaster msgUnitStore tests");
       suite.addTest(I_MapTest.suite());
       suite.addTest(MsgUnitWrapperTest.suite());
+      suite.addTest(new TestSuite(ReferenceCounterWriterTest.class));
       return suite;
    }
 }
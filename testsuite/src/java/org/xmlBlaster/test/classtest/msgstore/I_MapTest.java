@@ -27,6 +27,7 @@ import org.xmlBlaster.util.plugin.PluginInfo;
  * @see org.xmlBlaster.engine.msgstore.I_Map
  * @see org.xmlBlaster.engine.msgstore.ram.MapPlugin
  * @see org.xmlBlaster.util.queue.jdbc.JdbcQueuePlugin
+ * @see org.xmlBlaster.util.queue.file.FileQueuePlugin
  */
 public class I_MapTest extends TestCase {
    private String ME = "I_MapTest";
@@ -47,7 +48,8 @@ public class I_MapTest extends TestCase {
 */
    static String[] PLUGIN_TYPES = { new String("RAM"),
                                     new String("JDBC"),
-                                    new String("CACHE") };
+                                    new String("CACHE"),
+                                    new String("FILE") };
 
    public I_MapTest(String name, int currImpl) {
       super(name);
@@ -0,0 +1,209 @@
+package org.xmlBlaster.test.classtest.msgstore;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.MsgUnitWrapper;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.TopicAccessor;
+import org.xmlBlaster.engine.msgstore.ReferenceCounterWriter;
+import org.xmlBlaster.engine.qos.PublishQosServer;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.storage.MsgUnitStoreProperty;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.file.FileQueuePlugin;
+
+/**
+ * Tests the delayed reference counter writes of the message store.
+ * <p>
+ * A message is stored once and referenced by the callback queue entries of all subscribers,
+ * every delivery decrements its reference counter in the store.
+ * testFanOut() logs the bytes written to the FILE journal per message delivered to
+ * 5000 subscribers, with every decrement written and with the decrements collected.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.msgstore.ReferenceCounterWriterTest
+ * </p>
+ * @see org.xmlBlaster.engine.msgstore.ReferenceCounterWriter
+ */
+public class ReferenceCounterWriterTest extends TestCase {
+   private static Logger log = Logger.getLogger(ReferenceCounterWriterTest.class.getName());
+   private ServerScope glob;
+   private File dir;
+   private StorageId callbackId;
+
+   public ReferenceCounterWriterTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.dir = new File(System.getProperty("java.io.tmpdir"), "ReferenceCounterWriterTest");
+      deleteDir(this.dir);
+      this.glob = new ServerScope(new String[] {
+         "-plugin/FILE/journal/path", this.dir.getAbsolutePath(),
+         "-plugin/FILE/journal/syncMode", "none" });
+      this.glob.setTopicAccessor(new TopicAccessor(this.glob)); // no topics, MsgUnitWrapper changes the counter in RAM only
+      this.callbackId = new StorageId(this.glob, Constants.RELATING_CALLBACK, "subscriber");
+   }
+
+   protected void tearDown() {
+      deleteDir(this.dir);
+      this.glob.shutdown();
+      this.glob = null;
+   }
+
+   private static void deleteDir(File file) {
+      File[] files = file.listFiles();
+      for (int i=0; files!=null && i<files.length; i++)
+         deleteDir(files[i]);
+      file.delete();
+   }
+
+   private FileQueuePlugin createStore(String id) throws Exception {
+      FileQueuePlugin store = new FileQueuePlugin();
+      store.init(this.glob, new PluginInfo(this.glob, this.glob.getStoragePluginManager(), "FILE", "1.0"));
+      MsgUnitStoreProperty prop = new MsgUnitStoreProperty(this.glob, "/node/test");
+      prop.setMaxEntries(100000L);
+      prop.setMaxBytes(100000000L);
+      store.initialize(new StorageId(this.glob, Constants.RELATING_MSGUNITSTORE, id), prop);
+      return store;
+   }
+
+   /**
+    * A persistent message referenced by the history queue and numSubscribers callback queues.
+    */
+   private MsgUnitWrapper createMessage(FileQueuePlugin store, int numSubscribers) throws Exception {
+      PublishQosServer qos = new PublishQosServer(this.glob, "<qos><persistent/></qos>");
+      MsgUnit msgUnit = new MsgUnit(this.glob.getMsgKeyFactory().readObject("<key oid='ReferenceCounterWriterTest'/>"),
+                                    new byte[200], qos.getData());
+      MsgUnitWrapper msgUnitWrapper = new MsgUnitWrapper(this.glob, msgUnit, store.getStorageId(), numSubscribers+1, 1, -1L);
+      assertEquals(1, store.put(msgUnitWrapper));
+      return msgUnitWrapper;
+   }
+
+   /**
+    * All subscribers got the message, like ReferenceEntry.removed() -> TopicHandler.change()
+    */
+   private void deliver(MsgUnitWrapper msgUnitWrapper, ReferenceCounterWriter writer, int numSubscribers) throws Exception {
+      for (int i=0; i<numSubscribers; i++) {
+         msgUnitWrapper.incrementReferenceCounter(-1, this.callbackId);
+         writer.counterChanged(msgUnitWrapper, true);
+      }
+   }
+
+   private void waitForFlush(ReferenceCounterWriter writer) throws Exception {
+      for (int i=0; i<500 && writer.getNumPending() > 0; i++)
+         Thread.sleep(10L);
+      assertEquals(0, writer.getNumPending());
+   }
+
+   /**
+    * Messages are delivered to 5000 subscribers, the journal bytes written per message are logged.
+    */
+   public void testFanOut() throws Exception {
+      System.out.println("***ReferenceCounterWriterTest: testFanOut ...");
+      int numSubscribers = 5000;
+      int numMessages = 10;
+      long[] bytesPerMsg = new long[2];
+      for (int run=0; run<2; run++) {
+         long delay = (run == 0) ? 0L : 200L;
+         FileQueuePlugin store = createStore("fanOut" + run);
+         ReferenceCounterWriter writer = new ReferenceCounterWriter(store, this.glob.getTopicTimer(), delay, 1000);
+         MsgUnitWrapper[] msgs = new MsgUnitWrapper[numMessages];
+         for (int i=0; i<numMessages; i++)
+            msgs[i] = createMessage(store, numSubscribers);
+
+         long before = store.getNumOfWrittenBytes();
+         long start = System.currentTimeMillis();
+         for (int i=0; i<numMessages; i++)
+            deliver(msgs[i], writer, numSubscribers);
+         long elapsed = System.currentTimeMillis() - start;
+         waitForFlush(writer);
+         bytesPerMsg[run] = (store.getNumOfWrittenBytes() - before) / numMessages;
+
+         for (int i=0; i<numMessages; i++) {
+            MsgUnitWrapper stored = (MsgUnitWrapper)store.get(msgs[i].getUniqueId());
+            assertEquals("The history reference is left", 1, stored.getReferenceCounter());
+            assertEquals(1, stored.getHistoryReferenceCounter());
+         }
+         log.info("delay=" + delay + " ms: " + numMessages + " messages delivered to " + numSubscribers + " subscribers in "
+                  + elapsed + " ms, " + writer + ", journal bytes written per message=" + bytesPerMsg[run]);
+         store.shutdown();
+      }
+      assertTrue("Not coalesced: " + bytesPerMsg[1] + " >= " + bytesPerMsg[0], bytesPerMsg[1]*100 < bytesPerMsg[0]);
+      System.out.println("***ReferenceCounterWriterTest: testFanOut [SUCCESS]");
+   }
+
+   /**
+    * Increments are written at once, a crash before the delayed write leaves a too high counter, never a too low.
+    */
+   public void testCrash() throws Exception {
+      System.out.println("***ReferenceCounterWriterTest: testCrash ...");
+      FileQueuePlugin store = createStore("crash");
+      ReferenceCounterWriter writer = new ReferenceCounterWriter(store, this.glob.getTopicTimer(), 60000L, 1000);
+      MsgUnitWrapper msgUnitWrapper = createMessage(store, 10);
+      deliver(msgUnitWrapper, writer, 5);
+      assertEquals(1, writer.getNumPending());
+      assertEquals(0L, writer.getNumWrites());
+      assertEquals(4L, writer.getNumCoalesced());
+      assertEquals(11, ((MsgUnitWrapper)store.get(msgUnitWrapper.getUniqueId())).getReferenceCounter());
+
+      msgUnitWrapper.incrementReferenceCounter(1, this.callbackId); // a new subscriber
+      writer.counterChanged(msgUnitWrapper, false);
+      assertEquals(0, writer.getNumPending());
+      assertEquals(1L, writer.getNumWrites());
+      assertEquals(7, ((MsgUnitWrapper)store.get(msgUnitWrapper.getUniqueId())).getReferenceCounter());
+
+      deliver(msgUnitWrapper, writer, 3);
+      assertEquals(4, msgUnitWrapper.getReferenceCounter());
+      writer.clear(); // crash
+      store.shutdown();
+
+      store = createStore("crash");
+      assertEquals(7, ((MsgUnitWrapper)store.get(msgUnitWrapper.getUniqueId())).getReferenceCounter());
+      store.shutdown();
+      System.out.println("***ReferenceCounterWriterTest: testCrash [SUCCESS]");
+   }
+
+   /**
+    * A swapped message is written before it is loaded again, a removed one is forgotten.
+    */
+   public void testSwapAndRemove() throws Exception {
+      System.out.println("***ReferenceCounterWriterTest: testSwapAndRemove ...");
+      FileQueuePlugin store = createStore("swap");
+      ReferenceCounterWriter writer = new ReferenceCounterWriter(store, this.glob.getTopicTimer(), 60000L, 1000);
+      MsgUnitWrapper msgUnitWrapper = createMessage(store, 10);
+      deliver(msgUnitWrapper, writer, 4);
+      writer.flushIfSwapped(msgUnitWrapper.getUniqueId());
+      assertEquals("Not swapped, the cache returns the RAM entry", 1, writer.getNumPending());
+      msgUnitWrapper.isSwapped(true);
+      writer.flushIfSwapped(msgUnitWrapper.getUniqueId());
+      assertEquals(0, writer.getNumPending());
+      assertEquals(7, ((MsgUnitWrapper)store.get(msgUnitWrapper.getUniqueId())).getReferenceCounter());
+
+      MsgUnitWrapper other = createMessage(store, 10);
+      deliver(other, writer, 2);
+      assertEquals(1, writer.getNumPending());
+      writer.remove(other.getUniqueId());
+      assertEquals(0, writer.getNumPending());
+
+      for (int i=0; i<1000; i++)
+         writer.counterChanged(createMessage(store, 1), true);
+      assertEquals("maxPending reached", 0, writer.getNumPending());
+      writer.clear();
+      store.shutdown();
+      System.out.println("***ReferenceCounterWriterTest: testSwapAndRemove [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.msgstore.ReferenceCounterWriterTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(ReferenceCounterWriterTest.class));
+   }
+}
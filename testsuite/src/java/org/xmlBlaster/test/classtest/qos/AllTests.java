@@ -20,6 +20,8 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.qos.MsgQosFactoryTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.qos.AddressBaseTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.qos.ConnectQosFactoryTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.qos.SaxFactoryConcurrencyTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.qos.MsgQosQuickParserTest.class));
       suite.addTest(StatusQosFactoryTest.suite());
       suite.addTest(QueryQosFactoryTest.suite());
       return suite;
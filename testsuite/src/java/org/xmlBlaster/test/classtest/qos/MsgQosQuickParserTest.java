@@ -0,0 +1,216 @@
+package org.xmlBlaster.test.classtest.qos;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.RcvTimestamp;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.qos.ClientProperty;
+import org.xmlBlaster.util.qos.MsgQosData;
+import org.xmlBlaster.util.qos.MsgQosQuickParser;
+import org.xmlBlaster.util.qos.MsgQosSaxFactory;
+import org.xmlBlaster.util.qos.StatusQosData;
+import org.xmlBlaster.util.qos.StatusQosSaxFactory;
+
+import junit.framework.*;
+
+/**
+ * Compares the SAX free parsing of simple publish QoS with the SAX parser
+ * and the template serialization of the publish return QoS with the generic one.
+ * <p />
+ * testParseThroughput() and testWriteThroughput() log the numbers of both variants.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.qos.MsgQosQuickParserTest
+ * @see org.xmlBlaster.util.qos.MsgQosQuickParser
+ */
+public class MsgQosQuickParserTest extends TestCase {
+   private static Logger log = Logger.getLogger(MsgQosQuickParserTest.class.getName());
+   private Global glob;
+   private MsgQosSaxFactory saxFactory;
+   private MsgQosSaxFactory quickFactory;
+
+   /** QoS which the quick parser must handle */
+   private static final String[] SIMPLE = {
+      "<qos></qos>",
+      "<qos><persistent/></qos>",
+      "<qos>\n <persistent>false</persistent>\n <priority>HIGH</priority>\n</qos>",
+      " <qos>\n   <priority> 7 </priority>\n   <expiration lifeTime='60000'/>\n </qos> ",
+      "<qos><expiration lifeTime=\"-1\" forceDestroy='true' remainingLife='1200'></expiration></qos>",
+      "<qos>\n <persistent></persistent>\n <clientProperty name='id' type='int'> 12 </clientProperty>\n</qos>",
+      "<qos><clientProperty name='text'>  a &lt;b&gt; &amp; &quot;c&apos; \n x </clientProperty></qos>",
+      "<qos><clientProperty name='empty'/><clientProperty name='flag' type='boolean'>true</clientProperty></qos>",
+      "<qos><clientProperty name='blob' type='byte[]' encoding='base64'>QUJD</clientProperty></qos>",
+      "<qos><clientProperty name='b64' encoding='base64' charset='UTF-8'>QUJD</clientProperty></qos>",
+      "<qos><clientProperty name='a&amp;b' type='long'>-5</clientProperty><priority>MIN</priority></qos>",
+      "\n <qos>\n  <priority>9</priority>\n  <persistent/>\n  <isPublish/>\n </qos>",
+      "<qos><isUpdate></isUpdate></qos>",
+   };
+
+   /** QoS which need the SAX parser */
+   private static final String[] COMPLEX = {
+      null,
+      "<qos/>",
+      "<?xml version='1.0'?><qos><persistent/></qos>",
+      "<qos><!-- comment --><persistent/></qos>",
+      "<qos><subscribable/></qos>",
+      "<qos><destination>joe</destination></qos>",
+      "<qos><Persistent/></qos>",
+      "<qos><priority>nonsense</priority></qos>",
+      "<qos><expiration/></qos>",
+      "<qos><expiration lifeTime='abc'/></qos>",
+      "<qos><expiration lifeTime='1' other='2'/></qos>",
+      "<qos><clientProperty type='int'>1</clientProperty></qos>",
+      "<qos><clientProperty name='x'><![CDATA[<a>]]></clientProperty></qos>",
+      "<qos><clientProperty name='x'><a/></clientProperty></qos>",
+      "<qos><clientProperty name='x'>&#65;</clientProperty></qos>",
+      "<qos><clientProperty name='x' name='y'>1</clientProperty></qos>",
+      "<qos><clientProperty name='x\ty'>1</clientProperty></qos>",
+      "<qos><persistent/></qos><qos/>",
+      "<qos><persistent/>",
+      "<qos id='1'><persistent/></qos>",
+   };
+
+   public MsgQosQuickParserTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = Global.instance();
+      this.saxFactory = new MsgQosSaxFactory(new Global(new String[] { "-msgQos/quickParse", "false" }, false, false));
+      this.quickFactory = new MsgQosSaxFactory(this.glob);
+   }
+
+   private void assertSame(String xml, MsgQosData expected, MsgQosData data) {
+      assertEquals(xml, expected.isPersistent(), data.isPersistent());
+      assertEquals(xml, expected.getPriority(), data.getPriority());
+      assertEquals(xml, expected.getLifeTime(), data.getLifeTime());
+      assertEquals(xml, expected.isForceDestroy(), data.isForceDestroy());
+      assertEquals(xml, expected.getRemainingLifeStatic(), data.getRemainingLifeStatic());
+      assertEquals(xml, expected.isSubscribable(), data.isSubscribable());
+      assertEquals(xml, expected.getMethod(), data.getMethod());
+      Map expectedProps = expected.getClientProperties();
+      Map props = data.getClientProperties();
+      assertEquals(xml, expectedProps.size(), props.size());
+      Iterator it = expectedProps.values().iterator();
+      while (it.hasNext()) {
+         ClientProperty e = (ClientProperty)it.next();
+         ClientProperty p = (ClientProperty)props.get(e.getName());
+         assertNotNull(xml + ": " + e.getName(), p);
+         assertEquals(xml, e.getType(), p.getType());
+         assertEquals(xml, e.getEncoding(), p.getEncoding());
+         assertEquals(xml, e.getCharset(), p.getCharset());
+         assertEquals(xml, e.getValueRaw(), p.getValueRaw());
+         assertEquals(xml, e.getStringValue(), p.getStringValue());
+      }
+      assertEquals(xml, expected.toXml(), data.toXml());
+   }
+
+   public void testSimple() throws Exception {
+      System.out.println("***MsgQosQuickParserTest: testSimple ...");
+      for (int i=0; i<SIMPLE.length; i++) {
+         MsgQosData quick = MsgQosQuickParser.parse(this.glob, this.quickFactory, SIMPLE[i]);
+         assertNotNull("Quick parser should support " + SIMPLE[i], quick);
+         MsgQosData sax = this.saxFactory.readObject(SIMPLE[i]);
+         assertSame(SIMPLE[i], sax, quick);
+         assertSame(SIMPLE[i], sax, this.quickFactory.readObject(SIMPLE[i]));
+      }
+      MsgQosData data = MsgQosQuickParser.parse(this.glob, this.quickFactory, SIMPLE[6]);
+      assertEquals("  a <b> & \"c' \n x ", data.getClientProperty("text", ""));
+      data = MsgQosQuickParser.parse(this.glob, this.quickFactory, SIMPLE[5]);
+      assertEquals(12, data.getClientProperty("id", 0));
+      System.out.println("***MsgQosQuickParserTest: testSimple [SUCCESS]");
+   }
+
+   public void testFallback() throws Exception {
+      System.out.println("***MsgQosQuickParserTest: testFallback ...");
+      for (int i=0; i<COMPLEX.length; i++) {
+         assertNull("Quick parser should not support " + COMPLEX[i], MsgQosQuickParser.parse(this.glob, this.quickFactory, COMPLEX[i]));
+      }
+      MsgQosData data = this.quickFactory.readObject("<qos><subscribable>false</subscribable><persistent/></qos>");
+      assertFalse(data.isSubscribable());
+      assertTrue(data.isPersistent());
+      System.out.println("***MsgQosQuickParserTest: testFallback [SUCCESS]");
+   }
+
+   public void testStatusQos() throws Exception {
+      System.out.println("***MsgQosQuickParserTest: testStatusQos ...");
+      MethodName[] methods = { MethodName.PUBLISH, MethodName.ERASE, MethodName.SUBSCRIBE,
+                               MethodName.UNSUBSCRIBE, MethodName.UPDATE, MethodName.GET };
+      String[] oids = { null, "HelloTopic", "a<b&'c\"\r" };
+      for (int m=0; m<methods.length; m++) {
+         for (int o=0; o<oids.length; o++) {
+            for (int t=0; t<2; t++) {
+               StatusQosData statusQos = new StatusQosData(this.glob, methods[m]);
+               statusQos.setKeyOid(oids[o]);
+               if (t == 1) statusQos.setRcvTimestamp(new RcvTimestamp());
+               String generic = StatusQosSaxFactory.writeObject_(statusQos, null, new Properties(), false);
+               assertEquals(generic, StatusQosSaxFactory.writeObject_(statusQos, null, null, false));
+               assertEquals(generic, statusQos.toXml());
+            }
+         }
+      }
+      StatusQosData statusQos = new StatusQosData(this.glob, MethodName.PUBLISH);
+      statusQos.setState(Constants.STATE_WARN);
+      statusQos.setSubscriptionId("__subId:1");
+      String xml = statusQos.toXml();
+      assertTrue(xml, xml.indexOf(Constants.STATE_WARN) != -1);
+      assertTrue(xml, xml.indexOf("__subId:1") != -1);
+      System.out.println("***MsgQosQuickParserTest: testStatusQos [SUCCESS]");
+   }
+
+   public void testParseThroughput() throws Exception {
+      System.out.println("***MsgQosQuickParserTest: testParseThroughput ...");
+      String xml = "<qos>\n" +
+                   "   <persistent/>\n" +
+                   "   <priority>7</priority>\n" +
+                   "   <expiration lifeTime='60000'/>\n" +
+                   "   <clientProperty name='index' type='int'>4711</clientProperty>\n" +
+                   "   <clientProperty name='source'>sensor-12</clientProperty>\n" +
+                   "</qos>";
+      int loops = 50000;
+      for (int run=0; run<2; run++) { // first run is warm up
+         long start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            this.saxFactory.readObject(xml);
+         long sax = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            this.quickFactory.readObject(xml);
+         long quick = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         log.info((run==0 ? "Warm up: " : "") + "SAX=" + sax + " parses/sec quick=" + quick + " parses/sec");
+      }
+      System.out.println("***MsgQosQuickParserTest: testParseThroughput [SUCCESS]");
+   }
+
+   public void testWriteThroughput() throws Exception {
+      System.out.println("***MsgQosQuickParserTest: testWriteThroughput ...");
+      StatusQosData statusQos = new StatusQosData(this.glob, MethodName.PUBLISH);
+      statusQos.setKeyOid("HelloTopic");
+      statusQos.setRcvTimestamp(new RcvTimestamp());
+      Properties empty = new Properties();
+      int loops = 200000;
+      for (int run=0; run<2; run++) { // first run is warm up
+         long start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            StatusQosSaxFactory.writeObject_(statusQos, null, empty, false);
+         long generic = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         start = System.nanoTime();
+         for (int i=0; i<loops; i++)
+            statusQos.toXml();
+         long template = (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - start);
+         log.info((run==0 ? "Warm up: " : "") + "publish return QoS generic=" + generic + " writes/sec template=" + template + " writes/sec");
+      }
+      System.out.println("***MsgQosQuickParserTest: testWriteThroughput [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.qos.MsgQosQuickParserTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(MsgQosQuickParserTest.class));
+   }
+}
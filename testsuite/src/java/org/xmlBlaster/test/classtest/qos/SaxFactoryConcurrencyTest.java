@@ -0,0 +1,168 @@
+package org.xmlBlaster.test.classtest.qos;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.key.I_MsgKeyFactory;
+import org.xmlBlaster.util.key.I_QueryKeyFactory;
+import org.xmlBlaster.util.key.MsgKeyData;
+import org.xmlBlaster.util.key.QueryKeyData;
+import org.xmlBlaster.util.qos.ConnectQosData;
+import org.xmlBlaster.util.qos.I_ConnectQosFactory;
+import org.xmlBlaster.util.qos.I_MsgQosFactory;
+import org.xmlBlaster.util.qos.MsgQosData;
+
+import junit.framework.*;
+
+/**
+ * Parses QoS and key markup with the shared factories of Global from many threads.
+ * <p />
+ * testConcurrentParse() checks that no parse sees the state of another thread.
+ * <p />
+ * testParseThroughput() logs the MsgQos parse throughput for 1 up to 2*cores threads
+ * and for comparison the throughput of a single synchronized factory as it was
+ * before the factories used a parser pool.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.qos.SaxFactoryConcurrencyTest
+ * @see org.xmlBlaster.util.SaxParserPool
+ */
+public class SaxFactoryConcurrencyTest extends TestCase {
+   private static Logger log = Logger.getLogger(SaxFactoryConcurrencyTest.class.getName());
+   private Global glob;
+
+   public SaxFactoryConcurrencyTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = Global.instance();
+   }
+
+   private static String msgQos(int i) {
+      return "<qos>\n" +
+             "   <subscribable>true</subscribable>\n" +
+             "   <destination queryType='EXACT' forceQueuing='true'>client" + i + "</destination>\n" +
+             "   <sender>sender" + i + "</sender>\n" +
+             "   <priority>" + (i % 10) + "</priority>\n" +
+             "   <expiration lifeTime='" + (1000L + i) + "'/>\n" +
+             "   <persistent/>\n" +
+             "   <clientProperty name='index' type='int'>" + i + "</clientProperty>\n" +
+             "</qos>";
+   }
+
+   public void testConcurrentParse() throws Exception {
+      System.out.println("***SaxFactoryConcurrencyTest: testConcurrentParse ...");
+      final I_MsgQosFactory msgQosFactory = this.glob.getMsgQosFactory();
+      final I_ConnectQosFactory connectQosFactory = this.glob.getConnectQosFactory();
+      final I_MsgKeyFactory msgKeyFactory = this.glob.getMsgKeyFactory();
+      final I_QueryKeyFactory queryKeyFactory = this.glob.getQueryKeyFactory();
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      final int numThreads = 8;
+      final int loops = 500;
+      Thread[] threads = new Thread[numThreads];
+      for (int t=0; t<numThreads; t++) {
+         final int id = t;
+         threads[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int j=0; j<loops; j++) {
+                     int i = id * loops + j;
+                     MsgQosData msgQos = msgQosFactory.readObject(msgQos(i));
+                     assertEquals("client" + i, msgQos.getDestinationArr()[0].getDestination().getLoginName());
+                     assertEquals(PriorityEnum.toPriorityEnum(i % 10), msgQos.getPriority());
+                     assertEquals(1000L + i, msgQos.getLifeTime());
+                     assertEquals(i, msgQos.getClientProperty("index", -1));
+
+                     ConnectQosData connectQos = connectQosFactory.readObject(
+                           "<qos><securityService type='htpasswd' version='1.0'><![CDATA[<user>user" + i +
+                           "</user><passwd>secret</passwd>]]></securityService><session name='user" + i + "/" + (i+1) + "'/></qos>");
+                     assertEquals("user" + i, connectQos.getSessionName().getLoginName());
+                     assertEquals(i+1, connectQos.getSessionName().getPublicSessionId());
+
+                     MsgKeyData msgKey = msgKeyFactory.readObject("<key oid='oid" + i + "' contentMime='text/plain'><a>" + i + "</a></key>");
+                     assertEquals("oid" + i, msgKey.getOid());
+                     assertTrue(msgKey.getClientTags(), msgKey.getClientTags().indexOf("<a>" + i + "</a>") != -1);
+
+                     QueryKeyData queryKey = queryKeyFactory.readObject("<key queryType='XPATH'>//key[@oid='oid" + i + "']</key>");
+                     assertEquals("//key[@oid='oid" + i + "']", queryKey.getQueryString());
+                  }
+               }
+               catch (Throwable e) {
+                  error.compareAndSet(null, e);
+               }
+            }
+         };
+         threads[t].start();
+      }
+      for (int t=0; t<numThreads; t++) threads[t].join();
+      if (error.get() != null) {
+         error.get().printStackTrace();
+         fail("Concurrent parse failed: " + error.get().toString());
+      }
+      System.out.println("***SaxFactoryConcurrencyTest: testConcurrentParse [SUCCESS]");
+   }
+
+   public void testParseThroughput() throws Exception {
+      System.out.println("***SaxFactoryConcurrencyTest: testParseThroughput ...");
+      final I_MsgQosFactory factory = this.glob.getMsgQosFactory();
+      int cores = Runtime.getRuntime().availableProcessors();
+      final int parsesPerThread = 20000;
+      throughput(factory, 1, parsesPerThread, false); // warm up
+      long single = 0L;
+      for (int numThreads=1; numThreads<=2*cores; numThreads*=2) {
+         long pooled = throughput(factory, numThreads, parsesPerThread, false);
+         long serialized = throughput(factory, numThreads, parsesPerThread, true);
+         if (numThreads == 1) single = pooled;
+         log.info("cores=" + cores + " threads=" + numThreads + " pooled=" + pooled + " parses/sec (speedup " +
+                  ((pooled*100L/Math.max(1L,single))/100.) + ") synchronized=" + serialized + " parses/sec");
+      }
+      System.out.println("***SaxFactoryConcurrencyTest: testParseThroughput [SUCCESS]");
+   }
+
+   /**
+    * @param serialized If true all threads synchronize on the factory as the former synchronized readObject() did
+    * @return parses/sec
+    */
+   private long throughput(final I_MsgQosFactory factory, int numThreads, final int parsesPerThread, final boolean serialized) throws Exception {
+      final String xml = msgQos(4711);
+      final AtomicInteger errors = new AtomicInteger();
+      Thread[] threads = new Thread[numThreads];
+      for (int t=0; t<numThreads; t++) {
+         threads[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int i=0; i<parsesPerThread; i++) {
+                     if (serialized) {
+                        synchronized (factory) {
+                           factory.readObject(xml);
+                        }
+                     }
+                     else
+                        factory.readObject(xml);
+                  }
+               }
+               catch (XmlBlasterException e) {
+                  errors.incrementAndGet();
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (int t=0; t<numThreads; t++) threads[t].start();
+      for (int t=0; t<numThreads; t++) threads[t].join();
+      long elapsed = Math.max(1L, System.nanoTime() - start);
+      assertEquals(0, errors.get());
+      return (long)numThreads * parsesPerThread * 1000000000L / elapsed;
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.qos.SaxFactoryConcurrencyTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(SaxFactoryConcurrencyTest.class));
+   }
+}
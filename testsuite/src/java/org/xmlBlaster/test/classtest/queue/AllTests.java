@@ -24,6 +24,13 @@ public class AllTests {
       suite.addTest(org.xmlBlaster.test.classtest.queue.QueueExtendedTest.suite());
       // This runs manually only as we need to kill the Database:
       suite.addTest(org.xmlBlaster.test.classtest.queue.JdbcQueueTest.suite());
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.FileQueuePluginTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.EntryCodecTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.XBGroupCommitterTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.JdbcConnectionPoolTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.OffHeapQueuePluginTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.RamQueuePluginTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.classtest.queue.CacheQueuePrefetchTest.class));
       return suite;
    }
 }
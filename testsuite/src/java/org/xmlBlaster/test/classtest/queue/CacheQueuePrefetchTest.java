@@ -0,0 +1,323 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.storage.CbQueueProperty;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.I_StorageProblemListener;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin;
+import org.xmlBlaster.util.queue.file.FileQueuePlugin;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the background reload (prefetch) and the write behind mode of the CACHE queue.
+ * <p>
+ * The persistent queue is the FILE journal so that no database is needed.
+ * testPrefetch() logs the swap hit rate and the reload latencies with and without prefetch,
+ * testLazyLoad() checks the load of a recovered queue on its first access.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.CacheQueuePrefetchTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.cache.CacheQueueInterceptorPlugin
+ */
+public class CacheQueuePrefetchTest extends TestCase {
+   private static Logger log = Logger.getLogger(CacheQueuePrefetchTest.class.getName());
+   private ServerScope glob;
+   private File dir;
+
+   public CacheQueuePrefetchTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.dir = new File(System.getProperty("java.io.tmpdir"), "CacheQueuePrefetchTest");
+      deleteDir(this.dir);
+      this.glob = new ServerScope(new String[] {
+         "-plugin/FILE/journal/path", this.dir.getAbsolutePath(),
+         "-plugin/FILE/journal/syncMode", "none" });
+   }
+
+   protected void tearDown() {
+      deleteDir(this.dir);
+      this.glob.shutdown();
+      this.glob = null;
+   }
+
+   private static void deleteDir(File file) {
+      File[] files = file.listFiles();
+      for (int i=0; files!=null && i<files.length; i++)
+         deleteDir(files[i]);
+      file.delete();
+   }
+
+   private CbQueueProperty createProperty(long maxEntriesCache) {
+      CbQueueProperty prop = new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test");
+      prop.setMaxEntries(100000L);
+      prop.setMaxBytes(100000000L);
+      prop.setMaxEntriesCache(maxEntriesCache);
+      prop.setMaxBytesCache(100000000L);
+      return prop;
+   }
+
+   private CacheQueueInterceptorPlugin createQueue(String id, boolean prefetch, boolean writeBehind) throws Exception {
+      return createQueue(id, prefetch, writeBehind, false);
+   }
+
+   private CacheQueueInterceptorPlugin createQueue(String id, boolean prefetch, boolean writeBehind, boolean lazyLoad) throws Exception {
+      PluginInfo pluginInfo = new PluginInfo(this.glob, this.glob.getQueuePluginManager(), "CACHE", "1.0");
+      pluginInfo.getParameters().put("persistentQueue", "FILE,1.0");
+      pluginInfo.getParameters().put("transientQueue", "RAM,1.0");
+      pluginInfo.getParameters().put("prefetch", "" + prefetch);
+      pluginInfo.getParameters().put("writeBehind", "" + writeBehind);
+      pluginInfo.getParameters().put("writeBehindBatchSize", "50");
+      pluginInfo.getParameters().put("lazyLoad", "" + lazyLoad);
+      CacheQueueInterceptorPlugin queue = new CacheQueueInterceptorPlugin();
+      queue.init(this.glob, pluginInfo);
+      queue.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, id), createProperty(100L));
+      return queue;
+   }
+
+   private DummyEntry[] createEntries(I_Queue queue, int num) {
+      DummyEntry[] entries = new DummyEntry[num];
+      for (int i=0; i<num; i++) {
+         PriorityEnum prio = (i%4 == 0) ? PriorityEnum.HIGH_PRIORITY : PriorityEnum.NORM_PRIORITY;
+         entries[i] = new DummyEntry(this.glob, prio, queue.getStorageId(), 100, true);
+      }
+      return entries;
+   }
+
+   /**
+    * Consumes the queue like the dispatcher does, peek a few and remove them after the delivery.
+    * @return The entries in the order they were consumed
+    */
+   private long[] consume(CacheQueueInterceptorPlugin queue, int num) throws Exception {
+      long[] ids = new long[num];
+      int count = 0;
+      I_QueueEntry prev = null;
+      while (count < num) {
+         List list = queue.peek(10, -1L);
+         assertTrue("Queue is empty after " + count + " entries", list.size() > 0);
+         for (int i=0; i<list.size(); i++) {
+            I_QueueEntry entry = (I_QueueEntry)list.get(i);
+            if (prev != null)
+               assertTrue("Wrong order at " + count, prev.getPriority() > entry.getPriority()
+                          || (prev.getPriority() == entry.getPriority() && prev.getUniqueId() < entry.getUniqueId()));
+            prev = entry;
+            ids[count++] = entry.getUniqueId();
+         }
+         Thread.sleep(1L); // the delivery
+         queue.removeRandom((I_Entry[])list.toArray(new I_Entry[list.size()]));
+      }
+      return ids;
+   }
+
+   /**
+    * A backlog ten times bigger than the RAM cache is consumed with and without the background reload.
+    */
+   public void testPrefetch() throws Exception {
+      System.out.println("***CacheQueuePrefetchTest: testPrefetch ...");
+      int num = 1000;
+      for (int run=0; run<2; run++) {
+         boolean prefetch = run == 1;
+         CacheQueueInterceptorPlugin queue = createQueue("prefetch" + run, prefetch, false);
+         assertEquals(prefetch, queue.isPrefetch());
+         DummyEntry[] entries = createEntries(queue, num);
+         queue.put(entries, false);
+         assertEquals(num, queue.getNumOfEntries());
+         assertEquals(100L, queue.getTransientQueue().getNumOfEntries());
+         queue.resetSwapStatistics();
+
+         long start = System.currentTimeMillis();
+         long[] ids = consume(queue, num);
+         long elapsed = System.currentTimeMillis() - start;
+         HashSet set = new HashSet();
+         for (int i=0; i<ids.length; i++)
+            assertTrue("Delivered twice: " + ids[i], set.add(new Long(ids[i])));
+         assertEquals(0L, queue.getNumOfEntries());
+         assertEquals(0L, queue.getPersistentQueue().getNumOfEntries());
+         assertEquals(num - 100L, queue.getNumSwappedIn());
+
+         log.info((prefetch ? "prefetch" : "on demand") + ": " + num + " entries consumed in " + elapsed + " ms, syncLoads="
+                  + queue.getNumSyncLoads() + " prefetchLoads=" + queue.getNumPrefetchLoads() + " discarded=" + queue.getNumPrefetchDiscarded()
+                  + " hitRate=" + queue.getSwapHitRate() + " syncLoadLatency=" + queue.getSyncLoadLatency()
+                  + " avg=" + queue.getAverageSyncLoadMillis() + " ms, prefetchLatency avg=" + queue.getAveragePrefetchMillis() + " ms");
+         if (prefetch)
+            assertTrue("No background reload", queue.getNumPrefetchLoads() > 0L);
+         else
+            assertEquals(0.0, queue.getSwapHitRate(), 0.0);
+         queue.shutdown();
+      }
+      System.out.println("***CacheQueuePrefetchTest: testPrefetch [SUCCESS]");
+   }
+
+   /**
+    * Persistent entries are written over the journal, they are in the persistent queue after the flush.
+    */
+   public void testWriteBehind() throws Exception {
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehind ...");
+      int num = 500;
+      CacheQueueInterceptorPlugin queue = createQueue("writeBehind", false, true);
+      assertTrue(queue.isWriteBehind());
+      DummyEntry[] entries = createEntries(queue, num);
+      for (int i=0; i<num; i+=10) {
+         DummyEntry[] tmp = new DummyEntry[10];
+         System.arraycopy(entries, i, tmp, 0, 10);
+         queue.put(tmp, false);
+         assertEquals(i+10, queue.getNumOfEntries());
+         assertEquals(i+10, queue.getNumOfPersistentEntries());
+      }
+      assertEquals(num*100L, queue.getNumOfBytes());
+      consume(queue, 50);
+      assertEquals(num-50, queue.getNumOfEntries());
+
+      for (int i=0; i<500 && queue.getNumWriteBehindPending() > 0; i++)
+         Thread.sleep(10L);
+      assertEquals(0L, queue.getNumWriteBehindPending());
+      assertEquals(num-50, queue.getPersistentQueue().getNumOfEntries());
+      assertEquals(num-50, queue.getNumOfEntries());
+      log.info(num + " entries put, flushed=" + queue.getNumWriteBehindFlushed() + " swappedOut=" + queue.getNumSwappedOut());
+
+      long[] ids = consume(queue, num-50);
+      assertEquals(entries[num-1].getUniqueId(), ids[ids.length-1]);
+      assertEquals(0L, queue.getNumOfEntries());
+      assertEquals(0L, queue.getPersistentQueue().getNumOfEntries());
+      queue.shutdown();
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehind [SUCCESS]");
+   }
+
+   /**
+    * A failing persistent queue is retried with an increasing delay and not in a busy loop,
+    * with an unavailable persistence the flush waits for storageAvailable().
+    */
+   public void testWriteBehindFailure() throws Exception {
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehindFailure ...");
+      final int[] numFailed = new int[1];
+      Handler counter = new Handler() {
+         public void publish(LogRecord record) {
+            if (record.getMessage() != null && record.getMessage().indexOf("is retried") > -1) {
+               synchronized (numFailed) {
+                  numFailed[0]++;
+               }
+            }
+         }
+         public void flush() {}
+         public void close() {}
+      };
+      Logger pluginLog = Logger.getLogger(CacheQueueInterceptorPlugin.class.getName());
+      pluginLog.addHandler(counter);
+      try {
+         CacheQueueInterceptorPlugin queue = createQueue("writeBehindFailure", false, true);
+         I_Queue persistentQueue = queue.getPersistentQueue();
+         persistentQueue.shutdown(); // every put fails from now on
+         queue.put(createEntries(queue, 50), false);
+         Thread.sleep(1500L);
+         assertEquals(50L, queue.getNumWriteBehindPending());
+         int failed;
+         synchronized (numFailed) {
+            failed = numFailed[0];
+         }
+         log.info(failed + " failed flushes in 1500 ms");
+         assertTrue("The failed flush is retried in a busy loop: " + failed + " times", failed > 0 && failed < 10);
+
+         // The storage is unavailable: the retry stops until storageAvailable()
+         queue.storageUnavailable(I_StorageProblemListener.AVAILABLE);
+         Thread.sleep(2000L);
+         synchronized (numFailed) {
+            failed = numFailed[0];
+         }
+         persistentQueue.initialize(persistentQueue.getStorageId(), createProperty(100L));
+         Thread.sleep(2000L);
+         assertEquals("Flushed without storageAvailable()", 50L, queue.getNumWriteBehindPending());
+         synchronized (numFailed) {
+            assertEquals("Retried while the storage is unavailable", failed, numFailed[0]);
+         }
+         queue.storageAvailable(I_StorageProblemListener.UNAVAILABLE);
+         assertEquals(0L, queue.getNumWriteBehindPending());
+         assertEquals(50L, persistentQueue.getNumOfEntries());
+         consume(queue, 50);
+         queue.shutdown();
+      }
+      finally {
+         pluginLog.removeHandler(counter);
+      }
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehindFailure [SUCCESS]");
+   }
+
+   /**
+    * Entries left in the journal (the flush did not happen before a crash) are replayed on startup.
+    */
+   public void testWriteBehindRecovery() throws Exception {
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehindRecovery ...");
+      StorageId id = new StorageId(this.glob, Constants.RELATING_CALLBACK, "recovery");
+      StorageId journalId = new StorageId(this.glob, id.getXBStore().getNode(), id.getXBStore().getType(),
+                                          id.getXBStore().getPostfix() + "_writeBehind");
+      FileQueuePlugin journal = new FileQueuePlugin();
+      journal.init(this.glob, new PluginInfo(this.glob, this.glob.getQueuePluginManager(), "FILE", "1.0"));
+      journal.initialize(journalId, createProperty(100L));
+      DummyEntry[] entries = createEntries(journal, 30);
+      journal.put(entries, false);
+      journal.shutdown();
+
+      CacheQueueInterceptorPlugin queue = createQueue("recovery", false, true);
+      assertEquals(30L, queue.getNumOfEntries());
+      assertEquals(30L, queue.getPersistentQueue().getNumOfEntries());
+      assertEquals(0L, queue.getNumWriteBehindPending());
+      long[] ids = consume(queue, 30);
+      assertEquals(entries[0].getUniqueId(), ids[0]);
+      queue.shutdown();
+      System.out.println("***CacheQueuePrefetchTest: testWriteBehindRecovery [SUCCESS]");
+   }
+
+   /**
+    * With lazyLoad the recovered entries are loaded on the first access, they stay ahead of new entries.
+    */
+   public void testLazyLoad() throws Exception {
+      System.out.println("***CacheQueuePrefetchTest: testLazyLoad ...");
+      CacheQueueInterceptorPlugin queue = createQueue("lazy", false, false);
+      DummyEntry[] entries = createEntries(queue, 30);
+      queue.put(entries, false);
+      queue.shutdown();
+
+      queue = createQueue("lazy", false, false, true);
+      assertTrue(queue.isLazyLoad());
+      assertTrue(queue.isLoadPending());
+      assertEquals(30L, queue.getNumOfEntries());
+      assertEquals(0L, queue.getTransientQueue().getNumOfEntries());
+      DummyEntry[] more = createEntries(queue, 5);
+      queue.put(more, false);
+      assertFalse(queue.isLoadPending());
+      assertEquals(35L, queue.getNumOfEntries());
+      long[] ids = consume(queue, 35);
+      assertEquals(entries[0].getUniqueId(), ids[0]);
+      assertEquals(0L, queue.getNumOfEntries());
+      queue.shutdown();
+
+      queue = createQueue("lazy", false, false, true);
+      assertFalse("Nothing to load", queue.isLoadPending());
+      queue.shutdown();
+      System.out.println("***CacheQueuePrefetchTest: testLazyLoad [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.CacheQueuePrefetchTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(CacheQueuePrefetchTest.class));
+   }
+}
@@ -0,0 +1,242 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.client.queuemsg.MsgQueuePublishEntry;
+import org.xmlBlaster.engine.MsgUnitWrapper;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.qos.PublishQosServer;
+import org.xmlBlaster.engine.queuemsg.MsgQueueHistoryEntry;
+import org.xmlBlaster.engine.queuemsg.MsgQueueUpdateEntry;
+import org.xmlBlaster.engine.queuemsg.SessionEntry;
+import org.xmlBlaster.engine.queuemsg.SubscribeEntry;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.SessionName;
+import org.xmlBlaster.util.Timestamp;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.queue.EntryCodec;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_EntryFactory;
+import org.xmlBlaster.util.queue.StorageId;
+
+/**
+ * Tests the binary format of the queue entries written by the I_EntryFactory implementations.
+ * <p>
+ * All entry types must be read back with both codecs, entries written with java.io.Serializable
+ * by older releases must still be readable if the binary codec is configured.
+ * testThroughput() logs the encode/decode rate and the size of both codecs.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.EntryCodecTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.EntryCodec
+ * @see org.xmlBlaster.engine.queuemsg.ServerEntryFactory
+ * @see org.xmlBlaster.client.queuemsg.ClientEntryFactory
+ */
+public class EntryCodecTest extends TestCase {
+   private static Logger log = Logger.getLogger(EntryCodecTest.class.getName());
+   private ServerScope glob;
+   private ServerScope serialGlob;
+   private StorageId storageId;
+
+   public EntryCodecTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = new ServerScope(new String[] { "-queue/entryCodec", "binary" });
+      this.serialGlob = new ServerScope(); // serial is the default
+      this.storageId = new StorageId(this.glob, Constants.RELATING_CALLBACK, "EntryCodecTest");
+   }
+
+   protected void tearDown() {
+      this.glob.shutdown();
+      this.serialGlob.shutdown();
+   }
+
+   private MsgUnitWrapper createMsgUnitWrapper(int contentLen) throws Exception {
+      PublishQosServer qos = new PublishQosServer(this.glob, "<qos><persistent/></qos>");
+      qos.getData().setPriority(PriorityEnum.HIGH_PRIORITY);
+      qos.getData().addClientProperty("city", "Z\u00fcrich \u65e5\u672c");
+      byte[] content = new byte[contentLen];
+      for (int i=0; i<content.length; i++)
+         content[i] = (byte)i;
+      MsgUnit msgUnit = new MsgUnit(new PublishKey(this.glob, "EntryCodec", "text/plain").getData(), content, qos.getData());
+      return new MsgUnitWrapper(this.glob, msgUnit, this.storageId, 3, 1, -1);
+   }
+
+   private I_Entry roundTrip(I_EntryFactory writer, I_EntryFactory reader, I_Entry entry) throws Exception {
+      byte[] blob = writer.toBlob(entry);
+      return reader.createEntry(entry.getPriority(), entry.getUniqueId(), entry.getEmbeddedType(),
+                                entry.isPersistent(), entry.getSizeInBytes(), new ByteArrayInputStream(blob), this.storageId);
+   }
+
+   public void testValues() throws Exception {
+      System.out.println("***EntryCodecTest: testValues ...");
+      StringBuffer big = new StringBuffer();
+      for (int i=0; i<20000; i++)
+         big.append("\u00e4bc"); // more than 64 kBytes in UTF-8
+      Object[] obj = { null, "", big.toString(), new Long(-1L), new Integer(Integer.MIN_VALUE), new byte[0],
+                       new byte[] { 1, -1 }, Boolean.TRUE, new Object[] { "nested", null }, new Timestamp(4711L) };
+      Object[] ret = (Object[])EntryCodec.decode(EntryCodec.encode(obj, true));
+      assertEquals(obj.length, ret.length);
+      assertNull(ret[0]);
+      assertEquals("", ret[1]);
+      assertEquals(big.toString(), ret[2]);
+      assertEquals(obj[3], ret[3]);
+      assertEquals(obj[4], ret[4]);
+      assertTrue(Arrays.equals((byte[])obj[5], (byte[])ret[5]));
+      assertTrue(Arrays.equals((byte[])obj[6], (byte[])ret[6]));
+      assertEquals(Boolean.TRUE, ret[7]);
+      assertTrue(Arrays.equals((Object[])obj[8], (Object[])ret[8]));
+      assertEquals(4711L, ((Timestamp)ret[9]).getTimestamp()); // written with java.io.Serializable
+
+      byte[] serial = EntryCodec.encode(obj, false);
+      assertEquals((byte)0xAC, serial[0]);
+      assertEquals(big.toString(), ((Object[])EntryCodec.decode(serial))[2]);
+
+      byte[] future = EntryCodec.encode("x", true);
+      future[2] = EntryCodec.VERSION + 1;
+      try {
+         EntryCodec.decode(future);
+         fail("Unknown version must be rejected");
+      }
+      catch (java.io.IOException expected) {
+      }
+      System.out.println("***EntryCodecTest: testValues [SUCCESS]");
+   }
+
+   /**
+    * The binary codec is opt-in, unknown names are not taken as binary.
+    */
+   public void testCodecNames() throws Exception {
+      System.out.println("***EntryCodecTest: testCodecNames ...");
+      assertTrue(EntryCodec.isBinary("binary"));
+      assertTrue(EntryCodec.isBinary("BINARY"));
+      assertFalse(EntryCodec.isBinary("serial"));
+      assertFalse(EntryCodec.isBinary("binray"));
+      assertFalse(EntryCodec.isBinary(""));
+      assertFalse(EntryCodec.isBinary(null));
+
+      MsgUnitWrapper wrapper = createMsgUnitWrapper(10);
+      assertEquals("serial is the default", (byte)0xAC, this.serialGlob.getEntryFactory().toBlob(wrapper)[0]);
+      assertEquals((byte)0xB1, this.glob.getEntryFactory().toBlob(wrapper)[0]);
+      ServerScope unknownGlob = new ServerScope(new String[] { "-queue/entryCodec", "xml" });
+      try {
+         assertEquals((byte)0xAC, unknownGlob.getEntryFactory().toBlob(wrapper)[0]);
+      }
+      finally {
+         unknownGlob.shutdown();
+      }
+      System.out.println("***EntryCodecTest: testCodecNames [SUCCESS]");
+   }
+
+   public void testServerEntries() throws Exception {
+      System.out.println("***EntryCodecTest: testServerEntries ...");
+      I_EntryFactory[] writers = { this.glob.getEntryFactory(), this.serialGlob.getEntryFactory() };
+      I_EntryFactory reader = this.glob.getEntryFactory();
+      for (int i=0; i<writers.length; i++) {
+         String txt = (i==0) ? "binary" : "serial (legacy)";
+         MsgUnitWrapper wrapper = createMsgUnitWrapper(1000);
+         MsgUnitWrapper newWrapper = (MsgUnitWrapper)roundTrip(writers[i], reader, wrapper);
+         assertEquals(txt, wrapper.getKeyOid(), newWrapper.getKeyOid());
+         assertEquals(txt, wrapper.getReferenceCounter(), newWrapper.getReferenceCounter());
+         assertEquals(txt, wrapper.getHistoryReferenceCounter(), newWrapper.getHistoryReferenceCounter());
+         assertTrue(txt, Arrays.equals(wrapper.getMsgUnit().getContent(), newWrapper.getMsgUnit().getContent()));
+         assertEquals(txt, "Z\u00fcrich \u65e5\u672c", newWrapper.getMsgQosData().getClientProperty("city", ""));
+
+         SessionName receiver = new SessionName(this.glob, "/node/test/client/receiver/1");
+         MsgQueueUpdateEntry update = new MsgQueueUpdateEntry(this.glob, wrapper, this.storageId, receiver, "__subId:1", false, false);
+         update.incrRedeliverCounter();
+         MsgQueueUpdateEntry newUpdate = (MsgQueueUpdateEntry)roundTrip(writers[i], reader, update);
+         assertEquals(txt, update.getKeyOid(), newUpdate.getKeyOid());
+         assertEquals(txt, update.getMsgUnitWrapperUniqueId(), newUpdate.getMsgUnitWrapperUniqueId());
+         assertEquals(txt, receiver.getAbsoluteName(), newUpdate.getReceiver().getAbsoluteName());
+         assertEquals(txt, "__subId:1", newUpdate.getSubscriptionId());
+         assertEquals(txt, 1, newUpdate.getRedeliverCounter());
+
+         MsgQueueHistoryEntry history = new MsgQueueHistoryEntry(this.glob, wrapper, this.storageId);
+         MsgQueueHistoryEntry newHistory = (MsgQueueHistoryEntry)roundTrip(writers[i], reader, history);
+         assertEquals(txt, history.getMsgUnitWrapperUniqueId(), newHistory.getMsgUnitWrapperUniqueId());
+
+         SessionEntry session = new SessionEntry("<qos><securityService type='htpasswd'/></qos>", new Timestamp().getTimestamp(), 100L, this.storageId);
+         SessionEntry newSession = (SessionEntry)roundTrip(writers[i], reader, session);
+         assertEquals(txt, session.getQos(), newSession.getQos());
+
+         SubscribeEntry subscribe = new SubscribeEntry("<key oid='a'/>", "<qos/>", "/node/test/client/sub/1", new Timestamp().getTimestamp(), 100L, this.storageId);
+         SubscribeEntry newSubscribe = (SubscribeEntry)roundTrip(writers[i], reader, subscribe);
+         assertEquals(txt, subscribe.getKey(), newSubscribe.getKey());
+         assertEquals(txt, subscribe.getQos(), newSubscribe.getQos());
+         assertEquals(txt, subscribe.getSessionName(), newSubscribe.getSessionName());
+      }
+      System.out.println("***EntryCodecTest: testServerEntries [SUCCESS]");
+   }
+
+   public void testClientEntries() throws Exception {
+      System.out.println("***EntryCodecTest: testClientEntries ...");
+      Global clientGlob = new Global(new String[] { "-queue/entryCodec", "binary" });
+      Global serialClientGlob = new Global();
+      I_EntryFactory[] writers = { clientGlob.getEntryFactory(), serialClientGlob.getEntryFactory() };
+      for (int i=0; i<writers.length; i++) {
+         MsgUnit msgUnit = new MsgUnit(new PublishKey(clientGlob, "ClientCodec"), "Hi".getBytes(), new PublishQos(clientGlob));
+         MsgQueuePublishEntry entry = new MsgQueuePublishEntry(clientGlob, msgUnit, this.storageId);
+         MsgQueuePublishEntry newEntry = (MsgQueuePublishEntry)roundTrip(writers[i], clientGlob.getEntryFactory(), entry);
+         assertEquals(MethodName.PUBLISH, newEntry.getMethodName());
+         assertEquals("ClientCodec", newEntry.getKeyOid());
+         assertEquals("Hi", new String(newEntry.getMsgUnit().getContent()));
+      }
+      System.out.println("***EntryCodecTest: testClientEntries [SUCCESS]");
+   }
+
+   public void testThroughput() throws Exception {
+      System.out.println("***EntryCodecTest: testThroughput ...");
+      MsgUnitWrapper wrapper = createMsgUnitWrapper(100);
+      SessionName receiver = new SessionName(this.glob, "/node/test/client/receiver/1");
+      I_Entry[] entries = { new MsgQueueUpdateEntry(this.glob, wrapper, this.storageId, receiver, "__subId:1", false, false), wrapper };
+      int loops = 20000;
+      for (int run=0; run<2; run++) { // first run is warm up
+         for (int e=0; e<entries.length; e++) {
+            Object obj = entries[e].getEmbeddedObject();
+            StringBuffer sb = new StringBuffer();
+            sb.append(run==0 ? "Warm up: " : "").append(entries[e].getEmbeddedType()).append(":");
+            for (int c=0; c<2; c++) {
+               boolean binary = (c == 0);
+               long start = System.nanoTime();
+               byte[] blob = null;
+               for (int i=0; i<loops; i++)
+                  blob = EntryCodec.encode(obj, binary);
+               long encode = opsPerSec(loops, start);
+               start = System.nanoTime();
+               for (int i=0; i<loops; i++)
+                  EntryCodec.decode(blob);
+               long decode = opsPerSec(loops, start);
+               sb.append(binary ? " binary" : " serial").append(" size=").append(blob.length).append(" bytes encode=");
+               sb.append(encode).append("/sec decode=").append(decode).append("/sec");
+            }
+            log.info(sb.toString());
+         }
+      }
+      System.out.println("***EntryCodecTest: testThroughput [SUCCESS]");
+   }
+
+   private long opsPerSec(int loops, long startNanos) {
+      return (long)loops * 1000000000L / Math.max(1L, System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.EntryCodecTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(EntryCodecTest.class));
+   }
+}
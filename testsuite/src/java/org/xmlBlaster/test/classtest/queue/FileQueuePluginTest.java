@@ -0,0 +1,334 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.MsgUnitWrapper;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.msgstore.I_Map;
+import org.xmlBlaster.engine.qos.PublishQosServer;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.storage.CbQueueProperty;
+import org.xmlBlaster.util.qos.storage.MsgUnitStoreProperty;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.file.FileQueuePlugin;
+import org.xmlBlaster.util.queue.ram.RamQueuePlugin;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the journal specific behaviour of FileQueuePlugin, the I_Queue and I_Map
+ * contracts are tested by I_QueueTest and I_MapTest.
+ * <p>
+ * The entries must survive a restart and a crash (the plugin is not shut down and
+ * the last record is torn), removed segments must be compacted.
+ * testThroughput() logs the put/take rate compared to the RAM queue.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.FileQueuePluginTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.file.FileQueuePlugin
+ */
+public class FileQueuePluginTest extends TestCase {
+   private static Logger log = Logger.getLogger(FileQueuePluginTest.class.getName());
+   private ServerScope glob;
+   private File dir;
+
+   public FileQueuePluginTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.dir = new File(System.getProperty("java.io.tmpdir"), "FileQueuePluginTest");
+      deleteDir(this.dir);
+      this.glob = new ServerScope(new String[] {
+         "-plugin/FILE/journal/path", this.dir.getAbsolutePath(),
+         "-plugin/FILE/journal/segmentSize", "32768" });
+   }
+
+   protected void tearDown() {
+      deleteDir(this.dir);
+      this.glob.shutdown();
+      this.glob = null;
+   }
+
+   private static void deleteDir(File file) {
+      File[] files = file.listFiles();
+      for (int i=0; files!=null && i<files.length; i++)
+         deleteDir(files[i]);
+      file.delete();
+   }
+
+   /** @return The segment files of all journals, sorted */
+   private File[] getSegmentFiles(File file) {
+      java.util.ArrayList list = new java.util.ArrayList();
+      File[] files = file.listFiles();
+      for (int i=0; files!=null && i<files.length; i++) {
+         if (files[i].isDirectory())
+            list.addAll(java.util.Arrays.asList(getSegmentFiles(files[i])));
+         else if (files[i].getName().endsWith(".xbj"))
+            list.add(files[i]);
+      }
+      File[] ret = (File[])list.toArray(new File[list.size()]);
+      java.util.Arrays.sort(ret, new java.util.Comparator() {
+         public int compare(Object o1, Object o2) {
+            return segmentSeq((File)o1) - segmentSeq((File)o2);
+         }
+      });
+      return ret;
+   }
+
+   private static int segmentSeq(File file) {
+      String name = file.getName();
+      return Integer.parseInt(name.substring(name.indexOf('-')+1, name.indexOf('.')));
+   }
+
+   private FileQueuePlugin createQueue(String id, String syncMode) throws Exception {
+      PluginInfo pluginInfo = new PluginInfo(this.glob, this.glob.getQueuePluginManager(), "FILE", "1.0");
+      if (syncMode != null)
+         pluginInfo.getParameters().put("journal/syncMode", syncMode);
+      FileQueuePlugin queue = new FileQueuePlugin();
+      queue.init(this.glob, pluginInfo);
+      CbQueueProperty prop = new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test");
+      prop.setMaxEntries(1000000L);
+      queue.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, id), prop);
+      return queue;
+   }
+
+   private FileQueuePlugin createMap(String id) throws Exception {
+      PluginInfo pluginInfo = new PluginInfo(this.glob, this.glob.getStoragePluginManager(), "FILE", "1.0");
+      FileQueuePlugin map = new FileQueuePlugin();
+      map.init(this.glob, pluginInfo);
+      map.initialize(new StorageId(this.glob, Constants.RELATING_MSGUNITSTORE, id), new MsgUnitStoreProperty(this.glob, "/node/test"));
+      return map;
+   }
+
+   private DummyEntry[] createEntries(I_Queue queue, int num, boolean persistent) {
+      DummyEntry[] entries = new DummyEntry[num];
+      for (int i=0; i<num; i++) {
+         PriorityEnum prio = (i%3 == 0) ? PriorityEnum.HIGH_PRIORITY : PriorityEnum.NORM_PRIORITY;
+         entries[i] = new DummyEntry(this.glob, prio, queue.getStorageId(), 100, persistent);
+      }
+      return entries;
+   }
+
+   private void assertSameEntries(String txt, List expected, List list) {
+      assertEquals(txt, expected.size(), list.size());
+      for (int i=0; i<list.size(); i++) {
+         I_QueueEntry exp = (I_QueueEntry)expected.get(i);
+         I_QueueEntry entry = (I_QueueEntry)list.get(i);
+         assertEquals(txt, exp.getUniqueId(), entry.getUniqueId());
+         assertEquals(txt, exp.getPriority(), entry.getPriority());
+         assertEquals(txt, exp.getSizeInBytes(), entry.getSizeInBytes());
+      }
+   }
+
+   public void testRecovery() throws Exception {
+      System.out.println("***FileQueuePluginTest: testRecovery ...");
+      FileQueuePlugin queue = createQueue("recovery", null);
+      queue.put(createEntries(queue, 100, true), false);
+      queue.put(createEntries(queue, 10, false), false);
+      queue.removeNum(5);
+      List expected = queue.peek(-1, -1L);
+      assertEquals(105, expected.size());
+      queue.shutdown();
+
+      // Restart: transient entries are lost
+      queue = createQueue("recovery", null);
+      assertEquals(95, queue.getNumOfEntries());
+      assertEquals(95, queue.getNumOfPersistentEntries());
+      assertEquals(95*100, queue.getNumOfBytes());
+      List list = queue.peek(-1, -1L);
+      int pos = 0;
+      for (int i=0; i<expected.size(); i++) {
+         if (((I_Entry)expected.get(i)).isPersistent())
+            assertEquals("Order", ((I_Entry)expected.get(i)).getUniqueId(), ((I_Entry)list.get(pos++)).getUniqueId());
+      }
+      assertSameEntries("takeLowest", queue.peekLowest(5, -1L, null, false), queue.takeLowest(5, -1L, null, false));
+      expected = queue.peek(-1, -1L);
+
+      // Crash: the queue is not shut down and the last record is torn
+      FileQueuePlugin crashed = queue;
+      queue = createQueue("recovery-crash", null);
+      queue.put(createEntries(queue, 20, true), false);
+      File[] files = getSegmentFiles(this.dir);
+      File last = null;
+      for (int i=0; i<files.length; i++) {
+         if (files[i].getParentFile().getName().indexOf("crash") > -1)
+            last = files[i];
+      }
+      assertNotNull(last);
+      RandomAccessFile raf = new RandomAccessFile(last, "rw");
+      int end = 8;
+      raf.seek(end);
+      for (int len=raf.readInt(); len!=0; len=raf.readInt()) {
+         end += 8 + len;
+         raf.seek(end);
+      }
+      raf.seek(end);
+      raf.writeInt(100);          // length of a record which was written half
+      raf.writeInt(0xBADC0DE);    // wrong crc
+      raf.writeByte(1);
+      raf.close();
+      FileQueuePlugin recovered = createQueue("recovery-crash", null);
+      assertEquals(20, recovered.getNumOfEntries());
+      DummyEntry[] more = createEntries(recovered, 3, true);
+      recovered.put(more, false);
+      assertEquals(23, createQueue("recovery-crash", null).getNumOfEntries());
+
+      // The first journal is untouched by the crash of the second
+      assertSameEntries("reopen", expected, createQueue("recovery", null).peek(-1, -1L));
+      crashed.clear();
+      crashed.shutdown();
+      System.out.println("***FileQueuePluginTest: testRecovery [SUCCESS]");
+   }
+
+   public void testMap() throws Exception {
+      System.out.println("***FileQueuePluginTest: testMap ...");
+      I_Map map = createMap("map");
+      PublishQosServer qos = new PublishQosServer(this.glob, "<qos/>");
+      qos.getData().setPersistent(true);
+      MsgUnit msgUnit = new MsgUnit(this.glob, "<key oid='FileMap'/>", "Hello".getBytes(), qos.toXml());
+      MsgUnitWrapper wrapper = new MsgUnitWrapper(this.glob, msgUnit, map.getStorageId(), 1, 1, -1);
+      assertEquals(1, map.put(wrapper));
+      assertEquals(0, map.put(wrapper));
+
+      MsgUnitWrapper counted = new MsgUnitWrapper(this.glob, msgUnit, map.getStorageId(), 3, 0, -1);
+      map.updateCounters(counted);
+      MsgUnitWrapper entry = (MsgUnitWrapper)map.get(wrapper.getUniqueId());
+      assertEquals(3, entry.getReferenceCounter());
+      assertEquals(0, entry.getHistoryReferenceCounter());
+      map.shutdown();
+
+      map = createMap("map");
+      entry = (MsgUnitWrapper)map.get(wrapper.getUniqueId());
+      assertNotNull(entry);
+      assertEquals(3, entry.getReferenceCounter());
+      assertEquals("Hello", new String(entry.getMsgUnit().getContent()));
+      assertEquals("FileMap", entry.getKeyOid());
+      assertEquals(1, map.remove(wrapper.getUniqueId()));
+      assertNull(map.get(wrapper.getUniqueId()));
+      map.shutdown();
+      assertEquals("An empty journal is deleted", 0, getSegmentFiles(this.dir).length);
+      System.out.println("***FileQueuePluginTest: testMap [SUCCESS]");
+   }
+
+   public void testCompaction() throws Exception {
+      System.out.println("***FileQueuePluginTest: testCompaction ...");
+      FileQueuePlugin queue = createQueue("compaction", null);
+      DummyEntry[] old = createEntries(queue, 2, true);
+      queue.put(old, false);
+      for (int i=0; i<200; i++) {
+         DummyEntry[] entries = createEntries(queue, 10, true);
+         queue.put(entries, false);
+         queue.removeRandom(entries);
+      }
+      // 2000 records of more than 100 bytes don't fit into 3 segments of 32 kBytes
+      assertTrue("Journal is not compacted, " + getSegmentFiles(this.dir).length + " segments", getSegmentFiles(this.dir).length <= 3);
+      queue.shutdown();
+      queue = createQueue("compaction", null);
+      assertEquals(2, queue.getNumOfEntries());
+      assertEquals(old[0].getUniqueId(), queue.peek().getUniqueId());
+      queue.clear();
+      assertEquals(1, getSegmentFiles(this.dir).length);
+      queue.shutdown();
+      System.out.println("***FileQueuePluginTest: testCompaction [SUCCESS]");
+   }
+
+   /**
+    * A REMOVE record which starts a new segment compacts the journal, the removed
+    * entries must not be copied and come back after a restart.
+    */
+   public void testCompactionOnRemove() throws Exception {
+      System.out.println("***FileQueuePluginTest: testCompactionOnRemove ...");
+      this.glob.shutdown();
+      this.glob = new ServerScope(new String[] {
+         "-plugin/FILE/journal/path", this.dir.getAbsolutePath(),
+         "-plugin/FILE/journal/segmentSize", "4096" });
+      int numCompacted = 0;
+      for (int t=0; t<40; t++) {
+         FileQueuePlugin queue = createQueue("compactOnRemove", "none");
+         DummyEntry[] kept = createEntries(queue, 8, true);
+         queue.put(kept, false);
+         for (int i=0; i<t; i++) { // moves the end of the head segment
+            DummyEntry[] filler = createEntries(queue, 1, true);
+            queue.put(filler, false);
+            queue.removeRandom(filler);
+         }
+         File[] files = getSegmentFiles(this.dir);
+         int head = segmentSeq(files[files.length-1]);
+         assertEquals(1, queue.removeRandom(kept[0]));
+         files = getSegmentFiles(this.dir);
+         if (segmentSeq(files[files.length-1]) != head)
+            numCompacted++; // the REMOVE record started a new segment
+         queue.shutdown();
+
+         queue = createQueue("compactOnRemove", "none");
+         assertEquals("Removed entry is back after restart, trial " + t, 7, queue.getNumOfEntries());
+         queue.clear();
+         queue.shutdown();
+      }
+      log.info(numCompacted + " removes started a new segment");
+      assertTrue("No remove started a new segment", numCompacted > 0);
+      System.out.println("***FileQueuePluginTest: testCompactionOnRemove [SUCCESS]");
+   }
+
+   public void testThroughput() throws Exception {
+      System.out.println("***FileQueuePluginTest: testThroughput ...");
+      int num = 5000;
+      String[] syncModes = { "always", "interval", "none" };
+      RamQueuePlugin ram = new RamQueuePlugin();
+      ram.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, "throughputRam"),
+                     new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test"));
+      ((CbQueueProperty)ram.getProperties()).setMaxEntries(1000000L);
+      for (int run=0; run<2; run++) { // first run is warm up
+         StringBuffer sb = new StringBuffer();
+         sb.append(run==0 ? "Warm up: " : "").append("put/take of ").append(num).append(" entries, single/batch of 100:");
+         sb.append(" RAM=").append(putTake(ram, num, 1)).append("/").append(putTake(ram, num, 100)).append(" msg/sec");
+         for (int i=0; i<syncModes.length; i++) {
+            FileQueuePlugin queue = createQueue("throughput-" + syncModes[i], syncModes[i]);
+            sb.append(" FILE[").append(syncModes[i]).append("]=").append(putTake(queue, num, 1));
+            sb.append("/").append(putTake(queue, num, 100)).append(" msg/sec");
+            queue.shutdown();
+         }
+         log.info(sb.toString());
+      }
+      ram.shutdown();
+      System.out.println("***FileQueuePluginTest: testThroughput [SUCCESS]");
+   }
+
+   private long putTake(I_Queue queue, int num, int batchSize) throws Exception {
+      DummyEntry[] entries = createEntries(queue, num, true);
+      long start = System.nanoTime();
+      for (int i=0; i<num; i+=batchSize) {
+         DummyEntry[] batch = new DummyEntry[batchSize];
+         System.arraycopy(entries, i, batch, 0, batchSize);
+         queue.put(batch, false);
+      }
+      int taken = 0;
+      while (taken < num) {
+         List list = queue.peek(batchSize, -1L);
+         queue.removeRandom((I_Entry[])list.toArray(new I_Entry[list.size()]));
+         taken += list.size();
+      }
+      assertEquals(0, queue.getNumOfEntries());
+      return (long)num * 1000000000L / Math.max(1L, System.nanoTime() - start);
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.FileQueuePluginTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(FileQueuePluginTest.class));
+   }
+}
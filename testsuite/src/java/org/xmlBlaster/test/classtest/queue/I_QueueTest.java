@@ -51,6 +51,7 @@ import org.xmlBlaster.util.queuemsg.DummyEntry;
  * @see org.xmlBlaster.util.queue.I_Queue
  * @see org.xmlBlaster.util.queue.ram.RamQueuePlugin
  * @see org.xmlBlaster.util.queue.jdbc.JdbcQueuePlugin
+ * @see org.xmlBlaster.util.queue.file.FileQueuePlugin
  */
 public class I_QueueTest extends TestCase {
 
@@ -104,7 +105,9 @@ public class I_QueueTest extends TestCase {
    static String[] PLUGIN_TYPES = {
                    new String("RAM"),
                    new String("JDBC"),
-                   new String("CACHE")
+                   new String("CACHE"),
+                   new String("FILE"),
+                   new String("OFFHEAP")
                  };
 
 /*
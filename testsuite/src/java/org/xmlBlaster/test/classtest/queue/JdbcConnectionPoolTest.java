@@ -0,0 +1,352 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.XmlBlasterException;
+import org.xmlBlaster.util.def.ErrorCode;
+import org.xmlBlaster.util.queue.jdbc.JdbcConnectionPool;
+import org.xmlBlaster.util.queue.jdbc.XBStatementCache;
+
+/**
+ * Tests the JDBC connection pool under concurrent load.
+ * <p>
+ * No database is needed, a simulated JDBC driver is registered for the url <code>jdbc:xbpooltest:</code>.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.JdbcConnectionPoolTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.jdbc.JdbcConnectionPool
+ */
+public class JdbcConnectionPoolTest extends TestCase {
+   private static Logger log = Logger.getLogger(JdbcConnectionPoolTest.class.getName());
+   private static final String URL = "jdbc:xbpooltest:";
+   private static final SimulatedDriver driver = new SimulatedDriver();
+   private Global glob;
+   private JdbcConnectionPool pool;
+
+   /**
+    * Creates connections which count how often they are closed and can be marked broken.
+    */
+   public static class SimulatedDriver implements Driver {
+      int numCreated;
+      int numClosed;
+      int numStatementsClosed;
+      boolean broken;
+      String validatingThread;
+
+      public synchronized Connection connect(String url, Properties info) throws SQLException {
+         if (!acceptsURL(url))
+            return null;
+         this.numCreated++;
+         return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class }, new InvocationHandler() {
+            private final boolean isBroken = broken;
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+               String name = method.getName();
+               if (name.equals("hashCode"))
+                  return new Integer(System.identityHashCode(proxy));
+               if (name.equals("equals"))
+                  return Boolean.valueOf(proxy == args[0]);
+               if (name.equals("isValid")) {
+                  synchronized (SimulatedDriver.this) {
+                     validatingThread = Thread.currentThread().getName();
+                  }
+                  return Boolean.valueOf(!this.isBroken);
+               }
+               if (name.equals("close")) {
+                  synchronized (SimulatedDriver.this) {
+                     numClosed++;
+                  }
+               }
+               if (name.equals("prepareStatement")) {
+                  final Object connection = proxy; // like a real driver the statement references its connection
+                  return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { PreparedStatement.class }, new InvocationHandler() {
+                     public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getConnection"))
+                           return connection;
+                        if (method.getName().equals("close")) {
+                           synchronized (SimulatedDriver.this) {
+                              numStatementsClosed++;
+                           }
+                        }
+                        return defaultValue(method.getReturnType());
+                     }
+                  });
+               }
+               if (name.equals("getTransactionIsolation"))
+                  return new Integer(Connection.TRANSACTION_READ_COMMITTED);
+               if (name.equals("getMetaData"))
+                  return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { DatabaseMetaData.class }, new InvocationHandler() {
+                     public Object invoke(Object proxy, Method method, Object[] args) {
+                        return defaultValue(method.getReturnType());
+                     }
+                  });
+               return defaultValue(method.getReturnType());
+            }
+         });
+      }
+      static Object defaultValue(Class clazz) {
+         if (clazz == Boolean.TYPE)
+            return Boolean.FALSE;
+         if (clazz == Integer.TYPE)
+            return new Integer(0);
+         return null;
+      }
+      public boolean acceptsURL(String url) {
+         return url != null && url.startsWith(URL);
+      }
+      public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+         return new DriverPropertyInfo[0];
+      }
+      public int getMajorVersion() {
+         return 1;
+      }
+      public int getMinorVersion() {
+         return 0;
+      }
+      public boolean jdbcCompliant() {
+         return false;
+      }
+      public Logger getParentLogger() {
+         return log;
+      }
+   }
+
+   public JdbcConnectionPoolTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      DriverManager.registerDriver(driver);
+      synchronized (driver) {
+         driver.numCreated = 0;
+         driver.numClosed = 0;
+         driver.numStatementsClosed = 0;
+         driver.broken = false;
+         driver.validatingThread = null;
+      }
+      this.glob = new Global(new String[] { "-xmlBlaster/jmx/registerJdbcConnectionPool", "false" });
+   }
+
+   protected void tearDown() throws Exception {
+      if (this.pool != null)
+         this.pool.shutdown();
+      DriverManager.deregisterDriver(driver);
+      this.glob.shutdown();
+   }
+
+   private JdbcConnectionPool createPool(int size, long busyTimeout, long validationInterval) throws Exception {
+      this.pool = createPool(size, busyTimeout, validationInterval, new Properties());
+      return this.pool;
+   }
+
+   private JdbcConnectionPool createPool(int size, long busyTimeout, long validationInterval, Properties prop) throws Exception {
+      prop.put("url", URL + getName());
+      prop.put("connectionPoolSize", "" + size);
+      prop.put("connectionBusyTimeout", "" + busyTimeout);
+      prop.put("validationInterval", "" + validationInterval);
+      prop.put("configurationIdentifier", "HSQLDatabaseEngine"); // no meta data lookup
+      JdbcConnectionPool pool = new JdbcConnectionPool();
+      pool.initialize(this.glob, prop);
+      return pool;
+   }
+
+   /**
+    * Many threads share few connections, a connection is never given to two threads.
+    */
+   public void testConcurrentCheckout() throws Exception {
+      System.out.println("***JdbcConnectionPoolTest: testConcurrentCheckout ...");
+      final int size = 4;
+      final JdbcConnectionPool pool = createPool(size, 10000L, 0L);
+      final int numThreads = 20;
+      final int numLoops = 500;
+      final java.util.Set inUse = java.util.Collections.synchronizedSet(new java.util.HashSet());
+      final Throwable[] error = new Throwable[1];
+      Thread[] threads = new Thread[numThreads];
+      long start = System.currentTimeMillis();
+      for (int i=0; i<numThreads; i++) {
+         threads[i] = new Thread("JdbcPool-" + i) {
+            public void run() {
+               try {
+                  for (int j=0; j<numLoops; j++) {
+                     Connection conn = pool.getConnection();
+                     assertTrue("Connection given twice", inUse.add(conn));
+                     assertTrue(inUse.size() <= size);
+                     if (j % 50 == 0)
+                        Thread.sleep(1L);
+                     inUse.remove(conn);
+                     pool.releaseConnection(conn, j % 100 != 99);
+                  }
+               }
+               catch (Throwable e) {
+                  error[0] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i=0; i<numThreads; i++)
+         threads[i].join();
+      long elapsed = System.currentTimeMillis() - start;
+      if (error[0] != null)
+         fail(error[0].toString());
+      log.info((numThreads*numLoops) + " checkouts of " + numThreads + " threads took " + elapsed + " ms, wait=" + pool.getWaitHistogram()
+               + " avg=" + pool.getAverageWaitMillis() + " max=" + pool.getMaxWaitMillis() + " ms");
+      assertEquals(size, pool.getNumIdle());
+      assertEquals(0, pool.getNumBusy());
+      assertEquals(0L, pool.getNumTimeouts());
+      assertEquals(numThreads*numLoops/100, pool.getNumDiscarded());
+      synchronized (driver) {
+         assertEquals(size + pool.getNumDiscarded(), driver.numCreated);
+         assertEquals(pool.getNumDiscarded(), driver.numClosed);
+      }
+      System.out.println("***JdbcConnectionPoolTest: testConcurrentCheckout [SUCCESS]");
+   }
+
+   /**
+    * A caller waits no longer than connectionBusyTimeout.
+    */
+   public void testBusyTimeout() throws Exception {
+      System.out.println("***JdbcConnectionPoolTest: testBusyTimeout ...");
+      JdbcConnectionPool pool = createPool(1, 100L, 0L);
+      Connection conn = pool.getConnection();
+      long start = System.currentTimeMillis();
+      try {
+         pool.getConnection();
+         fail("The pool has only one connection");
+      }
+      catch (XmlBlasterException e) {
+         assertEquals(ErrorCode.RESOURCE_DB_UNAVAILABLE, e.getErrorCode());
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertTrue("Waited " + elapsed + " ms", elapsed >= 90L && elapsed < 2000L);
+      assertEquals(1L, pool.getNumTimeouts());
+      pool.releaseConnection(conn, true);
+      pool.releaseConnection(conn, true); // given back twice is ignored
+      assertEquals(1, pool.getNumIdle());
+      assertSame(conn, pool.getConnection());
+      System.out.println("***JdbcConnectionPoolTest: testBusyTimeout [SUCCESS]");
+   }
+
+   /**
+    * Broken idle connections are replaced by the periodic validation.
+    */
+   public void testValidation() throws Exception {
+      System.out.println("***JdbcConnectionPoolTest: testValidation ...");
+      synchronized (driver) {
+         driver.broken = true;
+      }
+      JdbcConnectionPool pool = createPool(2, 1000L, 50L);
+      synchronized (driver) {
+         driver.broken = false;
+      }
+      for (int i=0; i<100 && pool.getNumInvalid() < 2; i++)
+         Thread.sleep(20L);
+      assertEquals(2L, pool.getNumInvalid());
+      assertEquals(2, pool.getNumIdle());
+      synchronized (driver) {
+         assertEquals(4, driver.numCreated);
+         assertEquals(2, driver.numClosed);
+         assertNotNull(driver.validatingThread);
+         assertFalse("isValid() blocks the shared timer", "XmlBlaster.JdbcConnectionPoolTimer".equals(driver.validatingThread));
+      }
+      System.out.println("***JdbcConnectionPoolTest: testValidation [SUCCESS]");
+   }
+
+   /**
+    * The cached statements of a connection are closed and forgotten when the pool closes it,
+    * the cache must not keep closed connections.
+    */
+   public void testStatementCache() throws Exception {
+      System.out.println("***JdbcConnectionPoolTest: testStatementCache ...");
+      JdbcConnectionPool pool = createPool(2, 1000L, 0L);
+      XBStatementCache cache = pool.getStatementCache();
+      assertTrue(cache.isEnabled());
+      Connection conn = pool.getConnection();
+      PreparedStatement st = cache.prepare(conn, "DELETE FROM test WHERE id=?");
+      cache.release(st);
+      assertSame(st, cache.prepare(conn, "DELETE FROM test WHERE id=?"));
+      cache.release(cache.prepare(conn, "INSERT INTO test VALUES(?)"));
+      assertEquals(1, cache.getNumConnections());
+      assertEquals(1L, pool.getNumStatementCacheHits());
+      assertEquals(2L, pool.getNumStatementCacheMisses());
+
+      pool.discardConnection(conn);
+      assertEquals(0, cache.getNumConnections());
+      synchronized (driver) {
+         assertEquals(2, driver.numStatementsClosed);
+         assertEquals(1, driver.numClosed);
+      }
+
+      conn = pool.getConnection();
+      cache.release(cache.prepare(conn, "DELETE FROM test WHERE id=?"));
+      pool.releaseConnection(conn, true);
+      assertEquals(1, cache.getNumConnections());
+      pool.shutdown();
+      this.pool = null;
+      assertEquals(0, cache.getNumConnections());
+      synchronized (driver) {
+         assertEquals(3, driver.numStatementsClosed);
+      }
+      System.out.println("***JdbcConnectionPoolTest: testStatementCache [SUCCESS]");
+   }
+
+   /**
+    * A pool with <code>statementCache=false</code> must not switch off or close the cache of another pool.
+    */
+   public void testStatementCachePerPool() throws Exception {
+      System.out.println("***JdbcConnectionPoolTest: testStatementCachePerPool ...");
+      JdbcConnectionPool pool = createPool(1, 1000L, 0L);
+      Properties prop = new Properties();
+      prop.put("statementCache", "false");
+      JdbcConnectionPool other = createPool(1, 1000L, 0L, prop);
+      try {
+         assertTrue(pool.isStatementCacheEnabled());
+         assertFalse(other.isStatementCacheEnabled());
+
+         Connection conn = pool.getConnection();
+         PreparedStatement st = pool.getStatementCache().prepare(conn, "DELETE FROM test WHERE id=?");
+         pool.getStatementCache().release(st);
+
+         Connection otherConn = other.getConnection();
+         PreparedStatement otherSt = other.getStatementCache().prepare(otherConn, "DELETE FROM test WHERE id=?");
+         other.getStatementCache().release(otherSt);
+         assertNotSame(otherSt, other.getStatementCache().prepare(otherConn, "DELETE FROM test WHERE id=?"));
+         synchronized (driver) {
+            assertEquals("Only the uncached statement is closed", 1, driver.numStatementsClosed);
+         }
+
+         assertSame(st, pool.getStatementCache().prepare(conn, "DELETE FROM test WHERE id=?"));
+         assertEquals(1L, pool.getNumStatementCacheHits());
+         assertEquals(0L, other.getNumStatementCacheHits());
+         assertEquals(0, other.getStatementCache().getNumConnections());
+         pool.releaseConnection(conn, true);
+         other.releaseConnection(otherConn, true);
+      }
+      finally {
+         other.shutdown();
+      }
+      System.out.println("***JdbcConnectionPoolTest: testStatementCachePerPool [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.JdbcConnectionPoolTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(JdbcConnectionPoolTest.class));
+   }
+}
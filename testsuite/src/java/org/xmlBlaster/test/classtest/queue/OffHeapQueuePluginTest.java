@@ -0,0 +1,216 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.client.queuemsg.MsgQueuePublishEntry;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.key.MsgKeyData;
+import org.xmlBlaster.util.plugin.PluginInfo;
+import org.xmlBlaster.util.qos.MsgQosData;
+import org.xmlBlaster.util.qos.storage.CbQueueProperty;
+import org.xmlBlaster.util.queue.I_Queue;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.ram.OffHeapQueuePlugin;
+import org.xmlBlaster.util.queue.ram.RamQueuePlugin;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the direct memory handling of OffHeapQueuePlugin, the I_Queue contract
+ * is tested by I_QueueTest.
+ * <p>
+ * testMemoryFootprint() logs the java heap used by a big backlog compared to the RAM queue.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.OffHeapQueuePluginTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.ram.OffHeapQueuePlugin
+ */
+public class OffHeapQueuePluginTest extends TestCase {
+   private static Logger log = Logger.getLogger(OffHeapQueuePluginTest.class.getName());
+   private Global glob;
+
+   public OffHeapQueuePluginTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = new Global(new String[] { "-plugin/OFFHEAP/offHeap/chunkSize", "65536" });
+   }
+
+   protected void tearDown() {
+      this.glob.shutdown();
+      this.glob = null;
+   }
+
+   private OffHeapQueuePlugin createQueue(String id) throws Exception {
+      PluginInfo pluginInfo = new PluginInfo(this.glob, this.glob.getQueuePluginManager(), "OFFHEAP", "1.0");
+      OffHeapQueuePlugin queue = new OffHeapQueuePlugin();
+      queue.init(this.glob, pluginInfo);
+      CbQueueProperty prop = new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test");
+      prop.setMaxEntries(10000000L);
+      prop.setMaxBytes(Long.MAX_VALUE);
+      queue.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, id), prop);
+      return queue;
+   }
+
+   private RamQueuePlugin createRamQueue(String id) throws Exception {
+      RamQueuePlugin queue = new RamQueuePlugin();
+      CbQueueProperty prop = new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test");
+      prop.setMaxEntries(10000000L);
+      prop.setMaxBytes(Long.MAX_VALUE);
+      queue.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, id), prop);
+      return queue;
+   }
+
+   private DummyEntry[] createEntries(I_Queue queue, int num, int size) {
+      DummyEntry[] entries = new DummyEntry[num];
+      for (int i=0; i<num; i++) {
+         PriorityEnum prio = PriorityEnum.toPriorityEnum(i % 10);
+         entries[i] = new DummyEntry(this.glob, prio, queue.getStorageId(), size, false);
+      }
+      return entries;
+   }
+
+   /**
+    * Publish entries with their own content, key and QoS are shared.
+    */
+   private MsgQueuePublishEntry[] createPublishEntries(I_Queue queue, int num, int size) throws Exception {
+      MsgQueuePublishEntry[] entries = new MsgQueuePublishEntry[num];
+      MsgKeyData key = this.glob.getMsgKeyFactory().readObject("<key oid='OffHeapQueuePluginTest'/>");
+      for (int i=0; i<num; i++) {
+         MsgQosData qos = this.glob.getMsgQosFactory().readObject("<qos><priority>" + (i % 10) + "</priority></qos>");
+         entries[i] = new MsgQueuePublishEntry(this.glob, new MsgUnit(key, new byte[size], qos), queue.getStorageId());
+      }
+      return entries;
+   }
+
+   private static long usedHeap() throws Exception {
+      Runtime rt = Runtime.getRuntime();
+      long used = Long.MAX_VALUE;
+      for (int i=0; i<3; i++) {
+         System.gc();
+         Thread.sleep(50L);
+         used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+      }
+      return used;
+   }
+
+   /**
+    * Fills the queue with num entries in batches, the test keeps no reference to the entries.
+    * @return The java heap used by the queue content in bytes
+    */
+   private long fill(I_Queue queue, int num, int size) throws Exception {
+      long before = usedHeap();
+      for (int i=0; i<num; i+=1000)
+         queue.put(createPublishEntries(queue, 1000, size), false);
+      return usedHeap() - before;
+   }
+
+   /**
+    * The same backlog is put into the RAM and the OFFHEAP queue, the heap used is logged.
+    */
+   public void testMemoryFootprint() throws Exception {
+      System.out.println("***OffHeapQueuePluginTest: testMemoryFootprint ...");
+      int num = 100000;
+      int size = 200;
+
+      RamQueuePlugin ram = createRamQueue("footprintRam");
+      long ramHeap = fill(ram, num, size);
+      assertEquals(num, ram.getNumOfEntries());
+      ram.clear();
+      ram.shutdown();
+      ram = null;
+
+      OffHeapQueuePlugin offHeap = createQueue("footprintOffHeap");
+      long start = System.currentTimeMillis();
+      long offHeapHeap = fill(offHeap, num, size);
+      assertEquals(num, offHeap.getNumOfEntries());
+      long direct = offHeap.getNumOfDirectBytes();
+      long putMillis = System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      int taken = 0;
+      while (offHeap.getNumOfEntries() > 0)
+         taken += offHeap.takeWithPriority(1000, -1L, 0, 9).size();
+      long takeMillis = System.currentTimeMillis() - start;
+      assertEquals(num, taken);
+
+      log.info(num + " entries of " + size + " bytes: java heap RAM=" + (ramHeap/num) + " bytes/entry, OFFHEAP="
+               + (offHeapHeap/num) + " bytes/entry + " + (direct/num) + " direct bytes/entry"
+               + " (OFFHEAP put incl. gc " + putMillis + " ms, take " + takeMillis + " ms)");
+      assertTrue("The off-heap queue uses " + offHeapHeap + " heap bytes, the RAM queue " + ramHeap, offHeapHeap*2 < ramHeap);
+      assertTrue(direct >= (long)num*size);
+      assertTrue("Direct memory is not freed: " + offHeap.getNumOfDirectBytes(), offHeap.getNumOfDirectBytes() <= 3*65536L); // current and maxFreeChunks=2
+      offHeap.shutdown();
+      System.out.println("***OffHeapQueuePluginTest: testMemoryFootprint [SUCCESS]");
+   }
+
+   /**
+    * Entries put with older unique ids are sorted in, takeLowest returns the newest of the lowest priority.
+    */
+   public void testOrder() throws Exception {
+      System.out.println("***OffHeapQueuePluginTest: testOrder ...");
+      OffHeapQueuePlugin queue = createQueue("order");
+      DummyEntry[] entries = createEntries(queue, 30, 10);
+      for (int i=entries.length-1; i>=0; i--) // reverse, every put is an insert
+         queue.put(entries[i], false);
+      assertEquals(30L, queue.getNumOfEntries());
+
+      List list = queue.peek(-1, -1L);
+      for (int i=1; i<list.size(); i++) {
+         I_QueueEntry prev = (I_QueueEntry)list.get(i-1);
+         I_QueueEntry entry = (I_QueueEntry)list.get(i);
+         assertTrue(prev.getPriority() > entry.getPriority()
+                    || (prev.getPriority() == entry.getPriority() && prev.getUniqueId() < entry.getUniqueId()));
+      }
+      List same = queue.peekSamePriority(-1, -1L);
+      assertEquals(3, same.size());
+      assertEquals(9, ((I_QueueEntry)same.get(0)).getPriority());
+
+      List lowest = queue.takeLowest(2, -1L, null, false);
+      assertEquals(2, lowest.size());
+      assertEquals(entries[20].getUniqueId(), ((I_QueueEntry)lowest.get(0)).getUniqueId());
+      assertEquals(entries[10].getUniqueId(), ((I_QueueEntry)lowest.get(1)).getUniqueId());
+
+      assertEquals(1, queue.removeRandom(entries[15]));
+      assertEquals(0, queue.removeRandom(entries[15]));
+      assertEquals(27L, queue.getNumOfEntries());
+      assertEquals(27L*10, queue.getNumOfBytes());
+      queue.shutdown();
+      System.out.println("***OffHeapQueuePluginTest: testOrder [SUCCESS]");
+   }
+
+   /**
+    * Entries bigger than a chunk get their own buffer which is freed on remove.
+    */
+   public void testBigEntry() throws Exception {
+      System.out.println("***OffHeapQueuePluginTest: testBigEntry ...");
+      OffHeapQueuePlugin queue = createQueue("big");
+      MsgQueuePublishEntry big = createPublishEntries(queue, 1, 200000)[0];
+      queue.put(big, false);
+      assertTrue(queue.getNumOfDirectBytes() >= 200000L);
+      I_QueueEntry entry = queue.peek();
+      assertEquals(big.getUniqueId(), entry.getUniqueId());
+      assertEquals(200000, ((MsgQueuePublishEntry)entry).getMsgUnit().getContent().length);
+      assertEquals(1, queue.remove());
+      assertEquals(0L, queue.getNumOfEntries());
+      assertTrue(queue.getNumOfDirectBytes() < 200000L);
+      queue.shutdown();
+      System.out.println("***OffHeapQueuePluginTest: testBigEntry [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.OffHeapQueuePluginTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(OffHeapQueuePluginTest.class));
+   }
+}
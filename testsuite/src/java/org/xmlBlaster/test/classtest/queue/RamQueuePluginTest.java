@@ -0,0 +1,177 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.qos.storage.CbQueueProperty;
+import org.xmlBlaster.util.queue.I_QueueEntry;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.ram.RamQueuePlugin;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the per priority FIFO storage of RamQueuePlugin, the I_Queue contract is tested by I_QueueTest.
+ * <p>
+ * testThroughput() logs the put/take rate with 1000, 100000 and 1000000 entries.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.RamQueuePluginTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.ram.RamQueuePlugin
+ */
+public class RamQueuePluginTest extends TestCase {
+   private static Logger log = Logger.getLogger(RamQueuePluginTest.class.getName());
+   private Global glob;
+
+   public RamQueuePluginTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() {
+      this.glob = new Global(new String[0]);
+   }
+
+   protected void tearDown() {
+      this.glob.shutdown();
+      this.glob = null;
+   }
+
+   private RamQueuePlugin createQueue(String id) throws Exception {
+      RamQueuePlugin queue = new RamQueuePlugin();
+      CbQueueProperty prop = new CbQueueProperty(this.glob, Constants.RELATING_CALLBACK, "/node/test");
+      prop.setMaxEntries(10000000L);
+      prop.setMaxBytes(Long.MAX_VALUE);
+      queue.initialize(new StorageId(this.glob, Constants.RELATING_CALLBACK, id), prop);
+      return queue;
+   }
+
+   private DummyEntry[] createEntries(RamQueuePlugin queue, int num) {
+      DummyEntry[] entries = new DummyEntry[num];
+      for (int i=0; i<num; i++)
+         entries[i] = new DummyEntry(this.glob, PriorityEnum.toPriorityEnum(i % 10), queue.getStorageId(), 10, i%2 == 0);
+      return entries;
+   }
+
+   private static void assertSorted(List list) {
+      for (int i=1; i<list.size(); i++) {
+         I_QueueEntry prev = (I_QueueEntry)list.get(i-1);
+         I_QueueEntry entry = (I_QueueEntry)list.get(i);
+         assertTrue("Wrong order at " + i, prev.getPriority() > entry.getPriority()
+                    || (prev.getPriority() == entry.getPriority() && prev.getUniqueId() < entry.getUniqueId()));
+      }
+   }
+
+   /**
+    * Older entries are sorted in, removed entries in the middle are skipped and the arrays are compacted.
+    */
+   public void testOrder() throws Exception {
+      System.out.println("***RamQueuePluginTest: testOrder ...");
+      RamQueuePlugin queue = createQueue("order");
+      DummyEntry[] entries = createEntries(queue, 1000);
+      for (int i=500; i<1000; i++)
+         queue.put(entries[i], false);
+      for (int i=499; i>=0; i-=2) // older than all, taking the slot before the head
+         queue.put(entries[i], false);
+      for (int i=0; i<500; i+=2) // inserted in the middle
+         queue.put(entries[i], false);
+      queue.put(entries[7], false); // is ignored
+      assertEquals(1000L, queue.getNumOfEntries());
+      assertEquals(10000L, queue.getNumOfBytes());
+      assertEquals(500L, queue.getNumOfPersistentEntries());
+      List all = queue.peek(-1, -1L);
+      assertEquals(1000, all.size());
+      assertSorted(all);
+
+      for (int i=0; i<1000; i+=3) // holes everywhere
+         assertEquals(1, queue.removeRandom(entries[i]));
+      assertEquals(0, queue.removeRandom(entries[0]));
+      assertEquals(666L, queue.getNumOfEntries());
+      assertEquals(6660L, queue.getNumOfBytes());
+      all = queue.peek(-1, -1L);
+      assertEquals(666, all.size());
+      assertSorted(all);
+      for (int i=0; i<1000; i+=3) // fill the holes again
+         queue.put(entries[i], false);
+      assertSorted(queue.peek(-1, -1L));
+
+      List same = queue.peekSamePriority(-1, -1L);
+      assertEquals(100, same.size());
+      assertEquals(entries[9].getUniqueId(), ((I_QueueEntry)same.get(0)).getUniqueId());
+
+      List lowest = queue.peekLowest(3, -1L, null, false);
+      assertEquals(entries[990].getUniqueId(), ((I_QueueEntry)lowest.get(0)).getUniqueId());
+      assertEquals(entries[980].getUniqueId(), ((I_QueueEntry)lowest.get(1)).getUniqueId());
+
+      List head = queue.peekWithLimitEntry(entries[18]);
+      assertEquals(101, head.size());
+      assertEquals(102L, queue.removeWithLimitEntry(entries[18], true));
+      assertEquals(898L, queue.getNumOfEntries());
+      assertEquals(8980L, queue.getNumOfBytes());
+      assertEquals(entries[28].getUniqueId(), queue.peek().getUniqueId());
+
+      int taken = 0;
+      while (queue.getNumOfEntries() > 0)
+         taken += queue.takeWithPriority(7, -1L, 0, 9).size();
+      assertEquals(898, taken);
+      assertEquals(0L, queue.getNumOfBytes());
+      assertEquals(0L, queue.getNumOfPersistentEntries());
+      assertNull(queue.peek());
+      queue.shutdown();
+      System.out.println("***RamQueuePluginTest: testOrder [SUCCESS]");
+   }
+
+   /**
+    * @return put and take of all entries in msg/sec, the entries are taken in bursts of 100
+    */
+   private static long[] putTake(RamQueuePlugin queue, DummyEntry[] entries) throws Exception {
+      long start = System.nanoTime();
+      for (int i=0; i<entries.length; i++)
+         queue.put(entries[i], false);
+      long put = System.nanoTime() - start;
+      start = System.nanoTime();
+      int taken = 0;
+      while (taken < entries.length) {
+         ArrayList list = queue.peek(100, -1L);
+         queue.removeRandom((DummyEntry[])list.toArray(new DummyEntry[list.size()]));
+         taken += list.size();
+      }
+      long take = System.nanoTime() - start;
+      assertEquals(0L, queue.getNumOfEntries());
+      return new long[] { entries.length*1000000000L/Math.max(put, 1L), entries.length*1000000000L/Math.max(take, 1L) };
+   }
+
+   /**
+    * Logs the throughput, the first round is the warm up.
+    */
+   public void testThroughput() throws Exception {
+      System.out.println("***RamQueuePluginTest: testThroughput ...");
+      int[] sizes = { 1000, 100000, 1000000 };
+      RamQueuePlugin queue = createQueue("throughput");
+      for (int run=0; run<2; run++) {
+         for (int i=0; i<sizes.length; i++) {
+            if (run == 0 && sizes[i] > 100000)
+               continue;
+            DummyEntry[] entries = createEntries(queue, sizes[i]);
+            long[] rate = putTake(queue, entries);
+            if (run > 0)
+               log.info(sizes[i] + " entries: put=" + rate[0] + " msg/sec take=" + rate[1] + " msg/sec");
+         }
+      }
+      queue.shutdown();
+      System.out.println("***RamQueuePluginTest: testThroughput [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.RamQueuePluginTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(RamQueuePluginTest.class));
+   }
+}
@@ -0,0 +1,240 @@
+package org.xmlBlaster.test.classtest.queue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.contrib.PropertiesInfo;
+import org.xmlBlaster.contrib.db.I_DbPool;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.jdbc.XBGroupCommitter;
+import org.xmlBlaster.util.queue.jdbc.XBMeatFactory;
+import org.xmlBlaster.util.queue.jdbc.XBRefFactory;
+import org.xmlBlaster.util.queue.jdbc.XBStore;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the group commit of the JDBC queue.
+ * <p>
+ * No database is needed, the JDBC pool, connection and statements are simulated
+ * and each commit takes some milliseconds like a fsync of a real database.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.classtest.queue.XBGroupCommitterTest
+ * </p>
+ * @see org.xmlBlaster.util.queue.jdbc.XBGroupCommitter
+ */
+public class XBGroupCommitterTest extends TestCase {
+   private static Logger log = Logger.getLogger(XBGroupCommitterTest.class.getName());
+   private Global glob;
+   private XBMeatFactory meatFactory;
+   private XBRefFactory refFactory;
+   private XBStore store;
+
+   // simulated database, guarded by this
+   private int numCommits;
+   private int numRollbacks;
+   private int numRowsCommitted;
+   private int numRowsPending;
+   private int numErased;
+   private boolean failBatch;
+   private long commitMillis = 5L;
+
+   public XBGroupCommitterTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      this.glob = Global.instance();
+      PropertiesInfo info = new PropertiesInfo(new Properties());
+      info.put("db.url", "jdbc:hsqldb:mem:XBGroupCommitterTest"); // only to choose the SQL dialect
+      this.meatFactory = new XBMeatFactory("queue.jdbc");
+      this.meatFactory.init(info);
+      this.refFactory = new XBRefFactory("queue.jdbc");
+      this.refFactory.init(info);
+      this.store = new XBStore();
+      this.store.setId(4711L);
+   }
+
+   private Object createProxy(Class clazz, InvocationHandler handler) {
+      return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { clazz }, handler);
+   }
+
+   private PreparedStatement createStatement() {
+      return (PreparedStatement)createProxy(PreparedStatement.class, new InvocationHandler() {
+         private int batch;
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("addBatch")) {
+               this.batch++;
+            }
+            else if (name.equals("executeBatch")) {
+               synchronized (XBGroupCommitterTest.this) {
+                  if (failBatch)
+                     throw new SQLException("Simulated batch failure");
+                  numRowsPending += this.batch;
+               }
+               int[] ret = new int[this.batch];
+               for (int i=0; i<ret.length; i++)
+                  ret[i] = 1;
+               this.batch = 0;
+               return ret;
+            }
+            return null;
+         }
+      });
+   }
+
+   private Connection createConnection() {
+      return (Connection)createProxy(Connection.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("hashCode")) // the statement cache keys by connection
+               return new Integer(System.identityHashCode(proxy));
+            if (name.equals("equals"))
+               return Boolean.valueOf(proxy == args[0]);
+            if (name.equals("prepareStatement"))
+               return createStatement();
+            if (name.equals("commit")) {
+               Thread.sleep(commitMillis); // like a fsync
+               synchronized (XBGroupCommitterTest.this) {
+                  numCommits++;
+                  numRowsCommitted += numRowsPending;
+                  numRowsPending = 0;
+               }
+            }
+            else if (name.equals("rollback")) {
+               synchronized (XBGroupCommitterTest.this) {
+                  numRollbacks++;
+                  numRowsPending = 0;
+               }
+            }
+            else if (name.equals("getAutoCommit"))
+               return Boolean.FALSE;
+            return null;
+         }
+      });
+   }
+
+   private XBGroupCommitter createGroupCommitter(long windowMillis, int maxBatch) {
+      I_DbPool pool = (I_DbPool)createProxy(I_DbPool.class, new InvocationHandler() {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("reserve"))
+               return createConnection();
+            if (method.getName().equals("erase")) {
+               synchronized (XBGroupCommitterTest.this) {
+                  numErased++;
+               }
+            }
+            return null;
+         }
+      });
+      return new XBGroupCommitter(pool, this.meatFactory, this.refFactory, windowMillis, maxBatch, true, 0);
+   }
+
+   private I_Entry createEntry() {
+      StorageId storageId = new StorageId(this.glob, "callback", "XBGroupCommitterTest");
+      return new DummyEntry(this.glob, PriorityEnum.NORM_PRIORITY, storageId, 100, true);
+   }
+
+   /**
+    * Many threads put at the same time, they must share commits.
+    */
+   public void testCoalescing() throws Exception {
+      System.out.println("***XBGroupCommitterTest: testCoalescing ...");
+      final XBGroupCommitter committer = createGroupCommitter(2L, 500);
+      final int numThreads = 10;
+      final int numPerThread = 50;
+      final Throwable[] error = new Throwable[1];
+      Thread[] threads = new Thread[numThreads];
+      long start = System.currentTimeMillis();
+      for (int i=0; i<numThreads; i++) {
+         threads[i] = new Thread("GroupCommit-" + i) {
+            public void run() {
+               try {
+                  for (int j=0; j<numPerThread; j++) {
+                     assertTrue(committer.addEntries(store, new I_Entry[] { createEntry() }));
+                  }
+               }
+               catch (Throwable e) {
+                  error[0] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i=0; i<numThreads; i++)
+         threads[i].join();
+      long elapsed = System.currentTimeMillis() - start;
+      if (error[0] != null)
+         fail(error[0].toString());
+
+      int numRequests = numThreads * numPerThread;
+      synchronized (this) {
+         log.info(numRequests + " puts of " + numThreads + " threads took " + elapsed + " ms with " + this.numCommits
+                  + " commits, one commit per put would take at least " + (numRequests*this.commitMillis) + " ms: " + committer.toXml(""));
+         assertEquals(numRequests * 2, this.numRowsCommitted); // meat and ref
+         assertEquals(this.numCommits, committer.getNumCommits());
+         assertTrue("No commits were shared", this.numCommits < numRequests);
+      }
+      assertEquals(numRequests, committer.getNumRequests());
+      assertTrue(committer.getMaxBatchSize() > 1);
+      assertTrue(committer.getMaxBatchSize() <= numThreads);
+      assertTrue(committer.getAverageCommitMillis() >= this.commitMillis - 1);
+      System.out.println("***XBGroupCommitterTest: testCoalescing [SUCCESS]");
+   }
+
+   /**
+    * Deletes report the number of rows, like XBDatabaseAccessor.deleteEntry().
+    */
+   public void testDelete() throws Exception {
+      System.out.println("***XBGroupCommitterTest: testDelete ...");
+      XBGroupCommitter committer = createGroupCommitter(1L, 10);
+      assertEquals(1, committer.deleteEntry(this.store, 1L, 1L));
+      assertEquals(1, committer.deleteEntry(this.store, -1L, 2L));
+      assertEquals(1, committer.deleteEntry(this.store, 3L, -1L));
+      assertEquals(0, committer.deleteEntry(this.store, -1L, -1L));
+      assertEquals(4, committer.getNumCommits());
+      assertEquals(4, this.numRowsCommitted);
+      System.out.println("***XBGroupCommitterTest: testDelete [SUCCESS]");
+   }
+
+   /**
+    * A failing batch is rolled back and the callers are told to redo their request.
+    */
+   public void testFailure() throws Exception {
+      System.out.println("***XBGroupCommitterTest: testFailure ...");
+      XBGroupCommitter committer = createGroupCommitter(1L, 10);
+      this.failBatch = true;
+      assertFalse(committer.addEntries(this.store, new I_Entry[] { createEntry(), createEntry() }));
+      assertEquals(-1, committer.deleteEntry(this.store, 1L, 1L));
+      assertEquals(0, this.numCommits);
+      assertEquals(2, this.numRollbacks);
+      assertEquals(2, this.numErased);
+      assertEquals(2, committer.getNumFailedCommits());
+
+      this.failBatch = false;
+      assertTrue(committer.addEntries(this.store, new I_Entry[] { createEntry(), createEntry() }));
+      assertEquals(4, this.numRowsCommitted);
+      assertEquals(1, committer.getNumCommits());
+      System.out.println("***XBGroupCommitterTest: testFailure [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.classtest.queue.XBGroupCommitterTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(XBGroupCommitterTest.class));
+   }
+}
@@ -38,6 +38,8 @@ public class AllTests
       suite.addTest(new TestSuite(org.xmlBlaster.test.client.TestRequestResponse.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.client.TestPersistentSession.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.client.TestLocalProtocol.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.client.TestXbfBinaryQos.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.client.TestPublishArrBatch.class));
      return suite;
    }
 }
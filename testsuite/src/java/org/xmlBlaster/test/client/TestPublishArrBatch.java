@@ -0,0 +1,239 @@
+/*------------------------------------------------------------------------------
+Name:      TestPublishArrBatch.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   publishArr() with runs of messages for the same topic
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.client;
+
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.authentication.SessionInfo;
+import org.xmlBlaster.client.I_XmlBlasterAccess;
+import org.xmlBlaster.client.key.EraseKey;
+import org.xmlBlaster.client.key.GetKey;
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.key.SubscribeKey;
+import org.xmlBlaster.client.qos.ConnectQos;
+import org.xmlBlaster.client.qos.EraseQos;
+import org.xmlBlaster.client.qos.GetQos;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.client.qos.PublishReturnQos;
+import org.xmlBlaster.client.qos.SubscribeQos;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.test.Msg;
+import org.xmlBlaster.test.MsgInterceptor;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.qos.HistoryQos;
+import org.xmlBlaster.util.qos.MsgQosData;
+import org.xmlBlaster.util.qos.address.Destination;
+
+import junit.framework.*;
+
+/**
+ * Publishes arrays mixing runs of messages for the same topic with PtP and
+ * <code>forceUpdate=false</code> messages which are not processed in batch.
+ * Order, return values, updates and history must be the same as with single publish() calls.
+ * testFailureInBatch() checks that a failing message in a run gets its own error handling.
+ * testThroughput() logs the publishArr() rate compared to looped publish() calls.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.client.TestPublishArrBatch
+ * @see org.xmlBlaster.engine.RequestBroker#publishArr
+ */
+public class TestPublishArrBatch extends TestCase
+{
+   private static Logger log = Logger.getLogger(TestPublishArrBatch.class.getName());
+   private Global glob;
+   private final int serverPort = 7627;
+   private EmbeddedXmlBlaster serverThread;
+   private I_XmlBlasterAccess con;
+   private MsgInterceptor updateInterceptor;
+   private final String loginName = "publishArrTester";
+   private final int maxHistory = 30;
+
+   public TestPublishArrBatch(String testName) {
+      this(null, testName);
+   }
+
+   public TestPublishArrBatch(Global glob, String testName) {
+      super(testName);
+      this.glob = glob;
+   }
+
+   protected void setUp() {
+      this.glob = (this.glob == null) ? new Global() : this.glob;
+      this.glob.init(Util.getOtherServerPorts(this.serverPort,
+            new String[] { "-queue/history/maxEntries", ""+this.maxHistory }));
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(this.glob);
+      try {
+         this.con = this.glob.getXmlBlasterAccess();
+         this.updateInterceptor = new MsgInterceptor(this.glob, log, null);
+         ConnectQos connectQos = new ConnectQos(this.glob, this.loginName, "secret");
+         this.con.connect(connectQos, this.updateInterceptor);
+      }
+      catch (Exception e) {
+         fail("Login failed: " + e.toString());
+      }
+   }
+
+   protected void tearDown() {
+      try {
+         this.con.erase(new EraseKey(this.glob, "//key", "XPATH"), new EraseQos(this.glob));
+      }
+      catch (Exception e) {
+         log.warning("Erase failed: " + e.toString());
+      }
+      this.con.disconnect(null);
+      EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      Util.resetPorts(this.glob);
+      this.glob = null;
+   }
+
+   private MsgUnit createMsgUnit(String oid, int index) throws Exception {
+      PublishQos qos = new PublishQos(this.glob);
+      qos.addClientProperty("index", index);
+      return new MsgUnit(new PublishKey(this.glob, oid), ("Hello" + index).getBytes(), qos);
+   }
+
+   public void testMixedArray() throws Exception {
+      System.out.println("***TestPublishArrBatch: testMixedArray ...");
+      String[] oids = { "BatchA", "BatchB" };
+      for (int i=0; i<oids.length; i++)
+         this.con.subscribe(new SubscribeKey(this.glob, oids[i]), new SubscribeQos(this.glob));
+
+      // A run of 20 for BatchA, 1 for BatchB, a PtP, 20 for BatchA with one forceUpdate=false in between
+      ArrayList list = new ArrayList();
+      int index = 0;
+      for (int i=0; i<20; i++)
+         list.add(createMsgUnit(oids[0], index++));
+      list.add(createMsgUnit(oids[1], index++));
+      PublishQos ptpQos = new PublishQos(this.glob, new Destination(this.glob, this.con.getSessionName()));
+      list.add(new MsgUnit(new PublishKey(this.glob, "BatchPtP"), "ptp".getBytes(), ptpQos));
+      int ptpIndex = index++;
+      for (int i=0; i<20; i++) {
+         MsgUnit msgUnit = createMsgUnit(oids[0], index++);
+         if (i == 10)
+            ((MsgQosData)msgUnit.getQosData()).setForceUpdate(false);
+         list.add(msgUnit);
+      }
+      MsgUnit[] arr = (MsgUnit[])list.toArray(new MsgUnit[list.size()]);
+
+      PublishReturnQos[] ret = this.con.publishArr(arr);
+      assertEquals(arr.length, ret.length);
+      for (int i=0; i<arr.length; i++)
+         assertEquals("index=" + i, arr[i].getKeyOid(), ret[i].getKeyOid());
+
+      assertEquals(41, this.updateInterceptor.waitOnUpdate(10000L, oids[0], null, 40) +
+                       this.updateInterceptor.waitOnUpdate(10000L, oids[1], null, 1));
+      assertEquals(1, this.updateInterceptor.waitOnUpdate(10000L, "BatchPtP", null, 1));
+
+      Msg[] msgs = this.updateInterceptor.getMsgs(oids[0], null);
+      int expected = 0;
+      for (int i=0; i<msgs.length; i++) {
+         if (expected == 20) expected++; // BatchB
+         if (expected == ptpIndex) expected++;
+         assertEquals("Order", expected, msgs[i].getUpdateQos().getClientProperty("index", -1));
+         assertEquals("Hello" + expected, msgs[i].getContentStr());
+         assertEquals(this.loginName, msgs[i].getUpdateQos().getSender().getLoginName());
+         expected++;
+      }
+
+      // The history queue holds the last maxHistory messages of the topic, newest first
+      GetQos getQos = new GetQos(this.glob);
+      getQos.setHistoryQos(new HistoryQos(this.glob, 100));
+      MsgUnit[] hist = this.con.get(new GetKey(this.glob, oids[0]), getQos);
+      assertEquals(this.maxHistory, hist.length);
+      expected = index-1;
+      for (int i=0; i<hist.length; i++) {
+         if (expected == ptpIndex) expected -= 2; // PtP and BatchB
+         assertEquals("History", expected, hist[i].getQosData().getClientProperty("index", -1));
+         expected--;
+      }
+      System.out.println("***TestPublishArrBatch: testMixedArray [SUCCESS]");
+   }
+
+   /**
+    * The second message of a run for a readonly topic fails, the first one is published
+    * and the error handling (here a dead message as the session does not want exceptions)
+    * belongs to the second one only.
+    */
+   public void testFailureInBatch() throws Exception {
+      System.out.println("***TestPublishArrBatch: testFailureInBatch ...");
+      String oid = "BatchReadonly";
+      String otherOid = "BatchOther";
+      this.con.subscribe(new SubscribeKey(this.glob, oid), new SubscribeQos(this.glob));
+      this.con.subscribe(new SubscribeKey(this.glob, otherOid), new SubscribeQos(this.glob));
+
+      ServerScope serverScope = (ServerScope)this.serverThread.getMain().getGlobal();
+      SessionInfo sessionInfo = serverScope.getRequestBroker().getAuthenticate(null).getSessionInfo(this.con.getSessionName());
+      assertNotNull(sessionInfo);
+      sessionInfo.getConnectQos().setAllowExceptionsThrownToClient(false);
+
+      MsgUnit[] arr = new MsgUnit[3];
+      arr[0] = createMsgUnit(oid, 0);
+      ((MsgQosData)arr[0].getQosData()).setReadonly(true);
+      arr[1] = createMsgUnit(oid, 1);
+      arr[2] = createMsgUnit(otherOid, 2);
+
+      PublishReturnQos[] ret = this.con.publishArr(arr);
+      assertEquals(arr.length, ret.length);
+      assertEquals("The first message is published", oid, ret[0].getKeyOid());
+      assertEquals("The second message fails", Constants.OID_DEAD_LETTER, ret[1].getKeyOid());
+      assertEquals("The third message is published", otherOid, ret[2].getKeyOid());
+
+      assertEquals(1, this.updateInterceptor.waitOnUpdate(10000L, oid, null, 1));
+      assertEquals(1, this.updateInterceptor.waitOnUpdate(10000L, otherOid, null, 1));
+      try { Thread.sleep(500L); } catch (InterruptedException e) {}
+      Msg[] msgs = this.updateInterceptor.getMsgs(oid, null);
+      assertEquals("No duplicate", 1, msgs.length);
+      assertEquals(0, msgs[0].getUpdateQos().getClientProperty("index", -1));
+      assertEquals(1, this.updateInterceptor.getMsgs(otherOid, null).length);
+      System.out.println("***TestPublishArrBatch: testFailureInBatch [SUCCESS]");
+   }
+
+   public void testThroughput() throws Exception {
+      System.out.println("***TestPublishArrBatch: testThroughput ...");
+      String oid = "BatchThroughput";
+      this.con.subscribe(new SubscribeKey(this.glob, oid), new SubscribeQos(this.glob));
+      final int num = 500;
+      MsgUnit[] arr = new MsgUnit[num];
+      for (int i=0; i<num; i++)
+         arr[i] = createMsgUnit(oid, i);
+
+      int expected = 0;
+      for (int run=0; run<3; run++) { // first run is warm up
+         long start = System.nanoTime();
+         for (int i=0; i<num; i++)
+            this.con.publish(arr[i]);
+         expected += num;
+         assertEquals(expected, this.updateInterceptor.waitOnUpdate(20000L, oid, null, expected));
+         long single = msgsPerSec(num, start);
+
+         start = System.nanoTime();
+         this.con.publishArr(arr);
+         expected += num;
+         assertEquals(expected, this.updateInterceptor.waitOnUpdate(20000L, oid, null, expected));
+         long batch = msgsPerSec(num, start);
+         log.info((run==0 ? "Warm up: " : "") + "Published and delivered " + num + " messages: publish()=" +
+                  single + " msg/sec publishArr()=" + batch + " msg/sec");
+      }
+      System.out.println("***TestPublishArrBatch: testThroughput [SUCCESS]");
+   }
+
+   private long msgsPerSec(int num, long startNanos) {
+      return (long)num * 1000000000L / Math.max(1L, System.nanoTime() - startNanos);
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.client.TestPublishArrBatch
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TestPublishArrBatch.class));
+   }
+}
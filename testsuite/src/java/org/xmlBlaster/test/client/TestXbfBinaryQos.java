@@ -0,0 +1,128 @@
+/*------------------------------------------------------------------------------
+Name:      TestXbfBinaryQos.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Binary QoS/key over the SOCKET protocol with old and new peers
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.client;
+
+import java.util.logging.Logger;
+
+import org.xmlBlaster.client.I_XmlBlasterAccess;
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.key.SubscribeKey;
+import org.xmlBlaster.client.qos.ConnectQos;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.client.qos.PublishReturnQos;
+import org.xmlBlaster.client.qos.SubscribeQos;
+import org.xmlBlaster.client.qos.UpdateQos;
+import org.xmlBlaster.test.Msg;
+import org.xmlBlaster.test.MsgInterceptor;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.protocol.socket.SocketExecutor;
+
+import junit.framework.*;
+
+/**
+ * Publishes with every combination of <code>-plugin/socket/binaryQos true/false</code>
+ * on client and server side, a peer with binaryQos=false behaves like an older
+ * xmlBlaster version which doesn't know the binary XBF QoS.
+ * <p />
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.client.TestXbfBinaryQos
+ * @see org.xmlBlaster.util.xbformat.XbfBinaryCodec
+ */
+public class TestXbfBinaryQos extends TestCase
+{
+   private static Logger log = Logger.getLogger(TestXbfBinaryQos.class.getName());
+   private Global glob;
+   private final int serverPort = 7625;
+   private EmbeddedXmlBlaster serverThread;
+
+   public TestXbfBinaryQos(String testName) {
+      this(null, testName);
+   }
+
+   public TestXbfBinaryQos(Global glob, String testName) {
+      super(testName);
+      this.glob = glob;
+   }
+
+   protected void setUp() {
+      this.glob = (this.glob == null) ? new Global() : this.glob;
+   }
+
+   protected void tearDown() {
+      stopServer();
+      Util.resetPorts(this.glob);
+      this.glob = null;
+   }
+
+   private void stopServer() {
+      if (this.serverThread != null) {
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+         this.serverThread = null;
+      }
+   }
+
+   public void testCompatibility() throws Exception {
+      System.out.println("***TestXbfBinaryQos: testCompatibility ...");
+      for (int s=0; s<2; s++) {
+         boolean serverBinary = (s == 0);
+         this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(this.serverPort,
+               new String[] { "-plugin/socket/binaryQos", ""+serverBinary }));
+         for (int c=0; c<2; c++) {
+            boolean clientBinary = (c == 0);
+            String txt = "server binaryQos=" + serverBinary + " client binaryQos=" + clientBinary;
+            publishAndCheck(txt, "BinaryQosTopic-" + s + c, clientBinary, serverBinary && clientBinary);
+            log.info("Success for " + txt);
+         }
+         stopServer();
+      }
+      System.out.println("***TestXbfBinaryQos: testCompatibility [SUCCESS]");
+   }
+
+   private void publishAndCheck(String txt, String oid, boolean clientBinary, boolean expectBinary) throws Exception {
+      Global gg = this.glob.getClone(Util.getOtherServerPorts(this.serverPort,
+            new String[] { "-plugin/socket/binaryQos", ""+clientBinary }));
+      I_XmlBlasterAccess con = gg.getXmlBlasterAccess();
+      MsgInterceptor updateInterceptor = new MsgInterceptor(gg, log, null);
+      con.connect(new ConnectQos(gg, "binaryQosTester", "secret"), updateInterceptor);
+      con.subscribe(new SubscribeKey(gg, oid), new SubscribeQos(gg));
+
+      final int numMsgs = 10;
+      for (int i=0; i<numMsgs; i++) {
+         PublishKey key = new PublishKey(gg, oid);
+         if (i == numMsgs-1)
+            key.setClientTags("<a>x</a>"); // not supported by the binary form, sent as XML
+         PublishQos qos = new PublishQos(gg);
+         qos.setPriority(PriorityEnum.toPriorityEnum(i));
+         qos.addClientProperty("index", i);
+         qos.addClientProperty("text", "<" + i + ">");
+         PublishReturnQos ret = con.publish(new MsgUnit(key, ("Hello" + i).getBytes(), qos));
+         assertEquals(txt, oid, ret.getKeyOid());
+      }
+      assertEquals(txt, numMsgs, updateInterceptor.waitOnUpdate(10000L, oid, null, numMsgs));
+      Msg[] msgs = updateInterceptor.getMsgs(oid, null);
+      for (int i=0; i<numMsgs; i++) {
+         UpdateQos updateQos = msgs[i].getUpdateQos();
+         int index = updateQos.getClientProperty("index", -1);
+         assertEquals(txt, "Hello" + index, msgs[i].getContentStr());
+         assertEquals(txt, "<" + index + ">", updateQos.getClientProperty("text", ""));
+         assertEquals(txt, PriorityEnum.toPriorityEnum(index), updateQos.getPriority());
+         assertEquals(txt, "binaryQosTester", updateQos.getSender().getLoginName());
+      }
+      assertEquals(txt, expectBinary, ((SocketExecutor)con.getCbServer()).isBinaryQosPeer());
+      con.disconnect(null);
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.client.TestXbfBinaryQos
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TestXbfBinaryQos.class));
+   }
+}
@@ -23,6 +23,8 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.cluster.SubscribeXPathTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.cluster.DirtyReadTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.cluster.EraseTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.cluster.RoutingCacheTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.cluster.ConsistentHashTest.class));
       return suite;
    }
    // To force compilation:
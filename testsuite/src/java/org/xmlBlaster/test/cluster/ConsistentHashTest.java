@@ -0,0 +1,210 @@
+/*------------------------------------------------------------------------------
+Name:      ConsistentHashTest.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.cluster;
+
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.cluster.ClusterManager;
+import org.xmlBlaster.engine.cluster.ClusterNode;
+import org.xmlBlaster.engine.cluster.NodeMasterInfo;
+import org.xmlBlaster.engine.cluster.NodeParser;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.cluster.NodeId;
+import org.xmlBlaster.util.def.MethodName;
+
+/**
+ * Tests the consistent hash load balancer.
+ * <p>
+ * 8 cluster nodes are master of the domain RUGBY, the topics are sharded over them.
+ * testDistribution() checks that each node gets its share, testChurn() checks that
+ * only the topics of a leaving or joining node move and testWeight() checks that a loaded node gets less topics.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.cluster.ConsistentHashTest
+ * </p>
+ * @see org.xmlBlaster.engine.cluster.simpledomain.ConsistentHash
+ */
+public class ConsistentHashTest extends TestCase {
+   private static Logger log = Logger.getLogger(ConsistentHashTest.class.getName());
+   private final int serverPort = 9620;
+   private final int numNodes = 8;
+   private final int numTopics = 8000;
+   private EmbeddedXmlBlaster serverThread;
+   private ServerScope serverScope;
+   private ClusterManager clusterManager;
+   private ClusterNode[] clusterNodes;
+   private MsgUnit[] msgUnits;
+
+   public ConsistentHashTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(this.serverPort, new String[] {
+            "-cluster", "true",
+            "-cluster.node.id", "heron",
+            "-LoadBalancerPlugin[ConsistentHash][1.0]", "org.xmlBlaster.engine.cluster.simpledomain.ConsistentHash",
+            "-cluster.loadBalancer.type", "ConsistentHash",
+            "-xmlBlaster/jmx/HtmlAdaptor", "false" }));
+      this.serverScope = this.serverThread.getMain().getGlobal();
+      this.clusterManager = this.serverScope.getClusterManager();
+      if (this.clusterManager == null || !this.clusterManager.isReady()) {
+         tearDown();
+         fail("ClusterManager is not loaded");
+      }
+
+      this.clusterNodes = new ClusterNode[this.numNodes+1];
+      for (int n=0; n<this.clusterNodes.length; n++)
+         this.clusterNodes[n] = createClusterNode("node" + n);
+      for (int n=0; n<this.numNodes; n++) // The last one joins later
+         this.clusterManager.addClusterNode(this.clusterNodes[n]);
+
+      this.msgUnits = new MsgUnit[this.numTopics];
+      for (int i=0; i<this.numTopics; i++)
+         this.msgUnits[i] = new MsgUnit(this.serverScope, "<key oid='ConsistentHashTest-" + i + "' domain='RUGBY'/>",
+                                        ("" + i).getBytes(), "<qos/>", MethodName.PUBLISH);
+   }
+
+   protected void tearDown() {
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      this.clusterManager = null;
+   }
+
+   private ClusterNode createClusterNode(String id) throws Exception {
+      ClusterNode clusterNode = new ClusterNode(this.serverScope, new NodeId(id), null);
+      new NodeParser(this.serverScope, clusterNode, "<clusternode id='" + id + "'><master type='DomainToMaster'>"
+                     + "<key queryType='DOMAIN' domain='RUGBY'/></master></clusternode>");
+      return clusterNode;
+   }
+
+   /**
+    * @return The master node id of each topic
+    */
+   private String[] route() throws Exception {
+      String[] masters = new String[this.numTopics];
+      for (int i=0; i<this.numTopics; i++) {
+         NodeMasterInfo master = this.clusterManager.getConnection(null, this.msgUnits[i], null);
+         assertNotNull("No master for topic " + i, master);
+         masters[i] = master.getId();
+      }
+      return masters;
+   }
+
+   /**
+    * @return The number of topics of each node
+    */
+   private int[] count(String[] masters) {
+      int[] counts = new int[this.clusterNodes.length];
+      for (int i=0; i<masters.length; i++)
+         counts[Integer.parseInt(masters[i].substring("node".length()))]++;
+      return counts;
+   }
+
+   private String toString(int[] counts) {
+      StringBuffer sb = new StringBuffer();
+      for (int n=0; n<counts.length; n++)
+         sb.append(" node").append(n).append("=").append(counts[n]);
+      return sb.toString();
+   }
+
+   /**
+    * Each of the 8 nodes gets about 1/8 of the topics, the same topic always gets the same master.
+    */
+   public void testDistribution() throws Exception {
+      System.out.println("***ConsistentHashTest: testDistribution ...");
+      String[] masters = route();
+      int[] counts = count(masters);
+      log.info(this.numTopics + " topics on " + this.numNodes + " nodes:" + toString(counts));
+      int mean = this.numTopics / this.numNodes;
+      for (int n=0; n<this.numNodes; n++)
+         assertTrue("Uneven distribution:" + toString(counts), Math.abs(counts[n] - mean) < mean / 5);
+      assertEquals(0, counts[this.numNodes]);
+
+      String[] again = route();
+      for (int i=0; i<this.numTopics; i++)
+         assertEquals("Topic " + i + " changed its master", masters[i], again[i]);
+      System.out.println("***ConsistentHashTest: testDistribution [SUCCESS]");
+   }
+
+   /**
+    * A leaving node moves only its own topics, a joining node takes only the topics it gets.
+    */
+   public void testChurn() throws Exception {
+      System.out.println("***ConsistentHashTest: testChurn ...");
+      String[] before = route();
+      ClusterNode leaving = this.clusterNodes[3];
+
+      this.clusterManager.removeClusterNode(leaving);
+      String[] after = route();
+      int moved = 0;
+      for (int i=0; i<this.numTopics; i++) {
+         assertFalse(leaving.getId().equals(after[i]));
+         if (!before[i].equals(after[i])) {
+            assertEquals("Topic " + i + " of a remaining node moved", leaving.getId(), before[i]);
+            moved++;
+         }
+      }
+      log.info("Node " + leaving.getId() + " left, " + moved + " of " + this.numTopics + " topics moved:" + toString(count(after)));
+
+      this.clusterManager.addClusterNode(leaving);
+      after = route();
+      for (int i=0; i<this.numTopics; i++)
+         assertEquals("Topic " + i + " did not return to its master", before[i], after[i]);
+
+      ClusterNode joining = this.clusterNodes[this.numNodes];
+      this.clusterManager.addClusterNode(joining);
+      after = route();
+      moved = 0;
+      for (int i=0; i<this.numTopics; i++) {
+         if (!before[i].equals(after[i])) {
+            assertEquals("Topic " + i + " moved to an old node", joining.getId(), after[i]);
+            moved++;
+         }
+      }
+      log.info("Node " + joining.getId() + " joined, " + moved + " of " + this.numTopics + " topics moved:" + toString(count(after)));
+      int share = this.numTopics / (this.numNodes+1);
+      assertTrue("Joining node got " + moved + " topics", Math.abs(moved - share) < share / 5);
+      System.out.println("***ConsistentHashTest: testChurn [SUCCESS]");
+   }
+
+   /**
+    * A node reporting 20% CPU idle gets about a fifth of the topics of an idle node.
+    */
+   public void testWeight() throws Exception {
+      System.out.println("***ConsistentHashTest: testWeight ...");
+      String[] before = route();
+      ClusterNode loaded = this.clusterNodes[0];
+      for (int n=0; n<this.numNodes; n++)
+         this.clusterNodes[n].getNodeStateInfo().setCpu(0, (n == 0) ? 20 : 100);
+
+      String[] after = route();
+      int[] counts = count(after);
+      log.info("Node " + loaded.getId() + " with 20% CPU idle:" + toString(counts));
+      for (int i=0; i<this.numTopics; i++) {
+         if (!before[i].equals(after[i]))
+            assertEquals("Topic " + i + " moved between idle nodes", loaded.getId(), before[i]);
+      }
+      double expected = this.numTopics * 0.2 / (this.numNodes - 1 + 0.2);
+      assertTrue("Loaded node got " + counts[0] + " topics, expected about " + (int)expected,
+                 Math.abs(counts[0] - expected) < expected / 3);
+      System.out.println("***ConsistentHashTest: testWeight [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.cluster.ConsistentHashTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(ConsistentHashTest.class));
+   }
+}
@@ -0,0 +1,178 @@
+/*------------------------------------------------------------------------------
+Name:      RoutingCacheTest.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.cluster;
+
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.engine.cluster.ClusterManager;
+import org.xmlBlaster.engine.cluster.ClusterNode;
+import org.xmlBlaster.engine.cluster.NodeMasterInfo;
+import org.xmlBlaster.engine.cluster.NodeParser;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.cluster.NodeId;
+import org.xmlBlaster.util.def.MethodName;
+
+/**
+ * Tests the routing cache of ClusterManager.getConnection().
+ * <p>
+ * 20 cluster nodes with 50 master rules each are configured, half of the rules
+ * are DOMAIN rules and half are XPATH rules. The message matches the last rule of the last node.
+ * testBenchmark() logs the routing time with and without cache,
+ * testInvalidation() checks that node and rule changes are seen immediately.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.cluster.RoutingCacheTest
+ * </p>
+ * @see org.xmlBlaster.engine.cluster.ClusterManager#getConnection(org.xmlBlaster.authentication.SessionInfo, MsgUnit, org.xmlBlaster.util.qos.address.Destination)
+ */
+public class RoutingCacheTest extends TestCase {
+   private static Logger log = Logger.getLogger(RoutingCacheTest.class.getName());
+   private final int serverPort = 9590;
+   private final int numNodes = 20;
+   private final int numRules = 50;
+   private EmbeddedXmlBlaster serverThread;
+   private ServerScope serverScope;
+   private ClusterManager clusterManager;
+   private ClusterNode[] clusterNodes;
+
+   public RoutingCacheTest(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(this.serverPort, new String[] {
+            "-cluster", "true",
+            "-cluster.node.id", "heron",
+            "-xmlBlaster/jmx/HtmlAdaptor", "false" }));
+      this.serverScope = this.serverThread.getMain().getGlobal();
+      this.clusterManager = this.serverScope.getClusterManager();
+      if (this.clusterManager == null || !this.clusterManager.isReady()) {
+         tearDown();
+         fail("ClusterManager is not loaded");
+      }
+
+      this.clusterNodes = new ClusterNode[this.numNodes];
+      for (int n=0; n<this.numNodes; n++) {
+         StringBuffer xml = new StringBuffer(8192);
+         xml.append("<clusternode id='node").append(n).append("'>");
+         for (int r=0; r<this.numRules; r++) {
+            xml.append("<master type='DomainToMaster'>");
+            if ((r % 2) == 0)
+               xml.append("<key queryType='DOMAIN' domain='domain").append(n).append("_").append(r).append("'/>");
+            else
+               xml.append("<key queryType='XPATH'>//rule").append(n).append("_").append(r).append("</key>");
+            xml.append("</master>");
+         }
+         xml.append("</clusternode>");
+         this.clusterNodes[n] = new ClusterNode(this.serverScope, new NodeId("node" + n), null);
+         new NodeParser(this.serverScope, this.clusterNodes[n], xml.toString());
+         this.clusterManager.addClusterNode(this.clusterNodes[n]);
+      }
+   }
+
+   protected void tearDown() {
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+      this.clusterManager = null;
+   }
+
+   /**
+    * A message matching the XPATH rule of the last node.
+    */
+   private MsgUnit createMsgUnit(int i) throws Exception {
+      int n = this.numNodes-1;
+      int r = this.numRules-1;
+      String key = "<key oid='RoutingCacheTest-" + i + "' domain='RUGBY'><rule" + n + "_" + r + "/></key>";
+      return new MsgUnit(this.serverScope, key, ("" + i).getBytes(), "<qos/>", MethodName.PUBLISH);
+   }
+
+   /**
+    * @return The elapsed nanos per routing decision
+    */
+   private long route(MsgUnit[] msgUnits, int numLoops) throws Exception {
+      long start = System.nanoTime();
+      for (int i=0; i<numLoops; i++) {
+         NodeMasterInfo master = this.clusterManager.getConnection(null, msgUnits[i % msgUnits.length], null);
+         assertEquals("node" + (this.numNodes-1), master.getId());
+      }
+      return (System.nanoTime() - start) / numLoops;
+   }
+
+   /**
+    * Logs the routing time of 10 topics with and without routing cache.
+    */
+   public void testBenchmark() throws Exception {
+      System.out.println("***RoutingCacheTest: testBenchmark ...");
+      MsgUnit[] msgUnits = new MsgUnit[10];
+      for (int i=0; i<msgUnits.length; i++)
+         msgUnits[i] = createMsgUnit(i);
+
+      this.clusterManager.setRoutingCacheMaxEntries(0);
+      route(msgUnits, 100); // warm up
+      long uncached = route(msgUnits, 500);
+      assertEquals(0, this.clusterManager.getRoutingCacheSize());
+
+      this.clusterManager.setRoutingCacheMaxEntries(10000);
+      route(msgUnits, 1000); // warm up
+      long cached = route(msgUnits, 100000);
+      assertEquals(msgUnits.length, this.clusterManager.getRoutingCacheSize());
+      assertEquals(msgUnits.length, this.clusterManager.getRoutingCacheMisses());
+
+      log.info(this.numNodes + " nodes x " + this.numRules + " rules: getConnection() without routing cache "
+               + (uncached/1000L) + " micro sec, with routing cache " + (cached/1000L) + " micro sec ("
+               + this.clusterManager.getRoutingCacheHits() + " hits)");
+      assertTrue("Routing cache is not faster: " + cached + " >= " + uncached + " nanos", cached < uncached);
+      System.out.println("***RoutingCacheTest: testBenchmark [SUCCESS]");
+   }
+
+   /**
+    * Adding and removing nodes or rules outdates the cached decisions.
+    */
+   public void testInvalidation() throws Exception {
+      System.out.println("***RoutingCacheTest: testInvalidation ...");
+      MsgUnit msgUnit = createMsgUnit(0);
+      ClusterNode last = this.clusterNodes[this.numNodes-1];
+      assertEquals(last.getId(), this.clusterManager.getConnection(null, msgUnit, null).getId());
+      assertEquals(last.getId(), this.clusterManager.getConnection(null, msgUnit, null).getId());
+      assertEquals(1, this.clusterManager.getRoutingCacheHits());
+
+      this.clusterManager.removeClusterNode(last);
+      assertEquals(0, this.clusterManager.getRoutingCacheSize());
+      assertNull("Removed node is still master", this.clusterManager.getConnection(null, msgUnit, null));
+
+      this.clusterManager.addClusterNode(last);
+      assertEquals(last.getId(), this.clusterManager.getConnection(null, msgUnit, null).getId());
+
+      NodeMasterInfo[] rules = last.getNodeMasterInfos();
+      for (int i=0; i<rules.length; i++)
+         rules[i].shutdown(); // removes the rule from its node
+      assertNull("Removed rule is still used", this.clusterManager.getConnection(null, msgUnit, null));
+
+      new NodeParser(this.serverScope, last, "<clusternode id='" + last.getId() + "'><master type='DomainToMaster'>"
+                     + "<key queryType='DOMAIN' domain='RUGBY'/></master></clusternode>");
+      assertEquals(last.getId(), this.clusterManager.getConnection(null, msgUnit, null).getId());
+
+      last.setAllowed(false); // checked on each call, not cached
+      assertNull("Not allowed node is used", this.clusterManager.getConnection(null, msgUnit, null));
+      last.setAllowed(true);
+      assertEquals(last.getId(), this.clusterManager.getConnection(null, msgUnit, null).getId());
+      System.out.println("***RoutingCacheTest: testInvalidation [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.cluster.RoutingCacheTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(RoutingCacheTest.class));
+   }
+}
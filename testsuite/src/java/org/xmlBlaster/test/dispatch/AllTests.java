@@ -18,6 +18,8 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.dispatch.ConfigurationParserTest.class));
       suite.addTest(TestPriorizedDispatchPlugin.suite());
       suite.addTest(TestPriorizedDispatchWithLostCallback.suite());
+      suite.addTest(new TestSuite(org.xmlBlaster.test.dispatch.TestDispatchWindow.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.dispatch.TestAdaptiveBurstMode.class));
       return suite;
    }
 }
@@ -0,0 +1,125 @@
+/*------------------------------------------------------------------------------
+Name:      DelayingProxy.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.dispatch;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * A TCP proxy which delays each direction by a fixed time without limiting the bandwidth.
+ */
+class DelayingProxy implements Runnable {
+   private static Logger log = Logger.getLogger(DelayingProxy.class.getName());
+   private final ServerSocket serverSocket;
+   private final int targetPort;
+   private final long delay;
+   private final List<Socket> sockets = new ArrayList<Socket>();
+   private volatile boolean running = true;
+
+
+   DelayingProxy(int port, int targetPort, long delay) throws Exception {
+      this.serverSocket = new ServerSocket(port);
+      this.targetPort = targetPort;
+      this.delay = delay;
+      Thread thread = new Thread(this, "DelayingProxy");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   public void run() {
+      while (this.running) {
+         try {
+            Socket client = this.serverSocket.accept();
+            Socket server = new Socket("127.0.0.1", this.targetPort);
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            synchronized (this.sockets) {
+               this.sockets.add(client);
+               this.sockets.add(server);
+            }
+            pump(client, server);
+            pump(server, client);
+         }
+         catch (Exception e) {
+            if (this.running)
+               log.warning("Proxy failed: " + e.toString());
+         }
+      }
+   }
+
+   private void pump(final Socket from, final Socket to) throws Exception {
+      final InputStream in = from.getInputStream();
+      final OutputStream out = to.getOutputStream();
+      final BlockingQueue<Object[]> packets = new LinkedBlockingQueue<Object[]>();
+      Thread reader = new Thread("DelayingProxyReader") {
+         public void run() {
+            byte[] buf = new byte[65536];
+            try {
+               while (true) {
+                  int len = in.read(buf);
+                  if (len < 0)
+                     break;
+                  byte[] packet = new byte[len];
+                  System.arraycopy(buf, 0, packet, 0, len);
+                  packets.put(new Object[] { new Long(System.currentTimeMillis() + delay), packet });
+               }
+            }
+            catch (Exception e) {
+            }
+            try { packets.put(new Object[] { new Long(System.currentTimeMillis() + delay), null }); } catch (InterruptedException e) {}
+         }
+      };
+      Thread writer = new Thread("DelayingProxyWriter") {
+         public void run() {
+            try {
+               while (true) {
+                  Object[] packet = packets.take();
+                  long sleep = ((Long)packet[0]).longValue() - System.currentTimeMillis();
+                  if (sleep > 0L)
+                     Thread.sleep(sleep);
+                  if (packet[1] == null)
+                     break;
+                  out.write((byte[])packet[1]);
+                  out.flush();
+               }
+            }
+            catch (Exception e) {
+            }
+            try { from.close(); } catch (Exception e) {}
+            try { to.close(); } catch (Exception e) {}
+         }
+      };
+      reader.setDaemon(true);
+      writer.setDaemon(true);
+      reader.start();
+      writer.start();
+   }
+
+   /**
+    * Closes all current connections, new ones are accepted.
+    */
+   void dropConnections() {
+      synchronized (this.sockets) {
+         for (int i=0; i<this.sockets.size(); i++) {
+            try { this.sockets.get(i).close(); } catch (Exception e) {}
+         }
+         this.sockets.clear();
+      }
+   }
+
+   void shutdown() {
+      this.running = false;
+      try { this.serverSocket.close(); } catch (Exception e) {}
+      dropConnections();
+   }
+}
@@ -0,0 +1,215 @@
+/*------------------------------------------------------------------------------
+Name:      TestAdaptiveBurstMode.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.dispatch;
+
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.authentication.SessionInfo;
+import org.xmlBlaster.client.I_XmlBlasterAccess;
+import org.xmlBlaster.client.qos.ConnectQos;
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.SessionName;
+import org.xmlBlaster.util.dispatch.AdaptiveBurstMode;
+import org.xmlBlaster.util.dispatch.DispatchStatistic;
+import org.xmlBlaster.util.qos.address.CallbackAddress;
+
+/**
+ * Tests the callback bulk size and collect time chosen by <code>burstMode/adaptive=true</code>.
+ * <p>
+ * testSlowAndFastSubscriber() connects a slow subscriber over a local proxy which delays every packet
+ * and a fast subscriber directly, it logs the delivery time of the slow subscriber with the static
+ * burst mode and with the adaptive one and the values reported by the DispatchStatistic.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.dispatch.TestAdaptiveBurstMode
+ * </p>
+ * @see org.xmlBlaster.util.dispatch.AdaptiveBurstMode
+ */
+public class TestAdaptiveBurstMode extends TestCase {
+   private static Logger log = Logger.getLogger(TestAdaptiveBurstMode.class.getName());
+   private final int serverPort = 9580;
+   private final int proxyPort = 9585;
+   /** Delay of each direction in millis */
+   private final long delay = 20L;
+   private final int numMsgs = 300;
+   private EmbeddedXmlBlaster serverThread;
+   private ServerScope serverScope;
+   private DelayingProxy proxy;
+   private I_XmlBlasterAccess publisher;
+
+   public TestAdaptiveBurstMode(String name) {
+      super(name);
+   }
+
+   protected void tearDown() {
+      if (this.publisher != null)
+         this.publisher.disconnect(null);
+      this.publisher = null;
+      if (this.proxy != null)
+         this.proxy.shutdown();
+      this.proxy = null;
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+   }
+
+   private void startServer() throws Exception {
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(this.serverPort, new String[] {
+            "-cluster.node.id", "adaptiveTest",
+            "-xmlBlaster/jmx/HtmlAdaptor", "false" }));
+      this.serverScope = this.serverThread.getMain().getGlobal();
+      this.proxy = new DelayingProxy(this.proxyPort, this.serverPort-1, this.delay);
+      Global glob = new Global(new String[] { "-protocol", "SOCKET", "-dispatch/connection/plugin/socket/port", "" + (this.serverPort-1) });
+      this.publisher = glob.getXmlBlasterAccess();
+      this.publisher.connect(new ConnectQos(glob, "adaptivePublisher", "secret"), null);
+   }
+
+   private I_XmlBlasterAccess connectSubscriber(String loginName, boolean viaProxy, boolean adaptive, UpdateCounter counter) throws Exception {
+      Global glob = new Global(new String[] { "-protocol", "SOCKET",
+            "-dispatch/connection/plugin/socket/port", "" + ((viaProxy) ? this.proxyPort : this.serverPort-1),
+            "-dispatch/connection/pingInterval", "0" });
+      ConnectQos qos = new ConnectQos(glob, loginName, "secret");
+      qos.getSessionQos().setSessionName(new SessionName(glob, "client/" + loginName + "/session/1"));
+      CallbackAddress cbAddress = new CallbackAddress(glob);
+      cbAddress.setBurstModeAdaptive(adaptive);
+      cbAddress.setBurstModeMaxCollectTime(50L);
+      qos.addCallbackAddress(cbAddress);
+      I_XmlBlasterAccess con = glob.getXmlBlasterAccess();
+      con.connect(qos, counter);
+      con.subscribe("<key oid='TestAdaptiveBurstMode-" + loginName + "'/>", "<qos/>");
+      return con;
+   }
+
+   private SessionInfo getSessionInfo(String loginName) {
+      return this.serverScope.getRequestBroker().getAuthenticate(null).getSessionInfo(new SessionName(this.serverScope, "client/" + loginName + "/session/1"));
+   }
+
+   /**
+    * @return The milliseconds until all messages arrived
+    */
+   private long publishAndWait(String loginName, UpdateCounter counter) throws Exception {
+      MsgUnit[] msgUnits = new MsgUnit[this.numMsgs];
+      for (int i=0; i<this.numMsgs; i++)
+         msgUnits[i] = new MsgUnit("<key oid='TestAdaptiveBurstMode-" + loginName + "'/>", ("" + i).getBytes(), "<qos/>");
+      long start = System.currentTimeMillis();
+      this.publisher.publishArr(msgUnits);
+      assertTrue("Missing messages for " + loginName + ": " + counter, counter.waitOn(this.numMsgs, 120000L));
+      return System.currentTimeMillis() - start;
+   }
+
+   /**
+    * Feeds the controller with measurements of a slow and a fast client.
+    */
+   public void testController() throws Exception {
+      System.out.println("***TestAdaptiveBurstMode: testController ...");
+      DispatchStatistic statistic = new DispatchStatistic();
+      AdaptiveBurstMode adaptive = new AdaptiveBurstMode(statistic, 100, 50L);
+      assertEquals(1, adaptive.getMaxEntries());
+      assertEquals(0L, adaptive.getCollectTime());
+      assertEquals(1, statistic.getBurstModeMaxEntries());
+
+      // A backlog: the bulks grow up to the upper bound as each bulk takes 40 millis
+      long now = 1000L;
+      for (int i=0; i<10; i++)
+         adaptive.sent(adaptive.getMaxEntries(), 40L, 1000L, now += 40L);
+      assertEquals(100, adaptive.getMaxEntries());
+      assertEquals(0L, adaptive.getCollectTime());
+      assertEquals(40L, statistic.getAvgSendLatency());
+
+      // The queue is drained: smaller bulks and for this slow client a collect time
+      adaptive.sent(3, 40L, 0L, now += 40L);
+      assertEquals(50, adaptive.getMaxEntries());
+      assertEquals(20L, adaptive.getCollectTime());
+      assertEquals(20L, statistic.getBurstModeCollectTime());
+      for (int i=0; i<10; i++)
+         adaptive.sent(1, 40L, 0L, now += 40L);
+      assertEquals(1, adaptive.getMaxEntries());
+
+      // A fast client gets no collect time
+      adaptive = new AdaptiveBurstMode(statistic, -1, 50L);
+      for (int i=0; i<10; i++)
+         adaptive.sent(1, 1L, 0L, now += 1L);
+      assertEquals(0L, adaptive.getCollectTime());
+      for (int i=0; i<20; i++)
+         adaptive.sent(adaptive.getMaxEntries(), 1L, 100000L, now += 1L);
+      assertEquals("Unlimited maxEntries is bound", AdaptiveBurstMode.DEFAULT_MAX_ENTRIES, adaptive.getMaxEntries());
+      System.out.println("***TestAdaptiveBurstMode: testController [SUCCESS]");
+   }
+
+   /**
+    * A client which takes 5 millis per message doesn't ack faster with bigger bulks,
+    * the bulks stop growing until the queue is drained.
+    */
+   public void testAckRateLimitsGrowth() throws Exception {
+      System.out.println("***TestAdaptiveBurstMode: testAckRateLimitsGrowth ...");
+      AdaptiveBurstMode adaptive = new AdaptiveBurstMode(new DispatchStatistic(), 100, 50L);
+      long now = 1000L;
+      for (int i=0; i<10; i++) {
+         int num = adaptive.getMaxEntries();
+         adaptive.sent(num, num*5L, 1000L, now += num*5L);
+      }
+      assertEquals("Doubling 2 to 4 didn't raise the ack rate", 4, adaptive.getMaxEntries());
+
+      // The queue is drained, a new backlog starts growing again
+      adaptive.sent(4, 20L, 0L, now += 20L);
+      adaptive.sent(4, 4L, 1000L, now += 4L);
+      assertEquals(8, adaptive.getMaxEntries());
+      System.out.println("***TestAdaptiveBurstMode: testAckRateLimitsGrowth [SUCCESS]");
+   }
+
+   /**
+    * A slow subscriber gets big bulks, a fast one gets no collect time.
+    */
+   public void testSlowAndFastSubscriber() throws Exception {
+      System.out.println("***TestAdaptiveBurstMode: testSlowAndFastSubscriber ...");
+      startServer();
+
+      UpdateCounter counter = new UpdateCounter();
+      I_XmlBlasterAccess con = connectSubscriber("slowStatic", true, false, counter);
+      long slowStatic = publishAndWait("slowStatic", counter);
+      assertEquals(-1, getSessionInfo("slowStatic").getBurstModeMaxEntries());
+      con.disconnect(null);
+
+      counter = new UpdateCounter();
+      con = connectSubscriber("slowAdaptive", true, true, counter);
+      long slowAdaptive = publishAndWait("slowAdaptive", counter);
+      SessionInfo slow = getSessionInfo("slowAdaptive");
+      log.info("Slow subscriber: " + slow.getDispatchStatistic().toXml(""));
+      assertTrue("Bulk size did not grow for the slow subscriber", slow.getBurstModeMaxEntries() > 1);
+      assertTrue(slow.getAvgSendLatency() > 0L);
+      con.disconnect(null);
+
+      counter = new UpdateCounter();
+      con = connectSubscriber("fastAdaptive", false, true, counter);
+      for (int i=0; i<20; i++) {
+         this.publisher.publish(new MsgUnit("<key oid='TestAdaptiveBurstMode-fastAdaptive'/>", ("" + i).getBytes(), "<qos/>"));
+         assertTrue(counter.waitOn(i+1, 10000L));
+      }
+      SessionInfo fast = getSessionInfo("fastAdaptive");
+      log.info("Fast subscriber: " + fast.getDispatchStatistic().toXml(""));
+      assertEquals("A fast subscriber has no collect time", 0L, fast.getBurstModeCollectTime());
+      con.disconnect(null);
+
+      log.info(this.numMsgs + " callbacks with " + (2*this.delay) + " ms round trip: static burst mode "
+               + slowStatic + " ms, adaptive burst mode " + slowAdaptive + " ms");
+      assertTrue("Adaptive burst mode is not faster: " + slowAdaptive + " >= " + slowStatic, slowAdaptive < slowStatic);
+      System.out.println("***TestAdaptiveBurstMode: testSlowAndFastSubscriber [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.dispatch.TestAdaptiveBurstMode
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TestAdaptiveBurstMode.class));
+   }
+}
@@ -0,0 +1,220 @@
+/*------------------------------------------------------------------------------
+Name:      TestDispatchWindow.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.dispatch;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlBlaster.client.I_XmlBlasterAccess;
+import org.xmlBlaster.client.qos.ConnectQos;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.Constants;
+import org.xmlBlaster.util.def.PriorityEnum;
+import org.xmlBlaster.util.dispatch.DispatchWindow;
+import org.xmlBlaster.util.qos.address.CallbackAddress;
+import org.xmlBlaster.util.qos.storage.CbQueueProperty;
+import org.xmlBlaster.util.queue.I_Entry;
+import org.xmlBlaster.util.queue.StorageId;
+import org.xmlBlaster.util.queue.ram.RamQueuePlugin;
+import org.xmlBlaster.util.queuemsg.DummyEntry;
+
+/**
+ * Tests the pipelined callback delivery with <code>burstMode/windowSize</code>.
+ * <p>
+ * The subscriber connects with SOCKET over a local proxy which delays every
+ * packet, the callbacks use the same connection.
+ * testThroughputVersusWindowSize() logs the callback throughput for different window sizes,
+ * testRedeliveryOnReconnect() drops the connection while bulks are on the wire
+ * and checks that all messages arrive after the reconnect,
+ * testMixedPriorities() checks the window on a queue with two priorities.
+ * </p>
+ * <p>
+ * Invoke: java junit.textui.TestRunner org.xmlBlaster.test.dispatch.TestDispatchWindow
+ * </p>
+ * @see org.xmlBlaster.util.dispatch.DispatchWindow
+ */
+public class TestDispatchWindow extends TestCase {
+   private static Logger log = Logger.getLogger(TestDispatchWindow.class.getName());
+   private final int serverPort = 9570;
+   private final int proxyPort = 9575;
+   /** Delay of each direction in millis */
+   private final long delay = 20L;
+   private final int numMsgs = 200;
+   private final int burstModeMaxEntries = 5;
+   private EmbeddedXmlBlaster serverThread;
+   private DelayingProxy proxy;
+   private I_XmlBlasterAccess publisher;
+
+   public TestDispatchWindow(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(Util.getOtherServerPorts(this.serverPort, new String[] {
+            "-cluster.node.id", "windowTest",
+            "-xmlBlaster/jmx/HtmlAdaptor", "false" }));
+      this.proxy = new DelayingProxy(this.proxyPort, this.serverPort-1, this.delay);
+      Global glob = new Global(new String[] { "-protocol", "SOCKET", "-dispatch/connection/plugin/socket/port", "" + (this.serverPort-1) });
+      this.publisher = glob.getXmlBlasterAccess();
+      this.publisher.connect(new ConnectQos(glob, "windowPublisher", "secret"), null);
+   }
+
+   protected void tearDown() {
+      if (this.publisher != null)
+         this.publisher.disconnect(null);
+      this.publisher = null;
+      if (this.proxy != null)
+         this.proxy.shutdown();
+      this.proxy = null;
+      if (this.serverThread != null)
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+      this.serverThread = null;
+   }
+
+   /**
+    * Connects a subscriber over the proxy.
+    */
+   private I_XmlBlasterAccess connectSubscriber(String loginName, int windowSize, UpdateCounter counter) throws Exception {
+      Global glob = new Global(new String[] { "-protocol", "SOCKET",
+            "-dispatch/connection/plugin/socket/port", "" + this.proxyPort,
+            "-dispatch/connection/delay", "200",
+            "-dispatch/connection/pingInterval", "0" });
+      ConnectQos qos = new ConnectQos(glob, loginName, "secret");
+      qos.getSessionQos().setSessionName(new org.xmlBlaster.util.SessionName(glob, "client/" + loginName + "/session/1"));
+      CallbackAddress cbAddress = new CallbackAddress(glob);
+      cbAddress.setBurstModeMaxEntries(this.burstModeMaxEntries);
+      cbAddress.setBurstModeWindowSize(windowSize);
+      cbAddress.setRetries(-1);
+      cbAddress.setDelay(200L);
+      qos.addCallbackAddress(cbAddress);
+      I_XmlBlasterAccess con = glob.getXmlBlasterAccess();
+      con.connect(qos, counter);
+      return con;
+   }
+
+   private void publish(String oid) throws Exception {
+      MsgUnit[] msgUnits = new MsgUnit[this.numMsgs];
+      for (int i=0; i<this.numMsgs; i++)
+         msgUnits[i] = new MsgUnit("<key oid='" + oid + "'/>", ("" + i).getBytes(), "<qos/>");
+      this.publisher.publishArr(msgUnits);
+   }
+
+   /**
+    * @return The milliseconds until all messages arrived
+    */
+   private long run(int windowSize) throws Exception {
+      String oid = "TestDispatchWindow-" + windowSize;
+      UpdateCounter counter = new UpdateCounter();
+      I_XmlBlasterAccess con = connectSubscriber("window" + windowSize, windowSize, counter);
+      con.subscribe("<key oid='" + oid + "'/>", "<qos/>");
+      long start = System.currentTimeMillis();
+      publish(oid);
+      assertTrue("Missing messages with windowSize=" + windowSize + ": " + counter, counter.waitOn(this.numMsgs, 60000L));
+      long elapsed = System.currentTimeMillis() - start;
+      assertEquals("Duplicate messages with windowSize=" + windowSize, 0, counter.getNumDuplicates());
+      con.disconnect(null);
+      log.info("burstMode/windowSize=" + windowSize + " maxEntries=" + this.burstModeMaxEntries + " round trip=" + (2*this.delay) + " ms: "
+               + this.numMsgs + " callbacks in " + elapsed + " ms, " + (this.numMsgs*1000L/Math.max(1L,elapsed)) + " msg/sec");
+      return elapsed;
+   }
+
+   /**
+    * Logs the callback throughput for the window sizes 1, 2, 4 and 8.
+    */
+   public void testThroughputVersusWindowSize() throws Exception {
+      System.out.println("***TestDispatchWindow: testThroughputVersusWindowSize ...");
+      int[] windowSizes = { 1, 2, 4, 8 };
+      long[] elapsed = new long[windowSizes.length];
+      for (int i=0; i<windowSizes.length; i++)
+         elapsed[i] = run(windowSizes[i]);
+      StringBuffer buf = new StringBuffer();
+      for (int i=0; i<windowSizes.length; i++)
+         buf.append(" windowSize=").append(windowSizes[i]).append(": ").append(this.numMsgs*1000L/Math.max(1L,elapsed[i])).append(" msg/sec");
+      log.info("Throughput with " + (2*this.delay) + " ms round trip:" + buf.toString());
+      assertTrue("The window does not speed up delivery: " + buf.toString(), elapsed[windowSizes.length-1] < elapsed[0]);
+      System.out.println("***TestDispatchWindow: testThroughputVersusWindowSize [SUCCESS]");
+   }
+
+   /**
+    * Drops the connection while bulks are on the wire, the unacknowledged
+    * entries remain in the callback queue and are delivered after the reconnect.
+    */
+   public void testRedeliveryOnReconnect() throws Exception {
+      System.out.println("***TestDispatchWindow: testRedeliveryOnReconnect ...");
+      String oid = "TestDispatchWindow-reconnect";
+      UpdateCounter counter = new UpdateCounter();
+      I_XmlBlasterAccess con = connectSubscriber("windowReconnect", 4, counter);
+      con.subscribe("<key oid='" + oid + "'/>", "<qos/>");
+      publish(oid);
+      counter.waitOn(this.numMsgs/4, 60000L);
+      this.proxy.dropConnections();
+      log.info("Dropped connection after " + counter);
+      assertTrue("Missing messages after reconnect: " + counter, counter.waitOn(this.numMsgs, 60000L));
+      log.info("Received after reconnect: " + counter);
+      con.disconnect(null);
+      System.out.println("***TestDispatchWindow: testRedeliveryOnReconnect [SUCCESS]");
+   }
+
+   /**
+    * 5 entries of MAX_PRIORITY are on the wire, the 5 NORM_PRIORITY entries behind them
+    * are not claimable until the bulk is released: a worker started meanwhile would
+    * claim nothing and restart the next one immediately.
+    */
+   public void testMixedPriorities() throws Exception {
+      System.out.println("***TestDispatchWindow: testMixedPriorities ...");
+      Global glob = new Global(new String[0]);
+      RamQueuePlugin queue = new RamQueuePlugin();
+      CbQueueProperty prop = new CbQueueProperty(glob, Constants.RELATING_CALLBACK, "/node/test");
+      queue.initialize(new StorageId(glob, Constants.RELATING_CALLBACK, "mixedPriorities"), prop);
+      for (int i=0; i<5; i++) {
+         queue.put(new DummyEntry(glob, PriorityEnum.MAX_PRIORITY, queue.getStorageId(), 10, false), false);
+         queue.put(new DummyEntry(glob, PriorityEnum.NORM_PRIORITY, queue.getStorageId(), 10, false), false);
+      }
+      DispatchWindow window = new DispatchWindow(4);
+      assertTrue(window.hasUnclaimed(queue));
+      assertTrue(window.acquire());
+      List<I_Entry> high = window.claim(queue, 5, -1L);
+      assertEquals(5, high.size());
+      for (int i=0; i<high.size(); i++)
+         assertEquals(PriorityEnum.MAX_PRIORITY.getInt(), ((DummyEntry)high.get(i)).getPriority());
+
+      for (int i=0; i<3; i++) {
+         assertFalse("The lower priority is not claimable while the higher is on the wire: " + window, window.hasUnclaimed(queue));
+         assertTrue(window.acquire());
+         assertEquals(0, window.claim(queue, 5, -1L).size());
+         window.release(null);
+      }
+
+      queue.removeRandom((I_Entry[])high.toArray(new I_Entry[high.size()]));
+      window.release(high);
+      assertTrue(window.hasUnclaimed(queue));
+      assertTrue(window.acquire());
+      List<I_Entry> norm = window.claim(queue, 5, -1L);
+      assertEquals(5, norm.size());
+      for (int i=0; i<norm.size(); i++)
+         assertEquals(PriorityEnum.NORM_PRIORITY.getInt(), ((DummyEntry)norm.get(i)).getPriority());
+      assertFalse(window.hasUnclaimed(queue));
+      queue.removeRandom((I_Entry[])norm.toArray(new I_Entry[norm.size()]));
+      window.release(norm);
+      assertEquals(0, window.getNumInFlight());
+      assertFalse(window.hasUnclaimed(queue));
+      queue.shutdown();
+      System.out.println("***TestDispatchWindow: testMixedPriorities [SUCCESS]");
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.dispatch.TestDispatchWindow
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(TestDispatchWindow.class));
+   }
+}
@@ -0,0 +1,43 @@
+/*------------------------------------------------------------------------------
+Name:      UpdateCounter.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.dispatch;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.xmlBlaster.client.I_Callback;
+import org.xmlBlaster.client.key.UpdateKey;
+import org.xmlBlaster.client.qos.UpdateQos;
+
+/**
+ * Counts the different messages and the duplicates.
+ */
+class UpdateCounter implements I_Callback {
+   private final Set<String> received = new HashSet<String>();
+   private int numDuplicates;
+
+   public synchronized String update(String cbSessionId, UpdateKey updateKey, byte[] content, UpdateQos updateQos) {
+      if (!this.received.add(new String(content)))
+         this.numDuplicates++;
+      notifyAll();
+      return "";
+   }
+
+   public synchronized boolean waitOn(int num, long timeout) throws InterruptedException {
+      long end = System.currentTimeMillis() + timeout;
+      while (this.received.size() < num && System.currentTimeMillis() < end)
+         wait(100L);
+      return this.received.size() >= num;
+   }
+
+   public synchronized int getNumDuplicates() {
+      return this.numDuplicates;
+   }
+
+   public synchronized String toString() {
+      return "received=" + this.received.size() + " duplicates=" + this.numDuplicates;
+   }
+}
@@ -19,6 +19,8 @@ public class AllTests {
       suite.addTest(new TestSuite(org.xmlBlaster.test.stress.RamTest.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.stress.BigMessage.class));
       suite.addTest(new TestSuite(org.xmlBlaster.test.stress.MassiveSubTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.stress.SocketNioLoadTest.class));
+      suite.addTest(new TestSuite(org.xmlBlaster.test.stress.DispatchExecutorLoadTest.class));
       return suite;
    }
    // To force compilation:
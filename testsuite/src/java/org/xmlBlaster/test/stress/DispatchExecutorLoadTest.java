@@ -0,0 +1,161 @@
+/*------------------------------------------------------------------------------
+Name:      DispatchExecutorLoadTest.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Compare platform and virtual threads for callback dispatch
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.stress;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.engine.ServerScope;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.VirtualThreads;
+import org.xmlBlaster.util.dispatch.DispatchWorkerPool;
+
+import junit.framework.*;
+
+/**
+ * Simulates the callback dispatch of many sessions on one broker with the
+ * DispatchWorkerPool in platform thread mode and in virtual thread mode
+ * (<code>-dispatch/executor virtual</code>, needs JDK 21 or newer).
+ * <p />
+ * Each session delivers some callbacks, every callback blocks on a response
+ * latch like RequestReplyExecutor.requestAndBlockForReply() does while the
+ * client processes the update. Logged are the elapsed time, the peak number of
+ * threads, the heap and (on Linux) the context switches of the process.
+ * <p />
+ * Invoke:
+ * <pre>
+ * java junit.textui.TestRunner org.xmlBlaster.test.stress.DispatchExecutorLoadTest
+ * java -DnumSessions=10000 junit.textui.TestRunner org.xmlBlaster.test.stress.DispatchExecutorLoadTest
+ * </pre>
+ * @see org.xmlBlaster.util.VirtualThreads
+ */
+public class DispatchExecutorLoadTest extends TestCase
+{
+   private static Logger log = Logger.getLogger(DispatchExecutorLoadTest.class.getName());
+   private int numSessions = Integer.getInteger("numSessions", 10000).intValue();
+   private final int numCallbacks = 5;
+   private final long responseMillis = 20L;
+
+   public DispatchExecutorLoadTest(String testName) {
+      super(testName);
+   }
+
+   public void testPlatformThreads() throws Exception {
+      System.out.println("***DispatchExecutorLoadTest: testPlatformThreads ...");
+      runSessions(VirtualThreads.EXECUTOR_PLATFORM);
+      System.out.println("***DispatchExecutorLoadTest: testPlatformThreads [SUCCESS]");
+   }
+
+   public void testVirtualThreads() throws Exception {
+      System.out.println("***DispatchExecutorLoadTest: testVirtualThreads ...");
+      if (!VirtualThreads.isAvailable()) {
+         log.warning("Virtual threads need JDK 21 or newer, running java " + System.getProperty("java.version") + ", test skipped");
+         System.out.println("***DispatchExecutorLoadTest: testVirtualThreads [SKIPPED]");
+         return;
+      }
+      runSessions(VirtualThreads.EXECUTOR_VIRTUAL);
+      System.out.println("***DispatchExecutorLoadTest: testVirtualThreads [SUCCESS]");
+   }
+
+   private void runSessions(String executor) throws Exception {
+      ServerScope glob = new ServerScope();
+      glob.getProperty().set(VirtualThreads.EXECUTOR_PROPERTY, executor);
+      glob.getProperty().set("maximumPoolSize", "" + (this.numSessions + 100));
+      final DispatchWorkerPool pool = new DispatchWorkerPool(glob);
+
+      Util.gc(2);
+      long heapBefore = usedHeap();
+      long ctxBefore = contextSwitches();
+      final AtomicInteger peakThreads = new AtomicInteger();
+      final AtomicInteger delivered = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(this.numSessions);
+      long peakHeap = 0L;
+      long start = System.currentTimeMillis();
+
+      for (int i=0; i<this.numSessions; i++) {
+         boolean ok = pool.execute(new Runnable() {
+            public void run() {
+               try {
+                  for (int j=0; j<numCallbacks; j++) {
+                     // Waiting on the update() response of the client
+                     CountDownLatch response = new CountDownLatch(1);
+                     response.await(responseMillis, TimeUnit.MILLISECONDS);
+                     delivered.incrementAndGet();
+                  }
+               }
+               catch (InterruptedException e) {
+                  log.warning(e.toString());
+               }
+               finally {
+                  done.countDown();
+               }
+            }
+         });
+         assertTrue("execute failed for session #" + i + ": " + pool.getStatistic(), ok);
+      }
+      while (!done.await(10L, TimeUnit.MILLISECONDS)) {
+         int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+         if (threads > peakThreads.get()) peakThreads.set(threads);
+         peakHeap = Math.max(peakHeap, usedHeap());
+      }
+      long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+      long ctx = contextSwitches();
+      assertEquals(this.numSessions * this.numCallbacks, delivered.get());
+      log.info("executor=" + executor + " sessions=" + this.numSessions + " callbacks=" + delivered.get() +
+               " elapsed=" + elapsed + " millis peakThreads=" + peakThreads.get() +
+               " peakHeapIncrease=" + ((peakHeap - heapBefore)/1024L) + " kBytes" +
+               " contextSwitches=" + ((ctx < 0 || ctxBefore < 0) ? "n/a" : ""+(ctx - ctxBefore)));
+      pool.shutdown();
+      glob.shutdown();
+   }
+
+   private long usedHeap() {
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+   }
+
+   /**
+    * @return The sum of voluntary and nonvoluntary context switches of all living threads, -1 if not on Linux
+    */
+   private long contextSwitches() {
+      File[] tasks = new File("/proc/self/task").listFiles();
+      if (tasks == null)
+         return -1L;
+      long sum = 0L;
+      for (int i=0; i<tasks.length; i++) {
+         try {
+            BufferedReader in = new BufferedReader(new FileReader(new File(tasks[i], "status")));
+            try {
+               String line;
+               while ((line = in.readLine()) != null) {
+                  if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:"))
+                     sum += Long.parseLong(line.substring(line.indexOf(':')+1).trim());
+               }
+            }
+            finally {
+               in.close();
+            }
+         }
+         catch (Exception e) {
+            // thread has ended meanwhile
+         }
+      }
+      return sum;
+   }
+
+   /**
+    * Invoke: java -DnumSessions=10000 org.xmlBlaster.test.stress.DispatchExecutorLoadTest
+    */
+   public static void main(String args[]) {
+      junit.textui.TestRunner.run(new TestSuite(DispatchExecutorLoadTest.class));
+   }
+}
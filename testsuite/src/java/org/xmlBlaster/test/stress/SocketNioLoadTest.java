@@ -0,0 +1,227 @@
+/*------------------------------------------------------------------------------
+Name:      SocketNioLoadTest.java
+Project:   xmlBlaster.org
+Copyright: xmlBlaster.org, see xmlBlaster-LICENSE file
+Comment:   Compare the NIO mode of the SOCKET driver with thread per connection
+------------------------------------------------------------------------------*/
+package org.xmlBlaster.test.stress;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.xmlBlaster.client.I_XmlBlasterAccess;
+import org.xmlBlaster.client.key.PublishKey;
+import org.xmlBlaster.client.key.SubscribeKey;
+import org.xmlBlaster.client.qos.ConnectQos;
+import org.xmlBlaster.client.qos.PublishQos;
+import org.xmlBlaster.client.qos.SubscribeQos;
+import org.xmlBlaster.test.MsgInterceptor;
+import org.xmlBlaster.test.Util;
+import org.xmlBlaster.util.EmbeddedXmlBlaster;
+import org.xmlBlaster.util.Global;
+import org.xmlBlaster.util.MsgUnit;
+import org.xmlBlaster.util.def.MethodName;
+import org.xmlBlaster.util.xbformat.MsgInfo;
+import org.xmlBlaster.util.xbformat.XbfParser;
+
+import junit.framework.*;
+
+/**
+ * Compares the NIO mode of the SOCKET driver (<code>-plugin/socket/nio true</code>)
+ * with the classic thread per connection mode.
+ * <p />
+ * testWireCompatibility() uses the normal java client with all compression
+ * variants against the NIO server.
+ * <p />
+ * testConnectionsAndLatency() opens many raw connections to each variant
+ * and logs the server heap per connection (as connections per GB), the number of
+ * threads and the p50/p99 round trip latency of xbf ping messages.
+ * <p />
+ * Invoke:
+ * <pre>
+ * java junit.textui.TestRunner org.xmlBlaster.test.stress.SocketNioLoadTest
+ * java org.xmlBlaster.test.stress.SocketNioLoadTest -numConnections 2000
+ * </pre>
+ * @see org.xmlBlaster.protocol.socket.NioSocketServer
+ */
+public class SocketNioLoadTest extends TestCase
+{
+   private static Logger log = Logger.getLogger(SocketNioLoadTest.class.getName());
+   private Global glob;
+   private final int serverPort = 7654;
+   private EmbeddedXmlBlaster serverThread;
+   private int numConnections = 500;
+   private int numPings = 5000;
+
+   public SocketNioLoadTest(String testName) {
+      this(null, testName);
+   }
+
+   public SocketNioLoadTest(Global glob, String testName) {
+      super(testName);
+      this.glob = glob;
+   }
+
+   protected void setUp() {
+      this.glob = (this.glob == null) ? new Global() : this.glob;
+      this.numConnections = this.glob.getProperty().get("numConnections", this.numConnections);
+      this.numPings = this.glob.getProperty().get("numPings", this.numPings);
+   }
+
+   protected void tearDown() {
+      stopServer();
+      Util.resetPorts(this.glob);
+      this.glob = null;
+   }
+
+   private void startServer(boolean nio, String compress) {
+      String[] args = Util.getOtherServerPorts(this.serverPort, new String[] {
+            "-plugin/socket/nio", ""+nio,
+            "-plugin/socket/compress/type", compress,
+            "-plugin/socket/compress/minSize", "100" });
+      this.serverThread = EmbeddedXmlBlaster.startXmlBlaster(args);
+      log.info("XmlBlaster is ready with nio=" + nio + " compress='" + compress + "'");
+   }
+
+   private void stopServer() {
+      if (this.serverThread != null) {
+         EmbeddedXmlBlaster.stopXmlBlaster(this.serverThread);
+         this.serverThread = null;
+      }
+   }
+
+   /**
+    * Connect, subscribe and publish small and big messages with the normal client
+    * over the NIO server, with and without compression.
+    */
+   public void testWireCompatibility() throws Exception {
+      System.out.println("***SocketNioLoadTest: testWireCompatibility ...");
+      String[] compressTypes = { "", "zlib", "zlib:stream" };
+      for (int c=0; c<compressTypes.length; c++) {
+         String compress = compressTypes[c];
+         startServer(true, compress);
+         Global gg = this.glob.getClone(Util.getOtherServerPorts(this.serverPort, new String[] {
+               "-plugin/socket/compress/type", compress,
+               "-plugin/socket/compress/minSize", "100" }));
+         I_XmlBlasterAccess con = gg.getXmlBlasterAccess();
+         MsgInterceptor updateInterceptor = new MsgInterceptor(gg, log, null);
+         con.connect(new ConnectQos(gg, "nioTester", "secret"), updateInterceptor);
+         con.subscribe(new SubscribeKey(gg, "NioTopic"), new SubscribeQos(gg));
+
+         final int numMsgs = 20;
+         for (int i=0; i<numMsgs; i++) {
+            // every 5th message is bigger than the ZBlock buffer and the read buffer
+            byte[] content = new byte[(i % 5 == 0) ? 150*1024 : 10 + i];
+            Arrays.fill(content, (byte)('a' + (i % 26)));
+            content[0] = (byte)i;
+            con.publish(new MsgUnit(new PublishKey(gg, "NioTopic"), content, new PublishQos(gg)));
+         }
+         assertEquals("compress='" + compress + "'", numMsgs, updateInterceptor.waitOnUpdate(10000L, "NioTopic", null, numMsgs));
+         for (int i=0; i<numMsgs; i++) {
+            byte[] content = updateInterceptor.getMsgs("NioTopic", null)[i].getContent();
+            assertEquals((i % 5 == 0) ? 150*1024 : 10 + i, content.length);
+            assertEquals(i, content[0]);
+         }
+         con.disconnect(null);
+         stopServer();
+         log.info("Success for compress='" + compress + "'");
+      }
+      System.out.println("***SocketNioLoadTest: testWireCompatibility [SUCCESS]");
+   }
+
+   /**
+    * Open many connections to the classic and to the NIO server and log
+    * heap/threads per connection and the ping latency.
+    */
+   public void testConnectionsAndLatency() throws Exception {
+      System.out.println("***SocketNioLoadTest: testConnectionsAndLatency ...");
+      boolean[] modes = { false, true };
+      for (int m=0; m<modes.length; m++) {
+         boolean nio = modes[m];
+         startServer(nio, "");
+         int port = this.serverPort - 1;
+         byte[] ping = createPing();
+
+         Util.gc(4);
+         long heapBefore = usedHeap();
+         int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+         Socket[] sockets = new Socket[this.numConnections];
+         try {
+            for (int i=0; i<sockets.length; i++) {
+               sockets[i] = new Socket("localhost", port);
+               sockets[i].setTcpNoDelay(true);
+               pingRoundTrip(sockets[i], ping); // the server side is completely set up
+            }
+            Util.gc(4);
+            long heapPerConnection = Math.max(1L, (usedHeap() - heapBefore) / sockets.length);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+            long[] latencies = new long[this.numPings];
+            for (int i=0; i<latencies.length; i++) {
+               latencies[i] = pingRoundTrip(sockets[i % sockets.length], ping);
+            }
+            Arrays.sort(latencies);
+            log.info("nio=" + nio + " connections=" + sockets.length +
+                     " heap/connection=" + heapPerConnection + " bytes -> " + ((1024L*1024L*1024L) / heapPerConnection) + " connections/GB heap" +
+                     " additionalThreads=" + threads +
+                     " ping p50=" + (latencies[latencies.length/2]/1000L) + " micros" +
+                     " p99=" + (latencies[latencies.length*99/100]/1000L) + " micros");
+            if (nio)
+               assertTrue("NIO mode may not use a thread per connection: " + threads, threads < sockets.length / 2);
+         }
+         finally {
+            for (int i=0; i<sockets.length; i++) {
+               if (sockets[i] != null) sockets[i].close();
+            }
+            stopServer();
+         }
+      }
+      System.out.println("***SocketNioLoadTest: testConnectionsAndLatency [SUCCESS]");
+   }
+
+   private byte[] createPing() throws Exception {
+      MsgInfo msgInfo = new MsgInfo(this.glob, MsgInfo.INVOKE_BYTE, MethodName.PING, null);
+      msgInfo.setRequestId("1");
+      msgInfo.addMessage("<qos/>");
+      return msgInfo.createRawMsg(XbfParser.class.getName());
+   }
+
+   /**
+    * @return The round trip time in nanos
+    */
+   private long pingRoundTrip(Socket socket, byte[] ping) throws Exception {
+      long start = System.nanoTime();
+      OutputStream out = socket.getOutputStream();
+      out.write(ping);
+      out.flush();
+      InputStream in = socket.getInputStream();
+      MsgInfo[] response = MsgInfo.parse(this.glob, null, in, XbfParser.class.getName(), null);
+      long elapsed = System.nanoTime() - start;
+      assertEquals(1, response.length);
+      assertTrue("Expected ping response: " + response[0].toLiteral(), response[0].isResponse());
+      return elapsed;
+   }
+
+   private long usedHeap() {
+      return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+   }
+
+   /**
+    * Invoke: java org.xmlBlaster.test.stress.SocketNioLoadTest -numConnections 2000
+    */
+   public static void main(String args[]) {
+      Global glob = new Global();
+      if (glob.init(args) != 0) {
+         System.exit(0);
+      }
+      TestSuite suite = new TestSuite();
+      suite.addTest(new SocketNioLoadTest(glob, "testWireCompatibility"));
+      suite.addTest(new SocketNioLoadTest(glob, "testConnectionsAndLatency"));
+      junit.textui.TestRunner.run(suite);
+   }
+}